@@ -0,0 +1,715 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    Eclat.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.associations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.RevisionUtils;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.Utils;
+
+/**
+ * <!-- globalinfo-start --> Class implementing the Eclat algorithm for finding
+ * large item sets in the vertical data layout: each item is represented by the
+ * bit set of the transactions that contain it, and the support of an item set
+ * is found by intersecting these sets within equivalence classes of item sets
+ * sharing a prefix. Optionally uses diffsets (dEclat), which are smaller on
+ * dense data. Rules are generated and the minimum support is reduced as in
+ * FPGrowth. For more information see:<br/>
+ * <br/>
+ * Mohammed J. Zaki (2000). Scalable Algorithms for Association Mining. IEEE
+ * Transactions on Knowledge and Data Engineering. 12(3):372-390.<br/>
+ * <br/>
+ * Mohammed J. Zaki, Karam Gouda: Fast Vertical Mining Using Diffsets. In:
+ * Proceedings of the Ninth ACM SIGKDD International Conference on Knowledge
+ * Discovery and Data Mining, 326-335, 2003.
+ * <p/>
+ * <!-- globalinfo-end -->
+ *
+ * <!-- technical-bibtex-start --> BibTeX:
+ *
+ * <pre>
+ * &#64;article{Zaki2000,
+ *    author = {Mohammed J. Zaki},
+ *    journal = {IEEE Transactions on Knowledge and Data Engineering},
+ *    number = {3},
+ *    pages = {372-390},
+ *    title = {Scalable Algorithms for Association Mining},
+ *    volume = {12},
+ *    year = {2000}
+ * }
+ *
+ * &#64;inproceedings{Zaki2003,
+ *    author = {Mohammed J. Zaki and Karam Gouda},
+ *    booktitle = {Proceedings of the Ninth ACM SIGKDD International Conference on Knowledge Discovery and Data Mining},
+ *    pages = {326-335},
+ *    title = {Fast Vertical Mining Using Diffsets},
+ *    year = {2003}
+ * }
+ * </pre>
+ * <p/>
+ * <!-- technical-bibtex-end -->
+ *
+ * <!-- options-start --> Valid options are:
+ * <p/>
+ *
+ * <pre>
+ * -P &lt;attribute index of positive value&gt;
+ *  Set the index of the attribute value to consider as 'positive'
+ *  for binary attributes in normal dense instances. Index 2 is always
+ *  used for sparse instances. (default = 2)
+ * </pre>
+ *
+ * <pre>
+ * -I &lt;max items&gt;
+ *  The maximum number of items to include in large items sets (and rules). (default = -1, i.e. no limit.)
+ * </pre>
+ *
+ * <pre>
+ * -N &lt;require number of rules&gt;
+ *  The required number of rules. (default = 10)
+ * </pre>
+ *
+ * <pre>
+ * -T &lt;0=confidence | 1=lift | 2=leverage | 3=Conviction&gt;
+ *  The metric by which to rank rules. (default = confidence)
+ * </pre>
+ *
+ * <pre>
+ * -C &lt;minimum metric score of a rule&gt;
+ *  The minimum metric score of a rule. (default = 0.9)
+ * </pre>
+ *
+ * <pre>
+ * -U &lt;upper bound for minimum support&gt;
+ *  Upper bound for minimum support. (default = 1.0)
+ * </pre>
+ *
+ * <pre>
+ * -M &lt;lower bound for minimum support&gt;
+ *  The lower bound for the minimum support. (default = 0.1)
+ * </pre>
+ *
+ * <pre>
+ * -D &lt;delta for minimum support&gt;
+ *  The delta by which the minimum support is decreased in
+ *  each iteration. (default = 0.05)
+ * </pre>
+ *
+ * <pre>
+ * -S
+ *  Find all rules that meet the lower bound on
+ *  minimum support and the minimum metric constraint.
+ *  Turning this mode on will disable the iterative support reduction
+ *  procedure to find the specified number of rules.
+ * </pre>
+ *
+ * <pre>
+ * -transactions &lt;comma separated list of attribute names&gt;
+ *  Only consider transactions that contain these items (default = no restriction)
+ * </pre>
+ *
+ * <pre>
+ * -rules &lt;comma separated list of attribute names&gt;
+ *  Only print rules that contain these items. (default = no restriction)
+ * </pre>
+ *
+ * <pre>
+ * -use-or
+ *  Use OR instead of AND for must contain list(s). Use in conjunction
+ *  with -transactions and/or -rules
+ * </pre>
+ *
+ * <pre>
+ * -num-slots &lt;num&gt;
+ *  Number of execution slots.
+ *  (default 1 - i.e. no parallelism)
+ * </pre>
+ *
+ * <pre>
+ * -diffsets
+ *  Use diffsets instead of tidsets below the first level (dEclat).
+ * </pre>
+ *
+ * <!-- options-end -->
+ *
+ * @version $Revision$
+ */
+public class Eclat extends FPGrowth {
+
+  /** For serialization */
+  private static final long serialVersionUID = -3390458473530566410L;
+
+  /**
+   * An equivalence class: the items that extend a common prefix, with the
+   * support and the tidset (or diffset) of each extended item set.
+   */
+  protected static class EquivalenceClass {
+
+    /** The item ids, in ascending order */
+    protected int[] m_items;
+
+    /** The tidsets or diffsets of the item sets, as bit sets */
+    protected long[][] m_sets;
+
+    /** The supports of the item sets */
+    protected int[] m_supports;
+
+    /** The number of item sets in the class */
+    protected int m_size;
+
+    /** Whether the bit sets are diffsets rather than tidsets */
+    protected boolean m_diffsets;
+
+    /**
+     * Creates an empty class.
+     *
+     * @param capacity the maximum number of item sets.
+     * @param diffsets whether the bit sets are diffsets.
+     */
+    public EquivalenceClass(int capacity, boolean diffsets) {
+      m_items = new int[capacity];
+      m_sets = new long[capacity][];
+      m_supports = new int[capacity];
+      m_diffsets = diffsets;
+    }
+
+    /**
+     * Adds an item set to the class.
+     *
+     * @param item the last item of the item set.
+     * @param set the tidset or diffset of the item set.
+     * @param support the support of the item set.
+     */
+    public void add(int item, long[] set, int support) {
+      m_items[m_size] = item;
+      m_sets[m_size] = set;
+      m_supports[m_size] = support;
+      m_size++;
+    }
+
+    /**
+     * Returns the number of bits set.
+     *
+     * @param set the bit set.
+     * @return the number of bits set.
+     */
+    protected static int cardinality(long[] set) {
+      int result = 0;
+      for (long word : set) {
+        result += Long.bitCount(word);
+      }
+      return result;
+    }
+
+    /**
+     * Builds the class of the item sets that extend the item set at the given
+     * position with each of the following item sets, keeping the frequent
+     * ones.
+     *
+     * @param index the position of the item set to extend.
+     * @param diffsets whether the new class should use diffsets.
+     * @param minSupport the minimum support.
+     * @return the new class.
+     */
+    public EquivalenceClass extend(int index, boolean diffsets, int minSupport) {
+      EquivalenceClass result = new EquivalenceClass(m_size - index - 1,
+        diffsets);
+      long[] prefix = m_sets[index];
+      int prefixSupport = m_supports[index];
+      long[] set = null;
+      for (int j = index + 1; j < m_size; j++) {
+        long[] other = m_sets[j];
+        if (set == null) {
+          set = new long[prefix.length];
+        }
+        int support;
+        if (m_diffsets) {
+          // d(PXY) = d(PY) - d(PX)
+          for (int w = 0; w < set.length; w++) {
+            set[w] = other[w] & ~prefix[w];
+          }
+          support = prefixSupport - cardinality(set);
+        } else if (diffsets) {
+          // d(XY) = t(X) - t(Y)
+          for (int w = 0; w < set.length; w++) {
+            set[w] = prefix[w] & ~other[w];
+          }
+          support = prefixSupport - cardinality(set);
+        } else {
+          // t(XY) = t(X) & t(Y)
+          for (int w = 0; w < set.length; w++) {
+            set[w] = prefix[w] & other[w];
+          }
+          support = cardinality(set);
+        }
+
+        if (support > 0 && support >= minSupport) {
+          result.add(m_items[j], set, support);
+          set = null;
+        }
+      }
+      return result;
+    }
+  }
+
+  /** Whether to use diffsets below the first level */
+  protected boolean m_useDiffsets;
+
+  /**
+   * Returns a string describing this associator
+   *
+   * @return a description of the evaluator suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  @Override
+  public String globalInfo() {
+    return "Class implementing the Eclat algorithm for finding large item "
+      + "sets in the vertical data layout: each item is represented by the "
+      + "bit set of the transactions that contain it, and the support of an "
+      + "item set is found by intersecting these sets within equivalence "
+      + "classes of item sets sharing a prefix. Optionally uses diffsets "
+      + "(dEclat), which are smaller on dense data. Rules are generated and "
+      + "the minimum support is reduced as in FPGrowth."
+      + " For more information see:\n\n" + getTechnicalInformation().toString();
+  }
+
+  /**
+   * Returns an instance of a TechnicalInformation object, containing detailed
+   * information about the technical background of this class, e.g., paper
+   * reference or book this class is based on.
+   *
+   * @return the technical information about this class
+   */
+  @Override
+  public TechnicalInformation getTechnicalInformation() {
+    TechnicalInformation result;
+    TechnicalInformation additional;
+
+    result = new TechnicalInformation(Type.ARTICLE);
+    result.setValue(Field.AUTHOR, "Mohammed J. Zaki");
+    result.setValue(Field.TITLE, "Scalable Algorithms for Association Mining");
+    result.setValue(Field.JOURNAL,
+      "IEEE Transactions on Knowledge and Data Engineering");
+    result.setValue(Field.YEAR, "2000");
+    result.setValue(Field.VOLUME, "12");
+    result.setValue(Field.NUMBER, "3");
+    result.setValue(Field.PAGES, "372-390");
+
+    additional = result.add(Type.INPROCEEDINGS);
+    additional.setValue(Field.AUTHOR, "Mohammed J. Zaki and Karam Gouda");
+    additional.setValue(Field.TITLE, "Fast Vertical Mining Using Diffsets");
+    additional.setValue(Field.BOOKTITLE,
+      "Proceedings of the Ninth ACM SIGKDD International Conference on "
+        + "Knowledge Discovery and Data Mining");
+    additional.setValue(Field.YEAR, "2003");
+    additional.setValue(Field.PAGES, "326-335");
+
+    return result;
+  }
+
+  /**
+   * Reset all options to their default values.
+   */
+  @Override
+  public void resetOptions() {
+    super.resetOptions();
+    m_useDiffsets = false;
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String useDiffsetsTipText() {
+    return "Use diffsets, i.e., the transactions that an item set does not "
+      + "share with its prefix, instead of tidsets below the first level "
+      + "(dEclat). Diffsets are smaller on dense data.";
+  }
+
+  /**
+   * Set whether to use diffsets instead of tidsets.
+   *
+   * @param b true if diffsets should be used.
+   */
+  public void setUseDiffsets(boolean b) {
+    m_useDiffsets = b;
+  }
+
+  /**
+   * Get whether diffsets are used instead of tidsets.
+   *
+   * @return true if diffsets are used.
+   */
+  public boolean getUseDiffsets() {
+    return m_useDiffsets;
+  }
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   */
+  @Override
+  public Enumeration<Option> listOptions() {
+    Vector<Option> newVector = new Vector<Option>();
+
+    newVector.addAll(Collections.list(super.listOptions()));
+    newVector.add(new Option(
+      "\tUse diffsets instead of tidsets below the first level (dEclat).",
+      "diffsets", 0, "-diffsets"));
+
+    return newVector.elements();
+  }
+
+  /**
+   *
+   * Parses a given list of options.
+   * <p/>
+   *
+   * <!-- options-start --> Valid options are:
+   * <p/>
+   *
+   * <pre>
+   * -P &lt;attribute index of positive value&gt;
+   *  Set the index of the attribute value to consider as 'positive'
+   *  for binary attributes in normal dense instances. Index 2 is always
+   *  used for sparse instances. (default = 2)
+   * </pre>
+   *
+   * <pre>
+   * -I &lt;max items&gt;
+   *  The maximum number of items to include in large items sets (and rules). (default = -1, i.e. no limit.)
+   * </pre>
+   *
+   * <pre>
+   * -N &lt;require number of rules&gt;
+   *  The required number of rules. (default = 10)
+   * </pre>
+   *
+   * <pre>
+   * -T &lt;0=confidence | 1=lift | 2=leverage | 3=Conviction&gt;
+   *  The metric by which to rank rules. (default = confidence)
+   * </pre>
+   *
+   * <pre>
+   * -C &lt;minimum metric score of a rule&gt;
+   *  The minimum metric score of a rule. (default = 0.9)
+   * </pre>
+   *
+   * <pre>
+   * -U &lt;upper bound for minimum support&gt;
+   *  Upper bound for minimum support. (default = 1.0)
+   * </pre>
+   *
+   * <pre>
+   * -M &lt;lower bound for minimum support&gt;
+   *  The lower bound for the minimum support. (default = 0.1)
+   * </pre>
+   *
+   * <pre>
+   * -D &lt;delta for minimum support&gt;
+   *  The delta by which the minimum support is decreased in
+   *  each iteration. (default = 0.05)
+   * </pre>
+   *
+   * <pre>
+   * -S
+   *  Find all rules that meet the lower bound on
+   *  minimum support and the minimum metric constraint.
+   *  Turning this mode on will disable the iterative support reduction
+   *  procedure to find the specified number of rules.
+   * </pre>
+   *
+   * <pre>
+   * -transactions &lt;comma separated list of attribute names&gt;
+   *  Only consider transactions that contain these items (default = no restriction)
+   * </pre>
+   *
+   * <pre>
+   * -rules &lt;comma separated list of attribute names&gt;
+   *  Only print rules that contain these items. (default = no restriction)
+   * </pre>
+   *
+   * <pre>
+   * -use-or
+   *  Use OR instead of AND for must contain list(s). Use in conjunction
+   *  with -transactions and/or -rules
+   * </pre>
+   *
+   * <pre>
+   * -num-slots &lt;num&gt;
+   *  Number of execution slots.
+   *  (default 1 - i.e. no parallelism)
+   * </pre>
+   *
+   * <pre>
+   * -diffsets
+   *  Use diffsets instead of tidsets below the first level (dEclat).
+   * </pre>
+   *
+   * <!-- options-end -->
+   *
+   * @param options the list of options as an array of strings
+   * @throws Exception if an option is not supported
+   */
+  @Override
+  public void setOptions(String[] options) throws Exception {
+    super.setOptions(options);
+
+    setUseDiffsets(Utils.getFlag("diffsets", options));
+  }
+
+  /**
+   * Gets the current settings of the associator.
+   *
+   * @return an array of strings suitable for passing to setOptions
+   */
+  @Override
+  public String[] getOptions() {
+    ArrayList<String> options = new ArrayList<String>();
+
+    Collections.addAll(options, super.getOptions());
+    if (getUseDiffsets()) {
+      options.add("-diffsets");
+    }
+
+    return options.toArray(new String[0]);
+  }
+
+  /**
+   * Builds the tidsets of the frequent items. The items get ids in ascending
+   * order of frequency, and the transactions are numbered in the order they
+   * are read.
+   *
+   * @param items the frequent items, in ascending order of frequency.
+   * @param numAttributes the number of attributes.
+   * @param source the source of the transactions (either Instances or an
+   *          ArffLoader)
+   * @return the equivalence class of the single items
+   * @throws Exception if the transactions can't be read
+   */
+  protected EquivalenceClass buildTidsets(BinaryItem[] items,
+    int numAttributes, Object source) throws Exception {
+
+    int[] itemIds = new int[numAttributes];
+    Arrays.fill(itemIds, -1);
+    for (int i = 0; i < items.length; i++) {
+      itemIds[items[i].getAttribute().index()] = i;
+    }
+    int[] transaction = new int[items.length];
+    long[][] tidsets = new long[items.length][(m_numInstances + 63) >>> 6];
+
+    if (source instanceof Instances) {
+      Instances data = (Instances) source;
+      for (int i = 0; i < data.numInstances(); i++) {
+        int size = transactionItems(data.instance(i), itemIds, transaction);
+        for (int j = 0; j < size; j++) {
+          tidsets[transaction[j]][i >>> 6] |= 1L << i;
+        }
+      }
+    } else if (source instanceof weka.core.converters.ArffLoader) {
+      weka.core.converters.ArffLoader loader = (weka.core.converters.ArffLoader) source;
+      Instances structure = loader.getStructure();
+      Instance current = null;
+      int count = 0;
+      while ((current = loader.getNextInstance(structure)) != null) {
+        int size = transactionItems(current, itemIds, transaction);
+        for (int j = 0; j < size; j++) {
+          tidsets[transaction[j]][count >>> 6] |= 1L << count;
+        }
+        count++;
+        if (count % m_offDiskReportingFrequency == 0) {
+          System.err.println("build tidsets done: " + count);
+        }
+      }
+    }
+
+    EquivalenceClass result = new EquivalenceClass(items.length, false);
+    for (int i = 0; i < items.length; i++) {
+      result.add(i, tidsets[i], items[i].getFrequency());
+    }
+    return result;
+  }
+
+  /**
+   * Find the large item sets of an equivalence class and, recursively, of the
+   * classes formed by extending each of its item sets.
+   *
+   * @param items the items, indexed by their ids.
+   * @param eqClass the equivalence class.
+   * @param largeItemSets holds the large item sets found.
+   * @param recursionLevel the recursion level, i.e., the length of the prefix
+   *          of the class.
+   * @param prefix holds the ids of the items of the prefix.
+   * @param minSupport the minimum acceptable support.
+   */
+  protected void mineClass(BinaryItem[] items, EquivalenceClass eqClass,
+    FrequentItemSets largeItemSets, int recursionLevel, int[] prefix,
+    int minSupport) {
+    for (int i = 0; i < eqClass.m_size; i++) {
+      mineItemSet(items, eqClass, i, largeItemSets, recursionLevel, prefix,
+        minSupport);
+    }
+  }
+
+  /**
+   * Adds the item set at a position of an equivalence class to the large item
+   * sets and mines the class formed by extending it.
+   *
+   * @param items the items, indexed by their ids.
+   * @param eqClass the equivalence class.
+   * @param index the position of the item set.
+   * @param largeItemSets holds the large item sets found.
+   * @param recursionLevel the recursion level, i.e., the length of the prefix
+   *          of the class.
+   * @param prefix holds the ids of the items of the prefix.
+   * @param minSupport the minimum acceptable support.
+   */
+  protected void mineItemSet(BinaryItem[] items, EquivalenceClass eqClass,
+    int index, FrequentItemSets largeItemSets, int recursionLevel,
+    int[] prefix, int minSupport) {
+
+    prefix[recursionLevel] = eqClass.m_items[index];
+    ArrayList<BinaryItem> itemSet = new ArrayList<BinaryItem>(
+      recursionLevel + 1);
+    for (int i = 0; i <= recursionLevel; i++) {
+      itemSet.add(items[prefix[i]]);
+    }
+    largeItemSets.addItemSet(new FrequentBinaryItemSet(itemSet,
+      eqClass.m_supports[index]));
+
+    if (m_maxItems > 0 && recursionLevel + 1 >= m_maxItems) {
+      // don't mine any further
+      return;
+    }
+
+    EquivalenceClass extended = eqClass.extend(index, m_useDiffsets,
+      minSupport);
+    if (extended.m_size > 0) {
+      mineClass(items, extended, largeItemSets, recursionLevel + 1, prefix,
+        minSupport);
+    }
+  }
+
+  /**
+   * Finds the large item sets by intersecting the tidsets of the items. With
+   * more than one execution slot, the equivalence classes of the single items
+   * are mined concurrently; the item sets of each class are collected in their
+   * own list, and the lists are concatenated in the order of the classes.
+   *
+   * @param singletons the singleton item sets
+   * @param source the source of the transactions (either Instances or an
+   *          ArffLoader)
+   * @param minSupport the minimum support
+   * @return the large item sets
+   * @throws Exception if the transactions can't be read
+   */
+  @Override
+  protected FrequentItemSets findLargeItemSets(
+    ArrayList<BinaryItem> singletons, Object source, final int minSupport)
+    throws Exception {
+
+    ArrayList<BinaryItem> frequent = new ArrayList<BinaryItem>();
+    for (BinaryItem b : singletons) {
+      if (b.getFrequency() > 0 && b.getFrequency() >= minSupport) {
+        frequent.add(b);
+      }
+    }
+    // intersections shrink fastest when starting with the rarest items
+    Collections.sort(frequent);
+    Collections.reverse(frequent);
+    final BinaryItem[] items = frequent.toArray(new BinaryItem[frequent
+      .size()]);
+    final EquivalenceClass singles = buildTidsets(items, singletons.size(),
+      source);
+
+    if (source instanceof weka.core.converters.ArffLoader) {
+      System.err.println("Mining tidsets for min supp " + minSupport);
+    }
+
+    FrequentItemSets largeItemSets = new FrequentItemSets(m_numInstances);
+    if (m_executionSlots <= 1) {
+      mineClass(items, singles, largeItemSets, 0, new int[items.length],
+        minSupport);
+      return largeItemSets;
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(m_executionSlots);
+    try {
+      List<ForkJoinTask<FrequentItemSets>> tasks = new ArrayList<ForkJoinTask<FrequentItemSets>>();
+      for (int i = 0; i < singles.m_size; i++) {
+        final int index = i;
+        tasks.add(pool.submit(new Callable<FrequentItemSets>() {
+          @Override
+          public FrequentItemSets call() {
+            FrequentItemSets sets = new FrequentItemSets(m_numInstances);
+            mineItemSet(items, singles, index, sets, 0,
+              new int[items.length], minSupport);
+            return sets;
+          }
+        }));
+      }
+      for (ForkJoinTask<FrequentItemSets> task : tasks) {
+        largeItemSets.addItemSets(task.join());
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    return largeItemSets;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args the commandline options
+   */
+  public static void main(String[] args) {
+    runAssociator(new Eclat(), args);
+  }
+}
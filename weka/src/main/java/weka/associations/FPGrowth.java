@@ -23,17 +23,19 @@ package weka.associations;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import weka.core.Attribute;
 import weka.core.Capabilities;
@@ -147,6 +149,12 @@ import weka.core.Utils;
  *  with -transactions and/or -rules
  * </pre>
  * 
+ * <pre>
+ * -num-slots &lt;num&gt;
+ *  Number of execution slots.
+ *  (default 1 - i.e. no parallelism)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
@@ -331,6 +339,15 @@ public class FPGrowth extends AbstractAssociator implements
       m_sets.add(setToAdd);
     }
 
+    /**
+     * Add all the item sets of another list, in their order.
+     * 
+     * @param setsToAdd the list of item sets to add.
+     */
+    public void addItemSets(FrequentItemSets setsToAdd) {
+      m_sets.addAll(setsToAdd.m_sets);
+    }
+
     /**
      * Sort the item sets according to the supplied comparator.
      * 
@@ -425,365 +442,319 @@ public class FPGrowth extends AbstractAssociator implements
   }
 
   /**
-   * This class holds the counts for projected tree nodes and header lists.
-   */
-  protected static class ShadowCounts implements Serializable {
-
-    /** For serialization */
-    private static final long serialVersionUID = 4435433714185969155L;
-
-    /** Holds the counts at different recursion levels */
-    private final ArrayList<Integer> m_counts = new ArrayList<Integer>();
-
-    /**
-     * Get the count at the specified recursion depth.
-     * 
-     * @param recursionLevel the depth of the recursion.
-     * @return the count.
-     */
-    public int getCount(int recursionLevel) {
-      if (recursionLevel >= m_counts.size()) {
-        return 0;
-      } else {
-        return m_counts.get(recursionLevel);
-      }
-    }
-
-    /**
-     * Increase the count at a given recursion level.
-     * 
-     * @param recursionLevel the level at which to increase the count.
-     * @param incr the amount by which to increase the count.
-     */
-    public void increaseCount(int recursionLevel, int incr) {
-      // basically treat the list like a stack where we
-      // can add a new element, or increment the element
-      // at the top
-
-      if (recursionLevel == m_counts.size()) {
-        // new element
-        m_counts.add(incr);
-      } else if (recursionLevel == m_counts.size() - 1) {
-        // otherwise increment the top
-        int n = m_counts.get(recursionLevel).intValue();
-        m_counts.set(recursionLevel, (n + incr));
-      }
-    }
-
-    /**
-     * Remove the count at the given recursion level.
-     * 
-     * @param recursionLevel the level at which to remove the count.
-     */
-    public void removeCount(int recursionLevel) {
-      if (recursionLevel < m_counts.size()) {
-        m_counts.remove(recursionLevel);
-      }
-    }
-  }
-
-  /**
-   * A node in the FP-tree.
+   * A compact FP-tree. Items are identified by int ids, assigned in descending
+   * order of frequency, and the nodes are kept in parallel primitive arrays
+   * (parent, item, count and the link to the next node with the same item), so
+   * that neither building nor mining the tree creates an object per node. Node
+   * 0 is the root. A tree can be reused for the conditional trees of a
+   * recursion level, since resetting it keeps the allocated arrays.
    */
-  protected static class FPTreeNode implements Serializable {
+  protected static class FPTree implements Serializable {
 
     /** For serialization */
-    private static final long serialVersionUID = 4396315323673737660L;
-
-    /** link to another sibling at this level in the tree */
-    protected FPTreeNode m_levelSibling;
+    private static final long serialVersionUID = -8364227208437385342L;
 
-    /** link to the parent node */
-    protected FPTreeNode m_parent;
+    /** The items, indexed by their ids */
+    protected BinaryItem[] m_items;
 
-    /** item at this node */
-    protected BinaryItem m_item;
+    /** The number of item ids that may occur in this tree */
+    protected int m_numItems;
 
-    /** ID (for graphing the tree) */
-    protected int m_ID;
-
-    /** the children of this node */
-    protected Map<BinaryItem, FPTreeNode> m_children = new HashMap<BinaryItem, FPTreeNode>();
-
-    /** counts associated with projected versions of this node */
-    protected ShadowCounts m_projectedCounts = new ShadowCounts();
-
-    /**
-     * Construct a new node with the given parent link and item.
-     * 
-     * @param parent a pointer to the parent of this node.
-     * @param item the item at this node.
-     */
-    public FPTreeNode(FPTreeNode parent, BinaryItem item) {
-      m_parent = parent;
-      m_item = item;
-    }
+    /** The parent of each node */
+    protected int[] m_parent;
 
-    /**
-     * Insert an item set into the tree at this node. Removes the first item
-     * from the supplied item set and makes a recursive call to insert the
-     * remaining items.
-     * 
-     * @param itemSet the item set to insert.
-     * @param headerTable the header table for the tree.
-     * @param incr the amount by which to increase counts.
-     */
-    public void addItemSet(Collection<BinaryItem> itemSet,
-      Map<BinaryItem, FPTreeRoot.Header> headerTable, int incr) {
+    /** The item id of each node */
+    protected int[] m_item;
 
-      Iterator<BinaryItem> i = itemSet.iterator();
+    /** The count of each node */
+    protected int[] m_count;
 
-      if (i.hasNext()) {
-        BinaryItem first = i.next();
+    /** The next node with the same item, 0 at the end of the list */
+    protected int[] m_next;
 
-        FPTreeNode aChild;
-        if (!m_children.containsKey(first)) {
-          // not in the tree, so add it.
-          aChild = new FPTreeNode(this, first);
-          m_children.put(first, aChild);
+    /** The slot of the child table holding each node */
+    protected int[] m_slot;
 
-          // update the header
-          if (!headerTable.containsKey(first)) {
-            headerTable.put(first, new FPTreeRoot.Header());
-          }
+    /** The number of nodes, including the root */
+    protected int m_numNodes;
 
-          // append new node to header list
-          headerTable.get(first).addToList(aChild);
-        } else {
-          // get the appropriate child node
-          aChild = m_children.get(first);
-        }
+    /** The first node of each item's node list, 0 if the item does not occur */
+    protected int[] m_head;
 
-        // update counts in header table
-        headerTable.get(first).getProjectedCounts().increaseCount(0, incr);
+    /** The support of each item, i.e., the sum of the counts of its nodes */
+    protected int[] m_support;
 
-        // increase the child's count
-        aChild.increaseProjectedCount(0, incr);
+    /** Hash table holding the node plus one for a (parent, item) pair */
+    protected int[] m_table;
 
-        // proceed recursively
-        itemSet.remove(first);
-        aChild.addItemSet(itemSet, headerTable, incr);
-      }
-    }
+    /** Scratch space for the counts of a conditional pattern base */
+    protected int[] m_baseCounts;
 
-    /**
-     * Increase the projected count at the given recursion level at this node
-     * 
-     * @param recursionLevel the recursion level to increase the node count at.
-     * @param incr the amount by which to increase the count.
-     */
-    public void increaseProjectedCount(int recursionLevel, int incr) {
-      m_projectedCounts.increaseCount(recursionLevel, incr);
-    }
+    /** Scratch space for a path of item ids */
+    protected int[] m_path;
 
     /**
-     * Remove the projected count at the given recursion level for this node.
-     * 
-     * @param recursionLevel the recursion level at which to remove the count.
+     * Creates an empty tree.
+     *
+     * @param items the items, indexed by their ids.
+     * @param numItems the number of item ids that may occur in the tree.
+     * @param capacity the initial number of nodes to make room for.
      */
-    public void removeProjectedCount(int recursionLevel) {
-      m_projectedCounts.removeCount(recursionLevel);
+    public FPTree(BinaryItem[] items, int numItems, int capacity) {
+      m_items = items;
+      capacity = Math.max(capacity, 16);
+      m_parent = new int[capacity];
+      m_item = new int[capacity];
+      m_count = new int[capacity];
+      m_next = new int[capacity];
+      m_slot = new int[capacity];
+      m_table = new int[Integer.highestOneBit(capacity - 1) << 2];
+      m_head = new int[0];
+      m_support = new int[0];
+      m_baseCounts = new int[0];
+      m_path = new int[0];
+      reset(numItems);
     }
 
     /**
-     * Get the projected count at the given recursion level for this node.
-     * 
-     * @param recursionLevel the recursion level at which to get the count.
-     * @return the count.
+     * Empties the tree, keeping the allocated space.
+     *
+     * @param numItems the number of item ids that may occur in the tree.
      */
-    public int getProjectedCount(int recursionLevel) {
-      return m_projectedCounts.getCount(recursionLevel);
+    public void reset(int numItems) {
+      for (int n = 1; n < m_numNodes; n++) {
+        m_table[m_slot[n]] = 0;
+      }
+      m_numNodes = 1;
+      m_parent[0] = -1;
+      m_item[0] = -1;
+      m_count[0] = 0;
+
+      m_numItems = numItems;
+      if (m_head.length < numItems) {
+        m_head = new int[numItems];
+        m_support = new int[numItems];
+        m_baseCounts = new int[numItems];
+        m_path = new int[numItems];
+      } else {
+        Arrays.fill(m_head, 0, numItems, 0);
+        Arrays.fill(m_support, 0, numItems, 0);
+      }
     }
 
     /**
-     * Get the parent node.
-     * 
-     * @return the parent node.
+     * Returns the slot of the child table for a node with the given parent
+     * and item, or the empty slot where it would go.
+     *
+     * @param parent the parent node.
+     * @param item the item id.
+     * @return the slot.
      */
-    public FPTreeNode getParent() {
-      return m_parent;
+    protected int slot(int parent, int item) {
+      int mask = m_table.length - 1;
+      int h = (parent * 31 + item) * 0x9E3779B9;
+      int slot = (h ^ (h >>> 16)) & mask;
+      int n;
+      while ((n = m_table[slot]) != 0
+        && (m_parent[n - 1] != parent || m_item[n - 1] != item)) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
     }
 
     /**
-     * Get the item at this node.
-     * 
-     * @return the item at this node.
+     * Doubles the space for nodes and rebuilds the child table.
      */
-    public BinaryItem getItem() {
-      return m_item;
+    protected void grow() {
+      int capacity = 2 * m_parent.length;
+      m_parent = Arrays.copyOf(m_parent, capacity);
+      m_item = Arrays.copyOf(m_item, capacity);
+      m_count = Arrays.copyOf(m_count, capacity);
+      m_next = Arrays.copyOf(m_next, capacity);
+      m_slot = Arrays.copyOf(m_slot, capacity);
+      m_table = new int[2 * m_table.length];
+      for (int n = 1; n < m_numNodes; n++) {
+        int slot = slot(m_parent[n], m_item[n]);
+        m_table[slot] = n + 1;
+        m_slot[n] = slot;
+      }
     }
 
     /**
-     * Return a textual description of this node for a given recursion level.
-     * 
-     * @param recursionLevel the recursion depth to use.
-     * @return a textual description of this node.
+     * Inserts a path of items into the tree.
+     *
+     * @param items holds the item ids, in ascending order.
+     * @param from the position of the first item of the path.
+     * @param to the position after the last item of the path.
+     * @param count the amount by which to increase the counts.
      */
-    public String toString(int recursionLevel) {
-      return toString("", recursionLevel);
+    public void addPath(int[] items, int from, int to, int count) {
+      int node = 0;
+      for (int i = from; i < to; i++) {
+        int item = items[i];
+        int slot = slot(node, item);
+        int child = m_table[slot] - 1;
+        if (child < 0) {
+          if (m_numNodes == m_parent.length) {
+            grow();
+            slot = slot(node, item);
+          }
+          child = m_numNodes++;
+          m_parent[child] = node;
+          m_item[child] = item;
+          m_count[child] = 0;
+          m_next[child] = m_head[item];
+          m_head[item] = child;
+          m_table[slot] = child + 1;
+          m_slot[child] = slot;
+        }
+        m_count[child] += count;
+        m_support[item] += count;
+        node = child;
+      }
     }
 
     /**
-     * Return a textual description of this node for a given recursion level.
-     * 
-     * @param prefix a prefix string to prepend.
-     * @param recursionLevel the recursion level to use.
-     * @return a textual description of this node.
+     * Makes this tree the conditional FP-tree of an item of another tree. The
+     * prefix paths of the item's nodes are inserted, restricted to the items
+     * that are frequent within them.
+     *
+     * @param tree the tree to project.
+     * @param item the item id whose conditional tree to build.
+     * @param minSupport the minimum support of an item in the conditional
+     *          tree.
      */
-    public String toString(String prefix, int recursionLevel) {
-      StringBuffer buffer = new StringBuffer();
-      buffer.append(prefix);
-      buffer.append("|  ");
-      buffer.append(m_item.toString());
-      buffer.append(" (");
-      buffer.append(m_projectedCounts.getCount(recursionLevel));
-      buffer.append(")\n");
-
-      for (FPTreeNode node : m_children.values()) {
-        buffer.append(node.toString(prefix + "|  ", recursionLevel));
+    public void project(FPTree tree, int item, int minSupport) {
+      reset(item);
+
+      int[] parent = tree.m_parent;
+      int[] itemIds = tree.m_item;
+      int[] baseCounts = m_baseCounts;
+      Arrays.fill(baseCounts, 0, item, 0);
+      for (int n = tree.m_head[item]; n != 0; n = tree.m_next[n]) {
+        int count = tree.m_count[n];
+        for (int p = parent[n]; p != 0; p = parent[p]) {
+          baseCounts[itemIds[p]] += count;
+        }
       }
-      return buffer.toString();
-    }
 
-    protected int assignIDs(int lastID) {
-      int currentLastID = lastID + 1;
-      m_ID = currentLastID;
-      if (m_children != null) {
-        Collection<FPTreeNode> kids = m_children.values();
-        for (FPTreeNode n : kids) {
-          currentLastID = n.assignIDs(currentLastID);
+      int[] path = m_path;
+      for (int n = tree.m_head[item]; n != 0; n = tree.m_next[n]) {
+        // the ids decrease towards the root, so fill the path from the back
+        int from = item;
+        for (int p = parent[n]; p != 0; p = parent[p]) {
+          if (baseCounts[itemIds[p]] >= minSupport) {
+            path[--from] = itemIds[p];
+          }
+        }
+        if (from < item) {
+          addPath(path, from, item, tree.m_count[n]);
         }
       }
-      return currentLastID;
     }
 
     /**
-     * Generate a dot graph description string for the tree.
-     * 
-     * @param text a StringBuffer to store the graph description in.
+     * Get the number of item ids that may occur in this tree.
+     *
+     * @return the number of item ids.
      */
-    public void graphFPTree(StringBuffer text) {
-      if (m_children != null) {
-        Collection<FPTreeNode> kids = m_children.values();
-        for (FPTreeNode n : kids) {
-          text.append("N" + n.m_ID);
-          text.append(" [label=\"");
-          text.append(n.getItem().toString() + " (" + n.getProjectedCount(0)
-            + ")\\n");
-          text.append("\"]\n");
-          n.graphFPTree(text);
-          text.append("N" + m_ID + "->" + "N" + n.m_ID + "\n");
-        }
-      }
+    public int numItems() {
+      return m_numItems;
     }
-  }
-
-  /**
-   * Root of the FPTree
-   */
-  private static class FPTreeRoot extends FPTreeNode {
-
-    /** For serialization */
-    private static final long serialVersionUID = 632150939785333297L;
 
     /**
-     * Stores a header entry for an FPTree
+     * Get the support of an item in this tree.
+     *
+     * @param item the item id.
+     * @return the support of the item.
      */
-    protected static class Header implements Serializable {
-
-      /** For serialization */
-      private static final long serialVersionUID = -6583156284891368909L;
-
-      /** The list of pointers into the tree structure */
-      protected List<FPTreeNode> m_headerList = new LinkedList<FPTreeNode>();
-
-      /** Projected header counts for this entry */
-      protected ShadowCounts m_projectedHeaderCounts = new ShadowCounts();
-
-      /**
-       * Add a tree node into the list for this header entry.
-       * 
-       * @param toAdd the node to add.
-       */
-      public void addToList(FPTreeNode toAdd) {
-        m_headerList.add(toAdd);
-      }
-
-      /**
-       * Get the list of nodes for this header entry.
-       * 
-       * @return the list of nodes for this header entry.
-       */
-      public List<FPTreeNode> getHeaderList() {
-        return m_headerList;
-      }
-
-      /**
-       * Get the projected counts for this header entry.
-       * 
-       * @return the projected counts for this header entry.
-       */
-      public ShadowCounts getProjectedCounts() {
-        return m_projectedHeaderCounts;
-      }
+    public int support(int item) {
+      return m_support[item];
     }
 
-    /** Stores the header table as mapped Header entries */
-    protected Map<BinaryItem, Header> m_headerTable = new HashMap<BinaryItem, Header>();
-
     /**
-     * Create a new FPTreeRoot.
+     * Get the number of nodes of this tree, including the root.
+     *
+     * @return the number of nodes.
      */
-    public FPTreeRoot() {
-      super(null, null);
+    public int numNodes() {
+      return m_numNodes;
     }
 
     /**
-     * Insert an item set into the tree.
-     * 
-     * @param itemSet the item set to insert into the tree.
-     * @param incr the increment by which to increase counters.
+     * Returns whether the tree has no nodes besides the root.
+     *
+     * @return true if the tree is empty.
      */
-    public void addItemSet(Collection<BinaryItem> itemSet, int incr) {
-      super.addItemSet(itemSet, m_headerTable, incr);
+    public boolean isEmpty() {
+      return m_numNodes == 1;
     }
 
     /**
-     * Get the header table for this tree.
-     * 
-     * @return the header table for this tree.
+     * Creates the frequent item set for a list of item ids.
+     *
+     * @param itemIds the item ids, in descending order.
+     * @param numItems the number of item ids to use.
+     * @param support the support of the item set.
+     * @return the item set.
      */
-    public Map<BinaryItem, Header> getHeaderTable() {
-      return m_headerTable;
+    public FrequentBinaryItemSet itemSet(int[] itemIds, int numItems,
+      int support) {
+      ArrayList<BinaryItem> items = new ArrayList<BinaryItem>(numItems);
+      for (int i = numItems - 1; i >= 0; i--) {
+        items.add(m_items[itemIds[i]]);
+      }
+      return new FrequentBinaryItemSet(items, support);
     }
 
-    public boolean isEmpty(int recursionLevel) {
-      for (FPTreeNode c : m_children.values()) {
-        if (c.getProjectedCount(recursionLevel) > 0) {
-          return false;
-        }
+    /**
+     * Generate a dot graph description string for the tree.
+     *
+     * @param text a StringBuffer to store the graph description in.
+     */
+    public void graphFPTree(StringBuffer text) {
+      for (int n = 1; n < m_numNodes; n++) {
+        text.append("N" + n);
+        text.append(" [label=\"");
+        text.append(m_items[m_item[n]].toString() + " (" + m_count[n]
+          + ")\\n");
+        text.append("\"]\n");
+        text.append("N" + m_parent[n] + "->" + "N" + n + "\n");
       }
-      return true;
     }
 
     /**
-     * Get a textual description of the tree at a given recursion (projection)
-     * level.
-     * 
-     * @param pad the string to use as a prefix for indenting nodes.
-     * @param recursionLevel the recursion level (projection) to use.
+     * Get a textual description of the tree.
+     *
      * @return the textual description of the tree.
      */
     @Override
-    public String toString(String pad, int recursionLevel) {
+    public String toString() {
       StringBuffer result = new StringBuffer();
-      result.append(pad);
       result.append("+ ROOT\n");
+      toString(result, 0, "|  ");
+      return result.toString();
+    }
 
-      for (FPTreeNode node : m_children.values()) {
-        result.append(node.toString(pad + "|  ", recursionLevel));
+    /**
+     * Append a textual description of the subtrees below a node.
+     *
+     * @param buffer the buffer to append to.
+     * @param node the node whose children to describe.
+     * @param prefix the string to use as a prefix for indenting nodes.
+     */
+    protected void toString(StringBuffer buffer, int node, String prefix) {
+      for (int n = node + 1; n < m_numNodes; n++) {
+        if (m_parent[n] == node) {
+          buffer.append(prefix);
+          buffer.append("|  ");
+          buffer.append(m_items[m_item[n]].toString());
+          buffer.append(" (");
+          buffer.append(m_count[n]);
+          buffer.append(")\n");
+          toString(buffer, n, prefix + "|  ");
+        }
       }
-      return result.toString();
     }
   }
 
@@ -910,6 +881,18 @@ public class FPGrowth extends AbstractAssociator implements
     return result;
   }
 
+  /**
+   * The minimum number of nodes of a conditional tree for mining its own
+   * conditional trees concurrently.
+   */
+  protected static final int MIN_PARALLEL_NODES = 1000;
+
+  /**
+   * The minimum number of nodes of a conditional tree for mining its own
+   * conditional trees concurrently, MIN_PARALLEL_NODES by default.
+   */
+  protected int m_minParallelNodes = MIN_PARALLEL_NODES;
+
   /** The number of rules to find */
   protected int m_numRulesToFind = 10;
   // protected double m_upperBoundMinSupport = 0.36;
@@ -969,6 +952,9 @@ public class FPGrowth extends AbstractAssociator implements
   /** If set, then only output rules containing these itmes */
   protected String m_rulesMustContain = "";
 
+  /** The number of conditional trees to mine in parallel */
+  protected int m_executionSlots = 1;
+
   /**
    * Returns default capabilities of the classifier.
    * 
@@ -1194,55 +1180,82 @@ public class FPGrowth extends AbstractAssociator implements
    */
 
   /**
-   * Inserts a single instance into the FPTree.
-   * 
-   * @param current the instance to insert
-   * @param singletons the singleton item sets
-   * @param tree the tree to insert into
-   * @param minSupport the minimum support threshold
+   * Gets the ids of the items in a single instance, in ascending order.
+   *
+   * @param current the instance
+   * @param itemIds the item id of each attribute, -1 if it is not frequent
+   * @param transaction space for the item ids of the transaction
+   * @return the number of item ids
    */
-  private void insertInstance(Instance current,
-    ArrayList<BinaryItem> singletons, FPTreeRoot tree, int minSupport) {
-    ArrayList<BinaryItem> transaction = new ArrayList<BinaryItem>();
+  protected int transactionItems(Instance current, int[] itemIds,
+    int[] transaction) {
+    int size = 0;
     if (current instanceof SparseInstance) {
       for (int j = 0; j < current.numValues(); j++) {
-        int attIndex = current.index(j);
-        if (singletons.get(attIndex).getFrequency() >= minSupport) {
-          transaction.add(singletons.get(attIndex));
+        int id = itemIds[current.index(j)];
+        if (id >= 0) {
+          transaction[size++] = id;
         }
       }
-      Collections.sort(transaction);
-      tree.addItemSet(transaction, 1);
     } else {
       for (int j = 0; j < current.numAttributes(); j++) {
-        if (!current.isMissing(j)) {
+        if (itemIds[j] >= 0 && !current.isMissing(j)) {
           if (current.attribute(j).numValues() == 1
             || current.value(j) == m_positiveIndex - 1) {
-            if (singletons.get(j).getFrequency() >= minSupport) {
-              transaction.add(singletons.get(j));
-            }
+            transaction[size++] = itemIds[j];
           }
         }
       }
-      Collections.sort(transaction);
-      tree.addItemSet(transaction, 1);
     }
+    Arrays.sort(transaction, 0, size);
+    return size;
+  }
+
+  /**
+   * Inserts a single instance into the FPTree.
+   *
+   * @param current the instance to insert
+   * @param itemIds the item id of each attribute, -1 if it is not frequent
+   * @param transaction space for the item ids of the transaction
+   * @param tree the tree to insert into
+   */
+  private void insertInstance(Instance current, int[] itemIds,
+    int[] transaction, FPTree tree) {
+    tree.addPath(transaction, 0,
+      transactionItems(current, itemIds, transaction), 1);
   }
 
   /**
    * Construct the frequent pattern tree by inserting each transaction in the
    * data into the tree. Only those items from each transaction that meet the
-   * minimum support threshold are inserted.
-   * 
+   * minimum support threshold are inserted. The frequent items get ids in the
+   * order of their sorting, i.e., by descending frequency.
+   *
    * @param singletons the singleton item sets
-   * @param data the Instances containing the transactions
+   * @param dataSource the source of the transactions (either Instances or an
+   *          ArffLoader)
    * @param minSupport the minimum support
-   * @return the root of the tree
+   * @return the tree
    */
-  protected FPTreeRoot buildFPTree(ArrayList<BinaryItem> singletons,
+  protected FPTree buildFPTree(ArrayList<BinaryItem> singletons,
     Object dataSource, int minSupport) throws Exception {
 
-    FPTreeRoot tree = new FPTreeRoot();
+    ArrayList<BinaryItem> frequent = new ArrayList<BinaryItem>();
+    for (BinaryItem b : singletons) {
+      if (b.getFrequency() >= minSupport) {
+        frequent.add(b);
+      }
+    }
+    Collections.sort(frequent);
+
+    BinaryItem[] items = frequent.toArray(new BinaryItem[frequent.size()]);
+    int[] itemIds = new int[singletons.size()];
+    Arrays.fill(itemIds, -1);
+    for (int i = 0; i < items.length; i++) {
+      itemIds[items[i].getAttribute().index()] = i;
+    }
+    int[] transaction = new int[items.length];
+
     Instances data = null;
     if (dataSource instanceof Instances) {
       data = (Instances) dataSource;
@@ -1250,16 +1263,17 @@ public class FPGrowth extends AbstractAssociator implements
       data = ((weka.core.converters.ArffLoader) dataSource).getStructure();
     }
 
+    FPTree tree = new FPTree(items, items.length, 1024);
     if (dataSource instanceof Instances) {
       for (int i = 0; i < data.numInstances(); i++) {
-        insertInstance(data.instance(i), singletons, tree, minSupport);
+        insertInstance(data.instance(i), itemIds, transaction, tree);
       }
     } else if (dataSource instanceof weka.core.converters.ArffLoader) {
       weka.core.converters.ArffLoader loader = (weka.core.converters.ArffLoader) dataSource;
       Instance current = null;
       int count = 0;
       while ((current = loader.getNextInstance(data)) != null) {
-        insertInstance(current, singletons, tree, minSupport);
+        insertInstance(current, itemIds, transaction, tree);
         count++;
         if (count % m_offDiskReportingFrequency == 0) {
           System.err.println("build tree done: " + count);
@@ -1271,118 +1285,180 @@ public class FPGrowth extends AbstractAssociator implements
   }
 
   /**
-   * Construct the frequent pattern tree by inserting each transaction in the
-   * data into the tree. Only those items from each transaction that meet the
-   * minimum support threshold are inserted.
-   * 
-   * @param singletons the singleton item sets
-   * @param data the Instances containing the transactions
-   * @param minSupport the minimum support
-   * @return the root of the tree
-   */
-  /*
-   * protected FPTreeRoot buildFPTree(ArrayList<BinaryItem> singletons,
-   * Instances data, int minSupport) {
-   * 
-   * FPTreeRoot tree = new FPTreeRoot();
-   * 
-   * for (int i = 0; i < data.numInstances(); i++) { Instance current =
-   * data.instance(i); ArrayList<BinaryItem> transaction = new
-   * ArrayList<BinaryItem>(); if (current instanceof SparseInstance) { for (int
-   * j = 0; j < current.numValues(); j++) { int attIndex = current.index(j); if
-   * (singletons.get(attIndex).getFrequency() >= minSupport) {
-   * transaction.add(singletons.get(attIndex)); } }
-   * Collections.sort(transaction); tree.addItemSet(transaction, 1); } else {
-   * for (int j = 0; j < data.numAttributes(); j++) { if (!current.isMissing(j))
-   * { if (current.attribute(j).numValues() == 1 || current.value(j) ==
-   * m_positiveIndex - 1) { if (singletons.get(j).getFrequency() >= minSupport)
-   * { transaction.add(singletons.get(j)); } } } }
-   * Collections.sort(transaction); tree.addItemSet(transaction, 1); } }
-   * 
-   * return tree; }
+   * Find large item sets in the FP-tree. The items are processed from the
+   * least to the most frequent one, and the conditional tree of each
+   * frequent item is built into the reusable tree for the next recursion
+   * level.
+   *
+   * @param tree the tree to mine
+   * @param largeItemSets holds the large item sets found
+   * @param recursionLevel the recursion level, i.e., the number of items the
+   *          current (conditional) tree is conditional on
+   * @param conditionalItems holds the ids of the items that the current
+   *          (conditional) tree is conditional on
+   * @param conditionalTrees the trees to reuse for the conditional trees of
+   *          each recursion level (created as needed)
+   * @param minSupport the minimum acceptable support
    */
+  protected void mineTree(FPTree tree, FrequentItemSets largeItemSets,
+    int recursionLevel, int[] conditionalItems, FPTree[] conditionalTrees,
+    int minSupport) {
+
+    if (m_maxItems > 0 && recursionLevel >= m_maxItems) {
+      // don't mine any further
+      return;
+    }
+
+    for (int item = tree.numItems() - 1; item >= 0; item--) {
+      // check for minimum support in this tree
+      int support = tree.support(item);
+      if (support > 0 && support >= minSupport) {
+        conditionalItems[recursionLevel] = item;
+        largeItemSets.addItemSet(tree.itemSet(conditionalItems,
+          recursionLevel + 1, support));
+
+        if (item > 0) {
+          FPTree conditional = conditionalTrees[recursionLevel];
+          if (conditional == null) {
+            conditional = new FPTree(tree.m_items, item, 64);
+            conditionalTrees[recursionLevel] = conditional;
+          }
+          conditional.project(tree, item, minSupport);
+
+          // now recursively process the conditional tree
+          if (!conditional.isEmpty()) {
+            mineTree(conditional, largeItemSets, recursionLevel + 1,
+              conditionalItems, conditionalTrees, minSupport);
+          }
+        }
+      }
+    }
+  }
 
   /**
-   * Find large item sets in the FP-tree.
-   * 
-   * @param tree the root of the tree to mine
+   * Find large item sets in the FP-tree. With more than one execution slot,
+   * the conditional trees are mined concurrently.
+   *
+   * @param tree the tree to mine
    * @param largeItemSets holds the large item sets found
-   * @param recursionLevel the recursion level for the current projected counts
-   * @param conditionalItems the current set of items that the current
-   *          (projected) tree is conditional on
    * @param minSupport the minimum acceptable support
    */
-  protected void mineTree(FPTreeRoot tree, FrequentItemSets largeItemSets,
-    int recursionLevel, FrequentBinaryItemSet conditionalItems, int minSupport) {
-
-    if (!tree.isEmpty(recursionLevel)) {
-      if (m_maxItems > 0 && recursionLevel >= m_maxItems) {
-        // don't mine any further
-        return;
-      }
+  protected void mineTree(FPTree tree, FrequentItemSets largeItemSets,
+    final int minSupport) {
+    if (m_executionSlots <= 1) {
+      mineTree(tree, largeItemSets, 0, new int[tree.numItems()],
+        new FPTree[tree.numItems()], minSupport);
+      return;
+    }
 
-      Map<BinaryItem, FPTreeRoot.Header> headerTable = tree.getHeaderTable();
-      Set<BinaryItem> keys = headerTable.keySet();
-      // System.err.println("Number of freq item sets collected " +
-      // largeItemSets.size());
-      Iterator<BinaryItem> i = keys.iterator();
-      while (i.hasNext()) {
-        BinaryItem item = i.next();
-        FPTreeRoot.Header itemHeader = headerTable.get(item);
-
-        // check for minimum support at this level
-        int support = itemHeader.getProjectedCounts().getCount(recursionLevel);
-        if (support >= minSupport) {
-          // process header list at this recursion level
-          for (FPTreeNode n : itemHeader.getHeaderList()) {
-            // push count up path to root
-            int currentCount = n.getProjectedCount(recursionLevel);
-            if (currentCount > 0) {
-              FPTreeNode temp = n.getParent();
-              while (temp != tree) {
-                // set/increase for the node
-                temp.increaseProjectedCount(recursionLevel + 1, currentCount);
-
-                // set/increase for the header table
-                headerTable.get(temp.getItem()).getProjectedCounts()
-                  .increaseCount(recursionLevel + 1, currentCount);
-
-                temp = temp.getParent();
+    final FPTree root = tree;
+    ForkJoinPool pool = new ForkJoinPool(m_executionSlots);
+    try {
+      largeItemSets.addItemSets(pool.invoke(ForkJoinTask
+        .adapt(new Callable<FrequentItemSets>() {
+          @Override
+          public FrequentItemSets call() {
+            return mineTreeConcurrently(root, 0, new int[root.numItems()],
+              minSupport);
+          }
+        })));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Find large item sets in the FP-tree like
+   * mineTree(FPTree, FrequentItemSets, int, int[], FPTree[], int), but mines
+   * the conditional trees of the items concurrently, as long as they are
+   * large. Each task collects its item sets in its own list, and the lists are
+   * concatenated in the order of the items, so the item sets are found in the
+   * same order as by the sequential method. Must be called from a task of a
+   * ForkJoinPool.
+   *
+   * @param tree the tree to mine
+   * @param recursionLevel the recursion level, i.e., the number of items the
+   *          current (conditional) tree is conditional on
+   * @param conditionalItems holds the ids of the items that the current
+   *          (conditional) tree is conditional on
+   * @param minSupport the minimum acceptable support
+   * @return the large item sets found
+   */
+  protected FrequentItemSets mineTreeConcurrently(final FPTree tree,
+    final int recursionLevel, int[] conditionalItems, final int minSupport) {
+
+    FrequentItemSets largeItemSets = new FrequentItemSets(m_numInstances);
+    if (m_maxItems > 0 && recursionLevel >= m_maxItems) {
+      // don't mine any further
+      return largeItemSets;
+    }
+
+    List<ForkJoinTask<FrequentItemSets>> tasks = new ArrayList<ForkJoinTask<FrequentItemSets>>();
+    for (int i = tree.numItems() - 1; i >= 0; i--) {
+      // check for minimum support in this tree
+      final int item = i;
+      final int support = tree.support(item);
+      if (support > 0 && support >= minSupport) {
+        final int[] items = conditionalItems.clone();
+        items[recursionLevel] = item;
+        tasks.add(ForkJoinTask.adapt(new Callable<FrequentItemSets>() {
+          @Override
+          public FrequentItemSets call() {
+            FrequentItemSets sets = new FrequentItemSets(m_numInstances);
+            sets.addItemSet(tree.itemSet(items, recursionLevel + 1, support));
+            if (item > 0) {
+              FPTree conditional = new FPTree(tree.m_items, item, 64);
+              conditional.project(tree, item, minSupport);
+              if (conditional.numNodes() >= m_minParallelNodes) {
+                sets.addItemSets(mineTreeConcurrently(conditional,
+                  recursionLevel + 1, items, minSupport));
+              } else if (!conditional.isEmpty()) {
+                mineTree(conditional, sets, recursionLevel + 1, items,
+                  new FPTree[items.length], minSupport);
               }
             }
+            return sets;
           }
+        }).fork());
+      }
+    }
 
-          FrequentBinaryItemSet newConditional = (FrequentBinaryItemSet) conditionalItems
-            .clone();
-
-          // this item gets added to the conditional items
-          newConditional.addItem(item);
-          newConditional.setSupport(support);
+    for (ForkJoinTask<FrequentItemSets> task : tasks) {
+      largeItemSets.addItemSets(task.join());
+    }
+    return largeItemSets;
+  }
 
-          // now add this conditional item set to the list of large item sets
-          largeItemSets.addItemSet(newConditional);
+  /**
+   * Finds the large item sets by building and mining the FP-tree.
+   *
+   * @param singletons the singleton item sets
+   * @param source the source of the transactions (either Instances or an
+   *          ArffLoader)
+   * @param minSupport the minimum support
+   * @return the large item sets
+   * @throws Exception if the transactions can't be read
+   */
+  protected FrequentItemSets findLargeItemSets(
+    ArrayList<BinaryItem> singletons, Object source, int minSupport)
+    throws Exception {
+    boolean arffLoader = source instanceof weka.core.converters.ArffLoader;
 
-          // now recursively process the new tree
-          mineTree(tree, largeItemSets, recursionLevel + 1, newConditional,
-            minSupport);
+    // build the FPTree
+    if (arffLoader) {
+      System.err.println("Building FP-tree...");
+    }
+    FPTree tree = buildFPTree(singletons, source, minSupport);
 
-          // reverse the propagated counts
-          for (FPTreeNode n : itemHeader.getHeaderList()) {
-            FPTreeNode temp = n.getParent();
-            while (temp != tree) {
-              temp.removeProjectedCount(recursionLevel + 1);
-              temp = temp.getParent();
-            }
-          }
+    FrequentItemSets largeItemSets = new FrequentItemSets(m_numInstances);
 
-          // reverse the propagated counts in the header list
-          // at this recursion level
-          for (FPTreeRoot.Header h : headerTable.values()) {
-            h.getProjectedCounts().removeCount(recursionLevel + 1);
-          }
-        }
-      }
+    if (arffLoader) {
+      System.err.println("Mining tree for min supp " + minSupport);
     }
+
+    // mine the tree
+    mineTree(tree, largeItemSets, minSupport);
+    return largeItemSets;
   }
 
   /**
@@ -1406,6 +1482,7 @@ public class FPGrowth extends AbstractAssociator implements
     m_transactionsMustContain = "";
     m_rulesMustContain = "";
     m_mustContainOR = false;
+    m_executionSlots = 1;
   }
 
   /**
@@ -1672,6 +1749,35 @@ public class FPGrowth extends AbstractAssociator implements
     return m_mustContainOR;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for mining the "
+      + "conditional trees. Set equal to the number of available cpu/cores";
+  }
+
+  /**
+   * Set the degree of parallelism to use.
+   * 
+   * @param slots the number of conditional trees to mine in parallel
+   */
+  public void setNumExecutionSlots(int slots) {
+    m_executionSlots = slots;
+  }
+
+  /**
+   * Get the degree of parallelism to use.
+   * 
+   * @return the number of conditional trees to mine in parallel
+   */
+  public int getNumExecutionSlots() {
+    return m_executionSlots;
+  }
+
   /**
    * Returns the tip text for this property
    * 
@@ -1931,6 +2037,9 @@ public class FPGrowth extends AbstractAssociator implements
     newVector.add(new Option(string9, "rules", 1,
       "-rules <comma separated list " + "of attribute names>"));
     newVector.add(new Option(string10, "use-or", 0, "-use-or"));
+    newVector.add(new Option("\tNumber of execution slots.\n"
+      + "\t(default 1 - i.e. no parallelism)", "num-slots", 1,
+      "-num-slots <num>"));
 
     return newVector.elements();
   }
@@ -2010,6 +2119,12 @@ public class FPGrowth extends AbstractAssociator implements
    *  with -transactions and/or -rules
    * </pre>
    * 
+   * <pre>
+   * -num-slots &lt;num&gt;
+   *  Number of execution slots.
+   *  (default 1 - i.e. no parallelism)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -2072,6 +2187,11 @@ public class FPGrowth extends AbstractAssociator implements
 
     setUseORForMustContainList(Utils.getFlag("use-or", options));
 
+    String slotsString = Utils.getOption("num-slots", options);
+    if (slotsString.length() > 0) {
+      setNumExecutionSlots(Integer.parseInt(slotsString));
+    }
+
     setFindAllRulesForSupportLevel(Utils.getFlag('S', options));
   }
 
@@ -2118,6 +2238,9 @@ public class FPGrowth extends AbstractAssociator implements
       options.add("-use-or");
     }
 
+    options.add("-num-slots");
+    options.add("" + getNumExecutionSlots());
+
     return options.toArray(new String[1]);
   }
 
@@ -2248,35 +2371,14 @@ public class FPGrowth extends AbstractAssociator implements
       int currentSupportAsInstances = (currentSupport > 1) ? (int) currentSupport
         : (int) Math.ceil(currentSupport * m_numInstances);
 
-      // build the FPTree
-      if (arffLoader) {
-        System.err.println("Building FP-tree...");
-      }
-      FPTreeRoot tree = buildFPTree(singletons, source,
-        currentSupportAsInstances);
-
-      FrequentItemSets largeItemSets = new FrequentItemSets(m_numInstances);
-
-      if (arffLoader) {
-        System.err.println("Mining tree for min supp " + currentSupport);
-      }
-
-      // mine the tree
-      FrequentBinaryItemSet conditionalItems = new FrequentBinaryItemSet(
-        new ArrayList<BinaryItem>(), 0);
-      mineTree(tree, largeItemSets, 0, conditionalItems,
+      m_largeItemSets = findLargeItemSets(singletons, source,
         currentSupportAsInstances);
 
-      m_largeItemSets = largeItemSets;
-
       if (arffLoader) {
         System.err.println("Number of large item sets: "
           + m_largeItemSets.size());
       }
 
-      // save memory
-      tree = null;
-
       m_rules = generateRulesBruteForce(m_largeItemSets, m_metric,
         m_metricThreshold, upperBoundMinSuppAsInstances,
         lowerBoundMinSuppAsInstances, m_numInstances);
@@ -2339,7 +2441,7 @@ public class FPGrowth extends AbstractAssociator implements
   public String toString() {
     // return m_largeItemSets.toString(m_numItemSetsToFind);
     if (m_rules == null) {
-      return "FPGrowth hasn't been trained yet!";
+      return getClass().getSimpleName() + " hasn't been trained yet!";
     }
 
     StringBuffer result = new StringBuffer();
@@ -2349,7 +2451,8 @@ public class FPGrowth extends AbstractAssociator implements
     if (m_rules.size() == 0) {
       return "No rules found!";
     } else {
-      result.append("FPGrowth found " + m_rules.size() + " rules");
+      result.append(getClass().getSimpleName() + " found " + m_rules.size()
+        + " rules");
       if (!m_findAllRulesForSupportLevel) {
         result.append(" (displaying top " + numRules + ")");
       }
@@ -2387,12 +2490,10 @@ public class FPGrowth extends AbstractAssociator implements
   /**
    * Assemble a dot graph representation of the FP-tree.
    * 
-   * @param tree the root of the FP-tree
+   * @param tree the FP-tree
    * @return a graph representation as a String in dot format.
    */
-  public String graph(FPTreeRoot tree) {
-    // int maxID = tree.assignIDs(-1);
-
+  public String graph(FPTree tree) {
     StringBuffer text = new StringBuffer();
     text.append("digraph FPTree {\n");
     text.append("N0 [label=\"ROOT\"]\n");
@@ -494,6 +494,28 @@ public abstract class AbstractClassifier implements Classifier, BatchPredictor,
     return batchPreds;
   }
 
+  /**
+   * Batch prediction method that writes the probability distributions into
+   * the given array rather than allocating new ones. Row i receives the
+   * distribution for instance i and must hold one entry per class. This
+   * default implementation copies the result of distributionForInstance() for
+   * each instance. Subclasses that can fill the rows directly should override
+   * it. Classifiers implementing ThreadSafe allow this method to be called
+   * concurrently on one built model.
+   *
+   * @param batch the instances to get predictions for
+   * @param dists the array to write the distributions to, one row for each
+   *          instance in the batch
+   * @throws Exception if a problem occurs.
+   */
+  public void distributionsForInstances(Instances batch, double[][] dists)
+    throws Exception {
+    for (int i = 0; i < batch.numInstances(); i++) {
+      double[] dist = distributionForInstance(batch.instance(i));
+      System.arraycopy(dist, 0, dists[i], 0, dist.length);
+    }
+  }
+
   /**
    * Returns the Capabilities of this classifier. Maximally permissive
    * capabilities are allowed by default. Derived classifiers should override
@@ -300,6 +300,27 @@ public class Evaluation implements Serializable, Summarizable, RevisionHandler {
     return m_delegate.getDiscardPredictions();
   }
 
+  /**
+   * Sets the number of folds to build and evaluate in parallel during
+   * cross-validation. 1 runs the folds sequentially, 0 uses as many threads as
+   * there are cores.
+   *
+   * @param value the number of execution slots
+   */
+  public void setNumExecutionSlots(int value) {
+    m_delegate.setNumExecutionSlots(value);
+  }
+
+  /**
+   * Returns the number of folds to build and evaluate in parallel during
+   * cross-validation.
+   *
+   * @return the number of execution slots
+   */
+  public int getNumExecutionSlots() {
+    return m_delegate.getNumExecutionSlots();
+  }
+
   /**
    * Returns the area under ROC for those predictions that have been collected
    * in the evaluateClassifier(Classifier, Instances) method. Returns
@@ -21,6 +21,7 @@
 
 package weka.classifiers.bayes;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
@@ -96,7 +97,7 @@ import weka.estimators.NormalEstimator;
  */
 public class NaiveBayes extends AbstractClassifier implements OptionHandler,
   WeightedInstancesHandler, WeightedAttributesHandler, TechnicalInformationHandler,
-  Aggregateable<NaiveBayes> {
+  Aggregateable<NaiveBayes>, ThreadSafe {
 
   /** for serialization */
   static final long serialVersionUID = 5995231201785697655L;
@@ -219,14 +220,22 @@ public class NaiveBayes extends AbstractClassifier implements OptionHandler,
     // can classifier handle the data?
     getCapabilities().testWithFail(instances);
 
-    // remove instances with missing class
-    instances = new Instances(instances);
+    // remove instances with missing class (a column store stays columnar)
+    if (instances instanceof ColumnarInstances) {
+      instances = new ColumnarInstances(instances);
+    } else {
+      instances = new Instances(instances);
+    }
     instances.deleteWithMissingClass();
 
     m_NumClasses = instances.numClasses();
 
     // Copy the instances
-    m_Instances = new Instances(instances);
+    if (instances instanceof ColumnarInstances) {
+      m_Instances = instances;
+    } else {
+      m_Instances = new Instances(instances);
+    }
 
     // Discretize instances if required
     if (m_UseDiscretization) {
@@ -249,7 +258,30 @@ public class NaiveBayes extends AbstractClassifier implements OptionHandler,
       // If the attribute is numeric, determine the estimator
       // numeric precision from differences between adjacent values
       double numPrecision = DEFAULT_NUM_PRECISION;
-      if (attribute.type() == Attribute.NUMERIC) {
+      if ((attribute.type() == Attribute.NUMERIC)
+        && (m_Instances instanceof ColumnarInstances)) {
+        // sort a copy of the column rather than reordering all the columns
+        double[] values = m_Instances.attributeToDoubleArray(attribute.index());
+        Arrays.sort(values);
+        if ((values.length > 0) && !Utils.isMissingValue(values[0])) {
+          double lastVal = values[0];
+          double deltaSum = 0;
+          int distinct = 0;
+          for (int i = 1; i < values.length; i++) {
+            if (Utils.isMissingValue(values[i])) {
+              break;
+            }
+            if (values[i] != lastVal) {
+              deltaSum += values[i] - lastVal;
+              lastVal = values[i];
+              distinct++;
+            }
+          }
+          if (distinct > 0) {
+            numPrecision = deltaSum / distinct;
+          }
+        }
+      } else if (attribute.type() == Attribute.NUMERIC) {
         m_Instances.sort(attribute);
         if ((m_Instances.numInstances() > 0)
           && !m_Instances.instance(0).isMissing(attribute)) {
@@ -295,10 +327,14 @@ public class NaiveBayes extends AbstractClassifier implements OptionHandler,
     }
 
     // Compute counts
-    Enumeration<Instance> enumInsts = m_Instances.enumerateInstances();
-    while (enumInsts.hasMoreElements()) {
-      Instance instance = enumInsts.nextElement();
-      updateClassifier(instance);
+    if (m_Instances instanceof ColumnarInstances) {
+      updateClassifier((ColumnarInstances) m_Instances);
+    } else {
+      Enumeration<Instance> enumInsts = m_Instances.enumerateInstances();
+      while (enumInsts.hasMoreElements()) {
+        Instance instance = enumInsts.nextElement();
+        updateClassifier(instance);
+      }
     }
 
     // Save space
@@ -329,6 +365,43 @@ public class NaiveBayes extends AbstractClassifier implements OptionHandler,
     }
   }
 
+  /**
+   * Updates the classifier with all the instances in the given column store.
+   * Scans the columns directly, one attribute at a time. Each estimator
+   * receives the values in the same order as when the instances are passed to
+   * updateClassifier(Instance) one by one.
+   * 
+   * @param data the training instances, with the same structure as the
+   *          training data
+   * @exception Exception if the instances could not be incorporated in the
+   *              model.
+   */
+  protected void updateClassifier(ColumnarInstances data) throws Exception {
+
+    int numInstances = data.numInstances();
+    double[] classValues = data.column(data.classIndex());
+    double[] weights = data.weights();
+
+    Enumeration<Attribute> enumAtts = data.enumerateAttributes();
+    int attIndex = 0;
+    while (enumAtts.hasMoreElements()) {
+      double[] values = data.column(enumAtts.nextElement().index());
+      Estimator[] estimators = m_Distributions[attIndex];
+      for (int i = 0; i < numInstances; i++) {
+        if (!Utils.isMissingValue(classValues[i])
+          && !Utils.isMissingValue(values[i])) {
+          estimators[(int) classValues[i]].addValue(values[i], weights[i]);
+        }
+      }
+      attIndex++;
+    }
+    for (int i = 0; i < numInstances; i++) {
+      if (!Utils.isMissingValue(classValues[i])) {
+        m_ClassDistribution.addValue(classValues[i], weights[i]);
+      }
+    }
+  }
+
   /**
    * Calculates the class membership probabilities for the given test instance.
    * 
@@ -339,18 +412,55 @@ public class NaiveBayes extends AbstractClassifier implements OptionHandler,
   @Override
   public double[] distributionForInstance(Instance instance) throws Exception {
 
+    double[] probs = new double[m_NumClasses];
+    distributionForInstance(instance, probs);
+    return probs;
+  }
+
+  /**
+   * Calculates the class membership probabilities for a batch of test
+   * instances and writes them into the given array.
+   * 
+   * @param batch the instances to be classified
+   * @param dists the array to write the predicted distributions to
+   * @exception Exception if there is a problem generating the predictions
+   */
+  @Override
+  public void distributionsForInstances(Instances batch, double[][] dists)
+    throws Exception {
+
+    for (int i = 0; i < batch.numInstances(); i++) {
+      distributionForInstance(batch.instance(i), dists[i]);
+    }
+  }
+
+  /**
+   * Calculates the class membership probabilities for the given test instance
+   * and writes them into the given array.
+   * 
+   * @param instance the instance to be classified
+   * @param probs the array to write the predicted distribution to
+   * @exception Exception if there is a problem generating the prediction
+   */
+  protected void distributionForInstance(Instance instance, double[] probs)
+    throws Exception {
+
     if (m_UseDiscretization) {
-      m_Disc.input(instance);
-      instance = m_Disc.output();
+      // The filter is shared by all callers
+      synchronized (m_Disc) {
+        m_Disc.input(instance);
+        instance = m_Disc.output();
+      }
     }
-    double[] probs = new double[m_NumClasses];
     for (int j = 0; j < m_NumClasses; j++) {
       probs[j] = m_ClassDistribution.getProbability(j);
     }
-    Enumeration<Attribute> enumAtts = instance.enumerateAttributes();
     int attIndex = 0;
-    while (enumAtts.hasMoreElements()) {
-      Attribute attribute = enumAtts.nextElement();
+    for (int i = 0; i < instance.numAttributes(); i++) {
+      if (i == instance.classIndex()) {
+        continue;
+      }
+      Attribute attribute = instance.attribute(i);
       if (!instance.isMissing(attribute)) {
         double temp, max = 0;
         for (int j = 0; j < m_NumClasses; j++) {
@@ -378,7 +488,6 @@ public class NaiveBayes extends AbstractClassifier implements OptionHandler,
 
     // Display probabilities
     Utils.normalize(probs);
-    return probs;
   }
 
   /**
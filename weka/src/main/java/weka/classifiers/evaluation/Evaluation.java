@@ -55,6 +55,11 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -86,6 +91,11 @@ import java.util.zip.GZIPOutputStream;
  * The number of folds for the cross-validation (default: 10).
  * <p/>
  *
+ * -num-slots number <br/>
+ * The number of folds of the cross-validation to run in parallel (default: 1,
+ * use 0 to auto-detect the number of cores).
+ * <p/>
+ *
  * -no-cv <br/>
  * No cross validation. If no test file is provided, no evaluation is done.
  * <p/>
@@ -457,6 +467,12 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
    */
   protected List<String> m_metricsToDisplay = new ArrayList<String>();
 
+  /**
+   * The number of folds to run in parallel during cross-validation (0 = number
+   * of cores).
+   */
+  protected int m_NumExecutionSlots = 1;
+
   public static final String[] BUILT_IN_EVAL_METRICS = {"Correct",
           "Incorrect", "Kappa", "Total cost", "Average cost", "KB relative",
           "KB information", "Correlation", "Complexity 0", "Complexity scheme",
@@ -609,6 +625,30 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     return m_DiscardPredictions;
   }
 
+  /**
+   * Sets the number of folds to build and evaluate in parallel during
+   * cross-validation. 1 runs the folds sequentially, 0 uses as many threads as
+   * there are cores. The statistics of each fold are always collected
+   * separately and summed in fold order, so the results are identical for
+   * any number of threads. If plugin metrics are installed, the folds are
+   * always run sequentially, as these cannot be merged.
+   *
+   * @param value the number of execution slots
+   */
+  public void setNumExecutionSlots(int value) {
+    m_NumExecutionSlots = value;
+  }
+
+  /**
+   * Returns the number of folds to build and evaluate in parallel during
+   * cross-validation.
+   *
+   * @return the number of execution slots
+   */
+  public int getNumExecutionSlots() {
+    return m_NumExecutionSlots;
+  }
+
   /**
    * Returns the list of plugin metrics in use (or null if there are none)
    *
@@ -850,21 +890,31 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
       classificationOutput.printHeader();
     }
 
-    // Do the folds
-    for (int i = 0; i < numFolds; i++) {
-      Instances train = data.trainCV(numFolds, i, random);
-      setPriors(train);
-      Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
-      copiedClassifier.buildClassifier(train);
-      if (classificationOutput == null && forPrinting.length > 0) {
-        ((StringBuffer)forPrinting[0]).append("\n=== Classifier model (training fold " + (i + 1) +") ===\n\n" +
-                copiedClassifier);
-      }
-      Instances test = data.testCV(numFolds, i);
-      if (classificationOutput != null){
-        evaluateModel(copiedClassifier, test, forPrinting);
-      } else {
-        evaluateModel(copiedClassifier, test);
+    // plugin metrics can only be updated one prediction at a time
+    boolean hasPluginMetrics =
+      m_pluginMetrics != null && m_pluginMetrics.size() > 0;
+    if (!hasPluginMetrics) {
+      int numSlots = (m_NumExecutionSlots <= 0)
+        ? Runtime.getRuntime().availableProcessors() : m_NumExecutionSlots;
+      crossValidateFolds(classifier, data, numFolds, random, numSlots,
+        classificationOutput, forPrinting);
+    } else {
+      // Do the folds
+      for (int i = 0; i < numFolds; i++) {
+        Instances train = data.trainCV(numFolds, i, random);
+        setPriors(train);
+        Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
+        copiedClassifier.buildClassifier(train);
+        if (classificationOutput == null && forPrinting.length > 0) {
+          ((StringBuffer)forPrinting[0]).append("\n=== Classifier model (training fold " + (i + 1) +") ===\n\n" +
+                  copiedClassifier);
+        }
+        Instances test = data.testCV(numFolds, i);
+        if (classificationOutput != null){
+          evaluateModel(copiedClassifier, test, forPrinting);
+        } else {
+          evaluateModel(copiedClassifier, test);
+        }
       }
     }
     m_NumFolds = numFolds;
@@ -874,6 +924,292 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     }
   }
 
+  /**
+   * Adds the statistics encapsulated in the supplied Evaluation object into
+   * this one. Does not perform any checks for compatibility between the
+   * supplied Evaluation object and this one.
+   *
+   * @param evaluation the evaluation object to add
+   * @see AggregateableEvaluation#aggregate(Evaluation)
+   */
+  protected void addStatistics(Evaluation evaluation) {
+    m_Incorrect += evaluation.incorrect();
+    m_Correct += evaluation.correct();
+    m_Unclassified += evaluation.unclassified();
+    m_MissingClass += evaluation.m_MissingClass;
+    m_WithClass += evaluation.m_WithClass;
+
+    if (evaluation.m_ConfusionMatrix != null) {
+      double[][] newMatrix = evaluation.confusionMatrix();
+      if (newMatrix != null) {
+        for (int i = 0; i < m_ConfusionMatrix.length; i++) {
+          for (int j = 0; j < m_ConfusionMatrix[i].length; j++) {
+            m_ConfusionMatrix[i][j] += newMatrix[i][j];
+          }
+        }
+      }
+    }
+
+    double[] newClassPriors = evaluation.m_ClassPriors;
+    if (newClassPriors != null && m_ClassPriors != null) {
+      for (int i = 0; i < this.m_ClassPriors.length; i++) {
+        m_ClassPriors[i] = newClassPriors[i];
+      }
+    }
+
+    m_ClassPriorsSum = evaluation.m_ClassPriorsSum;
+    m_TotalCost += evaluation.totalCost();
+    m_SumErr += evaluation.m_SumErr;
+    m_SumAbsErr += evaluation.m_SumAbsErr;
+    m_SumSqrErr += evaluation.m_SumSqrErr;
+    m_SumClass += evaluation.m_SumClass;
+    m_SumSqrClass += evaluation.m_SumSqrClass;
+    m_SumPredicted += evaluation.m_SumPredicted;
+    m_SumSqrPredicted += evaluation.m_SumSqrPredicted;
+    m_SumClassPredicted += evaluation.m_SumClassPredicted;
+    m_SumPriorAbsErr += evaluation.m_SumPriorAbsErr;
+    m_SumPriorSqrErr += evaluation.m_SumPriorSqrErr;
+    m_SumKBInfo += evaluation.m_SumKBInfo;
+    double[] newMarginCounts = evaluation.m_MarginCounts;
+    if (newMarginCounts != null) {
+      for (int i = 0; i < m_MarginCounts.length; i++) {
+        m_MarginCounts[i] += newMarginCounts[i];
+      }
+    }
+    m_ComplexityStatisticsAvailable = evaluation.m_ComplexityStatisticsAvailable;
+    m_CoverageStatisticsAvailable = evaluation.m_CoverageStatisticsAvailable;
+    m_SumPriorEntropy += evaluation.m_SumPriorEntropy;
+    m_SumSchemeEntropy += evaluation.m_SumSchemeEntropy;
+    m_TotalSizeOfRegions += evaluation.m_TotalSizeOfRegions;
+    m_TotalCoverage += evaluation.m_TotalCoverage;
+
+    ArrayList<Prediction> predsToAdd = evaluation.m_Predictions;
+    if (predsToAdd != null) {
+      if (m_Predictions == null) {
+        m_Predictions = new ArrayList<Prediction>();
+      }
+      for (int i = 0; i < predsToAdd.size(); i++) {
+        m_Predictions.add(predsToAdd.get(i));
+      }
+    }
+  }
+
+  /**
+   * Builds and evaluates the folds of a cross-validation, concurrently if
+   * <code>numSlots</code> is greater than 1. The training sets are generated
+   * on the calling thread, in fold order and from the given random number
+   * generator, and at most <code>numSlots</code> folds are in progress at any
+   * time. Each fold is evaluated into an Evaluation object of its own and
+   * records its predictions for output, and these are merged into this one
+   * strictly in fold order (as done by AggregateableEvaluation), so that the
+   * results and the output do not depend on the number of threads. Plugin
+   * metrics are not merged, so this is only used if there are none.
+   *
+   * @param classifier the classifier with any options set
+   * @param data the randomized (and stratified) data
+   * @param numFolds the number of folds for the cross-validation
+   * @param random random number generator for randomization
+   * @param numSlots the number of folds to process in parallel
+   * @param classificationOutput the output for the predictions, can be null
+   * @param forPrinting the objects for printing, see
+   *          crossValidateModel(Classifier, Instances, int, Random, Object...)
+   * @throws Exception if a classifier could not be generated successfully
+   */
+  protected void crossValidateFolds(Classifier classifier,
+    final Instances data, final int numFolds, Random random, int numSlots,
+    final AbstractOutput classificationOutput, Object... forPrinting)
+    throws Exception {
+
+    // a single slot runs the folds on the calling thread
+    ExecutorService executor = (numSlots > 1 && numFolds > 1)
+      ? Executors.newFixedThreadPool(Math.min(numSlots, numFolds)) : null;
+    List<Future<FoldResult>> results = new ArrayList<Future<FoldResult>>();
+    Classifier[] classifiers = new Classifier[numFolds];
+    Instances train = null;
+    int merged = 0;
+
+    try {
+      for (int i = 0; i < numFolds; i++) {
+        // keep the number of training sets in memory bounded
+        if (i - merged >= numSlots) {
+          mergeFold(results.get(merged), classifiers[merged], merged,
+            classificationOutput, forPrinting);
+          classifiers[merged++] = null;
+        }
+
+        final Instances foldTrain = data.trainCV(numFolds, i, random);
+        final Classifier foldClassifier =
+          AbstractClassifier.makeCopy(classifier);
+        final int fold = i;
+        train = foldTrain;
+        classifiers[i] = foldClassifier;
+        Callable<FoldResult> task = new Callable<FoldResult>() {
+          @Override
+          public FoldResult call() throws Exception {
+            FoldResult result = new FoldResult();
+            result.m_Evaluation = new Evaluation(m_Header, m_CostMatrix);
+            result.m_Evaluation.m_DiscardPredictions = m_DiscardPredictions;
+            result.m_Evaluation.m_ConfLevel = m_ConfLevel;
+            result.m_Evaluation.setPriors(foldTrain);
+            foldClassifier.buildClassifier(foldTrain);
+            Instances test = data.testCV(numFolds, fold);
+            if (classificationOutput != null) {
+              result.m_Predictions = new RecordedPredictions(test);
+              result.m_Evaluation.evaluateModel(foldClassifier, test,
+                result.m_Predictions);
+            } else {
+              result.m_Evaluation.evaluateModel(foldClassifier, test);
+            }
+            return result;
+          }
+        };
+        if (executor != null) {
+          results.add(executor.submit(task));
+        } else {
+          FutureTask<FoldResult> future = new FutureTask<FoldResult>(task);
+          future.run();
+          results.add(future);
+        }
+      }
+
+      while (merged < numFolds) {
+        mergeFold(results.get(merged), classifiers[merged], merged,
+          classificationOutput, forPrinting);
+        classifiers[merged++] = null;
+      }
+    } catch (Exception e) {
+      // let the folds in progress finish before passing on the failure
+      try {
+        TaskUtils.waitForAll(results);
+      } catch (Exception other) {
+        // only the first failure is passed on
+      }
+      throw e;
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+
+    // leave the priors in the same state as a sequential run
+    setPriors(train);
+  }
+
+  /**
+   * The outcome of one fold of a cross-validation.
+   */
+  protected static class FoldResult {
+
+    /** the statistics of the fold */
+    protected Evaluation m_Evaluation;
+
+    /** the predictions to output, null if none are output */
+    protected RecordedPredictions m_Predictions;
+  }
+
+  /**
+   * Collects the predictions of a fold, so that they can be output later in
+   * fold order without predicting the test instances again.
+   */
+  protected static class RecordedPredictions extends AbstractOutput {
+
+    /** for serialization. */
+    private static final long serialVersionUID = -6263404818296394522L;
+
+    /** the recorded distributions */
+    protected List<double[]> m_Distributions = new ArrayList<double[]>();
+
+    /** the recorded instances */
+    protected List<Instance> m_Instances = new ArrayList<Instance>();
+
+    /** the recorded indices */
+    protected List<Integer> m_Indices = new ArrayList<Integer>();
+
+    /**
+     * Initializes the recorder.
+     *
+     * @param header the structure of the test instances
+     */
+    public RecordedPredictions(Instances header) {
+      setHeader(header);
+      setBuffer(new StringBuffer());
+    }
+
+    @Override
+    public String globalInfo() {
+      return "Records the predictions of a cross-validation fold.";
+    }
+
+    @Override
+    public String getDisplay() {
+      return "Recorded";
+    }
+
+    @Override
+    protected void doPrintHeader() {
+    }
+
+    @Override
+    protected void doPrintClassification(Classifier classifier, Instance inst,
+      int index) throws Exception {
+      doPrintClassification(classifier.distributionForInstance(inst), inst,
+        index);
+    }
+
+    @Override
+    protected void doPrintClassification(double[] dist, Instance inst,
+      int index) throws Exception {
+      m_Distributions.add(dist);
+      m_Instances.add(inst);
+      m_Indices.add(index);
+    }
+
+    @Override
+    protected void doPrintFooter() {
+    }
+
+    /**
+     * Outputs the recorded predictions in the order they were made.
+     *
+     * @param output the output to print the predictions to
+     * @throws Exception if printing fails
+     */
+    public void replay(AbstractOutput output) throws Exception {
+      for (int i = 0; i < m_Distributions.size(); i++) {
+        output.printClassification(m_Distributions.get(i), m_Instances.get(i),
+          m_Indices.get(i));
+      }
+    }
+  }
+
+  /**
+   * Waits for a fold of a cross-validation to finish, outputs the model and
+   * the recorded predictions if requested and adds its statistics to this
+   * evaluation.
+   *
+   * @param result the pending result of the fold
+   * @param classifier the classifier built for the fold
+   * @param fold the index of the fold
+   * @param classificationOutput the output for the predictions, can be null
+   * @param forPrinting the objects for printing
+   * @throws Exception if the fold failed
+   */
+  protected void mergeFold(Future<FoldResult> result, Classifier classifier,
+    int fold, AbstractOutput classificationOutput, Object... forPrinting)
+    throws Exception {
+
+    FoldResult foldResult = TaskUtils.getResult(result);
+
+    if (classificationOutput == null && forPrinting.length > 0) {
+      ((StringBuffer)forPrinting[0]).append("\n=== Classifier model (training fold " + (fold + 1) +") ===\n\n" +
+              classifier);
+    }
+    if (classificationOutput != null) {
+      foldResult.m_Predictions.replay(classificationOutput);
+    }
+    addStatistics(foldResult.m_Evaluation);
+  }
+
   /**
    * Performs a (stratified if class is nominal) cross-validation for a
    * classifier on a set of instances.
@@ -918,6 +1254,11 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
    * The number of folds for the cross-validation (default: 10).
    * <p/>
    * <p>
+   * -num-slots number <br/>
+   * The number of folds of the cross-validation to run in parallel (default:
+   * 1, use 0 to auto-detect the number of cores).
+   * <p/>
+   * <p>
    * -no-cv <br/>
    * No cross validation. If no test file is provided, no evaluation is done.
    * <p/>
@@ -1186,6 +1527,11 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
    * The number of folds for the cross-validation (default: 10).
    * <p/>
    *
+   * -num-slots number of slots <br/>
+   * The number of folds of the cross-validation to run in parallel (default:
+   * 1, use 0 to auto-detect the number of cores).
+   * <p/>
+   *
    * -no-cv <br/>
    * No cross validation. If no test file is provided, no evaluation is done.
    * <p/>
@@ -1316,6 +1662,7 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     String objectOutputFileName = Utils.getOption('d', options);
     String testFileName = Utils.getOption('T', options);
     String foldsString = Utils.getOption('x', options);
+    String numSlotsString = Utils.getOption("num-slots", options);
     String seedString = Utils.getOption('s', options);
     boolean outputModelsForTrainingSplits = Utils.getFlag("output-models-for-training-splits", options);
     boolean classStatistics = !Utils.getFlag("do-not-output-per-class-statistics", options);
@@ -1340,7 +1687,7 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     CostMatrix costMatrix = null;
     double splitPercentage = -1;
     int classIndex = -1, actualClassIndex = -1;
-    int seed = 1, folds = 10;
+    int seed = 1, folds = 10, numSlots = 1;
     Instances train = null, test = null, template = null;
     AbstractOutput classificationOutput = null;
     List<String> toggleList = new ArrayList<String>();
@@ -1445,6 +1792,9 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
       if (foldsString.length() != 0) {
         folds = Integer.parseInt(foldsString);
       }
+      if (numSlotsString.length() != 0) {
+        numSlots = Integer.parseInt(numSlotsString);
+      }
       if (classIndexString.length() != 0) {
         if (classIndexString.equals("first")) {
           classIndex = 1;
@@ -1714,6 +2064,7 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
           testingEvaluation = new Evaluation(new Instances(mappedClassifierHeader, 0), costMatrix);
         }
         testingEvaluation.toggleEvalMetrics(toggleList);
+        testingEvaluation.setNumExecutionSlots(numSlots);
         classifier = AbstractClassifier.makeCopy(classifierBackup);
         predsBuff.append("\n=== Predictions under cross-validation ===\n\n");
         testingEvaluation.crossValidateModel(classifier, new DataSource(trainFileName).getDataSet(actualClassIndex), folds, random,
@@ -1735,6 +2086,7 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
       }
       testingEvaluation.setDiscardPredictions(discardPredictions);
       testingEvaluation.toggleEvalMetrics(toggleList);
+      testingEvaluation.setNumExecutionSlots(numSlots);
 
       // CASE 1: SEPARATE TEST SET
       if (testFileName.length() > 0) {
@@ -2082,31 +2434,47 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
 
     if (classifier instanceof BatchPredictor
       && ((BatchPredictor) classifier).implementsMoreEfficientBatchPrediction()) {
-      // make a copy and set the class to missing
-      Instances dataPred = new Instances(data);
-      for (int i = 0; i < data.numInstances(); i++) {
-        dataPred.instance(i).setClassMissing();
-      }
-      double[][] preds =
-        ((BatchPredictor) classifier).distributionsForInstances(dataPred);
-      for (int i = 0; i < data.numInstances(); i++) {
-        double[] p = preds[i];
+      // data that lives outside the heap is copied and predicted in chunks
+      // of the batch size rather than as a whole
+      int chunkSize = data.numInstances();
+      if (data instanceof MappedInstances) {
+        try {
+          chunkSize =
+            Integer.parseInt(((BatchPredictor) classifier).getBatchSize());
+        } catch (NumberFormatException e) {
+          // use the whole dataset
+        }
+        chunkSize = Math.max(1, chunkSize);
+      }
+      for (int from = 0; from < data.numInstances(); from += chunkSize) {
+        int num = Math.min(chunkSize, data.numInstances() - from);
+        // make a copy and set the class to missing
+        Instances dataPred = new Instances(data, from, num);
+        for (int i = 0; i < num; i++) {
+          dataPred.instance(i).setClassMissing();
+        }
+        double[][] preds =
+          ((BatchPredictor) classifier).distributionsForInstances(dataPred);
+        for (int i = 0; i < num; i++) {
+          double[] p = preds[i];
+          Instance inst = data.instance(from + i);
 
-        predictions[i] = evaluationForSingleInstance(p, data.instance(i), true);
+          predictions[from + i] = evaluationForSingleInstance(p, inst, true);
 
-        if (classificationOutput != null) {
-          classificationOutput.printClassification(p, data.instance(i), i);
+          if (classificationOutput != null) {
+            classificationOutput.printClassification(p, inst, from + i);
+          }
         }
       }
     } else {
       // Need to be able to collect predictions if appropriate (for AUC)
 
       for (int i = 0; i < data.numInstances(); i++) {
+        Instance inst = data.instance(i);
         predictions[i] =
-          evaluateModelOnceAndRecordPrediction(classifier, data.instance(i));
+          evaluateModelOnceAndRecordPrediction(classifier, inst);
         if (classificationOutput != null) {
-          classificationOutput.printClassification(classifier,
-            data.instance(i), i);
+          classificationOutput.printClassification(classifier, inst, i);
         }
       }
     }
@@ -4329,6 +4697,10 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     optionsText.append("-x <number of folds>\n");
     optionsText
       .append("\tSets number of folds for cross-validation (default: 10).\n");
+    optionsText.append("-num-slots <number of slots>\n");
+    optionsText
+      .append("\tSets number of folds to run in parallel during cross-validation\n");
+    optionsText.append("\t(default: 1, use 0 to auto-detect number of cores).\n");
     optionsText.append("-no-cv\n");
     optionsText.append("\tDo not perform any cross validation.\n");
     optionsText.append("-force-batch-training\n");
@@ -114,8 +114,9 @@ import java.util.Enumeration;
  * *  (default: no)</pre>
  * * 
  * * <pre> -C &lt;num&gt;
- * *  The size of the cache (a prime number), 0 for full cache and 
- * *  -1 to turn it off.
+ * *  The size of the cache, 0 for full cache and 
+ * *  -1 to turn it off. The cache holds as many kernel
+ * *  rows as fit into (64 * size) bytes.
  * *  (default: 250007)</pre>
  * * 
  * * <pre> -output-debug-info
@@ -648,8 +649,9 @@ public class GaussianProcesses extends RandomizableClassifier implements
    * *  (default: no)</pre>
    * * 
    * * <pre> -C &lt;num&gt;
-   * *  The size of the cache (a prime number), 0 for full cache and 
-   * *  -1 to turn it off.
+   * *  The size of the cache, 0 for full cache and 
+   * *  -1 to turn it off. The cache holds as many kernel
+   * *  rows as fit into (64 * size) bytes.
    * *  (default: 250007)</pre>
    * * 
    * * <pre> -output-debug-info
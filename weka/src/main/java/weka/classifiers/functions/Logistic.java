@@ -33,6 +33,7 @@ import weka.core.Capabilities.Capability;
 import weka.core.ConjugateGradientOptimization;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.LBFGSOptimization;
 import weka.core.Optimization;
 import weka.core.Option;
 import weka.core.OptionHandler;
@@ -41,6 +42,7 @@ import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
+import weka.core.ThreadSafe;
 import weka.core.Utils;
 import weka.core.WeightedInstancesHandler;
 import weka.core.pmml.PMMLProducer;
@@ -80,7 +82,9 @@ import weka.filters.unsupervised.attribute.ReplaceMissingValues;
  * is used to search for the optimized values of the m*(k-1) variables. Note
  * that before we use the optimization procedure, we 'squeeze' the matrix B into
  * a m*(k-1) vector. For details of the optimization procedure, please check
- * weka.core.Optimization class.<br/>
+ * weka.core.Optimization class. For problems with many parameters, limited-memory
+ * BFGS updates (weka.core.LBFGSOptimization) or conjugate gradient descent can be
+ * used instead.<br/>
  * <br/>
  * Although original Logistic Regression does not deal with instance weights, we
  * modify the algorithm a little bit to handle the instance weights.<br/>
@@ -121,6 +125,12 @@ import weka.filters.unsupervised.attribute.ReplaceMissingValues;
  * </pre>
  * 
  * <pre>
+ * -L
+ *  Use limited-memory BFGS updates rather than BFGS updates
+ *  (ignored if conjugate gradient descent is used).
+ * </pre>
+ * 
+ * <pre>
  * -R &lt;ridge&gt;
  *  Set the ridge in the log-likelihood.
  * </pre>
@@ -130,6 +140,12 @@ import weka.filters.unsupervised.attribute.ReplaceMissingValues;
  *  Set the maximum number of iterations (default -1, until convergence).
  * </pre>
  * 
+ * <pre>
+ * -num-threads &lt;num&gt;
+ *  The number of threads for evaluating the log-likelihood
+ *  (default 1, 0 = number of cores).
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Xin Xu (xx5@cs.waikato.ac.nz)
@@ -137,7 +153,7 @@ import weka.filters.unsupervised.attribute.ReplaceMissingValues;
  */
 public class Logistic extends AbstractClassifier implements OptionHandler,
   WeightedInstancesHandler, TechnicalInformationHandler, PMMLProducer,
-  Aggregateable<Logistic> {
+  Aggregateable<Logistic>, ThreadSafe {
 
   /** for serialization */
   static final long serialVersionUID = 3932117032546553727L;
@@ -145,8 +161,18 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
   /** The coefficients (optimized parameters) of the model */
   protected double[][] m_Par;
 
-  /** The data saved as a matrix */
-  protected double[][] m_Data;
+  /** The largest number of values stored in one block of the data matrix */
+  protected static final int MAX_BLOCK_SIZE = Integer.MAX_VALUE - 8;
+
+  /**
+   * The data saved as a matrix, packed row by row into blocks of
+   * m_RowsPerBlock rows each (the last block may hold fewer), with the
+   * intercept term preceding the predictors of each instance
+   */
+  protected double[][] m_DataBlocks;
+
+  /** The number of rows in each block of the data matrix */
+  protected int m_RowsPerBlock;
 
   /** The number of attributes in the model */
   protected int m_NumPredictors;
@@ -169,6 +195,12 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
   /** The filter used to get rid of missing values. */
   private ReplaceMissingValues m_ReplaceMissingValues;
 
+  /**
+   * Each thread's copies of the filters above, so that predictions don't
+   * have to share the filters' output queues
+   */
+  private transient volatile ThreadLocal<Filter[]> m_ThreadFilters;
+
   /** Log-likelihood of the searched model */
   protected double m_LL;
 
@@ -178,6 +210,12 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
   /** Wether to use conjugate gradient descent rather than BFGS updates. */
   private boolean m_useConjugateGradientDescent = false;
 
+  /** Whether to use limited-memory BFGS updates rather than BFGS updates. */
+  private boolean m_useLBFGS = false;
+
+  /** The number of threads for evaluating the log-likelihood */
+  private int m_numThreads = 1;
+
   private Instances m_structure;
 
   /**
@@ -261,10 +299,16 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     newVector.addElement(new Option(
       "\tUse conjugate gradient descent rather than BFGS updates.", "C", 0,
       "-C"));
+    newVector.addElement(new Option(
+      "\tUse limited-memory BFGS updates rather than BFGS updates\n"
+        + "\t(ignored if conjugate gradient descent is used).", "L", 0, "-L"));
     newVector.addElement(new Option("\tSet the ridge in the log-likelihood.",
       "R", 1, "-R <ridge>"));
     newVector.addElement(new Option("\tSet the maximum number of iterations"
       + " (default -1, until convergence).", "M", 1, "-M <number>"));
+    newVector.addElement(new Option("\tThe number of threads for evaluating"
+      + " the log-likelihood\n\t(default 1, 0 = number of cores).",
+      "num-threads", 1, "-num-threads <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
 
@@ -284,6 +328,12 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
    * </pre>
    * 
    * <pre>
+   * -L
+   *  Use limited-memory BFGS updates rather than BFGS updates
+   *  (ignored if conjugate gradient descent is used).
+   * </pre>
+   * 
+   * <pre>
    * -R &lt;ridge&gt;
    *  Set the ridge in the log-likelihood.
    * </pre>
@@ -293,6 +343,12 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
    *  Set the maximum number of iterations (default -1, until convergence).
    * </pre>
    * 
+   * <pre>
+   * -num-threads &lt;num&gt;
+   *  The number of threads for evaluating the log-likelihood
+   *  (default 1, 0 = number of cores).
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -302,6 +358,7 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
   public void setOptions(String[] options) throws Exception {
 
     setUseConjugateGradientDescent(Utils.getFlag('C', options));
+    setUseLBFGS(Utils.getFlag('L', options));
 
     String ridgeString = Utils.getOption('R', options);
     if (ridgeString.length() != 0) {
@@ -317,6 +374,13 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
       m_MaxIts = -1;
     }
 
+    String numThreadsString = Utils.getOption("num-threads", options);
+    if (numThreadsString.length() != 0) {
+      setNumThreads(Integer.parseInt(numThreadsString));
+    } else {
+      setNumThreads(1);
+    }
+
     super.setOptions(options);
 
     Utils.checkForRemainingOptions(options);
@@ -335,10 +399,17 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     if (getUseConjugateGradientDescent()) {
       options.add("-C");
     }
+    if (getUseLBFGS()) {
+      options.add("-L");
+    }
     options.add("-R");
     options.add("" + m_Ridge);
     options.add("-M");
     options.add("" + m_MaxIts);
+    if (getNumThreads() != 1) {
+      options.add("-num-threads");
+      options.add("" + getNumThreads());
+    }
 
     Collections.addAll(options, super.getOptions());
 
@@ -404,6 +475,36 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     return m_useConjugateGradientDescent;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String useLBFGSTipText() {
+    return "Use limited-memory BFGS updates rather than BFGS updates; memory and time per iteration "
+      + "grow linearly rather than quadratically with the number of parameters. Ignored if "
+      + "conjugate gradient descent is used.";
+  }
+
+  /**
+   * Sets whether limited-memory BFGS updates are used.
+   * 
+   * @param useLBFGS true if L-BFGS is to be used.
+   */
+  public void setUseLBFGS(boolean useLBFGS) {
+    m_useLBFGS = useLBFGS;
+  }
+
+  /**
+   * Gets whether to use limited-memory BFGS updates rather than BFGS updates.
+   * 
+   * @return true if L-BFGS is used
+   */
+  public boolean getUseLBFGS() {
+    return m_useLBFGS;
+  }
+
   /**
    * Returns the tip text for this property
    * 
@@ -462,6 +563,35 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     m_MaxIts = newMaxIts;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads for evaluating the log-likelihood and its "
+      + "gradient on partitions of the data (0 = number of cores).";
+  }
+
+  /**
+   * Gets the number of threads for evaluating the log-likelihood.
+   * 
+   * @return the number of threads, 0 for the number of cores
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /**
+   * Sets the number of threads for evaluating the log-likelihood.
+   * 
+   * @param numThreads the number of threads, 0 for the number of cores
+   */
+  public void setNumThreads(int numThreads) {
+    m_numThreads = numThreads;
+  }
+
   private class OptEng extends Optimization {
 
     OptObject m_oO = null;
@@ -471,13 +601,13 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     }
 
     @Override
-    protected double objectiveFunction(double[] x) {
-      return m_oO.objectiveFunction(x);
+    protected double objectiveFunction(double[] x) throws Exception {
+      return m_oO.addRidge(x, sumObjective(m_oO, x));
     }
 
     @Override
-    protected double[] evaluateGradient(double[] x) {
-      return m_oO.evaluateGradient(x);
+    protected double[] evaluateGradient(double[] x) throws Exception {
+      return m_oO.addRidgeGradient(x, sumGradient(m_oO, x));
     }
 
     @Override
@@ -495,13 +625,13 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     }
 
     @Override
-    protected double objectiveFunction(double[] x) {
-      return m_oO.objectiveFunction(x);
+    protected double objectiveFunction(double[] x) throws Exception {
+      return m_oO.addRidge(x, sumObjective(m_oO, x));
     }
 
     @Override
-    protected double[] evaluateGradient(double[] x) {
-      return m_oO.evaluateGradient(x);
+    protected double[] evaluateGradient(double[] x) throws Exception {
+      return m_oO.addRidgeGradient(x, sumGradient(m_oO, x));
     }
 
     @Override
@@ -510,7 +640,31 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     }
   }
 
-  private class OptObject {
+  private class OptEngLBFGS extends LBFGSOptimization {
+
+    OptObject m_oO = null;
+
+    private OptEngLBFGS(OptObject oO) {
+      m_oO = oO;
+    }
+
+    @Override
+    protected double objectiveFunction(double[] x) throws Exception {
+      return m_oO.addRidge(x, sumObjective(m_oO, x));
+    }
+
+    @Override
+    protected double[] evaluateGradient(double[] x) throws Exception {
+      return m_oO.addRidgeGradient(x, sumGradient(m_oO, x));
+    }
+
+    @Override
+    public String getRevision() {
+      return RevisionUtils.extract("$Revision$");
+    }
+  }
+
+  private class OptObject implements Optimization.SumOfTerms {
 
     /** Weights of instances in the data */
     private double[] weights;
@@ -561,23 +715,40 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     }
 
     /**
-     * Evaluate objective function
+     * Returns the number of instances, each contributing one term to the
+     * negative log-likelihood
+     * 
+     * @return the number of instances
+     */
+    @Override
+    public int numTerms() {
+      return cls.length;
+    }
+
+    /**
+     * Evaluate the negative log-likelihood of a range of instances
      * 
      * @param x the current values of variables
-     * @return the value of the objective function
+     * @param from the index of the first instance
+     * @param to the index after the last instance
+     * @return the negative log-likelihood of the instances
      */
-    protected double objectiveFunction(double[] x) {
+    @Override
+    public double objectiveFunction(double[] x, int from, int to) {
       double nll = 0; // -LogLikelihood
       int dim = m_NumPredictors + 1; // Number of variables per class
+      double[] exp = new double[m_NumClasses - 1];
 
-      for (int i = 0; i < cls.length; i++) { // ith instance
+      for (int i = from; i < to; i++) { // ith instance
 
-        double[] exp = new double[m_NumClasses - 1];
+        double[] data = m_DataBlocks[i / m_RowsPerBlock];
+        int row = (i % m_RowsPerBlock) * dim;
         int index;
         for (int offset = 0; offset < m_NumClasses - 1; offset++) {
           index = offset * dim;
+          exp[offset] = 0;
           for (int j = 0; j < dim; j++) {
-            exp[offset] += m_Data[i][j] * x[index + j];
+            exp[offset] += data[row + j] * x[index + j];
           }
         }
         double num = 0;
@@ -586,12 +757,25 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
         }
         double denom = 0;
         for (int offset = 0; offset < m_NumClasses - 1; offset++) {
-	  denom = logOfSum(denom, exp[offset]);
+          denom = logOfSum(denom, exp[offset]);
         }
 
         nll -= weights[i] * (num - denom); // Weighted NLL
       }
 
+      return nll;
+    }
+
+    /**
+     * Add the ridge penalty to the negative log-likelihood
+     * 
+     * @param x the current values of variables
+     * @param nll the negative log-likelihood of the data
+     * @return the value of the objective function
+     */
+    protected double addRidge(double[] x, double nll) {
+      int dim = m_NumPredictors + 1; // Number of variables per class
+
       // Ridge: note that intercepts NOT included
       for (int offset = 0; offset < m_NumClasses - 1; offset++) {
         for (int r = 1; r < dim; r++) {
@@ -603,25 +787,30 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     }
 
     /**
-     * Evaluate Jacobian vector
+     * Add the gradient of the negative log-likelihood of a range of instances
+     * to the Jacobian vector
      * 
      * @param x the current values of variables
-     * @return the gradient vector
+     * @param from the index of the first instance
+     * @param to the index after the last instance
+     * @param grad the gradient vector to add to
      */
-    protected double[] evaluateGradient(double[] x) {
-      double[] grad = new double[x.length];
+    @Override
+    public void addGradient(double[] x, int from, int to, double[] grad) {
       int dim = m_NumPredictors + 1; // Number of variables per class
+      double[] num = new double[m_NumClasses - 1]; // numerator of
+                                                   // [-log(1+sum(exp))]'
 
-      for (int i = 0; i < cls.length; i++) { // ith instance
-        double[] num = new double[m_NumClasses - 1]; // numerator of
-                                                     // [-log(1+sum(exp))]'
+      for (int i = from; i < to; i++) { // ith instance
+        double[] data = m_DataBlocks[i / m_RowsPerBlock];
+        int row = (i % m_RowsPerBlock) * dim;
         int index;
         for (int offset = 0; offset < m_NumClasses - 1; offset++) { // Which
                                                                     // part of x
           double exp = 0.0;
           index = offset * dim;
           for (int j = 0; j < dim; j++) {
-            exp += m_Data[i][j] * x[index + j];
+            exp += data[row + j] * x[index + j];
           }
           num[offset] = exp;
         }
@@ -641,16 +830,27 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
           index = offset * dim;
           firstTerm = weights[i] * num[offset];
           for (int q = 0; q < dim; q++) {
-            grad[index + q] += firstTerm * m_Data[i][q];
+            grad[index + q] += firstTerm * data[row + q];
           }
         }
 
         if (cls[i] != m_NumClasses - 1) { // Not the last class
           for (int p = 0; p < dim; p++) {
-            grad[cls[i] * dim + p] -= weights[i] * m_Data[i][p];
+            grad[cls[i] * dim + p] -= weights[i] * data[row + p];
           }
         }
       }
+    }
+
+    /**
+     * Add the gradient of the ridge penalty to the Jacobian vector
+     * 
+     * @param x the current values of variables
+     * @param grad the gradient of the negative log-likelihood of the data
+     * @return the gradient vector
+     */
+    protected double[] addRidgeGradient(double[] x, double[] grad) {
+      int dim = m_NumPredictors + 1; // Number of variables per class
 
       // Ridge: note that intercepts NOT included
       for (int offset = 0; offset < m_NumClasses - 1; offset++) {
@@ -686,6 +886,17 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     return result;
   }
 
+  /**
+   * Returns the largest number of values to store in one block of the data
+   * matrix. Each block holds as many whole rows as fit, so the matrix can hold
+   * more than Integer.MAX_VALUE values.
+   *
+   * @return the maximum number of values per block
+   */
+  protected int maxBlockSize() {
+    return MAX_BLOCK_SIZE;
+  }
+
   /**
    * Builds the classifier
    * 
@@ -703,6 +914,7 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     train.deleteWithMissingClass();
 
     // Replace missing values
+    m_ThreadFilters = null;
     m_ReplaceMissingValues = new ReplaceMissingValues();
     m_ReplaceMissingValues.setInputFormat(train);
     train = Filter.useFilter(train, m_ReplaceMissingValues);
@@ -728,7 +940,18 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     int nR = m_NumPredictors = train.numAttributes() - 1;
     int nC = train.numInstances();
 
-    m_Data = new double[nC][nR + 1]; // Data values
+    // Data values, row by row in blocks that can be indexed with an int
+    if (nR + 1 > maxBlockSize()) {
+      throw new Exception("Too many attributes (" + nR + ") to store the "
+        + "values of an instance in one array!");
+    }
+    m_RowsPerBlock = maxBlockSize() / (nR + 1);
+    m_DataBlocks = new double[nC / m_RowsPerBlock
+      + (nC % m_RowsPerBlock == 0 ? 0 : 1)][];
+    for (int i = 0; i < m_DataBlocks.length; i++) {
+      int rows = Math.min(m_RowsPerBlock, nC - i * m_RowsPerBlock);
+      m_DataBlocks[i] = new double[rows * (nR + 1)];
+    }
     int[] Y = new int[nC]; // Class labels
     double[] xMean = new double[nR + 1]; // Attribute means
     double[] xSD = new double[nR + 1]; // Attribute stddev's
@@ -748,12 +971,14 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
       weights[i] = current.weight(); // Dealing with weights
       totWeights += weights[i];
 
-      m_Data[i][0] = 1;
+      double[] data = m_DataBlocks[i / m_RowsPerBlock];
+      int row = (i % m_RowsPerBlock) * (nR + 1);
+      data[row] = 1;
       int j = 1;
       for (int k = 0; k <= nR; k++) {
         if (k != m_ClassIndex) {
           double x = current.value(k);
-          m_Data[i][j] = x;
+          data[row + j] = x;
           xMean[j] += weights[i] * x;
           xSD[j] += weights[i] * x * x;
           j++;
@@ -797,9 +1022,11 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
 
     // Normalise input data
     for (int i = 0; i < nC; i++) {
+      double[] data = m_DataBlocks[i / m_RowsPerBlock];
+      int row = (i % m_RowsPerBlock) * (nR + 1);
       for (int j = 0; j <= nR; j++) {
         if (xSD[j] != 0) {
-          m_Data[i][j] = (m_Data[i][j] - xMean[j]) / xSD[j];
+          data[row + j] = (data[row + j] - xMean[j]) / xSD[j];
         }
       }
     }
@@ -831,35 +1058,42 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
     Optimization opt = null;
     if (m_useConjugateGradientDescent) {
       opt = new OptEngCG(oO);
+    } else if (m_useLBFGS) {
+      opt = new OptEngLBFGS(oO);
     } else {
       opt = new OptEng(oO);
     }
     opt.setDebug(m_Debug);
+    opt.setNumThreads(m_numThreads);
 
-    if (m_MaxIts == -1) { // Search until convergence
-      x = opt.findArgmin(x, b);
-      while (x == null) {
-        x = opt.getVarbValues();
+    try {
+      if (m_MaxIts == -1) { // Search until convergence
+        x = opt.findArgmin(x, b);
+        while (x == null) {
+          x = opt.getVarbValues();
+          if (m_Debug) {
+            System.out.println("First set of iterations finished, not enough!");
+          }
+          x = opt.findArgmin(x, b);
+        }
         if (m_Debug) {
-          System.out.println("First set of iterations finished, not enough!");
+          System.out.println(" -------------<Converged>--------------");
         }
+      } else {
+        opt.setMaxIteration(m_MaxIts);
         x = opt.findArgmin(x, b);
+        if (x == null) {
+          x = opt.getVarbValues();
+        }
       }
-      if (m_Debug) {
-        System.out.println(" -------------<Converged>--------------");
-      }
-    } else {
-      opt.setMaxIteration(m_MaxIts);
-      x = opt.findArgmin(x, b);
-      if (x == null) {
-        x = opt.getVarbValues();
-      }
+    } finally {
+      opt.shutdownPool();
     }
 
     m_LL = -opt.getMinFunction(); // Log-likelihood
 
     // Don't need data matrix anymore
-    m_Data = null;
+    m_DataBlocks = null;
 
     // Convert coefficients back to non-normalized attribute units
     for (int i = 0; i < nK; i++) {
@@ -884,15 +1118,50 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
   @Override
   public double[] distributionForInstance(Instance instance) throws Exception {
 
-    m_ReplaceMissingValues.input(instance);
-    instance = m_ReplaceMissingValues.output();
-    m_AttFilter.input(instance);
-    instance = m_AttFilter.output();
-    m_NominalToBinary.input(instance);
-    instance = m_NominalToBinary.output();
+    double[] instDat = new double[m_NumPredictors + 1];
+    double[] distribution = new double[m_NumClasses];
+    predictorValues(instance, instDat);
+    evaluateProbability(instDat, distribution, new double[m_NumClasses]);
+    return distribution;
+  }
+
+  /**
+   * Computes the distributions for a batch of instances and writes them into
+   * the given array.
+   * 
+   * @param batch the instances for which distributions are computed
+   * @param dists the array to write the distributions to
+   * @throws Exception if the distributions can't be computed successfully
+   */
+  @Override
+  public void distributionsForInstances(Instances batch, double[][] dists)
+    throws Exception {
 
-    // Extract the predictor columns into an array
     double[] instDat = new double[m_NumPredictors + 1];
+    double[] v = new double[m_NumClasses];
+    for (int i = 0; i < batch.numInstances(); i++) {
+      predictorValues(batch.instance(i), instDat);
+      evaluateProbability(instDat, dists[i], v);
+    }
+  }
+
+  /**
+   * Filters the given instance and extracts its predictor columns, preceded
+   * by the intercept term.
+   * 
+   * @param instance the instance to extract the predictor values from
+   * @param instDat the array to write the predictor values to
+   * @throws Exception if the instance can't be filtered
+   */
+  private void predictorValues(Instance instance, double[] instDat)
+    throws Exception {
+
+    for (Filter filter : threadFilters()) {
+      filter.input(instance);
+      instance = filter.output();
+    }
+
+    // Extract the predictor columns into an array
     int j = 1;
     instDat[0] = 1;
     for (int k = 0; k <= m_NumPredictors; k++) {
@@ -900,9 +1169,42 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
         instDat[j++] = instance.value(k);
       }
     }
+  }
 
-    double[] distribution = evaluateProbability(instDat);
-    return distribution;
+  /**
+   * Returns the calling thread's copies of the filters applied to the
+   * training data, creating them on first use.
+   * 
+   * @return the filters, in the order they are applied
+   */
+  private Filter[] threadFilters() {
+
+    ThreadLocal<Filter[]> filters = m_ThreadFilters;
+    if (filters == null) {
+      synchronized (this) {
+        filters = m_ThreadFilters;
+        if (filters == null) {
+          final Filter[] models = new Filter[] { m_ReplaceMissingValues,
+            m_AttFilter, m_NominalToBinary };
+          filters = new ThreadLocal<Filter[]>() {
+            @Override
+            protected Filter[] initialValue() {
+              Filter[] copies = new Filter[models.length];
+              try {
+                for (int i = 0; i < models.length; i++) {
+                  copies[i] = Filter.makeCopy(models[i]);
+                }
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+              return copies;
+            }
+          };
+          m_ThreadFilters = filters;
+        }
+      }
+    }
+    return filters.get();
   }
 
   /**
@@ -910,13 +1212,14 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
    * testing instance.
    * 
    * @param data the testing instance
-   * @return the posterior probability distribution
+   * @param prob the array to write the posterior probability distribution to
+   * @param v work array with one entry per class
    */
-  private double[] evaluateProbability(double[] data) {
-    double[] prob = new double[m_NumClasses], v = new double[m_NumClasses];
+  private void evaluateProbability(double[] data, double[] prob, double[] v) {
 
     // Log-posterior before normalizing
     for (int j = 0; j < m_NumClasses - 1; j++) {
+      v[j] = 0;
       for (int k = 0; k <= m_NumPredictors; k++) {
         v[j] += m_Par[k][j] * data[k];
       }
@@ -931,8 +1234,6 @@ public class Logistic extends AbstractClassifier implements OptionHandler,
       }
       prob[m] = 1 / (sum + Math.exp(-v[m]));
     }
-
-    return prob;
   }
 
   /**
@@ -21,11 +21,18 @@
 
 package weka.classifiers.functions;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import weka.classifiers.RandomizableClassifier;
 import weka.classifiers.UpdateableClassifier;
@@ -39,6 +46,7 @@ import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
 import weka.core.SelectedTag;
 import weka.core.Tag;
+import weka.core.TaskUtils;
 import weka.core.Utils;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Normalize;
@@ -82,6 +90,25 @@ import weka.filters.unsupervised.attribute.ReplaceMissingValues;
  * <pre> -M
  *  Don't replace missing values</pre>
  * 
+ * <pre> -schedule &lt;num&gt;
+ *  The learning rate schedule.
+ *  0 = constant, 1 = learning rate / (1 + learning rate * lambda * t),
+ *  2 = learning rate / sqrt(t).
+ *  (default = 0)</pre>
+ * 
+ * <pre> -num-threads &lt;num&gt;
+ *  The number of threads for batch learning
+ *  (default 1, 0 = number of cores).</pre>
+ * 
+ * <pre> -parallel-mode &lt;num&gt;
+ *  How the threads share the model.
+ *  0 = mini-batch averaging, 1 = asynchronous updates (Hogwild).
+ *  (default = 0)</pre>
+ * 
+ * <pre> -mini-batch-size &lt;num&gt;
+ *  The number of instances each thread processes
+ *  between averaging (default = 1000)</pre>
+ * 
  * <pre> -S &lt;num&gt;
  *  Random number seed.
  *  (default 1)</pre>
@@ -158,6 +185,25 @@ public class SGD extends RandomizableClassifier implements
   /** Holds the header of the training data */
   protected Instances m_data;
 
+  /**
+   * The scale factor of the attribute weights in m_weights. The weight decay
+   * only changes this factor, so an update touches just the weights of the
+   * non-zero values of the instance.
+   */
+  protected double m_wScale = 1;
+
+  /** The learning rate schedule */
+  protected int m_schedule = SCHEDULE_CONSTANT;
+
+  /** The number of threads for batch learning (0 = number of cores) */
+  protected int m_numThreads = 1;
+
+  /** How the threads share the model in batch learning */
+  protected int m_parallelMode = PARALLEL_MINI_BATCH;
+
+  /** The number of instances each thread processes between averaging */
+  protected int m_miniBatchSize = 1000;
+
   /**
    * Returns default capabilities of the classifier.
    * 
@@ -397,6 +443,131 @@ public class SGD extends RandomizableClassifier implements
         + "log loss (logistic regression) or " + "squared loss (regression).";
   }
 
+  /**
+   * Set the learning rate schedule.
+   * 
+   * @param schedule the learning rate schedule to use.
+   */
+  public void setLearningRateSchedule(SelectedTag schedule) {
+    if (schedule.getTags() == TAGS_SCHEDULE) {
+      m_schedule = schedule.getSelectedTag().getID();
+    }
+  }
+
+  /**
+   * Get the learning rate schedule.
+   * 
+   * @return the learning rate schedule.
+   */
+  public SelectedTag getLearningRateSchedule() {
+    return new SelectedTag(m_schedule, TAGS_SCHEDULE);
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String learningRateScheduleTipText() {
+    return "How the learning rate changes with the iteration number t: "
+        + "constant, learning rate / (1 + learning rate * lambda * t) or "
+        + "learning rate / sqrt(t).";
+  }
+
+  /**
+   * Set the number of threads for batch learning.
+   * 
+   * @param numThreads the number of threads, 0 for the number of cores
+   */
+  public void setNumThreads(int numThreads) {
+    m_numThreads = numThreads;
+  }
+
+  /**
+   * Get the number of threads for batch learning.
+   * 
+   * @return the number of threads, 0 for the number of cores
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads for batch learning (0 = number of cores). "
+        + "With more than one thread, each thread trains on its own part of "
+        + "the data, as given by the parallel mode.";
+  }
+
+  /**
+   * Set how the threads share the model in batch learning.
+   * 
+   * @param mode the parallel mode to use.
+   */
+  public void setParallelMode(SelectedTag mode) {
+    if (mode.getTags() == TAGS_PARALLEL_MODE) {
+      m_parallelMode = mode.getSelectedTag().getID();
+    }
+  }
+
+  /**
+   * Get how the threads share the model in batch learning.
+   * 
+   * @return the parallel mode.
+   */
+  public SelectedTag getParallelMode() {
+    return new SelectedTag(m_parallelMode, TAGS_PARALLEL_MODE);
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String parallelModeTipText() {
+    return "How the threads share the model. With mini-batch averaging, "
+        + "each thread trains a copy of the model on a mini-batch, and the "
+        + "copies are averaged (deterministic). With asynchronous updates, "
+        + "the threads update the shared weights without locking, which is "
+        + "faster for sparse data but not reproducible.";
+  }
+
+  /**
+   * Set the number of instances each thread processes between averaging.
+   * 
+   * @param size the mini-batch size
+   */
+  public void setMiniBatchSize(int size) {
+    m_miniBatchSize = size;
+  }
+
+  /**
+   * Get the number of instances each thread processes between averaging.
+   * 
+   * @return the mini-batch size
+   */
+  public int getMiniBatchSize() {
+    return m_miniBatchSize;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String miniBatchSizeTipText() {
+    return "The number of instances each thread processes before the copies "
+        + "of the model are averaged (mini-batch averaging only).";
+  }
+
   /**
    * Returns an enumeration describing the available options.
    * 
@@ -425,6 +596,19 @@ public class SGD extends RandomizableClassifier implements
         "-C <double>"));
     newVector.add(new Option("\tDon't normalize the data", "N", 0, "-N"));
     newVector.add(new Option("\tDon't replace missing values", "M", 0, "-M"));
+    newVector.add(new Option("\tThe learning rate schedule.\n\t0 = "
+        + "constant, 1 = learning rate / (1 + learning rate * lambda * t),\n\t"
+        + "2 = learning rate / sqrt(t).\n\t(default = 0)", "schedule", 1,
+        "-schedule <num>"));
+    newVector.add(new Option("\tThe number of threads for batch learning\n"
+        + "\t(default 1, 0 = number of cores).", "num-threads", 1,
+        "-num-threads <num>"));
+    newVector.add(new Option("\tHow the threads share the model.\n\t0 = "
+        + "mini-batch averaging, 1 = asynchronous updates (Hogwild).\n"
+        + "\t(default = 0)", "parallel-mode", 1, "-parallel-mode <num>"));
+    newVector.add(new Option("\tThe number of instances each thread processes"
+        + "\n\tbetween averaging (default = 1000)", "mini-batch-size", 1,
+        "-mini-batch-size <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
     
@@ -467,6 +651,25 @@ public class SGD extends RandomizableClassifier implements
    * <pre> -M
    *  Don't replace missing values</pre>
    * 
+   * <pre> -schedule &lt;num&gt;
+   *  The learning rate schedule.
+   *  0 = constant, 1 = learning rate / (1 + learning rate * lambda * t),
+   *  2 = learning rate / sqrt(t).
+   *  (default = 0)</pre>
+   * 
+   * <pre> -num-threads &lt;num&gt;
+   *  The number of threads for batch learning
+   *  (default 1, 0 = number of cores).</pre>
+   * 
+   * <pre> -parallel-mode &lt;num&gt;
+   *  How the threads share the model.
+   *  0 = mini-batch averaging, 1 = asynchronous updates (Hogwild).
+   *  (default = 0)</pre>
+   * 
+   * <pre> -mini-batch-size &lt;num&gt;
+   *  The number of instances each thread processes
+   *  between averaging (default = 1000)</pre>
+   * 
    * <pre> -S &lt;num&gt;
    *  Random number seed.
    *  (default 1)</pre>
@@ -516,6 +719,37 @@ public class SGD extends RandomizableClassifier implements
       setEpsilon(Double.parseDouble(epsilonString));
     }
 
+    String scheduleString = Utils.getOption("schedule", options);
+    if (scheduleString.length() > 0) {
+      setLearningRateSchedule(new SelectedTag(Integer.parseInt(scheduleString),
+          TAGS_SCHEDULE));
+    } else {
+      setLearningRateSchedule(new SelectedTag(SCHEDULE_CONSTANT,
+          TAGS_SCHEDULE));
+    }
+
+    String numThreadsString = Utils.getOption("num-threads", options);
+    if (numThreadsString.length() > 0) {
+      setNumThreads(Integer.parseInt(numThreadsString));
+    } else {
+      setNumThreads(1);
+    }
+
+    String modeString = Utils.getOption("parallel-mode", options);
+    if (modeString.length() > 0) {
+      setParallelMode(new SelectedTag(Integer.parseInt(modeString),
+          TAGS_PARALLEL_MODE));
+    } else {
+      setParallelMode(new SelectedTag(PARALLEL_MINI_BATCH, TAGS_PARALLEL_MODE));
+    }
+
+    String miniBatchString = Utils.getOption("mini-batch-size", options);
+    if (miniBatchString.length() > 0) {
+      setMiniBatchSize(Integer.parseInt(miniBatchString));
+    } else {
+      setMiniBatchSize(1000);
+    }
+
     setDontNormalize(Utils.getFlag("N", options));
     setDontReplaceMissing(Utils.getFlag('M', options));
     
@@ -547,6 +781,14 @@ public class SGD extends RandomizableClassifier implements
     if (getDontReplaceMissing()) {
       options.add("-M");
     }
+    options.add("-schedule");
+    options.add("" + getLearningRateSchedule().getSelectedTag().getID());
+    options.add("-num-threads");
+    options.add("" + getNumThreads());
+    options.add("-parallel-mode");
+    options.add("" + getParallelMode().getSelectedTag().getID());
+    options.add("-mini-batch-size");
+    options.add("" + getMiniBatchSize());
 
     Collections.addAll(options, super.getOptions());
     
@@ -578,6 +820,7 @@ public class SGD extends RandomizableClassifier implements
   public void reset() {
     m_t = 1;
     m_weights = null;
+    m_wScale = 1;
   }
 
   /**
@@ -667,6 +910,57 @@ public class SGD extends RandomizableClassifier implements
       new Tag(EPSILON_INSENSITIVE, "Epsilon-insensitive loss (SVM regression)"),
       new Tag(HUBER, "Huber loss (robust regression)") };
 
+  /** a constant learning rate. */
+  public static final int SCHEDULE_CONSTANT = 0;
+
+  /** learning rate / (1 + learning rate * lambda * t). */
+  public static final int SCHEDULE_INVERSE_SCALING = 1;
+
+  /** learning rate / sqrt(t). */
+  public static final int SCHEDULE_INVERSE_SQRT = 2;
+
+  /** Learning rate schedules to choose from */
+  public static final Tag[] TAGS_SCHEDULE = {
+      new Tag(SCHEDULE_CONSTANT, "Constant"),
+      new Tag(SCHEDULE_INVERSE_SCALING, "Inverse scaling"),
+      new Tag(SCHEDULE_INVERSE_SQRT, "Inverse square root") };
+
+  /** threads train copies of the model that are averaged after each batch. */
+  public static final int PARALLEL_MINI_BATCH = 0;
+
+  /** threads update the shared model without locking (Hogwild). */
+  public static final int PARALLEL_ASYNCHRONOUS = 1;
+
+  /** Parallel training modes to choose from */
+  public static final Tag[] TAGS_PARALLEL_MODE = {
+      new Tag(PARALLEL_MINI_BATCH, "Mini-batch averaging"),
+      new Tag(PARALLEL_ASYNCHRONOUS, "Asynchronous (Hogwild)") };
+
+  /** The weight scale factor below which it is multiplied into the weights */
+  protected static final double MIN_WEIGHT_SCALE = 1e-9;
+
+  /**
+   * Returns the learning rate for the given iteration.
+   * 
+   * @param schedule the learning rate schedule
+   * @param learningRate the initial learning rate
+   * @param lambda the regularization constant
+   * @param t the iteration number, starting at 1
+   * @return the learning rate
+   */
+  protected static double learningRate(int schedule, double learningRate,
+      double lambda, double t) {
+    if (schedule == SCHEDULE_INVERSE_SCALING) {
+      return learningRate / (1.0 + learningRate * lambda * t);
+    }
+
+    if (schedule == SCHEDULE_INVERSE_SQRT) {
+      return learningRate / Math.sqrt(t);
+    }
+
+    return learningRate;
+  }
+
   protected double dloss(double z) {
     if (m_loss == HINGE) {
       return (z < 1) ? 1 : 0;
@@ -709,11 +1003,86 @@ public class SGD extends RandomizableClassifier implements
   }
 
   private void train(Instances data) throws Exception {
+    int numThreads = (m_numThreads > 0) ? m_numThreads : Runtime.getRuntime()
+        .availableProcessors();
+    if (numThreads > 1 && data.numInstances() > 1) {
+      trainInParallel(data, numThreads);
+      return;
+    }
+
     for (int e = 0; e < m_epochs; e++) {
       for (int i = 0; i < data.numInstances(); i++) {
         updateClassifier(data.instance(i), false);
       }
     }
+    foldWeightScale();
+  }
+
+  /**
+   * Trains the model on the batch-filtered training data with several
+   * threads. The instances are converted to sparse vectors first.
+   * 
+   * @param data the randomized training data
+   * @param numThreads the number of threads to use
+   * @throws Exception if training fails
+   */
+  private void trainInParallel(Instances data, int numThreads)
+      throws Exception {
+    int n = data.numInstances();
+    int classIndex = data.classIndex();
+    int[][] indices = new int[n][];
+    double[][] values = new double[n][];
+    double[] targets = new double[n];
+    for (int i = 0; i < n; i++) {
+      Instance inst = data.instance(i);
+      int[] ind = new int[inst.numValues()];
+      double[] val = new double[inst.numValues()];
+      int numValues = 0;
+      for (int p = 0; p < inst.numValues(); p++) {
+        if (inst.index(p) != classIndex && !inst.isMissingSparse(p)
+            && inst.valueSparse(p) != 0) {
+          ind[numValues] = inst.index(p);
+          val[numValues++] = inst.valueSparse(p);
+        }
+      }
+      indices[i] = Arrays.copyOf(ind, numValues);
+      values[i] = Arrays.copyOf(val, numValues);
+      if (data.classAttribute().isNominal()) {
+        targets[i] = (inst.classValue() == 0) ? -1 : 1;
+      } else {
+        targets[i] = inst.classValue();
+      }
+    }
+
+    SparseTrainer trainer = new SparseTrainer(indices, values, null, targets,
+        data.classAttribute().isNumeric(), m_weights, m_lambda,
+        m_numInstances, 0) {
+
+      @Override
+      protected double learningRate(double t) {
+        return SGD.learningRate(m_schedule, m_learningRate, m_lambda, t);
+      }
+
+      @Override
+      protected double dloss(double z) {
+        return SGD.this.dloss(z);
+      }
+    };
+    m_t = trainer.train(m_t, m_epochs, numThreads, m_parallelMode,
+        m_miniBatchSize);
+  }
+
+  /**
+   * Multiplies the scale factor into the attribute weights and resets it to
+   * 1.
+   */
+  protected void foldWeightScale() {
+    if (m_weights != null && m_wScale != 1) {
+      for (int i = 0; i < m_weights.length - 1; i++) {
+        m_weights[i] *= m_wScale;
+      }
+    }
+    m_wScale = 1;
   }
 
   protected static double dotProd(Instance inst1, double[] weights,
@@ -773,7 +1142,8 @@ public class SGD extends RandomizableClassifier implements
         }
       }
 
-      double wx = dotProd(instance, m_weights, instance.classIndex());
+      double wx = dotProd(instance, m_weights, instance.classIndex())
+          * m_wScale;
 
       double y;
       double z;
@@ -786,15 +1156,20 @@ public class SGD extends RandomizableClassifier implements
         y = 1;
       }
 
-      // Compute multiplier for weight decay
+      double learningRate = learningRate(m_schedule, m_learningRate,
+          m_lambda, m_t);
+
+      // Compute multiplier for weight decay, which is applied to the scale
+      // factor of the weights
       double multiplier = 1.0;
       if (m_numInstances == 0) {
-        multiplier = 1.0 - (m_learningRate * m_lambda) / m_t;
+        multiplier = 1.0 - (learningRate * m_lambda) / m_t;
       } else {
-        multiplier = 1.0 - (m_learningRate * m_lambda) / m_numInstances;
+        multiplier = 1.0 - (learningRate * m_lambda) / m_numInstances;
       }
-      for (int i = 0; i < m_weights.length - 1; i++) {
-        m_weights[i] *= multiplier;
+      m_wScale *= multiplier;
+      if (m_wScale < MIN_WEIGHT_SCALE) {
+        foldWeightScale();
       }
 
       // Only need to do the following if the loss is non-zero
@@ -804,14 +1179,15 @@ public class SGD extends RandomizableClassifier implements
           || (m_loss == EPSILON_INSENSITIVE && Math.abs(z) > m_epsilon)) {
 
         // Compute Factor for updates
-        double factor = m_learningRate * y * dloss(z);
+        double factor = learningRate * y * dloss(z);
+        double attFactor = factor / m_wScale;
 
         // Update coefficients for attributes
         int n1 = instance.numValues();
         for (int p1 = 0; p1 < n1; p1++) {
           int indS = instance.index(p1);
           if (indS != instance.classIndex() && !instance.isMissingSparse(p1)) {
-            m_weights[indS] += factor * instance.valueSparse(p1);
+            m_weights[indS] += attFactor * instance.valueSparse(p1);
           }
         }
 
@@ -861,7 +1237,7 @@ public class SGD extends RandomizableClassifier implements
       inst = m_normalize.output();
     }
 
-    double wx = dotProd(inst, m_weights, inst.classIndex());// * m_wScale;
+    double wx = dotProd(inst, m_weights, inst.classIndex()) * m_wScale;
     double z = (wx + m_weights[m_weights.length - 1]);
 
     if (inst.classAttribute().isNumeric()) {
@@ -889,6 +1265,7 @@ public class SGD extends RandomizableClassifier implements
   }
 
   public double[] getWeights() {
+    foldWeightScale();
     return m_weights;
   }
 
@@ -902,6 +1279,7 @@ public class SGD extends RandomizableClassifier implements
     if (m_weights == null) {
       return "SGD: No model built yet.\n";
     }
+    foldWeightScale();
     StringBuffer buff = new StringBuffer();
     buff.append("Loss function: ");
     if (m_loss == HINGE) {
@@ -978,6 +1356,7 @@ public class SGD extends RandomizableClassifier implements
           + m_data.equalHeadersMsg(toAggregate.m_data));
     }
     
+    foldWeightScale();
     if (m_weights.length != toAggregate.getWeights().length) {
       throw new Exception(
           "Can't aggregate - SDG to aggregate has weight vector "
@@ -1014,6 +1393,506 @@ public class SGD extends RandomizableClassifier implements
     m_numModels = 0;
   }
   
+  /**
+   * Trains a linear model with several threads on instances that have been
+   * converted to sparse vectors. Used by SGD and SGDText for batch learning.
+   * <p/>
+   * 
+   * With mini-batch averaging, each thread trains a copy of the model on the
+   * next mini-batch from its part of the data, and the copies are averaged
+   * in a fixed order after each mini-batch. A copy only stores how its
+   * weights differ from the shared ones, so averaging takes time
+   * proportional to the number of weights that were updated. The shared
+   * weights and each copy have a scale factor that takes the weight decay.
+   * <p/>
+   * 
+   * With asynchronous updates, the threads read and write the shared weights
+   * without any locking (Hogwild). The weight decay of a weight is applied
+   * when it is next used, for all the iterations since it was last used.
+   */
+  protected abstract static class SparseTrainer {
+
+    /** The indices of the non-zero attribute values of each instance */
+    protected int[][] m_indices;
+
+    /** The non-zero attribute values of each instance */
+    protected double[][] m_values;
+
+    /** The factor for the values of each instance in dot products, or null */
+    protected double[] m_dotScales;
+
+    /** The class value of each instance (-1 or 1 for a binary class) */
+    protected double[] m_targets;
+
+    /** Whether the class is numeric */
+    protected boolean m_numericTarget;
+
+    /** The weights (+ bias in the last element) */
+    protected double[] m_weights;
+
+    /** The regularization parameter */
+    protected double m_lambda;
+
+    /** The number of training instances used in the weight decay */
+    protected double m_numInstances;
+
+    /** Weights with a smaller absolute value are ignored in dot products */
+    protected double m_minAbsWeight;
+
+    /** The scale factor of the shared attribute weights (mini-batches) */
+    protected double m_scale = 1;
+
+    /** The iteration up to which each weight has been decayed (asynchronous) */
+    protected double[] m_decayedUntil;
+
+    /**
+     * Creates a trainer.
+     * 
+     * @param indices the indices of the non-zero values of each instance
+     * @param values the non-zero values of each instance
+     * @param dotScales the factor for the values of each instance in dot
+     *          products, or null
+     * @param targets the class value of each instance (-1 or 1 for a binary
+     *          class)
+     * @param numericTarget whether the class is numeric
+     * @param weights the weights (+ bias in the last element), which are
+     *          updated in place
+     * @param lambda the regularization parameter
+     * @param numInstances the number of training instances used in the weight
+     *          decay
+     * @param minAbsWeight weights with a smaller absolute value are ignored in
+     *          dot products
+     */
+    public SparseTrainer(int[][] indices, double[][] values,
+        double[] dotScales, double[] targets, boolean numericTarget,
+        double[] weights, double lambda, double numInstances,
+        double minAbsWeight) {
+      m_indices = indices;
+      m_values = values;
+      m_dotScales = dotScales;
+      m_targets = targets;
+      m_numericTarget = numericTarget;
+      m_weights = weights;
+      m_lambda = lambda;
+      m_numInstances = numInstances;
+      m_minAbsWeight = minAbsWeight;
+    }
+
+    /**
+     * Returns the learning rate for the given iteration.
+     * 
+     * @param t the iteration number
+     * @return the learning rate
+     */
+    protected abstract double learningRate(double t);
+
+    /**
+     * Returns the derivative of the loss function.
+     * 
+     * @param z the margin (binary class) or error (numeric class)
+     * @return the derivative
+     */
+    protected abstract double dloss(double z);
+
+    /**
+     * Trains the model for the given number of epochs.
+     * 
+     * @param t the iteration number to start from
+     * @param epochs the number of epochs
+     * @param numThreads the number of threads
+     * @param mode PARALLEL_MINI_BATCH or PARALLEL_ASYNCHRONOUS
+     * @param miniBatchSize the number of instances each thread processes
+     *          between averaging
+     * @return the iteration number after training
+     * @throws Exception if training fails
+     */
+    public double train(double t, int epochs, int numThreads, int mode,
+        int miniBatchSize) throws Exception {
+      numThreads = Math.max(1, Math.min(numThreads, m_targets.length));
+      ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+      try {
+        if (mode == PARALLEL_ASYNCHRONOUS) {
+          return trainAsynchronously(pool, t, epochs, numThreads);
+        }
+        return trainMiniBatches(pool, t, epochs, numThreads,
+            Math.max(1, miniBatchSize));
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+
+    /**
+     * Returns the index of the first instance in a thread's part of the data.
+     * 
+     * @param k the index of the thread, or the number of threads for the end
+     *          of the data
+     * @param numThreads the number of threads
+     * @return the index of the instance
+     */
+    protected int partStart(int k, int numThreads) {
+      return (int) ((long) m_targets.length * k / numThreads);
+    }
+
+    /**
+     * Returns the gradient step for the bias, given the dot product of an
+     * instance with the attribute weights. The step for each attribute weight
+     * is this times the attribute value.
+     * 
+     * @param i the index of the instance
+     * @param wx the dot product
+     * @param bias the bias
+     * @param learningRate the learning rate
+     * @return the step
+     */
+    protected double step(int i, double wx, double bias, double learningRate) {
+      if (m_dotScales != null) {
+        wx *= m_dotScales[i];
+      }
+      if (m_numericTarget) {
+        return learningRate * dloss(m_targets[i] - (wx + bias));
+      }
+      return learningRate * m_targets[i] * dloss(m_targets[i] * (wx + bias));
+    }
+
+    /**
+     * Runs the given tasks and waits for all of them.
+     * 
+     * @param pool the thread pool
+     * @param tasks the tasks
+     * @throws Exception if a task fails
+     */
+    protected void runAll(ExecutorService pool,
+        List<? extends Callable<Void>> tasks) throws Exception {
+      TaskUtils.waitForAll(pool.invokeAll(tasks));
+    }
+
+    /**
+     * Trains the model with mini-batch averaging.
+     * 
+     * @param pool the thread pool
+     * @param t the iteration number to start from
+     * @param epochs the number of epochs
+     * @param numThreads the number of threads
+     * @param miniBatchSize the number of instances each thread processes
+     *          between averaging
+     * @return the iteration number after training
+     * @throws Exception if training fails
+     */
+    protected double trainMiniBatches(ExecutorService pool, double t,
+        int epochs, int numThreads, int miniBatchSize) throws Exception {
+      int numWeights = m_weights.length - 1;
+      MiniBatchTask[] tasks = new MiniBatchTask[numThreads];
+      for (int k = 0; k < numThreads; k++) {
+        tasks[k] = new MiniBatchTask(numWeights);
+      }
+      int partSize = (m_targets.length + numThreads - 1) / numThreads;
+      List<MiniBatchTask> active = new ArrayList<MiniBatchTask>(numThreads);
+
+      for (int e = 0; e < epochs; e++) {
+        for (int offset = 0; offset < partSize; offset += miniBatchSize) {
+          active.clear();
+          for (int k = 0; k < numThreads; k++) {
+            int from = partStart(k, numThreads) + offset;
+            int to = Math.min(from + miniBatchSize,
+                partStart(k + 1, numThreads));
+            if (from < to) {
+              tasks[k].m_from = from;
+              tasks[k].m_to = to;
+              active.add(tasks[k]);
+            }
+          }
+          int processed = 0;
+          for (int a = 0; a < active.size(); a++) {
+            MiniBatchTask task = active.get(a);
+            task.m_t = t + a;
+            task.m_stride = active.size();
+            processed += task.m_to - task.m_from;
+          }
+          runAll(pool, active);
+          average(active);
+          t += processed;
+        }
+      }
+
+      for (int j = 0; j < numWeights; j++) {
+        m_weights[j] *= m_scale;
+      }
+      m_scale = 1;
+
+      return t;
+    }
+
+    /**
+     * Replaces the shared weights by the average of the copies trained on the
+     * last mini-batches.
+     * 
+     * @param tasks the tasks holding the copies, in a fixed order
+     */
+    protected void average(List<MiniBatchTask> tasks) {
+      int numWeights = m_weights.length - 1;
+      double meanScale = 0;
+      double bias = 0;
+      for (MiniBatchTask task : tasks) {
+        meanScale += task.m_localScale;
+        bias += task.m_bias;
+      }
+      meanScale /= tasks.size();
+      bias /= tasks.size();
+
+      // the average of the copies is the shared weights times the mean of
+      // their scale factors, plus the average of their scaled differences
+      double newScale = m_scale * meanScale;
+      if (newScale < MIN_WEIGHT_SCALE) {
+        for (int j = 0; j < numWeights; j++) {
+          m_weights[j] *= newScale;
+        }
+        newScale = 1;
+      }
+      for (MiniBatchTask task : tasks) {
+        double factor = task.m_localScale / (tasks.size() * newScale);
+        for (int p = 0; p < task.m_numTouched; p++) {
+          int j = task.m_touched[p];
+          m_weights[j] += factor * task.m_delta[j];
+          task.m_delta[j] = 0;
+          task.m_isTouched[j] = false;
+        }
+        task.m_numTouched = 0;
+      }
+      m_scale = newScale;
+      m_weights[numWeights] = bias;
+    }
+
+    /**
+     * Task that trains a copy of the model on a mini-batch. The attribute
+     * weights of the copy are m_localScale * (m_scale * m_weights + m_delta).
+     */
+    protected class MiniBatchTask implements Callable<Void> {
+
+      /** The differences from the scaled shared weights */
+      protected double[] m_delta;
+
+      /** Whether the difference of each weight may be non-zero */
+      protected boolean[] m_isTouched;
+
+      /** The indices of the weights whose difference may be non-zero */
+      protected int[] m_touched;
+
+      /** The number of indices in m_touched */
+      protected int m_numTouched;
+
+      /** The scale factor of the copy */
+      protected double m_localScale;
+
+      /** The bias of the copy */
+      protected double m_bias;
+
+      /** The index of the first instance of the mini-batch */
+      protected int m_from;
+
+      /** The index after the last instance of the mini-batch */
+      protected int m_to;
+
+      /** The iteration number of the first instance */
+      protected double m_t;
+
+      /** The increment of the iteration number per instance */
+      protected int m_stride;
+
+      /**
+       * Creates the task.
+       * 
+       * @param numWeights the number of attribute weights
+       */
+      public MiniBatchTask(int numWeights) {
+        m_delta = new double[numWeights];
+        m_isTouched = new boolean[numWeights];
+        m_touched = new int[numWeights];
+      }
+
+      @Override
+      public Void call() throws Exception {
+        m_localScale = 1;
+        m_bias = m_weights[m_weights.length - 1];
+        double t = m_t;
+        for (int i = m_from; i < m_to; i++, t += m_stride) {
+          int[] indices = m_indices[i];
+          double[] values = m_values[i];
+          double wx = 0;
+          for (int p = 0; p < indices.length; p++) {
+            int j = indices[p];
+            double w = m_localScale * (m_scale * m_weights[j] + m_delta[j]);
+            if (Math.abs(w) >= m_minAbsWeight) {
+              wx += values[p] * w;
+            }
+          }
+
+          double learningRate = learningRate(t);
+          double factor = step(i, wx, m_bias, learningRate);
+
+          m_localScale *= 1.0 - (learningRate * m_lambda) / m_numInstances;
+          if (m_localScale < MIN_WEIGHT_SCALE) {
+            foldScale();
+          }
+
+          if (factor != 0) {
+            double attFactor = factor / m_localScale;
+            for (int p = 0; p < indices.length; p++) {
+              int j = indices[p];
+              if (!m_isTouched[j]) {
+                m_isTouched[j] = true;
+                m_touched[m_numTouched++] = j;
+              }
+              m_delta[j] += attFactor * values[p];
+            }
+            m_bias += factor;
+          }
+        }
+        return null;
+      }
+
+      /**
+       * Multiplies the scale factor of the copy into its differences.
+       */
+      protected void foldScale() {
+        for (int j = 0; j < m_delta.length; j++) {
+          double shared = m_scale * m_weights[j];
+          m_delta[j] = m_localScale * (shared + m_delta[j]) - shared;
+          m_isTouched[j] = true;
+          m_touched[j] = j;
+        }
+        m_numTouched = m_delta.length;
+        m_localScale = 1;
+      }
+    }
+
+    /**
+     * Trains the model with asynchronous updates of the shared weights.
+     * 
+     * @param pool the thread pool
+     * @param t the iteration number to start from
+     * @param epochs the number of epochs
+     * @param numThreads the number of threads
+     * @return the iteration number after training
+     * @throws Exception if training fails
+     */
+    protected double trainAsynchronously(ExecutorService pool, double t,
+        int epochs, int numThreads) throws Exception {
+      int numWeights = m_weights.length - 1;
+      m_decayedUntil = new double[numWeights];
+      Arrays.fill(m_decayedUntil, t);
+
+      List<AsynchronousTask> tasks = new ArrayList<AsynchronousTask>(
+          numThreads);
+      for (int e = 0; e < epochs; e++) {
+        tasks.clear();
+        for (int k = 0; k < numThreads; k++) {
+          tasks.add(new AsynchronousTask(partStart(k, numThreads), partStart(
+              k + 1, numThreads), t + k, numThreads));
+        }
+        runAll(pool, tasks);
+        t += m_targets.length;
+      }
+
+      // apply the outstanding weight decay
+      double multiplier = 1.0 - (learningRate(t) * m_lambda) / m_numInstances;
+      for (int j = 0; j < numWeights; j++) {
+        if (t > m_decayedUntil[j]) {
+          m_weights[j] *= Math.pow(multiplier, t - m_decayedUntil[j]);
+        }
+      }
+      m_decayedUntil = null;
+
+      return t;
+    }
+
+    /**
+     * Task that trains the shared model on a thread's part of the data.
+     */
+    protected class AsynchronousTask implements Callable<Void> {
+
+      /** The index of the first instance */
+      protected int m_from;
+
+      /** The index after the last instance */
+      protected int m_to;
+
+      /** The iteration number of the first instance */
+      protected double m_t;
+
+      /** The increment of the iteration number per instance */
+      protected int m_stride;
+
+      /**
+       * Creates the task.
+       * 
+       * @param from the index of the first instance
+       * @param to the index after the last instance
+       * @param t the iteration number of the first instance
+       * @param stride the increment of the iteration number per instance
+       */
+      public AsynchronousTask(int from, int to, double t, int stride) {
+        m_from = from;
+        m_to = to;
+        m_t = t;
+        m_stride = stride;
+      }
+
+      @Override
+      public Void call() throws Exception {
+        int numWeights = m_weights.length - 1;
+        double t = m_t;
+        for (int i = m_from; i < m_to; i++, t += m_stride) {
+          int[] indices = m_indices[i];
+          double[] values = m_values[i];
+          double learningRate = learningRate(t);
+          double multiplier = 1.0 - (learningRate * m_lambda) / m_numInstances;
+
+          // catch up on the decay of the weights used, up to this iteration
+          double wx = 0;
+          for (int p = 0; p < indices.length; p++) {
+            int j = indices[p];
+            double w = m_weights[j];
+            double gap = t - m_decayedUntil[j];
+            if (gap > 0) {
+              w *= (gap == 1) ? multiplier : Math.pow(multiplier, gap);
+              m_weights[j] = w;
+              m_decayedUntil[j] = t;
+            }
+            if (Math.abs(w) >= m_minAbsWeight) {
+              wx += values[p] * w;
+            }
+          }
+
+          double factor = step(i, wx, m_weights[numWeights], learningRate);
+          if (factor != 0) {
+            for (int p = 0; p < indices.length; p++) {
+              int j = indices[p];
+              m_weights[j] = m_weights[j] * multiplier + factor * values[p];
+              m_decayedUntil[j] = t + 1;
+            }
+            m_weights[numWeights] += factor;
+          }
+        }
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Restores the scale factor of the weights for models saved without one.
+   * 
+   * @param in the stream to read from
+   * @throws IOException if the model can't be read
+   * @throws ClassNotFoundException if a class can't be found
+   */
+  private void readObject(ObjectInputStream in) throws IOException,
+      ClassNotFoundException {
+    in.defaultReadObject();
+    if (m_wScale == 0) {
+      m_wScale = 1;
+    }
+  }
+
   /**
    * Main method for testing this class.
    */
@@ -21,10 +21,14 @@
 
 package weka.classifiers.functions;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -120,6 +124,25 @@ import weka.core.tokenizers.WordTokenizer;
  * <pre> -stemmer &lt;spec&gt;
  *  The stemmering algorihtm (classname plus parameters) to use.</pre>
  * 
+ * <pre> -schedule &lt;num&gt;
+ *  The learning rate schedule.
+ *  0 = constant, 1 = learning rate / (1 + learning rate * lambda * t),
+ *  2 = learning rate / sqrt(t).
+ *  (default = 0)</pre>
+ * 
+ * <pre> -num-threads &lt;num&gt;
+ *  The number of threads for batch learning
+ *  (default 1, 0 = number of cores).</pre>
+ * 
+ * <pre> -parallel-mode &lt;num&gt;
+ *  How the threads share the model.
+ *  0 = mini-batch averaging, 1 = asynchronous updates (Hogwild).
+ *  (default = 0)</pre>
+ * 
+ * <pre> -mini-batch-size &lt;num&gt;
+ *  The number of instances each thread processes
+ *  between averaging (default = 1000)</pre>
+ * 
  * <pre> -S &lt;num&gt;
  *  Random number seed.
  *  (default 1)</pre>
@@ -230,6 +253,25 @@ public class SGDText extends RandomizableClassifier implements
    */
   protected int m_epochs = 500;
 
+  /**
+   * The scale factor of the term weights in the dictionary. The weight decay
+   * only changes this factor, so an update touches just the weights of the
+   * terms in the document.
+   */
+  protected double m_wScale = 1;
+
+  /** The learning rate schedule */
+  protected int m_schedule = SGD.SCHEDULE_CONSTANT;
+
+  /** The number of threads for batch learning (0 = number of cores) */
+  protected int m_numThreads = 1;
+
+  /** How the threads share the model in batch learning */
+  protected int m_parallelMode = SGD.PARALLEL_MINI_BATCH;
+
+  /** The number of instances each thread processes between averaging */
+  protected int m_miniBatchSize = 1000;
+
   /**
    * Holds the current document vector (LinkedHashMap is more efficient when
    * iterating over EntrySet than HashMap)
@@ -791,6 +833,131 @@ public class SGDText extends RandomizableClassifier implements
       + "producing probability estimates";
   }
 
+  /**
+   * Set the learning rate schedule.
+   * 
+   * @param schedule the learning rate schedule to use.
+   */
+  public void setLearningRateSchedule(SelectedTag schedule) {
+    if (schedule.getTags() == SGD.TAGS_SCHEDULE) {
+      m_schedule = schedule.getSelectedTag().getID();
+    }
+  }
+
+  /**
+   * Get the learning rate schedule.
+   * 
+   * @return the learning rate schedule.
+   */
+  public SelectedTag getLearningRateSchedule() {
+    return new SelectedTag(m_schedule, SGD.TAGS_SCHEDULE);
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String learningRateScheduleTipText() {
+    return "How the learning rate changes with the iteration number t: "
+      + "constant, learning rate / (1 + learning rate * lambda * t) or "
+      + "learning rate / sqrt(t).";
+  }
+
+  /**
+   * Set the number of threads for batch learning.
+   * 
+   * @param numThreads the number of threads, 0 for the number of cores
+   */
+  public void setNumThreads(int numThreads) {
+    m_numThreads = numThreads;
+  }
+
+  /**
+   * Get the number of threads for batch learning.
+   * 
+   * @return the number of threads, 0 for the number of cores
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads for batch learning (0 = number of cores). "
+      + "The first epoch, which builds the dictionary, is always "
+      + "sequential, and so is all training when probabilities are output "
+      + "for an SVM.";
+  }
+
+  /**
+   * Set how the threads share the model in batch learning.
+   * 
+   * @param mode the parallel mode to use.
+   */
+  public void setParallelMode(SelectedTag mode) {
+    if (mode.getTags() == SGD.TAGS_PARALLEL_MODE) {
+      m_parallelMode = mode.getSelectedTag().getID();
+    }
+  }
+
+  /**
+   * Get how the threads share the model in batch learning.
+   * 
+   * @return the parallel mode.
+   */
+  public SelectedTag getParallelMode() {
+    return new SelectedTag(m_parallelMode, SGD.TAGS_PARALLEL_MODE);
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String parallelModeTipText() {
+    return "How the threads share the model. With mini-batch averaging, "
+      + "each thread trains a copy of the model on a mini-batch, and the "
+      + "copies are averaged (deterministic). With asynchronous updates, "
+      + "the threads update the shared weights without locking.";
+  }
+
+  /**
+   * Set the number of instances each thread processes between averaging.
+   * 
+   * @param size the mini-batch size
+   */
+  public void setMiniBatchSize(int size) {
+    m_miniBatchSize = size;
+  }
+
+  /**
+   * Get the number of instances each thread processes between averaging.
+   * 
+   * @return the mini-batch size
+   */
+  public int getMiniBatchSize() {
+    return m_miniBatchSize;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String miniBatchSizeTipText() {
+    return "The number of instances each thread processes before the copies "
+      + "of the model are averaged (mini-batch averaging only).";
+  }
+
   /**
    * Returns an enumeration describing the available options.
    * 
@@ -848,6 +1015,19 @@ public class SGDText extends RandomizableClassifier implements
     newVector.addElement(new Option(
       "\tThe stemmering algorihtm (classname plus parameters) to use.",
       "stemmer", 1, "-stemmer <spec>"));
+    newVector.addElement(new Option("\tThe learning rate schedule.\n\t0 = "
+      + "constant, 1 = learning rate / (1 + learning rate * lambda * t),\n\t"
+      + "2 = learning rate / sqrt(t).\n\t(default = 0)", "schedule", 1,
+      "-schedule <num>"));
+    newVector.addElement(new Option("\tThe number of threads for batch "
+      + "learning\n\t(default 1, 0 = number of cores).", "num-threads", 1,
+      "-num-threads <num>"));
+    newVector.addElement(new Option("\tHow the threads share the model.\n"
+      + "\t0 = mini-batch averaging, 1 = asynchronous updates (Hogwild).\n"
+      + "\t(default = 0)", "parallel-mode", 1, "-parallel-mode <num>"));
+    newVector.addElement(new Option("\tThe number of instances each thread "
+      + "processes\n\tbetween averaging (default = 1000)", "mini-batch-size",
+      1, "-mini-batch-size <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
 
@@ -917,6 +1097,25 @@ public class SGDText extends RandomizableClassifier implements
    * <pre> -stemmer &lt;spec&gt;
    *  The stemmering algorihtm (classname plus parameters) to use.</pre>
    * 
+   * <pre> -schedule &lt;num&gt;
+   *  The learning rate schedule.
+   *  0 = constant, 1 = learning rate / (1 + learning rate * lambda * t),
+   *  2 = learning rate / sqrt(t).
+   *  (default = 0)</pre>
+   * 
+   * <pre> -num-threads &lt;num&gt;
+   *  The number of threads for batch learning
+   *  (default 1, 0 = number of cores).</pre>
+   * 
+   * <pre> -parallel-mode &lt;num&gt;
+   *  How the threads share the model.
+   *  0 = mini-batch averaging, 1 = asynchronous updates (Hogwild).
+   *  (default = 0)</pre>
+   * 
+   * <pre> -mini-batch-size &lt;num&gt;
+   *  The number of instances each thread processes
+   *  between averaging (default = 1000)</pre>
+   * 
    * <pre> -S &lt;num&gt;
    *  Random number seed.
    *  (default 1)</pre>
@@ -1035,6 +1234,38 @@ public class SGDText extends RandomizableClassifier implements
       setTokenizer(tokenizer);
     }
 
+    String scheduleString = Utils.getOption("schedule", options);
+    if (scheduleString.length() > 0) {
+      setLearningRateSchedule(new SelectedTag(Integer.parseInt(scheduleString),
+        SGD.TAGS_SCHEDULE));
+    } else {
+      setLearningRateSchedule(new SelectedTag(SGD.SCHEDULE_CONSTANT,
+        SGD.TAGS_SCHEDULE));
+    }
+
+    String numThreadsString = Utils.getOption("num-threads", options);
+    if (numThreadsString.length() > 0) {
+      setNumThreads(Integer.parseInt(numThreadsString));
+    } else {
+      setNumThreads(1);
+    }
+
+    String modeString = Utils.getOption("parallel-mode", options);
+    if (modeString.length() > 0) {
+      setParallelMode(new SelectedTag(Integer.parseInt(modeString),
+        SGD.TAGS_PARALLEL_MODE));
+    } else {
+      setParallelMode(new SelectedTag(SGD.PARALLEL_MINI_BATCH,
+        SGD.TAGS_PARALLEL_MODE));
+    }
+
+    String miniBatchString = Utils.getOption("mini-batch-size", options);
+    if (miniBatchString.length() > 0) {
+      setMiniBatchSize(Integer.parseInt(miniBatchString));
+    } else {
+      setMiniBatchSize(1000);
+    }
+
     super.setOptions(options);
 
     Utils.checkForRemainingOptions(options);
@@ -1113,6 +1344,15 @@ public class SGDText extends RandomizableClassifier implements
       options.add(spec.trim());
     }
 
+    options.add("-schedule");
+    options.add("" + getLearningRateSchedule().getSelectedTag().getID());
+    options.add("-num-threads");
+    options.add("" + getNumThreads());
+    options.add("-parallel-mode");
+    options.add("" + getParallelMode().getSelectedTag().getID());
+    options.add("-mini-batch-size");
+    options.add("" + getMiniBatchSize());
+
     Collections.addAll(options, super.getOptions());
 
     return options.toArray(new String[1]);
@@ -1138,6 +1378,7 @@ public class SGDText extends RandomizableClassifier implements
   public void reset() {
     m_t = 1;
     m_bias = 0;
+    m_wScale = 1;
     m_dictionary = null;
   }
 
@@ -1186,6 +1427,8 @@ public class SGDText extends RandomizableClassifier implements
     m_svmProbs.setLearningRate(m_learningRate);
     m_svmProbs.setLambda(m_lambda);
     m_svmProbs.setEpochs(m_epochs);
+    m_svmProbs.setLearningRateSchedule(new SelectedTag(m_schedule,
+      SGD.TAGS_SCHEDULE));
     ArrayList<Attribute> atts = new ArrayList<Attribute>(2);
     atts.add(new Attribute("pred"));
     ArrayList<String> attVals = new ArrayList<String>(2);
@@ -1199,7 +1442,19 @@ public class SGDText extends RandomizableClassifier implements
   }
 
   protected void train(Instances data) throws Exception {
+    int numThreads = (m_numThreads > 0) ? m_numThreads : Runtime.getRuntime()
+      .availableProcessors();
+
+    // the first epoch builds the dictionary, and the logistic model for SVM
+    // probabilities is updated after every instance, so these stay sequential
+    boolean parallel = numThreads > 1 && data.numInstances() > 1
+      && !(m_loss == HINGE && m_fitLogistic);
+
     for (int e = 0; e < m_epochs; e++) {
+      if (parallel && e > 0) {
+        trainInParallel(data, m_epochs - e, numThreads);
+        break;
+      }
       for (int i = 0; i < data.numInstances(); i++) {
         if (e == 0) {
           updateClassifier(data.instance(i), true);
@@ -1208,6 +1463,117 @@ public class SGDText extends RandomizableClassifier implements
         }
       }
     }
+    foldWeightScale();
+  }
+
+  /**
+   * Trains the model for the given number of epochs with several threads,
+   * after the dictionary has been built. The documents are converted to
+   * sparse vectors over the dictionary terms that are frequent enough to be
+   * used in the model; the other terms are pruned after training anyway.
+   * 
+   * @param data the randomized training data
+   * @param epochs the number of epochs
+   * @param numThreads the number of threads to use
+   * @throws Exception if training fails
+   */
+  protected void trainInParallel(Instances data, int epochs, int numThreads)
+    throws Exception {
+    foldWeightScale();
+
+    HashMap<String, Integer> termIndex = new HashMap<String, Integer>();
+    ArrayList<Count> terms = new ArrayList<Count>();
+    for (Map.Entry<String, Count> entry : m_dictionary.entrySet()) {
+      if (entry.getValue().m_count >= m_minWordP) {
+        termIndex.put(entry.getKey(), terms.size());
+        terms.add(entry.getValue());
+      }
+    }
+
+    int numDocs = 0;
+    for (int i = 0; i < data.numInstances(); i++) {
+      if (!data.instance(i).classIsMissing()) {
+        numDocs++;
+      }
+    }
+    int[][] indices = new int[numDocs][];
+    double[][] values = new double[numDocs][];
+    double[] dotScales = m_normalize ? new double[numDocs] : null;
+    double[] targets = new double[numDocs];
+    int k = 0;
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance instance = data.instance(i);
+      if (instance.classIsMissing()) {
+        continue;
+      }
+      tokenizeInstance(instance, false);
+
+      // document normalization, as in dotProd()
+      if (m_normalize) {
+        double iNorm = 0;
+        for (Count c : m_inputVector.values()) {
+          double fv = (m_wordFrequencies) ? c.m_count : 1.0;
+          iNorm += Math.pow(Math.abs(fv), m_lnorm);
+        }
+        dotScales[k] = m_norm / Math.pow(iNorm, 1.0 / m_lnorm);
+      }
+
+      int[] ind = new int[m_inputVector.size()];
+      double[] val = new double[m_inputVector.size()];
+      int numValues = 0;
+      for (Map.Entry<String, Count> feature : m_inputVector.entrySet()) {
+        Integer index = termIndex.get(feature.getKey());
+        if (index != null) {
+          ind[numValues] = index;
+          val[numValues++] = (m_wordFrequencies) ? feature.getValue().m_count
+            : 1;
+        }
+      }
+      indices[k] = Arrays.copyOf(ind, numValues);
+      values[k] = Arrays.copyOf(val, numValues);
+      targets[k] = (instance.classValue() == 0) ? -1 : 1;
+      k++;
+    }
+
+    double[] weights = new double[terms.size() + 1];
+    for (int j = 0; j < terms.size(); j++) {
+      weights[j] = terms.get(j).m_weight;
+    }
+    weights[terms.size()] = m_bias;
+
+    SGD.SparseTrainer trainer = new SGD.SparseTrainer(indices, values,
+      dotScales, targets, false, weights, m_lambda, m_numInstances,
+      m_minAbsCoefficient) {
+
+      @Override
+      protected double learningRate(double t) {
+        return SGD.learningRate(m_schedule, m_learningRate, m_lambda, t);
+      }
+
+      @Override
+      protected double dloss(double z) {
+        return SGDText.this.dloss(z);
+      }
+    };
+    m_t = trainer.train(m_t, epochs, numThreads, m_parallelMode,
+      m_miniBatchSize);
+
+    for (int j = 0; j < terms.size(); j++) {
+      terms.get(j).m_weight = weights[j];
+    }
+    m_bias = weights[terms.size()];
+  }
+
+  /**
+   * Multiplies the scale factor into the term weights and resets it to 1.
+   */
+  protected void foldWeightScale() {
+    if (m_dictionary != null && m_wScale != 1) {
+      for (Count c : m_dictionary.values()) {
+        c.m_weight *= m_wScale;
+      }
+    }
+    m_wScale = 1;
   }
 
   /**
@@ -1247,23 +1613,28 @@ public class SGDText extends RandomizableClassifier implements
       double y = (instance.classValue() == 0) ? -1 : 1;
       double z = y * (wx + m_bias);
 
-      // Compute multiplier for weight decay
+      double learningRate = SGD.learningRate(m_schedule, m_learningRate,
+        m_lambda, m_t);
+
+      // Compute multiplier for weight decay, which is applied to the scale
+      // factor of the weights
       double multiplier = 1.0;
       if (m_numInstances == 0) {
-        multiplier = 1.0 - (m_learningRate * m_lambda) / m_t;
+        multiplier = 1.0 - (learningRate * m_lambda) / m_t;
       } else {
-        multiplier = 1.0 - (m_learningRate * m_lambda) / m_numInstances;
+        multiplier = 1.0 - (learningRate * m_lambda) / m_numInstances;
       }
-
-      for (Map.Entry<String, Count> c : m_dictionary.entrySet()) {
-        c.getValue().m_weight *= multiplier;
+      m_wScale *= multiplier;
+      if (m_wScale < SGD.MIN_WEIGHT_SCALE) {
+        foldWeightScale();
       }
 
       // Only need to do the following if the loss is non-zero
       if (m_loss != HINGE || (z < 1)) {
         // Compute Factor for updates
         double dloss = dloss(z);
-        double factor = m_learningRate * y * dloss;
+        double factor = learningRate * y * dloss;
+        double termFactor = factor / m_wScale;
 
         // Update coefficients for attributes
         for (Map.Entry<String, Count> feature : m_inputVector.entrySet()) {
@@ -1272,7 +1643,7 @@ public class SGDText extends RandomizableClassifier implements
 
           Count c = m_dictionary.get(word);
           if (c != null) {
-            c.m_weight += factor * value;
+            c.m_weight += termFactor * value;
           }
         }
 
@@ -1336,6 +1707,7 @@ public class SGDText extends RandomizableClassifier implements
     if ((m_periodicP <= 0 || m_t % m_periodicP > 0) && !force) {
       return;
     }
+    foldWeightScale();
 
     Iterator<Map.Entry<String, Count>> entries = m_dictionary.entrySet()
       .iterator();
@@ -1418,8 +1790,8 @@ public class SGDText extends RandomizableClassifier implements
       Count weight = m_dictionary.get(word);
 
       if (weight != null && weight.m_count >= m_minWordP
-        && Math.abs(weight.m_weight) >= m_minAbsCoefficient) {
-        result += freq * weight.m_weight;
+        && Math.abs(weight.m_weight * m_wScale) >= m_minAbsCoefficient) {
+        result += freq * weight.m_weight * m_wScale;
       }
     }
 
@@ -1431,6 +1803,7 @@ public class SGDText extends RandomizableClassifier implements
     if (m_dictionary == null) {
       return "SGDText: No model built yet.\n";
     }
+    foldWeightScale();
 
     StringBuffer buff = new StringBuffer();
     buff.append("SGDText:\n\n");
@@ -1490,6 +1863,7 @@ public class SGDText extends RandomizableClassifier implements
    * @return this model's dictionary.
    */
   public LinkedHashMap<String, Count> getDictionary() {
+    foldWeightScale();
     return m_dictionary;
   }
 
@@ -1501,6 +1875,7 @@ public class SGDText extends RandomizableClassifier implements
    */
   public int getDictionarySize() {
     int size = 0;
+    foldWeightScale();
     if (m_dictionary != null) {
       Iterator<Map.Entry<String, Count>> entries = m_dictionary.entrySet()
         .iterator();
@@ -1550,6 +1925,7 @@ public class SGDText extends RandomizableClassifier implements
     if (m_dictionary == null) {
       throw new Exception("No model built yet, can't aggregate");
     }
+    foldWeightScale();
     LinkedHashMap<String, SGDText.Count> tempDict = toAggregate.getDictionary();
 
     Iterator<Map.Entry<String, SGDText.Count>> entries = tempDict.entrySet()
@@ -1614,6 +1990,21 @@ public class SGDText extends RandomizableClassifier implements
     pruneDictionary(true);
   }
 
+  /**
+   * Restores the scale factor of the weights for models saved without one.
+   * 
+   * @param in the stream to read from
+   * @throws IOException if the model can't be read
+   * @throws ClassNotFoundException if a class can't be found
+   */
+  private void readObject(ObjectInputStream in) throws IOException,
+    ClassNotFoundException {
+    in.defaultReadObject();
+    if (m_wScale == 0) {
+      m_wScale = 1;
+    }
+  }
+
   /**
    * Main method for testing this class.
    */
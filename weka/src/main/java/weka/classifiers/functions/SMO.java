@@ -23,6 +23,7 @@ package weka.classifiers.functions;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
+import weka.classifiers.functions.supportVector.CachedKernel;
 import weka.classifiers.functions.supportVector.Kernel;
 import weka.classifiers.functions.supportVector.PolyKernel;
 import weka.classifiers.functions.supportVector.SMOset;
@@ -37,10 +38,12 @@ import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
 import weka.core.SelectedTag;
 import weka.core.Tag;
+import weka.core.TaskUtils;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
+import weka.core.ThreadSafe;
 import weka.core.Utils;
 import weka.core.WeightedInstancesHandler;
 import weka.filters.Filter;
@@ -51,10 +54,16 @@ import weka.filters.unsupervised.attribute.Standardize;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  <!-- globalinfo-start -->
@@ -74,7 +83,9 @@ import java.util.Vector;
  <br>
  S.S. Keerthi, S.K. Shevade, C. Bhattacharyya, K.R.K. Murthy (2001). Improvements to Platt's SMO Algorithm for SVM Classifier Design. Neural Computation. 13(3):637-649.<br>
  <br>
- Trevor Hastie, Robert Tibshirani: Classification by Pairwise Coupling. In: Advances in Neural Information Processing Systems, 1998.
+ Trevor Hastie, Robert Tibshirani: Classification by Pairwise Coupling. In: Advances in Neural Information Processing Systems, 1998.<br>
+ <br>
+ Rong-En Fan, Pai-Hsuen Chen, Chih-Jen Lin (2005). Working Set Selection Using Second Order Information for Training Support Vector Machines. Journal of Machine Learning Research. 6:1889-1918.
  <br><br>
  <!-- globalinfo-end -->
  *
@@ -114,6 +125,15 @@ import java.util.Vector;
     year = {1998},
     PS = {http://www-stat.stanford.edu/\~hastie/Papers/2class.ps}
  }
+ 
+ &#64;article{Fan2005,
+    author = {Rong-En Fan and Pai-Hsuen Chen and Chih-Jen Lin},
+    journal = {Journal of Machine Learning Research},
+    pages = {1889-1918},
+    title = {Working Set Selection Using Second Order Information for Training Support Vector Machines},
+    volume = {6},
+    year = {2005}
+ }
  </pre>
  <br><br>
  <!-- technical-bibtex-end -->
@@ -160,6 +180,15 @@ import java.util.Vector;
   Full name of calibration model, followed by options.
   (default: "weka.classifiers.functions.Logistic")</pre>
  
+ <pre> -num-slots &lt;num&gt;
+  Number of execution slots for building the pairwise models.
+  (default 1 - i.e. no parallelism)</pre>
+ 
+ <pre> -second-order
+  Use second order working set selection and shrinking,
+  as in LIBSVM, instead of Keerthi et al.'s heuristics.
+  (default: no)</pre>
+ 
  <pre> -output-debug-info
   If set, classifier is run in debug mode and
   may output additional info to the console</pre>
@@ -184,8 +213,9 @@ import java.util.Vector;
   (default: no)</pre>
  
  <pre> -C &lt;num&gt;
-  The size of the cache (a prime number), 0 for full cache and 
-  -1 to turn it off.
+  The size of the cache, 0 for full cache and 
+  -1 to turn it off. The cache holds as many kernel
+  rows as fit into (64 * size) bytes.
   (default: 250007)</pre>
  
  <pre> -output-debug-info
@@ -229,7 +259,8 @@ import java.util.Vector;
  */
 public class SMO 
   extends AbstractClassifier 
-  implements WeightedInstancesHandler, TechnicalInformationHandler {
+  implements WeightedInstancesHandler, TechnicalInformationHandler,
+  ThreadSafe {
 
   /** for serialization */
   static final long serialVersionUID = -6585883636378691736L;
@@ -302,6 +333,14 @@ public class SMO
     additional.setValue(Field.EDITOR, "Michael I. Jordan and Michael J. Kearns and Sara A. Solla");
     additional.setValue(Field.PS, "http://www-stat.stanford.edu/~hastie/Papers/2class.ps");
     
+    additional = result.add(Type.ARTICLE);
+    additional.setValue(Field.AUTHOR, "Rong-En Fan and Pai-Hsuen Chen and Chih-Jen Lin");
+    additional.setValue(Field.YEAR, "2005");
+    additional.setValue(Field.TITLE, "Working Set Selection Using Second Order Information for Training Support Vector Machines");
+    additional.setValue(Field.JOURNAL, "Journal of Machine Learning Research");
+    additional.setValue(Field.VOLUME, "6");
+    additional.setValue(Field.PAGES, "1889-1918");
+    
     return result;
   }
 
@@ -372,6 +411,27 @@ public class SMO
     /** number of kernel cache hits, used for printing statistics only **/
     protected int m_nCacheHits = -1;
 
+    /** The gradient of the dual objective, used by the second order solver */
+    protected double[] m_gradient;
+
+    /** The part of the gradient due to the multipliers at the upper bound */
+    protected double[] m_gradientBar;
+
+    /** The diagonal of the kernel matrix */
+    protected double[] m_kernelDiagonal;
+
+    /** The upper bound of each multiplier */
+    protected double[] m_upperBound;
+
+    /** The instances, the active ones first */
+    protected int[] m_active;
+
+    /** The number of active instances */
+    protected int m_activeSize;
+
+    /** Whether the active set has been reset after shrinking */
+    protected boolean m_unshrink;
+
     /**
      * Fits calibrator model to SVM's output, so that reasonable probability estimates can be produced.
      * If numFolds > 0, cross-validation is used to generate the training data for the calibrator.
@@ -428,7 +488,7 @@ public class SMO
           /*	  SerializedObject so = new SerializedObject(this);
                   BinarySMO smo = (BinarySMO)so.getObject(); */
           BinarySMO smo = new BinarySMO();
-          smo.setKernel(Kernel.makeCopy(SMO.this.m_kernel));
+          smo.setKernel(copyKernel());
           smo.buildClassifier(train, cl1, cl2, false, -1, -1);
           Instances test = insts.testCV(numFolds, i);
           for (int j = 0; j < test.numInstances(); j++) {
@@ -570,67 +630,13 @@ public class SMO
       // init kernel
       m_kernel.buildKernel(m_data);
 
-      // Initialize error cache
-      m_errors = new double[m_data.numInstances()];
-      m_errors[m_iLow] = 1;
-      m_errors[m_iUp] = -1;
-
-      // Build up I1 and I4
-      for (int i = 0; i < m_class.length; i++) {
-        if (m_class[i] == 1) {
-          m_I1.insert(i);
-        } else {
-          m_I4.insert(i);
-        }
-      }
-
-      // Loop to find all the support vectors
-      int numChanged = 0;
-      boolean examineAll = true;
-      while ((numChanged > 0) || examineAll) {
-        numChanged = 0;
-        if (examineAll) {
-          for (int i = 0; i < m_alpha.length; i++) {
-            if (examineExample(i)) {
-              numChanged++;
-            }
-          }
-        } else {
-
-          // This code implements Modification 1 from Keerthi et al.'s paper
-          for (int i = 0; i < m_alpha.length; i++) {
-            if ((m_alpha[i] > 0) &&
-                    (m_alpha[i] < m_C * m_data.instance(i).weight())) {
-              if (examineExample(i)) {
-                numChanged++;
-              }
-
-              // Is optimality on unbound vectors obtained?
-              if (m_bUp > m_bLow - 2 * m_tol) {
-                numChanged = 0;
-                break;
-              }
-            }
-          }
-
-          //This is the code for Modification 2 from Keerthi et al.'s paper
-	        /*boolean innerLoopSuccess = true;
-	          numChanged = 0;
-	          while ((m_bUp < m_bLow - 2 * m_tol) && (innerLoopSuccess == true)) {
-	            innerLoopSuccess = takeStep(m_iUp, m_iLow, m_errors[m_iLow]);
-	        }*/
-        }
-
-        if (examineAll) {
-          examineAll = false;
-        } else if (numChanged == 0) {
-          examineAll = true;
-        }
+      // Find the Lagrange multipliers and the threshold
+      if (m_useSecondOrderSolver) {
+        optimizeSecondOrder();
+      } else {
+        optimizeKeerthi();
       }
 
-      // Set threshold
-      m_b = (m_bLow + m_bUp) / 2.0;
-
       // Save some stats
       m_nEvals = m_kernel.numEvals();
       m_nCacheHits = m_kernel.numCacheHits();
@@ -733,17 +739,57 @@ public class SMO
             }
           }
         }
-      } else {
-        for (int i = m_supportVectors.getNext(-1); i != -1;
-             i = m_supportVectors.getNext(i)) {
-          result += m_class[i] * m_alpha[i] * m_kernel.eval(index, i, inst);
+      } else if ((index == -1) && !(m_kernel instanceof ThreadSafe)) {
+
+        // Kernels that aren't thread safe evaluate one instance at a time
+        synchronized (m_kernel) {
+          result = kernelOutput(index, inst);
         }
+      } else {
+        result = kernelOutput(index, inst);
       }
       result -= m_b;
 
       return result;
     }
 
+    /**
+     * Computes the distribution of the calibration model for the given SVM
+     * output.
+     *
+     * @param inst the instance holding the output of the SVM
+     * @return the calibrated distribution
+     * @throws Exception in case of an error
+     */
+    protected double[] calibratedDistribution(Instance inst) throws Exception {
+
+      if (m_calibrator instanceof ThreadSafe) {
+        return m_calibrator.distributionForInstance(inst);
+      }
+      synchronized (m_calibrator) {
+        return m_calibrator.distributionForInstance(inst);
+      }
+    }
+
+    /**
+     * Computes the weighted sum of kernel evaluations between the support
+     * vectors and the given instance.
+     *
+     * @param index the instance for which output is to be computed
+     * @param inst the instance
+     * @return the kernel part of the output of the SVM
+     * @throws Exception in case of an error
+     */
+    protected double kernelOutput(int index, Instance inst) throws Exception {
+
+      double result = 0;
+      for (int i = m_supportVectors.getNext(-1); i != -1;
+           i = m_supportVectors.getNext(i)) {
+        result += m_class[i] * m_alpha[i] * m_kernel.eval(index, i, inst);
+      }
+      return result;
+    }
+
     /**
      * Prints out the classifier.
      *
@@ -1156,6 +1202,485 @@ public class SMO
       return true;
     }
   
+    /**
+     * Finds the Lagrange multipliers and the threshold using Keerthi et al.'s
+     * modification 1 of Platt's SMO.
+     *
+     * @throws Exception if something goes wrong
+     */
+    protected void optimizeKeerthi() throws Exception {
+
+      // Initialize error cache
+      m_errors = new double[m_data.numInstances()];
+      m_errors[m_iLow] = 1;
+      m_errors[m_iUp] = -1;
+
+      // Build up I1 and I4
+      for (int i = 0; i < m_class.length; i++) {
+        if (m_class[i] == 1) {
+          m_I1.insert(i);
+        } else {
+          m_I4.insert(i);
+        }
+      }
+
+      // Loop to find all the support vectors
+      int numChanged = 0;
+      boolean examineAll = true;
+      while ((numChanged > 0) || examineAll) {
+        numChanged = 0;
+        if (examineAll) {
+          for (int i = 0; i < m_alpha.length; i++) {
+            if (examineExample(i)) {
+              numChanged++;
+            }
+          }
+        } else {
+
+          // This code implements Modification 1 from Keerthi et al.'s paper
+          for (int i = 0; i < m_alpha.length; i++) {
+            if ((m_alpha[i] > 0) &&
+                    (m_alpha[i] < m_C * m_data.instance(i).weight())) {
+              if (examineExample(i)) {
+                numChanged++;
+              }
+
+              // Is optimality on unbound vectors obtained?
+              if (m_bUp > m_bLow - 2 * m_tol) {
+                numChanged = 0;
+                break;
+              }
+            }
+          }
+
+          //This is the code for Modification 2 from Keerthi et al.'s paper
+	        /*boolean innerLoopSuccess = true;
+	          numChanged = 0;
+	          while ((m_bUp < m_bLow - 2 * m_tol) && (innerLoopSuccess == true)) {
+	            innerLoopSuccess = takeStep(m_iUp, m_iLow, m_errors[m_iLow]);
+	        }*/
+        }
+
+        if (examineAll) {
+          examineAll = false;
+        } else if (numChanged == 0) {
+          examineAll = true;
+        }
+      }
+
+      // Set threshold
+      m_b = (m_bLow + m_bUp) / 2.0;
+    }
+
+    /**
+     * Finds the Lagrange multipliers and the threshold using the solver of
+     * LIBSVM: the pair of multipliers to optimize is selected using second
+     * order information (WSS3 in Fan et al. (2005)), and instances whose
+     * multipliers are likely to stay at a bound are shrunk from the active
+     * set. The solver stops when the violation of the optimality conditions
+     * is smaller than twice the tolerance, like Keerthi et al.'s algorithm.
+     *
+     * @throws Exception if something goes wrong
+     */
+    protected void optimizeSecondOrder() throws Exception {
+
+      int l = m_alpha.length;
+      m_gradient = new double[l];
+      m_gradientBar = new double[l];
+      m_kernelDiagonal = new double[l];
+      m_upperBound = new double[l];
+      m_active = new int[l];
+      for (int i = 0; i < l; i++) {
+        m_upperBound[i] = m_C * m_data.instance(i).weight();
+        m_gradient[i] = -1;
+        m_kernelDiagonal[i] = m_kernel.eval(i, i, m_data.instance(i));
+        m_active[i] = i;
+      }
+      m_activeSize = l;
+      m_unshrink = false;
+
+      int[] workingSet = new int[2];
+      int counter = Math.min(l, 1000) + 1;
+      long maxIterations = Math.max(10000000L, 100L * l);
+      for (long iter = 0; iter < maxIterations; iter++) {
+
+        // Shrink the active set every now and then
+        if (--counter == 0) {
+          counter = Math.min(l, 1000);
+          shrink();
+        }
+
+        if (!selectWorkingSet(workingSet)) {
+
+          // Check optimality on all instances before stopping
+          if (m_activeSize == l) {
+            break;
+          }
+          reconstructGradient();
+          m_activeSize = l;
+          if (!selectWorkingSet(workingSet)) {
+            break;
+          }
+          counter = 1;
+        }
+        updatePair(workingSet[0], workingSet[1]);
+      }
+      if (m_activeSize < l) {
+        reconstructGradient();
+        m_activeSize = l;
+      }
+
+      // Set threshold to the average over the unbound multipliers, or to the
+      // middle of the feasible interval if there are none
+      double ub = Double.MAX_VALUE;
+      double lb = -Double.MAX_VALUE;
+      double sumFree = 0;
+      int numFree = 0;
+      for (int i = 0; i < l; i++) {
+        double yG = m_class[i] * m_gradient[i];
+        if (m_alpha[i] >= m_upperBound[i]) {
+          if (m_class[i] == -1) {
+            ub = Math.min(ub, yG);
+          } else {
+            lb = Math.max(lb, yG);
+          }
+        } else if (m_alpha[i] <= 0) {
+          if (m_class[i] == 1) {
+            ub = Math.min(ub, yG);
+          } else {
+            lb = Math.max(lb, yG);
+          }
+        } else {
+          numFree++;
+          sumFree += yG;
+        }
+      }
+      m_b = (numFree > 0) ? sumFree / numFree : (ub + lb) / 2;
+
+      // Collect support vectors and, if linear SVM, the weight vector
+      for (int i = 0; i < l; i++) {
+        if (m_alpha[i] > 0) {
+          m_supportVectors.insert(i);
+          if (m_KernelIsLinear) {
+            Instance inst = m_data.instance(i);
+            for (int p = 0; p < inst.numValues(); p++) {
+              if (inst.index(p) != m_data.classIndex()) {
+                m_weights[inst.index(p)] +=
+                        m_class[i] * m_alpha[i] * inst.valueSparse(p);
+              }
+            }
+          }
+        }
+      }
+
+      m_gradient = null;
+      m_gradientBar = null;
+      m_kernelDiagonal = null;
+      m_upperBound = null;
+      m_active = null;
+    }
+
+    /**
+     * Returns the entry of the matrix Q of the dual problem, i.e., the kernel
+     * value multiplied by the two class values.
+     *
+     * @param i the index of the first instance
+     * @param j the index of the second instance
+     * @return the entry of Q
+     * @throws Exception if something goes wrong
+     */
+    protected double Q(int i, int j) throws Exception {
+      return m_class[i] * m_class[j] * m_kernel.eval(i, j, m_data.instance(i));
+    }
+
+    /**
+     * Selects the pair of multipliers to optimize among the active instances:
+     * the first one maximally violates the optimality conditions, the second
+     * one maximally decreases the objective according to a second order
+     * approximation.
+     *
+     * @param workingSet receives the indices of the two instances
+     * @return false if the active instances are optimal
+     * @throws Exception if something goes wrong
+     */
+    protected boolean selectWorkingSet(int[] workingSet) throws Exception {
+
+      // Find the most violating instance that may move up
+      double gMax = -Double.MAX_VALUE;
+      int iMax = -1;
+      for (int k = 0; k < m_activeSize; k++) {
+        int t = m_active[k];
+        if ((m_class[t] == 1) ? m_alpha[t] < m_upperBound[t] : m_alpha[t] > 0) {
+          double value = -m_class[t] * m_gradient[t];
+          if (value >= gMax) {
+            gMax = value;
+            iMax = t;
+          }
+        }
+      }
+
+      // Find the partner that may move down and decreases the objective most
+      double gMax2 = -Double.MAX_VALUE;
+      double minObjDiff = Double.MAX_VALUE;
+      int iMin = -1;
+      for (int k = 0; k < m_activeSize; k++) {
+        int t = m_active[k];
+        if ((m_class[t] == 1) ? m_alpha[t] > 0 : m_alpha[t] < m_upperBound[t]) {
+          double value = m_class[t] * m_gradient[t];
+          if (value >= gMax2) {
+            gMax2 = value;
+          }
+          double gradDiff = gMax + value;
+          if (gradDiff > 0) {
+            double quadCoef = m_kernelDiagonal[iMax] + m_kernelDiagonal[t]
+              - 2 * m_kernel.eval(iMax, t, m_data.instance(iMax));
+            double objDiff = -(gradDiff * gradDiff)
+              / ((quadCoef > 0) ? quadCoef : TAU);
+            if (objDiff <= minObjDiff) {
+              minObjDiff = objDiff;
+              iMin = t;
+            }
+          }
+        }
+      }
+
+      if ((gMax + gMax2 < 2 * m_tol) || (iMin == -1)) {
+        return false;
+      }
+      workingSet[0] = iMax;
+      workingSet[1] = iMin;
+      return true;
+    }
+
+    /**
+     * Optimizes the multipliers of a pair of instances analytically and
+     * updates the gradient.
+     *
+     * @param i the index of the first instance
+     * @param j the index of the second instance
+     * @throws Exception if something goes wrong
+     */
+    protected void updatePair(int i, int j) throws Exception {
+
+      double Ci = m_upperBound[i];
+      double Cj = m_upperBound[j];
+      double oldAlphaI = m_alpha[i];
+      double oldAlphaJ = m_alpha[j];
+      double alphaI = oldAlphaI;
+      double alphaJ = oldAlphaJ;
+      double quadCoef = m_kernelDiagonal[i] + m_kernelDiagonal[j]
+        - 2 * m_kernel.eval(i, j, m_data.instance(i));
+      if (quadCoef <= 0) {
+        quadCoef = TAU;
+      }
+
+      if (m_class[i] != m_class[j]) {
+        double delta = (-m_gradient[i] - m_gradient[j]) / quadCoef;
+        double diff = alphaI - alphaJ;
+        alphaI += delta;
+        alphaJ += delta;
+        if (diff > 0) {
+          if (alphaJ < 0) {
+            alphaJ = 0;
+            alphaI = diff;
+          }
+        } else {
+          if (alphaI < 0) {
+            alphaI = 0;
+            alphaJ = -diff;
+          }
+        }
+        if (diff > Ci - Cj) {
+          if (alphaI > Ci) {
+            alphaI = Ci;
+            alphaJ = Ci - diff;
+          }
+        } else {
+          if (alphaJ > Cj) {
+            alphaJ = Cj;
+            alphaI = Cj + diff;
+          }
+        }
+      } else {
+        double delta = (m_gradient[i] - m_gradient[j]) / quadCoef;
+        double sum = alphaI + alphaJ;
+        alphaI -= delta;
+        alphaJ += delta;
+        if (sum > Ci) {
+          if (alphaI > Ci) {
+            alphaI = Ci;
+            alphaJ = sum - Ci;
+          }
+        } else {
+          if (alphaJ < 0) {
+            alphaJ = 0;
+            alphaI = sum;
+          }
+        }
+        if (sum > Cj) {
+          if (alphaJ > Cj) {
+            alphaJ = Cj;
+            alphaI = sum - Cj;
+          }
+        } else {
+          if (alphaI < 0) {
+            alphaI = 0;
+            alphaJ = sum;
+          }
+        }
+      }
+      m_alpha[i] = alphaI;
+      m_alpha[j] = alphaJ;
+
+      // Update the gradient of the active instances
+      double deltaI = alphaI - oldAlphaI;
+      double deltaJ = alphaJ - oldAlphaJ;
+      for (int k = 0; k < m_activeSize; k++) {
+        int t = m_active[k];
+        m_gradient[t] += Q(i, t) * deltaI + Q(j, t) * deltaJ;
+      }
+
+      // Update the part of the gradient due to multipliers at the upper bound
+      updateGradientBar(i, oldAlphaI >= Ci, alphaI >= Ci);
+      updateGradientBar(j, oldAlphaJ >= Cj, alphaJ >= Cj);
+    }
+
+    /**
+     * Updates the part of the gradient that is due to the multipliers at
+     * their upper bound, if an instance's multiplier reached or left the
+     * bound.
+     *
+     * @param i the index of the instance
+     * @param wasUpper whether the multiplier was at its upper bound
+     * @param isUpper whether the multiplier is at its upper bound
+     * @throws Exception if something goes wrong
+     */
+    protected void updateGradientBar(int i, boolean wasUpper, boolean isUpper)
+      throws Exception {
+
+      if (wasUpper != isUpper) {
+        double C = isUpper ? m_upperBound[i] : -m_upperBound[i];
+        for (int t = 0; t < m_alpha.length; t++) {
+          m_gradientBar[t] += C * Q(i, t);
+        }
+      }
+    }
+
+    /**
+     * Returns whether an instance's multiplier is at a bound and is likely to
+     * stay there, given the maximal violations of the optimality conditions.
+     *
+     * @param t the index of the instance
+     * @param gMax1 the maximal violation among the instances that may move up
+     * @param gMax2 the maximal violation among the instances that may move
+     *          down
+     * @return true if the instance can be removed from the active set
+     */
+    protected boolean canBeShrunk(int t, double gMax1, double gMax2) {
+
+      double yG = m_class[t] * m_gradient[t];
+      if (m_alpha[t] >= m_upperBound[t]) {
+        return (m_class[t] == 1) ? -yG > gMax1 : yG > gMax2;
+      } else if (m_alpha[t] <= 0) {
+        return (m_class[t] == 1) ? yG > gMax2 : -yG > gMax1;
+      }
+      return false;
+    }
+
+    /**
+     * Removes the instances from the active set whose multipliers are likely
+     * to stay at their bound. Once the solution is close to optimal, the
+     * gradient is reconstructed and all instances are made active again,
+     * once.
+     *
+     * @throws Exception if something goes wrong
+     */
+    protected void shrink() throws Exception {
+
+      double gMax1 = -Double.MAX_VALUE;
+      double gMax2 = -Double.MAX_VALUE;
+      for (int k = 0; k < m_activeSize; k++) {
+        int t = m_active[k];
+        double yG = m_class[t] * m_gradient[t];
+        if ((m_class[t] == 1) ? m_alpha[t] < m_upperBound[t] : m_alpha[t] > 0) {
+          gMax1 = Math.max(gMax1, -yG);
+        }
+        if ((m_class[t] == 1) ? m_alpha[t] > 0 : m_alpha[t] < m_upperBound[t]) {
+          gMax2 = Math.max(gMax2, yG);
+        }
+      }
+
+      if (!m_unshrink && (gMax1 + gMax2 <= 20 * m_tol)) {
+        m_unshrink = true;
+        reconstructGradient();
+        m_activeSize = m_alpha.length;
+      }
+
+      for (int k = 0; k < m_activeSize; k++) {
+        if (canBeShrunk(m_active[k], gMax1, gMax2)) {
+          m_activeSize--;
+          while (m_activeSize > k) {
+            if (!canBeShrunk(m_active[m_activeSize], gMax1, gMax2)) {
+              int tmp = m_active[k];
+              m_active[k] = m_active[m_activeSize];
+              m_active[m_activeSize] = tmp;
+              break;
+            }
+            m_activeSize--;
+          }
+        }
+      }
+    }
+
+    /**
+     * Recomputes the gradient of the instances that are not in the active
+     * set.
+     *
+     * @throws Exception if something goes wrong
+     */
+    protected void reconstructGradient() throws Exception {
+
+      int l = m_alpha.length;
+      if (m_activeSize == l) {
+        return;
+      }
+
+      int numFree = 0;
+      for (int k = m_activeSize; k < l; k++) {
+        int t = m_active[k];
+        m_gradient[t] = m_gradientBar[t] - 1;
+      }
+      for (int k = 0; k < m_activeSize; k++) {
+        int t = m_active[k];
+        if ((m_alpha[t] > 0) && (m_alpha[t] < m_upperBound[t])) {
+          numFree++;
+        }
+      }
+
+      // Use whichever kernel rows are fewer
+      if ((long) numFree * l > 2L * m_activeSize * (l - m_activeSize)) {
+        for (int k = m_activeSize; k < l; k++) {
+          int i = m_active[k];
+          for (int m = 0; m < m_activeSize; m++) {
+            int t = m_active[m];
+            if ((m_alpha[t] > 0) && (m_alpha[t] < m_upperBound[t])) {
+              m_gradient[i] += m_alpha[t] * Q(i, t);
+            }
+          }
+        }
+      } else {
+        for (int m = 0; m < m_activeSize; m++) {
+          int i = m_active[m];
+          if ((m_alpha[i] > 0) && (m_alpha[i] < m_upperBound[i])) {
+            for (int k = m_activeSize; k < l; k++) {
+              int t = m_active[k];
+              m_gradient[t] += m_alpha[i] * Q(i, t);
+            }
+          }
+        }
+      }
+    }
+
     /**
      * Quick and dirty check whether the quadratic programming problem is solved.
      * 
@@ -1258,6 +1783,9 @@ public class SMO
   /** Precision constant for updating sets */
   protected static double m_Del = 1000 * Double.MIN_VALUE;
 
+  /** Replaces a non-positive curvature in the second order solver */
+  protected static final double TAU = 1e-12;
+
   /** Whether calibrator models are to be fit */
   protected boolean m_fitCalibratorModels = false;
 
@@ -1272,6 +1800,15 @@ public class SMO
 
   /** the kernel to use */
   protected Kernel m_kernel = new PolyKernel();
+
+  /** The number of execution slots for building the pairwise models */
+  protected int m_numExecutionSlots = 1;
+
+  /** Whether to use the second order solver with shrinking */
+  protected boolean m_useSecondOrderSolver = false;
+
+  /** The number of pairwise models built concurrently by the current build */
+  protected transient int m_numConcurrentModels = 1;
   
   /**
    * Turns off checks for missing values, etc. Use with caution.
@@ -1409,26 +1946,88 @@ public class SMO
       subsets[i].compactify();
     }
 
-    // Build the binary classifiers
+    // Build the binary classifiers, concurrently if there are several
+    // execution slots. The training sets are generated beforehand, so the
+    // models do not depend on the number of slots.
     Random rand = new Random(m_randomSeed);
     m_classifiers = new BinarySMO[insts.numClasses()][insts.numClasses()];
-    for (int i = 0; i < insts.numClasses(); i++) {
-      for (int j = i + 1; j < insts.numClasses(); j++) {
-        m_classifiers[i][j] = new BinarySMO();
-        m_classifiers[i][j].setKernel(Kernel.makeCopy(getKernel()));
-        Instances data = new Instances(insts, insts.numInstances());
-        for (int k = 0; k < subsets[i].numInstances(); k++) {
-          data.add(subsets[i].instance(k));
-        }
-        for (int k = 0; k < subsets[j].numInstances(); k++) {
-          data.add(subsets[j].instance(k));
+    int numPairs = insts.numClasses() * (insts.numClasses() - 1) / 2;
+    m_numConcurrentModels = Math.max(1, Math.min(m_numExecutionSlots, numPairs));
+    ExecutorService executorPool = null;
+    if (m_numConcurrentModels > 1) {
+      executorPool = Executors.newFixedThreadPool(m_numConcurrentModels);
+    }
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int i = 0; i < insts.numClasses(); i++) {
+        for (int j = i + 1; j < insts.numClasses(); j++) {
+          m_classifiers[i][j] = new BinarySMO();
+          m_classifiers[i][j].setKernel(copyKernel());
+          Instances data = new Instances(insts, insts.numInstances());
+          for (int k = 0; k < subsets[i].numInstances(); k++) {
+            data.add(subsets[i].instance(k));
+          }
+          for (int k = 0; k < subsets[j].numInstances(); k++) {
+            data.add(subsets[j].instance(k));
+          }
+          data.compactify();
+          data.randomize(rand);
+          if (executorPool == null) {
+            m_classifiers[i][j].buildClassifier(data, i, j,
+                    m_fitCalibratorModels,
+                    m_numFolds, m_randomSeed);
+          } else {
+            results.add(executorPool.submit(new BinarySMOBuildTask(
+                    m_classifiers[i][j], data, i, j)));
+          }
         }
-        data.compactify();
-        data.randomize(rand);
-        m_classifiers[i][j].buildClassifier(data, i, j,
-                m_fitCalibratorModels,
-                m_numFolds, m_randomSeed);
       }
+      TaskUtils.waitForAll(results);
+    } finally {
+      if (executorPool != null) {
+        executorPool.shutdownNow();
+      }
+      m_numConcurrentModels = 1;
+    }
+  }
+
+  /**
+   * Task for building one of the pairwise models.
+   */
+  protected class BinarySMOBuildTask implements Callable<Void> {
+
+    /** The model to build */
+    protected BinarySMO m_smo;
+
+    /** The training data of the model */
+    protected Instances m_data;
+
+    /** The index of the first class */
+    protected int m_cl1;
+
+    /** The index of the second class */
+    protected int m_cl2;
+
+    /**
+     * Creates the task.
+     *
+     * @param smo the model to build
+     * @param data the training data of the model
+     * @param cl1 the index of the first class
+     * @param cl2 the index of the second class
+     */
+    public BinarySMOBuildTask(BinarySMO smo, Instances data, int cl1, int cl2) {
+      m_smo = smo;
+      m_data = data;
+      m_cl1 = cl1;
+      m_cl2 = cl2;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      m_smo.buildClassifier(m_data, m_cl1, m_cl2, m_fitCalibratorModels,
+              m_numFolds, m_randomSeed);
+      return null;
     }
   }
 
@@ -1440,27 +2039,76 @@ public class SMO
    */
   public double[] distributionForInstance(Instance inst) throws Exception {
 
-    // Filter instance
-    if (!m_checksTurnedOff) {
-      m_Missing.input(inst);
-      m_Missing.batchFinished();
-      inst = m_Missing.output();
-    }
+    double[] result = new double[inst.numClasses()];
+    distributionForInstance(inst, result);
+    return result;
+  }
 
-    if (m_NominalToBinary != null) {
-      m_NominalToBinary.input(inst);
-      m_NominalToBinary.batchFinished();
-      inst = m_NominalToBinary.output();
+  /**
+   * Estimates class probabilities for a batch of instances and writes them
+   * into the given array.
+   * 
+   * @param batch the instances to compute the probabilities for
+   * @param dists the array to write the probabilities to
+   * @throws Exception in case of an error
+   */
+  @Override
+  public void distributionsForInstances(Instances batch, double[][] dists)
+    throws Exception {
+
+    for (int i = 0; i < batch.numInstances(); i++) {
+      distributionForInstance(batch.instance(i), dists[i]);
     }
+  }
 
-    if (m_Filter != null) {
-      m_Filter.input(inst);
-      m_Filter.batchFinished();
-      inst = m_Filter.output();
+  /**
+   * Filters the given instance the same way as the training data.
+   * 
+   * @param inst the instance to filter
+   * @return the filtered instance
+   * @throws Exception in case of an error
+   */
+  protected Instance filterInstance(Instance inst) throws Exception {
+
+    // The filters are shared by all callers
+    synchronized (this) {
+      if (!m_checksTurnedOff) {
+        m_Missing.input(inst);
+        m_Missing.batchFinished();
+        inst = m_Missing.output();
+      }
+
+      if (m_NominalToBinary != null) {
+        m_NominalToBinary.input(inst);
+        m_NominalToBinary.batchFinished();
+        inst = m_NominalToBinary.output();
+      }
+
+      if (m_Filter != null) {
+        m_Filter.input(inst);
+        m_Filter.batchFinished();
+        inst = m_Filter.output();
+      }
     }
+    return inst;
+  }
+
+  /**
+   * Estimates class probabilities for given instance and writes them into the
+   * given array.
+   * 
+   * @param inst the instance to compute the probabilities for
+   * @param result the array to write the probabilities to
+   * @throws Exception in case of an error
+   */
+  protected void distributionForInstance(Instance inst, double[] result)
+    throws Exception {
+
+    // Filter instance
+    inst = filterInstance(inst);
 
     if (!m_fitCalibratorModels) {
-      double[] result = new double[inst.numClasses()];
+      Arrays.fill(result, 0);
       for (int i = 0; i < inst.numClasses(); i++) {
         for (int j = i + 1; j < inst.numClasses(); j++) {
           if ((m_classifiers[i][j].m_alpha != null) ||
@@ -1475,7 +2123,6 @@ public class SMO
         }
       }
       Utils.normalize(result);
-      return result;
     } else {
 
       // We only need to do pairwise coupling if there are more
@@ -1486,7 +2133,9 @@ public class SMO
         newInst[1] = Utils.missingValue();
         DenseInstance d = new DenseInstance(1, newInst);
         d.setDataset(m_classifiers[0][1].m_calibrationDataHeader);
-        return m_classifiers[0][1].m_calibrator.distributionForInstance(d);
+        double[] dist = m_classifiers[0][1].calibratedDistribution(d);
+        System.arraycopy(dist, 0, result, 0, dist.length);
+        return;
       }
       double[][] r = new double[inst.numClasses()][inst.numClasses()];
       double[][] n = new double[inst.numClasses()][inst.numClasses()];
@@ -1499,12 +2148,14 @@ public class SMO
             newInst[1] = Utils.missingValue();
             DenseInstance d = new DenseInstance(1, newInst);
             d.setDataset(m_classifiers[i][j].m_calibrationDataHeader);
-            r[i][j] = m_classifiers[i][j].m_calibrator.distributionForInstance(d)[0];
+            r[i][j] = m_classifiers[i][j].calibratedDistribution(d)[0];
             n[i][j] = m_classifiers[i][j].m_sumOfWeights;
           }
         }
       }
-      return weka.classifiers.meta.MultiClassClassifier.pairwiseCoupling(n, r);
+      double[] dist =
+        weka.classifiers.meta.MultiClassClassifier.pairwiseCoupling(n, r);
+      System.arraycopy(dist, 0, result, 0, dist.length);
     }
   }
 
@@ -1517,23 +2168,7 @@ public class SMO
   public int[] obtainVotes(Instance inst) throws Exception {
 
     // Filter instance
-    if (!m_checksTurnedOff) {
-      m_Missing.input(inst);
-      m_Missing.batchFinished();
-      inst = m_Missing.output();
-    }
-
-    if (m_NominalToBinary != null) {
-      m_NominalToBinary.input(inst);
-      m_NominalToBinary.batchFinished();
-      inst = m_NominalToBinary.output();
-    }
-
-    if (m_Filter != null) {
-      m_Filter.input(inst);
-      m_Filter.batchFinished();
-      inst = m_Filter.output();
-    }
+    inst = filterInstance(inst);
 
     int[] votes = new int[inst.numClasses()];
     for (int i = 0; i < inst.numClasses(); i++) {
@@ -1710,6 +2345,17 @@ public class SMO
                     "\t(default: \"weka.classifiers.functions.Logistic\")",
             "calibrator", 1, "-calibrator <scheme specification>"));
 
+    result.addElement(new Option(
+            "\tNumber of execution slots for building the pairwise models.\n"
+                    + "\t(default 1 - i.e. no parallelism)",
+            "num-slots", 1, "-num-slots <num>"));
+
+    result.addElement(new Option(
+            "\tUse second order working set selection and shrinking,\n"
+                    + "\tas in LIBSVM, instead of Keerthi et al.'s heuristics.\n"
+                    + "\t(default: no)",
+            "second-order", 0, "-second-order"));
+
     result.addAll(Collections.list(super.listOptions()));
 
     result.addElement(new Option(
@@ -1774,6 +2420,15 @@ public class SMO
     Full name of calibration model, followed by options.
     (default: "weka.classifiers.functions.Logistic")</pre>
    
+   <pre> -num-slots &lt;num&gt;
+    Number of execution slots for building the pairwise models.
+    (default 1 - i.e. no parallelism)</pre>
+   
+   <pre> -second-order
+    Use second order working set selection and shrinking,
+    as in LIBSVM, instead of Keerthi et al.'s heuristics.
+    (default: no)</pre>
+   
    <pre> -output-debug-info
     If set, classifier is run in debug mode and
     may output additional info to the console</pre>
@@ -1798,8 +2453,9 @@ public class SMO
     (default: no)</pre>
    
    <pre> -C &lt;num&gt;
-    The size of the cache (a prime number), 0 for full cache and 
-    -1 to turn it off.
+    The size of the cache, 0 for full cache and 
+    -1 to turn it off. The cache holds as many kernel
+    rows as fit into (64 * size) bytes.
     (default: 250007)</pre>
    
    <pre> -output-debug-info
@@ -1902,6 +2558,14 @@ public class SMO
     }
     setCalibrator(AbstractClassifier.forName(classifierName, classifierSpec));
 
+    tmpStr = Utils.getOption("num-slots", options);
+    if (tmpStr.length() != 0)
+      setNumExecutionSlots(Integer.parseInt(tmpStr));
+    else
+      setNumExecutionSlots(1);
+
+    setUseSecondOrderSolver(Utils.getFlag("second-order", options));
+
     super.setOptions(options);
     
     Utils.checkForRemainingOptions(options);
@@ -1947,6 +2611,12 @@ public class SMO
     result.add(getCalibrator().getClass().getName() + " "
             + Utils.joinOptions(((OptionHandler)getCalibrator()).getOptions()));
 
+    result.add("-num-slots");
+    result.add("" + getNumExecutionSlots());
+
+    if (getUseSecondOrderSolver())
+      result.add("-second-order");
+
     Collections.addAll(result, super.getOptions());
     
     return (String[]) result.toArray(new String[result.size()]);	  
@@ -2215,6 +2885,86 @@ public class SMO
     m_numFolds = newnumFolds;
   }
      
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for building the "
+      + "pairwise models. The cache of each concurrently trained model gets "
+      + "an equal share of the kernel's cache size.";
+  }
+
+  /**
+   * Set the number of execution slots for building the pairwise models.
+   *
+   * @param slots the number of models to build in parallel
+   */
+  public void setNumExecutionSlots(int slots) {
+    m_numExecutionSlots = slots;
+  }
+
+  /**
+   * Get the number of execution slots for building the pairwise models.
+   *
+   * @return the number of models to build in parallel
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String useSecondOrderSolverTipText() {
+    return "Whether to select the pair of multipliers to optimize using second "
+      + "order information and to shrink the set of active instances, as in "
+      + "LIBSVM, rather than using Keerthi et al.'s heuristics. This usually "
+      + "needs far fewer kernel evaluations on large datasets.";
+  }
+
+  /**
+   * Set whether to use the second order solver with shrinking.
+   *
+   * @param value true if the second order solver is to be used
+   */
+  public void setUseSecondOrderSolver(boolean value) {
+    m_useSecondOrderSolver = value;
+  }
+
+  /**
+   * Get whether to use the second order solver with shrinking.
+   *
+   * @return true if the second order solver is used
+   */
+  public boolean getUseSecondOrderSolver() {
+    return m_useSecondOrderSolver;
+  }
+
+  /**
+   * Returns a copy of the kernel for one of the pairwise models. If several
+   * models are built concurrently, the cache size of a cached kernel is
+   * divided among them, so that they stay within the memory configured for
+   * a single cache.
+   *
+   * @return the copy of the kernel
+   * @throws Exception if the kernel cannot be copied
+   */
+  protected Kernel copyKernel() throws Exception {
+    Kernel kernel = Kernel.makeCopy(getKernel());
+    if ((m_numConcurrentModels > 1) && (kernel instanceof CachedKernel)) {
+      CachedKernel cached = (CachedKernel) kernel;
+      if (cached.getCacheSize() > 0) {
+        cached.setCacheSize(Math.max(1, cached.getCacheSize()
+          / m_numConcurrentModels));
+      }
+    }
+    return kernel;
+  }
+
   /**
    * Returns the tip text for this property
    * @return tip text for this property suitable for
@@ -141,8 +141,9 @@ import java.util.Vector;
  *  (default: checks on)</pre>
  * 
  * <pre> -C &lt;num&gt;
- *  The size of the cache (a prime number), 0 for full cache and 
- *  -1 to turn it off.
+ *  The size of the cache, 0 for full cache and 
+ *  -1 to turn it off. The cache holds as many kernel
+ *  rows as fit into (64 * size) bytes.
  *  (default: 250007)</pre>
  * 
  * <pre> -E &lt;num&gt;
@@ -362,8 +363,9 @@ public class SMOreg
    *  (default: checks on)</pre>
    * 
    * <pre> -C &lt;num&gt;
-   *  The size of the cache (a prime number), 0 for full cache and 
-   *  -1 to turn it off.
+   *  The size of the cache, 0 for full cache and 
+   *  -1 to turn it off. The cache holds as many kernel
+   *  rows as fit into (64 * size) bytes.
    *  (default: 250007)</pre>
    * 
    * <pre> -E &lt;num&gt;
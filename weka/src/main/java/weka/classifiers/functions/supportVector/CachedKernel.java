@@ -20,6 +20,7 @@
 
 package weka.classifiers.functions.supportVector;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
@@ -30,9 +31,14 @@ import weka.core.Option;
 import weka.core.Utils;
 
 /**
- * Base class for RBFKernel and PolyKernel that implements a simple LRU.
- * (least-recently-used) cache if the cache size is set to a value > 0.
- * Otherwise it uses a full cache.
+ * Base class for RBFKernel and PolyKernel that implements an LRU
+ * (least-recently-used) cache of kernel rows if the cache size is set to a
+ * value > 0. Otherwise it uses a full cache. Like the cache of LIBSVM, the
+ * row cache holds as many rows of the kernel matrix as fit into a memory
+ * budget of (64 * cacheSize) bytes and evicts the least recently used row
+ * when a new one is needed. The entries of a row are computed when they are
+ * first requested, and the diagonal of the kernel matrix is cached
+ * separately.
  * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @author Shane Legg (shane@intelligenesis.net) (sparse vector code)
@@ -52,12 +58,41 @@ public abstract class CachedKernel extends Kernel {
   /** Counts the number of kernel cache hits. */
   protected int m_cacheHits;
 
-  /** The size of the cache (a prime number) */
+  /** Counts the number of kernel cache misses. */
+  protected int m_cacheMisses;
+
+  /** Counts the number of kernel rows evicted from the cache. */
+  protected int m_cacheEvictions;
+
+  /** The size of the cache, the memory budget is (64 * cacheSize) bytes */
   protected int m_cacheSize = 250007;
 
-  /** Kernel cache */
-  protected double[] m_storage;
-  protected long[] m_keys;
+  /** The cached kernel rows, NaN for entries not computed yet */
+  protected double[][] m_rows;
+
+  /** The slot of the row cache holding each instance's row, -1 if none */
+  protected int[] m_rowSlot;
+
+  /** The instance whose row is held by each slot */
+  protected int[] m_slotRow;
+
+  /** The previous (more recently used) slot of each slot, -1 if none */
+  protected int[] m_prevSlot;
+
+  /** The next (less recently used) slot of each slot, -1 if none */
+  protected int[] m_nextSlot;
+
+  /** The most recently used slot */
+  protected int m_mostRecent;
+
+  /** The least recently used slot */
+  protected int m_leastRecent;
+
+  /** The number of slots in use */
+  protected int m_numSlots;
+
+  /** The cached diagonal of the kernel matrix, NaN for entries not computed */
+  protected double[] m_diagonal;
 
   /** The kernel matrix if full cache is used (i.e. size is set to 0) */
   protected double[][] m_kernelMatrix;
@@ -65,9 +100,6 @@ public abstract class CachedKernel extends Kernel {
   /** The number of instance in the dataset */
   protected int m_numInsts;
 
-  /** number of cache slots in an entry */
-  protected int m_cacheSlots = 4;
-
   /**
    * default constructor - does nothing.
    */
@@ -102,8 +134,10 @@ public abstract class CachedKernel extends Kernel {
 
     result
       .addElement(new Option(
-        "\tThe size of the cache (a prime number), 0 for full cache and \n"
-          + "\t-1 to turn it off.\n" + "\t(default: 250007)", "C", 1,
+        "\tThe size of the cache, 0 for full cache and \n"
+          + "\t-1 to turn it off. The cache holds as many kernel\n"
+          + "\trows as fit into (64 * size) bytes.\n"
+          + "\t(default: 250007)", "C", 1,
         "-C <num>"));
 
     result.addAll(Collections.list(super.listOptions()));
@@ -176,8 +210,6 @@ public abstract class CachedKernel extends Kernel {
   public double eval(int id1, int id2, Instance inst1) throws Exception {
 
     double result = 0;
-    long key = -1;
-    int location = -1;
 
     // we can only cache if we know the indexes and caching is not
     // disabled (m_cacheSize == -1)
@@ -201,56 +233,115 @@ public abstract class CachedKernel extends Kernel {
         return result;
       }
 
-      // Use LRU cache
-      if (id1 > id2) {
-        key = (id1 + ((long) id2 * m_numInsts));
-      } else {
-        key = (id2 + ((long) id1 * m_numInsts));
+      // Use the diagonal
+      if (id1 == id2) {
+        result = m_diagonal[id1];
+        if (Double.isNaN(result)) {
+          m_cacheMisses++;
+          m_kernelEvals++;
+          result = evaluate(id1, id2, inst1);
+          m_diagonal[id1] = result;
+        } else {
+          m_cacheHits++;
+        }
+        return result;
       }
-      location = (int) (key % m_cacheSize) * m_cacheSlots;
-      int loc = location;
-      for (int i = 0; i < m_cacheSlots; i++) {
-        long thiskey = m_keys[loc];
-        if (thiskey == 0) {
-          break; // empty slot, so break out of loop early
+
+      // Use LRU cache of rows
+      double[] row = m_rows[useRow(id1)];
+      result = row[id2];
+      if (Double.isNaN(result)) {
+        // the symmetric entry may be cached in the other row
+        int other = m_rowSlot[id2];
+        if (other >= 0) {
+          result = m_rows[other][id1];
         }
-        if (thiskey == (key + 1)) {
-          m_cacheHits++;
-          // move entry to front of cache (LRU) by swapping
-          // only if it's not already at the front of cache
-          if (i > 0) {
-            double tmps = m_storage[loc];
-            m_storage[loc] = m_storage[location];
-            m_keys[loc] = m_keys[location];
-            m_storage[location] = tmps;
-            m_keys[location] = thiskey;
-            return tmps;
-          } else {
-            return m_storage[loc];
+        if (Double.isNaN(result)) {
+          m_cacheMisses++;
+          m_kernelEvals++;
+          result = evaluate(id1, id2, inst1);
+          if (other >= 0) {
+            m_rows[other][id1] = result;
           }
+        } else {
+          m_cacheHits++;
         }
-        loc++;
+        row[id2] = result;
+      } else {
+        m_cacheHits++;
       }
+      return result;
     }
 
     result = evaluate(id1, id2, inst1);
 
     m_kernelEvals++;
 
-    // store result in cache
-    if ((key != -1) && (m_cacheSize != -1)) {
-      // move all cache slots forward one array index
-      // to make room for the new entry
-      System
-        .arraycopy(m_keys, location, m_keys, location + 1, m_cacheSlots - 1);
-      System.arraycopy(m_storage, location, m_storage, location + 1,
-        m_cacheSlots - 1);
-      m_storage[location] = result;
-      m_keys[location] = (key + 1);
-    }
     return result;
   }
 
+  /**
+   * Returns the slot holding the row of the given instance and makes it the
+   * most recently used one. If the row is not cached, it takes a free slot or
+   * the slot of the least recently used row.
+   * 
+   * @param id the index of the instance
+   * @return the slot of the row
+   */
+  protected int useRow(int id) {
+    int slot = m_rowSlot[id];
+    if (slot == m_mostRecent && slot >= 0) {
+      return slot;
+    }
+
+    if (slot >= 0) {
+      // unlink the slot
+      m_nextSlot[m_prevSlot[slot]] = m_nextSlot[slot];
+      if (m_nextSlot[slot] >= 0) {
+        m_prevSlot[m_nextSlot[slot]] = m_prevSlot[slot];
+      } else {
+        m_leastRecent = m_prevSlot[slot];
+      }
+    } else {
+      if (m_numSlots < m_rows.length) {
+        slot = m_numSlots++;
+        m_rows[slot] = new double[m_numInsts];
+        if (m_leastRecent < 0) {
+          m_leastRecent = slot;
+        }
+      } else {
+        // evict the least recently used row
+        slot = m_leastRecent;
+        m_leastRecent = m_prevSlot[slot];
+        m_nextSlot[m_leastRecent] = -1;
+        m_rowSlot[m_slotRow[slot]] = -1;
+        m_cacheEvictions++;
+      }
+      Arrays.fill(m_rows[slot], Double.NaN);
+      m_rowSlot[id] = slot;
+      m_slotRow[slot] = id;
+    }
+
+    // make it the most recently used slot
+    m_prevSlot[slot] = -1;
+    m_nextSlot[slot] = m_mostRecent;
+    if (m_mostRecent >= 0) {
+      m_prevSlot[m_mostRecent] = slot;
+    }
+    m_mostRecent = slot;
+    return slot;
+  }
+
+  /**
+   * Returns whether the row cache is in use, i.e., whether the cache size is
+   * greater than 0 and the kernel has been built.
+   * 
+   * @return true if the row cache is in use
+   */
+  protected boolean usesRowCache() {
+    return m_rows != null;
+  }
+
   /**
    * Returns the number of time Eval has been called.
    * 
@@ -271,13 +362,37 @@ public abstract class CachedKernel extends Kernel {
     return m_cacheHits;
   }
 
+  /**
+   * Returns the number of cache misses, i.e., the number of kernel
+   * evaluations that had to be computed although the cache was used.
+   * 
+   * @return the number of cache misses.
+   */
+  public int numCacheMisses() {
+    return m_cacheMisses;
+  }
+
+  /**
+   * Returns the number of kernel rows evicted from the cache to make room for
+   * others.
+   * 
+   * @return the number of evictions.
+   */
+  public int numCacheEvictions() {
+    return m_cacheEvictions;
+  }
+
   /**
    * Frees the cache used by the kernel.
    */
   @Override
   public void clean() {
-    m_storage = null;
-    m_keys = null;
+    m_rows = null;
+    m_rowSlot = null;
+    m_slotRow = null;
+    m_prevSlot = null;
+    m_nextSlot = null;
+    m_diagonal = null;
     m_kernelMatrix = null;
   }
 
@@ -317,7 +432,8 @@ public abstract class CachedKernel extends Kernel {
   }
 
   /**
-   * Sets the size of the cache to use (a prime number)
+   * Sets the size of the cache to use. The cache holds as many kernel rows as
+   * fit into (64 * size) bytes.
    * 
    * @param value the size of the cache
    */
@@ -347,7 +463,8 @@ public abstract class CachedKernel extends Kernel {
    *         explorer/experimenter gui
    */
   public String cacheSizeTipText() {
-    return "The size of the cache (a prime number), 0 for full cache and -1 to turn it off.";
+    return "The size of the cache, 0 for full cache and -1 to turn it off. "
+      + "The cache holds as many kernel rows as fit into (64 * size) bytes.";
   }
 
   /**
@@ -361,16 +478,28 @@ public abstract class CachedKernel extends Kernel {
 
     m_kernelEvals = 0;
     m_cacheHits = 0;
+    m_cacheMisses = 0;
+    m_cacheEvictions = 0;
     m_numInsts = m_data.numInstances();
 
     if (getCacheSize() > 0) {
-      // Use LRU cache
-      m_storage = new double[m_cacheSize * m_cacheSlots];
-      m_keys = new long[m_cacheSize * m_cacheSlots];
-    } else {
-      m_storage = null;
-      m_keys = null;
+      // Use LRU cache of rows, at least two of them
+      long numRows = (64L * m_cacheSize) / (8L * Math.max(1, m_numInsts));
+      numRows = Math.max(2, Math.min(numRows, m_numInsts));
+      m_rows = new double[(int) numRows][];
+      m_slotRow = new int[(int) numRows];
+      m_prevSlot = new int[(int) numRows];
+      m_nextSlot = new int[(int) numRows];
+      m_rowSlot = new int[m_numInsts];
+      Arrays.fill(m_rowSlot, -1);
+      m_mostRecent = -1;
+      m_leastRecent = -1;
+      m_numSlots = 0;
+      m_diagonal = new double[m_numInsts];
+      Arrays.fill(m_diagonal, Double.NaN);
       m_kernelMatrix = null;
+    } else {
+      clean();
     }
   }
 
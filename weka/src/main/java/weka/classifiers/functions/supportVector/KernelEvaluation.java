@@ -269,6 +269,12 @@ public class KernelEvaluation implements RevisionHandler {
     }
     m_Result.append("# Evaluations: " + m_NumEvals + "\n");
     m_Result.append("# Cache hits : " + m_NumCacheHits + "\n");
+    if (kernel instanceof CachedKernel) {
+      m_Result.append("# Cache misses: "
+        + ((CachedKernel) kernel).numCacheMisses() + "\n");
+      m_Result.append("# Evictions  : "
+        + ((CachedKernel) kernel).numCacheEvictions() + "\n");
+    }
     m_Result.append("Elapsed time : "
       + (((double) (endTime - startTime)) / 1000) + "s\n");
 
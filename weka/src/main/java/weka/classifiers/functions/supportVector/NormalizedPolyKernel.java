@@ -40,8 +40,9 @@ import weka.core.RevisionUtils;
  *  (default: off)</pre>
  *
  * <pre> -C &lt;num&gt;
- *  The size of the cache (a prime number), 0 for full cache and 
- *  -1 to turn it off.
+ *  The size of the cache, 0 for full cache and 
+ *  -1 to turn it off. The cache holds as many kernel
+ *  rows as fit into (64 * size) bytes.
  *  (default: 250007)</pre>
  * 
  * <pre> -E &lt;num&gt;
@@ -113,7 +114,7 @@ public class NormalizedPolyKernel
   public double eval(int id1, int id2, Instance inst1) 
     throws Exception {
 
-    double div = Math.sqrt(super.eval(id1, id1, inst1) * ((m_keys != null)
+    double div = Math.sqrt(super.eval(id1, id1, inst1) * (usesRowCache()
                            ? super.eval(id2, id2, m_data.instance(id2))
                            : super.eval(-1, -1, m_data.instance(id2))));
 
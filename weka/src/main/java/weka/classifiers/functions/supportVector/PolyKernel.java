@@ -50,8 +50,9 @@ import weka.core.Utils;
  *
  * <pre>
  * -C &lt;num&gt;
- *  The size of the cache (a prime number), 0 for full cache and 
- *  -1 to turn it off.
+ *  The size of the cache, 0 for full cache and 
+ *  -1 to turn it off. The cache holds as many kernel
+ *  rows as fit into (64 * size) bytes.
  *  (default: 250007)
  * </pre>
  * 
@@ -96,7 +97,7 @@ public class PolyKernel extends CachedKernel {
    * Creates a new <code>PolyKernel</code> instance.
    * 
    * @param data the training dataset used.
-   * @param cacheSize the size of the cache (a prime number)
+   * @param cacheSize the size of the cache
    * @param exponent the exponent to use
    * @param lowerOrder whether to use lower-order terms
    * @throws Exception if something goes wrong
@@ -159,8 +160,9 @@ public class PolyKernel extends CachedKernel {
    *
    * <pre>
    * -C &lt;num&gt;
-   *  The size of the cache (a prime number), 0 for full cache and 
-   *  -1 to turn it off.
+   *  The size of the cache, 0 for full cache and 
+   *  -1 to turn it off. The cache holds as many kernel
+   *  rows as fit into (64 * size) bytes.
    *  (default: 250007)
    * </pre>
    * 
@@ -33,6 +33,7 @@ import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
 import weka.core.RevisionUtils;
+import weka.core.ThreadSafe;
 import weka.core.Utils;
 import weka.core.matrix.Matrix;
 
@@ -66,7 +67,8 @@ import weka.core.matrix.Matrix;
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @version $Revision$
  */
-public class PrecomputedKernelMatrixKernel extends Kernel implements Copyable {
+public class PrecomputedKernelMatrixKernel extends Kernel implements Copyable,
+  ThreadSafe {
 
   /** for serialization */
   static final long serialVersionUID = -321831645846363333L;
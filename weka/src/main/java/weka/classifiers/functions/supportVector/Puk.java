@@ -59,8 +59,9 @@ import weka.core.Utils;
  *
  * <pre>
  * -C &lt;num&gt;
- *  The size of the cache (a prime number), 0 for full cache and 
- *  -1 to turn it off.
+ *  The size of the cache, 0 for full cache and 
+ *  -1 to turn it off. The cache holds as many kernel
+ *  rows as fit into (64 * size) bytes.
  *  (default: 250007)
  * </pre>
  * 
@@ -201,8 +202,9 @@ public class Puk extends CachedKernel implements TechnicalInformationHandler {
    *
    * <pre>
    * -C &lt;num&gt;
-   *  The size of the cache (a prime number), 0 for full cache and 
-   *  -1 to turn it off.
+   *  The size of the cache, 0 for full cache and 
+   *  -1 to turn it off. The cache holds as many kernel
+   *  rows as fit into (64 * size) bytes.
    *  (default: 250007)
    * </pre>
    * 
@@ -34,8 +34,9 @@ import weka.core.Capabilities.Capability;
  * Valid options are: <p>
  * 
  * <pre> -C &lt;num&gt;
- *  The size of the cache (a prime number), 0 for full cache and 
- *  -1 to turn it off.
+ *  The size of the cache, 0 for full cache and 
+ *  -1 to turn it off. The cache holds as many kernel
+ *  rows as fit into (64 * size) bytes.
  *  (default: 250007)</pre>
  * 
  * <pre> -G &lt;double&gt;
@@ -74,7 +75,7 @@ public class RBFKernel extends CachedKernel {
    * Creates a new <code>RBFKernel</code> instance.
    * 
    * @param data the training dataset used.
-   * @param cacheSize the size of the cache (a prime number)
+   * @param cacheSize the size of the cache
    * @param gamma the gamma to use
    * @throws Exception if something goes wrong
    */
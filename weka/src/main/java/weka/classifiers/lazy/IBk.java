@@ -21,9 +21,11 @@
 
 package weka.classifiers.lazy;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.UpdateableClassifier;
@@ -34,6 +36,7 @@ import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.NormalizableDistance;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
@@ -43,8 +46,10 @@ import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
+import weka.core.ThreadSafe;
 import weka.core.Utils;
 import weka.core.WeightedInstancesHandler;
+import weka.core.neighboursearch.FilteredNeighbourSearch;
 import weka.core.neighboursearch.LinearNNSearch;
 import weka.core.neighboursearch.NearestNeighbourSearch;
 
@@ -115,7 +120,8 @@ import weka.core.neighboursearch.NearestNeighbourSearch;
 public class IBk 
   extends AbstractClassifier 
   implements OptionHandler, UpdateableClassifier, WeightedInstancesHandler,
-             TechnicalInformationHandler, AdditionalMeasureProducer {
+             TechnicalInformationHandler, AdditionalMeasureProducer,
+             ThreadSafe {
 
   /** for serialization. */
   static final long serialVersionUID = -3080186098777067172L;
@@ -185,6 +191,14 @@ public class IBk
 
   /** The number of attributes the contribute to a prediction. */
   protected double m_NumAttributesUsed;
+
+  /**
+   * Guards the training window, k and the ranges of the neighbour search.
+   * Batches that leave them unchanged are scored under the read lock, so
+   * several threads can search at the same time.
+   */
+  protected final ReentrantReadWriteLock m_PredictionLock =
+    new ReentrantReadWriteLock();
   
   /**
    * IBk classifier. Simple instance-based learner that uses the class
@@ -564,29 +578,153 @@ public class IBk
       //throw new Exception("No training instances!");
       return m_defaultModel.distributionForInstance(instance);
     }
-    if ((m_WindowSize > 0) && (m_Train.numInstances() > m_WindowSize)) {
-      m_kNNValid = false;
-      boolean deletedInstance=false;
-      while (m_Train.numInstances() > m_WindowSize) {
-	m_Train.delete(0);
+
+    double [] distribution = new double [m_NumClasses];
+    distributionForInstance(instance, distribution);
+
+    return distribution;
+  }
+
+  /**
+   * Calculates the class membership probabilities for a batch of test
+   * instances and writes them into the given array. If the batch lies
+   * within the ranges of the distance function, the neighbours of the whole
+   * batch are found with one call of the nearest neighbour search. Otherwise
+   * the instances are classified one at a time, as each one may update the
+   * ranges used for the instances that follow it.
+   *
+   * @param batch the instances to be classified
+   * @param dists the array to write the predicted distributions to
+   * @throws Exception if an error occurred during the prediction
+   */
+  @Override
+  public void distributionsForInstances(Instances batch, double[][] dists)
+    throws Exception {
+
+    if (m_Train.numInstances() == 0) {
+      m_defaultModel.distributionsForInstances(batch, dists);
+      return;
+    }
+    batchDistributions(batch, dists);
+  }
+
+  /**
+   * Calculates the class membership probabilities for a batch of test
+   * instances with a single search of the nearest neighbour search, or one
+   * instance at a time if the batch does not lie within the ranges of the
+   * distance function. Only the update of the training window and k, and
+   * the instance-at-a-time fallback, exclude other callers; batches within
+   * the ranges are searched concurrently.
+   *
+   * @param batch the instances to be classified
+   * @param dists the array to write the predicted distributions to
+   * @throws Exception if an error occurred during the prediction
+   */
+  protected void batchDistributions(Instances batch, double[][] dists)
+    throws Exception {
+
+    m_PredictionLock.writeLock().lock();
+    try {
+      while ((m_WindowSize > 0) && (m_Train.numInstances() > m_WindowSize)) {
+        m_kNNValid = false;
+        m_Train.delete(0);
       }
-      //rebuild datastructure KDTree currently can't delete
-      if(deletedInstance==true)
-        m_NNSearch.setInstances(m_Train);
+
+      // Select k by cross validation
+      if (!m_kNNValid && (m_CrossValidate) && (m_kNNUpper >= 1)) {
+        crossValidate();
+      }
+    } finally {
+      m_PredictionLock.writeLock().unlock();
     }
 
-    // Select k by cross validation
-    if (!m_kNNValid && (m_CrossValidate) && (m_kNNUpper >= 1)) {
-      crossValidate();
+    m_PredictionLock.readLock().lock();
+    try {
+      if (withinRanges(batch)) {
+        double[][] distances = new double[batch.numInstances()][];
+        Instances[] neighbours = m_NNSearch.kNearestNeighbours(batch, m_kNN,
+          distances);
+        for (int i = 0; i < batch.numInstances(); i++) {
+          makeDistribution(neighbours[i], distances[i], dists[i]);
+        }
+        return;
+      }
+    } finally {
+      m_PredictionLock.readLock().unlock();
+    }
+
+    for (int i = 0; i < batch.numInstances(); i++) {
+      distributionForInstance(batch.instance(i), dists[i]);
     }
+  }
 
-    m_NNSearch.addInstanceInfo(instance);
+  /**
+   * Checks whether all instances of the given batch lie within the ranges of
+   * the distance function, so that adding their information to the neighbour
+   * search leaves it unchanged.
+   *
+   * @param batch the instances to check
+   * @return true if the neighbour search is unaffected by the batch
+   * @throws Exception if the ranges cannot be obtained
+   */
+  protected boolean withinRanges(Instances batch) throws Exception {
+    if ((m_NNSearch instanceof FilteredNeighbourSearch)
+      || !(m_NNSearch.getDistanceFunction() instanceof NormalizableDistance)) {
+      return false;
+    }
+    NormalizableDistance distance =
+      (NormalizableDistance) m_NNSearch.getDistanceFunction();
+    if (!distance.rangesSet()) {
+      return false;
+    }
+    double[][] ranges = distance.getRanges();
+    for (int i = 0; i < batch.numInstances(); i++) {
+      if (!distance.inRanges(batch.instance(i), ranges)) {
+        return false;
+      }
+    }
 
-    Instances neighbours = m_NNSearch.kNearestNeighbours(instance, m_kNN);
-    double [] distances = m_NNSearch.getDistances();
-    double [] distribution = makeDistribution( neighbours, distances );
+    return true;
+  }
 
-    return distribution;
+  /**
+   * Calculates the class membership probabilities for the given test instance
+   * and writes them into the given array. The neighbour search keeps state
+   * between calls, so callers are served one at a time.
+   *
+   * @param instance the instance to be classified
+   * @param distribution the array to write the predicted distribution to
+   * @throws Exception if an error occurred during the prediction
+   */
+  protected void distributionForInstance(Instance instance,
+    double[] distribution) throws Exception {
+
+    m_PredictionLock.writeLock().lock();
+    try {
+      if ((m_WindowSize > 0) && (m_Train.numInstances() > m_WindowSize)) {
+        m_kNNValid = false;
+        boolean deletedInstance=false;
+        while (m_Train.numInstances() > m_WindowSize) {
+	  m_Train.delete(0);
+        }
+        //rebuild datastructure KDTree currently can't delete
+        if(deletedInstance==true)
+          m_NNSearch.setInstances(m_Train);
+      }
+
+      // Select k by cross validation
+      if (!m_kNNValid && (m_CrossValidate) && (m_kNNUpper >= 1)) {
+        crossValidate();
+      }
+
+      m_NNSearch.addInstanceInfo(instance);
+
+      Instances neighbours = m_NNSearch.kNearestNeighbours(instance, m_kNN);
+      double [] distances = m_NNSearch.getDistances();
+      makeDistribution(neighbours, distances, distribution);
+    } finally {
+      m_PredictionLock.writeLock().unlock();
+    }
   }
 
   /**
@@ -851,10 +989,28 @@ public class IBk
   protected double [] makeDistribution(Instances neighbours, double[] distances)
     throws Exception {
 
-    double total = 0, weight;
     double [] distribution = new double [m_NumClasses];
-    
+    makeDistribution(neighbours, distances, distribution);
+
+    return distribution;
+  }
+
+  /**
+   * Turn the list of nearest neighbors into a probability distribution,
+   * written into the given array.
+   *
+   * @param neighbours the list of nearest neighboring instances
+   * @param distances the distances of the neighbors
+   * @param distribution the array to write the probability distribution to
+   * @throws Exception if computation goes wrong or has no class attribute
+   */
+  protected void makeDistribution(Instances neighbours, double[] distances,
+    double[] distribution) throws Exception {
+
+    double total = 0, weight;
+
     // Set up a correction to the estimator
+    Arrays.fill(distribution, 0);
     if (m_ClassType == Attribute.NOMINAL) {
       for(int i = 0; i < m_NumClasses; i++) {
 	distribution[i] = 1.0 / Math.max(1,m_Train.numInstances());
@@ -898,7 +1054,6 @@ public class IBk
     if (total > 0) {
       Utils.normalize(distribution, total);
     }
-    return distribution;
   }
 
   /**
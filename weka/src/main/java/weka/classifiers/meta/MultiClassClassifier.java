@@ -23,10 +23,18 @@ package weka.classifiers.meta;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.RandomizableSingleClassifierEnhancer;
+import weka.classifiers.functions.SMO;
+import weka.classifiers.functions.SMOreg;
+import weka.classifiers.functions.supportVector.CachedKernel;
+import weka.classifiers.functions.supportVector.Kernel;
 import weka.classifiers.rules.ZeroR;
 import weka.core.Attribute;
 import weka.core.Capabilities;
@@ -40,6 +48,7 @@ import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
 import weka.core.SelectedTag;
 import weka.core.Tag;
+import weka.core.TaskUtils;
 import weka.core.Utils;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.MakeIndicator;
@@ -68,6 +77,10 @@ import weka.filters.unsupervised.instance.RemoveWithValues;
  * <pre> -L
  *  Use log loss decoding for random and exhaustive codes.</pre>
  *
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for building the base classifiers.
+ *  (default 1 - i.e. no parallelism)</pre>
+ *
  * <pre> -S &lt;num&gt;
  *  Random number seed.
  *  (default 1)</pre>
@@ -140,6 +153,9 @@ public class MultiClassClassifier
   /** The multiclass method to use */
   protected int m_Method = METHOD_1_AGAINST_ALL;
 
+  /** The number of execution slots for building the base classifiers */
+  protected int m_numExecutionSlots = 1;
+
   /** 1-against-all */
   public static final int METHOD_1_AGAINST_ALL    = 0;
   /** random correction code */
@@ -470,27 +486,36 @@ public class MultiClassClassifier
       m_Classifiers = AbstractClassifier.makeCopies(m_Classifier, numClassifiers);
       m_ClassFilters = new Filter[numClassifiers];
       m_SumOfWeights = new double[numClassifiers];
+      ExecutorService executorPool = startExecutorPool(numClassifiers);
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
 
       // generate the classifiers
-      for (int i=0; i<numClassifiers; i++) {
-	RemoveWithValues classFilter = new RemoveWithValues();
-	classFilter.setAttributeIndex("" + (insts.classIndex() + 1));
-	classFilter.setModifyHeader(true);
-	classFilter.setInvertSelection(true);
-	classFilter.setNominalIndicesArr((int[])pairs.get(i));
-	Instances tempInstances = new Instances(insts, 0);
-	tempInstances.setClassIndex(-1);
-	classFilter.setInputFormat(tempInstances);
-	newInsts = Filter.useFilter(insts, classFilter);
-	if (newInsts.numInstances() > 0 || zeroTrainingInstances) {
-	  newInsts.setClassIndex(insts.classIndex());
-	  m_Classifiers[i].buildClassifier(newInsts);
-	  m_ClassFilters[i] = classFilter;
-          m_SumOfWeights[i] = newInsts.sumOfWeights();
-	} else {
-	  m_Classifiers[i] = null;
-	  m_ClassFilters[i] = null;
-	}
+      try {
+        for (int i=0; i<numClassifiers; i++) {
+          RemoveWithValues classFilter = new RemoveWithValues();
+          classFilter.setAttributeIndex("" + (insts.classIndex() + 1));
+          classFilter.setModifyHeader(true);
+          classFilter.setInvertSelection(true);
+          classFilter.setNominalIndicesArr((int[])pairs.get(i));
+          Instances tempInstances = new Instances(insts, 0);
+          tempInstances.setClassIndex(-1);
+          classFilter.setInputFormat(tempInstances);
+          newInsts = Filter.useFilter(insts, classFilter);
+          if (newInsts.numInstances() > 0 || zeroTrainingInstances) {
+            newInsts.setClassIndex(insts.classIndex());
+            buildBaseClassifier(i, newInsts, executorPool, results);
+            m_ClassFilters[i] = classFilter;
+            m_SumOfWeights[i] = newInsts.sumOfWeights();
+          } else {
+            m_Classifiers[i] = null;
+            m_ClassFilters[i] = null;
+          }
+        }
+        waitForBaseClassifiers(results);
+      } finally {
+        if (executorPool != null) {
+          executorPool.shutdownNow();
+        }
       }
 
       // construct a two-class header version of the dataset
@@ -524,20 +549,108 @@ public class MultiClassClassifier
       numClassifiers = code.size();
       m_Classifiers = AbstractClassifier.makeCopies(m_Classifier, numClassifiers);
       m_ClassFilters = new MakeIndicator[numClassifiers];
-      for (int i = 0; i < m_Classifiers.length; i++) {
-	m_ClassFilters[i] = new MakeIndicator();
-	MakeIndicator classFilter = (MakeIndicator) m_ClassFilters[i];
-	classFilter.setAttributeIndex("" + (insts.classIndex() + 1));
-	classFilter.setValueIndices(code.getIndices(i));
-	classFilter.setNumeric(false);
-	classFilter.setInputFormat(insts);
-	newInsts = Filter.useFilter(insts, m_ClassFilters[i]);
-	m_Classifiers[i].buildClassifier(newInsts);
+      ExecutorService executorPool = startExecutorPool(numClassifiers);
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      try {
+        for (int i = 0; i < m_Classifiers.length; i++) {
+          m_ClassFilters[i] = new MakeIndicator();
+          MakeIndicator classFilter = (MakeIndicator) m_ClassFilters[i];
+          classFilter.setAttributeIndex("" + (insts.classIndex() + 1));
+          classFilter.setValueIndices(code.getIndices(i));
+          classFilter.setNumeric(false);
+          classFilter.setInputFormat(insts);
+          newInsts = Filter.useFilter(insts, m_ClassFilters[i]);
+          buildBaseClassifier(i, newInsts, executorPool, results);
+        }
+        waitForBaseClassifiers(results);
+      } finally {
+        if (executorPool != null) {
+          executorPool.shutdownNow();
+        }
       }
     }
     m_ClassAttribute = insts.classAttribute();
   }
 
+  /**
+   * Starts an executor pool for building the base classifiers, if there are
+   * several execution slots. The kernel caches of the base classifiers are
+   * then divided among the classifiers built at the same time.
+   *
+   * @param numClassifiers the number of base classifiers to build
+   * @return the pool, or null if the classifiers are to be built sequentially
+   */
+  protected ExecutorService startExecutorPool(int numClassifiers) {
+    int numSlots = Math.min(m_numExecutionSlots, numClassifiers);
+    if (numSlots <= 1) {
+      return null;
+    }
+    divideKernelCaches(numSlots);
+    return Executors.newFixedThreadPool(numSlots);
+  }
+
+  /**
+   * Divides the cache size of the cached kernel of each base classifier that
+   * is an SMO or SMOreg by the number of classifiers built at the same time,
+   * as SMO does for its pairwise models, so that they stay within the memory
+   * configured for a single cache.
+   *
+   * @param numSlots the number of classifiers built at the same time
+   */
+  protected void divideKernelCaches(int numSlots) {
+    for (Classifier classifier : m_Classifiers) {
+      Kernel kernel = null;
+      if (classifier instanceof SMO) {
+        kernel = ((SMO) classifier).getKernel();
+      } else if (classifier instanceof SMOreg) {
+        kernel = ((SMOreg) classifier).getKernel();
+      }
+      if (kernel instanceof CachedKernel) {
+        CachedKernel cached = (CachedKernel) kernel;
+        if (cached.getCacheSize() > 0) {
+          cached.setCacheSize(Math.max(1, cached.getCacheSize() / numSlots));
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds one of the base classifiers, in the executor pool if there is one.
+   *
+   * @param index the index of the base classifier
+   * @param data the training data of the base classifier
+   * @param executorPool the pool, null to build the classifier right away
+   * @param results collects the results of the tasks submitted to the pool
+   * @throws Exception if the classifier can't be built
+   */
+  protected void buildBaseClassifier(final int index, final Instances data,
+    ExecutorService executorPool, List<Future<Void>> results) throws Exception {
+
+    if (executorPool == null) {
+      m_Classifiers[index].buildClassifier(data);
+    } else {
+      results.add(executorPool.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          m_Classifiers[index].buildClassifier(data);
+          return null;
+        }
+      }));
+    }
+  }
+
+  /**
+   * Waits for all base classifiers that are built in the executor pool, so
+   * that none of them is still being built if one of them fails.
+   *
+   * @param results the results of the tasks submitted to the pool
+   * @throws Exception if a classifier can't be built
+   */
+  protected void waitForBaseClassifiers(List<Future<Void>> results)
+    throws Exception {
+
+    TaskUtils.waitForAll(results);
+  }
+
   /**
    * Returns the individual predictions of the base classifiers
    * for an instance. Used by StackedMultiClassClassifier.
@@ -722,6 +835,10 @@ public class MultiClassClassifier
         "\tUse pairwise coupling (only has an effect for 1-against1)",
         "P", 0, "-P"));
     vec.addElement(new Option("\tUse log loss decoding for random and exhaustive codes", "L", 0, "-L"));
+    vec.addElement(new Option(
+        "\tNumber of execution slots for building the base classifiers.\n"
+        + "\t(default 1 - i.e. no parallelism)",
+        "num-slots", 1, "-num-slots <num>"));
 
     vec.addAll(Collections.list(super.listOptions()));
     
@@ -748,6 +865,10 @@ public class MultiClassClassifier
    * <pre> -L
    *  Use log loss decoding for random and exhaustive codes.</pre>
    *
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots for building the base classifiers.
+   *  (default 1 - i.e. no parallelism)</pre>
+   *
    * <pre> -S &lt;num&gt;
    *  Random number seed.
    *  (default 1)</pre>
@@ -799,6 +920,13 @@ public class MultiClassClassifier
 
     setLogLossDecoding(Utils.getFlag('L', options));
 
+    String slotsString = Utils.getOption("num-slots", options);
+    if (slotsString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(slotsString));
+    } else {
+      setNumExecutionSlots(1);
+    }
+
     super.setOptions(options);
     
     Utils.checkForRemainingOptions(options);
@@ -827,6 +955,9 @@ public class MultiClassClassifier
     options.add("-R");
     options.add("" + m_RandomWidthFactor);
 
+    options.add("-num-slots");
+    options.add("" + getNumExecutionSlots());
+
     Collections.addAll(options, super.getOptions());
     
     return options.toArray(new String[0]);
@@ -966,6 +1097,34 @@ public class MultiClassClassifier
     return "Use pairwise coupling (only has an effect for 1-against-1).";
   }
 
+  /**
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for building the "
+      + "base classifiers. The kernel cache of an SMO or SMOreg base "
+      + "classifier is divided among the classifiers built at the same time.";
+  }
+
+  /**
+   * Gets the number of execution slots for building the base classifiers.
+   *
+   * @return the number of classifiers to build in parallel
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
+  /**
+   * Sets the number of execution slots for building the base classifiers.
+   *
+   * @param slots the number of classifiers to build in parallel
+   */
+  public void setNumExecutionSlots(int slots) {
+    m_numExecutionSlots = slots;
+  }
+
   /**
    * Implements pairwise coupling.
    *
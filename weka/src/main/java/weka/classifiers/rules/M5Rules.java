@@ -90,6 +90,11 @@ import weka.core.TechnicalInformationHandler;
  *  Set minimum number of instances per leaf
  *  (default 4)</pre>
  * 
+ * <pre> -num-threads &lt;num&gt;
+ *  The number of threads to build the tree with,
+ *  0 for the number of cores.
+ *  (default 1)</pre>
+ * 
  <!-- options-end -->
  *
  * @author <a href="mailto:mhall@cs.waikato.ac.nz">Mark Hall</a>
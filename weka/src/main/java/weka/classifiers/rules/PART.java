@@ -24,6 +24,8 @@ package weka.classifiers.rules;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.rules.part.MakeDecList;
@@ -129,6 +131,13 @@ import weka.core.Capabilities.Capability;
  *  Do not make split point actual value.
  * </pre>
  * 
+ * <pre>
+ * -num-threads &lt;num&gt;
+ *  The number of threads to evaluate splits with,
+ *  0 for the number of cores.
+ *  (default 1)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
@@ -171,6 +180,9 @@ public class PART extends AbstractClassifier implements OptionHandler,
   /** Do not relocate split point to actual data value */
   private boolean m_doNotMakeSplitPointActualValue;
 
+  /** The number of threads to evaluate splits with, 0 for the number of cores. */
+  private int m_numThreads = 1;
+
   /**
    * Returns a string describing classifier
    * 
@@ -257,25 +269,45 @@ public class PART extends AbstractClassifier implements OptionHandler,
 
     ModelSelection modSelection;
 
-    if (m_binarySplits) {
-      modSelection = new BinC45ModelSelection(m_minNumObj, instances,
-        m_useMDLcorrection, m_doNotMakeSplitPointActualValue);
-    } else {
-      modSelection = new C45ModelSelection(m_minNumObj, instances,
-        m_useMDLcorrection, m_doNotMakeSplitPointActualValue);
+    ExecutorService executor = null;
+    int numThreads = m_numThreads;
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
     }
-    if (m_unpruned) {
-      m_root = new MakeDecList(modSelection, m_minNumObj);
-    } else if (m_reducedErrorPruning) {
-      m_root = new MakeDecList(modSelection, m_numFolds, m_minNumObj, m_Seed);
-    } else {
-      m_root = new MakeDecList(modSelection, m_CF, m_minNumObj);
+    if (numThreads > 1) {
+      executor = Executors.newFixedThreadPool(numThreads);
     }
-    m_root.buildClassifier(instances);
-    if (m_binarySplits) {
-      ((BinC45ModelSelection) modSelection).cleanup();
-    } else {
-      ((C45ModelSelection) modSelection).cleanup();
+    try {
+      if (m_binarySplits) {
+        modSelection = new BinC45ModelSelection(m_minNumObj, instances,
+          m_useMDLcorrection, m_doNotMakeSplitPointActualValue, executor);
+      } else {
+        modSelection = new C45ModelSelection(m_minNumObj, instances,
+          m_useMDLcorrection, m_doNotMakeSplitPointActualValue, executor);
+      }
+      if (getDebug() && (executor != null)
+        && !modSelection.buildsModelsConcurrently()) {
+        System.err.println("Building the candidate splits one after the "
+          + "other, since the data has missing values or non-integral weights");
+      }
+      if (m_unpruned) {
+        m_root = new MakeDecList(modSelection, m_minNumObj);
+      } else if (m_reducedErrorPruning) {
+        m_root = new MakeDecList(modSelection, m_numFolds, m_minNumObj,
+          m_Seed);
+      } else {
+        m_root = new MakeDecList(modSelection, m_CF, m_minNumObj);
+      }
+      m_root.buildClassifier(instances);
+      if (m_binarySplits) {
+        ((BinC45ModelSelection) modSelection).cleanup();
+      } else {
+        ((C45ModelSelection) modSelection).cleanup();
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
     }
   }
 
@@ -368,6 +400,10 @@ public class PART extends AbstractClassifier implements OptionHandler,
       "\tSeed for random data shuffling (default 1).", "Q", 1, "-Q <seed>"));
     newVector.addElement(new Option("\tDo not make split point actual value.",
       "-doNotMakeSplitPointActualValue", 0, "-doNotMakeSplitPointActualValue"));
+    newVector.addElement(new Option(
+      "\tThe number of threads to evaluate splits with,\n"
+        + "\t0 for the number of cores.\n" + "\t(default 1)", "num-threads",
+      1, "-num-threads <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
 
@@ -430,6 +466,13 @@ public class PART extends AbstractClassifier implements OptionHandler,
    *  Do not make split point actual value.
    * </pre>
    * 
+   * <pre>
+   * -num-threads &lt;num&gt;
+   *  The number of threads to evaluate splits with,
+   *  0 for the number of cores.
+   *  (default 1)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -485,6 +528,12 @@ public class PART extends AbstractClassifier implements OptionHandler,
     } else {
       m_Seed = 1;
     }
+    String numThreadsString = Utils.getOption("num-threads", options);
+    if (numThreadsString.length() != 0) {
+      m_numThreads = Integer.parseInt(numThreadsString);
+    } else {
+      m_numThreads = 1;
+    }
 
     super.setOptions(options);
   }
@@ -526,6 +575,10 @@ public class PART extends AbstractClassifier implements OptionHandler,
     if (m_doNotMakeSplitPointActualValue) {
         options.add("-doNotMakeSplitPointActualValue");
     }
+    if (m_numThreads != 1) {
+      options.add("-num-threads");
+      options.add("" + m_numThreads);
+    }
 
     Collections.addAll(options, super.getOptions());
 
@@ -869,6 +922,40 @@ public class PART extends AbstractClassifier implements OptionHandler,
     this.m_doNotMakeSplitPointActualValue = m_doNotMakeSplitPointActualValue;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to evaluate candidate splits with, 0 for "
+      + "the number of cores. Candidate splits are only evaluated "
+      + "concurrently if the training data has no missing values and only "
+      + "integer instance weights.";
+  }
+
+  /**
+   * Get the number of threads to evaluate splits with.
+   * 
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+
+    return m_numThreads;
+  }
+
+  /**
+   * Set the number of threads to evaluate splits with, 0 for the number of
+   * cores.
+   * 
+   * @param v the number of threads
+   */
+  public void setNumThreads(int v) {
+
+    m_numThreads = v;
+  }
+
   /**
    * Returns the revision string.
    * 
@@ -0,0 +1,323 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    AttributeBins.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.classifiers.trees;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+
+/**
+ * Quantizes the numeric attributes of a training set into a limited number of
+ * bins, so that tree learners can find split points from per-bin histograms
+ * of the class instead of scanning all sorted values. Bins hold roughly the
+ * same number of instances and never separate equal values. An attribute with
+ * no more distinct values than bins gets one bin per value, in which case the
+ * split points found are the same as with the exact search.
+ * <p/>
+ * The bins of an attribute are computed when first requested. For large
+ * training sets, the bin boundaries are determined from a random sample of
+ * the values.
+ * <p/>
+ * A histogram has a row per bin and a last row for missing values. For a
+ * nominal class, the columns hold the weights per class value; for a numeric
+ * class the weighted sum of class values, the weighted sum of squared class
+ * values and the sum of weights. The last column holds the number of
+ * instances, which stays exact when histograms are derived by subtraction.
+ *
+ * @version $Revision$
+ */
+public class AttributeBins implements RevisionHandler {
+
+  /** the maximum number of bins, one byte value is reserved for missing values */
+  public static final int MAX_BINS = 255;
+
+  /** the maximum number of values to determine the bin boundaries from */
+  public static final int SAMPLE_SIZE = 200000;
+
+  /** the column of the weighted sum of class values for a numeric class */
+  public static final int SUM = 0;
+
+  /** the column of the weighted sum of squared class values for a numeric class */
+  public static final int SUM_SQUARED = 1;
+
+  /** the column of the sum of weights for a numeric class */
+  public static final int SUM_OF_WEIGHTS = 2;
+
+  /** the bin of missing values */
+  protected static final int MISSING = 0xFF;
+
+  /** the training data */
+  protected Instances m_Data;
+
+  /** the maximum number of bins per attribute */
+  protected int m_MaxBins;
+
+  /** the seed for sampling the values */
+  protected long m_Seed;
+
+  /** the bin of each instance per attribute, null if not computed yet */
+  protected byte[][] m_Bins;
+
+  /** the smallest value in each bin per attribute */
+  protected double[][] m_Lower;
+
+  /** the largest value in each bin per attribute */
+  protected double[][] m_Upper;
+
+  /**
+   * Initializes the bins for the given training data.
+   *
+   * @param data the training data
+   * @param maxBins the maximum number of bins per attribute
+   * @param seed the seed for sampling the values of large data
+   * @throws IllegalArgumentException if the number of bins is out of range
+   */
+  public AttributeBins(Instances data, int maxBins, long seed) {
+
+    if ((maxBins < 2) || (maxBins > MAX_BINS)) {
+      throw new IllegalArgumentException("Number of bins must be between 2 and "
+        + MAX_BINS + ", provided: " + maxBins);
+    }
+
+    m_Data = data;
+    m_MaxBins = maxBins;
+    m_Seed = seed;
+    m_Bins = new byte[data.numAttributes()][];
+    m_Lower = new double[data.numAttributes()][];
+    m_Upper = new double[data.numAttributes()][];
+  }
+
+  /**
+   * Returns the training data.
+   *
+   * @return the training data
+   */
+  public Instances getData() {
+    return m_Data;
+  }
+
+  /**
+   * Returns the number of bins of a numeric attribute.
+   *
+   * @param att the attribute index
+   * @return the number of bins
+   */
+  public synchronized int numBins(int att) {
+    computeBins(att);
+    return m_Lower[att].length;
+  }
+
+  /**
+   * Returns the bin of each training instance for a numeric attribute.
+   *
+   * @param att the attribute index
+   * @return the bins, the unsigned value 0xFF stands for missing values
+   */
+  protected synchronized byte[] bins(int att) {
+    computeBins(att);
+    return m_Bins[att];
+  }
+
+  /**
+   * Returns the split point between two bins of a numeric attribute: the
+   * midpoint between the largest value of the lower and the smallest value of
+   * the upper bin, like with the exact search.
+   *
+   * @param att the attribute index
+   * @param lower the lower bin
+   * @param upper the upper bin
+   * @return the split point
+   */
+  public double splitPoint(int att, int lower, int upper) {
+
+    double splitPoint = (m_Upper[att][lower] + m_Lower[att][upper]) / 2.0;
+
+    // Check for numeric precision problems
+    if (splitPoint <= m_Upper[att][lower]) {
+      splitPoint = m_Lower[att][upper];
+    }
+
+    return splitPoint;
+  }
+
+  /**
+   * Computes the histogram of the given instances for a numeric attribute.
+   *
+   * @param att the attribute index
+   * @param indices the indices of the instances in the training data
+   * @param weights the weights of the instances
+   * @param num the number of instances, the arrays may be longer
+   * @return the histogram
+   */
+  public double[][] histogram(int att, int[] indices, double[] weights,
+    int num) {
+
+    byte[] bins = bins(att);
+    boolean nominal = m_Data.classAttribute().isNominal();
+    int count = nominal ? m_Data.numClasses() : 3;
+    double[][] result = new double[numBins(att) + 1][count + 1];
+    for (int i = 0; i < num; i++) {
+      int bin = bins[indices[i]] & 0xFF;
+      double[] row = result[(bin == MISSING) ? result.length - 1 : bin];
+      Instance inst = m_Data.instance(indices[i]);
+      if (nominal) {
+        row[(int) inst.classValue()] += weights[i];
+      } else {
+        double classVal = inst.classValue() * weights[i];
+        row[SUM] += classVal;
+        row[SUM_SQUARED] += inst.classValue() * classVal;
+        row[SUM_OF_WEIGHTS] += weights[i];
+      }
+      row[count]++;
+    }
+
+    return result;
+  }
+
+  /**
+   * Subtracts a histogram from another one, e.g. to obtain the histogram of
+   * a node from the ones of its parent and its siblings.
+   *
+   * @param hist the histogram to subtract from, which is modified
+   * @param other the histogram to subtract
+   */
+  public static void subtract(double[][] hist, double[][] other) {
+
+    for (int i = 0; i < hist.length; i++) {
+      for (int j = 0; j < hist[i].length; j++) {
+        hist[i][j] -= other[i][j];
+      }
+    }
+  }
+
+  /**
+   * Determines the bins of a numeric attribute, unless already done.
+   *
+   * @param att the attribute index
+   */
+  protected void computeBins(int att) {
+
+    if (m_Bins[att] != null) {
+      return;
+    }
+
+    // Collect the values, or a sample of them
+    double[] vals = new double[m_Data.numInstances()];
+    int numValues = 0;
+    for (int i = 0; i < m_Data.numInstances(); i++) {
+      if (!m_Data.instance(i).isMissing(att)) {
+        vals[numValues++] = m_Data.instance(i).value(att);
+      }
+    }
+    if (numValues > SAMPLE_SIZE) {
+      Random random = new Random(m_Seed + att);
+      for (int i = 0; i < SAMPLE_SIZE; i++) {
+        int j = i + random.nextInt(numValues - i);
+        double help = vals[i];
+        vals[i] = vals[j];
+        vals[j] = help;
+      }
+      numValues = SAMPLE_SIZE;
+    }
+    vals = Arrays.copyOf(vals, numValues);
+    Arrays.sort(vals);
+
+    // Count the distinct values
+    int numDistinct = 0;
+    for (int i = 0; i < numValues; i++) {
+      if ((i == 0) || (vals[i] > vals[i - 1])) {
+        numDistinct++;
+      }
+    }
+
+    // Determine the largest value of each bin but the last one
+    double[] cuts = new double[m_MaxBins - 1];
+    int numCuts = 0;
+    if (numDistinct <= m_MaxBins) {
+      for (int i = 1; i < numValues; i++) {
+        if (vals[i] > vals[i - 1]) {
+          cuts[numCuts++] = vals[i - 1];
+        }
+      }
+    } else {
+      double target = (double) numValues / m_MaxBins;
+      int inBin = 0;
+      int assigned = 0;
+      int i = 0;
+      while (i < numValues) {
+        int j = i + 1;
+        while ((j < numValues) && (vals[j] == vals[i])) {
+          j++;
+        }
+        if ((inBin > 0) && (inBin + j - i > target)
+          && (numCuts < cuts.length)) {
+          cuts[numCuts++] = vals[i - 1];
+          assigned += inBin;
+          inBin = 0;
+          target = (double) (numValues - assigned) / (m_MaxBins - numCuts);
+        }
+        inBin += j - i;
+        i = j;
+      }
+    }
+
+    // Assign the instances to the bins
+    byte[] bins = new byte[m_Data.numInstances()];
+    double[] lower = new double[numCuts + 1];
+    double[] upper = new double[numCuts + 1];
+    Arrays.fill(lower, Double.POSITIVE_INFINITY);
+    Arrays.fill(upper, Double.NEGATIVE_INFINITY);
+    for (int i = 0; i < bins.length; i++) {
+      Instance inst = m_Data.instance(i);
+      if (inst.isMissing(att)) {
+        bins[i] = (byte) MISSING;
+        continue;
+      }
+      double value = inst.value(att);
+      int bin = Arrays.binarySearch(cuts, 0, numCuts, value);
+      if (bin < 0) {
+        bin = -bin - 1;
+      }
+      bins[i] = (byte) bin;
+      lower[bin] = Math.min(lower[bin], value);
+      upper[bin] = Math.max(upper[bin], value);
+    }
+
+    m_Lower[att] = lower;
+    m_Upper[att] = upper;
+    m_Bins[att] = bins;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
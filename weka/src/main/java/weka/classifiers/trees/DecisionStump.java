@@ -27,6 +27,7 @@ import weka.classifiers.Sourcable;
 import weka.core.Attribute;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
+import weka.core.ColumnarInstances;
 import weka.core.ContingencyTables;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -75,6 +76,9 @@ public class DecisionStump
   /** The instances used for training. */
   protected Instances m_Instances;
 
+  /** The order in which the split search visits the training instances. */
+  protected transient int[] m_Order;
+
   /** a ZeroR model in case no model can be built from the data */
   protected Classifier m_ZeroR;
     
@@ -130,8 +134,12 @@ public class DecisionStump
     // can classifier handle the data?
     getCapabilities().testWithFail(instances);
 
-    // remove instances with missing class
-    instances = new Instances(instances);
+    // remove instances with missing class (a column store stays columnar)
+    if (instances instanceof ColumnarInstances) {
+      instances = new ColumnarInstances(instances);
+    } else {
+      instances = new Instances(instances);
+    }
     instances.deleteWithMissingClass();
     
     // only class? -> build ZeroR model
@@ -149,7 +157,11 @@ public class DecisionStump
     
     double[][] bestDist = new double[3][instances.numClasses()];
 
-    m_Instances = new Instances(instances);
+    m_Instances = instances;
+    m_Order = new int[m_Instances.numInstances()];
+    for (int i = 0; i < m_Order.length; i++) {
+      m_Order[i] = i;
+    }
 
     if (m_Instances.classAttribute().isNominal()) {
       numClasses = m_Instances.numClasses();
@@ -205,6 +217,7 @@ public class DecisionStump
     
     // Save memory
     m_Instances = new Instances(m_Instances, 0);
+    m_Order = null;
   }
 
   /**
@@ -387,6 +400,61 @@ public class DecisionStump
     return text.toString() + "\n";
   }
 
+  /**
+   * Returns a value of a training instance, read directly from the column
+   * store if the training data is stored column-wise.
+   *
+   * @param row the index of the instance
+   * @param attIndex the index of the attribute
+   * @return the value
+   */
+  protected double value(int row, int attIndex) {
+
+    if (m_Instances instanceof ColumnarInstances) {
+      return ((ColumnarInstances)m_Instances).value(row, attIndex);
+    }
+    return m_Instances.instance(row).value(attIndex);
+  }
+
+  /**
+   * Returns the weight of a training instance, read directly from the column
+   * store if the training data is stored column-wise.
+   *
+   * @param row the index of the instance
+   * @return the weight
+   */
+  protected double weight(int row) {
+
+    if (m_Instances instanceof ColumnarInstances) {
+      return ((ColumnarInstances)m_Instances).weight(row);
+    }
+    return m_Instances.instance(row).weight();
+  }
+
+  /**
+   * Sorts the visiting order of the training instances on a numeric
+   * attribute, leaving the training data itself in place. The order is the
+   * one sorting the training data with Instances.sort() would give.
+   *
+   * @param index attribute index
+   */
+  protected void sortOrder(int index) {
+
+    double[] vals = new double[m_Order.length];
+    for (int i = 0; i < vals.length; i++) {
+      vals[i] = value(m_Order[i], index);
+      if (Utils.isMissingValue(vals[i])) {
+	vals[i] = Double.MAX_VALUE;
+      }
+    }
+    int[] sortOrder = Utils.sortWithNoMissingValues(vals);
+    int[] order = new int[m_Order.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = m_Order[sortOrder[i]];
+    }
+    m_Order = order;
+  }
+
   /**
    * Finds best split for nominal attribute and returns value.
    *
@@ -414,22 +482,23 @@ public class DecisionStump
   protected double findSplitNominalNominal(int index) throws Exception {
 
     double bestVal = Double.MAX_VALUE, currVal;
-    double[][] counts = new double[m_Instances.attribute(index).numValues() 
+    double[][] counts = new double[m_Instances.attribute(index).numValues()
 				  + 1][m_Instances.numClasses()];
     double[] sumCounts = new double[m_Instances.numClasses()];
     double[][] bestDist = new double[3][m_Instances.numClasses()];
     int numMissing = 0;
 
     // Compute counts for all the values
-    for (int i = 0; i < m_Instances.numInstances(); i++) {
-      Instance inst = m_Instances.instance(i);
-      if (inst.isMissing(index)) {
+    int classIndex = m_Instances.classIndex();
+    for (int i = 0; i < m_Order.length; i++) {
+      int row = m_Order[i];
+      double value = value(row, index);
+      if (Utils.isMissingValue(value)) {
 	numMissing++;
 	counts[m_Instances.attribute(index).numValues()]
-	  [(int)inst.classValue()] += inst.weight();
+	  [(int)value(row, classIndex)] += weight(row);
       } else {
-	counts[(int)inst.value(index)][(int)inst.classValue()] += inst
-	  .weight();
+	counts[(int)value][(int)value(row, classIndex)] += weight(row);
       }
     }
 
@@ -439,7 +508,7 @@ public class DecisionStump
 	sumCounts[j] += counts[i][j];
       }
     }
-    
+
     // Make split counts for each possible split and evaluate
     System.arraycopy(counts[m_Instances.attribute(index).numValues()], 0,
 		     m_Distribution[2], 0, m_Instances.numClasses());
@@ -453,7 +522,7 @@ public class DecisionStump
 	bestVal = currVal;
 	m_SplitPoint = (double)i;
 	for (int j = 0; j < 3; j++) {
-	  System.arraycopy(m_Distribution[j], 0, bestDist[j], 0, 
+	  System.arraycopy(m_Distribution[j], 0, bestDist[j], 0,
 			   m_Instances.numClasses());
 	}
       }
@@ -461,10 +530,10 @@ public class DecisionStump
 
     // No missing values in training data.
     if (numMissing == 0) {
-      System.arraycopy(sumCounts, 0, bestDist[2], 0, 
+      System.arraycopy(sumCounts, 0, bestDist[2], 0,
 		       m_Instances.numClasses());
     }
-   
+
     m_Distribution = bestDist;
     return bestVal;
   }
@@ -480,9 +549,9 @@ public class DecisionStump
   protected double findSplitNominalNumeric(int index) throws Exception {
 
     double bestVal = Double.MAX_VALUE, currVal;
-    double[] sumsSquaresPerValue = 
-      new double[m_Instances.attribute(index).numValues()], 
-      sumsPerValue = new double[m_Instances.attribute(index).numValues()], 
+    double[] sumsSquaresPerValue =
+      new double[m_Instances.attribute(index).numValues()],
+      sumsPerValue = new double[m_Instances.attribute(index).numValues()],
       weightsPerValue = new double[m_Instances.attribute(index).numValues()];
     double totalSumSquaresW = 0, totalSumW = 0, totalSumOfWeightsW = 0,
       totalSumOfWeights = 0, totalSum = 0;
@@ -490,22 +559,22 @@ public class DecisionStump
     double[][] bestDist = new double[3][1];
 
     // Compute counts for all the values
-    for (int i = 0; i < m_Instances.numInstances(); i++) {
-      Instance inst = m_Instances.instance(i);
-      if (inst.isMissing(index)) {
-	m_Distribution[2][0] += inst.classValue() * inst.weight();
-	sumsSquares[2] += inst.classValue() * inst.classValue() 
-	  * inst.weight();
-	sumOfWeights[2] += inst.weight();
+    int classIndex = m_Instances.classIndex();
+    for (int i = 0; i < m_Order.length; i++) {
+      int row = m_Order[i];
+      double value = value(row, index);
+      double classValue = value(row, classIndex), weight = weight(row);
+      if (Utils.isMissingValue(value)) {
+	m_Distribution[2][0] += classValue * weight;
+	sumsSquares[2] += classValue * classValue * weight;
+	sumOfWeights[2] += weight;
       } else {
-	weightsPerValue[(int)inst.value(index)] += inst.weight();
-	sumsPerValue[(int)inst.value(index)] += inst.classValue() 
-	  * inst.weight();
-	sumsSquaresPerValue[(int)inst.value(index)] += 
-	  inst.classValue() * inst.classValue() * inst.weight();
+	weightsPerValue[(int)value] += weight;
+	sumsPerValue[(int)value] += classValue * weight;
+	sumsSquaresPerValue[(int)value] += classValue * classValue * weight;
       }
-      totalSumOfWeights += inst.weight();
-      totalSum += inst.classValue() * inst.weight();
+      totalSumOfWeights += weight;
+      totalSum += classValue * weight;
     }
 
     // Check if the total weight is zero
@@ -519,10 +588,10 @@ public class DecisionStump
       totalSumSquaresW += sumsSquaresPerValue[i];
       totalSumW += sumsPerValue[i];
     }
-    
+
     // Make split counts for each possible split and evaluate
     for (int i = 0; i < m_Instances.attribute(index).numValues(); i++) {
-      
+
       m_Distribution[0][0] = sumsPerValue[i];
       sumsSquares[0] = sumsSquaresPerValue[i];
       sumOfWeights[0] = weightsPerValue[i];
@@ -531,7 +600,7 @@ public class DecisionStump
       sumOfWeights[1] = totalSumOfWeightsW - weightsPerValue[i];
 
       currVal = variance(m_Distribution, sumsSquares, sumOfWeights);
-      
+
       if (currVal < bestVal) {
 	bestVal = currVal;
 	m_SplitPoint = (double)i;
@@ -581,12 +650,13 @@ public class DecisionStump
     double[][] bestDist = new double[3][m_Instances.numClasses()];
 
     // Compute counts for all the values
-    for (int i = 0; i < m_Instances.numInstances(); i++) {
-      Instance inst = m_Instances.instance(i);
-      if (!inst.isMissing(index)) {
-	m_Distribution[1][(int)inst.classValue()] += inst.weight();
+    int classIndex = m_Instances.classIndex();
+    for (int i = 0; i < m_Order.length; i++) {
+      int row = m_Order[i];
+      if (!Utils.isMissingValue(value(row, index))) {
+	m_Distribution[1][(int)value(row, classIndex)] += weight(row);
       } else {
-	m_Distribution[2][(int)inst.classValue()] += inst.weight();
+	m_Distribution[2][(int)value(row, classIndex)] += weight(row);
 	numMissing++;
       }
     }
@@ -594,27 +664,28 @@ public class DecisionStump
 
     // Save current distribution as best distribution
     for (int j = 0; j < 3; j++) {
-      System.arraycopy(m_Distribution[j], 0, bestDist[j], 0, 
+      System.arraycopy(m_Distribution[j], 0, bestDist[j], 0,
 		       m_Instances.numClasses());
     }
 
     // Sort instances
-    m_Instances.sort(index);
-    
+    sortOrder(index);
+
     // Make split counts for each possible split and evaluate
-    for (int i = 0; i < m_Instances.numInstances() - (numMissing + 1); i++) {
-      Instance inst = m_Instances.instance(i);
-      Instance instPlusOne = m_Instances.instance(i + 1);
-      m_Distribution[0][(int)inst.classValue()] += inst.weight();
-      m_Distribution[1][(int)inst.classValue()] -= inst.weight();
-      if (inst.value(index) < instPlusOne.value(index)) {
-	currCutPoint = (inst.value(index) + instPlusOne.value(index)) / 2.0;
+    for (int i = 0; i < m_Order.length - (numMissing + 1); i++) {
+      int row = m_Order[i];
+      double value = value(row, index);
+      double nextValue = value(m_Order[i + 1], index);
+      m_Distribution[0][(int)value(row, classIndex)] += weight(row);
+      m_Distribution[1][(int)value(row, classIndex)] -= weight(row);
+      if (value < nextValue) {
+	currCutPoint = (value + nextValue) / 2.0;
 	currVal = ContingencyTables.entropyConditionedOnRows(m_Distribution);
 	if (currVal < bestVal) {
 	  m_SplitPoint = currCutPoint;
 	  bestVal = currVal;
 	  for (int j = 0; j < 3; j++) {
-	    System.arraycopy(m_Distribution[j], 0, bestDist[j], 0, 
+	    System.arraycopy(m_Distribution[j], 0, bestDist[j], 0,
 			     m_Instances.numClasses());
 	  }
 	}
@@ -625,7 +696,7 @@ public class DecisionStump
     if (numMissing == 0) {
       System.arraycopy(sum, 0, bestDist[2], 0, m_Instances.numClasses());
     }
- 
+
     m_Distribution = bestDist;
     return bestVal;
   }
@@ -647,22 +718,22 @@ public class DecisionStump
     double totalSum = 0, totalSumOfWeights = 0;
 
     // Compute counts for all the values
-    for (int i = 0; i < m_Instances.numInstances(); i++) {
-      Instance inst = m_Instances.instance(i);
-      if (!inst.isMissing(index)) {
-	m_Distribution[1][0] += inst.classValue() * inst.weight();
-	sumsSquares[1] += inst.classValue() * inst.classValue() 
-	  * inst.weight();
-	sumOfWeights[1] += inst.weight();
+    int classIndex = m_Instances.classIndex();
+    for (int i = 0; i < m_Order.length; i++) {
+      int row = m_Order[i];
+      double classValue = value(row, classIndex), weight = weight(row);
+      if (!Utils.isMissingValue(value(row, index))) {
+	m_Distribution[1][0] += classValue * weight;
+	sumsSquares[1] += classValue * classValue * weight;
+	sumOfWeights[1] += weight;
       } else {
-	m_Distribution[2][0] += inst.classValue() * inst.weight();
-	sumsSquares[2] += inst.classValue() * inst.classValue() 
-	  * inst.weight();
-	sumOfWeights[2] += inst.weight();
+	m_Distribution[2][0] += classValue * weight;
+	sumsSquares[2] += classValue * classValue * weight;
+	sumOfWeights[2] += weight;
 	numMissing++;
       }
-      totalSumOfWeights += inst.weight();
-      totalSum += inst.classValue() * inst.weight();
+      totalSumOfWeights += weight;
+      totalSum += classValue * weight;
     }
 
     // Check if the total weight is zero
@@ -671,20 +742,22 @@ public class DecisionStump
     }
 
     // Sort instances
-    m_Instances.sort(index);
-    
+    sortOrder(index);
+
     // Make split counts for each possible split and evaluate
-    for (int i = 0; i < m_Instances.numInstances() - (numMissing + 1); i++) {
-      Instance inst = m_Instances.instance(i);
-      Instance instPlusOne = m_Instances.instance(i + 1);
-      m_Distribution[0][0] += inst.classValue() * inst.weight();
-      sumsSquares[0] += inst.classValue() * inst.classValue() * inst.weight();
-      sumOfWeights[0] += inst.weight();
-      m_Distribution[1][0] -= inst.classValue() * inst.weight();
-      sumsSquares[1] -= inst.classValue() * inst.classValue() * inst.weight();
-      sumOfWeights[1] -= inst.weight();
-      if (inst.value(index) < instPlusOne.value(index)) {
-	currCutPoint = (inst.value(index) + instPlusOne.value(index)) / 2.0;
+    for (int i = 0; i < m_Order.length - (numMissing + 1); i++) {
+      int row = m_Order[i];
+      double value = value(row, index);
+      double nextValue = value(m_Order[i + 1], index);
+      double classValue = value(row, classIndex), weight = weight(row);
+      m_Distribution[0][0] += classValue * weight;
+      sumsSquares[0] += classValue * classValue * weight;
+      sumOfWeights[0] += weight;
+      m_Distribution[1][0] -= classValue * weight;
+      sumsSquares[1] -= classValue * classValue * weight;
+      sumOfWeights[1] -= weight;
+      if (value < nextValue) {
+	currCutPoint = (value + nextValue) / 2.0;
 	currVal = variance(m_Distribution, sumsSquares, sumOfWeights);
 	if (currVal < bestVal) {
 	  m_SplitPoint = currCutPoint;
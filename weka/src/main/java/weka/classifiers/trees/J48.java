@@ -24,6 +24,8 @@ package weka.classifiers.trees;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Sourcable;
@@ -44,10 +46,12 @@ import weka.core.OptionHandler;
 import weka.core.PartitionGenerator;
 import weka.core.RevisionUtils;
 import weka.core.Summarizable;
+import weka.core.TaskUtils;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
+import weka.core.ThreadSafe;
 import weka.core.Utils;
 import weka.core.WeightedInstancesHandler;
 import weka.core.Capabilities;
@@ -148,6 +152,13 @@ import weka.core.Capabilities.Capability;
  *  Do not make split point actual value.
  * </pre>
  * 
+ * <pre>
+ * -num-threads &lt;num&gt;
+ *  The number of threads to build the tree with,
+ *  0 for the number of cores.
+ *  (default 1)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
@@ -155,7 +166,8 @@ import weka.core.Capabilities.Capability;
  */
 public class J48 extends AbstractClassifier implements OptionHandler, Drawable,
   Matchable, Sourcable, WeightedInstancesHandler, Summarizable,
-  AdditionalMeasureProducer, TechnicalInformationHandler, PartitionGenerator {
+  AdditionalMeasureProducer, TechnicalInformationHandler, PartitionGenerator,
+  ThreadSafe {
 
   /** for serialization */
   static final long serialVersionUID = -217733168393644444L;
@@ -205,6 +217,9 @@ public class J48 extends AbstractClassifier implements OptionHandler, Drawable,
   /** Do not relocate split point to actual data value */
   protected boolean m_doNotMakeSplitPointActualValue;
 
+  /** The number of threads to build the tree with, 0 for the number of cores. */
+  protected int m_numThreads = 1;
+
   /**
    * Returns a string describing classifier
    * 
@@ -278,25 +293,50 @@ public class J48 extends AbstractClassifier implements OptionHandler, Drawable,
 
     ModelSelection modSelection;
 
-    if (m_binarySplits) {
-      modSelection = new BinC45ModelSelection(m_minNumObj, instances,
-        m_useMDLcorrection, m_doNotMakeSplitPointActualValue);
-    } else {
-      modSelection = new C45ModelSelection(m_minNumObj, instances,
-        m_useMDLcorrection, m_doNotMakeSplitPointActualValue);
-    }
-    if (!m_reducedErrorPruning) {
-      m_root = new C45PruneableClassifierTree(modSelection, !m_unpruned, m_CF,
-        m_subtreeRaising, !m_noCleanup, m_collapseTree);
-    } else {
-      m_root = new PruneableClassifierTree(modSelection, !m_unpruned,
-        m_numFolds, !m_noCleanup, m_Seed);
-    }
-    m_root.buildClassifier(instances);
-    if (m_binarySplits) {
-      ((BinC45ModelSelection) modSelection).cleanup();
-    } else {
-      ((C45ModelSelection) modSelection).cleanup();
+    ForkJoinPool executor = TaskUtils.newPool(m_numThreads);
+    try {
+      if (m_binarySplits) {
+        modSelection = new BinC45ModelSelection(m_minNumObj, instances,
+          m_useMDLcorrection, m_doNotMakeSplitPointActualValue, executor);
+      } else {
+        modSelection = new C45ModelSelection(m_minNumObj, instances,
+          m_useMDLcorrection, m_doNotMakeSplitPointActualValue, executor);
+      }
+      if (getDebug() && (executor != null)
+        && !modSelection.buildsModelsConcurrently()) {
+        System.err.println("Building the candidate splits one after the "
+          + "other, since the data has missing values or non-integral weights");
+      }
+      if (!m_reducedErrorPruning) {
+        m_root = new C45PruneableClassifierTree(modSelection, !m_unpruned,
+          m_CF, m_subtreeRaising, !m_noCleanup, m_collapseTree);
+      } else {
+        m_root = new PruneableClassifierTree(modSelection, !m_unpruned,
+          m_numFolds, !m_noCleanup, m_Seed);
+      }
+      if (executor == null) {
+        m_root.buildClassifier(instances);
+      } else {
+
+        // Build the tree in the pool, so that it can fork off subtrees
+        final Instances data = instances;
+        TaskUtils.getResult(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            m_root.buildClassifier(data);
+            return null;
+          }
+        }));
+      }
+      if (m_binarySplits) {
+        ((BinC45ModelSelection) modSelection).cleanup();
+      } else {
+        ((C45ModelSelection) modSelection).cleanup();
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
     }
   }
 
@@ -327,6 +367,22 @@ public class J48 extends AbstractClassifier implements OptionHandler, Drawable,
     return m_root.distributionForInstance(instance, m_useLaplace);
   }
 
+  /**
+   * Writes class probabilities for a batch of instances into the given array.
+   * 
+   * @param batch the instances to calculate the class probabilities for
+   * @param dists the array to write the class probabilities to
+   * @throws Exception if distributions can't be computed successfully
+   */
+  @Override
+  public void distributionsForInstances(Instances batch, double[][] dists)
+    throws Exception {
+
+    for (int i = 0; i < batch.numInstances(); i++) {
+      m_root.distributionForInstance(batch.instance(i), m_useLaplace, dists[i]);
+    }
+  }
+
   /**
    * Returns the type of graph this classifier represents.
    * 
@@ -459,6 +515,10 @@ public class J48 extends AbstractClassifier implements OptionHandler, Drawable,
       "\tSeed for random data shuffling (default 1).", "Q", 1, "-Q <seed>"));
     newVector.addElement(new Option("\tDo not make split point actual value.",
       "-doNotMakeSplitPointActualValue", 0, "-doNotMakeSplitPointActualValue"));
+    newVector.addElement(new Option(
+      "\tThe number of threads to build the tree with,\n"
+        + "\t0 for the number of cores.\n" + "\t(default 1)", "num-threads",
+      1, "-num-threads <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
 
@@ -540,6 +600,13 @@ public class J48 extends AbstractClassifier implements OptionHandler, Drawable,
    *  Do not make split point actual value.
    * </pre>
    * 
+   * <pre>
+   * -num-threads &lt;num&gt;
+   *  The number of threads to build the tree with,
+   *  0 for the number of cores.
+   *  (default 1)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -612,6 +679,12 @@ public class J48 extends AbstractClassifier implements OptionHandler, Drawable,
     } else {
       m_Seed = 1;
     }
+    String numThreadsString = Utils.getOption("num-threads", options);
+    if (numThreadsString.length() != 0) {
+      m_numThreads = Integer.parseInt(numThreadsString);
+    } else {
+      m_numThreads = 1;
+    }
 
     super.setOptions(options);
 
@@ -665,6 +738,10 @@ public class J48 extends AbstractClassifier implements OptionHandler, Drawable,
     if (m_doNotMakeSplitPointActualValue) {
         options.add("-doNotMakeSplitPointActualValue");
     }
+    if (m_numThreads != 1) {
+      options.add("-num-threads");
+      options.add("" + m_numThreads);
+    }
 
     Collections.addAll(options, super.getOptions());
 
@@ -1163,6 +1240,40 @@ public class J48 extends AbstractClassifier implements OptionHandler, Drawable,
     this.m_doNotMakeSplitPointActualValue = m_doNotMakeSplitPointActualValue;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to evaluate candidate splits and build "
+      + "subtrees with, 0 for the number of cores. Candidate splits are only "
+      + "evaluated concurrently if the training data has no missing values "
+      + "and only integer instance weights.";
+  }
+
+  /**
+   * Get the number of threads to build the tree with.
+   * 
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+
+    return m_numThreads;
+  }
+
+  /**
+   * Set the number of threads to build the tree with, 0 for the number of
+   * cores.
+   * 
+   * @param v the number of threads
+   */
+  public void setNumThreads(int v) {
+
+    m_numThreads = v;
+  }
+
   /**
    * Returns the revision string.
    * 
@@ -97,6 +97,13 @@ import weka.core.Utils;
  * </pre>
  * 
  * <pre>
+ * -num-threads &lt;num&gt;
+ *  The number of threads to build the tree with,
+ *  0 for the number of cores.
+ *  (default 1)
+ * </pre>
+ * 
+ * <pre>
  * -L
  *  Save instances at the nodes in
  *  the tree (for visualization purposes)
@@ -239,6 +246,13 @@ public class M5P extends M5Base implements Drawable {
    * </pre>
    * 
    * <pre>
+   * -num-threads &lt;num&gt;
+   *  The number of threads to build the tree with,
+   *  0 for the number of cores.
+   *  (default 1)
+   * </pre>
+   * 
+   * <pre>
    * -L
    *  Save instances at the nodes in
    *  the tree (for visualization purposes)
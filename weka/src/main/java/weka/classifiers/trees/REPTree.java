@@ -22,12 +22,17 @@
 package weka.classifiers.trees;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Sourcable;
@@ -46,6 +51,7 @@ import weka.core.PartitionGenerator;
 import weka.core.Randomizable;
 import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
 import weka.core.Utils;
 import weka.core.WeightedInstancesHandler;
 
@@ -92,6 +98,20 @@ import weka.core.WeightedInstancesHandler;
  *  Maximum tree depth (default -1, no maximum)
  * </pre>
  * 
+ * <pre>
+ * -bins &lt;num&gt;
+ *  The maximum number of bins for numeric attributes,
+ *  0 for exact split points.
+ *  (default 0)
+ * </pre>
+ * 
+ * <pre>
+ * -num-threads &lt;num&gt;
+ *  The number of threads to build the tree with,
+ *  0 for the number of cores.
+ *  (default 1)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
@@ -528,6 +548,32 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
       Instances header, double minNum, double minVariance, int depth,
       int maxDepth) throws Exception {
 
+      buildTree(sortedIndices, weights, data, totalWeight, classProbs, header,
+        minNum, minVariance, depth, maxDepth, null);
+    }
+
+    /**
+     * Recursively generates a tree.
+     * 
+     * @param sortedIndices the sorted indices of the instances
+     * @param weights the weights of the instances
+     * @param data the data to work with
+     * @param totalWeight
+     * @param classProbs the class probabilities
+     * @param header the header of the data
+     * @param minNum the minimum number of instances in a leaf
+     * @param minVariance
+     * @param depth the current depth of the tree
+     * @param maxDepth the maximum allowed depth of the tree
+     * @param histograms the histograms of the binned attributes that are
+     *          already known, may be null; entries are released once used
+     * @throws Exception if generation fails
+     */
+    protected void buildTree(int[][][] sortedIndices, double[][][] weights,
+      Instances data, double totalWeight, double[] classProbs,
+      Instances header, double minNum, double minVariance, int depth,
+      int maxDepth, double[][][] histograms) throws Exception {
+
       // Store structure of dataset, set minimum number of instances
       // and make space for potential info from pruning data
       m_Info = header;
@@ -618,24 +664,29 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
       double[][] props = new double[data.numAttributes()][0];
       double[][] totalSubsetWeights = new double[data.numAttributes()][0];
       double[] splits = new double[data.numAttributes()];
-      if (data.classAttribute().isNominal()) {
+      if ((m_Bins != null) && (histograms == null)) {
+        histograms = new double[data.numAttributes()][][];
+      }
+      if ((m_Pool != null)
+        && (sortedIndices[0][helpIndex].length >= MIN_PARALLEL_INSTANCES)) {
 
-        // Nominal case
+        // Evaluate the attributes concurrently
+        List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
         for (int i = 0; i < data.numAttributes(); i++) {
           if (i != data.classIndex()) {
-            splits[i] = distribution(props, dists, i, sortedIndices[0][i],
-              weights[0][i], totalSubsetWeights, data);
-            vals[i] = gain(dists[i], priorVal(dists[i]));
+            tasks.add(evaluateTask(i, sortedIndices[0], weights[0],
+              histograms, data, props, dists, totalSubsetWeights, splits, vals)
+              .fork());
           }
         }
+        for (ForkJoinTask<Void> task : tasks) {
+          TaskUtils.join(task);
+        }
       } else {
-
-        // Numeric case
         for (int i = 0; i < data.numAttributes(); i++) {
           if (i != data.classIndex()) {
-            splits[i] = numericDistribution(props, dists, i,
-              sortedIndices[0][i], weights[0][i], totalSubsetWeights, data,
-              vals);
+            evaluateAttribute(i, sortedIndices[0], weights[0], histograms,
+              data, props, dists, totalSubsetWeights, splits, vals);
           }
         }
       }
@@ -679,20 +730,48 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
         splitData(subsetIndices, subsetWeights, m_Attribute, m_SplitPoint,
           sortedIndices[0], weights[0], data);
 
+        // Histograms of the successors
+        double[][][][] subsetHistograms = new double[numAttVals][][][];
+        if (histograms != null) {
+          splitHistograms(subsetHistograms, subsetIndices, subsetWeights,
+            histograms, sortedIndices[0][m_Attribute], data);
+        }
+
         // Release memory
         sortedIndices[0] = null;
         weights[0] = null;
+        histograms = null;
 
-        // Build successors
+        // Build successors, large ones concurrently if possible
         m_Successors = new Tree[numAttVals];
+        boolean[] fork = new boolean[numAttVals];
+        List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
         for (int i = 0; i < numAttVals; i++) {
           m_Successors[i] = new Tree();
-          m_Successors[i].buildTree(subsetIndices[i], subsetWeights[i], data,
-            attTotalSubsetWeights[i], attSubsetDists[i], header, minNum,
-            minVariance, depth + 1, maxDepth);
+          fork[i] = (m_Pool != null)
+            && (subsetIndices[i][0][helpIndex].length >= MIN_PARALLEL_INSTANCES);
+        }
+        for (int i = 0; i < numAttVals; i++) {
+          if (fork[i]) {
+            tasks.add(m_Successors[i].buildTask(subsetIndices[i],
+              subsetWeights[i], data, attTotalSubsetWeights[i],
+              attSubsetDists[i], header, minNum, minVariance, depth + 1,
+              maxDepth, subsetHistograms[i]).fork());
+          }
+        }
+        for (int i = 0; i < numAttVals; i++) {
+          if (!fork[i]) {
+            m_Successors[i].buildTree(subsetIndices[i], subsetWeights[i],
+              data, attTotalSubsetWeights[i], attSubsetDists[i], header,
+              minNum, minVariance, depth + 1, maxDepth, subsetHistograms[i]);
+          }
 
           // Release as much memory as we can
           attSubsetDists[i] = null;
+          subsetHistograms[i] = null;
+        }
+        for (ForkJoinTask<Void> task : tasks) {
+          TaskUtils.join(task);
         }
       } else {
 
@@ -717,6 +796,124 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
       }
     }
 
+    /**
+     * Creates a task that recursively generates this tree.
+     * 
+     * @param sortedIndices the sorted indices of the instances
+     * @param weights the weights of the instances
+     * @param data the data to work with
+     * @param totalWeight
+     * @param classProbs the class probabilities
+     * @param header the header of the data
+     * @param minNum the minimum number of instances in a leaf
+     * @param minVariance
+     * @param depth the current depth of the tree
+     * @param maxDepth the maximum allowed depth of the tree
+     * @param histograms the histograms of the binned attributes that are
+     *          already known, may be null
+     * @return the task
+     */
+    protected ForkJoinTask<Void> buildTask(final int[][][] sortedIndices,
+      final double[][][] weights, final Instances data,
+      final double totalWeight, final double[] classProbs,
+      final Instances header, final double minNum, final double minVariance,
+      final int depth, final int maxDepth, final double[][][] histograms) {
+
+      return ForkJoinTask.adapt(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          buildTree(sortedIndices, weights, data, totalWeight, classProbs,
+            header, minNum, minVariance, depth, maxDepth, histograms);
+          return null;
+        }
+      });
+    }
+
+    /**
+     * Computes the class distribution, split point and value of the splitting
+     * criterion for an attribute.
+     * 
+     * @param att the attribute index
+     * @param sortedIndices the sorted indices of the instances per attribute
+     * @param weights the weights of the instances per attribute
+     * @param histograms the histograms of the binned attributes, missing ones
+     *          are computed; null if no attributes are binned
+     * @param data the data to work with
+     * @param props the proportions per attribute
+     * @param dists the class distributions per attribute
+     * @param totalSubsetWeights the weights of the subsets per attribute
+     * @param splits the split points per attribute
+     * @param vals the values of the splitting criterion per attribute
+     * @throws Exception if computation fails
+     */
+    protected void evaluateAttribute(int att, int[][] sortedIndices,
+      double[][] weights, double[][][] histograms, Instances data,
+      double[][] props, double[][][] dists, double[][] totalSubsetWeights,
+      double[] splits, double[] vals) throws Exception {
+
+      // Compute histogram of a binned attribute if not known yet
+      if ((histograms != null) && data.attribute(att).isNumeric()
+        && (histograms[att] == null)) {
+        histograms[att] = m_Bins.histogram(att, sortedIndices[att],
+          weights[att], sortedIndices[att].length);
+      }
+
+      if (data.classAttribute().isNominal()) {
+
+        // Nominal case
+        if ((histograms != null) && (histograms[att] != null)) {
+          splits[att] = binnedDistribution(props, dists, att,
+            histograms[att], totalSubsetWeights, data);
+        } else {
+          splits[att] = distribution(props, dists, att, sortedIndices[att],
+            weights[att], totalSubsetWeights, data);
+        }
+        vals[att] = gain(dists[att], priorVal(dists[att]));
+      } else {
+
+        // Numeric case
+        if ((histograms != null) && (histograms[att] != null)) {
+          splits[att] = binnedNumericDistribution(props, dists, att,
+            histograms[att], totalSubsetWeights, data, vals);
+        } else {
+          splits[att] = numericDistribution(props, dists, att,
+            sortedIndices[att], weights[att], totalSubsetWeights, data, vals);
+        }
+      }
+    }
+
+    /**
+     * Creates a task that evaluates an attribute, see evaluateAttribute().
+     * 
+     * @param att the attribute index
+     * @param sortedIndices the sorted indices of the instances per attribute
+     * @param weights the weights of the instances per attribute
+     * @param histograms the histograms of the binned attributes
+     * @param data the data to work with
+     * @param props the proportions per attribute
+     * @param dists the class distributions per attribute
+     * @param totalSubsetWeights the weights of the subsets per attribute
+     * @param splits the split points per attribute
+     * @param vals the values of the splitting criterion per attribute
+     * @return the task
+     */
+    protected ForkJoinTask<Void> evaluateTask(final int att,
+      final int[][] sortedIndices, final double[][] weights,
+      final double[][][] histograms, final Instances data,
+      final double[][] props, final double[][][] dists,
+      final double[][] totalSubsetWeights, final double[] splits,
+      final double[] vals) {
+
+      return ForkJoinTask.adapt(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          evaluateAttribute(att, sortedIndices, weights, histograms, data,
+            props, dists, totalSubsetWeights, splits, vals);
+          return null;
+        }
+      });
+    }
+
     /**
      * Smoothes class probabilities stored at node.
      */
@@ -841,6 +1038,288 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
       }
     }
 
+    /**
+     * Computes the histograms of the binned attributes for the subsets. The
+     * histograms of the largest subset are derived from the given ones and
+     * those of the other subsets, unless instances with a missing value have
+     * been split up.
+     * 
+     * @param subsetHistograms the histograms of the subsets, to fill in
+     * @param subsetIndices the sorted indices in the subsets
+     * @param subsetWeights the weights in the subsets
+     * @param histograms the histograms of the whole set
+     * @param indices the indices of the whole set for the split attribute
+     * @param data the data to work with
+     * @throws Exception if something goes wrong
+     */
+    protected void splitHistograms(double[][][][] subsetHistograms,
+      int[][][][] subsetIndices, double[][][][] subsetWeights,
+      double[][][] histograms, int[] indices, Instances data)
+      throws Exception {
+
+      boolean missing = false;
+      for (int index : indices) {
+        if (data.instance(index).isMissing(m_Attribute)) {
+          missing = true;
+          break;
+        }
+      }
+
+      // Find the largest subset
+      int helpIndex = 0;
+      if (data.classIndex() == 0) {
+        helpIndex = 1;
+      }
+      int largest = -1;
+      if (!missing) {
+        largest = 0;
+        for (int k = 1; k < subsetIndices.length; k++) {
+          if (subsetIndices[k][0][helpIndex].length
+            > subsetIndices[largest][0][helpIndex].length) {
+            largest = k;
+          }
+        }
+      }
+
+      for (int k = 0; k < subsetIndices.length; k++) {
+        subsetHistograms[k] = new double[data.numAttributes()][][];
+      }
+      for (int i = 0; i < data.numAttributes(); i++) {
+        if (histograms[i] == null) {
+          continue;
+        }
+        for (int k = 0; k < subsetIndices.length; k++) {
+          if (k != largest) {
+            subsetHistograms[k][i] = m_Bins.histogram(i,
+              subsetIndices[k][0][i], subsetWeights[k][0][i],
+              subsetIndices[k][0][i].length);
+          }
+        }
+        if (largest >= 0) {
+          for (int k = 0; k < subsetIndices.length; k++) {
+            if (k != largest) {
+              AttributeBins.subtract(histograms[i], subsetHistograms[k][i]);
+            }
+          }
+          subsetHistograms[largest][i] = histograms[i];
+        }
+
+        // Release memory
+        histograms[i] = null;
+      }
+    }
+
+    /**
+     * Computes class distribution for a binned numeric attribute from its
+     * histogram, only trying split points between bins.
+     * 
+     * @param props
+     * @param dists
+     * @param att the attribute index
+     * @param hist the histogram of the attribute
+     * @param subsetWeights the weights of the subset
+     * @param data the data to work with
+     * @return the split point
+     * @throws Exception if computation fails
+     */
+    protected double binnedDistribution(double[][] props, double[][][] dists,
+      int att, double[][] hist, double[][] subsetWeights, Instances data)
+      throws Exception {
+
+      double splitPoint = Double.NaN;
+      int missing = hist.length - 1;
+      int count = hist[0].length - 1;
+      double[][] currDist = new double[2][data.numClasses()];
+      double[][] dist = new double[2][data.numClasses()];
+
+      // Move all instances into second subset
+      for (int b = 0; b < missing; b++) {
+        for (int c = 0; c < count; c++) {
+          currDist[1][c] += hist[b][c];
+        }
+      }
+      double priorVal = priorVal(currDist);
+      System.arraycopy(currDist[1], 0, dist[1], 0, dist[1].length);
+
+      // Try the boundaries between non-empty bins as split points
+      int lower = -1;
+      double currVal, bestVal = -Double.MAX_VALUE;
+      for (int b = 0; b < missing; b++) {
+        if (hist[b][count] == 0) {
+          continue;
+        }
+        if (lower >= 0) {
+          currVal = gain(currDist, priorVal);
+          if (currVal > bestVal) {
+            bestVal = currVal;
+            splitPoint = m_Bins.splitPoint(att, lower, b);
+            for (int j = 0; j < currDist.length; j++) {
+              System.arraycopy(currDist[j], 0, dist[j], 0, dist[j].length);
+            }
+          }
+        }
+        lower = b;
+        for (int c = 0; c < count; c++) {
+          currDist[0][c] += hist[b][c];
+          currDist[1][c] -= hist[b][c];
+        }
+      }
+
+      // Compute weights
+      props[att] = new double[dist.length];
+      for (int k = 0; k < props[att].length; k++) {
+        props[att][k] = Utils.sum(dist[k]);
+      }
+      if (!(Utils.sum(props[att]) > 0)) {
+        for (int k = 0; k < props[att].length; k++) {
+          props[att][k] = 1.0 / props[att].length;
+        }
+      } else {
+        Utils.normalize(props[att]);
+      }
+
+      // Distribute counts
+      if (hist[missing][count] > 0) {
+        for (int j = 0; j < dist.length; j++) {
+          for (int c = 0; c < count; c++) {
+            dist[j][c] += props[att][j] * hist[missing][c];
+          }
+        }
+      }
+
+      // Compute subset weights
+      subsetWeights[att] = new double[dist.length];
+      for (int j = 0; j < dist.length; j++) {
+        subsetWeights[att][j] += Utils.sum(dist[j]);
+      }
+
+      // Return distribution and split point
+      dists[att] = dist;
+      return splitPoint;
+    }
+
+    /**
+     * Computes numeric class distribution for a binned numeric attribute from
+     * its histogram, only trying split points between bins.
+     * 
+     * @param props
+     * @param dists
+     * @param att the attribute index
+     * @param hist the histogram of the attribute
+     * @param subsetWeights the weights of the subset
+     * @param data the data to work with
+     * @param vals
+     * @return the split point
+     * @throws Exception if computation fails
+     */
+    protected double binnedNumericDistribution(double[][] props,
+      double[][][] dists, int att, double[][] hist, double[][] subsetWeights,
+      Instances data, double[] vals) throws Exception {
+
+      double splitPoint = Double.NaN;
+      int missing = hist.length - 1;
+      int count = hist[0].length - 1;
+      double[] sums = new double[2];
+      double[] sumSquared = new double[2];
+      double[] sumOfWeights = new double[2];
+      double[] currSums = new double[2];
+      double[] currSumSquared = new double[2];
+      double[] currSumOfWeights = new double[2];
+
+      // Move all instances into second subset
+      for (int b = 0; b < missing; b++) {
+        currSums[1] += hist[b][AttributeBins.SUM];
+        currSumSquared[1] += hist[b][AttributeBins.SUM_SQUARED];
+        currSumOfWeights[1] += hist[b][AttributeBins.SUM_OF_WEIGHTS];
+      }
+      double totalSum = currSums[1];
+      double totalSumSquared = currSumSquared[1];
+      double totalSumOfWeights = currSumOfWeights[1];
+
+      sums[1] = currSums[1];
+      sumSquared[1] = currSumSquared[1];
+      sumOfWeights[1] = currSumOfWeights[1];
+
+      // Try the boundaries between non-empty bins as split points
+      int lower = -1;
+      double currVal, bestVal = Double.MAX_VALUE;
+      for (int b = 0; b < missing; b++) {
+        if (hist[b][count] == 0) {
+          continue;
+        }
+        if (lower >= 0) {
+          currVal = variance(currSums, currSumSquared, currSumOfWeights);
+          if (currVal < bestVal) {
+            bestVal = currVal;
+            splitPoint = m_Bins.splitPoint(att, lower, b);
+            for (int j = 0; j < 2; j++) {
+              sums[j] = currSums[j];
+              sumSquared[j] = currSumSquared[j];
+              sumOfWeights[j] = currSumOfWeights[j];
+            }
+          }
+        }
+        lower = b;
+
+        currSums[0] += hist[b][AttributeBins.SUM];
+        currSumSquared[0] += hist[b][AttributeBins.SUM_SQUARED];
+        currSumOfWeights[0] += hist[b][AttributeBins.SUM_OF_WEIGHTS];
+
+        currSums[1] -= hist[b][AttributeBins.SUM];
+        currSumSquared[1] -= hist[b][AttributeBins.SUM_SQUARED];
+        currSumOfWeights[1] -= hist[b][AttributeBins.SUM_OF_WEIGHTS];
+      }
+
+      // Compute weights
+      props[att] = new double[2];
+      for (int k = 0; k < props[att].length; k++) {
+        props[att][k] = sumOfWeights[k];
+      }
+      if (!(Utils.sum(props[att]) > 0)) {
+        for (int k = 0; k < props[att].length; k++) {
+          props[att][k] = 1.0 / props[att].length;
+        }
+      } else {
+        Utils.normalize(props[att]);
+      }
+
+      // Distribute counts for missing values
+      if (hist[missing][count] > 0) {
+        for (int j = 0; j < 2; j++) {
+          sums[j] += props[att][j] * hist[missing][AttributeBins.SUM];
+          sumSquared[j] +=
+            props[att][j] * hist[missing][AttributeBins.SUM_SQUARED];
+          sumOfWeights[j] +=
+            props[att][j] * hist[missing][AttributeBins.SUM_OF_WEIGHTS];
+        }
+        totalSum += hist[missing][AttributeBins.SUM];
+        totalSumSquared += hist[missing][AttributeBins.SUM_SQUARED];
+        totalSumOfWeights += hist[missing][AttributeBins.SUM_OF_WEIGHTS];
+      }
+
+      // Compute final distribution
+      double[][] dist = new double[2][data.numClasses()];
+      for (int j = 0; j < 2; j++) {
+        if (sumOfWeights[j] > 0) {
+          dist[j][0] = sums[j] / sumOfWeights[j];
+        } else {
+          dist[j][0] = totalSum / totalSumOfWeights;
+        }
+      }
+
+      // Compute variance gain
+      double priorVar = singleVariance(totalSum, totalSumSquared,
+        totalSumOfWeights);
+      double var = variance(sums, sumSquared, sumOfWeights);
+      double gain = priorVar - var;
+
+      // Return distribution and split point
+      subsetWeights[att] = sumOfWeights;
+      dists[att] = dist;
+      vals[att] = gain;
+      return splitPoint;
+    }
+
     /**
      * Computes class distribution for an attribute.
      * 
@@ -1388,6 +1867,27 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
   /** Whether to spread initial count across all values */
   protected boolean m_SpreadInitialCount = false;
 
+  /**
+   * The maximum number of bins for numeric attributes, 0 for exact split
+   * points.
+   */
+  protected int m_NumBins = 0;
+
+  /** The bins of the numeric attributes, only set while building the tree */
+  protected AttributeBins m_Bins = null;
+
+  /** The number of threads to build the tree with, 0 for the number of cores */
+  protected int m_NumThreads = 1;
+
+  /**
+   * The minimum number of instances at a node for evaluating its attributes
+   * or building its subtrees concurrently.
+   */
+  protected static final int MIN_PARALLEL_INSTANCES = 1000;
+
+  /** The pool the tree is built in, only set while building the tree */
+  protected transient ForkJoinPool m_Pool = null;
+
   /**
    * Returns the tip text for this property
    * 
@@ -1633,6 +2133,73 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
     m_SpreadInitialCount = newSpreadInitialCount;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numBinsTipText() {
+    return "The maximum number of bins (at most " + AttributeBins.MAX_BINS
+      + ") to quantize numeric attributes into, so that split points are "
+      + "found from per-bin histograms; 0 to evaluate all split points.";
+  }
+
+  /**
+   * Get the maximum number of bins for numeric attributes, 0 for exact split
+   * points.
+   * 
+   * @return the maximum number of bins.
+   */
+  public int getNumBins() {
+
+    return m_NumBins;
+  }
+
+  /**
+   * Set the maximum number of bins for numeric attributes, 0 for exact split
+   * points.
+   * 
+   * @param newNumBins the maximum number of bins.
+   */
+  public void setNumBins(int newNumBins) {
+
+    m_NumBins = newNumBins;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to build the tree with, 0 for the number "
+      + "of cores.";
+  }
+
+  /**
+   * Get the number of threads to build the tree with, 0 for the number of
+   * cores.
+   * 
+   * @return the number of threads.
+   */
+  public int getNumThreads() {
+
+    return m_NumThreads;
+  }
+
+  /**
+   * Set the number of threads to build the tree with, 0 for the number of
+   * cores.
+   * 
+   * @param newNumThreads the number of threads.
+   */
+  public void setNumThreads(int newNumThreads) {
+
+    m_NumThreads = newNumThreads;
+  }
+
   /**
    * Lists the command-line options for this classifier.
    * 
@@ -1663,6 +2230,14 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
     newVector.addElement(new Option(
       "\tSpread initial count over all class values (i.e."
         + " don't use 1 per value)", "R", 0, "-R"));
+    newVector.addElement(new Option(
+      "\tThe maximum number of bins for numeric attributes,\n"
+        + "\t0 for exact split points.\n" + "\t(default 0)", "bins", 1,
+      "-bins <num>"));
+    newVector.addElement(new Option(
+      "\tThe number of threads to build the tree with,\n"
+        + "\t0 for the number of cores.\n" + "\t(default 1)", "num-threads",
+      1, "-num-threads <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
 
@@ -1696,6 +2271,14 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
     if (getSpreadInitialCount()) {
       options.add("-R");
     }
+    if (getNumBins() > 0) {
+      options.add("-bins");
+      options.add("" + getNumBins());
+    }
+    if (getNumThreads() != 1) {
+      options.add("-num-threads");
+      options.add("" + getNumThreads());
+    }
 
     Collections.addAll(options, super.getOptions());
 
@@ -1740,6 +2323,20 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
    *  Maximum tree depth (default -1, no maximum)
    * </pre>
    * 
+   * <pre>
+   * -bins &lt;num&gt;
+   *  The maximum number of bins for numeric attributes,
+   *  0 for exact split points.
+   *  (default 0)
+   * </pre>
+   * 
+   * <pre>
+   * -num-threads &lt;num&gt;
+   *  The number of threads to build the tree with,
+   *  0 for the number of cores.
+   *  (default 1)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -1786,6 +2383,18 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
       m_InitialCount = 0;
     }
     m_SpreadInitialCount = Utils.getFlag('R', options);
+    String numBinsString = Utils.getOption("bins", options);
+    if (numBinsString.length() != 0) {
+      m_NumBins = Integer.parseInt(numBinsString);
+    } else {
+      m_NumBins = 0;
+    }
+    String numThreadsString = Utils.getOption("num-threads", options);
+    if (numThreadsString.length() != 0) {
+      m_NumThreads = Integer.parseInt(numThreadsString);
+    } else {
+      m_NumThreads = 1;
+    }
 
     super.setOptions(options);
     Utils.checkForRemainingOptions(options);
@@ -1898,6 +2507,12 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
       train = data;
     }
 
+    // Quantize numeric attributes, if requested
+    m_Bins = null;
+    if (m_NumBins > 0) {
+      m_Bins = new AttributeBins(train, m_NumBins, m_Seed);
+    }
+
     // Create array of sorted indices and weights
     int[][][] sortedIndices = new int[1][train.numAttributes()][0];
     double[][][] weights = new double[1][train.numAttributes()][0];
@@ -1927,6 +2542,14 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
               count++;
             }
           }
+        } else if (m_Bins != null) {
+
+          // Binned numeric attributes do not need to be sorted
+          sortedIndices[0][j] = new int[train.numInstances()];
+          for (int i = 0; i < train.numInstances(); i++) {
+            sortedIndices[0][j][i] = i;
+            weights[0][j][i] = train.instance(i).weight();
+          }
         } else {
 
           // Sorted indices are computed for numeric attributes
@@ -1966,9 +2589,24 @@ public class REPTree extends AbstractClassifier implements OptionHandler,
     }
 
     // Build tree
-    m_Tree.buildTree(sortedIndices, weights, train, totalWeight, classProbs,
-      new Instances(train, 0), m_MinNum, m_MinVarianceProp * trainVariance, 0,
-      m_MaxDepth);
+    m_Pool = TaskUtils.newPool(m_NumThreads);
+    try {
+      if (m_Pool == null) {
+        m_Tree.buildTree(sortedIndices, weights, train, totalWeight,
+          classProbs, new Instances(train, 0), m_MinNum, m_MinVarianceProp
+            * trainVariance, 0, m_MaxDepth);
+      } else {
+        TaskUtils.join(m_Pool.submit(m_Tree.buildTask(sortedIndices, weights,
+          train, totalWeight, classProbs, new Instances(train, 0), m_MinNum,
+          m_MinVarianceProp * trainVariance, 0, m_MaxDepth, null)));
+      }
+    } finally {
+      if (m_Pool != null) {
+        m_Pool.shutdown();
+        m_Pool = null;
+      }
+      m_Bins = null;
+    }
 
     // Insert pruning data and perform reduced error pruning
     if (!m_NoPruning) {
@@ -25,16 +25,19 @@ import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.meta.Bagging;
 import weka.core.Capabilities;
+import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
+import weka.core.ThreadSafe;
 import weka.core.Utils;
 import weka.core.WekaException;
 import weka.gui.ProgrammaticProperty;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
@@ -145,6 +148,13 @@ import java.util.Vector;
  * </pre>
  * 
  * <pre>
+ * -bins &lt;num&gt;
+ *  The maximum number of bins for numeric attributes,
+ *  0 for exact split points.
+ *  (default 0)
+ * </pre>
+ * 
+ * <pre>
  * -N &lt;num&gt;
  *  Number of folds for backfitting (default 0, no backfitting).
  * </pre>
@@ -186,7 +196,7 @@ import java.util.Vector;
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision$
  */
-public class RandomForest extends Bagging {
+public class RandomForest extends Bagging implements ThreadSafe {
 
   /** for serialization */
   static final long serialVersionUID = 1116839470751428698L;
@@ -406,6 +416,36 @@ public class RandomForest extends Bagging {
     ((RandomTree) getClassifier()).setMaxDepth(value);
   }
 
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numBinsTipText() {
+    return ((RandomTree) getClassifier()).numBinsTipText();
+  }
+
+  /**
+   * Get the maximum number of bins for numeric attributes, 0 for exact split
+   * points.
+   *
+   * @return the maximum number of bins.
+   */
+  public int getNumBins() {
+    return ((RandomTree) getClassifier()).getNumBins();
+  }
+
+  /**
+   * Set the maximum number of bins for numeric attributes, 0 for exact split
+   * points.
+   *
+   * @param value the maximum number of bins.
+   */
+  public void setNumBins(int value) {
+    ((RandomTree) getClassifier()).setNumBins(value);
+  }
+
   /**
    * Returns the tip text for this property
    *
@@ -749,6 +789,13 @@ public class RandomForest extends Bagging {
    * </pre>
    * 
    * <pre>
+   * -bins &lt;num&gt;
+   *  The maximum number of bins for numeric attributes,
+   *  0 for exact split points.
+   *  (default 0)
+   * </pre>
+   * 
+   * <pre>
    * -N &lt;num&gt;
    *  Number of folds for backfitting (default 0, no backfitting).
    * </pre>
@@ -844,6 +891,54 @@ public class RandomForest extends Bagging {
     Utils.checkForRemainingOptions(options);
   }
 
+  /**
+   * Writes the class distributions for a batch of instances into the given
+   * array, combining the trees' predictions as distributionForInstance()
+   * does.
+   *
+   * @param batch the instances to compute the distributions for
+   * @param dists the array to write the distributions to
+   * @throws Exception if distributions can't be computed successfully
+   */
+  @Override
+  public void distributionsForInstances(Instances batch, double[][] dists)
+    throws Exception {
+
+    boolean numeric = batch.classAttribute().isNumeric();
+    double[] probs = new double[batch.numClasses()];
+    for (int i = 0; i < batch.numInstances(); i++) {
+      double[] sums = dists[i];
+      Arrays.fill(sums, 0);
+      double numPreds = 0;
+      for (int k = 0; k < m_NumIterations; k++) {
+        Arrays.fill(probs, 0);
+        if (!((RandomTree) m_Classifiers[k]).addDistributionForInstance(
+          batch.instance(i), probs)) {
+          throw new Exception("Null distribution predicted");
+        }
+        if (numeric) {
+          if (!Utils.isMissingValue(probs[0])) {
+            sums[0] += probs[0];
+            numPreds++;
+          }
+        } else {
+          for (int j = 0; j < probs.length; j++) {
+            sums[j] += probs[j];
+          }
+        }
+      }
+      if (numeric) {
+        if (numPreds == 0) {
+          sums[0] = Utils.missingValue();
+        } else {
+          sums[0] /= numPreds;
+        }
+      } else if (!Utils.eq(Utils.sum(sums), 0)) {
+        Utils.normalize(sums);
+      }
+    }
+  }
+
   /**
    * Returns the revision string.
    * 
@@ -35,17 +35,25 @@ import weka.core.OptionHandler;
 import weka.core.PartitionGenerator;
 import weka.core.Randomizable;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
+import weka.core.ThreadSafe;
 import weka.core.Utils;
 import weka.core.WeightedInstancesHandler;
 import weka.gui.ProgrammaticProperty;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * <!-- globalinfo-start --> Class for constructing a tree that considers K
@@ -89,6 +97,20 @@ import java.util.Vector;
  * </pre>
  * 
  * <pre>
+ * -bins &lt;num&gt;
+ *  The maximum number of bins for numeric attributes,
+ *  0 for exact split points.
+ *  (default 0)
+ * </pre>
+ * 
+ * <pre>
+ * -num-threads &lt;num&gt;
+ *  The number of threads to build the tree with,
+ *  0 for the number of cores.
+ *  (default 1)
+ * </pre>
+ * 
+ * <pre>
  * -N &lt;num&gt;
  *  Number of folds for backfitting (default 0, no backfitting).
  * </pre>
@@ -127,7 +149,8 @@ import java.util.Vector;
  * @version $Revision$
  */
 public class RandomTree extends AbstractClassifier implements OptionHandler,
-  WeightedInstancesHandler, Randomizable, Drawable, PartitionGenerator {
+  WeightedInstancesHandler, Randomizable, Drawable, PartitionGenerator,
+  ThreadSafe {
 
   /** for serialization */
   private static final long serialVersionUID = -9051119597407396024L;
@@ -168,6 +191,24 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
    */
   protected double m_MinVarianceProp = 1e-3;
 
+  /**
+   * The maximum number of bins for numeric attributes, 0 for exact split
+   * points.
+   */
+  protected int m_NumBins = 0;
+
+  /** The number of threads to build the tree with, 0 for the number of cores */
+  protected int m_NumThreads = 1;
+
+  /**
+   * The minimum number of instances at a node for evaluating its attributes
+   * or building its subtrees concurrently.
+   */
+  protected static final int MIN_PARALLEL_INSTANCES = 1000;
+
+  /** The pool the tree is built in, null if built in the calling thread */
+  protected transient ForkJoinPool m_Pool;
+
   /** Whether to store the impurity decrease/gain sum */
   protected boolean m_computeImpurityDecreases;
 
@@ -375,6 +416,71 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     m_MaxDepth = value;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to build the tree with, 0 for the number "
+      + "of cores. With more than one thread, each subtree uses its own "
+      + "random number generator, so the tree differs from the one built "
+      + "with a single thread, but not between different numbers of threads.";
+  }
+
+  /**
+   * Get the number of threads to build the tree with, 0 for the number of
+   * cores.
+   * 
+   * @return the number of threads.
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Set the number of threads to build the tree with, 0 for the number of
+   * cores.
+   *
+   * @param value the number of threads.
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = value;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numBinsTipText() {
+    return "The maximum number of bins (at most " + AttributeBins.MAX_BINS
+      + ") to quantize numeric attributes into, so that split points are "
+      + "found from per-bin histograms; 0 to evaluate all split points.";
+  }
+
+  /**
+   * Get the maximum number of bins for numeric attributes, 0 for exact split
+   * points.
+   * 
+   * @return the maximum number of bins.
+   */
+  public int getNumBins() {
+    return m_NumBins;
+  }
+
+  /**
+   * Set the maximum number of bins for numeric attributes, 0 for exact split
+   * points.
+   *
+   * @param value the maximum number of bins.
+   */
+  public void setNumBins(int value) {
+    m_NumBins = value;
+  }
+
   /**
    * Returns the tip text for this property
    * 
@@ -499,6 +605,16 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       "\tThe maximum depth of the tree, 0 for unlimited.\n" + "\t(default 0)",
       "depth", 1, "-depth <num>"));
 
+    newVector.addElement(new Option(
+      "\tThe maximum number of bins for numeric attributes,\n"
+        + "\t0 for exact split points.\n" + "\t(default 0)", "bins", 1,
+      "-bins <num>"));
+
+    newVector.addElement(new Option(
+      "\tThe number of threads to build the tree with,\n"
+        + "\t0 for the number of cores.\n" + "\t(default 1)", "num-threads",
+      1, "-num-threads <num>"));
+
     newVector.addElement(new Option("\tNumber of folds for backfitting "
       + "(default 0, no backfitting).", "N", 1, "-N <num>"));
     newVector.addElement(new Option("\tAllow unclassified instances.", "U", 0,
@@ -536,6 +652,16 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       result.add("" + getMaxDepth());
     }
 
+    if (getNumBins() > 0) {
+      result.add("-bins");
+      result.add("" + getNumBins());
+    }
+
+    if (getNumThreads() != 1) {
+      result.add("-num-threads");
+      result.add("" + getNumThreads());
+    }
+
     if (getNumFolds() > 0) {
       result.add("-N");
       result.add("" + getNumFolds());
@@ -592,6 +718,20 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
    * </pre>
    * 
    * <pre>
+   * -bins &lt;num&gt;
+   *  The maximum number of bins for numeric attributes,
+   *  0 for exact split points.
+   *  (default 0)
+   * </pre>
+   * 
+   * <pre>
+   * -num-threads &lt;num&gt;
+   *  The number of threads to build the tree with,
+   *  0 for the number of cores.
+   *  (default 1)
+   * </pre>
+   * 
+   * <pre>
    * -N &lt;num&gt;
    *  Number of folds for backfitting (default 0, no backfitting).
    * </pre>
@@ -666,6 +806,20 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     } else {
       setMaxDepth(0);
     }
+
+    tmpStr = Utils.getOption("bins", options);
+    if (tmpStr.length() != 0) {
+      setNumBins(Integer.parseInt(tmpStr));
+    } else {
+      setNumBins(0);
+    }
+
+    tmpStr = Utils.getOption("num-threads", options);
+    if (tmpStr.length() != 0) {
+      setNumThreads(Integer.parseInt(tmpStr));
+    } else {
+      setNumThreads(1);
+    }
     String numFoldsString = Utils.getOption('N', options);
     if (numFoldsString.length() != 0) {
       m_NumFolds = Integer.parseInt(numFoldsString);
@@ -798,8 +952,16 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     // Build tree
     m_Tree = new Tree();
     m_Info = new Instances(data, 0);
-    m_Tree.buildTree(train, classProbs, attIndicesWindow, totalWeight, rand, 0,
-      m_MinVarianceProp * trainVariance);
+    m_Pool = TaskUtils.newPool(m_NumThreads);
+    try {
+      m_Tree.buildTree(train, classProbs, attIndicesWindow, totalWeight, rand,
+        0, m_MinVarianceProp * trainVariance);
+    } finally {
+      if (m_Pool != null) {
+        m_Pool.shutdown();
+        m_Pool = null;
+      }
+    }
 
     // Backfit if required
     if (backfit != null) {
@@ -824,6 +986,48 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
     }
   }
 
+  /**
+   * Writes the class distributions for a batch of instances into the given
+   * array.
+   * 
+   * @param batch the instances to compute the distributions for
+   * @param dists the array to write the distributions to
+   * @throws Exception if computation fails
+   */
+  @Override
+  public void distributionsForInstances(Instances batch, double[][] dists)
+    throws Exception {
+
+    for (int i = 0; i < batch.numInstances(); i++) {
+      Arrays.fill(dists[i], 0);
+      if (!addDistributionForInstance(batch.instance(i), dists[i])) {
+        throw new Exception("Null distribution predicted");
+      }
+    }
+  }
+
+  /**
+   * Adds the class distribution for the given instance to the given array.
+   * 
+   * @param instance the instance to compute the distribution for
+   * @param dist the array to add the distribution to
+   * @return false if no distribution can be computed for the instance
+   * @throws Exception if computation fails
+   */
+  protected boolean addDistributionForInstance(Instance instance, double[] dist)
+    throws Exception {
+
+    if (m_zeroR != null) {
+      double[] zeroRDist = m_zeroR.distributionForInstance(instance);
+      for (int j = 0; j < dist.length; j++) {
+        dist[j] += zeroRDist[j];
+      }
+      return true;
+    } else {
+      return m_Tree.addDistribution(instance, dist, 1);
+    }
+  }
+
   /**
    * Outputs the decision tree.
    * 
@@ -965,153 +1169,585 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
   }
 
   /**
-   * The inner class for dealing with the tree.
+   * The training instances that reach a node while a tree is grown, identified
+   * by their indices in the training data. The order of the instances by the
+   * values of a numeric attribute is computed once, by the first node that
+   * needs it, and then reused by the nodes below: these filter the order of
+   * the closest node above in linear time instead of sorting their instances
+   * again, unless sorting is cheaper because few instances reach them. Sorting
+   * at the root therefore happens once per bag when used in a RandomForest.
+   * <p/>
+   * If numeric attributes are quantized into bins, no sorting is necessary:
+   * nodes compute per-bin histograms instead, or derive them from the
+   * histograms of the node above and its other successors.
    */
-  protected class Tree implements Serializable {
+  protected static class NodeInstances {
 
-    /** For serialization */
-    private static final long serialVersionUID = 3549573538656522569L;
+    /** the training data, shared by all nodes */
+    protected Instances m_Data;
 
-    /** The subtrees appended to this tree. */
-    protected Tree[] m_Successors;
+    /** the bins of the numeric attributes, null for exact split points */
+    protected AttributeBins m_Bins;
 
-    /** The attribute to split on. */
-    protected int m_Attribute = -1;
+    /**
+     * the weight of each training instance at the active node, NaN if the
+     * instance does not reach it; shared by all nodes
+     */
+    protected double[] m_Weight;
 
-    /** The split point. */
-    protected double m_SplitPoint = Double.NaN;
+    /** the node above, null for the root */
+    protected NodeInstances m_Parent;
 
-    /** The proportions of training instances going down each branch. */
-    protected double[] m_Prop = null;
+    /** the indices of the instances reaching the node */
+    protected int[] m_Indices;
+
+    /** the weights of the instances reaching the node */
+    protected double[] m_Weights;
 
     /**
-     * Class probabilities from the training data in the nominal case. Holds the
-     * mean in the numeric case.
+     * the indices per attribute, sorted by the attribute's values with missing
+     * values last; null if not computed yet
      */
-    protected double[] m_ClassDistribution = null;
+    protected int[][] m_SortedIndices;
+
+    /** the histograms per binned attribute; null if not computed yet */
+    protected double[][][] m_Histograms;
 
     /**
-     * Holds the sum of squared errors and the weight in the numeric case.
+     * all successors of the node above, including this one; null if their
+     * histograms do not add up to the ones of the node above
      */
-    protected double[] m_Distribution = null;
+    protected NodeInstances[] m_Siblings;
 
     /**
-     * Backfits the given data into the tree.
+     * Initializes the root node with all training instances.
+     * 
+     * @param data the training data
      */
-    public void backfitData(Instances data) throws Exception {
-
-      double totalWeight = 0;
-      double totalSumSquared = 0;
-
-      // Compute initial class counts
-      double[] classProbs = new double[data.numClasses()];
-      for (int i = 0; i < data.numInstances(); i++) {
-        Instance inst = data.instance(i);
-        if (data.classAttribute().isNominal()) {
-          classProbs[(int) inst.classValue()] += inst.weight();
-          totalWeight += inst.weight();
-        } else {
-          classProbs[0] += inst.classValue() * inst.weight();
-          totalSumSquared +=
-            inst.classValue() * inst.classValue() * inst.weight();
-          totalWeight += inst.weight();
-        }
-      }
+    public NodeInstances(Instances data) {
+      this(data, null);
+    }
 
-      double trainVariance = 0;
-      if (data.classAttribute().isNumeric()) {
-        trainVariance =
-          RandomTree
-            .singleVariance(classProbs[0], totalSumSquared, totalWeight)
-            / totalWeight;
-        classProbs[0] /= totalWeight;
+    /**
+     * Initializes the root node with all training instances.
+     * 
+     * @param data the training data
+     * @param bins the bins of the numeric attributes, null for exact split
+     *          points
+     */
+    public NodeInstances(Instances data, AttributeBins bins) {
+
+      m_Data = data;
+      m_Bins = bins;
+      m_Weight = new double[data.numInstances()];
+      Arrays.fill(m_Weight, Double.NaN);
+      m_Indices = new int[data.numInstances()];
+      m_Weights = new double[data.numInstances()];
+      for (int i = 0; i < m_Indices.length; i++) {
+        m_Indices[i] = i;
+        m_Weights[i] = data.instance(i).weight();
       }
-
-      // Fit data into tree
-      backfitData(data, classProbs, totalWeight);
+      m_SortedIndices = new int[data.numAttributes()][];
+      m_Histograms = new double[data.numAttributes()][][];
     }
 
     /**
-     * Computes class distribution of an instance using the decision tree.
+     * Initializes a node below the given one.
      * 
-     * @param instance the instance to compute the distribution for
-     * @return the computed class distribution
-     * @throws Exception if computation fails
+     * @param parent the node above
+     * @param indices the indices of the instances reaching the node
+     * @param weights the weights of the instances
+     * @param num the number of instances, the arrays may be longer
      */
-    public double[] distributionForInstance(Instance instance) throws Exception {
-
-      double[] returnedDist = null;
-
-      if (m_Attribute > -1) {
+    protected NodeInstances(NodeInstances parent, int[] indices,
+      double[] weights, int num) {
+
+      m_Data = parent.m_Data;
+      m_Bins = parent.m_Bins;
+      m_Weight = parent.m_Weight;
+      m_Parent = parent;
+      m_Indices = Arrays.copyOf(indices, num);
+      m_Weights = Arrays.copyOf(weights, num);
+      m_SortedIndices = new int[m_Data.numAttributes()][];
+      m_Histograms = new double[m_Data.numAttributes()][][];
+    }
 
-        // Node is not a leaf
-        if (instance.isMissing(m_Attribute)) {
+    /**
+     * Returns the training data.
+     * 
+     * @return the training data
+     */
+    public Instances getData() {
+      return m_Data;
+    }
 
-          // Value is missing
-          returnedDist = new double[m_Info.numClasses()];
+    /**
+     * Returns the bins of the numeric attributes.
+     * 
+     * @return the bins, null for exact split points
+     */
+    public AttributeBins getBins() {
+      return m_Bins;
+    }
 
-          // Split instance up
-          for (int i = 0; i < m_Successors.length; i++) {
-            double[] help = m_Successors[i].distributionForInstance(instance);
-            if (help != null) {
-              for (int j = 0; j < help.length; j++) {
-                returnedDist[j] += m_Prop[i] * help[j];
-              }
-            }
-          }
-        } else if (m_Info.attribute(m_Attribute).isNominal()) {
+    /**
+     * Returns whether split points for the given attribute are found from
+     * histograms.
+     * 
+     * @param att the attribute index
+     * @return true if the attribute is numeric and quantized into bins
+     */
+    public boolean isBinned(int att) {
+      return (m_Bins != null) && m_Data.attribute(att).isNumeric();
+    }
 
-          // For nominal attributes
-          returnedDist =
-            m_Successors[(int) instance.value(m_Attribute)]
-              .distributionForInstance(instance);
-        } else {
+    /**
+     * Returns the number of instances reaching the node.
+     * 
+     * @return the number of instances
+     */
+    public int numInstances() {
+      return m_Indices.length;
+    }
 
-          // For numeric attributes
-          if (instance.value(m_Attribute) < m_SplitPoint) {
-            returnedDist = m_Successors[0].distributionForInstance(instance);
-          } else {
-            returnedDist = m_Successors[1].distributionForInstance(instance);
-          }
-        }
-      }
+    /**
+     * Returns the indices of the instances reaching the node.
+     * 
+     * @return the indices in the training data
+     */
+    public int[] indices() {
+      return m_Indices;
+    }
 
-      // Node is a leaf or successor is empty?
-      if ((m_Attribute == -1) || (returnedDist == null)) {
+    /**
+     * Returns the index in the training data of an instance at the node.
+     * 
+     * @param i the position of the instance at the node
+     * @return the index in the training data
+     */
+    public int index(int i) {
+      return m_Indices[i];
+    }
 
-        // Is node empty?
-        if (m_ClassDistribution == null) {
-          if (getAllowUnclassifiedInstances()) {
-            double[] result = new double[m_Info.numClasses()];
-            if (m_Info.classAttribute().isNumeric()) {
-              result[0] = Utils.missingValue();
-            }
-            return result;
-          } else {
-            return null;
-          }
-        }
+    /**
+     * Returns an instance reaching the node.
+     * 
+     * @param i the position of the instance at the node
+     * @return the instance
+     */
+    public Instance instance(int i) {
+      return m_Data.instance(m_Indices[i]);
+    }
 
-        // Else return normalized distribution
-        double[] normalizedDistribution = m_ClassDistribution.clone();
-        if (m_Info.classAttribute().isNominal()) {
-          Utils.normalize(normalizedDistribution);
-        }
-        return normalizedDistribution;
-      } else {
-        return returnedDist;
-      }
+    /**
+     * Returns the weight of an instance at the node.
+     * 
+     * @param i the position of the instance at the node
+     * @return the weight
+     */
+    public double weight(int i) {
+      return m_Weights[i];
     }
 
     /**
-     * Outputs one node for graph.
+     * Returns the weight of a training instance at the node, which has to be
+     * active.
      * 
-     * @param text the buffer to append the output to
-     * @param num unique node id
-     * @return the next node id
-     * @throws Exception if generation fails
+     * @param index the index of the instance in the training data
+     * @return the weight
      */
-    public int toGraph(StringBuffer text, int num) throws Exception {
+    public double weightOf(int index) {
+      return m_Weight[index];
+    }
+
+    /**
+     * Returns an attribute of the training data.
+     * 
+     * @param att the attribute index
+     * @return the attribute
+     */
+    public Attribute attribute(int att) {
+      return m_Data.attribute(att);
+    }
+
+    /**
+     * Returns the class attribute of the training data.
+     * 
+     * @return the class attribute
+     */
+    public Attribute classAttribute() {
+      return m_Data.classAttribute();
+    }
+
+    /**
+     * Returns the number of attributes.
+     * 
+     * @return the number of attributes
+     */
+    public int numAttributes() {
+      return m_Data.numAttributes();
+    }
+
+    /**
+     * Returns the number of classes.
+     * 
+     * @return the number of classes
+     */
+    public int numClasses() {
+      return m_Data.numClasses();
+    }
+
+    /**
+     * Makes this the active node, so that the weights of its instances can be
+     * looked up by index and sorted indices can be computed.
+     */
+    public void activate() {
+      for (int i = 0; i < m_Indices.length; i++) {
+        m_Weight[m_Indices[i]] = m_Weights[i];
+      }
+    }
+
+    /**
+     * Gives the node its own lookup of the weights of active instances, so
+     * that the nodes below it can be active at the same time as nodes
+     * elsewhere in the tree.
+     */
+    public void detach() {
+      m_Weight = new double[m_Data.numInstances()];
+      Arrays.fill(m_Weight, Double.NaN);
+    }
+
+    /**
+     * Deactivates the node again.
+     */
+    public void deactivate() {
+      for (int index : m_Indices) {
+        m_Weight[index] = Double.NaN;
+      }
+    }
+
+    /**
+     * Returns the indices of the instances reaching the active node, sorted by
+     * the values of the given attribute with missing values last. The result
+     * must not be modified.
+     * 
+     * @param att the attribute index
+     * @return the sorted indices
+     */
+    public int[] sortedIndices(int att) {
+
+      if (m_SortedIndices[att] != null) {
+        return m_SortedIndices[att];
+      }
+
+      // Find the closest node above that has the order already
+      NodeInstances source = m_Parent;
+      while ((source != null) && (source.m_SortedIndices[att] == null)) {
+        source = source.m_Parent;
+      }
+
+      int num = m_Indices.length;
+      int[] sorted = new int[num];
+      if ((source != null)
+        && (source.m_SortedIndices[att].length <= num * (Utils.log2(num) + 1))) {
+
+        // Keep the instances of this node, in the order of the node above
+        int count = 0;
+        for (int index : source.m_SortedIndices[att]) {
+          if (!Double.isNaN(m_Weight[index])) {
+            sorted[count++] = index;
+          }
+        }
+      } else {
+
+        // Sort the values, moving missing values to the end
+        int[] values = new int[num];
+        double[] vals = new double[num];
+        int numValues = 0;
+        int numMissing = 0;
+        for (int index : m_Indices) {
+          Instance inst = m_Data.instance(index);
+          if (inst.isMissing(att)) {
+            sorted[numMissing++] = index;
+          } else {
+            values[numValues] = index;
+            vals[numValues++] = inst.value(att);
+          }
+        }
+        int[] order =
+          Utils.sortWithNoMissingValues(Arrays.copyOf(vals, numValues));
+        System.arraycopy(sorted, 0, sorted, numValues, numMissing);
+        for (int i = 0; i < numValues; i++) {
+          sorted[i] = values[order[i]];
+        }
+      }
+
+      m_SortedIndices[att] = sorted;
+      return sorted;
+    }
+
+    /**
+     * Returns the histogram of the instances reaching the node for a binned
+     * attribute. The result must not be modified.
+     * 
+     * @param att the attribute index
+     * @return the histogram, see AttributeBins
+     */
+    public double[][] histogram(int att) {
+
+      if (m_Histograms[att] != null) {
+        return m_Histograms[att];
+      }
+
+      // Can the histogram be derived from the node above?
+      boolean derive = (m_Siblings != null)
+        && (m_Parent.m_Histograms[att] != null);
+      if (derive) {
+        for (NodeInstances sibling : m_Siblings) {
+          if ((sibling != this) && (sibling.m_Histograms[att] == null)) {
+            derive = false;
+            break;
+          }
+        }
+      }
+
+      double[][] hist;
+      if (derive) {
+        hist = new double[m_Parent.m_Histograms[att].length][];
+        for (int i = 0; i < hist.length; i++) {
+          hist[i] = m_Parent.m_Histograms[att][i].clone();
+        }
+        for (NodeInstances sibling : m_Siblings) {
+          if (sibling != this) {
+            AttributeBins.subtract(hist, sibling.m_Histograms[att]);
+          }
+        }
+      } else {
+        hist = m_Bins.histogram(att, m_Indices, m_Weights, m_Indices.length);
+      }
+
+      m_Histograms[att] = hist;
+      return hist;
+    }
+  }
+
+  /**
+   * The inner class for dealing with the tree.
+   */
+  protected class Tree implements Serializable {
+
+    /** For serialization */
+    private static final long serialVersionUID = 3549573538656522569L;
+
+    /** The subtrees appended to this tree. */
+    protected Tree[] m_Successors;
+
+    /** The attribute to split on. */
+    protected int m_Attribute = -1;
+
+    /** The split point. */
+    protected double m_SplitPoint = Double.NaN;
+
+    /** The proportions of training instances going down each branch. */
+    protected double[] m_Prop = null;
+
+    /**
+     * Class probabilities from the training data in the nominal case. Holds the
+     * mean in the numeric case.
+     */
+    protected double[] m_ClassDistribution = null;
+
+    /**
+     * Holds the sum of squared errors and the weight in the numeric case.
+     */
+    protected double[] m_Distribution = null;
+
+    /**
+     * Backfits the given data into the tree.
+     */
+    public void backfitData(Instances data) throws Exception {
+
+      double totalWeight = 0;
+      double totalSumSquared = 0;
+
+      // Compute initial class counts
+      double[] classProbs = new double[data.numClasses()];
+      for (int i = 0; i < data.numInstances(); i++) {
+        Instance inst = data.instance(i);
+        if (data.classAttribute().isNominal()) {
+          classProbs[(int) inst.classValue()] += inst.weight();
+          totalWeight += inst.weight();
+        } else {
+          classProbs[0] += inst.classValue() * inst.weight();
+          totalSumSquared +=
+            inst.classValue() * inst.classValue() * inst.weight();
+          totalWeight += inst.weight();
+        }
+      }
+
+      double trainVariance = 0;
+      if (data.classAttribute().isNumeric()) {
+        trainVariance =
+          RandomTree
+            .singleVariance(classProbs[0], totalSumSquared, totalWeight)
+            / totalWeight;
+        classProbs[0] /= totalWeight;
+      }
+
+      // Fit data into tree
+      backfitData(data, classProbs, totalWeight);
+    }
+
+    /**
+     * Computes class distribution of an instance using the decision tree.
+     * 
+     * @param instance the instance to compute the distribution for
+     * @return the computed class distribution
+     * @throws Exception if computation fails
+     */
+    public double[] distributionForInstance(Instance instance) throws Exception {
+
+      double[] returnedDist = null;
+
+      if (m_Attribute > -1) {
+
+        // Node is not a leaf
+        if (instance.isMissing(m_Attribute)) {
+
+          // Value is missing
+          returnedDist = new double[m_Info.numClasses()];
+
+          // Split instance up
+          for (int i = 0; i < m_Successors.length; i++) {
+            double[] help = m_Successors[i].distributionForInstance(instance);
+            if (help != null) {
+              for (int j = 0; j < help.length; j++) {
+                returnedDist[j] += m_Prop[i] * help[j];
+              }
+            }
+          }
+        } else if (m_Info.attribute(m_Attribute).isNominal()) {
+
+          // For nominal attributes
+          returnedDist =
+            m_Successors[(int) instance.value(m_Attribute)]
+              .distributionForInstance(instance);
+        } else {
+
+          // For numeric attributes
+          if (instance.value(m_Attribute) < m_SplitPoint) {
+            returnedDist = m_Successors[0].distributionForInstance(instance);
+          } else {
+            returnedDist = m_Successors[1].distributionForInstance(instance);
+          }
+        }
+      }
+
+      // Node is a leaf or successor is empty?
+      if ((m_Attribute == -1) || (returnedDist == null)) {
+
+        // Is node empty?
+        if (m_ClassDistribution == null) {
+          if (getAllowUnclassifiedInstances()) {
+            double[] result = new double[m_Info.numClasses()];
+            if (m_Info.classAttribute().isNumeric()) {
+              result[0] = Utils.missingValue();
+            }
+            return result;
+          } else {
+            return null;
+          }
+        }
+
+        // Else return normalized distribution
+        double[] normalizedDistribution = m_ClassDistribution.clone();
+        if (m_Info.classAttribute().isNominal()) {
+          Utils.normalize(normalizedDistribution);
+        }
+        return normalizedDistribution;
+      } else {
+        return returnedDist;
+      }
+    }
+
+    /**
+     * Adds the weighted class distribution of an instance to the given array,
+     * computing the same distribution as distributionForInstance().
+     * 
+     * @param instance the instance to compute the distribution for
+     * @param dist the array to add the distribution to
+     * @param weight the weight of the distribution
+     * @return false, without changing the array, if no distribution can be
+     *         computed for the instance
+     * @throws Exception if computation fails
+     */
+    public boolean addDistribution(Instance instance, double[] dist,
+      double weight) throws Exception {
+
+      if (m_Attribute > -1) {
+
+        // Node is not a leaf
+        if (instance.isMissing(m_Attribute)) {
+
+          // Value is missing, split instance up
+          for (int i = 0; i < m_Successors.length; i++) {
+            m_Successors[i].addDistribution(instance, dist, m_Prop[i] * weight);
+          }
+          return true;
+        } else if (m_Info.attribute(m_Attribute).isNominal()) {
+
+          // For nominal attributes
+          if (m_Successors[(int) instance.value(m_Attribute)].addDistribution(
+            instance, dist, weight)) {
+            return true;
+          }
+        } else {
+
+          // For numeric attributes
+          int successor = (instance.value(m_Attribute) < m_SplitPoint) ? 0 : 1;
+          if (m_Successors[successor].addDistribution(instance, dist, weight)) {
+            return true;
+          }
+        }
+      }
+
+      // Node is a leaf or successor is empty
+
+      // Is node empty?
+      if (m_ClassDistribution == null) {
+        if (getAllowUnclassifiedInstances()) {
+          if (m_Info.classAttribute().isNumeric()) {
+            dist[0] += weight * Utils.missingValue();
+          }
+          return true;
+        } else {
+          return false;
+        }
+      }
+
+      // Else add normalized distribution
+      if (m_Info.classAttribute().isNominal()) {
+        double sum = Utils.sum(m_ClassDistribution);
+        for (int j = 0; j < m_ClassDistribution.length; j++) {
+          dist[j] += weight * (m_ClassDistribution[j] / sum);
+        }
+      } else {
+        for (int j = 0; j < m_ClassDistribution.length; j++) {
+          dist[j] += weight * m_ClassDistribution[j];
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Outputs one node for graph.
+     * 
+     * @param text the buffer to append the output to
+     * @param num unique node id
+     * @return the next node id
+     * @throws Exception if generation fails
+     */
+    public int toGraph(StringBuffer text, int num) throws Exception {
 
       int maxIndex = Utils.maxIndex(m_ClassDistribution);
       String classValue =
@@ -1392,6 +2028,59 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       int[] attIndicesWindow, double totalWeight, Random random, int depth,
       double minVariance) throws Exception {
 
+      AttributeBins bins = null;
+      if (getNumBins() > 0) {
+        bins = new AttributeBins(data, getNumBins(), getSeed());
+      }
+      NodeInstances root = new NodeInstances(data, bins);
+      if (m_Pool == null) {
+        buildTree(root, classProbs, attIndicesWindow, totalWeight, random,
+          depth, minVariance);
+      } else {
+        TaskUtils.join(m_Pool.submit(buildTask(root, classProbs,
+          attIndicesWindow, totalWeight, random, depth, minVariance)));
+      }
+    }
+
+    /**
+     * Creates a task that recursively generates this tree.
+     * 
+     * @param data the instances reaching the node
+     * @param classProbs the class distribution
+     * @param attIndicesWindow the attribute window to choose attributes from
+     * @param random random number generator for choosing random attributes
+     * @param depth the current depth
+     * @return the task
+     */
+    protected ForkJoinTask<Void> buildTask(final NodeInstances data,
+      final double[] classProbs, final int[] attIndicesWindow,
+      final double totalWeight, final Random random, final int depth,
+      final double minVariance) {
+
+      return ForkJoinTask.adapt(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          buildTree(data, classProbs, attIndicesWindow, totalWeight, random,
+            depth, minVariance);
+          return null;
+        }
+      });
+    }
+
+    /**
+     * Recursively generates a tree.
+     * 
+     * @param data the instances reaching the node
+     * @param classProbs the class distribution
+     * @param attIndicesWindow the attribute window to choose attributes from
+     * @param random random number generator for choosing random attributes
+     * @param depth the current depth
+     * @throws Exception if generation fails
+     */
+    protected void buildTree(NodeInstances data, double[] classProbs,
+      int[] attIndicesWindow, double totalWeight, Random random, int depth,
+      double minVariance) throws Exception {
+
       // Make leaf if there are no training instances
       if (data.numInstances() == 0) {
         m_Attribute = -1;
@@ -1411,10 +2100,10 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
         double totalSum = 0, totalSumSquared = 0, totalSumOfWeights = 0;
         for (int i = 0; i < data.numInstances(); i++) {
           Instance inst = data.instance(i);
-          totalSum += inst.classValue() * inst.weight();
+          totalSum += inst.classValue() * data.weight(i);
           totalSumSquared +=
-            inst.classValue() * inst.classValue() * inst.weight();
-          totalSumOfWeights += inst.weight();
+            inst.classValue() * inst.classValue() * data.weight(i);
+          totalSumOfWeights += data.weight(i);
         }
         priorVar =
           RandomTree.singleVariance(totalSum, totalSumSquared,
@@ -1465,9 +2154,6 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       double[] bestProps = null;
       int bestIndex = 0;
 
-      // Handles to get arrays out of distribution method
-      double[][] props = new double[1][0];
-      double[][][] dists = new double[1][0][0];
       double[][] totalSubsetWeights = new double[data.numAttributes()][0];
 
       // Investigate K random attributes
@@ -1476,38 +2162,57 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       int k = m_KValue;
       boolean gainFound = false;
       double[] tempNumericVals = new double[data.numAttributes()];
+      boolean parallel =
+        (m_Pool != null) && (data.numInstances() >= MIN_PARALLEL_INSTANCES);
+      data.activate();
       while ((windowSize > 0) && (k-- > 0 || !gainFound)) {
 
-        int chosenIndex = random.nextInt(windowSize);
-        attIndex = attIndicesWindow[chosenIndex];
-
-        // shift chosen attIndex out of window
-        attIndicesWindow[chosenIndex] = attIndicesWindow[windowSize - 1];
-        attIndicesWindow[windowSize - 1] = attIndex;
-        windowSize--;
+        // Choose all remaining of the K attributes at once when evaluating
+        // them concurrently, otherwise one
+        int num = 1;
+        if (parallel && (k >= 0)) {
+          num = Math.min(k + 1, windowSize);
+          k -= num - 1;
+        }
+        int[] candidates = new int[num];
+        for (int i = 0; i < num; i++) {
+          int chosenIndex = random.nextInt(windowSize);
+          attIndex = attIndicesWindow[chosenIndex];
+
+          // shift chosen attIndex out of window
+          attIndicesWindow[chosenIndex] = attIndicesWindow[windowSize - 1];
+          attIndicesWindow[windowSize - 1] = attIndex;
+          windowSize--;
+          candidates[i] = attIndex;
+        }
 
-        double currSplit =
-          data.classAttribute().isNominal() ? distribution(props, dists,
-            attIndex, data) : numericDistribution(props, dists, attIndex,
-            totalSubsetWeights, data, tempNumericVals);
+        double[] currSplits = new double[num];
+        double[] currVals = new double[num];
+        double[][] currProps = new double[num][];
+        double[][][] currDists = new double[num][][];
+        evaluateAttributes(candidates, data, currSplits, currVals, currProps,
+          currDists, totalSubsetWeights, tempNumericVals);
 
-        double currVal =
-          data.classAttribute().isNominal() ? gain(dists[0], priorVal(dists[0]))
-            : tempNumericVals[attIndex];
+        // Go through the attributes in the order they were chosen in
+        for (int i = 0; i < num; i++) {
+          attIndex = candidates[i];
+          double currVal = currVals[i];
 
-        if (Utils.gr(currVal, 0)) {
-          gainFound = true;
-        }
+          if (Utils.gr(currVal, 0)) {
+            gainFound = true;
+          }
 
-        if ((currVal > val)
-          || ((!getBreakTiesRandomly()) && (currVal == val) && (attIndex < bestIndex))) {
-          val = currVal;
-          bestIndex = attIndex;
-          split = currSplit;
-          bestProps = props[0];
-          bestDists = dists[0];
+          if ((currVal > val)
+            || ((!getBreakTiesRandomly()) && (currVal == val) && (attIndex < bestIndex))) {
+            val = currVal;
+            bestIndex = attIndex;
+            split = currSplits[i];
+            bestProps = currProps[i];
+            bestDists = currDists[i];
+          }
         }
       }
+      data.deactivate();
 
       // Find best attribute
       m_Attribute = bestIndex;
@@ -1515,22 +2220,29 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       // Any useful split found?
       if (Utils.gr(val, 0)) {
         if (m_computeImpurityDecreases) {
-          m_impurityDecreasees[m_Attribute][0] += val;
-          m_impurityDecreasees[m_Attribute][1]++;
+          synchronized (m_impurityDecreasees) {
+            m_impurityDecreasees[m_Attribute][0] += val;
+            m_impurityDecreasees[m_Attribute][1]++;
+          }
         }
 
         // Build subtrees
         m_SplitPoint = split;
         m_Prop = bestProps;
-        Instances[] subsets = splitData(data);
+        NodeInstances[] subsets = splitData(data);
         m_Successors = new Tree[bestDists.length];
         double[] attTotalSubsetWeights = totalSubsetWeights[bestIndex];
 
-        for (int i = 0; i < bestDists.length; i++) {
-          m_Successors[i] = new Tree();
-          m_Successors[i].buildTree(subsets[i], bestDists[i], attIndicesWindow,
-            data.classAttribute().isNominal() ? 0 : attTotalSubsetWeights[i],
-            random, depth + 1, minVariance);
+        if (m_Pool == null) {
+          for (int i = 0; i < bestDists.length; i++) {
+            m_Successors[i] = new Tree();
+            m_Successors[i].buildTree(subsets[i], bestDists[i],
+              attIndicesWindow, data.classAttribute().isNominal() ? 0
+                : attTotalSubsetWeights[i], random, depth + 1, minVariance);
+          }
+        } else {
+          buildSuccessors(subsets, bestDists, attIndicesWindow,
+            attTotalSubsetWeights, random, depth, minVariance);
         }
 
         // If all successors are non-empty, we don't need to store the class
@@ -1558,6 +2270,140 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       }
     }
 
+    /**
+     * Evaluates the given attributes as split attributes for the active node,
+     * concurrently if there are several.
+     * 
+     * @param atts the indices of the attributes
+     * @param data the instances reaching the node
+     * @param splits the split point per attribute, to fill in
+     * @param vals the value of the splitting criterion per attribute, to fill
+     *          in
+     * @param props the proportions per attribute, to fill in
+     * @param dists the class distributions per attribute, to fill in
+     * @param totalSubsetWeights the subset weights, indexed by attribute
+     * @param tempNumericVals the gains for a numeric class, indexed by
+     *          attribute
+     * @throws Exception if an attribute cannot be evaluated
+     */
+    protected void evaluateAttributes(final int[] atts,
+      final NodeInstances data, final double[] splits, final double[] vals,
+      final double[][] props, final double[][][] dists,
+      final double[][] totalSubsetWeights, final double[] tempNumericVals)
+      throws Exception {
+
+      List<Callable<Void>> evaluations = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < atts.length; i++) {
+        final int index = i;
+        evaluations.add(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+
+            // Handles to get arrays out of distribution method
+            double[][] attProps = new double[1][0];
+            double[][][] attDists = new double[1][0][0];
+            int att = atts[index];
+
+            if (data.classAttribute().isNominal()) {
+              splits[index] = distribution(attProps, attDists, att, data);
+              vals[index] = gain(attDists[0], priorVal(attDists[0]));
+            } else {
+              splits[index] = numericDistribution(attProps, attDists, att,
+                totalSubsetWeights, data, tempNumericVals);
+              vals[index] = tempNumericVals[att];
+            }
+            props[index] = attProps[0];
+            dists[index] = attDists[0];
+            return null;
+          }
+        });
+      }
+
+      // Evaluate the first attribute in this task, the others in tasks of
+      // their own
+      List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+      for (int i = 1; i < evaluations.size(); i++) {
+        tasks.add(ForkJoinTask.adapt(evaluations.get(i)).fork());
+      }
+      evaluations.get(0).call();
+      for (ForkJoinTask<Void> task : tasks) {
+        TaskUtils.join(task);
+      }
+    }
+
+    /**
+     * Builds the successors of the node concurrently. Each successor gets its
+     * own random number generator and attribute window. Large subsets other
+     * than the largest one are built in tasks of their own, the others in
+     * this one.
+     * 
+     * @param subsets the instances reaching the successors
+     * @param dists the class distributions of the successors
+     * @param attIndicesWindow the attribute window to choose attributes from
+     * @param totalSubsetWeights the weights of the successors
+     * @param random random number generator for choosing random attributes
+     * @param depth the current depth
+     * @throws Exception if generation fails
+     */
+    protected void buildSuccessors(NodeInstances[] subsets, double[][] dists,
+      int[] attIndicesWindow, double[] totalSubsetWeights, Random random,
+      int depth, double minVariance) throws Exception {
+
+      int largest = 0;
+      for (int i = 1; i < subsets.length; i++) {
+        if (subsets[i].numInstances() > subsets[largest].numInstances()) {
+          largest = i;
+        }
+      }
+      int minForkInstances = Math.max(MIN_PARALLEL_INSTANCES,
+        subsets[0].getData().numInstances() / 16);
+
+      boolean[] fork = new boolean[subsets.length];
+      boolean forked = false;
+      for (int i = 0; i < subsets.length; i++) {
+        fork[i] =
+          (i != largest) && (subsets[i].numInstances() >= minForkInstances);
+        forked |= fork[i];
+      }
+
+      // Histograms cannot be derived from the ones of concurrently built
+      // siblings
+      if (forked) {
+        for (NodeInstances subset : subsets) {
+          subset.m_Siblings = null;
+        }
+      }
+
+      Random[] randoms = new Random[subsets.length];
+      int[][] windows = new int[subsets.length][];
+      double[] weights = new double[subsets.length];
+      List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+      for (int i = 0; i < subsets.length; i++) {
+        randoms[i] = new Random(random.nextLong());
+        windows[i] = attIndicesWindow.clone();
+        if (subsets[i].classAttribute().isNumeric()) {
+          weights[i] = totalSubsetWeights[i];
+        }
+        m_Successors[i] = new Tree();
+        if (fork[i]) {
+          subsets[i].detach();
+          tasks.add(m_Successors[i].buildTask(subsets[i], dists[i],
+            windows[i], weights[i], randoms[i], depth + 1, minVariance).fork());
+        }
+      }
+
+      for (int i = 0; i < subsets.length; i++) {
+        if (!fork[i]) {
+          m_Successors[i].buildTree(subsets[i], dists[i], windows[i],
+            weights[i], randoms[i], depth + 1, minVariance);
+        }
+      }
+
+      for (ForkJoinTask<Void> task : tasks) {
+        TaskUtils.join(task);
+      }
+    }
+
     /**
      * Computes size of the tree.
      * 
@@ -1642,6 +2488,73 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       return subsets;
     }
 
+    /**
+     * Splits the instances reaching the node into subsets based on the given
+     * split. The subsets only hold the indices and weights of the instances.
+     * 
+     * @param data the instances reaching the node
+     * @return the subsets of instances
+     * @throws Exception if something goes wrong
+     */
+    protected NodeInstances[] splitData(NodeInstances data) throws Exception {
+
+      int[][] indices = new int[m_Prop.length][data.numInstances()];
+      double[][] weights = new double[m_Prop.length][data.numInstances()];
+      int[] num = new int[m_Prop.length];
+      boolean missing = false;
+
+      // Go through the data
+      for (int i = 0; i < data.numInstances(); i++) {
+
+        // Get instance
+        Instance inst = data.instance(i);
+
+        // Does the instance have a missing value?
+        if (inst.isMissing(m_Attribute)) {
+
+          // Split instance up
+          for (int k = 0; k < m_Prop.length; k++) {
+            if (m_Prop[k] > 0) {
+              indices[k][num[k]] = data.index(i);
+              weights[k][num[k]] = m_Prop[k] * data.weight(i);
+              num[k]++;
+            }
+          }
+          missing = true;
+
+          // Proceed to next instance
+          continue;
+        }
+
+        int subset;
+        if (data.attribute(m_Attribute).isNominal()) {
+          subset = (int) inst.value(m_Attribute);
+        } else if (data.attribute(m_Attribute).isNumeric()) {
+          subset = (inst.value(m_Attribute) < m_SplitPoint) ? 0 : 1;
+        } else {
+          throw new IllegalArgumentException("Unknown attribute type");
+        }
+        indices[subset][num[subset]] = data.index(i);
+        weights[subset][num[subset]] = data.weight(i);
+        num[subset]++;
+      }
+
+      // Return the subsets
+      NodeInstances[] subsets = new NodeInstances[m_Prop.length];
+      for (int k = 0; k < m_Prop.length; k++) {
+        subsets[k] = new NodeInstances(data, indices[k], weights[k], num[k]);
+      }
+
+      // Histograms of the subsets add up to the ones of the data, unless
+      // instances have been split up
+      if (!missing) {
+        for (NodeInstances subset : subsets) {
+          subset.m_Siblings = subsets;
+        }
+      }
+      return subsets;
+    }
+
     /**
      * Computes numeric class distribution for an attribute
      * 
@@ -1649,15 +2562,20 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
      * @param dists
      * @param att
      * @param subsetWeights
-     * @param data
+     * @param data the instances reaching the node
      * @param vals
      * @return
      * @throws Exception if a problem occurs
      */
     protected double numericDistribution(double[][] props, double[][][] dists,
-      int att, double[][] subsetWeights, Instances data, double[] vals)
+      int att, double[][] subsetWeights, NodeInstances data, double[] vals)
       throws Exception {
 
+      if (data.isBinned(att)) {
+        return binnedNumericDistribution(props, dists, att, subsetWeights,
+          data, vals);
+      }
+
       double splitPoint = Double.NaN;
       Attribute attribute = data.attribute(att);
       double[][] dist = null;
@@ -1665,6 +2583,9 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
       double[] sumSquared = null;
       double[] sumOfWeights = null;
       double totalSum = 0, totalSumSquared = 0, totalSumOfWeights = 0;
+      Instances train = data.getData();
+      int[] order =
+        attribute.isNominal() ? data.indices() : data.sortedIndices(att);
       int indexOfFirstMissingValue = data.numInstances();
 
       if (attribute.isNominal()) {
@@ -1674,7 +2595,7 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
         int attVal;
 
         for (int i = 0; i < data.numInstances(); i++) {
-          Instance inst = data.instance(i);
+          Instance inst = train.instance(order[i]);
           if (inst.isMissing(att)) {
 
             // Skip missing values at this stage
@@ -1685,10 +2606,10 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
           }
 
           attVal = (int) inst.value(att);
-          sums[attVal] += inst.classValue() * inst.weight();
+          sums[attVal] += inst.classValue() * data.weightOf(order[i]);
           sumSquared[attVal] +=
-            inst.classValue() * inst.classValue() * inst.weight();
-          sumOfWeights[attVal] += inst.weight();
+            inst.classValue() * inst.classValue() * data.weightOf(order[i]);
+          sumOfWeights[attVal] += data.weightOf(order[i]);
         }
 
         totalSum = Utils.sum(sums);
@@ -1703,12 +2624,9 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
         double[] currSumSquared = new double[2];
         double[] currSumOfWeights = new double[2];
 
-        // Sort data
-        data.sort(att);
-
         // Move all instances into second subset
         for (int j = 0; j < data.numInstances(); j++) {
-          Instance inst = data.instance(j);
+          Instance inst = train.instance(order[j]);
           if (inst.isMissing(att)) {
 
             // Can stop as soon as we hit a missing value
@@ -1716,10 +2634,10 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
             break;
           }
 
-          currSums[1] += inst.classValue() * inst.weight();
+          currSums[1] += inst.classValue() * data.weightOf(order[j]);
           currSumSquared[1] +=
-            inst.classValue() * inst.classValue() * inst.weight();
-          currSumOfWeights[1] += inst.weight();
+            inst.classValue() * inst.classValue() * data.weightOf(order[j]);
+          currSumOfWeights[1] += data.weightOf(order[j]);
         }
 
         totalSum = currSums[1];
@@ -1731,11 +2649,11 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
         sumOfWeights[1] = currSumOfWeights[1];
 
         // Try all possible split points
-        double currSplit = data.instance(0).value(att);
+        double currSplit = train.instance(order[0]).value(att);
         double currVal, bestVal = Double.MAX_VALUE;
 
         for (int i = 0; i < indexOfFirstMissingValue; i++) {
-          Instance inst = data.instance(i);
+          Instance inst = train.instance(order[i]);
 
           if (inst.value(att) > currSplit) {
             currVal =
@@ -1759,16 +2677,16 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
 
           currSplit = inst.value(att);
 
-          double classVal = inst.classValue() * inst.weight();
+          double classVal = inst.classValue() * data.weightOf(order[i]);
           double classValSquared = inst.classValue() * classVal;
 
           currSums[0] += classVal;
           currSumSquared[0] += classValSquared;
-          currSumOfWeights[0] += inst.weight();
+          currSumOfWeights[0] += data.weightOf(order[i]);
 
           currSums[1] -= classVal;
           currSumSquared[1] -= classValSquared;
-          currSumOfWeights[1] -= inst.weight();
+          currSumOfWeights[1] -= data.weightOf(order[i]);
         }
       }
 
@@ -1787,18 +2705,23 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
 
       // Distribute weights for instances with missing values
       for (int i = indexOfFirstMissingValue; i < data.numInstances(); i++) {
-        Instance inst = data.instance(i);
+        Instance inst = train.instance(order[i]);
+
+        // Need to check if attribute value is missing
+        if (attribute.isNominal() && !inst.isMissing(att)) {
+          continue;
+        }
 
+        double weight = data.weightOf(order[i]);
         for (int j = 0; j < sums.length; j++) {
-          sums[j] += props[0][j] * inst.classValue() * inst.weight();
+          sums[j] += props[0][j] * inst.classValue() * weight;
           sumSquared[j] +=
-            props[0][j] * inst.classValue() * inst.classValue() * inst.weight();
-          sumOfWeights[j] += props[0][j] * inst.weight();
+            props[0][j] * inst.classValue() * inst.classValue() * weight;
+          sumOfWeights[j] += props[0][j] * weight;
         }
-        totalSum += inst.classValue() * inst.weight();
-        totalSumSquared +=
-          inst.classValue() * inst.classValue() * inst.weight();
-        totalSumOfWeights += inst.weight();
+        totalSum += inst.classValue() * weight;
+        totalSumSquared += inst.classValue() * inst.classValue() * weight;
+        totalSumOfWeights += weight;
       }
 
       // Compute final distribution
@@ -1831,15 +2754,22 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
      * @param props
      * @param dists
      * @param att the attribute index
-     * @param data the data to work with
+     * @param data the instances reaching the node
      * @throws Exception if something goes wrong
      */
     protected double distribution(double[][] props, double[][][] dists,
-      int att, Instances data) throws Exception {
+      int att, NodeInstances data) throws Exception {
+
+      if (data.isBinned(att)) {
+        return binnedDistribution(props, dists, att, data);
+      }
 
       double splitPoint = Double.NaN;
       Attribute attribute = data.attribute(att);
       double[][] dist = null;
+      Instances train = data.getData();
+      int[] order =
+        attribute.isNominal() ? data.indices() : data.sortedIndices(att);
       int indexOfFirstMissingValue = data.numInstances();
 
       if (attribute.isNominal()) {
@@ -1847,7 +2777,7 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
         // For nominal attributes
         dist = new double[attribute.numValues()][data.numClasses()];
         for (int i = 0; i < data.numInstances(); i++) {
-          Instance inst = data.instance(i);
+          Instance inst = train.instance(order[i]);
           if (inst.isMissing(att)) {
 
             // Skip missing values at this stage
@@ -1856,7 +2786,8 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
             }
             continue;
           }
-          dist[(int) inst.value(att)][(int) inst.classValue()] += inst.weight();
+          dist[(int) inst.value(att)][(int) inst.classValue()] +=
+            data.weightOf(order[i]);
         }
       } else {
 
@@ -1864,19 +2795,16 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
         double[][] currDist = new double[2][data.numClasses()];
         dist = new double[2][data.numClasses()];
 
-        // Sort data
-        data.sort(att);
-
         // Move all instances into second subset
         for (int j = 0; j < data.numInstances(); j++) {
-          Instance inst = data.instance(j);
+          Instance inst = train.instance(order[j]);
           if (inst.isMissing(att)) {
 
             // Can stop as soon as we hit a missing value
             indexOfFirstMissingValue = j;
             break;
           }
-          currDist[1][(int) inst.classValue()] += inst.weight();
+          currDist[1][(int) inst.classValue()] += data.weightOf(order[j]);
         }
 
         // Value before splitting
@@ -1888,10 +2816,10 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
         }
 
         // Try all possible split points
-        double currSplit = data.instance(0).value(att);
+        double currSplit = train.instance(order[0]).value(att);
         double currVal, bestVal = -Double.MAX_VALUE;
         for (int i = 0; i < indexOfFirstMissingValue; i++) {
-          Instance inst = data.instance(i);
+          Instance inst = train.instance(order[i]);
           double attVal = inst.value(att);
 
           // Can we place a sensible split point here?
@@ -1926,8 +2854,8 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
 
           // Shift over the weight
           int classVal = (int) inst.classValue();
-          currDist[0][classVal] += inst.weight();
-          currDist[1][classVal] -= inst.weight();
+          currDist[0][classVal] += data.weightOf(order[i]);
+          currDist[1][classVal] -= data.weightOf(order[i]);
         }
       }
 
@@ -1946,20 +2874,245 @@ public class RandomTree extends AbstractClassifier implements OptionHandler,
 
       // Distribute weights for instances with missing values
       for (int i = indexOfFirstMissingValue; i < data.numInstances(); i++) {
-        Instance inst = data.instance(i);
+        Instance inst = train.instance(order[i]);
         if (attribute.isNominal()) {
 
           // Need to check if attribute value is missing
           if (inst.isMissing(att)) {
             for (int j = 0; j < dist.length; j++) {
-              dist[j][(int) inst.classValue()] += props[0][j] * inst.weight();
+              dist[j][(int) inst.classValue()] +=
+                props[0][j] * data.weightOf(order[i]);
             }
           }
         } else {
 
           // Can be sure that value is missing, so no test required
           for (int j = 0; j < dist.length; j++) {
-            dist[j][(int) inst.classValue()] += props[0][j] * inst.weight();
+            dist[j][(int) inst.classValue()] +=
+              props[0][j] * data.weightOf(order[i]);
+          }
+        }
+      }
+
+      // Return distribution and split point
+      dists[0] = dist;
+      return splitPoint;
+    }
+
+    /**
+     * Computes numeric class distribution for a binned numeric attribute from
+     * its histogram, only trying split points between bins.
+     * 
+     * @param props
+     * @param dists
+     * @param att the attribute index
+     * @param subsetWeights
+     * @param data the instances reaching the node
+     * @param vals
+     * @return the split point
+     * @throws Exception if a problem occurs
+     */
+    protected double binnedNumericDistribution(double[][] props,
+      double[][][] dists, int att, double[][] subsetWeights,
+      NodeInstances data, double[] vals) throws Exception {
+
+      double splitPoint = Double.NaN;
+      double[][] hist = data.histogram(att);
+      int missing = hist.length - 1;
+      int count = hist[0].length - 1;
+      double[] sums = new double[2];
+      double[] sumSquared = new double[2];
+      double[] sumOfWeights = new double[2];
+      double[] currSums = new double[2];
+      double[] currSumSquared = new double[2];
+      double[] currSumOfWeights = new double[2];
+
+      // Move all instances into second subset
+      for (int b = 0; b < missing; b++) {
+        currSums[1] += hist[b][AttributeBins.SUM];
+        currSumSquared[1] += hist[b][AttributeBins.SUM_SQUARED];
+        currSumOfWeights[1] += hist[b][AttributeBins.SUM_OF_WEIGHTS];
+      }
+
+      double totalSum = currSums[1];
+      double totalSumSquared = currSumSquared[1];
+      double totalSumOfWeights = currSumOfWeights[1];
+
+      sums[1] = currSums[1];
+      sumSquared[1] = currSumSquared[1];
+      sumOfWeights[1] = currSumOfWeights[1];
+
+      // Try the boundaries between non-empty bins as split points
+      int lower = -1;
+      double currVal, bestVal = Double.MAX_VALUE;
+      for (int b = 0; b < missing; b++) {
+        if (hist[b][count] == 0) {
+          continue;
+        }
+
+        if (lower >= 0) {
+          currVal =
+            RandomTree.variance(currSums, currSumSquared, currSumOfWeights);
+          if (currVal < bestVal) {
+            bestVal = currVal;
+            splitPoint = data.getBins().splitPoint(att, lower, b);
+
+            for (int j = 0; j < 2; j++) {
+              sums[j] = currSums[j];
+              sumSquared[j] = currSumSquared[j];
+              sumOfWeights[j] = currSumOfWeights[j];
+            }
+          }
+        }
+        lower = b;
+
+        currSums[0] += hist[b][AttributeBins.SUM];
+        currSumSquared[0] += hist[b][AttributeBins.SUM_SQUARED];
+        currSumOfWeights[0] += hist[b][AttributeBins.SUM_OF_WEIGHTS];
+
+        currSums[1] -= hist[b][AttributeBins.SUM];
+        currSumSquared[1] -= hist[b][AttributeBins.SUM_SQUARED];
+        currSumOfWeights[1] -= hist[b][AttributeBins.SUM_OF_WEIGHTS];
+      }
+
+      // Compute weights
+      props[0] = new double[2];
+      for (int k = 0; k < props[0].length; k++) {
+        props[0][k] = sumOfWeights[k];
+      }
+      if (!(Utils.sum(props[0]) > 0)) {
+        for (int k = 0; k < props[0].length; k++) {
+          props[0][k] = 1.0 / props[0].length;
+        }
+      } else {
+        Utils.normalize(props[0]);
+      }
+
+      // Distribute weights for instances with missing values
+      if (hist[missing][count] > 0) {
+        for (int j = 0; j < 2; j++) {
+          sums[j] += props[0][j] * hist[missing][AttributeBins.SUM];
+          sumSquared[j] +=
+            props[0][j] * hist[missing][AttributeBins.SUM_SQUARED];
+          sumOfWeights[j] +=
+            props[0][j] * hist[missing][AttributeBins.SUM_OF_WEIGHTS];
+        }
+        totalSum += hist[missing][AttributeBins.SUM];
+        totalSumSquared += hist[missing][AttributeBins.SUM_SQUARED];
+        totalSumOfWeights += hist[missing][AttributeBins.SUM_OF_WEIGHTS];
+      }
+
+      // Compute final distribution
+      double[][] dist = new double[2][data.numClasses()];
+      for (int j = 0; j < 2; j++) {
+        if (sumOfWeights[j] > 0) {
+          dist[j][0] = sums[j] / sumOfWeights[j];
+        } else {
+          dist[j][0] = totalSum / totalSumOfWeights;
+        }
+      }
+
+      // Compute variance gain
+      double priorVar =
+        singleVariance(totalSum, totalSumSquared, totalSumOfWeights);
+      double var = variance(sums, sumSquared, sumOfWeights);
+      double gain = priorVar - var;
+
+      // Return distribution and split point
+      subsetWeights[att] = sumOfWeights;
+      dists[0] = dist;
+      vals[att] = gain;
+
+      return splitPoint;
+    }
+
+    /**
+     * Computes class distribution for a binned numeric attribute from its
+     * histogram, only trying split points between bins.
+     * 
+     * @param props
+     * @param dists
+     * @param att the attribute index
+     * @param data the instances reaching the node
+     * @return the split point
+     * @throws Exception if something goes wrong
+     */
+    protected double binnedDistribution(double[][] props, double[][][] dists,
+      int att, NodeInstances data) throws Exception {
+
+      double splitPoint = Double.NaN;
+      double[][] hist = data.histogram(att);
+      int missing = hist.length - 1;
+      int count = hist[0].length - 1;
+      double[][] currDist = new double[2][data.numClasses()];
+      double[][] dist = new double[2][data.numClasses()];
+
+      // Move all instances into second subset
+      for (int b = 0; b < missing; b++) {
+        for (int c = 0; c < count; c++) {
+          currDist[1][c] += hist[b][c];
+        }
+      }
+
+      // Value before splitting
+      double priorVal = priorVal(currDist);
+
+      // Save initial distribution
+      for (int j = 0; j < currDist.length; j++) {
+        System.arraycopy(currDist[j], 0, dist[j], 0, dist[j].length);
+      }
+
+      // Try the boundaries between non-empty bins as split points
+      int lower = -1;
+      double currVal, bestVal = -Double.MAX_VALUE;
+      for (int b = 0; b < missing; b++) {
+        if (hist[b][count] == 0) {
+          continue;
+        }
+
+        if (lower >= 0) {
+
+          // Compute gain for split point
+          currVal = gain(currDist, priorVal);
+
+          // Is the current split point the best point so far?
+          if (currVal > bestVal) {
+            bestVal = currVal;
+            splitPoint = data.getBins().splitPoint(att, lower, b);
+
+            // Save distribution
+            for (int j = 0; j < currDist.length; j++) {
+              System.arraycopy(currDist[j], 0, dist[j], 0, dist[j].length);
+            }
+          }
+        }
+        lower = b;
+
+        // Shift over the weight
+        for (int c = 0; c < count; c++) {
+          currDist[0][c] += hist[b][c];
+          currDist[1][c] -= hist[b][c];
+        }
+      }
+
+      // Compute weights for subsets
+      props[0] = new double[dist.length];
+      for (int k = 0; k < props[0].length; k++) {
+        props[0][k] = Utils.sum(dist[k]);
+      }
+      if (Utils.eq(Utils.sum(props[0]), 0)) {
+        for (int k = 0; k < props[0].length; k++) {
+          props[0][k] = 1.0 / props[0].length;
+        }
+      } else {
+        Utils.normalize(props[0]);
+      }
+
+      // Distribute weights for instances with missing values
+      if (hist[missing][count] > 0) {
+        for (int j = 0; j < dist.length; j++) {
+          for (int c = 0; c < count; c++) {
+            dist[j][c] += props[0][j] * hist[missing][c];
           }
         }
       }
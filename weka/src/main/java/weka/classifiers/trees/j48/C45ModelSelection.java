@@ -22,6 +22,7 @@
 package weka.classifiers.trees.j48;
 
 import java.util.Enumeration;
+import java.util.concurrent.ExecutorService;
 
 import weka.core.Attribute;
 import weka.core.Instances;
@@ -51,6 +52,15 @@ public class C45ModelSelection extends ModelSelection {
   /** Do not relocate split point to actual data value */
   protected final boolean m_doNotMakeSplitPointActualValue;
 
+  /** Builds the candidate splits concurrently, null if not */
+  protected transient ExecutorService m_executor;
+
+  /**
+   * Whether the candidate splits don't depend on the order of the instances,
+   * so that they can be built concurrently (determined once for all data)
+   */
+  protected transient boolean m_orderIndependent;
+
   /**
    * Initializes the split selection method with the given parameters.
    * 
@@ -65,10 +75,54 @@ public class C45ModelSelection extends ModelSelection {
    */
   public C45ModelSelection(int minNoObj, Instances allData,
     boolean useMDLcorrection, boolean doNotMakeSplitPointActualValue) {
+    this(minNoObj, allData, useMDLcorrection, doNotMakeSplitPointActualValue,
+      null);
+  }
+
+  /**
+   * Initializes the split selection method with the given parameters.
+   * 
+   * @param minNoObj minimum number of instances that have to occur in at least
+   *          two subsets induced by split
+   * @param allData FULL training dataset (necessary for selection of split
+   *          points).
+   * @param useMDLcorrection whether to use MDL adjustement when finding splits
+   *          on numeric attributes
+   * @param doNotMakeSplitPointActualValue if true, split point is not relocated
+   *          by scanning the entire dataset for the closest data value
+   * @param executor the executor to build the candidate splits with
+   *          concurrently, null to build them one after the other
+   */
+  public C45ModelSelection(int minNoObj, Instances allData,
+    boolean useMDLcorrection, boolean doNotMakeSplitPointActualValue,
+    ExecutorService executor) {
     m_minNoObj = minNoObj;
     m_allData = allData;
     m_useMDLcorrection = useMDLcorrection;
     m_doNotMakeSplitPointActualValue = doNotMakeSplitPointActualValue;
+    m_executor = executor;
+    m_orderIndependent = (executor != null) && isOrderIndependent(allData);
+  }
+
+  /**
+   * Returns the executor the candidate splits are built with.
+   * 
+   * @return the executor, null if they are built one after the other
+   */
+  @Override
+  public ExecutorService getExecutor() {
+    return m_executor;
+  }
+
+  /**
+   * Returns whether the candidate splits are built concurrently.
+   * 
+   * @return true if there is an executor and the training data is
+   *         independent of the order of the instances
+   */
+  @Override
+  public boolean buildsModelsConcurrently() {
+    return m_orderIndependent;
   }
 
   /**
@@ -77,6 +131,7 @@ public class C45ModelSelection extends ModelSelection {
   public void cleanup() {
 
     m_allData = null;
+    m_executor = null;
   }
 
   /**
@@ -127,17 +182,21 @@ public class C45ModelSelection extends ModelSelection {
       currentModel = new C45Split[data.numAttributes()];
       sumOfWeights = data.sumOfWeights();
 
+      // Get models for all attributes apart from the class attribute.
+      for (i = 0; i < data.numAttributes(); i++) {
+        if (i != (data).classIndex()) {
+          currentModel[i] = new C45Split(i, m_minNoObj, sumOfWeights,
+            m_useMDLcorrection);
+        }
+      }
+      buildModels(currentModel, data, m_executor, m_orderIndependent);
+
       // For each attribute.
       for (i = 0; i < data.numAttributes(); i++) {
 
         // Apart from class attribute.
         if (i != (data).classIndex()) {
 
-          // Get models for current attribute.
-          currentModel[i] = new C45Split(i, m_minNoObj, sumOfWeights,
-            m_useMDLcorrection);
-          currentModel[i].buildClassifier(data);
-
           // Check if useful split for current attribute
           // exists and check for enumerated attributes with
           // a lot of values.
@@ -22,8 +22,13 @@
 package weka.classifiers.trees.j48;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinTask;
 
 import weka.core.Capabilities;
 import weka.core.CapabilitiesHandler;
@@ -32,6 +37,7 @@ import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
 import weka.core.Utils;
 
 /**
@@ -169,10 +175,7 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
       localInstances = m_localModel.split(data);
       data = null;
       m_sons = new ClassifierTree[m_localModel.numSubsets()];
-      for (int i = 0; i < m_sons.length; i++) {
-        m_sons[i] = getNewTree(localInstances[i]);
-        localInstances[i] = null;
-      }
+      buildSons(localInstances, null);
     } else {
       m_isLeaf = true;
       if (Utils.eq(data.sumOfWeights(), 0)) {
@@ -194,7 +197,6 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
     throws Exception {
 
     Instances[] localTrain, localTest;
-    int i;
 
     if (keepData) {
       m_train = train;
@@ -210,11 +212,7 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
       train = null;
       test = null;
       m_sons = new ClassifierTree[m_localModel.numSubsets()];
-      for (i = 0; i < m_sons.length; i++) {
-        m_sons[i] = getNewTree(localTrain[i], localTest[i]);
-        localTrain[i] = null;
-        localTest[i] = null;
-      }
+      buildSons(localTrain, localTest);
     } else {
       m_isLeaf = true;
       if (Utils.eq(train.sumOfWeights(), 0)) {
@@ -225,6 +223,59 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
     }
   }
 
+  /**
+   * Builds the sons from the given subsets of the data. If the tree is built
+   * in the fork-join pool of the model selection (see
+   * ModelSelection.getExecutor()), sons with at least
+   * ModelSelection.MIN_PARALLEL_INSTANCES training instances are built as
+   * tasks of their own while the current thread builds the others. The sons
+   * do not share any data, so the result is the same either way.
+   * 
+   * @param localTrain the training data for the sons, entries are set to null
+   *          once used
+   * @param localTest the test data for the sons, null if there is none
+   * @throws Exception if something goes wrong
+   */
+  protected void buildSons(Instances[] localTrain, Instances[] localTest)
+    throws Exception {
+
+    ExecutorService executor = m_toSelectModel.getExecutor();
+    boolean parallel = (executor != null)
+      && (executor == ForkJoinTask.getPool());
+    List<ForkJoinTask<ClassifierTree>> tasks =
+      new ArrayList<ForkJoinTask<ClassifierTree>>(m_sons.length);
+    for (int i = 0; i < m_sons.length; i++) {
+      if (parallel && (localTrain[i].numInstances()
+        >= ModelSelection.MIN_PARALLEL_INSTANCES)) {
+        final Instances train = localTrain[i];
+        final Instances test = (localTest != null) ? localTest[i] : null;
+        tasks.add(ForkJoinTask.adapt(new Callable<ClassifierTree>() {
+          @Override
+          public ClassifierTree call() throws Exception {
+            return (test == null) ? getNewTree(train) : getNewTree(train, test);
+          }
+        }).fork());
+      } else {
+        tasks.add(null);
+        if (localTest == null) {
+          m_sons[i] = getNewTree(localTrain[i]);
+        } else {
+          m_sons[i] = getNewTree(localTrain[i], localTest[i]);
+        }
+      }
+      localTrain[i] = null;
+      if (localTest != null) {
+        localTest[i] = null;
+      }
+    }
+    List<ClassifierTree> sons = TaskUtils.waitForAll(tasks);
+    for (int i = 0; i < m_sons.length; i++) {
+      if (tasks.get(i) != null) {
+        m_sons[i] = sons.get(i);
+      }
+    }
+  }
+
   /**
    * Classifies an instance.
    * 
@@ -279,15 +330,29 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
 
     double[] doubles = new double[instance.numClasses()];
 
-    for (int i = 0; i < doubles.length; i++) {
+    distributionForInstance(instance, useLaplace, doubles);
+
+    return doubles;
+  }
+
+  /**
+   * Writes class probabilities for a weighted instance into the given array.
+   * 
+   * @param instance the instance to get the distribution for
+   * @param useLaplace whether to use laplace or not
+   * @param doubles the array to write the distribution to
+   * @throws Exception if something goes wrong
+   */
+  public final void distributionForInstance(Instance instance,
+    boolean useLaplace, double[] doubles) throws Exception {
+
+    for (int i = 0; i < instance.numClasses(); i++) {
       if (!useLaplace) {
         doubles[i] = getProbs(i, instance, 1);
       } else {
         doubles[i] = getProbsLaplace(i, instance, 1);
       }
     }
-
-    return doubles;
   }
 
   /**
@@ -22,9 +22,16 @@
 package weka.classifiers.trees.j48;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionHandler;
+import weka.core.TaskUtils;
 
 /**
  * Abstract class for model selection criteria.
@@ -38,6 +45,9 @@ public abstract class ModelSelection
   /** for serialization */
   private static final long serialVersionUID = -4850147125096133642L;
 
+  /** Minimum number of instances for building split models concurrently. */
+  public static final int MIN_PARALLEL_INSTANCES = 1000;
+
   /**
    * Selects a model for the given dataset.
    *
@@ -55,4 +65,95 @@ public abstract class ModelSelection
 
     throw new Exception("Model selection method not implemented");
   }
+
+  /**
+   * Returns the executor the split models are built with. Trees that are
+   * built in this executor, if it is a fork-join pool, also build their large
+   * subtrees concurrently.
+   *
+   * @return the executor, null if the models are built one after the other
+   */
+  public ExecutorService getExecutor() {
+    return null;
+  }
+
+  /**
+   * Returns whether the split models are built concurrently. This is only the
+   * case if there is an executor and the training data is independent of the
+   * order of the instances (see isOrderIndependent()).
+   *
+   * @return true if the split models are built concurrently
+   */
+  public boolean buildsModelsConcurrently() {
+    return false;
+  }
+
+  /**
+   * Returns whether the split models for the data, and for all subsets split
+   * off it, are independent of the order of the instances. Numeric splits
+   * sort the data in place, so the order seen by a model depends on the
+   * models built before it. The order only matters when weights are summed,
+   * and these sums are exact if all weights are integral. Subsets keep the
+   * weights unless missing values are distributed over them, so this only
+   * needs to be checked once, for the full training data.
+   *
+   * @param data the data to check
+   * @return true if all weights are integral and there are no missing values
+   */
+  protected static boolean isOrderIndependent(Instances data) {
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance inst = data.instance(i);
+      if ((inst.weight() != Math.rint(inst.weight()))
+        || inst.hasMissingValue()) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Builds the given split models on the data, concurrently if an executor
+   * is given and there are enough instances. Since splits on numeric
+   * attributes sort the data, each model built concurrently works on its own
+   * copy, which leaves the order of the given data unchanged. To get the same
+   * models as when building them one after the other, this is only done if
+   * the result does not depend on that order (see isOrderIndependent()).
+   *
+   * @param models the models to build, null entries are skipped
+   * @param data the data to build the models on
+   * @param executor the executor to use, null to build the models one after
+   *          the other
+   * @param orderIndependent whether the full training data is independent of
+   *          the order of the instances
+   * @exception Exception if a model can't be built
+   */
+  protected static void buildModels(ClassifierSplitModel[] models,
+    final Instances data, ExecutorService executor, boolean orderIndependent)
+    throws Exception {
+
+    if ((executor == null) || !orderIndependent
+      || (data.numInstances() < MIN_PARALLEL_INSTANCES)) {
+      for (ClassifierSplitModel model : models) {
+        if (model != null) {
+          model.buildClassifier(data);
+        }
+      }
+      return;
+    }
+
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (final ClassifierSplitModel model : models) {
+      if (model != null) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            model.buildClassifier(new Instances(data));
+            return null;
+          }
+        }));
+      }
+    }
+    TaskUtils.waitForAll(results);
+  }
 }
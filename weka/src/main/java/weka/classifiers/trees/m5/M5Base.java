@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.functions.LinearRegression;
@@ -34,6 +35,7 @@ import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
+import weka.core.TaskUtils;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
@@ -137,6 +139,11 @@ public abstract class M5Base extends AbstractClassifier implements
    */
   protected double m_minNumInstances = 4;
 
+  /**
+   * The number of threads to build the trees with, 0 for the number of cores
+   */
+  protected int m_numThreads = 1;
+
   /**
    * Constructor
    */
@@ -200,6 +207,10 @@ public abstract class M5Base extends AbstractClassifier implements
     newVector.add(new Option("\tSet minimum number of instances "
       + "per leaf\n\t(default 4)", "M", 1, "-M <minimum number of instances>"));
 
+    newVector.add(new Option("\tThe number of threads to build the tree "
+      + "with,\n\t0 for the number of cores.\n\t(default 1)", "num-threads", 1,
+      "-num-threads <num>"));
+
     newVector.addAll(Collections.list(super.listOptions()));
 
     return newVector.elements();
@@ -232,6 +243,12 @@ public abstract class M5Base extends AbstractClassifier implements
     if (optionString.length() != 0) {
       setMinNumInstances((new Double(optionString)).doubleValue());
     }
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    } else {
+      setNumThreads(1);
+    }
     super.setOptions(options);
     Utils.checkForRemainingOptions(options);
   }
@@ -261,6 +278,11 @@ public abstract class M5Base extends AbstractClassifier implements
     result.add("-M");
     result.add("" + getMinNumInstances());
 
+    if (getNumThreads() != 1) {
+      result.add("-num-threads");
+      result.add("" + getNumThreads());
+    }
+
     Collections.addAll(result, super.getOptions());
 
     return result.toArray(new String[result.size()]);
@@ -408,6 +430,36 @@ public abstract class M5Base extends AbstractClassifier implements
     return m_minNumInstances;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to build the tree with, 0 for the number "
+      + "of cores.";
+  }
+
+  /**
+   * Set the number of threads to build the tree with, 0 for the number of
+   * cores
+   * 
+   * @param numThreads the number of threads
+   */
+  public void setNumThreads(int numThreads) {
+    m_numThreads = numThreads;
+  }
+
+  /**
+   * Get the number of threads to build the tree with
+   * 
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
   /**
    * Returns default capabilities of the classifier, i.e., of LinearRegression.
    * 
@@ -468,43 +520,52 @@ public abstract class M5Base extends AbstractClassifier implements
 
     Rule tempRule;
 
-    if (m_generateRules) {
-      Instances tempInst = m_instances;
-
-      do {
+    ForkJoinPool pool = TaskUtils.newPool(m_numThreads);
+    try {
+      if (m_generateRules) {
+        Instances tempInst = m_instances;
+
+        do {
+          tempRule = new Rule();
+          tempRule.setSmoothing(!m_unsmoothedPredictions);
+          tempRule.setRegressionTree(m_regressionTree);
+          tempRule.setUnpruned(m_useUnpruned);
+          tempRule.setSaveInstances(false);
+          tempRule.setMinNumInstances(m_minNumInstances);
+          tempRule.setPool(pool);
+          tempRule.buildClassifier(tempInst);
+          m_ruleSet.add(tempRule);
+          // System.err.println("Built rule : "+tempRule.toString());
+          tempInst = tempRule.notCoveredInstances();
+          tempRule.freeNotCoveredInstances();
+        } while (tempInst.numInstances() > 0);
+      } else {
+        // just build a single tree
         tempRule = new Rule();
+
+        tempRule.setUseTree(true);
+        // tempRule.setGrowFullTree(true);
         tempRule.setSmoothing(!m_unsmoothedPredictions);
+        tempRule.setSaveInstances(m_saveInstances);
         tempRule.setRegressionTree(m_regressionTree);
         tempRule.setUnpruned(m_useUnpruned);
-        tempRule.setSaveInstances(false);
         tempRule.setMinNumInstances(m_minNumInstances);
-        tempRule.buildClassifier(tempInst);
-        m_ruleSet.add(tempRule);
-        // System.err.println("Built rule : "+tempRule.toString());
-        tempInst = tempRule.notCoveredInstances();
-        tempRule.freeNotCoveredInstances();
-      } while (tempInst.numInstances() > 0);
-    } else {
-      // just build a single tree
-      tempRule = new Rule();
+        tempRule.setPool(pool);
 
-      tempRule.setUseTree(true);
-      // tempRule.setGrowFullTree(true);
-      tempRule.setSmoothing(!m_unsmoothedPredictions);
-      tempRule.setSaveInstances(m_saveInstances);
-      tempRule.setRegressionTree(m_regressionTree);
-      tempRule.setUnpruned(m_useUnpruned);
-      tempRule.setMinNumInstances(m_minNumInstances);
+        Instances temp_train;
 
-      Instances temp_train;
+        temp_train = m_instances;
 
-      temp_train = m_instances;
+        tempRule.buildClassifier(temp_train);
 
-      tempRule.buildClassifier(temp_train);
-
-      m_ruleSet.add(tempRule);
+        m_ruleSet.add(tempRule);
 
-      // System.err.print(tempRule.m_topOfTree.treeToString(0));
+        // System.err.print(tempRule.m_topOfTree.treeToString(0));
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
     }
 
     // save space
@@ -22,11 +22,13 @@
 package weka.classifiers.trees.m5;
 
 import java.io.Serializable;
+import java.util.concurrent.ForkJoinPool;
 
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
 import weka.core.Utils;
 
 /**
@@ -143,6 +145,11 @@ public class Rule implements Serializable, RevisionHandler {
    */
   private double m_minNumInstances;
 
+  /**
+   * The pool to build the tree in, null to build it on the calling thread
+   */
+  private transient ForkJoinPool m_pool;
+
   /**
    * Constructor declaration
    * 
@@ -182,7 +189,12 @@ public class Rule implements Serializable, RevisionHandler {
     m_topOfTree.setSaveInstances(m_saveInstances);
     m_topOfTree.setRegressionTree(m_regressionTree);
     m_topOfTree.setMinNumInstances(m_minNumInstances);
-    m_topOfTree.buildClassifier(m_instances);
+    if (m_pool == null) {
+      m_topOfTree.buildClassifier(m_instances);
+    } else {
+      m_topOfTree.setPool(m_pool);
+      TaskUtils.join(m_pool.submit(m_topOfTree.buildTask(m_instances)));
+    }
 
     if (!m_useUnpruned) {
       m_topOfTree.prune();
@@ -612,6 +624,15 @@ public class Rule implements Serializable, RevisionHandler {
     return m_minNumInstances;
   }
 
+  /**
+   * Set the fork-join pool to build the tree in, see RuleNode.setPool()
+   * 
+   * @param pool the pool, null to build the tree on the calling thread
+   */
+  public void setPool(ForkJoinPool pool) {
+    m_pool = pool;
+  }
+
   public RuleNode getM5RootNode() {
     return m_topOfTree;
   }
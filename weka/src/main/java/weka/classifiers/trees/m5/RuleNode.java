@@ -22,6 +22,9 @@
 package weka.classifiers.trees.m5;
 
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Evaluation;
@@ -29,6 +32,7 @@ import weka.classifiers.functions.LinearRegression;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
 import weka.core.Utils;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Remove;
@@ -167,6 +171,17 @@ public class RuleNode extends AbstractClassifier {
    */
   private boolean m_regressionTree;
 
+  /**
+   * The minimum number of instances at a node for building its left subtree
+   * concurrently
+   */
+  protected static final int MIN_PARALLEL_INSTANCES = 1000;
+
+  /**
+   * The pool the tree is built in, null if it is built on the calling thread
+   */
+  private transient ForkJoinPool m_pool;
+
   /**
    * Creates a new <code>RuleNode</code> instance.
    * 
@@ -309,18 +324,30 @@ public class RuleNode extends AbstractClassifier {
         leftSubset.compactify();
         rightSubset.compactify();
 
-        // build left and right nodes
+        // build left and right nodes, a large left one concurrently if
+        // possible
         m_left = new RuleNode(m_globalDeviation, m_globalAbsDeviation, this);
         m_left.setMinNumInstances(m_splitNum);
         m_left.setRegressionTree(m_regressionTree);
         m_left.setSaveInstances(m_saveInstances);
-        m_left.buildClassifier(leftSubset);
+        m_left.setPool(m_pool);
+        ForkJoinTask<Void> leftTask = null;
+        if ((m_pool != null)
+          && (leftSubset.numInstances() >= MIN_PARALLEL_INSTANCES)) {
+          leftTask = m_left.buildTask(leftSubset).fork();
+        } else {
+          m_left.buildClassifier(leftSubset);
+        }
 
         m_right = new RuleNode(m_globalDeviation, m_globalAbsDeviation, this);
         m_right.setMinNumInstances(m_splitNum);
         m_right.setRegressionTree(m_regressionTree);
         m_right.setSaveInstances(m_saveInstances);
+        m_right.setPool(m_pool);
         m_right.buildClassifier(rightSubset);
+        if (leftTask != null) {
+          TaskUtils.join(leftTask);
+        }
 
         // now find out what attributes are tested in the left and right
         // subtrees and use them to learn a linear model for this node
@@ -1040,6 +1067,35 @@ public class RuleNode extends AbstractClassifier {
     }
   }
 
+  /**
+   * Set the fork-join pool the tree is built in. A node built in the pool
+   * builds a left subtree with at least MIN_PARALLEL_INSTANCES instances as
+   * a task of its own. The subtrees do not share any data, so the tree is the
+   * same as when built on a single thread.
+   * 
+   * @param pool the pool, null to build the tree on the calling thread
+   */
+  protected void setPool(ForkJoinPool pool) {
+    m_pool = pool;
+  }
+
+  /**
+   * Creates a task that builds this node and its subtrees.
+   * 
+   * @param data the instances on which to build this node
+   * @return the task
+   */
+  protected ForkJoinTask<Void> buildTask(final Instances data) {
+
+    return ForkJoinTask.adapt(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        buildClassifier(data);
+        return null;
+      }
+    });
+  }
+
   /**
    * Set whether to save instances for visualization purposes. Default is to
    * save memory.
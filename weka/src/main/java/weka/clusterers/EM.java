@@ -38,6 +38,7 @@ import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
 import weka.core.Utils;
 import weka.core.WeightedInstancesHandler;
 import weka.estimators.DiscreteEstimator;
@@ -567,8 +568,11 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
    *         explorer/experimenter gui
    */
   public String numExecutionSlotsTipText() {
-    return "The number of execution slots (threads) to use. "
-      + "Set equal to the number of available cpu/cores";
+    return "The number of execution slots (threads) to use for the k-means "
+      + "runs and for the E and M steps, which process partitions of at "
+      + "least " + TaskUtils.MIN_PARTITION_SIZE + " instances concurrently. "
+      + "The clusters do not depend on this setting. Set equal to the number "
+      + "of available cpu/cores";
   }
 
   /**
@@ -916,28 +920,6 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
     Utils.normalize(m_priors);
   }
 
-  /**
-   * calculate prior probabilites for the clusters
-   * 
-   * @param inst the instances
-   * @throws Exception if priors can't be calculated
-   **/
-  private void estimate_priors(Instances inst) throws Exception {
-
-    for (int i = 0; i < m_num_clusters; i++) {
-      m_priorsPrev[i] = m_priors[i];
-      m_priors[i] = 0.0;
-    }
-
-    for (int i = 0; i < inst.numInstances(); i++) {
-      for (int j = 0; j < m_num_clusters; j++) {
-        m_priors[j] += inst.instance(i).weight() * m_weights[i][j];
-      }
-    }
-
-    Utils.normalize(m_priors);
-  }
-
   /** Constant for normal distribution. */
   private static double m_normConst = Math.log(Math.sqrt(2 * Math.PI));
 
@@ -991,65 +973,105 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
     m_executorPool = Executors.newFixedThreadPool(m_executionSlots);
   }
 
+  /**
+   * Runs the tasks for the partitions, in the executor pool if there is more
+   * than one execution slot.
+   * 
+   * @param tasks the tasks
+   * @return the results of the tasks, in the order of the tasks
+   * @throws Exception if a task fails, once all tasks have finished
+   */
+  protected <T> List<T> runPartitions(List<? extends Callable<T>> tasks)
+    throws Exception {
+    if (m_executionSlots <= 1 || tasks.size() == 1 || m_executorPool == null) {
+      List<T> results = new ArrayList<T>(tasks.size());
+      for (Callable<T> task : tasks) {
+        results.add(task.call());
+      }
+      return results;
+    }
+
+    List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+    for (Callable<T> task : tasks) {
+      futures.add(m_executorPool.submit(task));
+    }
+    // Wait for all tasks before passing on the first failure, so that none
+    // of them still works on the shared state afterwards
+    return TaskUtils.waitForAll(futures);
+  }
+
+  /**
+   * E step for a partition of the instances. Returns the weighted sum of the
+   * log densities and the sum of the instance weights.
+   */
   private class ETask implements Callable<double[]> {
 
     protected int m_lowNum;
     protected int m_highNum;
     protected boolean m_changeWeights;
     protected Instances m_eData;
+    protected double[] m_logPriors;
 
     public ETask(Instances data, int lowInstNum, int highInstNum,
-      boolean changeWeights) {
+      boolean changeWeights, double[] logPriors) {
       m_eData = data;
       m_lowNum = lowInstNum;
       m_highNum = highInstNum;
       m_changeWeights = changeWeights;
+      m_logPriors = logPriors;
     }
 
     @Override
-    public double[] call() {
-      double[] llk = new double[2];
+    public double[] call() throws Exception {
       double loglk = 0.0, sOW = 0.0;
-      try {
 
-        for (int i = m_lowNum; i < m_highNum; i++) {
-          Instance in = m_eData.instance(i);
+      for (int i = m_lowNum; i < m_highNum; i++) {
+        Instance in = m_eData.instance(i);
+
+        // log joint densities, computed once for both the log likelihood and
+        // the cluster membership probabilities
+        double[] a = logDensityPerClusterForInstance(in);
+        for (int j = 0; j < a.length; j++) {
+          a[j] += m_logPriors[j];
+        }
+        double max = a[Utils.maxIndex(a)];
+        double sum = 0.0;
+        for (double element : a) {
+          sum += Math.exp(element - max);
+        }
 
-          loglk += in.weight() * EM.this.logDensityForInstance(in);
-          sOW += in.weight();
+        loglk += in.weight() * (max + Math.log(sum));
+        sOW += in.weight();
 
-          if (m_changeWeights) {
-            m_weights[i] = distributionForInstance(in);
-          }
+        if (m_changeWeights) {
+          m_weights[i] = Utils.logs2probs(a);
         }
-        // completedETask(loglk, sOW, true);
-      } catch (Exception ex) {
-        // completedETask(0, 0, false);
       }
 
-      llk[0] = loglk;
-      llk[1] = sOW;
-
-      return llk;
+      return new double[] { loglk, sOW };
     }
   }
 
+  /**
+   * M step for a partition of the instances. Sums the weighted counts,
+   * sufficient statistics and priors of the clusters.
+   */
   private class MTask implements Callable<MTask> {
 
-    // protected Instances m_dataChunk;
     protected int m_start;
     protected int m_end;
     protected Instances m_inst;
 
-    protected DiscreteEstimator[][] m_taskModel;
-    double[][][] m_taskModelNormal;
+    protected double[] m_taskPriors;
+    protected Estimator[][] m_taskModel;
+    protected double[][][] m_taskModelNormal;
 
-    public MTask(Instances inst, int start, int end,
-      DiscreteEstimator[][] discEst, double[][][] numericEst) {
-      // m_dataChunk = chunk;
+    public MTask(Instances inst, int start, int end, double[] priors,
+      Estimator[][] discEst, double[][][] numericEst) {
       m_start = start;
       m_end = end;
       m_inst = inst;
+      m_taskPriors = priors;
       m_taskModel = discEst;
       m_taskModelNormal = numericEst;
     }
@@ -1057,6 +1079,12 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
     @Override
     public MTask call() {
 
+      for (int l = m_start; l < m_end; l++) {
+        for (int j = 0; j < m_num_clusters; j++) {
+          m_taskPriors[j] += m_inst.instance(l).weight() * m_weights[l][j];
+        }
+      }
+
       for (int l = m_start; l < m_end; l++) {
         Instance in = m_inst.instance(l);
         for (int i = 0; i < m_num_clusters; i++) {
@@ -1074,7 +1102,6 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
         }
       }
 
-      // completedMTask(this, true);
       return this;
     }
   }
@@ -1127,42 +1154,81 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
   }
 
   /**
-   * The M step of the EM algorithm.
+   * The M step of the EM algorithm. The instances are split into partitions,
+   * whose sums are computed concurrently if there is more than one execution
+   * slot, and then added up in the order of the partitions.
    * 
    * @param inst the training instances
    * @throws Exception if something goes wrong
    */
   private void M(Instances inst) throws Exception {
 
-    int i, j, l;
-
     new_estimators();
-    estimate_priors(inst);
 
-    // sum
-    for (l = 0; l < inst.numInstances(); l++) {
-      Instance in = inst.instance(l);
-      for (i = 0; i < m_num_clusters; i++) {
-        for (j = 0; j < m_num_attribs; j++) {
+    for (int i = 0; i < m_num_clusters; i++) {
+      m_priorsPrev[i] = m_priors[i];
+      m_priors[i] = 0.0;
+    }
+
+    // the first partition sums directly into the model
+    int numPartitions = TaskUtils.numPartitions(inst.numInstances());
+    List<MTask> tasks = new ArrayList<MTask>(numPartitions);
+    for (int p = 0; p < numPartitions; p++) {
+      int start =
+        TaskUtils.partitionStart(inst.numInstances(), p, numPartitions);
+      int end =
+        TaskUtils.partitionStart(inst.numInstances(), p + 1, numPartitions);
+      if (p == 0) {
+        tasks.add(new MTask(inst, start, end, m_priors, m_model,
+          m_modelNormal));
+        continue;
+      }
+
+      DiscreteEstimator[][] model = new DiscreteEstimator[m_num_clusters][m_num_attribs];
+      for (int i = 0; i < m_num_clusters; i++) {
+        for (int j = 0; j < m_num_attribs; j++) {
           if (inst.attribute(j).isNominal()) {
-            m_model[i][j]
-              .addValue(in.value(j), in.weight() * m_weights[l][i]);
+            model[i][j] = new DiscreteEstimator(inst.attribute(j).numValues(),
+              false);
+          }
+        }
+      }
+      tasks.add(new MTask(inst, start, end, new double[m_num_clusters], model,
+        new double[m_num_clusters][m_num_attribs][3]));
+    }
+    runPartitions(tasks);
+
+    // aggregate
+    for (int p = 1; p < numPartitions; p++) {
+      MTask m = tasks.get(p);
+      for (int i = 0; i < m_num_clusters; i++) {
+        m_priors[i] += m.m_taskPriors[i];
+        for (int j = 0; j < m_num_attribs; j++) {
+          if (inst.attribute(j).isNominal()) {
+            for (int k = 0; k < inst.attribute(j).numValues(); k++) {
+              m_model[i][j].addValue(k,
+                ((DiscreteEstimator) m.m_taskModel[i][j]).getCount(k));
+            }
           } else {
-            m_modelNormal[i][j][0] += (in.value(j) * in.weight() * m_weights[l][i]);
-            m_modelNormal[i][j][2] += in.weight() * m_weights[l][i];
-            m_modelNormal[i][j][1] += (in.value(j) * in.value(j)
-              * in.weight() * m_weights[l][i]);
+            m_modelNormal[i][j][0] += m.m_taskModelNormal[i][j][0];
+            m_modelNormal[i][j][2] += m.m_taskModelNormal[i][j][2];
+            m_modelNormal[i][j][1] += m.m_taskModelNormal[i][j][1];
           }
         }
       }
     }
 
+    Utils.normalize(m_priors);
+
     // re-estimate Gaussian parameters
     M_reEstimate(inst);
   }
 
   /**
    * The E step of the EM algorithm. Estimate cluster membership probabilities.
+   * The instances are split into partitions, which are processed concurrently
+   * if there is more than one execution slot, and the log likelihoods are
+   * added up in the order of the partitions.
    * 
    * @param inst the training instances
    * @param change_weights whether to change the weights
@@ -1173,26 +1239,36 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
 
     double loglk = 0.0, sOW = 0.0;
 
-    for (int l = 0; l < inst.numInstances(); l++) {
-
-      Instance in = inst.instance(l);
-
-      loglk += in.weight() * logDensityForInstance(in);
-      sOW += in.weight();
+    if (inst.numInstances() == 0) {
+      return 0;
+    }
 
-      if (change_weights) {
-        m_weights[l] = distributionForInstance(in);
+    double[] logPriors = new double[m_num_clusters];
+    for (int i = 0; i < m_num_clusters; i++) {
+      if (m_priors[i] > 0) {
+        logPriors[i] = Math.log(m_priors[i]);
+      } else {
+        throw new IllegalArgumentException("Cluster empty!");
       }
     }
 
+    int numPartitions = TaskUtils.numPartitions(inst.numInstances());
+    List<ETask> tasks = new ArrayList<ETask>(numPartitions);
+    for (int p = 0; p < numPartitions; p++) {
+      tasks.add(new ETask(inst,
+        TaskUtils.partitionStart(inst.numInstances(), p, numPartitions),
+        TaskUtils.partitionStart(inst.numInstances(), p + 1, numPartitions),
+        change_weights, logPriors));
+    }
+    for (double[] r : runPartitions(tasks)) {
+      loglk += r[0];
+      sOW += r[1];
+    }
+
     if (sOW <= 0) { // In case all weights are zero
       return 0;
     }
-    
-    // reestimate priors
-    /*
-     * if (change_weights) { estimate_priors(inst); }
-     */
+
     return loglk / sOW;
   }
 
@@ -1791,140 +1867,30 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
     }
     startExecutorPool();
 
-    // setDefaultStdDevs(theInstances);
-    // cross validate to determine number of clusters?
-    if (m_initialNumClusters == -1) {
-      if (m_theInstances.numInstances() > 9) {
-        CVClusters();
-        m_rr = new Random(getSeed());
-        for (int i = 0; i < 10; i++) {
-          m_rr.nextDouble();
-        }
-      } else {
-        m_num_clusters = 1;
-      }
-    }
-
-    // fit full training set
-    EM_Init(m_theInstances);
-    double loglikely = iterate(m_theInstances, m_verbose);
-    if (m_Debug) {
-      System.err.println("Current log-likelihood: " + loglikely);
-    }
-
-    m_executorPool.shutdown();
-  }
-
-  /**
-   * Launch E step tasks
-   * 
-   * @param inst the instances to be clustered
-   * @return the log likelihood from this E step
-   * @throws Exception if a problem occurs
-   */
-  protected double launchESteps(Instances inst) throws Exception {
-    int numPerTask = inst.numInstances() / m_executionSlots;
-    double eStepLogL = 0;
-    double eStepSow = 0;
-
-    if (m_executionSlots <= 1 || inst.numInstances() < 2 * m_executionSlots) {
-      return E(inst, true);
-    }
-
-    List<Future<double[]>> results = new ArrayList<Future<double[]>>();
-
-    for (int i = 0; i < m_executionSlots; i++) {
-      int start = i * numPerTask;
-      int end = start + numPerTask;
-      if (i == m_executionSlots - 1) {
-        end = inst.numInstances();
-      }
-      ETask newTask = new ETask(inst, start, end, true);
-      Future<double[]> futureE = m_executorPool.submit(newTask);
-      results.add(futureE);
-      // m_executorPool.execute(newTask);
-      // et[i] = newTask;
-      // newTask.run();
-    }
-
-    for (int i = 0; i < results.size(); i++) {
-      double[] r = results.get(i).get();
-
-      eStepLogL += r[0];
-      eStepSow += r[1];
-    }
-
-    eStepLogL /= eStepSow;
-
-    return eStepLogL;
-  }
-
-  /**
-   * Launch the M step tasks
-   * 
-   * @param inst the instances to be clustered
-   * @throws Exception if a problem occurs
-   */
-  protected void launchMSteps(Instances inst) throws Exception {
-    if (m_executionSlots <= 1 || inst.numInstances() < 2 * m_executionSlots) {
-      M(inst);
-      return;
-    }
-
-    // aggregated estimators
-    new_estimators();
-    estimate_priors(inst);
-
-    int numPerTask = inst.numInstances() / m_executionSlots;
-    List<Future<MTask>> results = new ArrayList<Future<MTask>>();
-
-    for (int i = 0; i < m_executionSlots; i++) {
-      int start = i * numPerTask;
-      int end = start + numPerTask;
-      if (i == m_executionSlots - 1) {
-        end = inst.numInstances();
-      }
-
-      DiscreteEstimator[][] model = new DiscreteEstimator[m_num_clusters][m_num_attribs];
-      double[][][] normal = new double[m_num_clusters][m_num_attribs][3];
-      for (int ii = 0; ii < m_num_clusters; ii++) {
-        for (int j = 0; j < m_num_attribs; j++) {
-          if (m_theInstances.attribute(j).isNominal()) {
-            model[ii][j] = new DiscreteEstimator(m_theInstances.attribute(j)
-              .numValues(), false);
-          } else {
-            normal[ii][j][0] = normal[ii][j][1] = normal[ii][j][2] = 0.0;
+    try {
+      // setDefaultStdDevs(theInstances);
+      // cross validate to determine number of clusters?
+      if (m_initialNumClusters == -1) {
+        if (m_theInstances.numInstances() > 9) {
+          CVClusters();
+          m_rr = new Random(getSeed());
+          for (int i = 0; i < 10; i++) {
+            m_rr.nextDouble();
           }
+        } else {
+          m_num_clusters = 1;
         }
       }
 
-      MTask newTask = new MTask(inst, start, end, model, normal);
-      Future<MTask> futureM = m_executorPool.submit(newTask);
-      results.add(futureM);
-      // newTask.run();
-    }
-
-    for (Future<MTask> t : results) {
-      MTask m = t.get();
-
-      // aggregate
-      for (int i = 0; i < m_num_clusters; i++) {
-        for (int j = 0; j < m_num_attribs; j++) {
-          if (m_theInstances.attribute(j).isNominal()) {
-            for (int k = 0; k < m_theInstances.attribute(j).numValues(); k++) {
-              m_model[i][j].addValue(k, m.m_taskModel[i][j].getCount(k));
-            }
-          } else {
-            m_modelNormal[i][j][0] += m.m_taskModelNormal[i][j][0];
-            m_modelNormal[i][j][2] += m.m_taskModelNormal[i][j][2];
-            m_modelNormal[i][j][1] += m.m_taskModelNormal[i][j][1];
-          }
-        }
+      // fit full training set
+      EM_Init(m_theInstances);
+      double loglikely = iterate(m_theInstances, m_verbose);
+      if (m_Debug) {
+        System.err.println("Current log-likelihood: " + loglikely);
       }
+    } finally {
+      m_executorPool.shutdown();
     }
-
-    // re-estimate Gaussian parameters
-    M_reEstimate(inst);
   }
 
   /**
@@ -1954,7 +1920,7 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
         for (i = 0; i < m_max_iterations; i++) {
           llkold = llk;
 
-          llk = launchESteps(inst);
+          llk = E(inst, true);
 
           if (report) {
             System.out.println("Loglikely: " + llk);
@@ -1976,7 +1942,7 @@ NumberOfClustersRequestable, WeightedInstancesHandler {
             }
           }
 
-          launchMSteps(inst);
+          M(inst);
         }
         ok = true;
       } catch (Exception ex) {
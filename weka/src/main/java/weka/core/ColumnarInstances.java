@@ -0,0 +1,1331 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ColumnarInstances.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of instances that is stored column by column: one primitive array per
+ * attribute plus one array for the instance weights. No <code>Instance</code>
+ * objects are kept; <code>instance(int)</code> and <code>get(int)</code> hand
+ * out lightweight views onto a row that are created on demand. Reading and
+ * writing values or weights through a view reads and writes the columns.
+ * <p>
+ *
+ * Algorithms that only scan attributes can avoid the views altogether and
+ * access the columns directly through <code>column(int)</code> and
+ * <code>weights()</code>.
+ * <p>
+ *
+ * Typical usage:
+ * <p>
+ *
+ * <pre>
+ * Instances data = new ColumnarInstances(DataSource.read(filename));
+ * data.setClassIndex(data.numAttributes() - 1);
+ * </pre>
+ * <p>
+ *
+ * A view refers to a row by position, so it should not be held on to across
+ * operations that reorder or remove rows (sorting, randomizing, deleting, ...).
+ * Use <code>copy()</code> to obtain a detached <code>DenseInstance</code>.
+ * Methods that derive new datasets from this one, like
+ * <code>trainCV(int, int)</code> or <code>resample(Random)</code>, produce
+ * ordinary row-based <code>Instances</code>.
+ *
+ * @version $Revision$
+ */
+public class ColumnarInstances extends Instances {
+
+  /** for serialization */
+  private static final long serialVersionUID = -2375407207547627341L;
+
+  /** The attribute values, one array per attribute. */
+  protected double[][] m_Columns;
+
+  /** The instance weights. */
+  protected double[] m_Weights;
+
+  /** The number of rows in use. */
+  protected int m_NumRows;
+
+  /**
+   * Creates a columnar copy of the given dataset. Copies references to the
+   * header information.
+   *
+   * @param dataset the set to be copied
+   */
+  public ColumnarInstances(/* @non_null@ */Instances dataset) {
+
+    this(dataset, dataset.numInstances());
+
+    dataset.copyInstances(0, this, dataset.numInstances());
+  }
+
+  /**
+   * Creates an empty columnar set of instances. Copies references to the
+   * header information from the given set of instances.
+   *
+   * @param dataset the instances from which the header information is to be
+   *          taken
+   * @param capacity the number of rows to reserve
+   */
+  public ColumnarInstances(/* @non_null@ */Instances dataset, int capacity) {
+
+    super(dataset, 0);
+
+    allocate(capacity);
+  }
+
+  /**
+   * Creates an empty columnar set of instances. Uses the given attribute
+   * information.
+   *
+   * @param name the name of the relation
+   * @param attInfo the attribute information
+   * @param capacity the number of rows to reserve
+   * @throws IllegalArgumentException if attribute names are not unique
+   */
+  public ColumnarInstances(/* @non_null@ */String name,
+    /* @non_null@ */ArrayList<Attribute> attInfo, int capacity) {
+
+    super(name, attInfo, 0);
+
+    allocate(capacity);
+  }
+
+  /**
+   * Reserves empty columns for the given number of rows.
+   *
+   * @param capacity the number of rows
+   */
+  protected void allocate(int capacity) {
+
+    if (capacity < 0) {
+      capacity = 0;
+    }
+    m_Columns = new double[numAttributes()][capacity];
+    m_Weights = new double[capacity];
+    m_NumRows = 0;
+  }
+
+  /**
+   * Makes sure that the columns can hold at least the given number of rows.
+   *
+   * @param minCapacity the required number of rows
+   */
+  protected void ensureCapacity(int minCapacity) {
+
+    if (minCapacity <= m_Weights.length) {
+      return;
+    }
+    int capacity = Math.max(minCapacity, m_Weights.length
+      + (m_Weights.length >> 1) + 1);
+    for (int i = 0; i < m_Columns.length; i++) {
+      m_Columns[i] = Arrays.copyOf(m_Columns[i], capacity);
+    }
+    m_Weights = Arrays.copyOf(m_Weights, capacity);
+  }
+
+  /**
+   * Returns the array holding the values of the given attribute. The array is
+   * the backing store of this dataset, i.e., it is not copied and changes to it
+   * are visible through the dataset. Only the first
+   * <code>numInstances()</code> entries are valid, the array may be longer.
+   *
+   * @param attIndex the attribute's index (index starts with 0)
+   * @return the column of the attribute
+   */
+  public/* @pure@ */double[] column(int attIndex) {
+
+    return m_Columns[attIndex];
+  }
+
+  /**
+   * Returns the array holding the instance weights. The array is the backing
+   * store of this dataset. Only the first <code>numInstances()</code> entries
+   * are valid, the array may be longer.
+   *
+   * @return the weights column
+   */
+  public/* @pure@ */double[] weights() {
+
+    return m_Weights;
+  }
+
+  /**
+   * Returns the value of the given attribute in the given row.
+   *
+   * @param row the row (index starts with 0)
+   * @param attIndex the attribute's index (index starts with 0)
+   * @return the value in internal floating-point format
+   */
+  public/* @pure@ */double value(int row, int attIndex) {
+
+    return m_Columns[attIndex][row];
+  }
+
+  /**
+   * Returns the weight of the given row.
+   *
+   * @param row the row (index starts with 0)
+   * @return the weight
+   */
+  public/* @pure@ */double weight(int row) {
+
+    return m_Weights[row];
+  }
+
+  /**
+   * Writes the values and weight of the given instance into a row.
+   *
+   * @param row the row to write to
+   * @param instance the instance providing the values
+   */
+  protected void store(int row, Instance instance) {
+
+    for (int i = 0; i < m_Columns.length; i++) {
+      m_Columns[i][row] = instance.value(i);
+    }
+    m_Weights[row] = instance.weight();
+  }
+
+  /**
+   * Moves the rows starting at the given position by the given offset.
+   *
+   * @param from the first row to move
+   * @param offset the offset to move by
+   */
+  protected void shiftRows(int from, int offset) {
+
+    int num = m_NumRows - from;
+    if (num <= 0) {
+      return;
+    }
+    for (double[] column : m_Columns) {
+      System.arraycopy(column, from, column, from + offset, num);
+    }
+    System.arraycopy(m_Weights, from, m_Weights, from + offset, num);
+  }
+
+  /**
+   * Reorders the rows so that row i afterwards holds what was row order[i]
+   * before. The column arrays themselves are retained.
+   *
+   * @param order the new order of the rows
+   */
+  protected void permuteRows(int[] order) {
+
+    double[] buffer = new double[order.length];
+    for (double[] column : m_Columns) {
+      for (int i = 0; i < order.length; i++) {
+        buffer[i] = column[order[i]];
+      }
+      System.arraycopy(buffer, 0, column, 0, order.length);
+    }
+    for (int i = 0; i < order.length; i++) {
+      buffer[i] = m_Weights[order[i]];
+    }
+    System.arraycopy(buffer, 0, m_Weights, 0, order.length);
+  }
+
+  /**
+   * Checks the given row index.
+   *
+   * @param index the row index
+   * @throws IndexOutOfBoundsException if the index is out of range
+   */
+  protected void checkRow(int index) {
+
+    if ((index < 0) || (index >= m_NumRows)) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+        + m_NumRows);
+    }
+  }
+
+  /**
+   * Adds one instance to the end of the set. Only the values and the weight of
+   * the instance are stored. Does not check if the instance is compatible with
+   * the dataset. Note: String or relational values are not transferred.
+   *
+   * @param instance the instance to be added
+   */
+  @Override
+  public boolean add(/* @non_null@ */Instance instance) {
+
+    ensureCapacity(m_NumRows + 1);
+    store(m_NumRows, instance);
+    m_NumRows++;
+
+    return true;
+  }
+
+  /**
+   * Adds one instance at the given position in the list. Only the values and
+   * the weight of the instance are stored. Does not check if the instance is
+   * compatible with the dataset. Note: String or relational values are not
+   * transferred.
+   *
+   * @param index position where instance is to be inserted
+   * @param instance the instance to be added
+   */
+  @Override
+  public void add(int index, /* @non_null@ */Instance instance) {
+
+    if ((index < 0) || (index > m_NumRows)) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+        + m_NumRows);
+    }
+    // the instance may be a view onto one of the rows that get moved
+    double[] values = instance.toDoubleArray();
+    double weight = instance.weight();
+    ensureCapacity(m_NumRows + 1);
+    shiftRows(index, 1);
+    for (int i = 0; i < m_Columns.length; i++) {
+      m_Columns[i][index] = values[i];
+    }
+    m_Weights[index] = weight;
+    m_NumRows++;
+  }
+
+  /**
+   * Replaces the instance at the given position. Only the values and the
+   * weight of the instance are stored. Does not check if the instance is
+   * compatible with the dataset. Note: String or relational values are not
+   * transferred.
+   *
+   * @param index position where instance is to be inserted
+   * @param instance the instance to be inserted
+   * @return a detached copy of the instance previously at that position
+   */
+  @Override
+  public Instance set(int index, /* @non_null@ */Instance instance) {
+
+    checkRow(index);
+    Instance oldInstance = materialize(index);
+    store(index, instance);
+
+    return oldInstance;
+  }
+
+  /**
+   * Compactifies the set of instances. Decreases the capacity of the columns so
+   * that it matches the number of instances in the set.
+   */
+  @Override
+  public void compactify() {
+
+    if (m_Weights.length == m_NumRows) {
+      return;
+    }
+    for (int i = 0; i < m_Columns.length; i++) {
+      m_Columns[i] = Arrays.copyOf(m_Columns[i], m_NumRows);
+    }
+    m_Weights = Arrays.copyOf(m_Weights, m_NumRows);
+  }
+
+  /**
+   * Removes all instances from the set.
+   */
+  @Override
+  public void delete() {
+
+    allocate(0);
+  }
+
+  /**
+   * Removes an instance at the given position from the set.
+   *
+   * @param index the instance's position (index starts with 0)
+   */
+  @Override
+  public void delete(int index) {
+
+    checkRow(index);
+    shiftRows(index + 1, -1);
+    m_NumRows--;
+  }
+
+  /**
+   * Removes the instance at the given position.
+   *
+   * @param index the instance's index (index starts with 0)
+   * @return a detached copy of the removed instance
+   */
+  @Override
+  public Instance remove(int index) {
+
+    checkRow(index);
+    Instance oldInstance = materialize(index);
+    delete(index);
+
+    return oldInstance;
+  }
+
+  /**
+   * Removes all instances with missing values for a particular attribute from
+   * the dataset.
+   *
+   * @param attIndex the attribute's index (index starts with 0)
+   */
+  @Override
+  public void deleteWithMissing(int attIndex) {
+
+    double[] values = m_Columns[attIndex];
+    int kept = 0;
+    for (int i = 0; i < m_NumRows; i++) {
+      if (!Utils.isMissingValue(values[i])) {
+        if (kept != i) {
+          for (double[] column : m_Columns) {
+            column[kept] = column[i];
+          }
+          m_Weights[kept] = m_Weights[i];
+        }
+        kept++;
+      }
+    }
+    m_NumRows = kept;
+  }
+
+  /**
+   * Deletes an attribute at the given position (0 to numAttributes() - 1).
+   *
+   * @param position the attribute's position (position starts with 0)
+   * @throws IllegalArgumentException if the given index is out of range or the
+   *           class attribute is being deleted
+   */
+  @Override
+  public void deleteAttributeAt(int position) {
+
+    int numRows = m_NumRows;
+    m_NumRows = 0;
+    try {
+      super.deleteAttributeAt(position);
+    } finally {
+      m_NumRows = numRows;
+    }
+
+    double[][] oldColumns = m_Columns;
+
+    m_Columns = new double[oldColumns.length - 1][];
+    System.arraycopy(oldColumns, 0, m_Columns, 0, position);
+    System.arraycopy(oldColumns, position + 1, m_Columns, position,
+      m_Columns.length - position);
+  }
+
+  /**
+   * Inserts an attribute at the given position (0 to numAttributes()) and sets
+   * all values to be missing.
+   *
+   * @param att the attribute to be inserted
+   * @param position the attribute's position (position starts with 0)
+   * @throws IllegalArgumentException if the given index is out of range
+   */
+  @Override
+  public void insertAttributeAt(/* @non_null@ */Attribute att, int position) {
+
+    int numRows = m_NumRows;
+    m_NumRows = 0;
+    try {
+      super.insertAttributeAt(att, position);
+    } finally {
+      m_NumRows = numRows;
+    }
+
+    double[][] oldColumns = m_Columns;
+
+    double[] newColumn = new double[m_Weights.length];
+    Arrays.fill(newColumn, Utils.missingValue());
+    m_Columns = new double[oldColumns.length + 1][];
+    System.arraycopy(oldColumns, 0, m_Columns, 0, position);
+    m_Columns[position] = newColumn;
+    System.arraycopy(oldColumns, position, m_Columns, position + 1,
+      oldColumns.length - position);
+  }
+
+  /**
+   * Replaces the attribute at the given position with the given attribute and
+   * sets all its values to be missing.
+   *
+   * @param att the attribute to be inserted
+   * @param position the attribute's position (position starts with 0)
+   * @throws IllegalArgumentException if the given index is out of range
+   */
+  @Override
+  public void replaceAttributeAt(/* @non_null@ */Attribute att, int position) {
+
+    int numRows = m_NumRows;
+    m_NumRows = 0;
+    try {
+      super.replaceAttributeAt(att, position);
+    } finally {
+      m_NumRows = numRows;
+    }
+    Arrays.fill(m_Columns[position], Utils.missingValue());
+  }
+
+  /**
+   * Returns an enumeration of all instances in the dataset.
+   *
+   * @return enumeration of all instances in the dataset
+   */
+  @Override
+  public/* @non_null pure@ */Enumeration<Instance> enumerateInstances() {
+
+    return new Enumeration<Instance>() {
+
+      private int m_Row = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        return m_Row < m_NumRows;
+      }
+
+      @Override
+      public Instance nextElement() {
+        if (m_Row >= m_NumRows) {
+          throw new NoSuchElementException();
+        }
+        return new RowView(m_Row++);
+      }
+    };
+  }
+
+  /**
+   * Returns a view onto the first instance in the set.
+   *
+   * @return the first instance in the set
+   */
+  @Override
+  public/* @non_null pure@ */Instance firstInstance() {
+
+    return instance(0);
+  }
+
+  /**
+   * Returns a view onto the last instance in the set.
+   *
+   * @return the last instance in the set
+   */
+  @Override
+  public/* @non_null pure@ */Instance lastInstance() {
+
+    return instance(m_NumRows - 1);
+  }
+
+  /**
+   * Returns a view onto the instance at the given position.
+   *
+   * @param index the instance's index (index starts with 0)
+   * @return the instance at the given position
+   */
+  @Override
+  public/* @non_null pure@ */Instance instance(int index) {
+
+    checkRow(index);
+    return new RowView(index);
+  }
+
+  /**
+   * Returns a view onto the instance at the given position.
+   *
+   * @param index the instance's index (index starts with 0)
+   * @return the instance at the given position
+   */
+  @Override
+  public/* @non_null pure@ */Instance get(int index) {
+
+    return instance(index);
+  }
+
+  /**
+   * Returns a detached <code>DenseInstance</code> holding a copy of the given
+   * row. The instance has access to this dataset.
+   *
+   * @param index the row (index starts with 0)
+   * @return the copy of the row
+   */
+  public Instance materialize(int index) {
+
+    DenseInstance result = new DenseInstance(m_Weights[index],
+      rowValues(index));
+    result.setDataset(this);
+    return result;
+  }
+
+  /**
+   * Returns a copy of the values in the given row.
+   *
+   * @param index the row (index starts with 0)
+   * @return the values of the row
+   */
+  protected double[] rowValues(int index) {
+
+    double[] values = new double[m_Columns.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = m_Columns[i][index];
+    }
+    return values;
+  }
+
+  /**
+   * Returns the number of instances in the dataset.
+   *
+   * @return the number of instances in the dataset as an integer
+   */
+  @Override
+  public/* @pure@ */int numInstances() {
+
+    return m_NumRows;
+  }
+
+  /**
+   * Returns the number of instances in the dataset.
+   *
+   * @return the number of instances in the dataset as an integer
+   */
+  @Override
+  public/* @pure@ */int size() {
+
+    return m_NumRows;
+  }
+
+  /**
+   * Swaps two instances in the set.
+   *
+   * @param i the first instance's index (index starts with 0)
+   * @param j the second instance's index (index starts with 0)
+   */
+  @Override
+  public void swap(int i, int j) {
+
+    checkRow(i);
+    checkRow(j);
+    double temp;
+    for (double[] column : m_Columns) {
+      temp = column[i];
+      column[i] = column[j];
+      column[j] = temp;
+    }
+    temp = m_Weights[i];
+    m_Weights[i] = m_Weights[j];
+    m_Weights[j] = temp;
+  }
+
+  /**
+   * Sorts a nominal attribute (stable, linear-time sort). Instances are sorted
+   * based on the attribute label ordering specified in the header.
+   *
+   * @param attIndex the attribute's index (index starts with 0)
+   */
+  @Override
+  protected void sortBasedOnNominalAttribute(int attIndex) {
+
+    double[] values = m_Columns[attIndex];
+    int[] counts = new int[attribute(attIndex).numValues()];
+    for (int i = 0; i < m_NumRows; i++) {
+      if (!Utils.isMissingValue(values[i])) {
+        counts[(int) values[i]]++;
+      }
+    }
+
+    int[] indices = new int[counts.length];
+    int start = 0;
+    for (int i = 0; i < counts.length; i++) {
+      indices[i] = start;
+      start += counts[i];
+    }
+    int[] order = new int[m_NumRows];
+    for (int i = 0; i < m_NumRows; i++) {
+      if (!Utils.isMissingValue(values[i])) {
+        order[indices[(int) values[i]]++] = i;
+      } else {
+        order[start++] = i;
+      }
+    }
+    permuteRows(order);
+  }
+
+  /**
+   * Sorts the instances based on an attribute. For numeric attributes,
+   * instances are sorted in ascending order. For nominal attributes, instances
+   * are sorted based on the attribute label ordering specified in the header.
+   * Instances with missing values for the attribute are placed at the end of
+   * the dataset. Produces the same order as the row-based implementation.
+   *
+   * @param attIndex the attribute's index (index starts with 0)
+   */
+  @Override
+  public void sort(int attIndex) {
+
+    if (!attribute(attIndex).isNominal()) {
+      double[] vals = new double[m_NumRows];
+      double[] column = m_Columns[attIndex];
+      for (int i = 0; i < vals.length; i++) {
+        if (Utils.isMissingValue(column[i])) {
+          vals[i] = Double.MAX_VALUE;
+        } else {
+          vals[i] = column[i];
+        }
+      }
+      permuteRows(Utils.sortWithNoMissingValues(vals));
+    } else {
+      sortBasedOnNominalAttribute(attIndex);
+    }
+  }
+
+  /**
+   * Sorts the instances based on an attribute, using a stable sort. For numeric
+   * attributes, instances are sorted in ascending order. For nominal
+   * attributes, instances are sorted based on the attribute label ordering
+   * specified in the header. Instances with missing values for the attribute
+   * are placed at the end of the dataset.
+   *
+   * @param attIndex the attribute's index (index starts with 0)
+   */
+  @Override
+  public void stableSort(int attIndex) {
+
+    if (!attribute(attIndex).isNominal()) {
+      permuteRows(Utils.stableSort(Arrays.copyOf(m_Columns[attIndex],
+        m_NumRows)));
+    } else {
+      sortBasedOnNominalAttribute(attIndex);
+    }
+  }
+
+  /**
+   * Help function needed for stratification of set.
+   *
+   * @param numFolds the number of folds for the stratification
+   */
+  @Override
+  protected void stratStep(int numFolds) {
+
+    int[] order = new int[m_NumRows];
+    int pos = 0, start = 0, j;
+
+    while (pos < m_NumRows) {
+      j = start;
+      while (j < m_NumRows) {
+        order[pos++] = j;
+        j = j + numFolds;
+      }
+      start++;
+    }
+    permuteRows(order);
+  }
+
+  /**
+   * Copies instances from one set to the end of another one. Copies the
+   * columns directly if the destination is columnar as well.
+   *
+   * @param from the position of the first instance to be copied
+   * @param dest the destination for the instances
+   * @param num the number of instances to be copied
+   */
+  @Override
+  protected void copyInstances(int from, /* @non_null@ */Instances dest,
+    int num) {
+
+    if (!(dest instanceof ColumnarInstances)
+      || (dest.numAttributes() != numAttributes())) {
+      for (int i = 0; i < num; i++) {
+        dest.add(new RowView(from + i));
+      }
+      return;
+    }
+
+    ColumnarInstances target = (ColumnarInstances) dest;
+    target.ensureCapacity(target.m_NumRows + num);
+    for (int i = 0; i < m_Columns.length; i++) {
+      System.arraycopy(m_Columns[i], from, target.m_Columns[i],
+        target.m_NumRows, num);
+    }
+    System.arraycopy(m_Weights, from, target.m_Weights, target.m_NumRows, num);
+    target.m_NumRows += num;
+  }
+
+  /**
+   * Returns true if all instance weights are the same and false otherwise.
+   * Returns true if there are no instances.
+   */
+  @Override
+  public boolean allInstanceWeightsIdentical() {
+
+    for (int i = 1; i < m_NumRows; i++) {
+      if (m_Weights[i] != m_Weights[0]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the mean (mode) for a numeric (nominal) attribute as a
+   * floating-point value. Returns 0 if the attribute is neither nominal nor
+   * numeric. If all values are missing it returns zero.
+   *
+   * @param attIndex the attribute's index (index starts with 0)
+   * @return the mean or the mode
+   */
+  @Override
+  public/* @pure@ */double meanOrMode(int attIndex) {
+
+    double[] values = m_Columns[attIndex];
+    if (attribute(attIndex).isNumeric()) {
+      double result = 0, found = 0;
+      for (int j = 0; j < m_NumRows; j++) {
+        if (!Utils.isMissingValue(values[j])) {
+          found += m_Weights[j];
+          result += m_Weights[j] * values[j];
+        }
+      }
+      if (found <= 0) {
+        return 0;
+      } else {
+        return result / found;
+      }
+    } else if (attribute(attIndex).isNominal()) {
+      int[] counts = new int[attribute(attIndex).numValues()];
+      for (int j = 0; j < m_NumRows; j++) {
+        if (!Utils.isMissingValue(values[j])) {
+          counts[(int) values[j]] += m_Weights[j];
+        }
+      }
+      return Utils.maxIndex(counts);
+    } else {
+      return 0;
+    }
+  }
+
+  /**
+   * Computes the variance for a numeric attribute.
+   *
+   * @param attIndex the numeric attribute (index starts with 0)
+   * @return the variance if the attribute is numeric
+   * @throws IllegalArgumentException if the attribute is not numeric
+   */
+  @Override
+  public/* @pure@ */double variance(int attIndex) {
+
+    if (!attribute(attIndex).isNumeric()) {
+      throw new IllegalArgumentException(
+        "Can't compute variance because attribute is " + "not numeric!");
+    }
+
+    double[] values = m_Columns[attIndex];
+    double mean = 0;
+    double var = Double.NaN;
+    double sumWeights = 0;
+    for (int i = 0; i < m_NumRows; i++) {
+      if (!Utils.isMissingValue(values[i])) {
+        double weight = m_Weights[i];
+        double value = values[i];
+
+        if (Double.isNaN(var)) {
+          mean = value;
+          sumWeights = weight;
+          var = 0;
+          continue;
+        }
+
+        double delta = weight * (value - mean);
+        sumWeights += weight;
+        mean += delta / sumWeights;
+        var += delta * (value - mean);
+      }
+    }
+
+    if (sumWeights <= 1) {
+      return Double.NaN;
+    }
+
+    var /= sumWeights - 1;
+
+    // We don't like negative variance
+    if (var < 0) {
+      return 0;
+    } else {
+      return var;
+    }
+  }
+
+  /**
+   * Calculates summary statistics on the values that appear in this set of
+   * instances for a specified attribute. Reads the column directly.
+   *
+   * @param index the index of the attribute to summarize (index starts with 0)
+   * @return an AttributeStats object with it's fields calculated.
+   */
+  @Override
+  public AttributeStats attributeStats(int index) {
+
+    AttributeStats result = new AttributeStats();
+    if (attribute(index).isNominal()) {
+      result.nominalCounts = new int[attribute(index).numValues()];
+      result.nominalWeights = new double[attribute(index).numValues()];
+    }
+    if (attribute(index).isNumeric()) {
+      result.numericStats = new weka.experiment.Stats();
+    }
+    result.totalCount = m_NumRows;
+
+    double[] column = m_Columns[index];
+    HashMap<Double, double[]> map = new HashMap<Double, double[]>(
+      2 * result.totalCount);
+    for (int i = 0; i < m_NumRows; i++) {
+      double key = column[i];
+      if (Utils.isMissingValue(key)) {
+        result.missingCount++;
+      } else {
+        double[] values = map.get(key);
+        if (values == null) {
+          values = new double[2];
+          values[0] = 1.0;
+          values[1] = m_Weights[i];
+          map.put(key, values);
+        } else {
+          values[0]++;
+          values[1] += m_Weights[i];
+        }
+      }
+    }
+
+    for (Entry<Double, double[]> entry : map.entrySet()) {
+      result.addDistinct(entry.getKey(), (int) entry.getValue()[0],
+        entry.getValue()[1]);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the value of all instances in this dataset for a particular
+   * attribute.
+   *
+   * @param index the index of the attribute.
+   * @return a copy of the column of the attribute
+   */
+  @Override
+  public/* @pure@ */double[] attributeToDoubleArray(int index) {
+
+    return Arrays.copyOf(m_Columns[index], m_NumRows);
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * A view onto one row of the columns. Values and weight are read from and
+   * written to the columns. The view always has access to the dataset that
+   * created it; it is replaced by a detached <code>DenseInstance</code> when
+   * serialized.
+   */
+  protected class RowView implements Instance, Serializable {
+
+    /** for serialization */
+    private static final long serialVersionUID = -6471402634155736962L;
+
+    /** the row this view refers to */
+    protected final int m_Row;
+
+    /**
+     * Creates a view onto the given row.
+     *
+     * @param row the row
+     */
+    protected RowView(int row) {
+      m_Row = row;
+    }
+
+    /**
+     * Returns the index of the row this view refers to.
+     *
+     * @return the row
+     */
+    public int row() {
+      return m_Row;
+    }
+
+    @Override
+    public Attribute attribute(int index) {
+      return ColumnarInstances.this.attribute(index);
+    }
+
+    @Override
+    public Attribute attributeSparse(int indexOfIndex) {
+      return ColumnarInstances.this.attribute(indexOfIndex);
+    }
+
+    @Override
+    public Attribute classAttribute() {
+      return ColumnarInstances.this.classAttribute();
+    }
+
+    @Override
+    public int classIndex() {
+      return ColumnarInstances.this.classIndex();
+    }
+
+    @Override
+    public boolean classIsMissing() {
+      int classIndex = classIndex();
+      if (classIndex < 0) {
+        throw new UnassignedClassException("Class is not set!");
+      }
+      return isMissing(classIndex);
+    }
+
+    @Override
+    public double classValue() {
+      int classIndex = classIndex();
+      if (classIndex < 0) {
+        throw new UnassignedClassException("Class is not set!");
+      }
+      return value(classIndex);
+    }
+
+    /**
+     * Returns a detached <code>DenseInstance</code> with the values of this row.
+     *
+     * @return the copy
+     */
+    @Override
+    public Object copy() {
+      return materialize(m_Row);
+    }
+
+    @Override
+    public Instance copy(double[] values) {
+      DenseInstance result = new DenseInstance(weight(), values);
+      result.setDataset(ColumnarInstances.this);
+      return result;
+    }
+
+    @Override
+    public Instances dataset() {
+      return ColumnarInstances.this;
+    }
+
+    /**
+     * Not supported, the structure of a view can only be changed through its
+     * dataset.
+     *
+     * @param position ignored
+     * @throws RuntimeException always
+     */
+    @Override
+    public void deleteAttributeAt(int position) {
+      throw new RuntimeException("Instance has access to a dataset!");
+    }
+
+    @Override
+    public Enumeration<Attribute> enumerateAttributes() {
+      return ColumnarInstances.this.enumerateAttributes();
+    }
+
+    @Override
+    public boolean equalHeaders(Instance inst) {
+      return ColumnarInstances.this.equalHeaders(inst.dataset());
+    }
+
+    @Override
+    public String equalHeadersMsg(Instance inst) {
+      return ColumnarInstances.this.equalHeadersMsg(inst.dataset());
+    }
+
+    @Override
+    public boolean hasMissingValue() {
+      int classIndex = classIndex();
+      for (int i = 0; i < m_Columns.length; i++) {
+        if ((i != classIndex) && Utils.isMissingValue(m_Columns[i][m_Row])) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public int index(int position) {
+      return position;
+    }
+
+    /**
+     * Not supported, the structure of a view can only be changed through its
+     * dataset.
+     *
+     * @param position ignored
+     * @throws RuntimeException always
+     */
+    @Override
+    public void insertAttributeAt(int position) {
+      throw new RuntimeException("Instance has accesss to a dataset!");
+    }
+
+    @Override
+    public boolean isMissing(int attIndex) {
+      return Utils.isMissingValue(m_Columns[attIndex][m_Row]);
+    }
+
+    @Override
+    public boolean isMissingSparse(int indexOfIndex) {
+      return isMissing(indexOfIndex);
+    }
+
+    @Override
+    public boolean isMissing(Attribute att) {
+      return isMissing(att.index());
+    }
+
+    @Override
+    public Instance mergeInstance(Instance inst) {
+      return materialize(m_Row).mergeInstance(inst);
+    }
+
+    @Override
+    public int numAttributes() {
+      return m_Columns.length;
+    }
+
+    @Override
+    public int numClasses() {
+      return ColumnarInstances.this.numClasses();
+    }
+
+    @Override
+    public int numValues() {
+      return m_Columns.length;
+    }
+
+    @Override
+    public void replaceMissingValues(double[] array) {
+      if ((array == null) || (array.length != m_Columns.length)) {
+        throw new IllegalArgumentException("Unequal number of attributes!");
+      }
+      for (int i = 0; i < array.length; i++) {
+        if (isMissing(i)) {
+          m_Columns[i][m_Row] = array[i];
+        }
+      }
+    }
+
+    @Override
+    public void setClassMissing() {
+      setClassValue(Utils.missingValue());
+    }
+
+    @Override
+    public void setClassValue(double value) {
+      int classIndex = classIndex();
+      if (classIndex < 0) {
+        throw new UnassignedClassException("Class is not set!");
+      }
+      setValue(classIndex, value);
+    }
+
+    @Override
+    public void setClassValue(String value) {
+      int classIndex = classIndex();
+      if (classIndex < 0) {
+        throw new UnassignedClassException("Class is not set!");
+      }
+      setValue(classIndex, value);
+    }
+
+    /**
+     * Only accepts the dataset the view already belongs to. Use
+     * <code>copy()</code> to obtain an instance that can be attached to a
+     * different dataset.
+     *
+     * @param instances the dataset
+     * @throws UnsupportedOperationException if the dataset is a different one
+     */
+    @Override
+    public void setDataset(Instances instances) {
+      if (instances != ColumnarInstances.this) {
+        throw new UnsupportedOperationException(
+          "A row view can't be moved to another dataset, use copy() first!");
+      }
+    }
+
+    @Override
+    public void setMissing(int attIndex) {
+      setValue(attIndex, Utils.missingValue());
+    }
+
+    @Override
+    public void setMissing(Attribute att) {
+      setMissing(att.index());
+    }
+
+    @Override
+    public void setValue(int attIndex, double value) {
+      m_Columns[attIndex][m_Row] = value;
+    }
+
+    @Override
+    public void setValueSparse(int indexOfIndex, double value) {
+      setValue(indexOfIndex, value);
+    }
+
+    @Override
+    public void setValue(int attIndex, String value) {
+      setValue(attribute(attIndex), value);
+    }
+
+    @Override
+    public void setValue(Attribute att, double value) {
+      setValue(att.index(), value);
+    }
+
+    @Override
+    public void setValue(Attribute att, String value) {
+      if (!att.isNominal() && !att.isString()) {
+        throw new IllegalArgumentException(
+          "Attribute neither nominal nor string!");
+      }
+      int valIndex = att.indexOfValue(value);
+      if (valIndex == -1) {
+        if (att.isNominal()) {
+          throw new IllegalArgumentException(
+            "Value not defined for given nominal attribute!");
+        } else {
+          att.forceAddValue(value);
+          valIndex = att.indexOfValue(value);
+        }
+      }
+      setValue(att.index(), valIndex);
+    }
+
+    @Override
+    public void setWeight(double weight) {
+      m_Weights[m_Row] = weight;
+    }
+
+    @Override
+    public Instances relationalValue(int attIndex) {
+      return materialize(m_Row).relationalValue(attIndex);
+    }
+
+    @Override
+    public Instances relationalValue(Attribute att) {
+      return materialize(m_Row).relationalValue(att);
+    }
+
+    @Override
+    public String stringValue(int attIndex) {
+      return materialize(m_Row).stringValue(attIndex);
+    }
+
+    @Override
+    public String stringValue(Attribute att) {
+      return materialize(m_Row).stringValue(att);
+    }
+
+    @Override
+    public double[] toDoubleArray() {
+      return rowValues(m_Row);
+    }
+
+    @Override
+    public String toStringNoWeight(int afterDecimalPoint) {
+      return materialize(m_Row).toStringNoWeight(afterDecimalPoint);
+    }
+
+    @Override
+    public String toStringNoWeight() {
+      return materialize(m_Row).toStringNoWeight();
+    }
+
+    @Override
+    public String toStringMaxDecimalDigits(int afterDecimalPoint) {
+      return materialize(m_Row).toStringMaxDecimalDigits(afterDecimalPoint);
+    }
+
+    @Override
+    public String toString(int attIndex, int afterDecimalPoint) {
+      return materialize(m_Row).toString(attIndex, afterDecimalPoint);
+    }
+
+    @Override
+    public String toString(int attIndex) {
+      return materialize(m_Row).toString(attIndex);
+    }
+
+    @Override
+    public String toString(Attribute att, int afterDecimalPoint) {
+      return materialize(m_Row).toString(att, afterDecimalPoint);
+    }
+
+    @Override
+    public String toString(Attribute att) {
+      return materialize(m_Row).toString(att);
+    }
+
+    @Override
+    public String toString() {
+      return materialize(m_Row).toString();
+    }
+
+    @Override
+    public double value(int attIndex) {
+      return m_Columns[attIndex][m_Row];
+    }
+
+    @Override
+    public double valueSparse(int indexOfIndex) {
+      return m_Columns[indexOfIndex][m_Row];
+    }
+
+    @Override
+    public double value(Attribute att) {
+      return m_Columns[att.index()][m_Row];
+    }
+
+    @Override
+    public double weight() {
+      return m_Weights[m_Row];
+    }
+
+    /**
+     * Replaces the view by a detached copy when serialized.
+     *
+     * @return the copy to serialize
+     */
+    protected Object writeReplace() {
+      return materialize(m_Row);
+    }
+  }
+}
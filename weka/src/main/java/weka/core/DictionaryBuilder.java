@@ -41,12 +41,14 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.core.stemmers.NullStemmer;
 import weka.core.stemmers.Stemmer;
@@ -79,11 +81,14 @@ import weka.gui.ProgrammaticProperty;
  * @version $Revision$
  */
 public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
-  OptionHandler, Serializable {
+  OptionHandler, Serializable, Cloneable {
 
   /** For serialization */
   private static final long serialVersionUID = 5579506627960356012L;
 
+  /** The minimum number of instances per thread when processing a batch */
+  protected static final int MIN_CHUNK_SIZE = 500;
+
   /** Input structure */
   protected Instances m_inputFormat;
 
@@ -91,18 +96,39 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
   protected Instances m_outputFormat;
 
   /** Holds the dictionaries (one per class) that are compiled while processing */
-  protected Map<String, int[]>[] m_dictsPerClass;
+  protected TermDictionary[] m_dictsPerClass;
 
   /**
    * Holds the final dictionary that is consolidated across classes and pruned
-   * according to m_wordsToKeep. First element of array contains the index of
-   * the word. The second (optional) element contains the document count for the
-   * word (i.e. number of training docs the word occurs in).
+   * according to m_wordsToKeep. The index of a word in the dictionary is the
+   * index of its attribute, and its document count is the number of training
+   * docs the word occurs in (if known).
    */
-  protected Map<String, int[]> m_consolidatedDict;
+  protected TermDictionary m_consolidatedDict;
+
+  /** True if the document counts of the consolidated dictionary are known */
+  protected boolean m_hasDocCounts;
+
+  /**
+   * Number of attributes to hash the words to, instead of building a
+   * dictionary. 0 = build a dictionary
+   */
+  protected int m_hashDimensions;
+
+  /** Number of training docs that contain a word of each hash bucket */
+  protected int[] m_hashDocCounts;
+
+  /** Counts of the words of the current document, by index */
+  protected transient int[] m_wordCounts;
 
-  /** Holds the tokenized input vector */
-  protected transient Map<String, int[]> m_inputVector;
+  /** Indices of the distinct words of the current document */
+  protected transient int[] m_words;
+
+  /** Values of the current vectorized instance */
+  protected transient double[] m_values;
+
+  /** Indices of the values of the current vectorized instance */
+  protected transient int[] m_indices;
 
   /**
    * True if the final number of words to keep should not be applied on a per
@@ -205,9 +231,8 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
   }
 
   /**
-   * Set whether to keep the dictionary sorted alphabetically as it is built.
-   * Setting this to true uses a TreeMap internally (which is slower than the
-   * default unsorted LinkedHashMap).
+   * Set whether to keep the dictionary sorted alphabetically. The
+   * dictionary is sorted when it is finalized.
    *
    * @param sortDictionary true to keep the dictionary sorted alphabetically
    */
@@ -216,9 +241,8 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
   }
 
   /**
-   * Get whether to keep the dictionary sorted alphabetically as it is built.
-   * Setting this to true uses a TreeMap internally (which is slower than the
-   * default unsorted LinkedHashMap).
+   * Get whether to keep the dictionary sorted alphabetically. The
+   * dictionary is sorted when it is finalized.
    *
    * @return true to keep the dictionary sorted alphabetically
    */
@@ -419,6 +443,39 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       + "memory for this approach.";
   }
 
+  /**
+   * Gets the number of attributes to hash the words to.
+   * 
+   * @return the number of attributes, 0 if a dictionary is built
+   */
+  public int getHashDimensions() {
+    return m_hashDimensions;
+  }
+
+  /**
+   * Sets the number of attributes to hash the words to. Hashing needs no
+   * dictionary, so the words to keep, minimum term frequency and pruning
+   * settings do not apply. 0 builds a dictionary.
+   * 
+   * @param hashDimensions the number of attributes, 0 to build a dictionary
+   */
+  public void setHashDimensions(int hashDimensions) {
+    m_hashDimensions = hashDimensions;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String hashDimensionsTipText() {
+    return "The number of attributes to hash the words to (the hashing trick), "
+      + "instead of building a dictionary. Words with the same hash share an "
+      + "attribute. The number of words to keep, the minimum term frequency "
+      + "and pruning do not apply. 0 builds a dictionary.";
+  }
+
   /**
    * Gets whether if the word frequencies should be transformed into log(1+fij)
    * where fij is the frequency of word i in document(instance) j.
@@ -781,6 +838,12 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
           + "\t(default: no periodic pruning)", "prune-rate", 1,
         "-prune-rate <every x instances>"));
 
+    result.addElement(new Option(
+      "\tHash the words to the given number of attributes instead of\n"
+        + "\tbuilding a dictionary (-W, -M and -prune-rate do not apply).\n"
+        + "\t(default: 0 = build a dictionary)", "hash-dimensions", 1,
+      "-hash-dimensions <number of attributes>"));
+
     result
       .addElement(new Option(
         "\tTransform the word frequencies into log(1+fij)\n"
@@ -853,6 +916,11 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
     result.add("-prune-rate");
     result.add(String.valueOf(getPeriodicPruning()));
 
+    if (getHashDimensions() > 0) {
+      result.add("-hash-dimensions");
+      result.add(String.valueOf(getHashDimensions()));
+    }
+
     if (getOutputWordCounts()) {
       result.add("-C");
     }
@@ -957,6 +1025,13 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
    * </pre>
    *
    * <pre>
+   * -hash-dimensions &lt;number of attributes&gt;
+   *  Hash the words to the given number of attributes instead of
+   *  building a dictionary (-W, -M and -prune-rate do not apply).
+   *  (default: 0 = build a dictionary)
+   * </pre>
+   *
+   * <pre>
    * -T
    *  Transform the word frequencies into log(1+fij)
    *  where fij is the frequency of word i in jth document(instance).
@@ -1046,6 +1121,13 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       setPeriodicPruning(-1);
     }
 
+    value = Utils.getOption("hash-dimensions", options);
+    if (value.length() > 0) {
+      setHashDimensions(Integer.parseInt(value));
+    } else {
+      setHashDimensions(0);
+    }
+
     value = Utils.getOption('M', options);
     if (value.length() != 0) {
       setMinTermFreq(Integer.valueOf(value).intValue());
@@ -1120,7 +1202,6 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
     Utils.checkForRemainingOptions(options);
   }
 
-  @SuppressWarnings("unchecked")
   public void setup(Instances inputFormat) throws Exception {
 
     m_inputContainsStringAttributes = inputFormat.checkForStringAttributes();
@@ -1133,15 +1214,15 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
     m_numClasses =
       !m_doNotOperateOnPerClassBasis && m_inputFormat.classIndex() >= 0 && m_inputFormat.classAttribute().isNominal() ?
               m_inputFormat.numClasses() : 1;
-    m_dictsPerClass =
-      m_sortDictionary ? new TreeMap[m_numClasses]
-        : new LinkedHashMap[m_numClasses];
     m_classIndex = m_inputFormat.classIndex();
 
-    for (int i = 0; i < m_numClasses; i++) {
-      m_dictsPerClass[i] =
-        m_sortDictionary ? new TreeMap<String, int[]>()
-          : new LinkedHashMap<String, int[]>();
+    if (m_hashDimensions > 0) {
+      m_hashDocCounts = new int[m_hashDimensions];
+    } else {
+      m_dictsPerClass = new TermDictionary[m_numClasses];
+      for (int i = 0; i < m_numClasses; i++) {
+        m_dictsPerClass[i] = new TermDictionary();
+      }
     }
 
     determineSelectedRange(inputFormat);
@@ -1163,7 +1244,18 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
    * @return true if we can vectorize incoming instances
    */
   public boolean readyToVectorize() {
-    return m_inputFormat != null && m_consolidatedDict != null;
+    return m_inputFormat != null && isFinalized();
+  }
+
+  /**
+   * Returns true if the dictionary has been finalized or loaded, or if the
+   * output format for hashing has been determined.
+   *
+   * @return true if the dictionary is final
+   */
+  protected boolean isFinalized() {
+    return m_hashDimensions > 0 ? m_outputFormat != null
+      : m_consolidatedDict != null;
   }
 
   /**
@@ -1220,14 +1312,14 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       return m_inputFormat;
     }
 
-    if (m_consolidatedDict == null) {
-      throw new Exception("Dictionary hasn't been built or finalized yet!");
-    }
-
     if (m_outputFormat != null) {
       return m_outputFormat;
     }
 
+    if (m_hashDimensions <= 0 && m_consolidatedDict == null) {
+      throw new Exception("Dictionary hasn't been built or finalized yet!");
+    }
+
     ArrayList<Attribute> newAtts = new ArrayList<Attribute>();
     // int classIndex = m_inputFormat.classIndex();
     int classIndex = -1;
@@ -1245,8 +1337,14 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
     }
 
     // now do the dictionary
-    for (Map.Entry<String, int[]> e : m_consolidatedDict.entrySet()) {
-      newAtts.add(new Attribute(m_Prefix + e.getKey()));
+    if (m_hashDimensions > 0) {
+      for (int i = 0; i < m_hashDimensions; i++) {
+        newAtts.add(new Attribute(m_Prefix + "hash_" + i));
+      }
+    } else {
+      for (int i = 0; i < m_consolidatedDict.size(); i++) {
+        newAtts.add(new Attribute(m_Prefix + m_consolidatedDict.term(i)));
+      }
     }
 
     /* Instances newFormat =
@@ -1280,6 +1378,28 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
    */
   public Instances vectorizeBatch(Instances batch, boolean setAvgDocLength)
     throws Exception {
+    return vectorizeBatch(batch, setAvgDocLength, 1);
+  }
+
+  /**
+   * Convert a batch of instances, tokenizing the documents with several
+   * threads. The result is the same as with a single thread.
+   * 
+   * @param batch the batch to convert.
+   * @param setAvgDocLength true to compute and set the average document length
+   *          for this DictionaryBuilder from the batch - this uses the final
+   *          pruned dictionary when computing doc lengths. When vectorizing
+   *          non-training batches, and normalization has been turned on, this
+   *          should be set to false.
+   * @param numThreads the number of threads to use, 0 for the number of
+   *          cores
+   * 
+   * @return the converted batch
+   * @throws Exception if there is no input format set and/or the dictionary has
+   *           not been constructed yet.
+   */
+  public Instances vectorizeBatch(final Instances batch,
+    boolean setAvgDocLength, int numThreads) throws Exception {
 
     if (m_inputFormat == null) {
       throw new Exception("No input format available. Call setup() and "
@@ -1291,7 +1411,7 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       return batch;
     }
 
-    if (m_consolidatedDict == null) {
+    if (!isFinalized()) {
       throw new Exception("Dictionary hasn't been built or consolidated yet!");
     }
 
@@ -1305,11 +1425,33 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
     }
 
     if (batch.numInstances() > 0) {
+      final double[][] wordValues = new double[batch.numInstances()][];
+      final int[][] wordIndices = new int[batch.numInstances()][];
+      int numChunks = numChunks(batch.numInstances(), numThreads);
+      if (numChunks > 1) {
+        // the words are counted concurrently, the other attributes are
+        // copied below as they may add values to the output format
+        final int indexOffset =
+          m_outputFormat.numAttributes()
+            - (m_hashDimensions > 0 ? m_hashDimensions : m_consolidatedDict
+              .size());
+        processConcurrently(batch, numChunks, false, new InstanceTask() {
+          @Override
+          public void process(DictionaryBuilder builder, Instance inst,
+            int index) throws Exception {
+            int numValues = builder.addWords(inst, indexOffset, 0);
+            wordValues[index] = Arrays.copyOf(builder.m_values, numValues);
+            wordIndices[index] = Arrays.copyOf(builder.m_indices, numValues);
+          }
+        });
+      }
+
       int[] offsetHolder = new int[1];
-      vectorized.add(vectorizeInstance(batch.instance(0), offsetHolder, true));
-      for (int i = 1; i < batch.numInstances(); i++) {
-        vectorized
-          .add(vectorizeInstance(batch.instance(i), offsetHolder, true));
+      for (int i = 0; i < batch.numInstances(); i++) {
+        vectorized.add(vectorizeInstance(batch.instance(i), offsetHolder,
+          true, wordValues[i], wordIndices[i]));
+        wordValues[i] = null;
+        wordIndices[i] = null;
       }
 
       if (setAvgDocLength) {
@@ -1351,7 +1493,7 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
    *           not been constructed yet.
    */
   public Instance vectorizeInstance(Instance input) throws Exception {
-    return vectorizeInstance(input, new int[1], false);
+    return vectorizeInstance(input, new int[1], false, null, null);
   }
 
   /**
@@ -1366,11 +1508,28 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
    */
   public Instance vectorizeInstance(Instance input,
     boolean retainStringAttValuesInMemory) throws Exception {
-    return vectorizeInstance(input, new int[1], retainStringAttValuesInMemory);
+    return vectorizeInstance(input, new int[1], retainStringAttValuesInMemory,
+      null, null);
   }
 
+  /**
+   * Convert an input instance.
+   * 
+   * @param input the input instance
+   * @param offsetHolder holds the index of the first dictionary attribute on
+   *          return
+   * @param retainStringAttValuesInMemory true if the values of string
+   *          attributes not being vectorized should be retained in memory
+   * @param wordValues the values of the dictionary attributes, as computed by
+   *          addWords(), or null to compute them
+   * @param wordIndices the indices of the values of the dictionary attributes
+   * @return a converted instance
+   * @throws Exception if there is no input format set and/or the dictionary
+   *           has not been constructed yet
+   */
   private Instance vectorizeInstance(Instance input, int[] offsetHolder,
-    boolean retainStringAttValuesInMemory) throws Exception {
+    boolean retainStringAttValuesInMemory, double[] wordValues,
+    int[] wordIndices) throws Exception {
 
     if (!m_inputContainsStringAttributes) {
       return input;
@@ -1381,34 +1540,35 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
         + "make sure a dictionary has been built first.");
     }
 
-    if (m_consolidatedDict == null) {
+    if (!isFinalized()) {
       throw new Exception("Dictionary hasn't been built or consolidated yet!");
     }
 
+    ensureVectorBuffers();
+
+    int numAtts = m_inputFormat.numAttributes();
+    int numValues = 0;
     int indexOffset = 0;
-    int classIndex = m_outputFormat.classIndex();
-    Map<Integer, double[]> contained = new TreeMap<Integer, double[]>();
-    for (int i = 0; i < m_inputFormat.numAttributes(); i++) {
+    for (int i = 0; i < numAtts; i++) {
       if (!m_selectedRange.isInRange(i)) {
+        double value = 0;
+        boolean keep = true;
         if (!m_inputFormat.attribute(i).isString()
           && !m_inputFormat.attribute(i).isRelationValued()) {
 
           // add nominal and numeric directly
-          if (input.value(i) != 0.0) {
-            contained.put(indexOffset, new double[] { input.value(i) });
-          }
+          value = input.value(i);
+          keep = value != 0.0;
         } else {
           if (input.isMissing(i)) {
-            contained.put(indexOffset, new double[] { Utils.missingValue() });
+            value = Utils.missingValue();
           } else if (m_inputFormat.attribute(i).isString()) {
             String strVal = input.stringValue(i);
             if (retainStringAttValuesInMemory) {
-              double strIndex =
+              value =
                 m_outputFormat.attribute(indexOffset).addStringValue(strVal);
-              contained.put(indexOffset, new double[] { strIndex });
             } else {
               m_outputFormat.attribute(indexOffset).setStringValue(strVal);
-              contained.put(indexOffset, new double[] { 0 });
             }
           } else {
             // relational
@@ -1420,19 +1580,61 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
               m_outputFormat.attribute(indexOffset).addRelation(
                 relationalHeader);
             }
-            int newIndex =
+            value =
               m_outputFormat.attribute(indexOffset).addRelation(
                 input.relationalValue(i));
-            contained.put(indexOffset, new double[] { newIndex });
           }
         }
+        if (keep) {
+          m_values[numValues] = value;
+          m_indices[numValues++] = indexOffset;
+        }
         indexOffset++;
       }
     }
 
     offsetHolder[0] = indexOffset;
 
-    // dictionary entries
+    if (wordValues != null) {
+      System.arraycopy(wordValues, 0, m_values, numValues, wordValues.length);
+      System.arraycopy(wordIndices, 0, m_indices, numValues,
+        wordIndices.length);
+      numValues += wordValues.length;
+    } else {
+      numValues = addWords(input, indexOffset, numValues);
+    }
+
+    double[] values = Arrays.copyOf(m_values, numValues);
+    int[] indices = Arrays.copyOf(m_indices, numValues);
+
+    Instance inst =
+      new SparseInstance(input.weight(), values, indices,
+        m_outputFormat.numAttributes());
+    inst.setDataset(m_outputFormat);
+
+    if (m_normalize) {
+      normalizeInstance(inst, indexOffset);
+    }
+
+    return inst;
+  }
+
+  /**
+   * Tokenizes the selected string attributes of an instance and appends the
+   * (transformed) counts of the dictionary words to the value buffers, in
+   * order of their attribute indices.
+   * 
+   * @param input the input instance
+   * @param indexOffset index of the first dictionary attribute
+   * @param numValues the number of values in the buffers so far
+   * @return the number of values in the buffers
+   * @throws Exception if the IDF transform can't be computed
+   */
+  protected int addWords(Instance input, int indexOffset, int numValues)
+    throws Exception {
+
+    ensureVectorBuffers();
+    int numWords = 0;
     for (int i = 0; i < m_inputFormat.numAttributes(); i++) {
       if (m_selectedRange.isInRange(i) && !input.isMissing(i)) {
         m_tokenizer.tokenize(input.stringValue(i));
@@ -1444,76 +1646,78 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
           }
           word = m_stemmer.stem(word);
 
-          int[] idxAndDocCount = m_consolidatedDict.get(word);
-          if (idxAndDocCount != null) {
-            if (m_outputCounts) {
-              double[] inputCount =
-                contained.get(idxAndDocCount[0] + indexOffset);
-              if (inputCount != null) {
-                inputCount[0]++;
-              } else {
-                contained.put(idxAndDocCount[0] + indexOffset,
-                  new double[] { 1 });
-              }
-            } else {
-              contained
-                .put(idxAndDocCount[0] + indexOffset, new double[] { 1 });
+          int index = termIndex(word);
+          if (index >= 0) {
+            if (m_wordCounts[index] == 0) {
+              m_words[numWords++] = index;
+            }
+            if (m_outputCounts || m_wordCounts[index] == 0) {
+              m_wordCounts[index]++;
             }
           }
         }
       }
     }
 
-    // TF transform
-    if (m_TFTransform) {
-      for (Map.Entry<Integer, double[]> e : contained.entrySet()) {
-        int index = e.getKey();
-        if (index >= indexOffset) {
-          double[] val = e.getValue();
-          val[0] = Math.log(val[0] + 1);
-        }
+    Arrays.sort(m_words, 0, numWords);
+    for (int i = 0; i < numWords; i++) {
+      int index = m_words[i];
+      double val = m_wordCounts[index];
+      m_wordCounts[index] = 0;
+
+      // TF transform
+      if (m_TFTransform) {
+        val = Math.log(val + 1);
       }
-    }
 
-    // IDF transform
-    if (m_IDFTransform) {
-      for (Map.Entry<Integer, double[]> e : contained.entrySet()) {
-        int index = e.getKey();
-        if (index >= indexOffset) {
-          double[] val = e.getValue();
-          String word = m_outputFormat.attribute(index).name();
-          word = word.substring(m_Prefix.length());
-          int[] idxAndDocCount = m_consolidatedDict.get(word);
-          if (idxAndDocCount == null) {
-            throw new Exception("This should never occur");
-          }
-          if (idxAndDocCount.length != 2) {
+      // IDF transform
+      if (m_IDFTransform) {
+        if (m_hashDimensions > 0) {
+          val = val * Math.log(Math.max(m_count, 1)
+            / (double) Math.max(m_hashDocCounts[index], 1));
+        } else {
+          if (!m_hasDocCounts) {
             throw new Exception("Can't compute IDF transform as document "
               + "counts are not available");
           }
-          val[0] = val[0] * Math.log(m_count / (double) idxAndDocCount[1]);
+          val = val * Math.log(m_count
+            / (double) m_consolidatedDict.docCount(index));
         }
       }
-    }
 
-    double[] values = new double[contained.size()];
-    int[] indices = new int[contained.size()];
-    int i = 0;
-    for (Map.Entry<Integer, double[]> e : contained.entrySet()) {
-      values[i] = e.getValue()[0];
-      indices[i++] = e.getKey().intValue();
+      m_values[numValues] = val;
+      m_indices[numValues++] = index + indexOffset;
     }
 
-    Instance inst =
-      new SparseInstance(input.weight(), values, indices,
-        m_outputFormat.numAttributes());
-    inst.setDataset(m_outputFormat);
+    return numValues;
+  }
 
-    if (m_normalize) {
-      normalizeInstance(inst, indexOffset);
+  /**
+   * Makes sure that the buffers for vectorizing an instance are allocated.
+   */
+  protected void ensureVectorBuffers() {
+    int numAtts = m_inputFormat.numAttributes();
+    int numTerms =
+      m_hashDimensions > 0 ? m_hashDimensions : m_consolidatedDict.size();
+    if (m_values == null || m_values.length < numAtts + numTerms) {
+      m_values = new double[numAtts + numTerms];
+      m_indices = new int[numAtts + numTerms];
     }
+    ensureWordCapacity(numTerms);
+  }
 
-    return inst;
+  /**
+   * Returns the index of a word among the dictionary attributes: its hash
+   * bucket when hashing, or its index in the dictionary.
+   * 
+   * @param word the word
+   * @return the index, or -1 if the word is not in the dictionary
+   */
+  protected int termIndex(String word) {
+    if (m_hashDimensions > 0) {
+      return (TermDictionary.hash(word) & Integer.MAX_VALUE) % m_hashDimensions;
+    }
+    return m_consolidatedDict.indexOf(word);
   }
 
   /**
@@ -1566,12 +1770,6 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       return;
     }
 
-    if (m_inputVector == null) {
-      m_inputVector = new LinkedHashMap<String, int[]>();
-    } else {
-      m_inputVector.clear();
-    }
-
     int dIndex = 0;
     if (!m_doNotOperateOnPerClassBasis && m_classIndex >= 0 && m_inputFormat.classAttribute().isNominal()) {
       if (!inst.classIsMissing()) {
@@ -1581,6 +1779,8 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       }
     }
 
+    TermDictionary dict = m_hashDimensions > 0 ? null : m_dictsPerClass[dIndex];
+    int numWords = 0;
     for (int j = 0; j < inst.numAttributes(); j++) {
       if (m_selectedRange.isInRange(j) && !inst.isMissing(j)) {
         m_tokenizer.tokenize(inst.stringValue(j));
@@ -1596,15 +1796,12 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
             continue;
           }
 
-          int[] counts = m_inputVector.get(word);
-          if (counts == null) {
-            counts = new int[2];
-            counts[0] = 1; // word count
-            counts[1] = 1; // doc count
-            m_inputVector.put(word, counts);
-          } else {
-            counts[0]++;
+          int index = dict == null ? termIndex(word) : dict.add(word);
+          ensureWordCapacity(index + 1);
+          if (m_wordCounts[index] == 0) {
+            m_words[numWords++] = index;
           }
+          m_wordCounts[index]++;
         }
       }
     }
@@ -1612,15 +1809,16 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
     // now update dictionary for the words that have
     // occurred in this instance (document)
     double docLength = 0;
-    for (Map.Entry<String, int[]> e : m_inputVector.entrySet()) {
-      int[] dictCounts = m_dictsPerClass[dIndex].get(e.getKey());
-      if (dictCounts == null) {
-        dictCounts = new int[2];
-        m_dictsPerClass[dIndex].put(e.getKey(), dictCounts);
+    for (int i = 0; i < numWords; i++) {
+      int index = m_words[i];
+      int count = m_wordCounts[index];
+      m_wordCounts[index] = 0;
+      if (dict == null) {
+        m_hashDocCounts[index]++;
+      } else {
+        dict.increment(index, count, 1);
       }
-      dictCounts[0] += e.getValue()[0];
-      dictCounts[1] += e.getValue()[1];
-      docLength += e.getValue()[0] * e.getValue()[0];
+      docLength += count * count;
     }
     if (m_normalize) {
       // this is normalization based document length *before* final dictionary
@@ -1634,20 +1832,184 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
     pruneDictionary();
   }
 
+  /**
+   * Process a batch of instances by tokenizing string attributes and updating
+   * the dictionary. With several threads, each thread builds a partial
+   * dictionary for a contiguous part of the batch and the partial
+   * dictionaries are aggregated in order, which gives the same dictionary as
+   * a single thread. Periodic pruning is only done with a single thread.
+   * 
+   * @param batch the instances to process
+   * @param numThreads the number of threads to use, 0 for the number of
+   *          cores
+   * @throws Exception if a problem occurs
+   */
+  public void processBatch(Instances batch, int numThreads) throws Exception {
+    int numChunks =
+      m_inputContainsStringAttributes && m_periodicPruneRate <= 0 ? numChunks(
+        batch.numInstances(), numThreads) : 1;
+
+    if (numChunks <= 1) {
+      for (int i = 0; i < batch.numInstances(); i++) {
+        processInstance(batch.instance(i));
+      }
+      return;
+    }
+
+    DictionaryBuilder[] partial =
+      processConcurrently(batch, numChunks, true, new InstanceTask() {
+        @Override
+        public void process(DictionaryBuilder builder, Instance inst, int index) {
+          builder.processInstance(inst);
+        }
+      });
+    for (DictionaryBuilder builder : partial) {
+      aggregate(builder);
+    }
+  }
+
+  /**
+   * A task that processes an instance of a batch with a copy of the builder.
+   */
+  protected interface InstanceTask {
+
+    /**
+     * Processes an instance.
+     * 
+     * @param builder the copy of the builder to use
+     * @param inst the instance
+     * @param index the index of the instance in the batch
+     * @throws Exception if a problem occurs
+     */
+    void process(DictionaryBuilder builder, Instance inst, int index)
+      throws Exception;
+  }
+
+  /**
+   * Returns the number of parts to split a batch into for processing it
+   * concurrently.
+   * 
+   * @param numInstances the number of instances in the batch
+   * @param numThreads the number of threads, 0 for the number of cores
+   * @return the number of parts, 1 if the batch is processed sequentially
+   */
+  protected static int numChunks(int numInstances, int numThreads) {
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+    return Math.max(1, Math.min(numThreads, numInstances / MIN_CHUNK_SIZE));
+  }
+
+  /**
+   * Returns a copy of this builder for processing part of a batch in a
+   * separate thread. The formats, the consolidated dictionary and the other
+   * settings are only read while processing and are shared with this
+   * builder. The tokenizer, stemmer and stopwords handler keep state between
+   * calls, so the copy gets its own, as well as its own buffers.
+   * 
+   * @param empty true if the copy should start with empty dictionaries,
+   *          otherwise the dictionaries are shared with this builder
+   * @return the copy
+   * @throws Exception if the tokenizer, stemmer or stopwords handler can't
+   *           be copied
+   */
+  protected DictionaryBuilder copyForThread(boolean empty) throws Exception {
+    DictionaryBuilder copy = (DictionaryBuilder) clone();
+    Object[] handlers =
+      (Object[]) new SerializedObject(new Object[] { m_tokenizer, m_stemmer,
+        m_stopwordsHandler }).getObject();
+    copy.m_tokenizer = (Tokenizer) handlers[0];
+    copy.m_stemmer = (Stemmer) handlers[1];
+    copy.m_stopwordsHandler = (StopwordsHandler) handlers[2];
+    copy.m_wordCounts = null;
+    copy.m_words = null;
+    copy.m_values = null;
+    copy.m_indices = null;
+    if (empty) {
+      copy.m_count = 0;
+      copy.m_docLengthSum = 0;
+      if (m_hashDimensions > 0) {
+        copy.m_hashDocCounts = new int[m_hashDimensions];
+      } else {
+        copy.m_dictsPerClass = new TermDictionary[m_dictsPerClass.length];
+        for (int i = 0; i < copy.m_dictsPerClass.length; i++) {
+          copy.m_dictsPerClass[i] = new TermDictionary();
+        }
+      }
+    }
+
+    return copy;
+  }
+
+  /**
+   * Splits a batch into contiguous parts and processes each part with its own
+   * copy of this builder in a separate thread.
+   * 
+   * @param batch the batch
+   * @param numChunks the number of parts
+   * @param empty true if the copies should start with empty dictionaries
+   * @param task the task to apply to each instance
+   * @return the copies of the builder, in the order of the parts
+   * @throws Exception if a problem occurs
+   */
+  protected DictionaryBuilder[] processConcurrently(final Instances batch,
+    int numChunks, boolean empty, final InstanceTask task) throws Exception {
+
+    DictionaryBuilder[] copies = new DictionaryBuilder[numChunks];
+    ExecutorService executor = Executors.newFixedThreadPool(numChunks);
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int c = 0; c < numChunks; c++) {
+        final DictionaryBuilder copy = copyForThread(empty);
+        copies[c] = copy;
+        final int first = (int) ((long) c * batch.numInstances() / numChunks);
+        final int last =
+          (int) ((long) (c + 1) * batch.numInstances() / numChunks);
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int i = first; i < last; i++) {
+              task.process(copy, batch.instance(i), i);
+            }
+            return null;
+          }
+        }));
+      }
+      // wait for all parts before passing on the first failure, so that none
+      // is still running when this method returns
+      TaskUtils.waitForAll(results);
+    } finally {
+      executor.shutdown();
+    }
+
+    return copies;
+  }
+
+  /**
+   * Makes sure that the buffers for the words of a document can hold the
+   * given number of distinct words, keeping their contents.
+   * 
+   * @param size the number of words
+   */
+  protected void ensureWordCapacity(int size) {
+    if (m_wordCounts == null) {
+      m_wordCounts = new int[Math.max(size, 16)];
+      m_words = new int[m_wordCounts.length];
+    } else if (m_wordCounts.length < size) {
+      int capacity = Math.max(size, 2 * m_wordCounts.length);
+      m_wordCounts = Arrays.copyOf(m_wordCounts, capacity);
+      m_words = Arrays.copyOf(m_words, capacity);
+    }
+  }
+
   /**
    * Prunes the dictionary of low frequency terms
    */
   protected void pruneDictionary() {
-    if (m_periodicPruneRate > 0 && m_count % m_periodicPruneRate == 0) {
-      for (Map<String, int[]> m_dictsPerClas : m_dictsPerClass) {
-        Iterator<Map.Entry<String, int[]>> entries =
-          m_dictsPerClas.entrySet().iterator();
-        while (entries.hasNext()) {
-          Map.Entry<String, int[]> entry = entries.next();
-          if (entry.getValue()[0] < m_minFrequency) {
-            entries.remove();
-          }
-        }
+    if (m_dictsPerClass != null && m_periodicPruneRate > 0
+      && m_count % m_periodicPruneRate == 0) {
+      for (TermDictionary dict : m_dictsPerClass) {
+        dict.prune(m_minFrequency);
       }
     }
   }
@@ -1657,12 +2019,15 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
    */
   public void reset() {
     m_dictsPerClass = null;
+    m_hashDocCounts = null;
     m_count = 0;
     m_docLengthSum = 0;
     m_avgDocLength = 0;
     m_inputFormat = null;
     m_outputFormat = null;
     m_consolidatedDict = null;
+    m_wordCounts = null;
+    m_words = null;
   }
 
   /**
@@ -1670,12 +2035,15 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
    * These are the dictionaries that are built/updated when processInstance() is
    * called. The finalized dictionary (used for vectorization) can be obtained
    * by calling finalizeDictionary() - this returns a consolidated (over
-   * classes) and pruned final dictionary.
+   * classes) and pruned final dictionary. The returned maps are copies: the
+   * first element of an array is the word count and the second the document
+   * count.
    * 
    * @param minFrequencyPrune prune the dictionaries of low frequency terms
    *          before returning them
    * @return the dictionaries
    */
+  @SuppressWarnings("unchecked")
   public Map<String, int[]>[] getDictionaries(boolean minFrequencyPrune)
     throws WekaException {
 
@@ -1687,29 +2055,48 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       pruneDictionary();
     }
 
-    return m_dictsPerClass;
+    Map<String, int[]>[] result = new Map[m_dictsPerClass.length];
+    for (int i = 0; i < m_dictsPerClass.length; i++) {
+      if (m_sortDictionary) {
+        m_dictsPerClass[i].sort();
+      }
+      result[i] = m_dictsPerClass[i].toMap();
+    }
+
+    return result;
   }
 
   @Override
   public DictionaryBuilder aggregate(DictionaryBuilder toAgg) throws Exception {
-    Map<String, int[]>[] toAggDicts = toAgg.getDictionaries(false);
+    if (m_hashDimensions > 0) {
+      if (toAgg.m_hashDocCounts == null
+        || toAgg.m_hashDocCounts.length != m_hashDocCounts.length) {
+        throw new Exception("Number of hash dimensions of the builder to "
+          + "be aggregated does not match our number of hash dimensions");
+      }
+      for (int i = 0; i < m_hashDocCounts.length; i++) {
+        m_hashDocCounts[i] += toAgg.m_hashDocCounts[i];
+      }
+    } else {
+      if (toAgg.m_dictsPerClass == null) {
+        throw new WekaException("No dictionaries have been built yet!");
+      }
+      TermDictionary[] toAggDicts = toAgg.m_dictsPerClass;
 
-    if (toAggDicts.length != m_dictsPerClass.length) {
-      throw new Exception("Number of dictionaries from the builder to "
-        + "be aggregated does not match our number of dictionaries");
-    }
+      if (toAggDicts.length != m_dictsPerClass.length) {
+        throw new Exception("Number of dictionaries from the builder to "
+          + "be aggregated does not match our number of dictionaries");
+      }
 
-    // we assume that the order of class values is consistent
-    for (int i = 0; i < toAggDicts.length; i++) {
-      Map<String, int[]> toAggDictForClass = toAggDicts[i];
-      for (Map.Entry<String, int[]> e : toAggDictForClass.entrySet()) {
-        int[] ourCounts = m_dictsPerClass[i].get(e.getKey());
-        if (ourCounts == null) {
-          ourCounts = new int[2];
-          m_dictsPerClass[i].put(e.getKey(), ourCounts);
+      // we assume that the order of class values is consistent
+      for (int i = 0; i < toAggDicts.length; i++) {
+        TermDictionary toAggDictForClass = toAggDicts[i];
+        for (int j = 0; j < toAggDictForClass.size(); j++) {
+          m_dictsPerClass[i].increment(
+            m_dictsPerClass[i].add(toAggDictForClass.term(j)),
+            toAggDictForClass.count(j), // word count
+            toAggDictForClass.docCount(j)); // doc count
         }
-        ourCounts[0] += e.getValue()[0]; // word count
-        ourCounts[1] += e.getValue()[1]; // doc count
       }
     }
 
@@ -1730,9 +2117,11 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
    * this method return the finalized dictionary computed on the first call
    * (unless reset() has been called in between).
    * 
-   * @return the consolidated and pruned final dictionary, or null if the input
-   *         format did not contain any string attributes within the selected
-   *         range to process
+   * @return a copy of the consolidated and pruned final dictionary, or null if
+   *         the input format did not contain any string attributes within the
+   *         selected range to process or words are hashed. The first element
+   *         of an array is the index of the word, the second (if available)
+   *         its document count
    * @throws Exception if a problem occurs
    */
   public Map<String, int[]> finalizeDictionary() throws Exception {
@@ -1741,10 +2130,20 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       return null;
     }
 
+    if (m_hashDimensions > 0) {
+      if (m_outputFormat == null) {
+        if (m_normalize) {
+          m_avgDocLength = m_docLengthSum / m_count;
+        }
+        m_outputFormat = getVectorizedFormat();
+      }
+      return null;
+    }
+
     // perform final pruning and consolidation
     // according to wordsToKeep
     if (m_consolidatedDict != null) {
-      return m_consolidatedDict;
+      return consolidatedMap();
     }
 
     if (m_dictsPerClass == null) {
@@ -1754,10 +2153,12 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
 
     int[] prune = new int[m_dictsPerClass.length];
     for (int z = 0; z < prune.length; z++) {
+      if (m_sortDictionary) {
+        m_dictsPerClass[z].sort();
+      }
       int[] array = new int[m_dictsPerClass[z].size()];
-      int index = 0;
-      for (Map.Entry<String, int[]> e : m_dictsPerClass[z].entrySet()) {
-        array[index++] = e.getValue()[0];
+      for (int i = 0; i < array.length; i++) {
+        array[i] = m_dictsPerClass[z].count(i);
       }
 
       if (array.length < m_wordsToKeep) {
@@ -1770,24 +2171,19 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
     }
 
     // now consolidate across classes
-    Map<String, int[]> consolidated = new LinkedHashMap<String, int[]>();
-    int index = 0;
+    TermDictionary consolidated = new TermDictionary();
     for (int z = 0; z < prune.length; z++) {
-      for (Map.Entry<String, int[]> e : m_dictsPerClass[z].entrySet()) {
-        if (e.getValue()[0] >= prune[z]) {
-          int[] counts = consolidated.get(e.getKey());
-          if (counts == null) {
-            counts = new int[2];
-            counts[0] = index++;
-            consolidated.put(e.getKey(), counts);
-          }
-          // counts[0] += e.getValue()[0];
-          counts[1] += e.getValue()[1];
+      TermDictionary dict = m_dictsPerClass[z];
+      for (int i = 0; i < dict.size(); i++) {
+        if (dict.count(i) >= prune[z]) {
+          consolidated.increment(consolidated.add(dict.term(i)), 0,
+            dict.docCount(i));
         }
       }
     }
 
     m_consolidatedDict = consolidated;
+    m_hasDocCounts = true;
     m_dictsPerClass = null;
 
     if (m_normalize) {
@@ -1796,7 +2192,24 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
 
     m_outputFormat = getVectorizedFormat();
 
-    return m_consolidatedDict;
+    return consolidatedMap();
+  }
+
+  /**
+   * Returns a copy of the consolidated dictionary as a map. The first element
+   * of an array is the index of the word, the second (if available) its
+   * document count.
+   * 
+   * @return the consolidated dictionary
+   */
+  protected Map<String, int[]> consolidatedMap() {
+    Map<String, int[]> result =
+      new LinkedHashMap<String, int[]>(2 * m_consolidatedDict.size());
+    for (int i = 0; i < m_consolidatedDict.size(); i++) {
+      result.put(m_consolidatedDict.term(i), m_hasDocCounts ? new int[] { i,
+        m_consolidatedDict.docCount(i) } : new int[] { i });
+    }
+    return result;
   }
 
   /**
@@ -1834,11 +2247,11 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
    */
   public void loadDictionary(Reader reader) throws IOException {
     BufferedReader br = new BufferedReader(reader);
-    m_consolidatedDict = new LinkedHashMap<String, int[]>();
+    m_consolidatedDict = new TermDictionary();
+    m_hasDocCounts = false;
 
     try {
       String line = br.readLine();
-      int index = 0;
       if (line != null) {
         if (line.startsWith("@@@") && line.endsWith("@@@")) {
           String avgS = line.replace("@@@", "");
@@ -1861,32 +2274,29 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
           try {
             int dCount = Integer.parseInt(countS);
             hasDocCounts = true;
-            int[] holder = new int[2];
-            holder[1] = dCount;
-            holder[0] = index++;
-            m_consolidatedDict.put(line.substring(0, line.lastIndexOf(",")),
-              holder);
+            m_consolidatedDict.increment(
+              m_consolidatedDict.add(line.substring(0, line.lastIndexOf(","))),
+              0, dCount);
           } catch (NumberFormatException ex) {
             // ignore quietly
           }
         }
 
         while ((line = br.readLine()) != null) {
-          int[] holder = new int[hasDocCounts ? 2 : 1];
-          holder[0] = index++;
+          int dCount = 0;
           if (hasDocCounts) {
             String countS =
               line.substring(line.lastIndexOf(",") + 1, line.length()).trim();
             line = line.substring(0, line.lastIndexOf(","));
             try {
-              int dCount = Integer.parseInt(countS);
-              holder[1] = dCount;
+              dCount = Integer.parseInt(countS);
             } catch (NumberFormatException e) {
               throw new IOException(e);
             }
           }
-          m_consolidatedDict.put(line, holder);
+          m_consolidatedDict.increment(m_consolidatedDict.add(line), 0, dCount);
         }
+        m_hasDocCounts = hasDocCounts;
       } else {
         throw new IOException("Empty dictionary file!");
       }
@@ -1912,7 +2322,15 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
     try {
       List<Object> holder = (List<Object>) ois.readObject();
       m_avgDocLength = (Double) holder.get(0);
-      m_consolidatedDict = (Map<String, int[]>) holder.get(1);
+      Map<String, int[]> dict = (Map<String, int[]>) holder.get(1);
+      m_consolidatedDict = new TermDictionary(dict.size());
+      m_hasDocCounts = true;
+      for (Map.Entry<String, int[]> e : dict.entrySet()) {
+        int[] v = e.getValue();
+        m_hasDocCounts &= v.length > 1;
+        m_consolidatedDict.increment(m_consolidatedDict.add(e.getKey()), 0,
+          v.length > 1 ? v[1] : 0);
+      }
     } catch (ClassNotFoundException ex) {
       throw new IOException(ex);
     } finally {
@@ -1967,9 +2385,9 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       if (m_avgDocLength > 0) {
         br.write("@@@" + m_avgDocLength + "@@@\n");
       }
-      for (Map.Entry<String, int[]> e : m_consolidatedDict.entrySet()) {
-        int[] v = e.getValue();
-        br.write(e.getKey() + "," + (v.length > 1 ? v[1] : "") + "\n");
+      for (int i = 0; i < m_consolidatedDict.size(); i++) {
+        br.write(m_consolidatedDict.term(i) + ","
+          + (m_hasDocCounts ? m_consolidatedDict.docCount(i) : "") + "\n");
       }
     } finally {
       br.flush();
@@ -1996,7 +2414,7 @@ public class DictionaryBuilder implements Aggregateable<DictionaryBuilder>,
       new ObjectOutputStream(new BufferedOutputStream(os));
     List<Object> holder = new ArrayList<Object>();
     holder.add(m_avgDocLength);
-    holder.add(m_consolidatedDict);
+    holder.add(consolidatedMap());
     try {
       oos.writeObject(holder);
     } finally {
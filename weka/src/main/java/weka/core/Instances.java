@@ -134,6 +134,7 @@ RevisionHandler {
     ArffReader arff = new ArffReader(reader, 1000, false);
     initialize(arff.getData(), 1000);
     arff.setRetainStringValues(true);
+    arff.setReadAhead(true);
     Instance inst;
     while ((inst = arff.readInstance(this)) != null) {
       m_Instances.add(inst);
@@ -0,0 +1,364 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    LBFGSOptimization.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.core;
+
+import java.util.Arrays;
+
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+
+/**
+ * This subclass of Optimization.java implements limited-memory BFGS updates
+ * rather than maintaining a dense approximation of the Hessian, by overriding
+ * the methods that initialize, update and release the approximation and
+ * compute the search direction from it; the iterations of findArgmin() are
+ * those of Optimization.java. Only the differences in the variables and
+ * gradients of the last few iterations are kept, and the search direction is
+ * computed from them with the two-loop recursion, so memory and time per iteration grow
+ * linearly with the number of variables instead of quadratically. This makes
+ * it a drop-in replacement for Optimization.java when there are many
+ * parameters.
+ *
+ * The bound constraints are handled as in Optimization.java: the line search
+ * fixes variables that hit their bounds, the search directions are computed
+ * for the free variables only, and on convergence fixed variables whose
+ * Lagrangian multiplier estimates are negative are freed again. The stored
+ * differences are discarded whenever a variable is freed. If the maximum
+ * number of iterations is reached, they are kept for the next call of
+ * findArgmin() that starts from getVarbValues().
+ *
+ * See also information in the getTechnicalInformation() method.
+ *
+ * @version $Revision$
+ */
+public abstract class LBFGSOptimization extends Optimization implements
+  RevisionHandler {
+
+  /** The number of corrections to keep */
+  protected int m_NumCorrections = 10;
+
+  /** The variable differences, in a circular buffer */
+  protected double[][] m_S;
+
+  /** The gradient differences, in a circular buffer */
+  protected double[][] m_Y;
+
+  /** The position of the oldest correction in the buffers */
+  protected int m_First;
+
+  /** The number of corrections in the buffers */
+  protected int m_Num;
+
+  /** Whether the corrections were left by a call that ran out of iterations */
+  protected boolean m_Resumable;
+
+  /**
+   * Returns an instance of a TechnicalInformation object, containing detailed
+   * information about the technical background of this class, e.g., paper
+   * reference or book this class is based on.
+   *
+   * @return the technical information about this class
+   */
+  @Override
+  public TechnicalInformation getTechnicalInformation() {
+    TechnicalInformation result;
+    TechnicalInformation additional;
+
+    result = new TechnicalInformation(Type.ARTICLE);
+    result.setValue(Field.AUTHOR, "D.C. Liu and J. Nocedal");
+    result.setValue(Field.YEAR, "1989");
+    result.setValue(Field.TITLE,
+      "On the limited memory BFGS method for large scale optimization");
+    result.setValue(Field.JOURNAL, "Mathematical Programming");
+    result.setValue(Field.VOLUME, "45");
+    result.setValue(Field.PAGES, "503-528");
+
+    additional = result.add(Type.ARTICLE);
+    additional.setValue(Field.AUTHOR, "J. Nocedal");
+    additional.setValue(Field.YEAR, "1980");
+    additional.setValue(Field.TITLE,
+      "Updating quasi-Newton matrices with limited storage");
+    additional.setValue(Field.JOURNAL, "Mathematics of Computation");
+    additional.setValue(Field.VOLUME, "35");
+    additional.setValue(Field.PAGES, "773-782");
+
+    return result;
+  }
+
+  /**
+   * Set the number of corrections, i.e., the number of pairs of variable and
+   * gradient differences that are kept for approximating the Hessian
+   * (Default 10)
+   *
+   * @param numCorrections the number of corrections
+   */
+  public void setNumCorrections(int numCorrections) {
+    m_NumCorrections = numCorrections;
+  }
+
+  /**
+   * Get the number of corrections that are kept for approximating the Hessian
+   *
+   * @return the number of corrections
+   */
+  public int getNumCorrections() {
+    return m_NumCorrections;
+  }
+
+  /**
+   * Computes the search direction for the free variables from the stored
+   * corrections using the two-loop recursion. The direction of the fixed
+   * variables is zero.
+   *
+   * @param grad the gradient
+   * @param isFixed indicating whether a variable has been fixed
+   * @param s the variable differences, in a circular buffer
+   * @param y the gradient differences, in a circular buffer
+   * @param first the position of the oldest correction in the buffers
+   * @param num the number of corrections
+   * @return the search direction, null if it is not a descent direction
+   */
+  protected double[] direction(double[] grad, boolean[] isFixed, double[][] s,
+    double[][] y, int first, int num) {
+    int l = grad.length;
+    double[] q = new double[l];
+    for (int i = 0; i < l; i++) {
+      if (!isFixed[i]) {
+        q[i] = -grad[i];
+      }
+    }
+
+    double[] rho = new double[num];
+    double[] alpha = new double[num];
+    for (int k = num - 1; k >= 0; k--) {
+      int c = (first + k) % s.length;
+      double sy = dotFree(s[c], y[c], isFixed);
+      if (sy <= 0) {
+        // The correction has no positive curvature on the free variables
+        continue;
+      }
+      rho[k] = 1.0 / sy;
+      alpha[k] = rho[k] * dotFree(s[c], q, isFixed);
+      addFree(q, -alpha[k], y[c], isFixed);
+    }
+
+    // Scale by the curvature of the most recent usable correction
+    for (int k = num - 1; k >= 0; k--) {
+      if (rho[k] > 0) {
+        int c = (first + k) % s.length;
+        double gamma = 1.0 / (rho[k] * dotFree(y[c], y[c], isFixed));
+        for (int i = 0; i < l; i++) {
+          q[i] *= gamma;
+        }
+        break;
+      }
+    }
+
+    for (int k = 0; k < num; k++) {
+      if (rho[k] > 0) {
+        int c = (first + k) % s.length;
+        double beta = rho[k] * dotFree(y[c], q, isFixed);
+        addFree(q, alpha[k] - beta, s[c], isFixed);
+      }
+    }
+
+    double slope = 0;
+    for (int i = 0; i < l; i++) {
+      if (!isFixed[i]) {
+        if (Double.isNaN(q[i])) {
+          return null;
+        }
+        slope += grad[i] * q[i];
+      }
+    }
+    return (slope < 0) ? q : null;
+  }
+
+  /**
+   * Returns the dot product of two vectors over the free variables.
+   *
+   * @param a the first vector
+   * @param b the second vector
+   * @param isFixed indicating whether a variable has been fixed
+   * @return the dot product
+   */
+  protected static double dotFree(double[] a, double[] b, boolean[] isFixed) {
+    double sum = 0;
+    for (int i = 0; i < a.length; i++) {
+      if (!isFixed[i]) {
+        sum += a[i] * b[i];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Adds a multiple of a vector to another one, for the free variables.
+   *
+   * @param a the vector to add to
+   * @param factor the multiplier
+   * @param b the vector to add
+   * @param isFixed indicating whether a variable has been fixed
+   */
+  protected static void addFree(double[] a, double factor, double[] b,
+    boolean[] isFixed) {
+    for (int i = 0; i < a.length; i++) {
+      if (!isFixed[i]) {
+        a[i] += factor * b[i];
+      }
+    }
+  }
+
+  /**
+   * Starts with the corrections left by the last call if it ran out of
+   * iterations and this call resumes from where it stopped, and with no
+   * corrections otherwise.
+   *
+   * @param initX the initial values of the variables
+   * @param grad the gradient at the initial values
+   * @param isFixed indicating whether a variable has been fixed
+   * @return the first search direction
+   */
+  @Override
+  protected double[] initHessian(double[] initX, double[] grad,
+    boolean[] isFixed) {
+    int l = initX.length;
+    int numCorrections = Math.max(1, m_NumCorrections);
+    boolean resume = m_Resumable && (m_S.length == numCorrections)
+      && (m_S[0].length == l) && Arrays.equals(initX, m_X);
+    m_Resumable = false;
+    if (!resume) {
+      m_S = new double[numCorrections][l];
+      m_Y = new double[numCorrections][l];
+      m_First = 0;
+      m_Num = 0;
+      double[] direct = new double[l];
+      for (int i = 0; i < l; i++) {
+        direct[i] = -grad[i];
+      }
+      return direct;
+    }
+    return findDirection(grad, isFixed);
+  }
+
+  /**
+   * Nothing to do, the directions are computed for the free variables only.
+   *
+   * @param wsBdsIndx the indices of the fixed variables
+   */
+  @Override
+  protected void fixVariables(DynamicIntArray wsBdsIndx) {
+  }
+
+  /**
+   * Discards the corrections, as they do not cover the freed variable.
+   *
+   * @param index the index of the freed variable
+   */
+  @Override
+  protected void freeVariable(int index) {
+    m_First = 0;
+    m_Num = 0;
+  }
+
+  /**
+   * Stores the differences of the free variables as a correction, replacing
+   * the oldest correction if the buffers are full.
+   *
+   * @param deltaX the differences of the variables
+   * @param deltaGrad the differences of the gradient of the free variables
+   * @param oldGrad the gradient before the step
+   * @param denom dg'*dx over the free variables
+   * @param isFixed indicating whether a variable has been fixed
+   */
+  @Override
+  protected void updateHessian(double[] deltaX, double[] deltaGrad,
+    double[] oldGrad, double denom, boolean[] isFixed) {
+    int c = (m_First + m_Num) % m_S.length;
+    for (int i = 0; i < deltaX.length; i++) {
+      if (!isFixed[i]) {
+        m_S[c][i] = deltaX[i];
+        m_Y[c][i] = deltaGrad[i];
+      } else {
+        m_S[c][i] = 0.0;
+        m_Y[c][i] = 0.0;
+      }
+    }
+    if (m_Num < m_S.length) {
+      m_Num++;
+    } else {
+      m_First = (m_First + 1) % m_S.length;
+    }
+  }
+
+  /**
+   * Computes the search direction with the two-loop recursion. If it is not
+   * a descent direction, the corrections are discarded.
+   *
+   * @param grad the gradient
+   * @param isFixed indicating whether a variable has been fixed
+   * @return the search direction
+   */
+  @Override
+  protected double[] findDirection(double[] grad, boolean[] isFixed) {
+    double[] direct = direction(grad, isFixed, m_S, m_Y, m_First, m_Num);
+    if (direct == null) {
+      if (m_Debug) {
+        System.err.println("No descent direction, discard corrections.");
+      }
+      m_First = 0;
+      m_Num = 0;
+      direct = direction(grad, isFixed, m_S, m_Y, m_First, m_Num);
+      if (direct == null) {
+        direct = new double[grad.length];
+      }
+    }
+    return direct;
+  }
+
+  /**
+   * Keeps the corrections for the next call if the maximum number of
+   * iterations was reached, and releases them otherwise.
+   *
+   * @param x the current values of the variables
+   * @param converged whether the minimum was found
+   */
+  @Override
+  protected void releaseHessian(double[] x, boolean converged) {
+    if (converged) {
+      m_S = null;
+      m_Y = null;
+    } else {
+      m_Resumable = true;
+    }
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
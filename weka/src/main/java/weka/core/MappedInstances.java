@@ -0,0 +1,616 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    MappedInstances.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only set of instances whose rows live off-heap in a memory-mapped
+ * file in the binary format written by
+ * <code>weka.core.converters.MappedInstancesSaver</code>. Only the header is
+ * kept on the Java heap; <code>instance(int)</code> and <code>get(int)</code>
+ * decode a fresh <code>DenseInstance</code> from the mapped file on every
+ * call. This allows datasets that are larger than the heap to be scanned,
+ * e.g., by updateable classifiers or during evaluation, and several JVMs that
+ * map the same file share the operating system's page cache rather than each
+ * holding their own copy of the data.
+ * <p>
+ *
+ * The file consists of
+ * <ul>
+ * <li>a preamble of <code>PREAMBLE_SIZE</code> bytes: the magic bytes, the
+ * format version and the number of attributes</li>
+ * <li>one fixed-size record per instance: the attribute values followed by
+ * the weight, as big-endian doubles (missing values are stored as NaN)</li>
+ * <li>the serialized header (an empty <code>Instances</code> object that holds
+ * the values of string attributes)</li>
+ * <li>a trailer of <code>TRAILER_SIZE</code> bytes: the offset of the header,
+ * the number of instances and the magic bytes</li>
+ * </ul>
+ * The layout can be written in a single pass, without knowing the number of
+ * instances in advance.
+ * <p>
+ *
+ * Changes to the header (class index, relation name, renaming attributes) are
+ * possible, but any operation that would add, remove, reorder or modify rows
+ * throws an <code>UnsupportedOperationException</code>. Changes made to
+ * instances returned by this set are not written back. Methods that derive
+ * new datasets, like <code>new Instances(Instances)</code> or
+ * <code>trainCV(int, int)</code>, produce ordinary in-memory
+ * <code>Instances</code>.
+ * <p>
+ *
+ * When serialized, only the header and the location of the file are written;
+ * the file is mapped again when the object is deserialized.
+ *
+ * @version $Revision$
+ */
+public class MappedInstances extends Instances {
+
+  /** for serialization */
+  private static final long serialVersionUID = 6263536961094526467L;
+
+  /** the file extension. */
+  public static final String FILE_EXTENSION = ".mbi";
+
+  /** the magic bytes at the start and the end of a file. */
+  public static final long MAGIC = 0x57454B414D4D4150L; // "WEKAMMAP"
+
+  /** the version of the file format. */
+  public static final int VERSION = 1;
+
+  /** the size of the preamble in bytes. */
+  public static final int PREAMBLE_SIZE = 32;
+
+  /** the size of the trailer in bytes. */
+  public static final int TRAILER_SIZE = 24;
+
+  /** the maximum size of a single mapped segment in bytes. */
+  public static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+  /** the mapped file. */
+  protected File m_File;
+
+  /** the number of instances. */
+  protected int m_NumRows;
+
+  /** the number of bytes per instance. */
+  protected int m_RowSize;
+
+  /** the number of instances per segment. */
+  protected int m_RowsPerSegment;
+
+  /** the mapped segments, each holding a whole number of instances. */
+  protected transient MappedByteBuffer[] m_Segments;
+
+  /**
+   * Maps the given file.
+   *
+   * @param file the file to map
+   * @throws IOException if the file cannot be read or is not in the correct
+   *           format
+   */
+  public MappedInstances(File file) throws IOException {
+
+    super(readHeader(file), 0);
+
+    m_File = file.getAbsoluteFile();
+    map();
+  }
+
+  /**
+   * Reads the header from the given file.
+   *
+   * @param file the file to read the header from
+   * @return the header
+   * @throws IOException if the file cannot be read or is not in the correct
+   *           format
+   */
+  protected static Instances readHeader(File file) throws IOException {
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      long length = raf.length();
+      if (length < PREAMBLE_SIZE + TRAILER_SIZE) {
+        throw new IOException("File '" + file + "' is too short!");
+      }
+      raf.seek(length - TRAILER_SIZE);
+      long offset = raf.readLong();
+      raf.readLong();
+      if (raf.readLong() != MAGIC) {
+        throw new IOException("File '" + file
+          + "' does not contain memory-mapped instances!");
+      }
+      if ((offset < PREAMBLE_SIZE) || (offset > length - TRAILER_SIZE)) {
+        throw new IOException("File '" + file + "' is corrupt!");
+      }
+
+      byte[] bytes = new byte[(int) (length - TRAILER_SIZE - offset)];
+      raf.seek(offset);
+      raf.readFully(bytes);
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+        bytes));
+      try {
+        return (Instances) in.readObject();
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Could not deserialize header from '" + file
+          + "'!");
+      } finally {
+        in.close();
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Maps the data part of the file in segments of at most
+   * <code>MAX_SEGMENT_SIZE</code> bytes.
+   *
+   * @throws IOException if the file cannot be mapped or is not in the correct
+   *           format
+   */
+  protected void map() throws IOException {
+
+    RandomAccessFile raf = new RandomAccessFile(m_File, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE);
+      ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+      channel.read(preamble, 0);
+      channel.read(trailer, channel.size() - TRAILER_SIZE);
+      if ((preamble.getLong(0) != MAGIC) || (trailer.getLong(16) != MAGIC)) {
+        throw new IOException("File '" + m_File
+          + "' does not contain memory-mapped instances!");
+      }
+      if (preamble.getInt(8) != VERSION) {
+        throw new IOException("Unsupported format version "
+          + preamble.getInt(8) + " in '" + m_File + "'!");
+      }
+      if (preamble.getInt(12) != numAttributes()) {
+        throw new IOException("Number of attributes in '" + m_File
+          + "' does not match header!");
+      }
+
+      long numRows = trailer.getLong(8);
+      if (numRows > Integer.MAX_VALUE) {
+        throw new IOException("Too many instances in '" + m_File + "': "
+          + numRows);
+      }
+      m_RowSize = (numAttributes() + 1) * 8;
+      if (PREAMBLE_SIZE + numRows * m_RowSize != trailer.getLong(0)) {
+        throw new IOException("File '" + m_File + "' is corrupt!");
+      }
+      if (m_RowSize > MAX_SEGMENT_SIZE) {
+        throw new IOException("Too many attributes in '" + m_File + "': "
+          + numAttributes());
+      }
+      m_NumRows = (int) numRows;
+      m_RowsPerSegment = MAX_SEGMENT_SIZE / m_RowSize;
+
+      int numSegments = (m_NumRows + m_RowsPerSegment - 1) / m_RowsPerSegment;
+      m_Segments = new MappedByteBuffer[numSegments];
+      for (int i = 0; i < numSegments; i++) {
+        long first = (long) i * m_RowsPerSegment;
+        long rows = Math.min(m_RowsPerSegment, m_NumRows - first);
+        m_Segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+          PREAMBLE_SIZE + first * m_RowSize, rows * m_RowSize);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Returns the mapped file.
+   *
+   * @return the file
+   */
+  public File getFile() {
+
+    return m_File;
+  }
+
+  /**
+   * Returns the segment holding the given instance.
+   *
+   * @param index the instance's index (index starts with 0)
+   * @return the segment
+   */
+  protected ByteBuffer segment(int index) {
+
+    if ((index < 0) || (index >= m_NumRows)) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+        + m_NumRows);
+    }
+    return m_Segments[index / m_RowsPerSegment];
+  }
+
+  /**
+   * Returns the position of the given instance within its segment.
+   *
+   * @param index the instance's index (index starts with 0)
+   * @return the position in bytes
+   */
+  protected int position(int index) {
+
+    return (index % m_RowsPerSegment) * m_RowSize;
+  }
+
+  /**
+   * Reads a single value straight from the mapped file.
+   *
+   * @param index the instance's index (index starts with 0)
+   * @param attIndex the attribute's index (index starts with 0)
+   * @return the value, NaN if missing
+   */
+  public/* @pure@ */double value(int index, int attIndex) {
+
+    return segment(index).getDouble(position(index) + attIndex * 8);
+  }
+
+  /**
+   * Reads the weight of an instance straight from the mapped file.
+   *
+   * @param index the instance's index (index starts with 0)
+   * @return the weight
+   */
+  public/* @pure@ */double weight(int index) {
+
+    return segment(index).getDouble(position(index) + numAttributes() * 8);
+  }
+
+  /**
+   * Returns the instance at the given position. Each call decodes a new
+   * instance from the mapped file, which has access to this dataset.
+   *
+   * @param index the instance's index (index starts with 0)
+   * @return the instance at the given position
+   */
+  @Override
+  public/* @non_null pure@ */Instance instance(int index) {
+
+    ByteBuffer segment = segment(index);
+    int pos = position(index);
+    double[] values = new double[numAttributes()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = segment.getDouble(pos);
+      pos += 8;
+    }
+    DenseInstance result = new DenseInstance(segment.getDouble(pos), values);
+    result.setDataset(this);
+    return result;
+  }
+
+  /**
+   * Returns the instance at the given position.
+   *
+   * @param index the instance's index (index starts with 0)
+   * @return the instance at the given position
+   */
+  @Override
+  public/* @non_null pure@ */Instance get(int index) {
+
+    return instance(index);
+  }
+
+  /**
+   * Returns the first instance in the set.
+   *
+   * @return the first instance in the set
+   */
+  @Override
+  public/* @non_null pure@ */Instance firstInstance() {
+
+    return instance(0);
+  }
+
+  /**
+   * Returns the last instance in the set.
+   *
+   * @return the last instance in the set
+   */
+  @Override
+  public/* @non_null pure@ */Instance lastInstance() {
+
+    return instance(m_NumRows - 1);
+  }
+
+  /**
+   * Returns an enumeration of all instances in the dataset.
+   *
+   * @return enumeration of all instances in the dataset
+   */
+  @Override
+  public/* @non_null pure@ */Enumeration<Instance> enumerateInstances() {
+
+    return new Enumeration<Instance>() {
+
+      private int m_Row = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        return m_Row < m_NumRows;
+      }
+
+      @Override
+      public Instance nextElement() {
+        if (m_Row >= m_NumRows) {
+          throw new NoSuchElementException();
+        }
+        return instance(m_Row++);
+      }
+    };
+  }
+
+  /**
+   * Returns the number of instances in the dataset.
+   *
+   * @return the number of instances in the dataset as an integer
+   */
+  @Override
+  public/* @pure@ */int numInstances() {
+
+    return m_NumRows;
+  }
+
+  /**
+   * Returns the number of instances in the dataset.
+   *
+   * @return the number of instances in the dataset as an integer
+   */
+  @Override
+  public/* @pure@ */int size() {
+
+    return m_NumRows;
+  }
+
+  /**
+   * Gets the value of all instances in this dataset for a particular
+   * attribute, read straight from the mapped file.
+   *
+   * @param index the index of the attribute.
+   * @return the values
+   */
+  @Override
+  public/* @pure@ */double[] attributeToDoubleArray(int index) {
+
+    double[] result = new double[m_NumRows];
+    for (int i = 0; i < m_NumRows; i++) {
+      result[i] = value(i, index);
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if all instance weights are the same and false otherwise.
+   * Returns true if there are no instances.
+   */
+  @Override
+  public boolean allInstanceWeightsIdentical() {
+
+    for (int i = 1; i < m_NumRows; i++) {
+      if (weight(i) != weight(0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Creates the exception thrown by all operations that would modify the
+   * rows.
+   *
+   * @return the exception
+   */
+  protected UnsupportedOperationException readOnly() {
+
+    return new UnsupportedOperationException(getClass().getName()
+      + " is read-only!");
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param instance ignored
+   * @return never
+   */
+  @Override
+  public boolean add(/* @non_null@ */Instance instance) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param index ignored
+   * @param instance ignored
+   */
+  @Override
+  public void add(int index, /* @non_null@ */Instance instance) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param index ignored
+   * @param instance ignored
+   * @return never
+   */
+  @Override
+  public Instance set(int index, /* @non_null@ */Instance instance) {
+    throw readOnly();
+  }
+
+  /**
+   * Does nothing, the mapped file is already compact.
+   */
+  @Override
+  public void compactify() {
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   */
+  @Override
+  public void delete() {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param index ignored
+   */
+  @Override
+  public void delete(int index) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param index ignored
+   * @return never
+   */
+  @Override
+  public Instance remove(int index) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param attIndex ignored
+   */
+  @Override
+  public void deleteWithMissing(int attIndex) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param position ignored
+   */
+  @Override
+  public void deleteAttributeAt(int position) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param att ignored
+   * @param position ignored
+   */
+  @Override
+  public void insertAttributeAt(/* @non_null@ */Attribute att, int position) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param att ignored
+   * @param position ignored
+   */
+  @Override
+  public void replaceAttributeAt(/* @non_null@ */Attribute att, int position) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param attIndex ignored
+   */
+  @Override
+  public void sort(int attIndex) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param attIndex ignored
+   */
+  @Override
+  public void stableSort(int attIndex) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param numFolds ignored
+   */
+  @Override
+  protected void stratStep(int numFolds) {
+    throw readOnly();
+  }
+
+  /**
+   * Not supported, the instances are read-only.
+   *
+   * @param i ignored
+   * @param j ignored
+   */
+  @Override
+  public void swap(int i, int j) {
+    throw readOnly();
+  }
+
+  /**
+   * Maps the file again after deserialization.
+   *
+   * @param in the stream to read from
+   * @throws IOException if the file cannot be mapped
+   * @throws ClassNotFoundException if a class cannot be found
+   */
+  private void readObject(ObjectInputStream in) throws IOException,
+    ClassNotFoundException {
+
+    in.defaultReadObject();
+    map();
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
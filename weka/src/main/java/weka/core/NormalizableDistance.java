@@ -304,6 +304,19 @@ public abstract class NormalizableDistance implements DistanceFunction,
     }
   }
 
+  /**
+   * Returns whether the attribute with the given index is used in the
+   * distance calculations.
+   * 
+   * @param index the attribute index
+   * @return true if the attribute is used
+   */
+  public boolean isActive(int index) {
+    validate();
+
+    return m_ActiveIndices[index];
+  }
+
   /**
    * Sets the instances.
    * 
@@ -21,6 +21,12 @@
 
 package weka.core;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.matrix.Matrix;
@@ -129,6 +135,15 @@ import weka.core.matrix.Matrix;
  * function.
  * <p/>
  * 
+ * If the objective function is a sum of terms, e.g., one per training
+ * instance, the subclass can implement <code>SumOfTerms</code> and compute the
+ * objective function and gradient with <code>sumObjective()</code> and
+ * <code>sumGradient()</code>. These split the terms into a fixed number of
+ * partitions, which are summed by <code>setNumThreads()</code> threads, and
+ * add up the partial sums in the order of the partitions, so the result does
+ * not depend on the number of threads.
+ * <p/>
+ * 
  * REFERENCES (see also the <code>getTechnicalInformation()</code> method):<br/>
  * The whole model algorithm is adapted from Chapter 5 and other related
  * chapters in Gill, Murray and Wright(1981) "Practical Optimization", Academic
@@ -185,6 +200,55 @@ public abstract class Optimization implements TechnicalInformationHandler,
   /** Used when iteration overflow occurs */
   protected double[] m_X;
 
+  /** Lower triangle of the Cholesky factor of the Hessian approximation */
+  protected Matrix m_L;
+
+  /** Diagonal of the Cholesky factor of the Hessian approximation */
+  protected double[] m_D;
+
+  /** The number of threads for summing the terms of the objective function */
+  protected int m_NumThreads = 1;
+
+  /** The pool summing the terms of the objective function */
+  protected transient ForkJoinPool m_Pool;
+
+  /**
+   * An objective function that is a sum of terms, e.g., one per training
+   * instance, so that ranges of the terms can be summed concurrently.
+   */
+  public static interface SumOfTerms {
+
+    /**
+     * Returns the number of terms.
+     * 
+     * @return the number of terms
+     */
+    int numTerms();
+
+    /**
+     * Evaluates the sum of a range of terms.
+     * 
+     * @param x the variable values
+     * @param from the index of the first term
+     * @param to the index after the last term
+     * @return the sum of the terms
+     * @throws Exception if something goes wrong
+     */
+    double objectiveFunction(double[] x, int from, int to) throws Exception;
+
+    /**
+     * Adds the gradients of a range of terms to a gradient vector.
+     * 
+     * @param x the variable values
+     * @param from the index of the first term
+     * @param to the index after the last term
+     * @param grad the gradient vector to add to
+     * @throws Exception if something goes wrong
+     */
+    void addGradient(double[] x, int from, int to, double[] grad)
+      throws Exception;
+  }
+
   /** Compute machine precision */
   protected static double m_Epsilon, m_Zero;
   static {
@@ -304,6 +368,145 @@ public abstract class Optimization implements TechnicalInformationHandler,
     return null;
   }
 
+  /**
+   * Returns the pool for summing partitions concurrently. A pool with a
+   * different number of threads is shut down when it is replaced.
+   * 
+   * @return the pool, null if only one thread is to be used
+   */
+  protected ForkJoinPool pool() {
+    int numThreads = m_NumThreads;
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+    if (numThreads <= 1) {
+      return null;
+    }
+    if ((m_Pool == null) || (m_Pool.getParallelism() != numThreads)) {
+      shutdownPool();
+      m_Pool = new ForkJoinPool(numThreads);
+    }
+    return m_Pool;
+  }
+
+  /**
+   * Shuts down the threads used for summing the terms of the objective
+   * function, if any. They are created again when needed. The threads are
+   * kept between calls of findArgmin(), so that restarting the search does
+   * not create them again; callers that use more than one thread must call
+   * this method once they are done with the optimization.
+   */
+  public void shutdownPool() {
+    if (m_Pool != null) {
+      m_Pool.shutdown();
+      m_Pool = null;
+    }
+  }
+
+  /**
+   * Runs a task for each partition, in the pool if more than one thread is to
+   * be used.
+   * 
+   * @param tasks the tasks
+   * @throws Exception if a task fails
+   */
+  protected void runPartitions(List<Callable<Void>> tasks) throws Exception {
+    ForkJoinPool pool = pool();
+    if ((pool == null) || (tasks.size() == 1)) {
+      for (Callable<Void> task : tasks) {
+        task.call();
+      }
+      return;
+    }
+
+    List<ForkJoinTask<Void>> running = new ArrayList<ForkJoinTask<Void>>();
+    for (Callable<Void> task : tasks) {
+      running.add(pool.submit(task));
+    }
+    // Wait for all tasks before passing on the first failure, so that none
+    // of them still works on the shared state afterwards
+    TaskUtils.waitForAll(running);
+  }
+
+  /**
+   * Evaluates an objective function that is a sum of terms. The terms are
+   * summed per partition, concurrently if more than one thread is to be used,
+   * and the partial sums are added up in the order of the partitions.
+   * 
+   * @param function the objective function
+   * @param x the variable values
+   * @return the objective function value
+   * @throws Exception if something goes wrong
+   */
+  protected double sumObjective(final SumOfTerms function, final double[] x)
+    throws Exception {
+    final int numTerms = function.numTerms();
+    final int numPartitions = TaskUtils.numPartitions(numTerms);
+    final double[] sums = new double[numPartitions];
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numPartitions);
+    for (int p = 0; p < numPartitions; p++) {
+      final int partition = p;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          sums[partition] = function.objectiveFunction(x,
+            TaskUtils.partitionStart(numTerms, partition, numPartitions),
+            TaskUtils.partitionStart(numTerms, partition + 1, numPartitions));
+          return null;
+        }
+      });
+    }
+    runPartitions(tasks);
+
+    double sum = 0;
+    for (double partialSum : sums) {
+      sum += partialSum;
+    }
+    return sum;
+  }
+
+  /**
+   * Evaluates the gradient of an objective function that is a sum of terms.
+   * The gradients of the terms are summed per partition, concurrently if more
+   * than one thread is to be used, and the partial sums are added up in the
+   * order of the partitions.
+   * 
+   * @param function the objective function
+   * @param x the variable values
+   * @return the gradient vector
+   * @throws Exception if something goes wrong
+   */
+  protected double[] sumGradient(final SumOfTerms function, final double[] x)
+    throws Exception {
+    final int numTerms = function.numTerms();
+    final int numPartitions = TaskUtils.numPartitions(numTerms);
+    final double[][] grads = new double[numPartitions][];
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numPartitions);
+    for (int p = 0; p < numPartitions; p++) {
+      final int partition = p;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          grads[partition] = new double[x.length];
+          function.addGradient(x,
+            TaskUtils.partitionStart(numTerms, partition, numPartitions),
+            TaskUtils.partitionStart(numTerms, partition + 1, numPartitions),
+            grads[partition]);
+          return null;
+        }
+      });
+    }
+    runPartitions(tasks);
+
+    double[] grad = grads[0];
+    for (int p = 1; p < numPartitions; p++) {
+      for (int i = 0; i < grad.length; i++) {
+        grad[i] += grads[p][i];
+      }
+    }
+    return grad;
+  }
+
   /**
    * Get the minimal function value
    * 
@@ -331,6 +534,28 @@ public abstract class Optimization implements TechnicalInformationHandler,
     m_Debug = db;
   }
 
+  /**
+   * Set the number of threads for summing the terms of the objective function
+   * and its gradient with sumObjective() and sumGradient() (Default 1). With
+   * more than one thread, shutdownPool() must be called once the
+   * optimization is done.
+   * 
+   * @param numThreads the number of threads, 0 for the number of available
+   *          processors
+   */
+  public void setNumThreads(int numThreads) {
+    m_NumThreads = numThreads;
+  }
+
+  /**
+   * Get the number of threads for summing the terms of the objective function
+   * 
+   * @return the number of threads, 0 for the number of available processors
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
   /**
    * Get the variable values. Only needed when iterations exceeds the max
    * threshold.
@@ -890,6 +1115,155 @@ public abstract class Optimization implements TechnicalInformationHandler,
     return x;
   }
 
+  /**
+   * Initializes the approximation of the Hessian at the start of findArgmin()
+   * and returns the first search direction. The dense BFGS updates start from
+   * the identity matrix, so the first direction is the steepest descent.
+   * Subclasses that approximate the Hessian differently override this method
+   * together with fixVariables(), freeVariable(), updateHessian(),
+   * findDirection() and releaseHessian().
+   * 
+   * @param initX the initial values of the variables
+   * @param grad the gradient at the initial values
+   * @param isFixed indicating whether a variable has been fixed
+   * @return the first search direction
+   * @throws Exception if an error occurs
+   */
+  protected double[] initHessian(double[] initX, double[] grad,
+    boolean[] isFixed) throws Exception {
+    int l = initX.length;
+    double[] direct = new double[l];
+    m_L = new Matrix(l, l); // Lower triangle of Cholesky factor
+    m_D = new double[l]; // Diagonal of Cholesky factor
+    for (int i = 0; i < l; i++) {
+      // L.setRow(i, new double[l]); Not necessary
+      m_L.set(i, i, 1.0);
+      m_D[i] = 1.0;
+      direct[i] = -grad[i];
+    }
+    return direct;
+  }
+
+  /**
+   * Removes the variables of the working set from the approximation of the
+   * Hessian, after the line search has fixed a variable without taking a
+   * step.
+   * 
+   * @param wsBdsIndx the indices of the fixed variables
+   */
+  protected void fixVariables(DynamicIntArray wsBdsIndx) {
+    int l = m_D.length;
+    for (int f = 0; f < wsBdsIndx.size(); f++) {
+      int[] idx = new int[1];
+      // int idx=wsBdsIndx.elementAt(f);
+      idx[0] = wsBdsIndx.elementAt(f);
+      m_L.setMatrix(idx, 0, l - 1, new Matrix(1, l));
+      // L.setRow(idx, new double[l]);
+      m_L.setMatrix(0, l - 1, idx, new Matrix(l, 1));
+      // L.setColumn(idx, new double[l]);
+      m_D[idx[0]] = 0.0;
+      // D[idx] = 0.0;
+    }
+  }
+
+  /**
+   * Adds a variable that is freed from its bound to the approximation of the
+   * Hessian. The approximation is not updated in the same iteration.
+   * 
+   * @param index the index of the freed variable
+   */
+  protected void freeVariable(int index) {
+    m_L.set(index, index, 1.0);
+    m_D[index] = 1.0;
+  }
+
+  /**
+   * Updates the approximation of the Hessian with the differences of the
+   * variables and the gradient of the last step. Only called if the update
+   * keeps the approximation positive definite.
+   * 
+   * @param deltaX the differences of the variables
+   * @param deltaGrad the differences of the gradient of the free variables
+   * @param oldGrad the gradient before the step
+   * @param denom dg'*dx over the free variables
+   * @param isFixed indicating whether a variable has been fixed
+   * @throws Exception if an error occurs
+   */
+  protected void updateHessian(double[] deltaX, double[] deltaGrad,
+    double[] oldGrad, double denom, boolean[] isFixed) throws Exception {
+
+    // modify once: dg*dg'/(dg'*dx)
+    double coeff = 1.0 / denom; // 1/(dg'*dx)
+    updateCholeskyFactor(m_L, m_D, deltaGrad, coeff, isFixed);
+
+    // modify twice: g*g'/(g'*p)
+    coeff = 1.0 / m_Slope; // 1/(g'*p)
+    updateCholeskyFactor(m_L, m_D, oldGrad, coeff, isFixed);
+  }
+
+  /**
+   * Computes the next search direction from the approximation of the
+   * Hessian. The direction of the fixed variables is zero.
+   * 
+   * @param grad the gradient
+   * @param isFixed indicating whether a variable has been fixed
+   * @return the search direction
+   * @throws Exception if the direction cannot be computed
+   */
+  protected double[] findDirection(double[] grad, boolean[] isFixed)
+    throws Exception {
+    int l = grad.length;
+    Matrix LD = new Matrix(l, l); // L*D
+    double[] b = new double[l];
+
+    for (int k = 0; k < l; k++) {
+      if (!isFixed[k]) {
+        b[k] = -grad[k];
+      } else {
+        b[k] = 0.0;
+      }
+
+      for (int j = k; j < l; j++) { // Lower triangle
+        if (!isFixed[j] && !isFixed[k]) {
+          LD.set(j, k, m_L.get(j, k) * m_D[k]);
+        }
+      }
+    }
+
+    // Solve (LD)*y = -g, where y=L'*direct
+    double[] LDIR = solveTriangle(LD, b, true, isFixed);
+    LD = null;
+
+    for (int m = 0; m < LDIR.length; m++) {
+      if (Double.isNaN(LDIR[m])) {
+        throw new Exception("L*direct[" + m + "] is NaN!" + "|-g=" + b[m]
+          + "|" + isFixed[m] + "|diag=" + m_D[m]);
+      }
+    }
+
+    // Solve L'*direct = y
+    double[] direct = solveTriangle(m_L, LDIR, false, isFixed);
+    for (double element : direct) {
+      if (Double.isNaN(element)) {
+        throw new Exception("direct is NaN!");
+      }
+    }
+    return direct;
+  }
+
+  /**
+   * Called when findArgmin() finishes, either because the minimum was found
+   * or because the maximum number of iterations was reached. Releases the
+   * approximation of the Hessian.
+   * 
+   * @param x the current values of the variables
+   * @param converged whether the minimum was found
+   */
+  protected void releaseHessian(double[] x, boolean converged) {
+    m_L = null;
+    m_D = null;
+  }
+
   /**
    * Main algorithm. Descriptions see "Practical Optimization"
    * 
@@ -919,14 +1293,8 @@ public abstract class Optimization implements TechnicalInformationHandler,
     }
 
     double sum = 0;
-    double[] grad = evaluateGradient(initX), oldGrad, oldX, deltaGrad = new double[l], deltaX = new double[l], direct = new double[l], x = new double[l];
-    Matrix L = new Matrix(l, l); // Lower triangle of Cholesky factor
-    double[] D = new double[l]; // Diagonal of Cholesky factor
+    double[] grad = evaluateGradient(initX), oldGrad, oldX, deltaGrad = new double[l], deltaX = new double[l], direct, x = new double[l];
     for (int i = 0; i < l; i++) {
-      // L.setRow(i, new double[l]); Not necessary
-      L.set(i, i, 1.0);
-      D[i] = 1.0;
-      direct[i] = -grad[i];
       sum += grad[i] * grad[i];
       x[i] = initX[i];
       nwsBounds[0][i] = constraints[0][i];
@@ -934,6 +1302,7 @@ public abstract class Optimization implements TechnicalInformationHandler,
       isFixed[i] = false;
     }
     double stpmax = m_STPMX * Math.max(Math.sqrt(sum), l);
+    direct = initHessian(initX, grad, isFixed);
 
     for (int step = 0; step < m_MAXITS; step++) {
       if (m_Debug) {
@@ -955,17 +1324,7 @@ public abstract class Optimization implements TechnicalInformationHandler,
       }
 
       if (m_IsZeroStep) { // Zero step, simply delete rows/cols of D and L
-        for (int f = 0; f < wsBdsIndx.size(); f++) {
-          int[] idx = new int[1];
-          // int idx=wsBdsIndx.elementAt(f);
-          idx[0] = wsBdsIndx.elementAt(f);
-          L.setMatrix(idx, 0, l - 1, new Matrix(1, l));
-          // L.setRow(idx, new double[l]);
-          L.setMatrix(0, l - 1, idx, new Matrix(l, 1));
-          // L.setColumn(idx, new double[l]);
-          D[idx[0]] = 0.0;
-          // D[idx] = 0.0;
-        }
+        fixVariables(wsBdsIndx);
         grad = evaluateGradient(x);
         step--;
       } else {
@@ -1027,7 +1386,7 @@ public abstract class Optimization implements TechnicalInformationHandler,
         }
 
         int size = wsBdsIndx.size();
-        boolean isUpdate = true; // Whether to update BFGS formula
+        boolean isUpdate = true; // Whether to update the Hessian
         // Converge: check whether release any current constraints
         if (finish) {
           if (m_Debug) {
@@ -1099,6 +1458,7 @@ public abstract class Optimization implements TechnicalInformationHandler,
             if (Double.isNaN(m_f)) {
               throw new Exception("Objective function value is NaN!");
             }
+            releaseHessian(x, true);
             return x;
           }
 
@@ -1119,8 +1479,7 @@ public abstract class Optimization implements TechnicalInformationHandler,
                   + nwsBounds[1][freeIndx]);
               }
             }
-            L.set(freeIndx, freeIndx, 1.0);
-            D[freeIndx] = 1.0;
+            freeVariable(freeIndx);
             isUpdate = false;
           }
         }
@@ -1134,61 +1493,19 @@ public abstract class Optimization implements TechnicalInformationHandler,
         }
         // If Hessian will be positive definite, update it
         if (isUpdate) {
-
-          // modify once: dg*dg'/(dg'*dx)
-          double coeff = 1.0 / denom; // 1/(dg'*dx)
-          updateCholeskyFactor(L, D, deltaGrad, coeff, isFixed);
-
-          // modify twice: g*g'/(g'*p)
-          coeff = 1.0 / m_Slope; // 1/(g'*p)
-          updateCholeskyFactor(L, D, oldGrad, coeff, isFixed);
+          updateHessian(deltaX, deltaGrad, oldGrad, denom, isFixed);
         }
       }
 
       // Find new direction
-      Matrix LD = new Matrix(l, l); // L*D
-      double[] b = new double[l];
-
-      for (int k = 0; k < l; k++) {
-        if (!isFixed[k]) {
-          b[k] = -grad[k];
-        } else {
-          b[k] = 0.0;
-        }
-
-        for (int j = k; j < l; j++) { // Lower triangle
-          if (!isFixed[j] && !isFixed[k]) {
-            LD.set(j, k, L.get(j, k) * D[k]);
-          }
-        }
-      }
-
-      // Solve (LD)*y = -g, where y=L'*direct
-      double[] LDIR = solveTriangle(LD, b, true, isFixed);
-      LD = null;
-
-      for (int m = 0; m < LDIR.length; m++) {
-        if (Double.isNaN(LDIR[m])) {
-          throw new Exception("L*direct[" + m + "] is NaN!" + "|-g=" + b[m]
-            + "|" + isFixed[m] + "|diag=" + D[m]);
-        }
-      }
-
-      // Solve L'*direct = y
-      direct = solveTriangle(L, LDIR, false, isFixed);
-      for (double element : direct) {
-        if (Double.isNaN(element)) {
-          throw new Exception("direct is NaN!");
-        }
-      }
-
-      // System.gc();
+      direct = findDirection(grad, isFixed);
     }
 
     if (m_Debug) {
       System.err.println("Cannot find minimum" + " -- too many interations!");
     }
     m_X = x;
+    releaseHessian(x, false);
     return null;
   }
 
@@ -1453,7 +1770,7 @@ public abstract class Optimization implements TechnicalInformationHandler,
      * @param b another integer vector
      * @return whether they are equal
      */
-    private boolean equal(DynamicIntArray b) {
+    protected final boolean equal(DynamicIntArray b) {
       if ((b == null) || (size() != b.size())) {
         return false;
       }
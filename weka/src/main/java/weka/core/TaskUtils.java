@@ -0,0 +1,179 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    TaskUtils.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+/**
+ * Helper methods for splitting work into tasks that run concurrently, for
+ * creating the pools they run in and for waiting for these tasks.
+ *
+ * @version $Revision$
+ */
+public class TaskUtils {
+
+  /** The minimum number of items per partition */
+  public static final int MIN_PARTITION_SIZE = 1000;
+
+  /** The maximum number of partitions */
+  public static final int MAX_PARTITIONS = 64;
+
+  /**
+   * Returns the number of partitions to split a number of items into. Only
+   * depends on the number of items, so that results that are summed per
+   * partition are the same for any number of threads.
+   *
+   * @param numItems the number of items
+   * @return the number of partitions
+   */
+  public static int numPartitions(int numItems) {
+    return Math.max(1, Math.min(MAX_PARTITIONS, numItems / MIN_PARTITION_SIZE));
+  }
+
+  /**
+   * Returns the index of the first item of a partition.
+   *
+   * @param numItems the number of items
+   * @param partition the partition, or the number of partitions for the end
+   *          of the items
+   * @param numPartitions the number of partitions
+   * @return the index of the item
+   */
+  public static int partitionStart(int numItems, int partition,
+    int numPartitions) {
+    return (int) ((long) numItems * partition / numPartitions);
+  }
+
+  /**
+   * Returns the number of threads to use.
+   *
+   * @param numThreads the number of threads asked for, 0 or less for the
+   *          number of cores
+   * @return the number of threads
+   */
+  public static int numThreads(int numThreads) {
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+    return numThreads;
+  }
+
+  /**
+   * Creates a pool of threads to run fork-join tasks in.
+   *
+   * @param numThreads the number of threads, 0 or less for the number of
+   *          cores
+   * @return the pool, or null if only one thread is to be used
+   */
+  public static ForkJoinPool newPool(int numThreads) {
+    numThreads = numThreads(numThreads);
+    return (numThreads > 1) ? new ForkJoinPool(numThreads) : null;
+  }
+
+  /**
+   * Waits for a fork-join task to finish, passing on the exception it failed
+   * with. Called from a task of the pool, it helps running other tasks while
+   * waiting.
+   *
+   * @param task the task
+   * @throws Exception if the task failed
+   */
+  public static void join(ForkJoinTask<?> task) throws Exception {
+    try {
+      task.join();
+    } catch (RuntimeException e) {
+      // Unwrap the checked exception of a Callable
+      Throwable cause = e;
+      while ((cause.getClass() == RuntimeException.class)
+        && (cause.getCause() != null)) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Waits for a task to finish, passing on the exception it failed with.
+   *
+   * @param result the pending result of the task
+   * @return the result
+   * @throws Exception if the task failed
+   */
+  public static <T> T getResult(Future<T> result) throws Exception {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      throw unwrap(e);
+    }
+  }
+
+  /**
+   * Waits for all the given tasks to finish and then passes on the exception
+   * the first of them failed with, if any. No task is still running when this
+   * method returns or throws, so none of them can still work on shared state
+   * afterwards. Null entries are skipped.
+   *
+   * @param results the pending results of the tasks
+   * @return the results, in the order of the tasks (null for null entries)
+   * @throws Exception if a task failed
+   */
+  public static <T> List<T> waitForAll(
+    List<? extends Future<? extends T>> results) throws Exception {
+
+    List<T> values = new ArrayList<T>(results.size());
+    Exception failure = null;
+    for (Future<? extends T> result : results) {
+      T value = null;
+      if (result != null) {
+        try {
+          value = result.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = unwrap(e);
+          }
+        }
+      }
+      values.add(value);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return values;
+  }
+
+  /**
+   * Returns the exception a task failed with.
+   *
+   * @param e the exception thrown when waiting for the task
+   * @return the cause, if it is an exception, otherwise e itself
+   */
+  protected static Exception unwrap(ExecutionException e) {
+    return (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    TermDictionary.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A dictionary of terms with their word and document counts. Terms are
+ * numbered consecutively in the order they are added and are looked up in an
+ * open addressing hash table, so that counting the words of a document does
+ * not allocate any objects once a term is known.
+ *
+ * @version $Revision$
+ */
+public class TermDictionary implements Serializable, RevisionHandler {
+
+  /** for serialization. */
+  private static final long serialVersionUID = -2806253392916528153L;
+
+  /** The terms, by index. */
+  protected String[] m_Terms;
+
+  /** The word counts, by index. */
+  protected int[] m_Counts;
+
+  /** The document counts, by index. */
+  protected int[] m_DocCounts;
+
+  /** The number of terms. */
+  protected int m_Size;
+
+  /** The hash table, holding the index plus one of a term, 0 if empty. */
+  protected int[] m_Table;
+
+  /**
+   * Creates an empty dictionary.
+   */
+  public TermDictionary() {
+    this(16);
+  }
+
+  /**
+   * Creates an empty dictionary with room for the given number of terms.
+   *
+   * @param capacity the initial capacity
+   */
+  public TermDictionary(int capacity) {
+    capacity = Math.max(capacity, 4);
+    m_Terms = new String[capacity];
+    m_Counts = new int[capacity];
+    m_DocCounts = new int[capacity];
+    m_Table = new int[tableSize(capacity)];
+  }
+
+  /**
+   * Returns the size of a hash table that keeps the load at most one half.
+   *
+   * @param capacity the number of terms
+   * @return the size of the table, a power of two
+   */
+  protected static int tableSize(int capacity) {
+    return Integer.highestOneBit(Math.max(capacity, 2) - 1) << 2;
+  }
+
+  /**
+   * Returns a well spread hash code of a term. The code only depends on the
+   * characters of the term.
+   *
+   * @param term the term
+   * @return the hash code
+   */
+  public static int hash(String term) {
+    int h = term.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns the slot of the table holding a term, or the empty slot where it
+   * would go.
+   *
+   * @param term the term
+   * @return the slot
+   */
+  protected int slot(String term) {
+    int mask = m_Table.length - 1;
+    int slot = hash(term) & mask;
+    while ((m_Table[slot] != 0) && !m_Terms[m_Table[slot] - 1].equals(term)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Returns the index of a term.
+   *
+   * @param term the term
+   * @return the index, or -1 if the term is not in the dictionary
+   */
+  public int indexOf(String term) {
+    return m_Table[slot(term)] - 1;
+  }
+
+  /**
+   * Returns the index of a term, adding it with zero counts if it is not in
+   * the dictionary yet.
+   *
+   * @param term the term
+   * @return the index
+   */
+  public int add(String term) {
+    int slot = slot(term);
+    if (m_Table[slot] != 0) {
+      return m_Table[slot] - 1;
+    }
+
+    if (m_Size == m_Terms.length) {
+      int capacity = 2 * m_Size;
+      m_Terms = Arrays.copyOf(m_Terms, capacity);
+      m_Counts = Arrays.copyOf(m_Counts, capacity);
+      m_DocCounts = Arrays.copyOf(m_DocCounts, capacity);
+      if (tableSize(capacity) > m_Table.length) {
+        m_Table = new int[tableSize(capacity)];
+        rehash();
+        slot = slot(term);
+      }
+    }
+    m_Terms[m_Size] = term;
+    m_Counts[m_Size] = 0;
+    m_DocCounts[m_Size] = 0;
+    m_Table[slot] = ++m_Size;
+    return m_Size - 1;
+  }
+
+  /**
+   * Fills the (empty) hash table with the current terms.
+   */
+  protected void rehash() {
+    int mask = m_Table.length - 1;
+    for (int i = 0; i < m_Size; i++) {
+      int slot = hash(m_Terms[i]) & mask;
+      while (m_Table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      m_Table[slot] = i + 1;
+    }
+  }
+
+  /**
+   * Adds to the counts of a term.
+   *
+   * @param index the index of the term
+   * @param count the number of occurrences to add
+   * @param docCount the number of documents to add
+   */
+  public void increment(int index, int count, int docCount) {
+    m_Counts[index] += count;
+    m_DocCounts[index] += docCount;
+  }
+
+  /**
+   * Returns the term with the given index.
+   *
+   * @param index the index
+   * @return the term
+   */
+  public String term(int index) {
+    return m_Terms[index];
+  }
+
+  /**
+   * Returns the word count of the term with the given index.
+   *
+   * @param index the index
+   * @return the number of occurrences of the term
+   */
+  public int count(int index) {
+    return m_Counts[index];
+  }
+
+  /**
+   * Returns the document count of the term with the given index.
+   *
+   * @param index the index
+   * @return the number of documents containing the term
+   */
+  public int docCount(int index) {
+    return m_DocCounts[index];
+  }
+
+  /**
+   * Returns the number of terms.
+   *
+   * @return the number of terms
+   */
+  public int size() {
+    return m_Size;
+  }
+
+  /**
+   * Removes the terms that occur less than the given number of times. The
+   * remaining terms keep their order, but are renumbered.
+   *
+   * @param minCount the minimum word count of a term to keep
+   */
+  public void prune(int minCount) {
+    int size = 0;
+    for (int i = 0; i < m_Size; i++) {
+      if (m_Counts[i] >= minCount) {
+        m_Terms[size] = m_Terms[i];
+        m_Counts[size] = m_Counts[i];
+        m_DocCounts[size] = m_DocCounts[i];
+        size++;
+      }
+    }
+    if (size < m_Size) {
+      Arrays.fill(m_Terms, size, m_Size, null);
+      m_Size = size;
+      Arrays.fill(m_Table, 0);
+      rehash();
+    }
+  }
+
+  /**
+   * Sorts the terms lexicographically and renumbers them accordingly.
+   */
+  public void sort() {
+    String[] terms = Arrays.copyOf(m_Terms, m_Size);
+    Arrays.sort(terms);
+    int[] counts = new int[m_Terms.length];
+    int[] docCounts = new int[m_Terms.length];
+    for (int i = 0; i < m_Size; i++) {
+      int index = indexOf(terms[i]);
+      counts[i] = m_Counts[index];
+      docCounts[i] = m_DocCounts[index];
+    }
+    System.arraycopy(terms, 0, m_Terms, 0, m_Size);
+    m_Counts = counts;
+    m_DocCounts = docCounts;
+    Arrays.fill(m_Table, 0);
+    rehash();
+  }
+
+  /**
+   * Returns the terms with their word and document counts as a map, in the
+   * order of their indices.
+   *
+   * @return a map from the terms to their word and document counts
+   */
+  public Map<String, int[]> toMap() {
+    Map<String, int[]> result = new LinkedHashMap<String, int[]>(2 * m_Size);
+    for (int i = 0; i < m_Size; i++) {
+      result.put(m_Terms[i], new int[] { m_Counts[i], m_DocCounts[i] });
+    }
+    return result;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
@@ -22,17 +22,23 @@
 package weka.core.converters;
 
 import java.io.BufferedReader;
+import java.io.CharArrayReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StreamTokenizer;
 import java.io.StringReader;
 import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.core.Attribute;
 import weka.core.DenseInstance;
@@ -79,6 +85,9 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
    */
   protected boolean m_retainStringVals;
 
+  /** the number of threads for reading the data in batch mode */
+  protected int m_numExecutionSlots = 1;
+
   /**
    * Reads data from an ARFF file, either in incremental or batch mode.
    * <p/>
@@ -107,6 +116,10 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
    * }
    * </pre>
    * 
+   * Note: the protected field <code>m_Tokenizer</code> is an
+   * {@link ArffTokenizer} rather than a <code>java.io.StreamTokenizer</code>;
+   * subclasses that accessed it directly need to be adapted.
+   * 
    * @author Eibe Frank (eibe@cs.waikato.ac.nz)
    * @author Len Trigg (trigg@cs.waikato.ac.nz)
    * @author fracpete (fracpete at waikato dot ac dot nz)
@@ -114,8 +127,11 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
    */
   public static class ArffReader implements RevisionHandler {
 
-    /** the tokenizer for reading the stream */
-    protected StreamTokenizer m_Tokenizer;
+    /** the tokenizer for reading the stream (formerly a StreamTokenizer) */
+    protected ArffTokenizer m_Tokenizer;
+
+    /** the lookups for the labels of the nominal attributes */
+    protected ArffTokenizer.NominalLookup[] m_NominalLookups;
 
     /** Buffer of values for sparse instance */
     protected double[] m_ValueBuffer;
@@ -145,6 +161,15 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
     /** List of (single character) enclosures to use instead of the defaults */
     protected List<String> m_enclosures;
 
+    /** the minimum number of characters per chunk when reading in parallel */
+    protected int m_ChunkSize = 1 << 20;
+
+    /**
+     * the offset added to the indices of string values; 1 when reading a chunk,
+     * so that string values are always stored in sparse instances
+     */
+    protected int m_StringValueOffset = 0;
+
     /**
      * Reads the data completely from the reader. The data can be accessed via
      * the <code>getData()</code> method.
@@ -156,7 +181,8 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
     public ArffReader(Reader reader) throws IOException {
       m_retainStringValues = true;
       m_batchMode = true;
-      m_Tokenizer = new StreamTokenizer(reader);
+      m_Tokenizer = new ArffTokenizer(reader);
+      m_Tokenizer.setReadAhead(true);
       initTokenizer();
 
       readHeader(1000);
@@ -198,7 +224,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
         throw new IllegalArgumentException("Capacity has to be positive!");
       }
 
-      m_Tokenizer = new StreamTokenizer(reader);
+      m_Tokenizer = new ArffTokenizer(reader);
       initTokenizer();
 
       readHeader(capacity);
@@ -223,6 +249,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
     public ArffReader(Reader reader, Instances template, int lines,
       String... fieldSepAndEnclosures) throws IOException {
       this(reader, template, lines, 100, true, fieldSepAndEnclosures);
+      setReadAhead(true);
 
       Instance inst;
       while ((inst = readInstance(m_Data)) != null) {
@@ -303,7 +330,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
       }
 
       m_Lines = lines;
-      m_Tokenizer = new StreamTokenizer(reader);
+      m_Tokenizer = new ArffTokenizer(reader);
       initTokenizer();
 
       m_Data = new Instances(template, capacity);
@@ -319,6 +346,8 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
     protected void initBuffers() {
       m_ValueBuffer = new double[m_Data.numAttributes()];
       m_IndicesBuffer = new int[m_Data.numAttributes()];
+      m_NominalLookups =
+        new ArffTokenizer.NominalLookup[m_Data.numAttributes()];
 
       m_stringAttIndices = new ArrayList<Integer>();
       if (m_Data.checkForStringAttributes()) {
@@ -330,6 +359,261 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
       }
     }
 
+    /**
+     * Sets whether the tokenizer may read ahead from the reader in large
+     * blocks, which speeds up parsing considerably. Must only be enabled if
+     * nobody else is going to read from the reader, as the characters read
+     * ahead are not available to anyone else.
+     * 
+     * @param value true if to read ahead
+     */
+    public void setReadAhead(boolean value) {
+      m_Tokenizer.setReadAhead(value);
+    }
+
+    /**
+     * Returns whether the tokenizer reads ahead from the reader in large
+     * blocks.
+     * 
+     * @return true if reading ahead
+     */
+    public boolean getReadAhead() {
+      return m_Tokenizer.getReadAhead();
+    }
+
+    /**
+     * Sets the minimum number of characters per chunk of lines when reading in
+     * parallel.
+     * 
+     * @param value the number of characters
+     * @see #readInstances(Instances, int)
+     */
+    public void setChunkSize(int value) {
+      m_ChunkSize = value;
+    }
+
+    /**
+     * Returns the minimum number of characters per chunk of lines when reading
+     * in parallel.
+     * 
+     * @return the number of characters
+     * @see #readInstances(Instances, int)
+     */
+    public int getChunkSize() {
+      return m_ChunkSize;
+    }
+
+    /**
+     * Returns whether the remaining instances can be read in parallel. This is
+     * not possible for relational attributes, whose headers are shared, nor
+     * for string attributes whose values are not retained.
+     * 
+     * @param structure the dataset header information
+     * @return true if the instances can be read in parallel
+     */
+    protected boolean canReadInParallel(Instances structure) {
+      for (int i = 0; i < structure.numAttributes(); i++) {
+        if (structure.attribute(i).isRelationValued()) {
+          return false;
+        }
+      }
+
+      return m_batchMode || m_retainStringValues
+        || !structure.checkForStringAttributes();
+    }
+
+    /**
+     * Reads all remaining instances. If more than one execution slot is given,
+     * the remaining input is split into chunks of lines, which are parsed on
+     * worker threads and put together in their original order. The result is
+     * the same as when reading the instances one by one via
+     * <code>readInstance(Instances)</code>, including the values of string
+     * attributes and the line numbers in error messages. Requires read-ahead
+     * to be enabled for reading in parallel.
+     * 
+     * @param structure the dataset header information, will get updated in case
+     *          of string or relational attributes
+     * @param numSlots the number of threads to use, 0 for the number of
+     *          available processors
+     * @return the instances, sharing the attributes with the structure
+     * @throws IOException if the information is not read successfully
+     */
+    public Instances readInstances(Instances structure, int numSlots)
+      throws IOException {
+      Instances result = new Instances(structure, 0);
+
+      if (numSlots == 0) {
+        numSlots = Runtime.getRuntime().availableProcessors();
+      }
+      if ((numSlots == 1) || !m_Tokenizer.getReadAhead()
+        || !canReadInParallel(structure)) {
+        Instance inst;
+        while ((inst = readInstance(structure)) != null) {
+          result.add(inst);
+        }
+        return result;
+      }
+
+      m_Data = structure;
+      if (m_Data.numAttributes() == 0) {
+        errorMessage("no header information available");
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(numSlots);
+      LinkedList<Future<Instances>> pending =
+        new LinkedList<Future<Instances>>();
+      try {
+        while (true) {
+          final int lineNo = m_Tokenizer.lineno();
+          final char[] chunk = m_Tokenizer.nextChunk(m_ChunkSize);
+          if (chunk == null) {
+            break;
+          }
+          final Instances template = chunkStructure(structure);
+          pending.add(pool.submit(new Callable<Instances>() {
+            @Override
+            public Instances call() throws Exception {
+              return readChunk(chunk, lineNo, template);
+            }
+          }));
+
+          // limit the number of chunks held in memory
+          if (pending.size() > 2 * numSlots) {
+            addChunk(result, pending.removeFirst().get());
+          }
+        }
+        while (!pending.isEmpty()) {
+          addChunk(result, pending.removeFirst().get());
+        }
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IOException(cause);
+      } finally {
+        pool.shutdownNow();
+      }
+
+      return result;
+    }
+
+    /**
+     * Returns the header for parsing a chunk of lines on a worker thread. It
+     * has its own copies of the string and relational attributes, and of the
+     * date attributes, as their date formats cannot be shared between threads.
+     * 
+     * @param structure the dataset header information
+     * @return the header for the chunk
+     */
+    protected Instances chunkStructure(Instances structure) {
+      Instances result = structure.stringFreeStructure();
+      for (int i = 0; i < result.numAttributes(); i++) {
+        Attribute att = result.attribute(i);
+        if (att.isDate()) {
+          result.replaceAttributeAt(new Attribute(att.name(),
+            att.getDateFormat(), att.getMetadata()), i);
+        }
+      }
+
+      return result;
+    }
+
+    /**
+     * Parses a chunk of lines.
+     * 
+     * @param chunk the lines
+     * @param lineNo the line number of the first line
+     * @param template the header to use, see chunkStructure(Instances)
+     * @return the instances
+     * @throws IOException if the information is not read successfully
+     */
+    protected Instances readChunk(char[] chunk, int lineNo, Instances template)
+      throws IOException {
+      String[] fieldSepAndEnclosures = null;
+      if ((m_fieldSeparator != null) || (m_enclosures != null)) {
+        List<String> list = new ArrayList<String>();
+        list.add(m_fieldSeparator);
+        if (m_enclosures != null) {
+          list.addAll(m_enclosures);
+        }
+        fieldSepAndEnclosures = list.toArray(new String[list.size()]);
+      }
+
+      ArffReader reader =
+        new ArffReader(new CharArrayReader(chunk), template, m_Lines, 100,
+          true, fieldSepAndEnclosures);
+      reader.setReadAhead(true);
+      reader.m_Tokenizer.setLineNo(lineNo);
+      reader.m_StringValueOffset = 1;
+      Instances data = reader.getData();
+      Instance inst;
+      while ((inst = reader.readInstance(data)) != null) {
+        data.add(inst);
+      }
+
+      return data;
+    }
+
+    /**
+     * Adds the instances of a chunk to the data, adding the values of string
+     * attributes to the header of the data. String values that end up with
+     * index zero are dropped from sparse instances, as when reading
+     * sequentially.
+     * 
+     * @param data the data to add to
+     * @param chunk the instances of the chunk
+     */
+    protected void addChunk(Instances data, Instances chunk) {
+      boolean strings = data.checkForStringAttributes();
+      for (int i = 0; i < chunk.numInstances(); i++) {
+        Instance inst = chunk.instance(i);
+        if (strings) {
+          double[] values = new double[inst.numValues()];
+          int[] indices = new int[inst.numValues()];
+          for (int j = 0; j < inst.numValues(); j++) {
+            indices[j] = inst.index(j);
+            values[j] = inst.valueSparse(j);
+            if (data.attribute(indices[j]).isString()
+              && !Utils.isMissingValue(values[j])) {
+              values[j] = data.attribute(indices[j]).addStringValue(
+                chunk.attribute(indices[j]).value((int) values[j] - 1));
+            }
+          }
+          if (inst instanceof SparseInstance) {
+            inst = new SparseInstance(inst.weight(), values, indices,
+              inst.numAttributes());
+          } else {
+            inst = new DenseInstance(inst.weight(), values);
+          }
+        }
+        data.add(inst);
+      }
+    }
+
+    /**
+     * Returns the index of the current token among the labels of the given
+     * nominal attribute, without creating a string for the token.
+     * 
+     * @param attIndex the index of the nominal attribute
+     * @return the index of the label, -1 if not declared in the header
+     */
+    protected int indexOfNominalValue(int attIndex) {
+      Attribute att = m_Data.attribute(attIndex);
+      ArffTokenizer.NominalLookup lookup = m_NominalLookups[attIndex];
+      if ((lookup == null) || !lookup.isValidFor(att)) {
+        lookup = new ArffTokenizer.NominalLookup(att);
+        m_NominalLookups[attIndex] = lookup;
+      }
+
+      return lookup.indexOf(m_Tokenizer);
+    }
+
     /**
      * compactifies the data
      */
@@ -369,14 +653,14 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
      * @throws IOException if reading the next token fails
      */
     protected void getFirstToken() throws IOException {
-      while (m_Tokenizer.nextToken() == StreamTokenizer.TT_EOL) {
+      while (m_Tokenizer.nextToken() == ArffTokenizer.TT_EOL) {
       }
       ;
 
       if ((m_Tokenizer.ttype == '\'') || (m_Tokenizer.ttype == '"')) {
-        m_Tokenizer.ttype = StreamTokenizer.TT_WORD;
-      } else if ((m_Tokenizer.ttype == StreamTokenizer.TT_WORD)
-        && (m_Tokenizer.sval.equals("?"))) {
+        m_Tokenizer.ttype = ArffTokenizer.TT_WORD;
+      } else if ((m_Tokenizer.ttype == ArffTokenizer.TT_WORD)
+        && (m_Tokenizer.tokenEquals("?"))) {
         m_Tokenizer.ttype = '?';
       }
     }
@@ -387,10 +671,10 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
      * @throws IOException if it finds a premature end of line
      */
     protected void getIndex() throws IOException {
-      if (m_Tokenizer.nextToken() == StreamTokenizer.TT_EOL) {
+      if (m_Tokenizer.nextToken() == ArffTokenizer.TT_EOL) {
         errorMessage("premature end of line");
       }
-      if (m_Tokenizer.ttype == StreamTokenizer.TT_EOF) {
+      if (m_Tokenizer.ttype == ArffTokenizer.TT_EOF) {
         errorMessage("premature end of file");
       }
     }
@@ -402,8 +686,8 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
      * @throws IOException if it doesn't find an end of line
      */
     protected void getLastToken(boolean endOfFileOk) throws IOException {
-      if ((m_Tokenizer.nextToken() != StreamTokenizer.TT_EOL)
-        && ((m_Tokenizer.ttype != StreamTokenizer.TT_EOF) || !endOfFileOk)) {
+      if ((m_Tokenizer.nextToken() != ArffTokenizer.TT_EOL)
+        && ((m_Tokenizer.ttype != ArffTokenizer.TT_EOF) || !endOfFileOk)) {
         errorMessage("end of line expected");
       }
     }
@@ -417,18 +701,17 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
     protected double getInstanceWeight() throws IOException {
       double weight = Double.NaN;
       m_Tokenizer.nextToken();
-      if (m_Tokenizer.ttype == StreamTokenizer.TT_EOL
-        || m_Tokenizer.ttype == StreamTokenizer.TT_EOF) {
+      if (m_Tokenizer.ttype == ArffTokenizer.TT_EOL
+        || m_Tokenizer.ttype == ArffTokenizer.TT_EOF) {
         return weight;
       }
       // see if we can read an instance weight
       // m_Tokenizer.pushBack();
       if (m_Tokenizer.ttype == '{') {
         m_Tokenizer.nextToken();
-        String weightS = m_Tokenizer.sval;
         // try to parse weight as a double
         try {
-          weight = Double.parseDouble(weightS);
+          weight = m_Tokenizer.parseDouble();
         } catch (NumberFormatException e) {
           // quietly ignore
           return weight;
@@ -448,21 +731,21 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
      * @throws IOException if it finds a premature end of line
      */
     protected void getNextToken() throws IOException {
-      if (m_Tokenizer.nextToken() == StreamTokenizer.TT_EOL) {
+      if (m_Tokenizer.nextToken() == ArffTokenizer.TT_EOL) {
         errorMessage("premature end of line");
       }
-      if (m_Tokenizer.ttype == StreamTokenizer.TT_EOF) {
+      if (m_Tokenizer.ttype == ArffTokenizer.TT_EOF) {
         errorMessage("premature end of file");
       } else if ((m_Tokenizer.ttype == '\'') || (m_Tokenizer.ttype == '"')) {
-        m_Tokenizer.ttype = StreamTokenizer.TT_WORD;
-      } else if ((m_Tokenizer.ttype == StreamTokenizer.TT_WORD)
-        && (m_Tokenizer.sval.equals("?"))) {
+        m_Tokenizer.ttype = ArffTokenizer.TT_WORD;
+      } else if ((m_Tokenizer.ttype == ArffTokenizer.TT_WORD)
+        && (m_Tokenizer.tokenEquals("?"))) {
         m_Tokenizer.ttype = '?';
       }
     }
 
     /**
-     * Initializes the StreamTokenizer used for reading the ARFF file.
+     * Initializes the tokenizer used for reading the ARFF file.
      */
     protected void initTokenizer() {
       m_Tokenizer.resetSyntax();
@@ -534,7 +817,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
 
       // Check if end of file reached.
       getFirstToken();
-      if (m_Tokenizer.ttype == StreamTokenizer.TT_EOF) {
+      if (m_Tokenizer.ttype == ArffTokenizer.TT_EOF) {
         return null;
       }
 
@@ -574,8 +857,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
 
         // Is index valid?
         try {
-          m_IndicesBuffer[numValues] =
-            Integer.valueOf(m_Tokenizer.sval).intValue();
+          m_IndicesBuffer[numValues] = m_Tokenizer.parseInt();
         } catch (NumberFormatException e) {
           errorMessage("index number expected");
         }
@@ -597,15 +879,13 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
         } else {
 
           // Check if token is valid.
-          if (m_Tokenizer.ttype != StreamTokenizer.TT_WORD) {
+          if (m_Tokenizer.ttype != ArffTokenizer.TT_WORD) {
             errorMessage("not a valid value");
           }
           switch (m_Data.attribute(m_IndicesBuffer[numValues]).type()) {
           case Attribute.NOMINAL:
             // Check if value appears in header.
-            valIndex =
-              m_Data.attribute(m_IndicesBuffer[numValues]).indexOfValue(
-                m_Tokenizer.sval);
+            valIndex = indexOfNominalValue(m_IndicesBuffer[numValues]);
             if (valIndex == -1) {
               errorMessage("nominal value not declared in header");
             }
@@ -614,8 +894,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
           case Attribute.NUMERIC:
             // Check if value is really a number.
             try {
-              m_ValueBuffer[numValues] =
-                Double.valueOf(m_Tokenizer.sval).doubleValue();
+              m_ValueBuffer[numValues] = m_Tokenizer.parseDouble();
             } catch (NumberFormatException e) {
               errorMessage("number expected");
             }
@@ -624,26 +903,26 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
             if (m_batchMode || m_retainStringValues) {
               m_ValueBuffer[numValues] =
                 m_Data.attribute(m_IndicesBuffer[numValues]).addStringValue(
-                  m_Tokenizer.sval);
+                  m_Tokenizer.sval()) + m_StringValueOffset;
             } else {
               m_ValueBuffer[numValues] = 0;
               m_Data.attribute(m_IndicesBuffer[numValues]).addStringValue(
-                m_Tokenizer.sval);
+                m_Tokenizer.sval());
             }
             break;
           case Attribute.DATE:
             try {
               m_ValueBuffer[numValues] =
                 m_Data.attribute(m_IndicesBuffer[numValues]).parseDate(
-                  m_Tokenizer.sval);
+                  m_Tokenizer.sval());
             } catch (ParseException e) {
-              errorMessage("unparseable date: " + m_Tokenizer.sval);
+              errorMessage("unparseable date: " + m_Tokenizer.sval());
             }
             break;
           case Attribute.RELATIONAL:
             try {
               ArffReader arff =
-                new ArffReader(new StringReader(m_Tokenizer.sval), m_Data
+                new ArffReader(new StringReader(m_Tokenizer.sval()), m_Data
                   .attribute(m_IndicesBuffer[numValues]).relation(), 0);
               Instances data = arff.getData();
               m_ValueBuffer[numValues] =
@@ -708,13 +987,13 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
         } else {
 
           // Check if token is valid.
-          if (m_Tokenizer.ttype != StreamTokenizer.TT_WORD) {
+          if (m_Tokenizer.ttype != ArffTokenizer.TT_WORD) {
             errorMessage("not a valid value");
           }
           switch (m_Data.attribute(i).type()) {
           case Attribute.NOMINAL:
             // Check if value appears in header.
-            index = m_Data.attribute(i).indexOfValue(m_Tokenizer.sval);
+            index = indexOfNominalValue(i);
             if (index == -1) {
               errorMessage("nominal value not declared in header");
             }
@@ -723,7 +1002,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
           case Attribute.NUMERIC:
             // Check if value is really a number.
             try {
-              instance[i] = Double.valueOf(m_Tokenizer.sval).doubleValue();
+              instance[i] = m_Tokenizer.parseDouble();
             } catch (NumberFormatException e) {
               errorMessage("number expected");
             }
@@ -731,23 +1010,24 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
           case Attribute.STRING:
             if (m_batchMode || m_retainStringValues) {
               instance[i] =
-                m_Data.attribute(i).addStringValue(m_Tokenizer.sval);
+                m_Data.attribute(i).addStringValue(m_Tokenizer.sval())
+                  + m_StringValueOffset;
             } else {
               instance[i] = 0;
-              m_Data.attribute(i).setStringValue(m_Tokenizer.sval);
+              m_Data.attribute(i).setStringValue(m_Tokenizer.sval());
             }
             break;
           case Attribute.DATE:
             try {
-              instance[i] = m_Data.attribute(i).parseDate(m_Tokenizer.sval);
+              instance[i] = m_Data.attribute(i).parseDate(m_Tokenizer.sval());
             } catch (ParseException e) {
-              errorMessage("unparseable date: " + m_Tokenizer.sval);
+              errorMessage("unparseable date: " + m_Tokenizer.sval());
             }
             break;
           case Attribute.RELATIONAL:
             try {
               ArffReader arff =
-                new ArffReader(new StringReader(m_Tokenizer.sval), m_Data
+                new ArffReader(new StringReader(m_Tokenizer.sval()), m_Data
                   .attribute(i).relation(), 0);
               Instances data = arff.getData();
               instance[i] = m_Data.attribute(i).addRelation(data);
@@ -791,12 +1071,12 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
 
       // Get name of relation.
       getFirstToken();
-      if (m_Tokenizer.ttype == StreamTokenizer.TT_EOF) {
+      if (m_Tokenizer.ttype == ArffTokenizer.TT_EOF) {
         errorMessage("premature end of file");
       }
-      if (Instances.ARFF_RELATION.equalsIgnoreCase(m_Tokenizer.sval)) {
+      if (Instances.ARFF_RELATION.equalsIgnoreCase(m_Tokenizer.sval())) {
         getNextToken();
-        relationName = m_Tokenizer.sval;
+        relationName = m_Tokenizer.sval();
         getLastToken(false);
       } else {
         errorMessage("keyword " + Instances.ARFF_RELATION + " expected");
@@ -807,16 +1087,16 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
 
       // Get attribute declarations.
       getFirstToken();
-      if (m_Tokenizer.ttype == StreamTokenizer.TT_EOF) {
+      if (m_Tokenizer.ttype == ArffTokenizer.TT_EOF) {
         errorMessage("premature end of file");
       }
 
-      while (Attribute.ARFF_ATTRIBUTE.equalsIgnoreCase(m_Tokenizer.sval)) {
+      while (Attribute.ARFF_ATTRIBUTE.equalsIgnoreCase(m_Tokenizer.sval())) {
         attributes = parseAttribute(attributes);
       }
 
       // Check if data part follows. We can't easily check for EOL.
-      if (!Instances.ARFF_DATA.equalsIgnoreCase(m_Tokenizer.sval)) {
+      if (!Instances.ARFF_DATA.equalsIgnoreCase(m_Tokenizer.sval())) {
         errorMessage("keyword " + Instances.ARFF_DATA + " expected");
       }
 
@@ -842,29 +1122,29 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
 
       // Get attribute name.
       getNextToken();
-      attributeName = m_Tokenizer.sval;
+      attributeName = m_Tokenizer.sval();
       getNextToken();
 
       // Check if attribute is nominal.
-      if (m_Tokenizer.ttype == StreamTokenizer.TT_WORD) {
+      if (m_Tokenizer.ttype == ArffTokenizer.TT_WORD) {
 
         // Attribute is real, integer, or string.
-        if (m_Tokenizer.sval.equalsIgnoreCase(Attribute.ARFF_ATTRIBUTE_REAL)
-          || m_Tokenizer.sval
+        if (m_Tokenizer.sval().equalsIgnoreCase(Attribute.ARFF_ATTRIBUTE_REAL)
+          || m_Tokenizer.sval()
             .equalsIgnoreCase(Attribute.ARFF_ATTRIBUTE_INTEGER)
-          || m_Tokenizer.sval
+          || m_Tokenizer.sval()
             .equalsIgnoreCase(Attribute.ARFF_ATTRIBUTE_NUMERIC)) {
           Attribute att = new Attribute(attributeName, attributes.size());
           att.setWeight(getAttributeWeight());
           attributes.add(att);
           readTillEOL();
-        } else if (m_Tokenizer.sval
+        } else if (m_Tokenizer.sval()
           .equalsIgnoreCase(Attribute.ARFF_ATTRIBUTE_STRING)) {
           Attribute att = new Attribute(attributeName, (ArrayList<String>) null, attributes.size());
           att.setWeight(getAttributeWeight());
           readTillEOL();
           attributes.add(att);
-        } else if (m_Tokenizer.sval
+        } else if (m_Tokenizer.sval()
           .equalsIgnoreCase(Attribute.ARFF_ATTRIBUTE_DATE)) {
           String format = null;
           m_Tokenizer.nextToken();
@@ -874,12 +1154,12 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
             att.setWeight(getAttributeWeight());
             attributes.add(att);
             readTillEOL();
-          } else if (m_Tokenizer.ttype != StreamTokenizer.TT_EOL) { // Looks like there is a date format
-            if ((m_Tokenizer.ttype != StreamTokenizer.TT_WORD)
+          } else if (m_Tokenizer.ttype != ArffTokenizer.TT_EOL) { // Looks like there is a date format
+            if ((m_Tokenizer.ttype != ArffTokenizer.TT_WORD)
               && (m_Tokenizer.ttype != '\'') && (m_Tokenizer.ttype != '\"')) {
               errorMessage("not a valid date format");
             }
-            format = m_Tokenizer.sval;
+            format = m_Tokenizer.sval();
             Attribute att = new Attribute(attributeName, format, attributes.size());
             att.setWeight(getAttributeWeight()); // Now check for attribute weight
             attributes.add(att);
@@ -888,7 +1168,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
             m_Tokenizer.pushBack();
             attributes.add(new Attribute(attributeName, format, attributes.size()));
           }
-        } else if (m_Tokenizer.sval
+        } else if (m_Tokenizer.sval()
           .equalsIgnoreCase(Attribute.ARFF_ATTRIBUTE_RELATIONAL)) {
           double weight = getAttributeWeight();
           readTillEOL();
@@ -901,16 +1181,16 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
           // Now, read attributes until we hit end of declaration of relational
           // value
           getFirstToken();
-          if (m_Tokenizer.ttype == StreamTokenizer.TT_EOF) {
+          if (m_Tokenizer.ttype == ArffTokenizer.TT_EOF) {
             errorMessage("premature end of file");
           }
           do {
-            if (Attribute.ARFF_ATTRIBUTE.equalsIgnoreCase(m_Tokenizer.sval)) {
+            if (Attribute.ARFF_ATTRIBUTE.equalsIgnoreCase(m_Tokenizer.sval())) {
               attributes = parseAttribute(attributes);
             } else if (Attribute.ARFF_END_SUBRELATION
-              .equalsIgnoreCase(m_Tokenizer.sval)) {
+              .equalsIgnoreCase(m_Tokenizer.sval())) {
               getNextToken();
-              if (!attributeName.equalsIgnoreCase(m_Tokenizer.sval)) {
+              if (!attributeName.equalsIgnoreCase(m_Tokenizer.sval())) {
                 errorMessage("declaration of subrelation " + attributeName
                   + " must be terminated by " + "@end " + attributeName);
               }
@@ -942,10 +1222,10 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
           errorMessage("{ expected at beginning of enumeration");
         }
         while (m_Tokenizer.nextToken() != '}') {
-          if (m_Tokenizer.ttype == StreamTokenizer.TT_EOL) {
+          if (m_Tokenizer.ttype == ArffTokenizer.TT_EOL) {
             errorMessage("} expected at end of enumeration");
           } else {
-            attributeValues.add(m_Tokenizer.sval);
+            attributeValues.add(m_Tokenizer.sval());
           }
         }
         Attribute att = new Attribute(attributeName, attributeValues, attributes.size());
@@ -955,7 +1235,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
       }
       getLastToken(false);
       getFirstToken();
-      if (m_Tokenizer.ttype == StreamTokenizer.TT_EOF) {
+      if (m_Tokenizer.ttype == ArffTokenizer.TT_EOF) {
         errorMessage("premature end of file");
       }
 
@@ -968,7 +1248,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
      * @throws IOException in case something goes wrong
      */
     protected void readTillEOL() throws IOException {
-      while (m_Tokenizer.nextToken() != StreamTokenizer.TT_EOL) {
+      while (m_Tokenizer.nextToken() != ArffTokenizer.TT_EOL) {
       }
 
       m_Tokenizer.pushBack();
@@ -984,7 +1264,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
 
       double weight = 1.0;
       m_Tokenizer.nextToken();
-      if (m_Tokenizer.ttype == StreamTokenizer.TT_EOL || m_Tokenizer.ttype == StreamTokenizer.TT_EOF) {
+      if (m_Tokenizer.ttype == ArffTokenizer.TT_EOL || m_Tokenizer.ttype == ArffTokenizer.TT_EOF) {
         m_Tokenizer.pushBack();
         return weight;
       }
@@ -992,7 +1272,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
       if (m_Tokenizer.ttype == '{') {
         m_Tokenizer.nextToken();
         try {
-          weight = Double.parseDouble(m_Tokenizer.sval);
+          weight = Double.parseDouble(m_Tokenizer.sval());
         } catch (NumberFormatException ex) {
           errorMessage("Problem reading attribute weight " + ex.getMessage());
         }
@@ -1100,6 +1380,37 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
     return m_retainStringVals;
   }
 
+  /**
+   * Tool tip text for this property
+   * 
+   * @return the tool tip for this property
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of threads to use for parsing the data when reading "
+      + "in batch mode (1 = sequential, 0 = number of available processors). "
+      + "The data is split into chunks of lines, which are put together in "
+      + "their original order.";
+  }
+
+  /**
+   * Set the number of threads to use for parsing the data in batch mode.
+   * 
+   * @param numSlots the number of threads, 0 for the number of available
+   *          processors
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_numExecutionSlots = numSlots;
+  }
+
+  /**
+   * Get the number of threads to use for parsing the data in batch mode.
+   * 
+   * @return the number of threads
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
   /**
    * Get the file extension used for arff files
    * 
@@ -1245,6 +1556,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
         m_ArffReader =
           new ArffReader(m_sourceReader, 1, (getRetrieval() == BATCH));
         m_ArffReader.setRetainStringValues(getRetainStringVals());
+        m_ArffReader.setReadAhead(true);
         m_structure = m_ArffReader.getStructure();
       } catch (Exception ex) {
         throw new IOException("Unable to determine structure as arff (Reason: "
@@ -1281,11 +1593,7 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
       }
 
       // Read all instances
-      insts = new Instances(m_structure, 0);
-      Instance inst;
-      while ((inst = m_ArffReader.readInstance(m_structure)) != null) {
-        insts.add(inst);
-      }
+      insts = m_ArffReader.readInstances(m_structure, m_numExecutionSlots);
 
       // Instances readIn = new Instances(m_structure);
 
@@ -0,0 +1,926 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ArffTokenizer.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+
+/**
+ * A tokenizer for ARFF data that behaves like <code>java.io.StreamTokenizer</code>
+ * with the syntax used by the <code>ArffReader</code> (no number parsing,
+ * comment characters, quote characters with the same escape sequences,
+ * significant ends of line, push back), but avoids most of its overhead:
+ * <ul>
+ * <li>characters are taken from a buffer that is filled in blocks rather than
+ * read one at a time from the reader (if read-ahead is enabled)</li>
+ * <li>the text of a token is kept in a character array; a string is only
+ * created on demand via <code>sval()</code></li>
+ * <li>numbers are parsed straight from the character array, using an exact
+ * fast path for the common case and <code>Double.parseDouble</code>
+ * otherwise</li>
+ * <li>labels of nominal attributes are looked up via
+ * <code>NominalLookup</code>, without creating a string</li>
+ * </ul>
+ * Without read-ahead, the tokenizer never reads more than one character
+ * beyond the current token from the reader, just like
+ * <code>StreamTokenizer</code>. This is required if the reader is shared with
+ * other code, e.g., when reading one instance at a time via
+ * <code>Instances.readInstance(Reader)</code>.
+ *
+ * @version $Revision$
+ * @see java.io.StreamTokenizer
+ */
+public class ArffTokenizer implements RevisionHandler {
+
+  /** A constant indicating that the end of the stream has been read. */
+  public static final int TT_EOF = -1;
+
+  /** A constant indicating that the end of the line has been read. */
+  public static final int TT_EOL = '\n';
+
+  /** A constant indicating that a word token has been read. */
+  public static final int TT_WORD = -3;
+
+  /** A constant indicating that no token has been read yet. */
+  protected static final int TT_NOTHING = -4;
+
+  /** character type: whitespace. */
+  protected static final byte CT_WHITESPACE = 1;
+
+  /** character type: word character. */
+  protected static final byte CT_ALPHA = 4;
+
+  /** character type: quote character. */
+  protected static final byte CT_QUOTE = 8;
+
+  /** character type: comment character. */
+  protected static final byte CT_COMMENT = 16;
+
+  /** the size of the buffer when reading ahead. */
+  protected static final int BUFFER_SIZE = 65536;
+
+  /** the powers of ten that can be represented exactly. */
+  protected static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+    1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+    1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /** the largest mantissa that can be represented exactly. */
+  protected static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  /**
+   * The type of the last token read, either one of the TT_ constants, a quote
+   * character or an ordinary character.
+   */
+  public int ttype = TT_NOTHING;
+
+  /** the reader to tokenize. */
+  protected Reader m_Reader;
+
+  /** the character types. */
+  protected byte[] m_CharTypes = new byte[256];
+
+  /** whether ends of line are returned as tokens. */
+  protected boolean m_EOLIsSignificant = false;
+
+  /** whether to fill the buffer in blocks. */
+  protected boolean m_ReadAhead = false;
+
+  /** the buffer. */
+  protected char[] m_Buffer = new char[1];
+
+  /** the position of the next character in the buffer. */
+  protected int m_Pos = 0;
+
+  /** the number of valid characters in the buffer. */
+  protected int m_Limit = 0;
+
+  /** whether a line feed following a carriage return is to be skipped. */
+  protected boolean m_SkipLF = false;
+
+  /** whether the last token has been pushed back. */
+  protected boolean m_PushedBack = false;
+
+  /** the current line number. */
+  protected int m_LineNo = 1;
+
+  /** the text of the current token. */
+  protected char[] m_Token = new char[32];
+
+  /** the length of the text of the current token, -1 if it has no text. */
+  protected int m_TokenLength = -1;
+
+  /** the text of the current token as string, created on demand. */
+  protected String m_Sval = null;
+
+  /**
+   * Creates a tokenizer for the given reader. The syntax is empty and has to
+   * be set up via the methods for setting the character types.
+   *
+   * @param reader the reader to tokenize
+   */
+  public ArffTokenizer(Reader reader) {
+    m_Reader = reader;
+  }
+
+  /**
+   * Sets whether the tokenizer may fill its buffer with large blocks read
+   * from the reader. Must only be enabled if nobody else reads from the reader
+   * afterwards.
+   *
+   * @param value true if to read ahead
+   */
+  public void setReadAhead(boolean value) {
+    m_ReadAhead = value;
+    if (value && (m_Buffer.length < BUFFER_SIZE)) {
+      char[] buffer = new char[BUFFER_SIZE];
+      System.arraycopy(m_Buffer, m_Pos, buffer, 0, m_Limit - m_Pos);
+      m_Limit -= m_Pos;
+      m_Pos = 0;
+      m_Buffer = buffer;
+    }
+  }
+
+  /**
+   * Returns whether the tokenizer fills its buffer with large blocks.
+   *
+   * @return true if reading ahead
+   */
+  public boolean getReadAhead() {
+    return m_ReadAhead;
+  }
+
+  /**
+   * Makes all characters "ordinary".
+   */
+  public void resetSyntax() {
+    Arrays.fill(m_CharTypes, (byte) 0);
+  }
+
+  /**
+   * Specifies that all characters in the range are word characters.
+   *
+   * @param low the low end of the range
+   * @param hi the high end of the range
+   */
+  public void wordChars(int low, int hi) {
+    setCharTypes(low, hi, CT_ALPHA, true);
+  }
+
+  /**
+   * Specifies that all characters in the range are whitespace characters.
+   *
+   * @param low the low end of the range
+   * @param hi the high end of the range
+   */
+  public void whitespaceChars(int low, int hi) {
+    setCharTypes(low, hi, CT_WHITESPACE, false);
+  }
+
+  /**
+   * Specifies that the character is "ordinary", i.e., returned as a token of
+   * its own.
+   *
+   * @param ch the character
+   */
+  public void ordinaryChar(int ch) {
+    setCharTypes(ch, ch, (byte) 0, false);
+  }
+
+  /**
+   * Specifies that the character starts a single-line comment.
+   *
+   * @param ch the character
+   */
+  public void commentChar(int ch) {
+    setCharTypes(ch, ch, CT_COMMENT, false);
+  }
+
+  /**
+   * Specifies that matching pairs of this character delimit string constants.
+   *
+   * @param ch the character
+   */
+  public void quoteChar(int ch) {
+    setCharTypes(ch, ch, CT_QUOTE, false);
+  }
+
+  /**
+   * Determines whether or not ends of line are treated as tokens.
+   *
+   * @param flag true if ends of line are tokens
+   */
+  public void eolIsSignificant(boolean flag) {
+    m_EOLIsSignificant = flag;
+  }
+
+  /**
+   * Sets the type of the characters in the given range.
+   *
+   * @param low the low end of the range
+   * @param hi the high end of the range
+   * @param type the type
+   * @param add whether to add the type to the existing type rather than
+   *          replacing it
+   */
+  protected void setCharTypes(int low, int hi, byte type, boolean add) {
+    if (low < 0) {
+      low = 0;
+    }
+    if (hi >= m_CharTypes.length) {
+      hi = m_CharTypes.length - 1;
+    }
+    while (low <= hi) {
+      m_CharTypes[low] = add ? (byte) (m_CharTypes[low] | type) : type;
+      low++;
+    }
+  }
+
+  /**
+   * Returns the type of the character.
+   *
+   * @param c the character, -1 for end of stream
+   * @return the type
+   */
+  protected final int charType(int c) {
+    return (c < 256) ? m_CharTypes[c] : CT_ALPHA;
+  }
+
+  /**
+   * Refills the buffer and returns the next character.
+   *
+   * @return the next character, -1 at end of stream
+   * @throws IOException if reading fails
+   */
+  protected int fill() throws IOException {
+    int read;
+    if (m_ReadAhead) {
+      read = m_Reader.read(m_Buffer, 0, m_Buffer.length);
+      while (read == 0) {
+        read = m_Reader.read(m_Buffer, 0, m_Buffer.length);
+      }
+    } else {
+      int c = m_Reader.read();
+      if (c < 0) {
+        read = -1;
+      } else {
+        m_Buffer[0] = (char) c;
+        read = 1;
+      }
+    }
+    if (read < 0) {
+      m_Pos = 0;
+      m_Limit = 0;
+      return -1;
+    }
+    m_Pos = 1;
+    m_Limit = read;
+    return m_Buffer[0];
+  }
+
+  /**
+   * Returns the next character.
+   *
+   * @return the next character, -1 at end of stream
+   * @throws IOException if reading fails
+   */
+  protected final int read() throws IOException {
+    if (m_Pos < m_Limit) {
+      return m_Buffer[m_Pos++];
+    }
+    return fill();
+  }
+
+  /**
+   * Returns the last character read to the buffer, so that it gets read again.
+   *
+   * @param c the character, -1 for end of stream
+   */
+  protected final void unread(int c) {
+    if (c >= 0) {
+      m_Pos--;
+    }
+  }
+
+  /**
+   * Appends a character to the text of the current token.
+   *
+   * @param c the character
+   */
+  protected final void append(int c) {
+    if (m_TokenLength == m_Token.length) {
+      m_Token = Arrays.copyOf(m_Token, m_Token.length * 2);
+    }
+    m_Token[m_TokenLength++] = (char) c;
+  }
+
+  /**
+   * Causes the next call of <code>nextToken()</code> to return the current
+   * value of <code>ttype</code>.
+   */
+  public void pushBack() {
+    if (ttype != TT_NOTHING) {
+      m_PushedBack = true;
+    }
+  }
+
+  /**
+   * Parses the next token.
+   *
+   * @return the type of the token
+   * @throws IOException if reading fails
+   */
+  public int nextToken() throws IOException {
+    if (m_PushedBack) {
+      m_PushedBack = false;
+      return ttype;
+    }
+    m_TokenLength = -1;
+    m_Sval = null;
+
+    int c = read();
+    if (m_SkipLF) {
+      m_SkipLF = false;
+      if (c == '\n') {
+        c = read();
+      }
+    }
+    if (c < 0) {
+      return ttype = TT_EOF;
+    }
+
+    int type = charType(c);
+    while ((type & CT_WHITESPACE) != 0) {
+      if (c == '\r') {
+        m_LineNo++;
+        if (m_EOLIsSignificant) {
+          m_SkipLF = true;
+          return ttype = TT_EOL;
+        }
+        c = read();
+        if (c == '\n') {
+          c = read();
+        }
+      } else {
+        if (c == '\n') {
+          m_LineNo++;
+          if (m_EOLIsSignificant) {
+            return ttype = TT_EOL;
+          }
+        }
+        c = read();
+      }
+      if (c < 0) {
+        return ttype = TT_EOF;
+      }
+      type = charType(c);
+    }
+
+    if ((type & CT_ALPHA) != 0) {
+      m_TokenLength = 0;
+      char[] buffer = m_Buffer;
+      do {
+        append(c);
+        // scan the rest of the buffer without the overhead of read()
+        int pos = m_Pos;
+        int limit = m_Limit;
+        while (pos < limit) {
+          c = buffer[pos];
+          if (((c < 256) ? m_CharTypes[c] & CT_ALPHA : CT_ALPHA) == 0) {
+            break;
+          }
+          append(c);
+          pos++;
+        }
+        m_Pos = pos;
+        c = read();
+        type = (c < 0) ? CT_WHITESPACE : charType(c);
+        buffer = m_Buffer;
+      } while ((type & CT_ALPHA) != 0);
+      unread(c);
+      return ttype = TT_WORD;
+    }
+
+    if ((type & CT_QUOTE) != 0) {
+      ttype = c;
+      m_TokenLength = 0;
+      int d = read();
+      while ((d >= 0) && (d != ttype) && (d != '\n') && (d != '\r')) {
+        if (d == '\\') {
+          c = read();
+          int first = c; // to allow \377, but not \477
+          if ((c >= '0') && (c <= '7')) {
+            c = c - '0';
+            int c2 = read();
+            if (('0' <= c2) && (c2 <= '7')) {
+              c = (c << 3) + (c2 - '0');
+              c2 = read();
+              if (('0' <= c2) && (c2 <= '7') && (first <= '3')) {
+                c = (c << 3) + (c2 - '0');
+                d = read();
+              } else {
+                d = c2;
+              }
+            } else {
+              d = c2;
+            }
+          } else {
+            switch (c) {
+            case 'a':
+              c = 0x7;
+              break;
+            case 'b':
+              c = '\b';
+              break;
+            case 'f':
+              c = 0xC;
+              break;
+            case 'n':
+              c = '\n';
+              break;
+            case 'r':
+              c = '\r';
+              break;
+            case 't':
+              c = '\t';
+              break;
+            case 'v':
+              c = 0xB;
+              break;
+            }
+            d = read();
+          }
+        } else {
+          c = d;
+          d = read();
+        }
+        append(c);
+      }
+      // read the closing quote again next time if the string was unterminated
+      if (d != ttype) {
+        unread(d);
+      }
+      return ttype;
+    }
+
+    if ((type & CT_COMMENT) != 0) {
+      while (((c = read()) != '\n') && (c != '\r') && (c >= 0)) {
+      }
+      unread(c);
+      return nextToken();
+    }
+
+    return ttype = c;
+  }
+
+  /**
+   * Returns the current line number.
+   *
+   * @return the line number
+   */
+  public int lineno() {
+    return m_LineNo;
+  }
+
+  /**
+   * Sets the current line number.
+   *
+   * @param value the line number
+   */
+  public void setLineNo(int value) {
+    m_LineNo = value;
+  }
+
+  /**
+   * Reads the remaining input as a chunk of complete lines, bypassing the
+   * tokenizer. The chunk holds at least the given number of characters (unless
+   * the end of the input is reached) and ends at the first end of line after
+   * that, which is not part of a quoted token. Tokenizing the chunks one after
+   * the other yields the same tokens as tokenizing the remaining input, apart
+   * from the line numbers; the line number of the tokenizer is advanced past
+   * the chunk.
+   *
+   * @param size the minimum number of characters
+   * @return the chunk, null if at the end of the input
+   * @throws IOException if reading fails
+   * @throws IllegalStateException if a token other than an end of line has
+   *           been pushed back
+   */
+  public char[] nextChunk(int size) throws IOException {
+    if (m_PushedBack) {
+      if ((ttype != TT_EOL) && (ttype != TT_EOF)) {
+        throw new IllegalStateException(
+          "Cannot split the input after a pushed back " + this);
+      }
+      m_PushedBack = false;
+    }
+    if (m_SkipLF) {
+      m_SkipLF = false;
+      int c = read();
+      if (c != '\n') {
+        unread(c);
+      }
+    }
+
+    char[] chunk = new char[Math.max(size, 16)];
+    int len = 0;
+    int lines = 0;
+    int quote = -1;
+    boolean escape = false;
+    boolean comment = false;
+    boolean lastCR = false;
+    int c;
+    while ((c = read()) >= 0) {
+      if (len == chunk.length) {
+        chunk = Arrays.copyOf(chunk, chunk.length * 2);
+      }
+      chunk[len++] = (char) c;
+
+      if (quote >= 0) {
+        if (escape) {
+          // the escaped character never ends the token, nor a line
+          escape = false;
+          lastCR = false;
+          continue;
+        } else if (c == '\\') {
+          escape = true;
+          continue;
+        } else if (c == quote) {
+          quote = -1;
+          continue;
+        } else if ((c != '\r') && (c != '\n')) {
+          continue;
+        }
+        // an unterminated quoted token ends at the end of the line
+        quote = -1;
+      } else if (comment) {
+        if ((c != '\r') && (c != '\n')) {
+          continue;
+        }
+        comment = false;
+      }
+
+      if (c == '\r') {
+        lines++;
+        lastCR = true;
+      } else if (c == '\n') {
+        if (!lastCR) {
+          lines++;
+        }
+        lastCR = false;
+      } else {
+        lastCR = false;
+        int type = charType(c);
+        if ((type & CT_QUOTE) != 0) {
+          quote = c;
+        } else if ((type & CT_COMMENT) != 0) {
+          comment = true;
+        }
+        continue;
+      }
+
+      if (len >= size) {
+        if (c == '\r') {
+          c = read();
+          if (c == '\n') {
+            if (len == chunk.length) {
+              chunk = Arrays.copyOf(chunk, chunk.length + 1);
+            }
+            chunk[len++] = (char) c;
+          } else {
+            unread(c);
+          }
+        }
+        break;
+      }
+    }
+
+    m_LineNo += lines;
+    if (len == 0) {
+      return null;
+    }
+    return Arrays.copyOf(chunk, len);
+  }
+
+  /**
+   * Returns the text of the current word or quoted token, creating a string if
+   * necessary.
+   *
+   * @return the text, null if the token has no text
+   */
+  public String sval() {
+    if ((m_Sval == null) && (m_TokenLength >= 0)) {
+      m_Sval = new String(m_Token, 0, m_TokenLength);
+    }
+    return m_Sval;
+  }
+
+  /**
+   * Returns whether the text of the current token equals the given string.
+   *
+   * @param s the string to compare with
+   * @return true if the text is the same
+   */
+  public boolean tokenEquals(String s) {
+    if (m_TokenLength != s.length()) {
+      return false;
+    }
+    for (int i = 0; i < m_TokenLength; i++) {
+      if (m_Token[i] != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses the text of the current token as integer. Accepts the same input
+   * as <code>Integer.parseInt(String)</code>.
+   *
+   * @return the integer
+   * @throws NumberFormatException if the text is not an integer
+   */
+  public int parseInt() {
+    int len = m_TokenLength;
+    int i = 0;
+    boolean negative = false;
+    if ((len > 0) && ((m_Token[0] == '-') || (m_Token[0] == '+'))) {
+      negative = (m_Token[0] == '-');
+      i++;
+    }
+    // at most 9 digits cannot overflow
+    if ((len > i) && (len - i <= 9)) {
+      int result = 0;
+      for (; i < len; i++) {
+        int digit = m_Token[i] - '0';
+        if ((digit < 0) || (digit > 9)) {
+          break;
+        }
+        result = result * 10 + digit;
+      }
+      if (i == len) {
+        return negative ? -result : result;
+      }
+    }
+    return Integer.parseInt(sval());
+  }
+
+  /**
+   * Parses the text of the current token as double. Accepts the same input as
+   * <code>Double.parseDouble(String)</code> and returns the same (correctly
+   * rounded) result. Plain decimal numbers with at most 15 to 16 significant
+   * digits and small exponents are converted without creating a string.
+   *
+   * @return the double
+   * @throws NumberFormatException if the text is not a number
+   */
+  public double parseDouble() {
+    char[] token = m_Token;
+    int len = m_TokenLength;
+    int i = 0;
+    boolean negative = false;
+    if ((len > 0) && ((token[0] == '-') || (token[0] == '+'))) {
+      negative = (token[0] == '-');
+      i++;
+    }
+
+    long mantissa = 0;
+    int exponent = 0;
+    int digits = 0;
+    boolean exact = true;
+    for (; i < len; i++) {
+      int digit = token[i] - '0';
+      if ((digit < 0) || (digit > 9)) {
+        break;
+      }
+      if (mantissa < MAX_EXACT_MANTISSA / 10) {
+        mantissa = mantissa * 10 + digit;
+      } else {
+        exact = false;
+      }
+      digits++;
+    }
+    if ((i < len) && (token[i] == '.')) {
+      i++;
+      for (; i < len; i++) {
+        int digit = token[i] - '0';
+        if ((digit < 0) || (digit > 9)) {
+          break;
+        }
+        if (mantissa < MAX_EXACT_MANTISSA / 10) {
+          mantissa = mantissa * 10 + digit;
+          exponent--;
+        } else {
+          exact = false;
+        }
+        digits++;
+      }
+    }
+    if ((digits > 0) && (i < len) && ((token[i] == 'e') || (token[i] == 'E'))) {
+      i++;
+      boolean negativeExp = false;
+      if ((i < len) && ((token[i] == '-') || (token[i] == '+'))) {
+        negativeExp = (token[i] == '-');
+        i++;
+      }
+      int exp = 0;
+      int expDigits = 0;
+      for (; i < len; i++) {
+        int digit = token[i] - '0';
+        if ((digit < 0) || (digit > 9) || (exp > 10000)) {
+          break;
+        }
+        exp = exp * 10 + digit;
+        expDigits++;
+      }
+      if (expDigits == 0) {
+        exact = false;
+      }
+      exponent += negativeExp ? -exp : exp;
+    }
+
+    if (exact && (digits > 0) && (i == len)
+      && (exponent >= -22) && (exponent <= 22)) {
+      double result = mantissa;
+      if (exponent < 0) {
+        result /= POWERS_OF_TEN[-exponent];
+      } else {
+        result *= POWERS_OF_TEN[exponent];
+      }
+      return negative ? -result : result;
+    }
+
+    return Double.parseDouble(sval());
+  }
+
+  /**
+   * Returns a string representation of the current token and line number, in
+   * the same format as <code>StreamTokenizer</code>.
+   *
+   * @return the string representation
+   */
+  @Override
+  public String toString() {
+    String ret;
+    switch (ttype) {
+    case TT_EOF:
+      ret = "EOF";
+      break;
+    case TT_EOL:
+      ret = "EOL";
+      break;
+    case TT_WORD:
+      ret = sval();
+      break;
+    case TT_NOTHING:
+      ret = "NOTHING";
+      break;
+    default:
+      if ((ttype < 256) && ((m_CharTypes[ttype] & CT_QUOTE) != 0)) {
+        ret = sval();
+        break;
+      }
+      ret = "'" + (char) ttype + "'";
+      break;
+    }
+    return "Token[" + ret + "], line " + m_LineNo;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * Looks up the labels of a nominal attribute in the text of the current
+   * token, without creating a string. Uses open addressing on the same hash
+   * codes as <code>String</code>.
+   */
+  public static class NominalLookup implements RevisionHandler {
+
+    /** the attribute. */
+    protected Attribute m_Attribute;
+
+    /** the number of labels when the lookup was created. */
+    protected int m_NumValues;
+
+    /** the labels, indexed by slot. */
+    protected char[][] m_Labels;
+
+    /** the indices of the labels, indexed by slot. */
+    protected int[] m_Indices;
+
+    /** the mask for computing a slot from a hash code. */
+    protected int m_Mask;
+
+    /**
+     * Creates a lookup for the labels of the given nominal attribute.
+     *
+     * @param att the attribute
+     */
+    public NominalLookup(Attribute att) {
+      m_Attribute = att;
+      m_NumValues = att.numValues();
+
+      int size = 2;
+      while (size < 2 * m_NumValues) {
+        size <<= 1;
+      }
+      m_Mask = size - 1;
+      m_Labels = new char[size][];
+      m_Indices = new int[size];
+      for (int i = 0; i < m_NumValues; i++) {
+        String label = att.value(i);
+        int slot = label.hashCode() & m_Mask;
+        while (m_Labels[slot] != null) {
+          slot = (slot + 1) & m_Mask;
+        }
+        m_Labels[slot] = label.toCharArray();
+        m_Indices[slot] = i;
+      }
+    }
+
+    /**
+     * Returns whether the lookup was created for the given attribute in its
+     * current state.
+     *
+     * @param att the attribute
+     * @return true if the lookup is valid for the attribute
+     */
+    public boolean isValidFor(Attribute att) {
+      return (m_Attribute == att) && (m_NumValues == att.numValues());
+    }
+
+    /**
+     * Returns the index of the label equal to the text of the current token.
+     *
+     * @param tokenizer the tokenizer
+     * @return the index, -1 if not a label of the attribute
+     */
+    public int indexOf(ArffTokenizer tokenizer) {
+      char[] token = tokenizer.m_Token;
+      int len = tokenizer.m_TokenLength;
+      if (len < 0) {
+        return -1;
+      }
+
+      int hash = 0;
+      for (int i = 0; i < len; i++) {
+        hash = 31 * hash + token[i];
+      }
+      int slot = hash & m_Mask;
+      char[] label;
+      while ((label = m_Labels[slot]) != null) {
+        if (label.length == len) {
+          int i = 0;
+          while ((i < len) && (label[i] == token[i])) {
+            i++;
+          }
+          if (i == len) {
+            return m_Indices[slot];
+          }
+        }
+        slot = (slot + 1) & m_Mask;
+      }
+      return -1;
+    }
+
+    /**
+     * Returns the revision string.
+     *
+     * @return the revision
+     */
+    @Override
+    public String getRevision() {
+      return RevisionUtils.extract("$Revision$");
+    }
+  }
+}
@@ -124,6 +124,11 @@ import weka.core.converters.ArffLoader.ArffReader;
  *  The size of the in memory buffer (in rows).
  *  (default: 100)</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of threads for parsing the data in batch mode
+ *  (1 = sequential, 0 = number of available processors).
+ *  (default: 1)</pre>
+ * 
  <!-- options-end -->
  * 
  * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
@@ -180,6 +185,9 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
   /** enclosure character(s) to use for strings */
   protected String m_Enclosures = "\",\'";
 
+  /** The number of threads for parsing the data in batch mode */
+  protected int m_numExecutionSlots = 1;
+
   /** The in memory row buffer */
   protected List<String> m_rowBuffer;
 
@@ -560,6 +568,36 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     return "The number of rows to process in memory at any one time.";
   }
 
+  /**
+   * Get the number of threads to use for parsing the data in batch mode.
+   *
+   * @return the number of threads
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
+  /**
+   * Set the number of threads to use for parsing the data in batch mode.
+   *
+   * @param numSlots the number of threads, 0 for the number of available
+   *          processors
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_numExecutionSlots = numSlots;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of threads to use for parsing the data in batch mode "
+      + "(1 = sequential, 0 = number of available processors).";
+  }
+
   /**
    * Get label specifications for nominal attributes.
    *
@@ -666,6 +704,10 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     result.add(new Option("\tThe size of the in memory buffer (in rows).\n"
       + "\t(default: 100)", "B", 1, "-B <num>"));
 
+    result.add(new Option("\tNumber of threads for parsing the data in batch mode\n"
+      + "\t(1 = sequential, 0 = number of available processors).\n"
+      + "\t(default: 1)", "num-slots", 1, "-num-slots <num>"));
+
     return result.elements();
   }
 
@@ -701,6 +743,9 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     result.add("-B");
     result.add("" + getBufferSize());
 
+    result.add("-num-slots");
+    result.add("" + getNumExecutionSlots());
+
     result.add("-E");
     result.add(getEnclosureCharacters());
 
@@ -772,6 +817,13 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
       setBufferSize(buff);
     }
 
+    tmpStr = Utils.getOption("num-slots", options);
+    if (tmpStr.length() > 0) {
+      setNumExecutionSlots(Integer.parseInt(tmpStr));
+    } else {
+      setNumExecutionSlots(1);
+    }
+
     tmpStr = Utils.getOption("E", options);
     if (tmpStr.length() > 0) {
       setEnclosureCharacters(tmpStr);
@@ -889,9 +941,13 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
 
     Reader sr = new BufferedReader(new FileReader(m_tempFile));
     ArffReader initialArff =
-      new ArffReader(sr, m_structure, 0, m_fieldSeparatorAndEnclosures);
+      new ArffReader(sr, m_structure, 0, 100, true,
+        m_fieldSeparatorAndEnclosures);
+    initialArff.setReadAhead(true);
 
-    Instances initialInsts = initialArff.getData();
+    Instances initialInsts =
+      initialArff.readInstances(m_structure, m_numExecutionSlots);
+    initialInsts.compactify();
     sr.close();
     initialArff = null;
 
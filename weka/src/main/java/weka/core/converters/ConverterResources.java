@@ -52,6 +52,8 @@ public class ConverterResources {
     + weka.core.converters.DatabaseConverter.class.getName()
     + ","
     // + weka.core.converters.LibSVMLoader.class.getName() + ","
+    + weka.core.converters.MappedInstancesLoader.class.getName()
+    + ","
     // + weka.core.converters.MatlabLoader.class.getName() + ","
     // + weka.core.converters.SVMLightLoader.class.getName() + ","
     + weka.core.converters.SerializedInstancesLoader.class.getName()
@@ -73,6 +75,8 @@ public class ConverterResources {
     + weka.core.converters.DatabaseConverter.class.getName()
     + ","
     // + weka.core.converters.LibSVMSaver.class.getName() + ","
+    + weka.core.converters.MappedInstancesSaver.class.getName()
+    + ","
     // + weka.core.converters.MatlabSaver.class.getName() + ","
     // + weka.core.converters.SVMLightSaver.class.getName() + ","
     + weka.core.converters.SerializedInstancesSaver.class.getName()
@@ -0,0 +1,259 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    MappedInstancesLoader.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import weka.core.Environment;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.MappedInstances;
+import weka.core.RevisionUtils;
+
+/**
+ <!-- globalinfo-start -->
+ * Memory-maps a file written by the MappedInstancesSaver. The data is not parsed or copied onto the heap; the instances are read from the mapped file on demand.
+ * <p/>
+ <!-- globalinfo-end -->
+ *
+ * @version $Revision$
+ * @see Loader
+ * @see MappedInstances
+ */
+public class MappedInstancesLoader
+  extends AbstractFileLoader
+  implements BatchConverter, IncrementalConverter {
+
+  /** for serialization */
+  private static final long serialVersionUID = -1386312460451384040L;
+
+  /** the file extension */
+  public static String FILE_EXTENSION = MappedInstances.FILE_EXTENSION;
+
+  /** the mapped data set. */
+  protected Instances m_Dataset = null;
+
+  /** the file that is about to be opened via setSource(File). */
+  protected File m_PendingFile = null;
+
+  /** The current index position for incremental reading */
+  protected int m_IncrementalIndex = 0;
+
+  /**
+   * Returns a string describing this object
+   *
+   * @return a description of the classifier suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String globalInfo() {
+    return "Memory-maps a file written by the MappedInstancesSaver. The data "
+      + "is not parsed or copied onto the heap; the instances are read from "
+      + "the mapped file on demand.";
+  }
+
+  /**
+   * Resets the Loader ready to read the data set again. The file stays
+   * mapped.
+   *
+   * @throws IOException if something goes wrong
+   */
+  public void reset() throws IOException {
+    super.reset();
+
+    m_IncrementalIndex = 0;
+  }
+
+  /**
+   * Get the file extension used for memory-mapped files
+   *
+   * @return the file extension
+   */
+  public String getFileExtension() {
+    return FILE_EXTENSION;
+  }
+
+  /**
+   * Gets all the file extensions used for this type of file
+   *
+   * @return the file extensions
+   */
+  public String[] getFileExtensions() {
+    return new String[]{getFileExtension()};
+  }
+
+  /**
+   * Returns a description of the file type.
+   *
+   * @return a short file description
+   */
+  public String getFileDescription() {
+    return "Memory-mapped binary instances";
+  }
+
+  /**
+   * Resets the Loader object and sets the source of the data set to be the
+   * supplied File object. Plain files are mapped directly.
+   *
+   * @param file the source file.
+   * @throws IOException if an error occurs
+   */
+  public void setSource(File file) throws IOException {
+
+    m_PendingFile = null;
+    if (file != null) {
+      String fName = file.getPath();
+      try {
+        if (m_env == null) {
+          m_env = Environment.getSystemWide();
+        }
+        fName = m_env.substitute(fName);
+      } catch (Exception e) {
+        // ignore any missing environment variables at this time
+      }
+      m_PendingFile = new File(fName);
+    }
+
+    try {
+      super.setSource(file);
+    } finally {
+      m_PendingFile = null;
+    }
+  }
+
+  /**
+   * Resets the Loader object and sets the source of the data set to be the
+   * supplied InputStream. Streams that do not stem from a plain file are
+   * copied into a temporary file first, which then gets mapped.
+   *
+   * @param in the source InputStream.
+   * @throws IOException if there is a problem with IO
+   */
+  public void setSource(InputStream in) throws IOException {
+
+    File file;
+
+    m_Dataset = null;
+    m_IncrementalIndex = 0;
+
+    if ((m_PendingFile != null) && m_PendingFile.isFile()
+      && (in instanceof FileInputStream)) {
+      file = m_PendingFile;
+    } else {
+      file = File.createTempFile("weka", FILE_EXTENSION);
+      file.deleteOnExit();
+      OutputStream out = new FileOutputStream(file);
+      try {
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      } finally {
+        out.close();
+      }
+    }
+    in.close();
+
+    m_Dataset = new MappedInstances(file);
+  }
+
+  /**
+   * Determines and returns (if possible) the structure (internally the
+   * header) of the data set as an empty set of instances.
+   *
+   * @return the structure of the data set as an empty set of Instances
+   * @throws IOException if an error occurs
+   */
+  public Instances getStructure() throws IOException {
+
+    if (m_Dataset == null) {
+      throw new IOException("No source has been specified");
+    }
+
+    return new Instances(m_Dataset, 0);
+  }
+
+  /**
+   * Return the full data set, backed by the mapped file. If the structure
+   * hasn't yet been determined by a call to getStructure then method should do
+   * so before processing the rest of the data set.
+   *
+   * @return the structure of the data set as an empty set of Instances
+   * @throws IOException if there is no source or parsing fails
+   */
+  public Instances getDataSet() throws IOException {
+
+    if (m_Dataset == null) {
+      throw new IOException("No source has been specified");
+    }
+
+    return m_Dataset;
+  }
+
+  /**
+   * Read the data set incrementally---get the next instance in the data
+   * set or returns null if there are no
+   * more instances to get. If the structure hasn't yet been
+   * determined by a call to getStructure then method should do so before
+   * returning the next instance in the data set.
+   *
+   * @param structure ignored
+   * @return the next instance in the data set as an Instance object or null
+   * if there are no more instances to be read
+   * @throws IOException if there is an error during parsing
+   */
+  public Instance getNextInstance(Instances structure) throws IOException {
+
+    if (m_Dataset == null) {
+      throw new IOException("No source has been specified");
+    }
+
+    if (m_IncrementalIndex == m_Dataset.numInstances()) {
+      return null;
+    }
+
+    return m_Dataset.instance(m_IncrementalIndex++);
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args should contain the name of an input file.
+   */
+  public static void main(String[] args) {
+    runFileLoader(new MappedInstancesLoader(), args);
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    MappedInstancesSaver.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.MappedInstances;
+import weka.core.RevisionUtils;
+
+/**
+ <!-- globalinfo-start -->
+ * Writes the instances in a binary format with fixed-size records that can be memory-mapped by the MappedInstancesLoader, with extension mbi.
+ * <p/>
+ <!-- globalinfo-end -->
+ *
+ <!-- options-start -->
+ * Valid options are: <p/>
+ *
+ * <pre> -i &lt;the input file&gt;
+ * The input file</pre>
+ *
+ * <pre> -o &lt;the output file&gt;
+ * The output file</pre>
+ *
+ <!-- options-end -->
+ *
+ * @version $Revision$
+ * @see Saver
+ * @see MappedInstances
+ */
+public class MappedInstancesSaver
+  extends AbstractFileSaver
+  implements BatchConverter, IncrementalConverter {
+
+  /** for serialization. */
+  private static final long serialVersionUID = -3358180380553938375L;
+
+  /** the output stream. */
+  protected transient DataOutputStream m_Output;
+
+  /** the header that is written after the data, collects string values. */
+  protected Instances m_Header;
+
+  /** the number of instances written so far. */
+  protected long m_NumRows;
+
+  /** Constructor. */
+  public MappedInstancesSaver() {
+    resetOptions();
+  }
+
+  /**
+   * Returns a string describing this Saver.
+   *
+   * @return a description of the Saver suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String globalInfo() {
+    return "Writes the instances in a binary format with fixed-size records "
+      + "that can be memory-mapped by the MappedInstancesLoader, with "
+      + "extension mbi.";
+  }
+
+  /**
+   * Returns a description of the file type.
+   *
+   * @return a short file description
+   */
+  public String getFileDescription() {
+    return "Memory-mapped binary instances";
+  }
+
+  /**
+   * Resets the Saver.
+   */
+  public void resetOptions() {
+
+    super.resetOptions();
+    setFileExtension(MappedInstances.FILE_EXTENSION);
+  }
+
+  /**
+   * Returns the Capabilities of this saver.
+   *
+   * @return            the capabilities of this object
+   * @see               Capabilities
+   */
+  public Capabilities getCapabilities() {
+    Capabilities result = super.getCapabilities();
+
+    // attributes
+    result.enableAllAttributes();
+    result.disable(Capability.RELATIONAL_ATTRIBUTES);
+    result.enable(Capability.MISSING_VALUES);
+
+    // class
+    result.enableAllClasses();
+    result.disable(Capability.RELATIONAL_CLASS);
+    result.enable(Capability.MISSING_CLASS_VALUES);
+    result.enable(Capability.NO_CLASS);
+
+    return result;
+  }
+
+  /**
+   * Resets the writer, setting writer and output stream to null.
+   */
+  public void resetWriter() {
+    super.resetWriter();
+
+    m_Output = null;
+    m_Header = null;
+    m_NumRows = 0;
+  }
+
+  /**
+   * Sets the destination output stream.
+   *
+   * @param output the output stream.
+   * @throws IOException throws an IOException if destination cannot be set
+   */
+  public void setDestination(OutputStream output) throws IOException {
+    super.setDestination(output);
+
+    m_Output = new DataOutputStream(new BufferedOutputStream(output));
+  }
+
+  /**
+   * Writes the preamble and prepares the header that gets written after the
+   * data.
+   *
+   * @param structure the structure of the data
+   * @throws IOException if writing fails
+   */
+  protected void writePreamble(Instances structure) throws IOException {
+
+    m_Header = structure.stringFreeStructure();
+    m_NumRows = 0;
+
+    m_Output.writeLong(MappedInstances.MAGIC);
+    m_Output.writeInt(MappedInstances.VERSION);
+    m_Output.writeInt(m_Header.numAttributes());
+    for (int i = 16; i < MappedInstances.PREAMBLE_SIZE; i++) {
+      m_Output.writeByte(0);
+    }
+  }
+
+  /**
+   * Writes the record of a single instance. The values of string attributes
+   * are added to the header and written as indices into the header.
+   *
+   * @param inst the instance to write
+   * @throws IOException if writing fails
+   */
+  protected void writeInstance(Instance inst) throws IOException {
+
+    for (int i = 0; i < m_Header.numAttributes(); i++) {
+      double value = inst.value(i);
+      if (m_Header.attribute(i).isString() && !Double.isNaN(value)) {
+        value = m_Header.attribute(i).addStringValue(inst.stringValue(i));
+      }
+      m_Output.writeDouble(value);
+    }
+    m_Output.writeDouble(inst.weight());
+    m_NumRows++;
+  }
+
+  /**
+   * Writes the header and the trailer and closes the output.
+   *
+   * @throws IOException if writing fails
+   */
+  protected void writeTrailer() throws IOException {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bytes);
+    oos.writeObject(m_Header);
+    oos.close();
+    bytes.writeTo(m_Output);
+
+    m_Output.writeLong(MappedInstances.PREAMBLE_SIZE + m_NumRows
+      * (m_Header.numAttributes() + 1) * 8);
+    m_Output.writeLong(m_NumRows);
+    m_Output.writeLong(MappedInstances.MAGIC);
+    m_Output.flush();
+    m_Output.close();
+  }
+
+  /**
+   * Saves an instances incrementally. Structure has to be set by using the
+   * setStructure() method or setInstances() method. When all instances are
+   * written, call writeIncremental(null) to write the header and close the
+   * file.
+   *
+   * @param inst the instance to save
+   * @throws IOException throws IOEXception if an instance cannot be saved
+   *           incrementally.
+   */
+  public void writeIncremental(Instance inst) throws IOException {
+
+    int writeMode = getWriteMode();
+    Instances structure = getInstances();
+
+    if (getRetrieval() == BATCH || getRetrieval() == NONE) {
+      throw new IOException("Batch and incremental saving cannot be mixed.");
+    }
+
+    if (writeMode == WAIT) {
+      if (structure == null) {
+        setWriteMode(CANCEL);
+        if (inst != null) {
+          System.err
+            .println("Structure(Header Information) has to be set in advance");
+        }
+      } else {
+        setWriteMode(STRUCTURE_READY);
+      }
+      writeMode = getWriteMode();
+    }
+    if (writeMode == CANCEL) {
+      if (m_Output != null) {
+        m_Output.close();
+      }
+      cancel();
+    }
+    if (writeMode == STRUCTURE_READY) {
+      if (m_Output == null) {
+        throw new IOException("No output for memory-mapped instances.");
+      }
+      setWriteMode(WRITE);
+      writePreamble(structure);
+      writeMode = getWriteMode();
+    }
+    if (writeMode == WRITE) {
+      if (structure == null) {
+        throw new IOException("No instances information available.");
+      }
+      if (inst != null) {
+        writeInstance(inst);
+      } else {
+        writeTrailer();
+        resetStructure();
+        resetWriter();
+      }
+    }
+  }
+
+  /**
+   * Writes a Batch of instances.
+   *
+   * @throws IOException throws IOException if saving in batch mode is not possible
+   */
+  public void writeBatch() throws IOException {
+    if (getRetrieval() == INCREMENTAL)
+      throw new IOException("Batch and incremental saving cannot be mixed.");
+
+    if (getInstances() == null)
+      throw new IOException("No instances to save");
+
+    setRetrieval(BATCH);
+
+    if (m_Output == null)
+      throw new IOException("No output for memory-mapped instances.");
+
+    setWriteMode(WRITE);
+    Instances data = getInstances();
+    writePreamble(data);
+    for (int i = 0; i < data.numInstances(); i++) {
+      writeInstance(data.instance(i));
+    }
+    writeTrailer();
+    setWriteMode(WAIT);
+    resetWriter();
+    setWriteMode(CANCEL);
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args should contain the options of a Saver.
+   */
+  public static void main(String[] args) {
+    runFileSaver(new MappedInstancesSaver(), args);
+  }
+}
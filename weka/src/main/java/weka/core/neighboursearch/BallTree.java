@@ -85,6 +85,11 @@ import weka.core.neighboursearch.balltrees.TopDownConstructor;
  *  The construction method to employ. Either TopDown or BottomUp
  *  (default: weka.core.TopDownConstructor)</pre>
  * 
+ * <pre> -num-threads &lt;num&gt;
+ *  The number of threads to build the tree and to search
+ *  batches of instances with, 0 for the number of cores.
+ *  (default 1)</pre>
+ * 
  <!-- options-end --> 
  *
  * @author Ashraf M. Kibriya (amk14[at-the-rate]cs[dot]waikato[dot]ac[dot]nz)
@@ -123,6 +128,104 @@ public class BallTree
    */
   protected double[] m_Distances;
 
+  /** The number of threads to build and search with, 0 for the number of cores. */
+  protected int m_NumThreads = 1;
+
+  /** The flat copy of the tree that is searched, null if not made yet. */
+  protected transient FlatTree m_FlatTree = null;
+
+  /**
+   * A copy of the tree in flat arrays indexed by node, with the instances
+   * packed in the order of the leaves and the pivots packed by node. It does
+   * not change once made, so that it can be searched by several threads at 
+   * once.
+   */
+  protected static class FlatTree {
+
+    /** The instances, packed in the order of the instance list. */
+    protected EuclideanScan m_Scan;
+
+    /** The pivots of the nodes, packed by node. */
+    protected EuclideanScan m_Pivots;
+
+    /** The instance list the instances are packed in the order of. */
+    protected int[] m_InstList;
+
+    /** The first and last position in the instance list of each node. */
+    protected int[] m_Start, m_End;
+
+    /** The children of each node, -1 for a leaf. */
+    protected int[] m_Left, m_Right;
+
+    /** The radius of each node. */
+    protected double[] m_Radius;
+
+    /** The largest number of instances in a leaf. */
+    protected int m_MaxLeafSize;
+
+    /**
+     * Copies the given tree.
+     * 
+     * @param root 	the root of the tree
+     * @param instList 	the instance list of the tree
+     * @param distance 	the distance function of the tree
+     * @param data 	the instances of the tree
+     * @throws Exception 	if the instances can't be packed
+     */
+    protected FlatTree(BallNode root, int[] instList, 
+        EuclideanDistance distance, Instances data) throws Exception {
+      
+      int numNodes = count(root);
+      m_Start = new int[numNodes];
+      m_End = new int[numNodes];
+      m_Left = new int[numNodes];
+      m_Right = new int[numNodes];
+      m_Radius = new double[numNodes];
+      Instances pivots = new Instances(data, numNodes);
+      copy(root, 0, pivots);
+      m_InstList = instList;
+      m_Scan = new EuclideanScan(distance, data, instList);
+      m_Scan.refresh();
+      m_Pivots = new EuclideanScan(distance, pivots);
+      m_Pivots.refresh();
+    }
+
+    /**
+     * Counts the nodes of a subtree.
+     * 
+     * @param node 	the root of the subtree
+     * @return 		the number of nodes
+     */
+    protected static int count(BallNode node) {
+      if (node.isALeaf())
+        return 1;
+      return 1 + count(node.m_Left) + count(node.m_Right);
+    }
+
+    /**
+     * Copies a subtree, numbering its nodes depth first.
+     * 
+     * @param node 	the root of the subtree
+     * @param index 	the number of the root
+     * @param pivots 	the pivots of the nodes copied so far
+     * @return 		the number after the last node of the subtree
+     */
+    protected int copy(BallNode node, int index, Instances pivots) {
+      m_Start[index] = node.m_Start;
+      m_End[index] = node.m_End;
+      m_Radius[index] = node.getRadius();
+      pivots.add(node.getPivot());
+      if (node.isALeaf()) {
+        m_Left[index] = m_Right[index] = -1;
+        m_MaxLeafSize = Math.max(m_MaxLeafSize, node.numInstances());
+        return index + 1;
+      }
+      m_Left[index] = index + 1;
+      m_Right[index] = copy(node.m_Left, index + 1, pivots);
+      return copy(node.m_Right, m_Right[index], pivots);
+    }
+  }
+
   /**
    * Creates a new instance of BallTree.
    */
@@ -222,9 +325,30 @@ public class BallTree
     m_TreeConstructor.setInstanceList(m_InstList);
     m_TreeConstructor.setEuclideanDistanceFunction(
                       (EuclideanDistance)m_DistanceFunction);
+    m_TreeConstructor.setThreadPool(pool(m_NumThreads));
     
+    m_FlatTree = null;
     m_Root = m_TreeConstructor.buildTree();
   }
+
+  /**
+   * Returns the flat copy of the tree, making it if the tree or the ranges 
+   * of the distance function changed since. Returns null if the 
+   * performance is measured, or if the distance function does not allow 
+   * packing the instances.
+   * 
+   * @return The flat copy of the tree, or null.
+   * @throws Exception If the copy can't be made.
+   */
+  protected synchronized FlatTree flatTree() throws Exception {
+    if(m_Stats!=null || m_Root==null || !EuclideanScan.isApplicable(this))
+      return null;
+    if(m_FlatTree==null || m_FlatTree.m_Scan.m_Distance!=m_DistanceFunction
+       || !m_FlatTree.m_Scan.isCurrent() || !m_FlatTree.m_Pivots.isCurrent())
+      m_FlatTree = new FlatTree(m_Root, m_InstList, 
+          (EuclideanDistance)m_DistanceFunction, m_Instances);
+    return m_FlatTree;
+  }
    
   /**
    * Returns k nearest instances in the current neighbourhood to the supplied
@@ -245,34 +369,151 @@ public class BallTree
     if(m_Stats!=null)
       m_Stats.searchStart();
     
-    nearestNeighbours(heap, m_Root, target, k);
+    FlatTree tree = flatTree();
+    if(tree!=null)
+      nearestNeighbours(tree, heap, target, k);
+    else
+      nearestNeighbours(heap, m_Root, target, k);
     
     if(m_Stats!=null)
       m_Stats.searchFinish();
 
-    Instances neighbours = new Instances(m_Instances, heap.totalSize());
-    m_Distances = new double[heap.totalSize()];
-    int [] indices = new int[heap.totalSize()];
-    int i=1; MyHeapElement h;
-    while(heap.noOfKthNearest()>0) {
-      h = heap.getKthNearest();
-      indices[indices.length-i] = h.index;
-      m_Distances[indices.length-i] = h.distance;
-      i++;
-    }
-    while(heap.size()>0) {
-      h = heap.get();
-      indices[indices.length-i] = h.index;
-      m_Distances[indices.length-i] = h.distance;
-      i++;
-    }
-    
-    m_DistanceFunction.postProcessDistances(m_Distances);
+    double[][] distances = new double[1][];
+    Instances neighbours = neighbours(heap, distances, 0);
+    m_Distances = distances[0];
     
-    for(i=0; i<indices.length; i++)
-      neighbours.add(m_Instances.instance(indices[i]));
+    return neighbours;
+  }
+
+  /**
+   * Returns the k nearest neighbours of each of the supplied instances. The 
+   * flat copy of the tree is searched, split by target instances across the 
+   * threads. Several threads can call this method at once, as long as the 
+   * tree is not changed meanwhile.
+   * 
+   * @param targets	The instances to find the nearest neighbours for.
+   * @param k		The number of nearest neighbours to find.
+   * @param distances	An array with one entry per target instance, 
+   * 			receiving the distances of its neighbours.
+   * @return The k nearest neighbours of each target instance.
+   * @throws Exception 	If the neighbours could not be found.
+   */
+  @Override
+  public Instances[] kNearestNeighbours(final Instances targets, final int k,
+      final double[][] distances) throws Exception {
+    final FlatTree tree = flatTree();
+    if(tree==null)
+      return super.kNearestNeighbours(targets, k, distances);
+
+    final Instances[] neighbours = new Instances[targets.numInstances()];
+    searchBatch(targets.numInstances(), m_NumThreads, new BatchSearch() {
+      @Override
+      public void search(int first, int last) throws Exception {
+        for(int i=first; i<last; i++) {
+          MyHeap heap = new MyHeap(k);
+          nearestNeighbours(tree, heap, targets.instance(i), k);
+          neighbours[i] = neighbours(heap, distances, i);
+        }
+      }
+    });
     
-    return neighbours;  // <---Check this statement
+    return neighbours;
+  }
+
+  /**
+   * Does NN search on the flat copy of the tree. Keeps no state in fields,
+   * so that several threads can search at once. 
+   * 
+   * @param tree The flat copy of the tree.
+   * @param heap MyHeap object to store the NNs found in.
+   * @param target The target instance for which the NNs are required.
+   * @param k The number of NNs to find.
+   * @throws Exception If there is some problem putting NNs in the heap.
+   */
+  protected void nearestNeighbours(FlatTree tree, MyHeap heap, 
+      Instance target, int k) throws Exception {
+    double[] query = new double[tree.m_Scan.numValues()];
+    boolean missing = tree.m_Scan.query(target, query);
+    nearestNeighbours(tree, heap, 0, target, query, missing, k, 
+        new double[tree.m_MaxLeafSize]);
+  }
+
+  /**
+   * Does NN search on the given node of the flat copy of the tree. Visits 
+   * the nodes in the same order and finds the same neighbours as 
+   * nearestNeighbours(MyHeap, BallNode, Instance, int). 
+   * 
+   * @param tree The flat copy of the tree.
+   * @param heap MyHeap object to store/update NNs found during the search.
+   * @param node The node to do the NN search on.
+   * @param target The target instance for which the NNs are required.
+   * @param query The packed target instance.
+   * @param missing Whether the target has missing values.
+   * @param k The number of NNs to find.
+   * @param distances The array to compute the distances to the instances
+   * of a leaf in.
+   * @throws Exception If there is some problem putting NNs in the heap.
+   */
+  protected void nearestNeighbours(FlatTree tree, MyHeap heap, int node, 
+      Instance target, double[] query, boolean missing, int k, 
+      double[] distances) throws Exception {
+    double distance = Double.NEGATIVE_INFINITY;
+
+    if (heap.totalSize() >= k)
+      distance = Math.sqrt(tree.m_Pivots.distance(query, missing, node));
+
+    // The radius is not squared so need to take sqrt before comparison
+    if (distance > -0.000001
+        && Math.sqrt(heap.peek().distance) < distance - tree.m_Radius[node]) {
+      return;
+    } else if (tree.m_Left[node] >= 0) { // if node is not a leaf
+      int left = tree.m_Left[node];
+      int right = tree.m_Right[node];
+      double leftPivotDist = Math.sqrt(tree.m_Pivots.distance(query, missing, 
+          left));
+      double rightPivotDist = Math.sqrt(tree.m_Pivots.distance(query, missing, 
+          right));
+      double leftBallDist = leftPivotDist - tree.m_Radius[left];
+      double rightBallDist = rightPivotDist - tree.m_Radius[right];
+      // if target is inside both balls then see which center is closer,
+      // else see which ball is closer
+      boolean leftFirst;
+      if (leftBallDist < 0 && rightBallDist < 0)
+        leftFirst = leftPivotDist < rightPivotDist;
+      else
+        leftFirst = leftBallDist < rightBallDist;
+      if (leftFirst) {
+        nearestNeighbours(tree, heap, left, target, query, missing, k, 
+            distances);
+        nearestNeighbours(tree, heap, right, target, query, missing, k, 
+            distances);
+      } else {
+        nearestNeighbours(tree, heap, right, target, query, missing, k, 
+            distances);
+        nearestNeighbours(tree, heap, left, target, query, missing, k, 
+            distances);
+      }
+    } else { // if node is a leaf
+      int start = tree.m_Start[node];
+      int end = tree.m_End[node];
+      tree.m_Scan.distances(query, missing, start, end + 1, distances, 0);
+      for (int i = start; i <= end; i++) {
+        int index = tree.m_InstList[i];
+        if (target == m_Instances.instance(index)) //for hold-one-out cross-validation
+          continue;
+        distance = distances[i - start];
+        if (heap.totalSize() < k) {
+          heap.put(index, distance);
+        } else {
+          MyHeapElement head = heap.peek();
+          if (distance < head.distance) {
+            heap.putBySubstitute(index, distance);
+          } else if (distance == head.distance) {
+            heap.putKthNearest(index, distance);
+          }
+        }
+      }
+    }
   }
 
   /** 
@@ -409,6 +650,7 @@ public class BallTree
   public void update(Instance ins) throws Exception {
     addInstanceInfo(ins);
     m_InstList = m_TreeConstructor.addInstance(m_Root, ins);    
+    m_FlatTree = null;
   }
   
   /** 
@@ -463,6 +705,38 @@ public class BallTree
     m_TreeConstructor = constructor;
   }
   
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to build the tree and to search batches "
+      + "of instances with, 0 for the number of cores.";
+  }
+  
+  /**
+   * Sets the number of threads to build the tree and to search batches of
+   * instances with. Only constructors that support it build subtrees
+   * concurrently.
+   * 
+   * @param value	the number of threads, 0 for the number of cores
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = value;
+  }
+  
+  /**
+   * Gets the number of threads to build the tree and to search batches of
+   * instances with.
+   * 
+   * @return 		the number of threads, 0 for the number of cores
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+  
   /**
    * Returns the size of the tree.
    * 
@@ -555,6 +829,12 @@ public class BallTree
 	"\tThe construction method to employ. Either TopDown or BottomUp\n"
 	+ "\t(default: weka.core.TopDownConstructor)",
 	"C", 1, "-C <classname and options>"));
+    
+    newVector.addElement(new Option(
+	"\tThe number of threads to build the tree and to search\n"
+	+ "\tbatches of instances with, 0 for the number of cores.\n"
+	+ "\t(default 1)",
+	"num-threads", 1, "-num-threads <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
     
@@ -571,6 +851,11 @@ public class BallTree
    *  The construction method to employ. Either TopDown or BottomUp
    *  (default: weka.core.TopDownConstructor)</pre>
    * 
+   * <pre> -num-threads &lt;num&gt;
+   *  The number of threads to build the tree and to search
+   *  batches of instances with, 0 for the number of cores.
+   *  (default 1)</pre>
+   * 
    <!-- options-end --> 
    * 
    * @param options 	the list of options as an array of strings
@@ -598,6 +883,12 @@ public class BallTree
       setBallTreeConstructor(new TopDownConstructor());  
     }
     
+    optionString = Utils.getOption("num-threads", options);
+    if(optionString.length() != 0)
+      setNumThreads(Integer.parseInt(optionString));
+    else
+      setNumThreads(1);
+    
     Utils.checkForRemainingOptions(options);
   }
 
@@ -616,6 +907,11 @@ public class BallTree
 	(m_TreeConstructor.getClass().getName() + " " +
 	 Utils.joinOptions(m_TreeConstructor.getOptions())).trim());
 
+    if(getNumThreads() != 1) {
+      result.add("-num-threads");
+      result.add("" + getNumThreads());
+    }
+
     return result.toArray(new String[result.size()]);
   }
   
@@ -0,0 +1,422 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    EuclideanScan.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core.neighboursearch;
+
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+
+/**
+ * Packs the training data of a brute force search into one contiguous array
+ * holding, row by row, the normalized values of the attributes used by an
+ * EuclideanDistance. Distances of a query to blocks of rows are then computed
+ * in tight loops over this array instead of through the distance function.
+ * The distances are identical to the (squared, not yet post-processed) ones
+ * of EuclideanDistance.distance(query, row, Double.POSITIVE_INFINITY), since
+ * the differences are computed in the same order from the same normalized
+ * values. The packed data follows the ranges of the distance function: when
+ * they change, the data is packed again. The rows can be packed in a given
+ * order, e.g., the order of the leaves of a tree.
+ *
+ * @version $Revision$
+ */
+public class EuclideanScan implements RevisionHandler {
+
+  /** The number of packed values a block of rows should hold at most. */
+  protected static final int BLOCK_VALUES = 1 << 15;
+
+  /** The distance function whose distances are computed. */
+  protected EuclideanDistance m_Distance;
+
+  /** The training data. */
+  protected Instances m_Data;
+
+  /** The indices of the instances to pack, null for all in their order. */
+  protected int[] m_Order;
+
+  /** The indices of the attributes used in the distance calculations. */
+  protected int[] m_Attributes;
+
+  /** Whether the packed attributes are nominal rather than numeric. */
+  protected boolean[] m_Nominal;
+
+  /** Whether all packed attributes are numeric. */
+  protected boolean m_AllNumeric;
+
+  /** Whether the values are packed without normalizing them. */
+  protected boolean m_DontNormalize;
+
+  /** The minimum, maximum and width of each packed attribute. */
+  protected double[] m_Min, m_Max, m_Width;
+
+  /** The packed values, row by row, missing values as NaN. */
+  protected double[] m_Values = new double[0];
+
+  /** Whether a packed row has missing values. */
+  protected boolean[] m_RowMissing = new boolean[0];
+
+  /** The number of packed rows. */
+  protected int m_NumRows;
+
+  /** The last packed instance, used to detect changes of the data. */
+  protected Instance m_LastRow;
+
+  /**
+   * Creates a scan for the given distance function and its training data.
+   *
+   * @param distance the distance function
+   * @param data the training data
+   */
+  public EuclideanScan(EuclideanDistance distance, Instances data) {
+    this(distance, data, null);
+  }
+
+  /**
+   * Creates a scan for the given distance function and instances of its
+   * training data. Row i of the scan is the instance with index order[i].
+   *
+   * @param distance the distance function
+   * @param data the training data
+   * @param order the indices of the instances to pack, null for all
+   */
+  public EuclideanScan(EuclideanDistance distance, Instances data,
+    int[] order) {
+    m_Distance = distance;
+    m_Data = data;
+    m_Order = order;
+  }
+
+  /**
+   * Returns whether the given search can be served by a scan, i.e., whether it
+   * uses a plain EuclideanDistance.
+   *
+   * @param search the search to check
+   * @return true if the distances can be computed by a scan
+   */
+  public static boolean isApplicable(NearestNeighbourSearch search) {
+    return search.getDistanceFunction().getClass() == EuclideanDistance.class;
+  }
+
+  /**
+   * Returns the training data.
+   *
+   * @return the training data
+   */
+  public Instances getData() {
+    return m_Data;
+  }
+
+  /**
+   * Returns the number of rows to pack.
+   *
+   * @return the number of rows
+   */
+  public int numRows() {
+    return (m_Order == null) ? m_Data.numInstances() : m_Order.length;
+  }
+
+  /**
+   * Returns the instance of a row.
+   *
+   * @param i the row
+   * @return the instance
+   */
+  public Instance row(int i) {
+    return m_Data.instance((m_Order == null) ? i : m_Order[i]);
+  }
+
+  /**
+   * Returns the number of packed values per row.
+   *
+   * @return the number of packed values per row
+   */
+  public int numValues() {
+    return m_Attributes.length;
+  }
+
+  /**
+   * Returns the number of rows in a block that fits into the cache.
+   *
+   * @return the number of rows per block
+   */
+  public int blockSize() {
+    return Math.max(16, BLOCK_VALUES / Math.max(1, m_Attributes.length));
+  }
+
+  /**
+   * Brings the packed data up to date with the training data and the ranges
+   * of the distance function. Rows appended to the training data are packed
+   * on their own as long as the ranges stay the same.
+   *
+   * @throws Exception if the ranges are not available
+   */
+  public void refresh() throws Exception {
+    double[][] ranges = m_Distance.getRanges();
+    if (!sameLayout(ranges)) {
+      layout(ranges);
+      m_NumRows = 0;
+    } else if ((m_NumRows > numRows())
+      || ((m_NumRows > 0) && (row(m_NumRows - 1) != m_LastRow))) {
+      m_NumRows = 0;
+    }
+    if (m_NumRows < numRows()) {
+      pack(m_NumRows, numRows());
+    }
+  }
+
+  /**
+   * Returns whether the packed data is up to date, i.e., whether refresh()
+   * would not change it.
+   *
+   * @return true if the packed data is up to date
+   * @throws Exception if the ranges are not available
+   */
+  public boolean isCurrent() throws Exception {
+    return sameLayout(m_Distance.getRanges()) && (m_NumRows == numRows())
+      && ((m_NumRows == 0) || (row(m_NumRows - 1) == m_LastRow));
+  }
+
+  /**
+   * Checks whether the packed attributes and their ranges are still the ones
+   * of the distance function.
+   *
+   * @param ranges the current ranges
+   * @return true if nothing changed
+   */
+  protected boolean sameLayout(double[][] ranges) {
+    if ((m_Attributes == null)
+      || (m_DontNormalize != m_Distance.getDontNormalize())) {
+      return false;
+    }
+    int j = 0;
+    for (int i = 0; i < m_Data.numAttributes(); i++) {
+      if (isUsed(i)) {
+        if ((j >= m_Attributes.length) || (m_Attributes[j] != i)) {
+          return false;
+        }
+        double[] range = ranges[i];
+        if (!m_Nominal[j]
+          && ((Double.compare(range[NormalizableDistance.R_MIN], m_Min[j]) != 0)
+            || (Double.compare(range[NormalizableDistance.R_MAX], m_Max[j])
+              != 0)
+            || (Double.compare(range[NormalizableDistance.R_WIDTH], m_Width[j])
+              != 0))) {
+          return false;
+        }
+        j++;
+      }
+    }
+    return j == m_Attributes.length;
+  }
+
+  /**
+   * Returns whether an attribute contributes to the distances.
+   *
+   * @param index the attribute index
+   * @return true if the attribute is nominal or numeric and used
+   */
+  protected boolean isUsed(int index) {
+    int type = m_Data.attribute(index).type();
+    return (index != m_Data.classIndex()) && m_Distance.isActive(index)
+      && ((type == Attribute.NOMINAL) || (type == Attribute.NUMERIC));
+  }
+
+  /**
+   * Determines the packed attributes and takes a copy of their ranges.
+   *
+   * @param ranges the current ranges
+   */
+  protected void layout(double[][] ranges) {
+    int num = 0;
+    for (int i = 0; i < m_Data.numAttributes(); i++) {
+      if (isUsed(i)) {
+        num++;
+      }
+    }
+    m_Attributes = new int[num];
+    m_Nominal = new boolean[num];
+    m_Min = new double[num];
+    m_Max = new double[num];
+    m_Width = new double[num];
+    m_AllNumeric = true;
+    m_DontNormalize = m_Distance.getDontNormalize();
+    int j = 0;
+    for (int i = 0; i < m_Data.numAttributes(); i++) {
+      if (isUsed(i)) {
+        m_Attributes[j] = i;
+        m_Nominal[j] = m_Data.attribute(i).isNominal();
+        m_AllNumeric &= !m_Nominal[j];
+        m_Min[j] = ranges[i][NormalizableDistance.R_MIN];
+        m_Max[j] = ranges[i][NormalizableDistance.R_MAX];
+        m_Width[j] = ranges[i][NormalizableDistance.R_WIDTH];
+        j++;
+      }
+    }
+  }
+
+  /**
+   * Packs the given rows of the training data.
+   *
+   * @param from the first row to pack
+   * @param to the row after the last one to pack
+   */
+  protected void pack(int from, int to) {
+    int num = m_Attributes.length;
+    if (m_RowMissing.length < to) {
+      int capacity =
+        Math.max(to, m_RowMissing.length + m_RowMissing.length / 2);
+      m_Values = Arrays.copyOf(m_Values, capacity * num);
+      m_RowMissing = Arrays.copyOf(m_RowMissing, capacity);
+    }
+    for (int i = from; i < to; i++) {
+      m_RowMissing[i] = values(row(i), m_Values, i * num);
+    }
+    m_NumRows = to;
+    m_LastRow = (to > 0) ? row(to - 1) : null;
+  }
+
+  /**
+   * Writes the packed values of an instance into the given array.
+   *
+   * @param inst the instance
+   * @param values the array to write to
+   * @param offset the position of the first value in the array
+   * @return true if the instance has missing values
+   */
+  protected boolean values(Instance inst, double[] values, int offset) {
+    boolean missing = false;
+    for (int j = 0; j < m_Attributes.length; j++) {
+      double value = inst.value(m_Attributes[j]);
+      if (Double.isNaN(value)) {
+        missing = true;
+      } else if (!m_Nominal[j] && !m_DontNormalize) {
+        value = (m_Width[j] == 0.0) ? 0 : (value - m_Min[j]) / m_Width[j];
+      }
+      values[offset + j] = value;
+    }
+    return missing;
+  }
+
+  /**
+   * Packs a query instance.
+   *
+   * @param query the query instance
+   * @param values the array to write the packed values to, with numValues()
+   *          entries
+   * @return true if the query has missing values
+   */
+  public boolean query(Instance query, double[] values) {
+    return values(query, values, 0);
+  }
+
+  /**
+   * Computes the squared distances of a packed query to the given rows.
+   *
+   * @param query the packed query
+   * @param queryMissing whether the query has missing values
+   * @param from the first row
+   * @param to the row after the last one
+   * @param distances the array to write the distances to
+   * @param offset the position of the distance of the first row in the array
+   */
+  public void distances(double[] query, boolean queryMissing, int from,
+    int to, double[] distances, int offset) {
+
+    for (int i = from; i < to; i++) {
+      distances[offset + i - from] = distance(query, queryMissing, i);
+    }
+  }
+
+  /**
+   * Computes the squared distance of a packed query to the given row.
+   *
+   * @param query the packed query
+   * @param queryMissing whether the query has missing values
+   * @param row the row
+   * @return the squared distance
+   */
+  public double distance(double[] query, boolean queryMissing, int row) {
+    int num = m_Attributes.length;
+    double[] values = m_Values;
+    int start = row * num;
+    double distance = 0;
+    if (m_AllNumeric && !queryMissing && !m_RowMissing[row]) {
+      for (int j = 0; j < num; j++) {
+        double diff = query[j] - values[start + j];
+        distance += diff * diff;
+      }
+    } else {
+      for (int j = 0; j < num; j++) {
+        double diff = difference(j, query[j], values[start + j]);
+        distance += diff * diff;
+      }
+    }
+    return distance;
+  }
+
+  /**
+   * Computes the difference between two packed values the same way as
+   * NormalizableDistance.difference() does for the unpacked ones.
+   *
+   * @param j the index of the packed attribute
+   * @param val1 the packed value of the query
+   * @param val2 the packed value of the row
+   * @return the difference
+   */
+  protected double difference(int j, double val1, double val2) {
+    boolean missing1 = Double.isNaN(val1);
+    boolean missing2 = Double.isNaN(val2);
+    if (m_Nominal[j]) {
+      return (missing1 || missing2 || ((int) val1 != (int) val2)) ? 1 : 0;
+    }
+    if (!missing1 && !missing2) {
+      return val1 - val2;
+    }
+    if (missing1 && missing2) {
+      return m_DontNormalize ? m_Width[j] : 1;
+    }
+    double diff = missing2 ? val1 : val2;
+    if (!m_DontNormalize) {
+      return (diff < 0.5) ? 1.0 - diff : diff;
+    }
+    if ((m_Max[j] - diff) > (diff - m_Min[j])) {
+      return m_Max[j] - diff;
+    } else {
+      return diff - m_Min[j];
+    }
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
@@ -0,0 +1,1121 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    HNSW.java
+ *    Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core.neighboursearch;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.Vector;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.RevisionUtils;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.TechnicalInformationHandler;
+import weka.core.Utils;
+
+/**
+ <!-- globalinfo-start -->
+ * Class implementing approximate nearest neighbour search with a hierarchical navigable small world (HNSW) graph. Each instance is a node of the graph, linked to a few of its nearest neighbours on each of the layers it belongs to. The layers become sparser towards the top, and a search descends greedily from the top layer to the bottom one, where a list of candidates is explored. The neighbours found are not guaranteed to be the nearest ones: larger candidate lists increase the recall at the cost of speed. The recall is measured against an exact search when performance statistics are calculated.<br/>
+ * <br/>
+ * For more information see:<br/>
+ * <br/>
+ * Yu. A. Malkov, D. A. Yashunin (2020). Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs. IEEE Transactions on Pattern Analysis and Machine Intelligence. 42(4):824-836.
+ * <p/>
+ <!-- globalinfo-end -->
+ *
+ <!-- technical-bibtex-start -->
+ * BibTeX:
+ * <pre>
+ * &#64;article{Malkov2020,
+ *    author = {Yu. A. Malkov and D. A. Yashunin},
+ *    journal = {IEEE Transactions on Pattern Analysis and Machine Intelligence},
+ *    number = {4},
+ *    pages = {824-836},
+ *    title = {Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs},
+ *    volume = {42},
+ *    year = {2020}
+ * }
+ * </pre>
+ * <p/>
+ <!-- technical-bibtex-end -->
+ *
+ <!-- options-start -->
+ * Valid options are: <p/>
+ *
+ * <pre> -M &lt;num&gt;
+ *  The maximum number of links of a node on each layer,
+ *  twice as many on the bottom layer.
+ *  (default 16)</pre>
+ *
+ * <pre> -C &lt;num&gt;
+ *  The number of candidates to explore when inserting a node.
+ *  (default 100)</pre>
+ *
+ * <pre> -E &lt;num&gt;
+ *  The number of candidates to explore when searching,
+ *  at least the number of neighbours to find.
+ *  (default 50)</pre>
+ *
+ * <pre> -S &lt;num&gt;
+ *  The seed for the random layers of the nodes.
+ *  (default 1)</pre>
+ *
+ * <pre> -A &lt;classname and options&gt;
+ *  Distance function to use.
+ *  (default: weka.core.EuclideanDistance)</pre>
+ *
+ * <pre> -P
+ *  Calculate performance statistics.</pre>
+ *
+ <!-- options-end -->
+ *
+ * @version $Revision$
+ */
+public class HNSW extends NearestNeighbourSearch implements
+  TechnicalInformationHandler {
+
+  /** for serialization. */
+  private static final long serialVersionUID = -4318237456921876203L;
+
+  /**
+   * A heap of nodes with their distances, with either the nearest or the
+   * furthest node on top.
+   */
+  protected static class Candidates {
+
+    /** The nodes. */
+    protected int[] m_Nodes;
+
+    /** The distances of the nodes. */
+    protected double[] m_Dists;
+
+    /** The number of nodes in the heap. */
+    protected int m_Size;
+
+    /** Whether the furthest node is on top. */
+    protected boolean m_Furthest;
+
+    /**
+     * Creates an empty heap.
+     *
+     * @param capacity the initial capacity
+     * @param furthest whether the furthest node is to be on top
+     */
+    protected Candidates(int capacity, boolean furthest) {
+      m_Nodes = new int[Math.max(1, capacity)];
+      m_Dists = new double[m_Nodes.length];
+      m_Furthest = furthest;
+    }
+
+    /**
+     * Returns whether the first distance belongs on top of the second.
+     *
+     * @param d1 the first distance
+     * @param d2 the second distance
+     * @return true if the first is above the second
+     */
+    protected boolean above(double d1, double d2) {
+      return m_Furthest ? (d1 > d2) : (d1 < d2);
+    }
+
+    /**
+     * Adds a node.
+     *
+     * @param node the node
+     * @param dist its distance
+     */
+    protected void push(int node, double dist) {
+      if (m_Size == m_Nodes.length) {
+        m_Nodes = Arrays.copyOf(m_Nodes, 2 * m_Size);
+        m_Dists = Arrays.copyOf(m_Dists, 2 * m_Size);
+      }
+      int i = m_Size++;
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (!above(dist, m_Dists[parent])) {
+          break;
+        }
+        m_Nodes[i] = m_Nodes[parent];
+        m_Dists[i] = m_Dists[parent];
+        i = parent;
+      }
+      m_Nodes[i] = node;
+      m_Dists[i] = dist;
+    }
+
+    /**
+     * Removes the node on top.
+     */
+    protected void pop() {
+      int node = m_Nodes[--m_Size];
+      double dist = m_Dists[m_Size];
+      int i = 0;
+      while (2 * i + 1 < m_Size) {
+        int child = 2 * i + 1;
+        if ((child + 1 < m_Size) && above(m_Dists[child + 1], m_Dists[child])) {
+          child++;
+        }
+        if (!above(m_Dists[child], dist)) {
+          break;
+        }
+        m_Nodes[i] = m_Nodes[child];
+        m_Dists[i] = m_Dists[child];
+        i = child;
+      }
+      m_Nodes[i] = node;
+      m_Dists[i] = dist;
+    }
+
+    /**
+     * Returns the node on top.
+     *
+     * @return the node
+     */
+    protected int topNode() {
+      return m_Nodes[0];
+    }
+
+    /**
+     * Returns the distance of the node on top.
+     *
+     * @return the distance
+     */
+    protected double topDist() {
+      return m_Dists[0];
+    }
+
+    /**
+     * Returns the number of nodes in the heap.
+     *
+     * @return the number of nodes
+     */
+    protected int size() {
+      return m_Size;
+    }
+  }
+
+  /** The maximum number of links of a node on a layer above the bottom one. */
+  protected int m_MaxConnections = 16;
+
+  /** The number of candidates to explore when inserting a node. */
+  protected int m_EfConstruction = 100;
+
+  /** The number of candidates to explore when searching. */
+  protected int m_EfSearch = 50;
+
+  /** The seed for the random layers of the nodes. */
+  protected int m_Seed = 1;
+
+  /** The random number generator for the layers of the nodes. */
+  protected Random m_Random;
+
+  /** The number of nodes in the graph. */
+  protected int m_NumNodes;
+
+  /** The top layer of each node. */
+  protected int[] m_Level = new int[0];
+
+  /**
+   * The links of each node on each of its layers. The first entry of a list
+   * is the number of links in it.
+   */
+  protected int[][][] m_Links = new int[0][][];
+
+  /** The node the searches start from, -1 if the graph is empty. */
+  protected int m_EntryPoint = -1;
+
+  /** The top layer of the graph. */
+  protected int m_MaxLevel = -1;
+
+  /** The distances of the neighbours found by the last search. */
+  protected double[] m_Distances;
+
+  /** The performance statistics, including the recall. */
+  protected ApproximatePerformanceStats m_ApproximateStats = null;
+
+  /** The marks of the nodes visited by a search. */
+  protected transient int[] m_Visited;
+
+  /** The mark of the current search. */
+  protected transient int m_VisitMark;
+
+  /**
+   * Constructor. Needs setInstances(Instances) to be called before the class
+   * is usable.
+   */
+  public HNSW() {
+    super();
+  }
+
+  /**
+   * Constructor that uses the supplied set of instances.
+   *
+   * @param insts the instances to be assigned
+   */
+  public HNSW(Instances insts) {
+    super(insts);
+  }
+
+  /**
+   * Returns a string describing this nearest neighbour search algorithm.
+   *
+   * @return a description of the algorithm for displaying in the
+   *         explorer/experimenter gui
+   */
+  @Override
+  public String globalInfo() {
+    return "Class implementing approximate nearest neighbour search with a "
+      + "hierarchical navigable small world (HNSW) graph. Each instance is a "
+      + "node of the graph, linked to a few of its nearest neighbours on each "
+      + "of the layers it belongs to. The layers become sparser towards the "
+      + "top, and a search descends greedily from the top layer to the "
+      + "bottom one, where a list of candidates is explored. The neighbours "
+      + "found are not guaranteed to be the nearest ones: larger candidate "
+      + "lists increase the recall at the cost of speed. The recall is "
+      + "measured against an exact search when performance statistics are "
+      + "calculated.\n\n"
+      + "For more information see:\n\n"
+      + getTechnicalInformation().toString();
+  }
+
+  /**
+   * Returns an instance of a TechnicalInformation object, containing detailed
+   * information about the technical background of this class, e.g., paper
+   * reference or book this class is based on.
+   *
+   * @return the technical information about this class
+   */
+  @Override
+  public TechnicalInformation getTechnicalInformation() {
+    TechnicalInformation result;
+
+    result = new TechnicalInformation(Type.ARTICLE);
+    result.setValue(Field.AUTHOR, "Yu. A. Malkov and D. A. Yashunin");
+    result.setValue(Field.YEAR, "2020");
+    result.setValue(Field.TITLE, "Efficient and robust approximate nearest "
+      + "neighbor search using Hierarchical Navigable Small World graphs");
+    result.setValue(Field.JOURNAL,
+      "IEEE Transactions on Pattern Analysis and Machine Intelligence");
+    result.setValue(Field.VOLUME, "42");
+    result.setValue(Field.NUMBER, "4");
+    result.setValue(Field.PAGES, "824-836");
+
+    return result;
+  }
+
+  /**
+   * Returns the maximum number of links of a node on a layer.
+   *
+   * @param level the layer
+   * @return the maximum number of links
+   */
+  protected int maxLinks(int level) {
+    return (level == 0) ? 2 * m_MaxConnections : m_MaxConnections;
+  }
+
+  /**
+   * Returns the distance between a target instance and a node, counting it in
+   * the performance statistics.
+   *
+   * @param target the target instance
+   * @param node the node
+   * @return the distance
+   */
+  protected double distance(Instance target, int node) {
+    if (m_Stats != null) {
+      m_Stats.incrPointCount();
+    }
+    return m_DistanceFunction.distance(target, m_Instances.instance(node),
+      Double.POSITIVE_INFINITY, m_Stats);
+  }
+
+  /**
+   * Returns the distance between two nodes.
+   *
+   * @param node1 the first node
+   * @param node2 the second node
+   * @return the distance
+   */
+  protected double distance(int node1, int node2) {
+    return m_DistanceFunction.distance(m_Instances.instance(node1),
+      m_Instances.instance(node2), Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Starts a new search, forgetting the nodes visited so far.
+   */
+  protected void startVisits() {
+    if ((m_Visited == null) || (m_Visited.length < m_NumNodes)) {
+      m_Visited = new int[Math.max(m_NumNodes, 16)];
+      m_VisitMark = 0;
+    }
+    m_VisitMark++;
+    if (m_VisitMark == Integer.MAX_VALUE) {
+      Arrays.fill(m_Visited, 0);
+      m_VisitMark = 1;
+    }
+  }
+
+  /**
+   * Marks a node as visited.
+   *
+   * @param node the node
+   * @return true if the node had not been visited yet
+   */
+  protected boolean visit(int node) {
+    if (m_Visited[node] == m_VisitMark) {
+      return false;
+    }
+    m_Visited[node] = m_VisitMark;
+    return true;
+  }
+
+  /**
+   * Descends greedily from a node on the given layer, moving to the nearest
+   * linked node as long as it is nearer to the target.
+   *
+   * @param target the target instance
+   * @param node the node to start from
+   * @param dist the distance of the start node
+   * @param level the layer
+   * @return the nearest node found and its distance
+   */
+  protected Candidates greedySearch(Instance target, int node, double dist,
+    int level) {
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      int[] links = m_Links[node][level];
+      for (int i = 1; i <= links[0]; i++) {
+        double d = distance(target, links[i]);
+        if (d < dist) {
+          node = links[i];
+          dist = d;
+          changed = true;
+        }
+      }
+    }
+    Candidates result = new Candidates(1, true);
+    result.push(node, dist);
+    return result;
+  }
+
+  /**
+   * Explores a layer of the graph from the given entry nodes, keeping the
+   * ef nearest nodes found.
+   *
+   * @param target the target instance
+   * @param entries the entry nodes
+   * @param ef the number of nodes to keep
+   * @param level the layer
+   * @return the nearest nodes found, the furthest on top
+   */
+  protected Candidates searchLayer(Instance target, Candidates entries,
+    int ef, int level) {
+
+    startVisits();
+    Candidates candidates = new Candidates(ef, false);
+    Candidates result = new Candidates(ef + 1, true);
+    for (int i = 0; i < entries.size(); i++) {
+      visit(entries.m_Nodes[i]);
+      candidates.push(entries.m_Nodes[i], entries.m_Dists[i]);
+      result.push(entries.m_Nodes[i], entries.m_Dists[i]);
+    }
+    while (result.size() > ef) {
+      result.pop();
+    }
+
+    while (candidates.size() > 0) {
+      int node = candidates.topNode();
+      double dist = candidates.topDist();
+      if ((result.size() >= ef) && (dist > result.topDist())) {
+        break;
+      }
+      candidates.pop();
+      int[] links = m_Links[node][level];
+      for (int i = 1; i <= links[0]; i++) {
+        int next = links[i];
+        if (!visit(next)) {
+          continue;
+        }
+        double d = distance(target, next);
+        if ((result.size() < ef) || (d < result.topDist())) {
+          candidates.push(next, d);
+          result.push(next, d);
+          if (result.size() > ef) {
+            result.pop();
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Selects the nodes to link a node to from the candidates, nearest first,
+   * skipping candidates that are nearer to an already selected node than to
+   * the node itself. This keeps links pointing in different directions.
+   *
+   * @param candidates the candidates with their distances to the node
+   * @param max the maximum number of nodes to select
+   * @return the selected nodes
+   */
+  protected int[] selectNeighbours(Candidates candidates, int max) {
+    int num = candidates.size();
+    int[] nodes = new int[num];
+    double[] dists = new double[num];
+    Candidates sorted = new Candidates(num, false);
+    for (int i = 0; i < num; i++) {
+      sorted.push(candidates.m_Nodes[i], candidates.m_Dists[i]);
+    }
+    for (int i = 0; i < num; i++) {
+      nodes[i] = sorted.topNode();
+      dists[i] = sorted.topDist();
+      sorted.pop();
+    }
+
+    int[] selected = new int[Math.min(num, max)];
+    int numSelected = 0;
+    for (int i = 0; (i < num) && (numSelected < selected.length); i++) {
+      boolean keep = true;
+      for (int j = 0; keep && (j < numSelected); j++) {
+        keep = distance(nodes[i], selected[j]) >= dists[i];
+      }
+      if (keep) {
+        selected[numSelected++] = nodes[i];
+      }
+    }
+    return Arrays.copyOf(selected, numSelected);
+  }
+
+  /**
+   * Adds a link from one node to another on a layer. If the node has too
+   * many links then, its links are selected anew.
+   *
+   * @param node the node to link from
+   * @param other the node to link to
+   * @param level the layer
+   */
+  protected void link(int node, int other, int level) {
+    int[] links = m_Links[node][level];
+    int max = maxLinks(level);
+    if (links[0] < max) {
+      links[++links[0]] = other;
+      return;
+    }
+
+    Candidates candidates = new Candidates(max + 1, true);
+    for (int i = 1; i <= links[0]; i++) {
+      candidates.push(links[i], distance(node, links[i]));
+    }
+    candidates.push(other, distance(node, other));
+    int[] selected = selectNeighbours(candidates, max);
+    links[0] = selected.length;
+    System.arraycopy(selected, 0, links, 1, selected.length);
+  }
+
+  /**
+   * Inserts the instance with the given index into the graph.
+   *
+   * @param node the index of the instance
+   */
+  protected void insert(int node) {
+    if (node >= m_Level.length) {
+      int capacity = Math.max(node + 1, m_Level.length + m_Level.length / 2);
+      m_Level = Arrays.copyOf(m_Level, capacity);
+      m_Links = Arrays.copyOf(m_Links, capacity);
+    }
+    int level = (int) Math.floor(-Math.log(1.0 - m_Random.nextDouble())
+      / Math.log(m_MaxConnections));
+    m_Level[node] = level;
+    m_Links[node] = new int[level + 1][];
+    for (int l = 0; l <= level; l++) {
+      m_Links[node][l] = new int[maxLinks(l) + 1];
+    }
+    m_NumNodes = node + 1;
+
+    if (m_EntryPoint < 0) {
+      m_EntryPoint = node;
+      m_MaxLevel = level;
+      return;
+    }
+
+    Instance inst = m_Instances.instance(node);
+    Candidates entries = new Candidates(1, true);
+    entries.push(m_EntryPoint, distance(inst, m_EntryPoint));
+    for (int l = m_MaxLevel; l > level; l--) {
+      entries = greedySearch(inst, entries.topNode(), entries.topDist(), l);
+    }
+    for (int l = Math.min(level, m_MaxLevel); l >= 0; l--) {
+      Candidates found = searchLayer(inst, entries, m_EfConstruction, l);
+      int[] neighbours = selectNeighbours(found, m_MaxConnections);
+      for (int neighbour : neighbours) {
+        link(node, neighbour, l);
+        link(neighbour, node, l);
+      }
+      entries = found;
+    }
+
+    if (level > m_MaxLevel) {
+      m_EntryPoint = node;
+      m_MaxLevel = level;
+    }
+  }
+
+  /**
+   * Builds the graph on the current instances.
+   *
+   * @throws Exception if the parameters are invalid
+   */
+  protected void buildGraph() throws Exception {
+    if (m_MaxConnections < 2) {
+      throw new Exception("The maximum number of links must be at least 2.");
+    }
+    m_Random = new Random(m_Seed);
+    m_NumNodes = 0;
+    m_Level = new int[m_Instances.numInstances()];
+    m_Links = new int[m_Instances.numInstances()][][];
+    m_EntryPoint = m_MaxLevel = -1;
+    m_Visited = null;
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      insert(i);
+    }
+  }
+
+  /**
+   * Returns the nearest instance in the current neighbourhood to the supplied
+   * instance.
+   *
+   * @param target The instance to find the nearest neighbour for.
+   * @return the nearest instance found
+   * @throws Exception if the nearest neighbour could not be found.
+   */
+  @Override
+  public Instance nearestNeighbour(Instance target) throws Exception {
+    return (kNearestNeighbours(target, 1)).instance(0);
+  }
+
+  /**
+   * Returns k nearest instances in the current neighbourhood to the supplied
+   * instance, as found by exploring the graph. More than k instances are
+   * returned if several found instances are at the distance of the kth one.
+   *
+   * @param target The instance to find the k nearest neighbours for.
+   * @param kNN The number of nearest neighbours to find.
+   * @return the k nearest instances found
+   * @throws Exception if the neighbours could not be found.
+   */
+  @Override
+  public Instances kNearestNeighbours(Instance target, int kNN)
+    throws Exception {
+
+    if (m_Stats != null) {
+      m_Stats.searchStart();
+    }
+
+    MyHeap heap = new MyHeap(kNN);
+    if (m_EntryPoint >= 0) {
+      Candidates entries = new Candidates(1, true);
+      entries.push(m_EntryPoint, distance(target, m_EntryPoint));
+      for (int l = m_MaxLevel; l > 0; l--) {
+        entries = greedySearch(target, entries.topNode(), entries.topDist(), l);
+      }
+      // one more candidate, in case the target itself is found
+      Candidates found = searchLayer(target, entries,
+        Math.max(m_EfSearch, kNN + 1), 0);
+
+      int[] nodes = new int[found.size()];
+      double[] dists = new double[found.size()];
+      for (int i = nodes.length - 1; i >= 0; i--) {
+        nodes[i] = found.topNode();
+        dists[i] = found.topDist();
+        found.pop();
+      }
+      for (int i = 0; i < nodes.length; i++) {
+        if (target == m_Instances.instance(nodes[i])) {
+          continue;
+        }
+        if (heap.totalSize() < kNN) {
+          heap.put(nodes[i], dists[i]);
+        } else if (dists[i] == heap.peek().distance) {
+          heap.putKthNearest(nodes[i], dists[i]);
+        }
+      }
+    }
+
+    if (m_Stats != null) {
+      m_Stats.searchFinish();
+    }
+
+    double[][] distances = new double[1][];
+    Instances neighbours = neighbours(heap, distances, 0);
+    m_Distances = distances[0];
+
+    if (m_ApproximateStats != null) {
+      m_ApproximateStats.updateRecall(recall(target, kNN, m_Distances));
+    }
+
+    return neighbours;
+  }
+
+  /**
+   * Determines the recall of a search with an exact search, i.e., the
+   * fraction of the k nearest neighbours that were found.
+   *
+   * @param target the target instance
+   * @param kNN the number of neighbours searched for
+   * @param found the post-processed distances of the neighbours found
+   * @return the recall
+   */
+  protected double recall(Instance target, int kNN, double[] found) {
+    double[] exact = new double[m_Instances.numInstances()];
+    int num = 0;
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      if (target != m_Instances.instance(i)) {
+        exact[num++] = m_DistanceFunction.distance(target,
+          m_Instances.instance(i), Double.POSITIVE_INFINITY);
+      }
+    }
+    int k = Math.min(kNN, num);
+    if (k == 0) {
+      return 1.0;
+    }
+    exact = Arrays.copyOf(exact, num);
+    Arrays.sort(exact);
+    double[] kth = new double[] { exact[k - 1] };
+    m_DistanceFunction.postProcessDistances(kth);
+
+    int hits = 0;
+    for (int i = 0; i < Math.min(k, found.length); i++) {
+      if (found[i] <= kth[0]) {
+        hits++;
+      }
+    }
+    return hits / (double) k;
+  }
+
+  /**
+   * Returns the distances of the k nearest neighbours found by the last
+   * search.
+   *
+   * @return the distances of the neighbours
+   * @throws Exception if called before calling kNearestNeighbours or
+   *           nearestNeighbours.
+   */
+  @Override
+  public double[] getDistances() throws Exception {
+    if ((m_Instances == null) || (m_Distances == null)) {
+      throw new Exception("No distances available. Please call either "
+        + "kNearestNeighbours or nearestNeighbours first.");
+    }
+    return m_Distances;
+  }
+
+  /**
+   * Sets the instances and builds the graph on them.
+   *
+   * @param insts the instances to build the graph on
+   * @throws Exception if the graph can't be built
+   */
+  @Override
+  public void setInstances(Instances insts) throws Exception {
+    super.setInstances(insts);
+    m_DistanceFunction.setInstances(insts);
+    buildGraph();
+  }
+
+  /**
+   * Inserts an instance into the graph. The instance must have been added to
+   * the instances already.
+   *
+   * @param ins the instance to add
+   * @throws Exception if the instance can't be added
+   */
+  @Override
+  public void update(Instance ins) throws Exception {
+    if (m_Instances == null) {
+      throw new Exception("No instances supplied yet. Cannot update without "
+        + "supplying a set of instances first.");
+    }
+    m_DistanceFunction.update(ins);
+    insert(m_Instances.numInstances() - 1);
+  }
+
+  /**
+   * Adds the given instance's info. This implementation updates the range
+   * datastructures of the DistanceFunction.
+   *
+   * @param ins the instance to add the information of
+   */
+  @Override
+  public void addInstanceInfo(Instance ins) {
+    if (m_Instances != null) {
+      m_DistanceFunction.update(ins);
+    }
+  }
+
+  /**
+   * Sets whether to calculate the performance statistics, including the
+   * recall, or not.
+   *
+   * @param measurePerformance true if performance statistics are to be
+   *          calculated
+   */
+  @Override
+  public void setMeasurePerformance(boolean measurePerformance) {
+    m_MeasurePerformance = measurePerformance;
+    if (m_MeasurePerformance) {
+      if (m_ApproximateStats == null) {
+        m_Stats = m_ApproximateStats = new ApproximatePerformanceStats();
+      }
+    } else {
+      m_Stats = m_ApproximateStats = null;
+    }
+  }
+
+  /**
+   * Returns the top layer of the graph.
+   *
+   * @return the top layer
+   */
+  public double measureMaxLevel() {
+    return m_MaxLevel;
+  }
+
+  /**
+   * Returns the mean number of links of a node on the bottom layer.
+   *
+   * @return the mean number of links
+   */
+  public double measureMeanLinks() {
+    if (m_NumNodes == 0) {
+      return 0;
+    }
+    double sum = 0;
+    for (int i = 0; i < m_NumNodes; i++) {
+      sum += m_Links[i][0][0];
+    }
+    return sum / m_NumNodes;
+  }
+
+  /**
+   * Returns an enumeration of the additional measure names.
+   *
+   * @return an enumeration of the measure names
+   */
+  @Override
+  public Enumeration<String> enumerateMeasures() {
+    Vector<String> newVector = new Vector<String>();
+    newVector.addElement("measureMaxLevel");
+    newVector.addElement("measureMeanLinks");
+    if (m_Stats != null) {
+      newVector.addAll(Collections.list(m_Stats.enumerateMeasures()));
+    }
+    return newVector.elements();
+  }
+
+  /**
+   * Returns the value of the named measure.
+   *
+   * @param additionalMeasureName the name of the measure to query for its
+   *          value
+   * @return the value of the named measure
+   * @throws IllegalArgumentException if the named measure is not supported
+   */
+  @Override
+  public double getMeasure(String additionalMeasureName) {
+    if (additionalMeasureName.compareToIgnoreCase("measureMaxLevel") == 0) {
+      return measureMaxLevel();
+    } else if (additionalMeasureName.compareToIgnoreCase("measureMeanLinks") == 0) {
+      return measureMeanLinks();
+    } else if (m_Stats != null) {
+      return m_Stats.getMeasure(additionalMeasureName);
+    } else {
+      throw new IllegalArgumentException(additionalMeasureName
+        + " not supported (HNSW)");
+    }
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String maxConnectionsTipText() {
+    return "The maximum number of links of a node on each layer, twice as "
+      + "many on the bottom layer. More links increase the recall, but "
+      + "also the memory and time needed.";
+  }
+
+  /**
+   * Sets the maximum number of links of a node on each layer.
+   *
+   * @param value the maximum number of links, at least 2
+   */
+  public void setMaxConnections(int value) {
+    m_MaxConnections = value;
+  }
+
+  /**
+   * Gets the maximum number of links of a node on each layer.
+   *
+   * @return the maximum number of links
+   */
+  public int getMaxConnections() {
+    return m_MaxConnections;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String efConstructionTipText() {
+    return "The number of candidates to explore when inserting a node. More "
+      + "candidates give a better graph, but take longer to build.";
+  }
+
+  /**
+   * Sets the number of candidates to explore when inserting a node.
+   *
+   * @param value the number of candidates
+   */
+  public void setEfConstruction(int value) {
+    m_EfConstruction = value;
+  }
+
+  /**
+   * Gets the number of candidates to explore when inserting a node.
+   *
+   * @return the number of candidates
+   */
+  public int getEfConstruction() {
+    return m_EfConstruction;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String efSearchTipText() {
+    return "The number of candidates to explore when searching, at least the "
+      + "number of neighbours to find. More candidates increase the recall, "
+      + "but slow down the search.";
+  }
+
+  /**
+   * Sets the number of candidates to explore when searching.
+   *
+   * @param value the number of candidates
+   */
+  public void setEfSearch(int value) {
+    m_EfSearch = value;
+  }
+
+  /**
+   * Gets the number of candidates to explore when searching.
+   *
+   * @return the number of candidates
+   */
+  public int getEfSearch() {
+    return m_EfSearch;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String seedTipText() {
+    return "The seed for the random layers of the nodes.";
+  }
+
+  /**
+   * Sets the seed for the random layers of the nodes.
+   *
+   * @param value the seed
+   */
+  public void setSeed(int value) {
+    m_Seed = value;
+  }
+
+  /**
+   * Gets the seed for the random layers of the nodes.
+   *
+   * @return the seed
+   */
+  public int getSeed() {
+    return m_Seed;
+  }
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   */
+  @Override
+  public Enumeration<Option> listOptions() {
+    Vector<Option> result = new Vector<Option>();
+
+    result.addElement(new Option(
+      "\tThe maximum number of links of a node on each layer,\n"
+        + "\ttwice as many on the bottom layer.\n" + "\t(default 16)", "M", 1,
+      "-M <num>"));
+
+    result.addElement(new Option(
+      "\tThe number of candidates to explore when inserting a node.\n"
+        + "\t(default 100)", "C", 1, "-C <num>"));
+
+    result.addElement(new Option(
+      "\tThe number of candidates to explore when searching,\n"
+        + "\tat least the number of neighbours to find.\n" + "\t(default 50)",
+      "E", 1, "-E <num>"));
+
+    result.addElement(new Option(
+      "\tThe seed for the random layers of the nodes.\n" + "\t(default 1)",
+      "S", 1, "-S <num>"));
+
+    result.addAll(Collections.list(super.listOptions()));
+
+    return result.elements();
+  }
+
+  /**
+   * Parses a given list of options.
+   *
+   <!-- options-start -->
+   * Valid options are: <p/>
+   *
+   * <pre> -M &lt;num&gt;
+   *  The maximum number of links of a node on each layer,
+   *  twice as many on the bottom layer.
+   *  (default 16)</pre>
+   *
+   * <pre> -C &lt;num&gt;
+   *  The number of candidates to explore when inserting a node.
+   *  (default 100)</pre>
+   *
+   * <pre> -E &lt;num&gt;
+   *  The number of candidates to explore when searching,
+   *  at least the number of neighbours to find.
+   *  (default 50)</pre>
+   *
+   * <pre> -S &lt;num&gt;
+   *  The seed for the random layers of the nodes.
+   *  (default 1)</pre>
+   *
+   * <pre> -A &lt;classname and options&gt;
+   *  Distance function to use.
+   *  (default: weka.core.EuclideanDistance)</pre>
+   *
+   * <pre> -P
+   *  Calculate performance statistics.</pre>
+   *
+   <!-- options-end -->
+   *
+   * @param options the list of options as an array of strings
+   * @throws Exception if an option is not supported
+   */
+  @Override
+  public void setOptions(String[] options) throws Exception {
+    String tmpStr;
+
+    super.setOptions(options);
+
+    tmpStr = Utils.getOption('M', options);
+    if (tmpStr.length() != 0) {
+      setMaxConnections(Integer.parseInt(tmpStr));
+    } else {
+      setMaxConnections(16);
+    }
+
+    tmpStr = Utils.getOption('C', options);
+    if (tmpStr.length() != 0) {
+      setEfConstruction(Integer.parseInt(tmpStr));
+    } else {
+      setEfConstruction(100);
+    }
+
+    tmpStr = Utils.getOption('E', options);
+    if (tmpStr.length() != 0) {
+      setEfSearch(Integer.parseInt(tmpStr));
+    } else {
+      setEfSearch(50);
+    }
+
+    tmpStr = Utils.getOption('S', options);
+    if (tmpStr.length() != 0) {
+      setSeed(Integer.parseInt(tmpStr));
+    } else {
+      setSeed(1);
+    }
+
+    Utils.checkForRemainingOptions(options);
+  }
+
+  /**
+   * Gets the current settings.
+   *
+   * @return an array of strings suitable for passing to setOptions()
+   */
+  @Override
+  public String[] getOptions() {
+    Vector<String> result = new Vector<String>();
+
+    result.add("-M");
+    result.add("" + getMaxConnections());
+
+    result.add("-C");
+    result.add("" + getEfConstruction());
+
+    result.add("-E");
+    result.add("" + getEfSearch());
+
+    result.add("-S");
+    result.add("" + getSeed());
+
+    Collections.addAll(result, super.getOptions());
+
+    return result.toArray(new String[result.size()]);
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
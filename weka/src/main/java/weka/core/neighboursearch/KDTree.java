@@ -24,6 +24,9 @@ package weka.core.neighboursearch;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import weka.core.DistanceFunction;
 import weka.core.EuclideanDistance;
@@ -31,6 +34,7 @@ import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
@@ -101,6 +105,11 @@ import weka.core.neighboursearch.kdtrees.SlidingMidPointOfWidestSide;
  *  Normalizing will be done
  *  (Select dimension for split, with normalising to universe).</pre>
  * 
+ * <pre> -num-threads &lt;num&gt;
+ *  The number of threads to build the tree and to search
+ *  batches of instances with, 0 for the number of cores.
+ *  (default 1)</pre>
+ * 
  <!-- options-end --> 
  * 
  * @author Gabi Schmidberger (gabi[at-the-rate]cs[dot]waikato[dot]ac[dot]nz)
@@ -140,6 +149,103 @@ public class KDTree
   /** Tree Stats variables. */
   protected TreePerformanceStats m_TreeStats = null;
 
+  /** The number of threads to build and search with, 0 for the number of cores. */
+  protected int m_NumThreads = 1;
+
+  /** The minimum number of instances in a node for splitting its subtrees
+   * concurrently. */
+  protected static final int MIN_PARALLEL_INSTANCES = 1000;
+
+  /** The flat copy of the tree that is searched, null if not made yet. */
+  protected transient FlatTree m_FlatTree = null;
+
+  /**
+   * A copy of the tree in flat arrays indexed by node, with the instances
+   * packed in the order of the leaves. It does not change once made, so that
+   * it can be searched by several threads at once.
+   */
+  protected static class FlatTree {
+
+    /** The instances, packed in the order of the instance list. */
+    protected EuclideanScan m_Scan;
+
+    /** The instance list the instances are packed in the order of. */
+    protected int[] m_InstList;
+
+    /** The first and last position in the instance list of each node. */
+    protected int[] m_Start, m_End;
+
+    /** The children of each node, -1 for a leaf. */
+    protected int[] m_Left, m_Right;
+
+    /** The split attribute of each internal node. */
+    protected int[] m_SplitDim;
+
+    /** The split value of each internal node. */
+    protected double[] m_SplitValue;
+
+    /** The largest number of instances in a leaf. */
+    protected int m_MaxLeafSize;
+
+    /**
+     * Copies the given tree.
+     * 
+     * @param root 	the root of the tree
+     * @param instList 	the instance list of the tree
+     * @param scan 	the instances packed in the order of the list
+     * @throws Exception 	if the instances can't be packed
+     */
+    protected FlatTree(KDTreeNode root, int[] instList, EuclideanScan scan)
+      throws Exception {
+      
+      int numNodes = count(root);
+      m_Start = new int[numNodes];
+      m_End = new int[numNodes];
+      m_Left = new int[numNodes];
+      m_Right = new int[numNodes];
+      m_SplitDim = new int[numNodes];
+      m_SplitValue = new double[numNodes];
+      copy(root, 0);
+      m_InstList = instList;
+      m_Scan = scan;
+      m_Scan.refresh();
+    }
+
+    /**
+     * Counts the nodes of a subtree.
+     * 
+     * @param node 	the root of the subtree
+     * @return 		the number of nodes
+     */
+    protected static int count(KDTreeNode node) {
+      if (node.isALeaf())
+        return 1;
+      return 1 + count(node.m_Left) + count(node.m_Right);
+    }
+
+    /**
+     * Copies a subtree, numbering its nodes depth first.
+     * 
+     * @param node 	the root of the subtree
+     * @param index 	the number of the root
+     * @return 		the number after the last node of the subtree
+     */
+    protected int copy(KDTreeNode node, int index) {
+      m_Start[index] = node.m_Start;
+      m_End[index] = node.m_End;
+      if (node.isALeaf()) {
+        m_Left[index] = m_Right[index] = -1;
+        m_MaxLeafSize = Math.max(m_MaxLeafSize, node.numInstances());
+        return index + 1;
+      }
+      m_SplitDim[index] = node.m_SplitDim;
+      m_SplitValue[index] = node.m_SplitValue;
+      m_Left[index] = index + 1;
+      m_Right[index] = copy(node.m_Left, index + 1);
+      return copy(node.m_Right, m_Right[index]);
+    }
+  }
+
   // Constants
   /** The index of MIN value in attributes' range array. */
   public static final int MIN = EuclideanDistance.R_MIN;
@@ -246,8 +352,23 @@ public class KDTree
     m_MaxDepth = 0;
     m_Root = new KDTreeNode(m_NumNodes, 0, m_Instances.numInstances() - 1,
         universe);
+    m_FlatTree = null;
 
-    splitNodes(m_Root, universe, m_MaxDepth + 1);
+    ForkJoinPool pool = pool(m_NumThreads);
+    if ((pool == null) || (numInst < MIN_PARALLEL_INSTANCES)) {
+      splitNodes(m_Root, universe, m_MaxDepth + 1);
+    }
+    else {
+      final double[][] ranges = universe;
+      TaskUtils.join(pool.submit(ForkJoinTask.adapt(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          splitNodesConcurrently(m_Root, ranges);
+          return null;
+        }
+      })));
+      numberNodes(m_Root, m_MaxDepth + 1);
+    }
   }
 
   /** 
@@ -286,6 +407,173 @@ public class KDTree
     splitNodes(node.m_Right, universe, depth + 1);
   }
 
+  /**
+   * Splits the nodes of a subtree like splitNodes(KDTreeNode, double[][], int),
+   * but splits the subtrees of large nodes concurrently. Node numbers and tree
+   * stats are not maintained; numberNodes(KDTreeNode, int) takes care of them
+   * afterwards. Must be called from a task of a ForkJoinPool.
+   * 
+   * @param node The node to start splitting from.
+   * @param universe The attribute ranges of the whole dataset.
+   * @throws Exception If there is some problem 
+   * splitting.
+   */
+  protected void splitNodesConcurrently(final KDTreeNode node,
+      final double[][] universe) throws Exception {
+    double[][] nodeRanges = m_EuclideanDistance.initializeRanges(m_InstList,
+                                                 node.m_Start, node.m_End);
+    if (node.numInstances() <= m_MaxInstInLeaf
+        || getMaxRelativeNodeWidth(nodeRanges, universe) <= m_MinBoxRelWidth)
+      return;
+
+    m_Splitter.splitNode(node, 0, nodeRanges, universe);
+
+    if (node.numInstances() < MIN_PARALLEL_INSTANCES) {
+      splitNodesConcurrently(node.m_Left, universe);
+      splitNodesConcurrently(node.m_Right, universe);
+      return;
+    }
+    ForkJoinTask<Void> left = ForkJoinTask.adapt(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        splitNodesConcurrently(node.m_Left, universe);
+        return null;
+      }
+    }).fork();
+    splitNodesConcurrently(node.m_Right, universe);
+    TaskUtils.join(left);
+  }
+
+  /**
+   * Numbers the nodes of a subtree and updates the tree stats in the same 
+   * way as splitNodes(KDTreeNode, double[][], int) does while splitting.
+   * 
+   * @param node The root of the subtree.
+   * @param depth The depth of the supplied node.
+   */
+  protected void numberNodes(KDTreeNode node, int depth) {
+    if (node.isALeaf())
+      return;
+
+    m_NumLeaves++;
+    if (depth > m_MaxDepth)
+      m_MaxDepth = depth;
+    node.m_Left.m_NodeNumber = m_NumNodes + 1;
+    node.m_Right.m_NodeNumber = m_NumNodes + 2;
+    m_NumNodes += 2;
+
+    numberNodes(node.m_Left, depth + 1);
+    numberNodes(node.m_Right, depth + 1);
+  }
+
+  /**
+   * Returns the flat copy of the tree, making it if the tree or the ranges 
+   * of the distance function changed since. Returns null if the 
+   * performance is measured, or if the distance function does not allow 
+   * packing the instances.
+   * 
+   * @return The flat copy of the tree, or null.
+   * @throws Exception If the copy can't be made.
+   */
+  protected synchronized FlatTree flatTree() throws Exception {
+    if (m_Stats != null || m_Root == null || !EuclideanScan.isApplicable(this))
+      return null;
+    if (m_FlatTree == null || m_FlatTree.m_Scan.m_Distance != m_EuclideanDistance
+        || !m_FlatTree.m_Scan.isCurrent())
+      m_FlatTree = new FlatTree(m_Root, m_InstList, new EuclideanScan(
+          m_EuclideanDistance, m_Instances, m_InstList));
+    return m_FlatTree;
+  }
+
+  /**
+   * Returns (in the supplied heap object) the k nearest neighbours of the 
+   * given instance, searching the flat copy of the tree. Keeps no state
+   * in fields, so that several threads can search at once.
+   * 
+   * @param tree The flat copy of the tree.
+   * @param target The instance to find the nearest neighbours for.
+   * @param k The number of neighbours to find.
+   * @param heap The MyHeap object to store the kNNs found in.
+   * @throws Exception If the nearest neighbours could not be found.
+   */
+  protected void findNearestNeighbours(FlatTree tree, Instance target, int k,
+      MyHeap heap) throws Exception {
+    double[] query = new double[tree.m_Scan.numValues()];
+    boolean missing = tree.m_Scan.query(target, query);
+    findNearestNeighbours(tree, target, query, missing, 0, k, heap, 0.0,
+        new double[tree.m_MaxLeafSize]);
+  }
+
+  /**
+   * Returns (in the supplied heap object) the k nearest neighbours of the 
+   * given instance starting from the given node of the flat copy of the 
+   * tree. Visits the nodes in the same order and finds the same neighbours
+   * as findNearestNeighbours(Instance, KDTreeNode, int, MyHeap, double).
+   * 
+   * @param tree The flat copy of the tree.
+   * @param target The instance to find the nearest neighbours for.
+   * @param query The packed target instance.
+   * @param missing Whether the target has missing values.
+   * @param node The node to start the search from.
+   * @param k The number of neighbours to find.
+   * @param heap The MyHeap object to store/update the kNNs found
+   * during the search.
+   * @param distanceToParents The distance of the supplied target 
+   * to the parents of the supplied tree node. 
+   * @param distances The array to compute the distances to the instances
+   * of a leaf in.
+   * @throws Exception If the nearest neighbours could not be found.
+   */
+  protected void findNearestNeighbours(FlatTree tree, Instance target,
+      double[] query, boolean missing, int node, int k, MyHeap heap,
+      double distanceToParents, double[] distances) throws Exception {
+    if (tree.m_Left[node] < 0) {
+      int start = tree.m_Start[node];
+      int end = tree.m_End[node];
+      tree.m_Scan.distances(query, missing, start, end + 1, distances, 0);
+      for (int idx = start; idx <= end; idx++) {
+        int index = tree.m_InstList[idx];
+        if (target == m_Instances.instance(index)) // for hold-one-out
+                                                   // cross-validation
+          continue;
+        double distance = distances[idx - start];
+        if (heap.size() < k) {
+          heap.put(index, distance);
+        } else {
+          MyHeapElement temp = heap.peek();
+          if (distance < temp.distance) {
+            heap.putBySubstitute(index, distance);
+          } else if (distance == temp.distance) {
+            heap.putKthNearest(index, distance);
+          }
+        }
+      }
+      return;
+    }
+
+    int splitDim = tree.m_SplitDim[node];
+    double splitValue = tree.m_SplitValue[node];
+    int nearer, further;
+    if (m_EuclideanDistance.valueIsSmallerEqual(target, splitDim, splitValue)) {
+      nearer = tree.m_Left[node];
+      further = tree.m_Right[node];
+    } else {
+      nearer = tree.m_Right[node];
+      further = tree.m_Left[node];
+    }
+    findNearestNeighbours(tree, target, query, missing, nearer, k, heap,
+        distanceToParents, distances);
+
+    // ... now look in further half if maxDist reaches into it
+    double distanceToSplitPlane = distanceToParents
+        + m_EuclideanDistance.sqDifference(splitDim, target.value(splitDim),
+            splitValue);
+    if (heap.size() < k || heap.peek().distance >= distanceToSplitPlane) {
+      findNearestNeighbours(tree, target, query, missing, further, k, heap,
+          distanceToSplitPlane, distances);
+    }
+  }
+
   /**
    * Returns (in the supplied heap object) the k nearest 
    * neighbours of the given instance starting from the give 
@@ -387,34 +675,54 @@ public class KDTree
       m_Stats.searchStart();
 
     MyHeap heap = new MyHeap(k);
-    findNearestNeighbours(target, m_Root, k, heap, 0.0);
+    FlatTree tree = flatTree();
+    if (tree != null)
+      findNearestNeighbours(tree, target, k, heap);
+    else
+      findNearestNeighbours(target, m_Root, k, heap, 0.0);
 
     if (m_Stats != null)
       m_Stats.searchFinish();
 
-    Instances neighbours = new Instances(m_Instances, (heap.size() + heap
-        .noOfKthNearest()));
-    m_DistanceList = new double[heap.size() + heap.noOfKthNearest()];
-    int[] indices = new int[heap.size() + heap.noOfKthNearest()];
-    int i = indices.length - 1;
-    MyHeapElement h;
-    while (heap.noOfKthNearest() > 0) {
-      h = heap.getKthNearest();
-      indices[i] = h.index;
-      m_DistanceList[i] = h.distance;
-      i--;
-    }
-    while (heap.size() > 0) {
-      h = heap.get();
-      indices[i] = h.index;
-      m_DistanceList[i] = h.distance;
-      i--;
-    }
-    m_DistanceFunction.postProcessDistances(m_DistanceList);
+    double[][] distances = new double[1][];
+    Instances neighbours = neighbours(heap, distances, 0);
+    m_DistanceList = distances[0];
 
-    for (int idx = 0; idx < indices.length; idx++) {
-      neighbours.add(m_Instances.instance(indices[idx]));
-    }
+    return neighbours;
+  }
+
+  /**
+   * Returns the k nearest neighbours of each of the supplied instances. The 
+   * flat copy of the tree is searched, split by target instances across the 
+   * threads. Several threads can call this method at once, as long as the 
+   * tree is not changed meanwhile.
+   * 
+   * @param targets	The instances to find the nearest neighbours for.
+   * @param k 		The number of neighbours to find.
+   * @param distances	An array with one entry per target instance, 
+   * 			receiving the distances of its neighbours.
+   * @return The k nearest neighbours of each target instance.
+   * @throws Exception 	if the nearest neighbours could not be found.
+   */
+  @Override
+  public Instances[] kNearestNeighbours(final Instances targets, final int k,
+      final double[][] distances) throws Exception {
+    final FlatTree tree = flatTree();
+    if (tree == null)
+      return super.kNearestNeighbours(targets, k, distances);
+    checkMissing(targets);
+
+    final Instances[] neighbours = new Instances[targets.numInstances()];
+    searchBatch(targets.numInstances(), m_NumThreads, new BatchSearch() {
+      @Override
+      public void search(int first, int last) throws Exception {
+        for (int i = first; i < last; i++) {
+          MyHeap heap = new MyHeap(k);
+          findNearestNeighbours(tree, targets.instance(i), k, heap);
+          neighbours[i] = neighbours(heap, distances, i);
+        }
+      }
+    });
 
     return neighbours;
   }
@@ -482,6 +790,7 @@ public class KDTree
 
     addInstanceInfo(instance);
     addInstanceToTree(instance, m_Root);
+    m_FlatTree = null;
   }
 
   /**
@@ -1119,6 +1428,37 @@ public class KDTree
     return m_NormalizeNodeWidth;
   }
 
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to build the tree and to search batches "
+        + "of instances with, 0 for the number of cores.";
+  }
+
+  /**
+   * Sets the number of threads to build the tree and to search batches of
+   * instances with.
+   * 
+   * @param value	the number of threads, 0 for the number of cores
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = value;
+  }
+
+  /**
+   * Gets the number of threads to build the tree and to search batches of
+   * instances with.
+   * 
+   * @return 		the number of threads, 0 for the number of cores
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
   /**
    * returns the distance function currently in use.
    * 
@@ -1139,6 +1479,7 @@ public class KDTree
       throw new Exception("KDTree currently only works with "
           + "EuclideanDistanceFunction.");
     m_DistanceFunction = m_EuclideanDistance = (EuclideanDistance) df;
+    m_FlatTree = null;
   }
   
   /**
@@ -1223,6 +1564,12 @@ public class KDTree
         + "\t(Select dimension for split, with normalising to universe).",
         "N", 0, "-N"));
     
+    newVector.addElement(new Option(
+	"\tThe number of threads to build the tree and to search\n"
+        + "\tbatches of instances with, 0 for the number of cores.\n"
+        + "\t(default 1)",
+        "num-threads", 1, "-num-threads <num>"));
+    
     newVector.addAll(Collections.list(super.listOptions()));
     
     return newVector.elements();
@@ -1250,6 +1597,11 @@ public class KDTree
    *  Normalizing will be done
    *  (Select dimension for split, with normalising to universe).</pre>
    * 
+   * <pre> -num-threads &lt;num&gt;
+   *  The number of threads to build the tree and to search
+   *  batches of instances with, 0 for the number of cores.
+   *  (default 1)</pre>
+   * 
    <!-- options-end -->
    * 
    * @param options	the list of options as an array of strings
@@ -1288,6 +1640,12 @@ public class KDTree
 
     setNormalizeNodeWidth(Utils.getFlag('N', options));
     
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0)
+      setNumThreads(Integer.parseInt(optionString));
+    else
+      setNumThreads(1);
+    
     Utils.checkForRemainingOptions(options);
   }
 
@@ -1321,6 +1679,11 @@ public class KDTree
     if (getNormalizeNodeWidth())
       result.add("-N");
 
+    if (getNumThreads() != 1) {
+      result.add("-num-threads");
+      result.add("" + getNumThreads());
+    }
+
     return result.toArray(new String[result.size()]);
   }
   
@@ -20,14 +20,21 @@
 
 package weka.core.neighboursearch;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+import weka.core.EuclideanDistance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
 import weka.core.Utils;
 
 /**
@@ -36,6 +43,11 @@ import weka.core.Utils;
  * <p/>
  <!-- globalinfo-end -->
  * 
+ * With an EuclideanDistance, the training data is packed into a contiguous
+ * array (see EuclideanScan) and scanned in blocks, optionally by several
+ * threads. Batches of query instances can be searched in one pass over the
+ * data.
+ * 
  <!-- options-start -->
  * Valid options are: <p/>
  * 
@@ -43,6 +55,12 @@ import weka.core.Utils;
  *  Skip identical instances (distances equal to zero).
  * </pre>
  * 
+ * <pre> -num-threads &lt;num&gt;
+ *  The number of threads to search with,
+ *  0 for the number of cores.
+ *  (default 1)
+ * </pre>
+ * 
  <!-- options-end -->
  *
  * @author Ashraf M. Kibriya (amk14[at-the-rate]cs[dot]waikato[dot]ac[dot]nz)
@@ -62,6 +80,15 @@ public class LinearNNSearch
   /** Whether to skip instances from the neighbours that are identical to the query instance. */
   protected boolean m_SkipIdentical = false;
 
+  /** The number of threads to search with, 0 for the number of cores. */
+  protected int m_NumThreads = 1;
+
+  /** The minimum number of instances for scanning them concurrently. */
+  protected static final int MIN_PARALLEL_INSTANCES = 10000;
+
+  /** The packed training data, if the distance function allows a scan. */
+  protected transient EuclideanScan m_Scan = null;
+
   /**
    * Constructor. Needs setInstances(Instances) 
    * to be called before the class is usable.
@@ -105,6 +132,12 @@ public class LinearNNSearch
 	"\tSkip identical instances (distances equal to zero).\n",
 	"S", 1,"-S"));
     
+    result.add(new Option(
+	"\tThe number of threads to search with,\n"
+	+ "\t0 for the number of cores.\n"
+	+ "\t(default 1)",
+	"num-threads", 1,"-num-threads <num>"));
+    
     result.addAll(Collections.list(super.listOptions()));
     
     return result.elements();
@@ -120,6 +153,12 @@ public class LinearNNSearch
    *  Skip identical instances (distances equal to zero).
    * </pre>
    * 
+   * <pre> -num-threads &lt;num&gt;
+   *  The number of threads to search with,
+   *  0 for the number of cores.
+   *  (default 1)
+   * </pre>
+   * 
    <!-- options-end -->
    *
    * @param options 	the list of options as an array of strings
@@ -130,6 +169,12 @@ public class LinearNNSearch
 
     setSkipIdentical(Utils.getFlag('S', options));
     
+    String tmpStr = Utils.getOption("num-threads", options);
+    if (tmpStr.length() != 0)
+      setNumThreads(Integer.parseInt(tmpStr));
+    else
+      setNumThreads(1);
+    
     Utils.checkForRemainingOptions(options);
   }
 
@@ -146,6 +191,11 @@ public class LinearNNSearch
     if (getSkipIdentical())
       result.add("-S");
 
+    if (getNumThreads() != 1) {
+      result.add("-num-threads");
+      result.add("" + getNumThreads());
+    }
+
     return result.toArray(new String[result.size()]);
   }
 
@@ -178,6 +228,34 @@ public class LinearNNSearch
     return m_SkipIdentical;
   }
 
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to search with, 0 for the number of cores.";
+  }
+  
+  /**
+   * Sets the number of threads to search with.
+   * 
+   * @param value 	the number of threads, 0 for the number of cores
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = value;
+  }
+  
+  /**
+   * Gets the number of threads to search with.
+   * 
+   * @return 		the number of threads, 0 for the number of cores
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
   
   /** 
    * Returns the nearest instance in the current neighbourhood to the supplied
@@ -201,78 +279,253 @@ public class LinearNNSearch
    * @throws Exception  if the neighbours could not be found.
    */
   public Instances kNearestNeighbours(Instance target, int kNN) throws Exception {
-  
-    //debug
-    boolean print=false;
 
     if(m_Stats!=null)
       m_Stats.searchStart();
  
     MyHeap heap = new MyHeap(kNN);
-    double distance; int firstkNN=0;
-    for(int i=0; i<m_Instances.numInstances(); i++) {
-      if(target == m_Instances.instance(i)) //for hold-one-out cross-validation
-        continue;
-      if(m_Stats!=null) 
-        m_Stats.incrPointCount();
-      if(firstkNN<kNN) {
-        if(print)
-          System.out.println("K(a): "+(heap.size()+heap.noOfKthNearest()));
-        distance = m_DistanceFunction.distance(target, m_Instances.instance(i), Double.POSITIVE_INFINITY, m_Stats);
-        if(distance == 0.0 && m_SkipIdentical)
-          if(i<m_Instances.numInstances()-1)
-            continue;
-          else
-            heap.put(i, distance);
-        heap.put(i, distance);
-        firstkNN++;
-      }
-      else {
-        MyHeapElement temp = heap.peek();
-        if(print)
-          System.out.println("K(b): "+(heap.size()+heap.noOfKthNearest()));
-        distance = m_DistanceFunction.distance(target, m_Instances.instance(i), temp.distance, m_Stats);
-        if(distance == 0.0 && m_SkipIdentical)
+    EuclideanScan scan = scan();
+    if(scan != null) {
+      scan(scan, target, heap, kNN);
+    }
+    else {
+      int firstkNN=0;
+      for(int i=0; i<m_Instances.numInstances(); i++) {
+        if(target == m_Instances.instance(i)) //for hold-one-out cross-validation
           continue;
-        if(distance < temp.distance) {
-          heap.putBySubstitute(i, distance);
-        }
-        else if(distance == temp.distance) {
-          heap.putKthNearest(i, distance);
-        }
+        if(m_Stats!=null) 
+          m_Stats.incrPointCount();
+        double cutOff = (firstkNN < kNN) ? Double.POSITIVE_INFINITY : heap.peek().distance;
+        double distance = m_DistanceFunction.distance(target, m_Instances.instance(i), cutOff, m_Stats);
+        firstkNN = offer(heap, kNN, firstkNN, i, distance);
+      }
+    }
+    
+    double[][] distances = new double[1][];
+    Instances neighbours = neighbours(heap, distances, 0);
+    m_Distances = distances[0];
+    
+    if(m_Stats!=null)
+      m_Stats.searchFinish();
+    
+    return neighbours;    
+  }
 
+  /**
+   * Returns the k nearest instances in the current neighbourhood for each of
+   * the supplied instances. With an EuclideanDistance, the batch is searched
+   * in one pass over the training data, split by target instances across the 
+   * threads. The neighbours found are the same as those of 
+   * kNearestNeighbours(Instance, int).
+   * 
+   * @param targets	the instances to find the k nearest neighbours for
+   * @param kNN		the number of nearest neighbours to find
+   * @param distances	an array with one entry per target instance, receiving 
+   * 			the distances of the neighbours of that instance
+   * @return		the k nearest neighbours of each target instance
+   * @throws Exception	if the neighbours could not be found
+   */
+  @Override
+  public Instances[] kNearestNeighbours(final Instances targets, final int kNN, 
+      final double[][] distances) throws Exception {
+    
+    final EuclideanScan scan = scan();
+    if(scan == null)
+      return super.kNearestNeighbours(targets, kNN, distances);
+
+    final Instances[] neighbours = new Instances[targets.numInstances()];
+    searchBatch(targets.numInstances(), m_NumThreads, new BatchSearch() {
+      @Override
+      public void search(int first, int last) throws Exception {
+        scan(scan, targets, first, last, kNN, neighbours, distances);
       }
+    });
+    
+    return neighbours;
+  }
+
+  /**
+   * Offers an instance with the given distance to the heap of nearest 
+   * neighbours, in the same way for the brute force loop and the scans.
+   * 
+   * @param heap	the heap of nearest neighbours
+   * @param kNN		the number of nearest neighbours to find
+   * @param firstkNN	the number of instances put into the heap so far
+   * @param i		the index of the instance
+   * @param distance	the distance of the instance
+   * @return		the new number of instances put into the heap
+   * @throws Exception	if the heap can't be updated
+   */
+  protected int offer(MyHeap heap, int kNN, int firstkNN, int i, 
+      double distance) throws Exception {
+    
+    if(firstkNN<kNN) {
+      if(distance == 0.0 && m_SkipIdentical)
+        if(i<m_Instances.numInstances()-1)
+          return firstkNN;
+        else
+          heap.put(i, distance);
+      heap.put(i, distance);
+      return firstkNN + 1;
     }
     
-    Instances neighbours = new Instances(m_Instances, (heap.size()+heap.noOfKthNearest()));
-    m_Distances = new double[heap.size()+heap.noOfKthNearest()];
-    int [] indices = new int[heap.size()+heap.noOfKthNearest()];
-    int i=1; MyHeapElement h;
-    while(heap.noOfKthNearest()>0) {
-      h = heap.getKthNearest();
-      indices[indices.length-i] = h.index;
-      m_Distances[indices.length-i] = h.distance;
-      i++;
+    MyHeapElement temp = heap.peek();
+    if(distance == 0.0 && m_SkipIdentical)
+      return firstkNN;
+    if(distance < temp.distance) {
+      heap.putBySubstitute(i, distance);
+    }
+    else if(distance == temp.distance) {
+      heap.putKthNearest(i, distance);
     }
-    while(heap.size()>0) {
-      h = heap.get();
-      indices[indices.length-i] = h.index;
-      m_Distances[indices.length-i] = h.distance;
-      i++;
+    return firstkNN;
+  }
+
+  /**
+   * Offers the instances of a block with their distances to the heap of 
+   * nearest neighbours, skipping the target itself.
+   * 
+   * @param heap	the heap of nearest neighbours
+   * @param kNN		the number of nearest neighbours to find
+   * @param firstkNN	the number of instances put into the heap so far
+   * @param target	the target instance
+   * @param from	the index of the first instance of the block
+   * @param to		the index after the last instance of the block
+   * @param distances	the distances of the instances in the block
+   * @param offset	the position of the first distance in the array
+   * @return		the new number of instances put into the heap
+   * @throws Exception	if the heap can't be updated
+   */
+  protected int offer(MyHeap heap, int kNN, int firstkNN, Instance target, 
+      int from, int to, double[] distances, int offset) throws Exception {
+    
+    for(int i=from; i<to; i++) {
+      if(target == m_Instances.instance(i)) //for hold-one-out cross-validation
+        continue;
+      firstkNN = offer(heap, kNN, firstkNN, i, distances[offset + i - from]);
     }
+    return firstkNN;
+  }
+
+  /**
+   * Finds the nearest neighbours of a target instance with a scan over the 
+   * packed training data. Large training sets are scanned in chunks by 
+   * several threads, and the distances are offered to the heap afterwards 
+   * in the order of the instances.
+   * 
+   * @param scan	the packed training data
+   * @param target	the target instance
+   * @param heap	the heap of nearest neighbours
+   * @param kNN		the number of nearest neighbours to find
+   * @throws Exception	if the search fails
+   */
+  protected void scan(final EuclideanScan scan, Instance target, MyHeap heap, 
+      int kNN) throws Exception {
     
-    m_DistanceFunction.postProcessDistances(m_Distances);
+    int numInstances = m_Instances.numInstances();
+    final double[] query = new double[scan.numValues()];
+    final boolean missing = scan.query(target, query);
+    int block = scan.blockSize();
+    ForkJoinPool pool = pool(m_NumThreads);
     
-    for(int k=0; k<indices.length; k++) {
-      neighbours.add(m_Instances.instance(indices[k]));
+    if((pool == null) || (numInstances < MIN_PARALLEL_INSTANCES)) {
+      double[] distances = new double[Math.min(block, numInstances)];
+      int firstkNN = 0;
+      for(int from=0; from<numInstances; from+=block) {
+        int to = Math.min(numInstances, from + block);
+        scan.distances(query, missing, from, to, distances, 0);
+        firstkNN = offer(heap, kNN, firstkNN, target, from, to, distances, 0);
+      }
+      return;
     }
     
-    if(m_Stats!=null)
-      m_Stats.searchFinish();
+    final double[] distances = new double[numInstances];
+    int chunk = Math.max(block, numInstances / (4 * pool.getParallelism()));
+    List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+    for(int from=0; from<numInstances; from+=chunk) {
+      final int first = from;
+      final int last = Math.min(numInstances, from + chunk);
+      tasks.add(pool.submit(ForkJoinTask.adapt(new Callable<Void>() {
+	@Override
+	public Void call() throws Exception {
+	  scan.distances(query, missing, first, last, distances, first);
+	  return null;
+	}
+      })));
+    }
+    for(ForkJoinTask<Void> task : tasks) {
+      TaskUtils.join(task);
+    }
+    offer(heap, kNN, 0, target, 0, numInstances, distances, 0);
+  }
+
+  /**
+   * Finds the nearest neighbours of a range of target instances with one 
+   * pass over the packed training data. Each block of the data is compared 
+   * to all the targets while it is in the cache.
+   * 
+   * @param scan	the packed training data
+   * @param targets	the target instances
+   * @param first	the index of the first target
+   * @param last	the index after the last target
+   * @param kNN		the number of nearest neighbours to find
+   * @param neighbours	the array to store the neighbours of the targets in
+   * @param distances	the array to store the distances of the neighbours in
+   * @throws Exception	if the search fails
+   */
+  protected void scan(EuclideanScan scan, Instances targets, int first, 
+      int last, int kNN, Instances[] neighbours, double[][] distances) 
+    throws Exception {
     
-    return neighbours;    
+    int numInstances = m_Instances.numInstances();
+    int numTargets = last - first;
+    double[][] queries = new double[numTargets][scan.numValues()];
+    boolean[] missing = new boolean[numTargets];
+    MyHeap[] heaps = new MyHeap[numTargets];
+    int[] firstkNN = new int[numTargets];
+    for(int t=0; t<numTargets; t++) {
+      missing[t] = scan.query(targets.instance(first + t), queries[t]);
+      heaps[t] = new MyHeap(kNN);
+    }
+    
+    int block = scan.blockSize();
+    double[] blockDistances = new double[Math.min(block, numInstances)];
+    for(int from=0; from<numInstances; from+=block) {
+      int to = Math.min(numInstances, from + block);
+      for(int t=0; t<numTargets; t++) {
+        scan.distances(queries[t], missing[t], from, to, blockDistances, 0);
+        firstkNN[t] = offer(heaps[t], kNN, firstkNN[t], 
+            targets.instance(first + t), from, to, blockDistances, 0);
+      }
+    }
+    
+    for(int t=0; t<numTargets; t++) {
+      neighbours[first + t] = neighbours(heaps[t], distances, first + t);
+    }
   }
-  
+
+  /**
+   * Returns the packed training data, bringing it up to date first, or null 
+   * if the distance function or the performance statistics don't allow a 
+   * scan.
+   * 
+   * @return		the packed training data, or null
+   * @throws Exception	if the data can't be packed
+   */
+  protected synchronized EuclideanScan scan() throws Exception {
+    if((m_Stats != null) || (m_Instances == null) 
+        || (m_Instances.numInstances() == 0) || !EuclideanScan.isApplicable(this)) {
+      m_Scan = null;
+      return null;
+    }
+    if((m_Scan == null) || (m_Scan.getData() != m_Instances) 
+        || (m_Scan.m_Distance != m_DistanceFunction)) {
+      m_Scan = new EuclideanScan((EuclideanDistance) m_DistanceFunction, m_Instances);
+    }
+    m_Scan.refresh();
+    return m_Scan;
+  }
+
   /** 
    * Returns the distances of the k nearest neighbours. The kNearestNeighbours
    * or nearestNeighbour must always be called before calling this function. If
@@ -308,6 +561,7 @@ public class LinearNNSearch
   public void setInstances(Instances insts) throws Exception {
     m_Instances = insts;
     m_DistanceFunction.setInstances(insts);
+    m_Scan = null;
   }
   
   /** 
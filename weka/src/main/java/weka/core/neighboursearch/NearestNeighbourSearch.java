@@ -21,9 +21,14 @@
 package weka.core.neighboursearch;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import weka.core.AdditionalMeasureProducer;
 import weka.core.DistanceFunction;
@@ -34,6 +39,7 @@ import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
 import weka.core.Utils;
 
 /**
@@ -541,6 +547,9 @@ public abstract class NearestNeighbourSearch implements Serializable,
   /** Should we measure Performance. */
   protected boolean m_MeasurePerformance = false;
 
+  /** The pool of threads to build and search with. */
+  protected transient ForkJoinPool m_Pool = null;
+
   /**
    * Constructor.
    */
@@ -738,6 +747,154 @@ public abstract class NearestNeighbourSearch implements Serializable,
    */
   public abstract double[] getDistances() throws Exception;
 
+  /**
+   * Returns the k nearest instances in the current neighbourhood for each of
+   * the supplied instances, together with their distances. Unlike
+   * kNearestNeighbours(Instance, int), this method does not change the
+   * distances returned by getDistances(). The default implementation
+   * searches the instances one at a time, holding the lock of this object.
+   * Subclasses that keep no state per search override it, so that batches
+   * can be searched concurrently as long as the data structure is not
+   * changed.
+   * 
+   * @param targets the instances to find the k nearest neighbours for
+   * @param k the number of nearest neighbours to find
+   * @param distances an array with one entry per target instance, receiving
+   *          the distances of the neighbours of that instance
+   * @return the k nearest neighbours of each target instance
+   * @throws Exception if the neighbours could not be found
+   */
+  public Instances[] kNearestNeighbours(Instances targets, int k,
+    double[][] distances) throws Exception {
+
+    Instances[] neighbours = new Instances[targets.numInstances()];
+    synchronized (this) {
+      for (int i = 0; i < targets.numInstances(); i++) {
+        neighbours[i] = kNearestNeighbours(targets.instance(i), k);
+        distances[i] = getDistances().clone();
+      }
+    }
+    return neighbours;
+  }
+
+  /**
+   * A search for the neighbours of a range of target instances, run by
+   * searchBatch().
+   */
+  protected interface BatchSearch {
+
+    /**
+     * Finds the neighbours of a range of target instances.
+     * 
+     * @param first the index of the first target instance
+     * @param last the index after the last target instance
+     * @throws Exception if the search fails
+     */
+    void search(int first, int last) throws Exception;
+  }
+
+  /**
+   * Splits a batch of target instances into one range per thread and runs
+   * the search of each range in the pool of threads.
+   * 
+   * @param numTargets the number of target instances
+   * @param numThreads the number of threads, 0 for the number of cores
+   * @param search the search to run for each range
+   * @throws Exception if a search fails
+   */
+  protected void searchBatch(int numTargets, int numThreads,
+    final BatchSearch search) throws Exception {
+
+    ForkJoinPool pool = pool(numThreads);
+    int numTasks = (pool == null) ? 1 : pool.getParallelism();
+    numTasks = Math.max(1, Math.min(numTasks, numTargets));
+    if (numTasks == 1) {
+      search.search(0, numTargets);
+      return;
+    }
+
+    List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+    for (int task = 0; task < numTasks; task++) {
+      final int first = (int) ((long) numTargets * task / numTasks);
+      final int last = (int) ((long) numTargets * (task + 1) / numTasks);
+      tasks.add(pool.submit(ForkJoinTask.adapt(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          search.search(first, last);
+          return null;
+        }
+      })));
+    }
+    for (ForkJoinTask<Void> task : tasks) {
+      TaskUtils.join(task);
+    }
+  }
+
+  /**
+   * Turns a heap of nearest neighbours into the set of neighbours, ordered by
+   * increasing distance.
+   * 
+   * @param heap the heap of nearest neighbours
+   * @param distances the array to store the distances of the neighbours in
+   * @param index the position in the array to store them at
+   * @return the nearest neighbours
+   * @throws Exception if the heap can't be emptied
+   */
+  protected Instances neighbours(MyHeap heap, double[][] distances, int index)
+    throws Exception {
+
+    Instances neighbours = new Instances(m_Instances, heap.totalSize());
+    double[] dists = new double[heap.totalSize()];
+    int[] indices = new int[heap.totalSize()];
+    int i = 1;
+    MyHeapElement h;
+    while (heap.noOfKthNearest() > 0) {
+      h = heap.getKthNearest();
+      indices[indices.length - i] = h.index;
+      dists[indices.length - i] = h.distance;
+      i++;
+    }
+    while (heap.size() > 0) {
+      h = heap.get();
+      indices[indices.length - i] = h.index;
+      dists[indices.length - i] = h.distance;
+      i++;
+    }
+
+    m_DistanceFunction.postProcessDistances(dists);
+
+    for (int k = 0; k < indices.length; k++) {
+      neighbours.add(m_Instances.instance(indices[k]));
+    }
+    distances[index] = dists;
+
+    return neighbours;
+  }
+
+  /**
+   * Returns the pool of threads to build and search with, or null if only
+   * one thread is to be used. The pool is kept for later searches; a pool
+   * with a different number of threads is shut down when it is replaced.
+   * 
+   * @param numThreads the number of threads, 0 for the number of cores
+   * @return the pool, or null
+   */
+  protected ForkJoinPool pool(int numThreads) {
+    numThreads = TaskUtils.numThreads(numThreads);
+    if (numThreads <= 1) {
+      return null;
+    }
+    synchronized (this) {
+      if ((m_Pool == null) || (m_Pool.getParallelism() != numThreads)) {
+        if (m_Pool != null) {
+          m_Pool.shutdown();
+        }
+        m_Pool = new ForkJoinPool(numThreads);
+      }
+      return m_Pool;
+    }
+  }
+
   /**
    * Updates the NearNeighbourSearch algorithm for the new added instance. P.S.:
    * The method assumes the instance has already been added to the m_Instances
@@ -23,6 +23,7 @@ package weka.core.neighboursearch.balltrees;
 import java.io.Serializable;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 import weka.core.DistanceFunction;
 import weka.core.EuclideanDistance;
@@ -81,6 +82,9 @@ public abstract class BallTreeConstructor implements OptionHandler,
   /** The master index array. */
   protected int[] m_InstList;
 
+  /** The pool of threads to build the tree with, null for a single thread. */
+  protected transient ForkJoinPool m_Pool;
+
   /**
    * Creates a new instance of BallTreeConstructor.
    */
@@ -234,6 +238,16 @@ public abstract class BallTreeConstructor implements OptionHandler,
     m_InstList = instList;
   }
 
+  /**
+   * Sets the pool of threads to build the tree with. Constructors that can
+   * build subtrees concurrently use it, the others ignore it.
+   * 
+   * @param pool The pool of threads, null for a single thread.
+   */
+  public void setThreadPool(ForkJoinPool pool) {
+    m_Pool = pool;
+  }
+
   /**
    * Sets the distance function to use to build the tree.
    * 
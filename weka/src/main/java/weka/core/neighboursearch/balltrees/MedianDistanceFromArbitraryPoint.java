@@ -277,9 +277,10 @@ public class MedianDistanceFromArbitraryPoint extends BallSplitter implements
   public void splitNode(BallNode node, int numNodesCreated) throws Exception {
     correctlyInitialized();
 
-    m_Rand = new Random(m_RandSeed);
+    Random rand = new Random(m_RandSeed);
+    m_Rand = rand;
 
-    int ridx = node.m_Start + m_Rand.nextInt(node.m_NumInstances);
+    int ridx = node.m_Start + rand.nextInt(node.m_NumInstances);
     Instance randomInst = (Instance) m_Instances.instance(m_Instlist[ridx])
       .copy();
     double[] distList = new double[node.m_NumInstances - 1];
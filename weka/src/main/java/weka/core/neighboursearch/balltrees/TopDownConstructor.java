@@ -23,11 +23,14 @@ package weka.core.neighboursearch.balltrees;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
 
 import weka.core.EuclideanDistance;
 import weka.core.Instance;
 import weka.core.Option;
 import weka.core.RevisionUtils;
+import weka.core.TaskUtils;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
@@ -85,6 +88,12 @@ public class TopDownConstructor extends BallTreeConstructor implements
    */
   protected BallSplitter m_Splitter = new PointsClosestToFurthestChildren();
 
+  /**
+   * The minimum number of instances in a node for splitting its subtrees
+   * concurrently.
+   */
+  protected static final int MIN_PARALLEL_INSTANCES = 1000;
+
   /**
    * Creates a new instance of TopDownConstructor.
    */
@@ -151,7 +160,21 @@ public class TopDownConstructor extends BallTreeConstructor implements
     root.setRadius(BallNode.calcRadius(m_InstList, m_Instances,
       root.getPivot(), m_DistanceFunction));
 
-    splitNodes(root, m_MaxDepth + 1, root.m_Radius);
+    if ((m_Pool == null) || (m_InstList.length < MIN_PARALLEL_INSTANCES)) {
+      splitNodes(root, m_MaxDepth + 1, root.m_Radius);
+    } else {
+      final BallNode top = root;
+      ForkJoinTask<Void> task = m_Pool.submit(ForkJoinTask
+        .adapt(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            splitNodesConcurrently(top, top.m_Radius);
+            return null;
+          }
+        }));
+      TaskUtils.join(task);
+      numberNodes(root, m_MaxDepth + 1);
+    }
 
     return root;
   }
@@ -207,6 +230,72 @@ public class TopDownConstructor extends BallTreeConstructor implements
     }
   }
 
+  /**
+   * Splits the nodes of a subtree like splitNodes(BallNode, int, double), but
+   * splits the subtrees of large nodes concurrently. Node numbers and tree
+   * stats are not maintained; numberNodes(BallNode, int) takes care of them
+   * afterwards. Must be called from a task of a ForkJoinPool.
+   * 
+   * @param node The node to split.
+   * @param rootRadius The smallest ball enclosing all the data points.
+   * @throws Exception If there is some problem in splitting.
+   */
+  protected void splitNodesConcurrently(final BallNode node,
+    final double rootRadius) throws Exception {
+
+    if (node.m_NumInstances <= m_MaxInstancesInLeaf
+      || (rootRadius == 0 ? true
+        : node.m_Radius / rootRadius < m_MaxRelLeafRadius)) {
+      return;
+    }
+
+    m_Splitter.splitNode(node, 0);
+
+    if (node.m_NumInstances < MIN_PARALLEL_INSTANCES) {
+      splitNodesConcurrently(node.m_Left, rootRadius);
+      splitNodesConcurrently(node.m_Right, rootRadius);
+    } else {
+      ForkJoinTask<Void> left = ForkJoinTask.adapt(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          splitNodesConcurrently(node.m_Left, rootRadius);
+          return null;
+        }
+      }).fork();
+      splitNodesConcurrently(node.m_Right, rootRadius);
+      TaskUtils.join(left);
+    }
+
+    if (m_FullyContainChildBalls) {
+      node.setRadius(BallNode.calcRadius(node.m_Left, node.m_Right,
+        node.getPivot(), m_DistanceFunction));
+    }
+  }
+
+  /**
+   * Numbers the nodes of a subtree and updates the tree stats in the same way
+   * as splitNodes(BallNode, int, double) does while splitting.
+   * 
+   * @param node The root of the subtree.
+   * @param depth The depth of the node.
+   */
+  protected void numberNodes(BallNode node, int depth) {
+    if (node.isALeaf()) {
+      return;
+    }
+
+    m_NumLeaves++;
+    node.m_Left.m_NodeNumber = m_NumNodes + 1;
+    node.m_Right.m_NodeNumber = m_NumNodes + 2;
+    m_NumNodes += 2;
+    if (m_MaxDepth < depth) {
+      m_MaxDepth = depth;
+    }
+
+    numberNodes(node.m_Left, depth + 1);
+    numberNodes(node.m_Right, depth + 1);
+  }
+
   /**
    * Adds an instance to the ball tree.
    * 
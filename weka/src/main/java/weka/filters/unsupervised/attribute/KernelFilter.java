@@ -166,8 +166,9 @@ import weka.filters.UnsupervisedFilter;
  * 
  * <pre>
  * -C &lt;num&gt;
- *  The size of the cache (a prime number), 0 for full cache and 
- *  -1 to turn it off.
+ *  The size of the cache, 0 for full cache and 
+ *  -1 to turn it off. The cache holds as many kernel
+ *  rows as fit into (64 * size) bytes.
  *  (default: 250007)
  * </pre>
  * 
@@ -494,8 +495,9 @@ public class KernelFilter extends SimpleBatchFilter implements
    * 
    * <pre>
    * -C &lt;num&gt;
-   *  The size of the cache (a prime number), 0 for full cache and 
-   *  -1 to turn it off.
+   *  The size of the cache, 0 for full cache and 
+   *  -1 to turn it off. The cache holds as many kernel
+   *  rows as fit into (64 * size) bytes.
    *  (default: 250007)
    * </pre>
    * 
@@ -79,6 +79,11 @@ import weka.filters.UnsupervisedFilter;
  *  -W prunes after creating a full dictionary. You may not have enough memory for this approach.
  *  (default: no periodic pruning)</pre>
  * 
+ * <pre> -hash-dimensions &lt;number of attributes&gt;
+ *  Hash the words to the given number of attributes instead of
+ *  building a dictionary (-W, -M and -prune-rate do not apply).
+ *  (default: 0 = build a dictionary)</pre>
+ * 
  * <pre> -T
  *  Transform the word frequencies into log(1+fij)
  *  where fij is the frequency of word i in jth document(instance).
@@ -124,6 +129,11 @@ import weka.filters.UnsupervisedFilter;
  *  instead of in plain text form. Use in conjunction with
  *  -dictionary</pre>
  * 
+ * <pre> -num-threads &lt;num&gt;
+ *  The number of threads to build the dictionary and convert
+ *  the first batch with, 0 for the number of cores.
+ *  (default 1)</pre>
+ * 
  <!-- options-end -->
  *
  * @author Len Trigg (len@reeltwo.com)
@@ -175,6 +185,9 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
    */
   protected boolean m_dictionaryIsBinary;
 
+  /** The number of threads to process the first batch with */
+  protected int m_numThreads = 1;
+
 
   /**
    * Default constructor. Targets 1000 words in the output.
@@ -221,6 +234,12 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
           + "\t(default: no periodic pruning)", "prune-rate", 1,
         "-prune-rate <rate as a percentage of dataset>"));
 
+    result.addElement(new Option(
+      "\tHash the words to the given number of attributes instead of\n"
+        + "\tbuilding a dictionary (-W, -M and -prune-rate do not apply).\n"
+        + "\t(default: 0 = build a dictionary)", "hash-dimensions", 1,
+      "-hash-dimensions <number of attributes>"));
+
     result
       .addElement(new Option(
         "\tTransform the word frequencies into log(1+fij)\n"
@@ -270,6 +289,11 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
       + "serialized object\n\tinstead of in plain text form. Use in conjunction "
       + "with\n\t-dictionary", "binary-dict", 0, "-binary-dict"));
 
+    result.addElement(new Option(
+      "\tThe number of threads to build the dictionary and convert\n"
+        + "\tthe first batch with, 0 for the number of cores.\n"
+        + "\t(default 1)", "num-threads", 1, "-num-threads <num>"));
+
     return result.elements();
   }
 
@@ -305,6 +329,11 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
    *  -W prunes after creating a full dictionary. You may not have enough memory for this approach.
    *  (default: no periodic pruning)</pre>
    * 
+   * <pre> -hash-dimensions &lt;number of attributes&gt;
+   *  Hash the words to the given number of attributes instead of
+   *  building a dictionary (-W, -M and -prune-rate do not apply).
+   *  (default: 0 = build a dictionary)</pre>
+   * 
    * <pre> -T
    *  Transform the word frequencies into log(1+fij)
    *  where fij is the frequency of word i in jth document(instance).
@@ -350,6 +379,11 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
    *  instead of in plain text form. Use in conjunction with
    *  -dictionary</pre>
    * 
+   * <pre> -num-threads &lt;num&gt;
+   *  The number of threads to build the dictionary and convert
+   *  the first batch with, 0 for the number of cores.
+   *  (default 1)</pre>
+   * 
    <!-- options-end -->
    *
    * @param options the list of options as an array of strings
@@ -388,6 +422,13 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
       setPeriodicPruning(-1);
     }
 
+    value = Utils.getOption("hash-dimensions", options);
+    if (value.length() > 0) {
+      setHashDimensions(Integer.parseInt(value));
+    } else {
+      setHashDimensions(0);
+    }
+
     value = Utils.getOption('M', options);
     if (value.length() != 0) {
       setMinTermFreq(Integer.valueOf(value).intValue());
@@ -464,6 +505,13 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
 
     setSaveDictionaryInBinaryForm(Utils.getFlag("binary-dict", options));
 
+    String numThreadsString = Utils.getOption("num-threads", options);
+    if (numThreadsString.length() != 0) {
+      setNumThreads(Integer.parseInt(numThreadsString));
+    } else {
+      setNumThreads(1);
+    }
+
     Utils.checkForRemainingOptions(options);
   }
 
@@ -495,6 +543,11 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
     result.add("-prune-rate");
     result.add(String.valueOf(getPeriodicPruning()));
 
+    if (getHashDimensions() > 0) {
+      result.add("-hash-dimensions");
+      result.add(String.valueOf(getHashDimensions()));
+    }
+
     if (getOutputWordCounts()) {
       result.add("-C");
     }
@@ -559,6 +612,10 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
       }
     }
 
+    if (getNumThreads() != 1) {
+      result.add("-num-threads");
+      result.add("" + getNumThreads());
+    }
 
     return result.toArray(new String[result.size()]);
   }
@@ -672,20 +729,18 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
       m_dictionaryBuilder.setPeriodicPruning(pruneRate);
       // m_dictionaryBuilder.setNormalize(m_filterType == FILTER_NORMALIZE_ALL);
 
-      for (int i = 0; i < getInputFormat().numInstances(); i++) {
-        Instance toProcess = getInputFormat().instance(i);
-        m_dictionaryBuilder.processInstance(toProcess);
-      }
+      m_dictionaryBuilder.processBatch(getInputFormat(), m_numThreads);
       m_dictionaryBuilder.finalizeDictionary();
 
       setOutputFormat(m_dictionaryBuilder.getVectorizedFormat());
 
       m_dictionaryBuilder.setNormalize(m_filterType != FILTER_NONE);
       Instances converted = m_dictionaryBuilder.vectorizeBatch( getInputFormat(),
-        m_filterType != FILTER_NONE);
+        m_filterType != FILTER_NONE, m_numThreads);
 
       // save the dictionary?
-      if (m_dictionaryFile != null && m_dictionaryFile.toString().length() > 0 &&
+      if (getHashDimensions() <= 0 && m_dictionaryFile != null
+        && m_dictionaryFile.toString().length() > 0 &&
         !m_dictionaryFile.toString().equalsIgnoreCase("-- set me --")) {
         m_dictionaryBuilder.saveDictionary(m_dictionaryFile, !m_dictionaryIsBinary);
       }
@@ -760,6 +815,38 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
     return m_dictionaryIsBinary;
   }
 
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to build the dictionary and convert the "
+      + "first batch with, 0 for the number of cores. The output is the "
+      + "same as with one thread. Periodic pruning is only done with one "
+      + "thread.";
+  }
+
+  /**
+   * Get the number of threads to process the first batch with.
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /**
+   * Set the number of threads to process the first batch with, 0 for the
+   * number of cores.
+   *
+   * @param numThreads the number of threads
+   */
+  public void setNumThreads(int numThreads) {
+    m_numThreads = numThreads;
+  }
+
   /**
    * Returns a string describing this filter.
    *
@@ -993,6 +1080,39 @@ public class StringToWordVector extends Filter implements UnsupervisedFilter,
       + "memory for this approach.";
   }
 
+  /**
+   * Gets the number of attributes to hash the words to.
+   *
+   * @return the number of attributes, 0 if a dictionary is built
+   */
+  public int getHashDimensions() {
+    return m_dictionaryBuilder.getHashDimensions();
+  }
+
+  /**
+   * Sets the number of attributes to hash the words to. 0 builds a
+   * dictionary.
+   *
+   * @param hashDimensions the number of attributes, 0 to build a dictionary
+   */
+  public void setHashDimensions(int hashDimensions) {
+    m_dictionaryBuilder.setHashDimensions(hashDimensions);
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String hashDimensionsTipText() {
+    return "The number of attributes to hash the words to (the hashing trick), "
+      + "instead of building a dictionary. Words with the same hash share an "
+      + "attribute. The number of words to keep, the minimum term frequency, "
+      + "pruning and saving the dictionary do not apply. 0 builds a "
+      + "dictionary.";
+  }
+
   /**
    * Gets whether if the word frequencies should be transformed into log(1+fij)
    * where fij is the frequency of word i in document(instance) j.
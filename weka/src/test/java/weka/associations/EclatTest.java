@@ -0,0 +1,82 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.associations;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Instances;
+
+/**
+ * Tests Eclat. Run from the command line with:
+ * <p/>
+ * java weka.associations.EclatTest
+ *
+ * @version $Revision$
+ */
+public class EclatTest extends AbstractAssociatorTest {
+
+  public EclatTest(String name) {
+    super(name);
+  }
+
+  /** Creates a default Eclat */
+  @Override
+  public Associator getAssociator() {
+    return new Eclat();
+  }
+
+  /**
+   * Tests that Eclat finds the same item sets and rules as FPGrowth, with
+   * tidsets and diffsets, sequentially and concurrently.
+   */
+  public void testSameAsFPGrowth() throws Exception {
+    Instances data = FPGrowthTest.getTransactions();
+
+    FPGrowth fp = new FPGrowth();
+    fp.setFindAllRulesForSupportLevel(true);
+    fp.setLowerBoundMinSupport(0.02);
+    fp.setMinMetric(0.5);
+    fp.buildAssociations(data);
+    String sets = fp.m_largeItemSets.toString(0);
+    String rules = fp.getAssociationRules().getRules().toString();
+    assertTrue("Too few item sets: " + fp.m_largeItemSets.size(),
+      fp.m_largeItemSets.size() > 1000);
+
+    for (int n = 0; n < 4; n++) {
+      Eclat eclat = new Eclat();
+      eclat.setFindAllRulesForSupportLevel(true);
+      eclat.setLowerBoundMinSupport(0.02);
+      eclat.setMinMetric(0.5);
+      eclat.setUseDiffsets(n % 2 == 1);
+      eclat.setNumExecutionSlots(n < 2 ? 1 : 3);
+      eclat.buildAssociations(data);
+      assertEquals(sets, eclat.m_largeItemSets.toString(0));
+      assertEquals(rules, eclat.getAssociationRules().getRules().toString());
+    }
+  }
+
+  public static Test suite() {
+    return new TestSuite(EclatTest.class);
+  }
+
+  public static void main(String[] args) {
+    junit.textui.TestRunner.run(suite());
+  }
+}
@@ -19,8 +19,23 @@
 
 package weka.associations;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
 import weka.associations.AbstractAssociatorTest;
 import weka.associations.Associator;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -44,6 +59,183 @@ public class FPGrowthTest
     return new FPGrowth();
   }
 
+  /**
+   * Returns random transactions over binary attributes, in which the items
+   * with low indices are more frequent. Shared with the tests of other
+   * frequent item set miners.
+   *
+   * @return the transactions
+   */
+  protected static Instances getTransactions() {
+    ArrayList<String> values = new ArrayList<String>();
+    values.add("f");
+    values.add("t");
+    ArrayList<Attribute> atts = new ArrayList<Attribute>();
+    for (int i = 0; i < 24; i++) {
+      atts.add(new Attribute("item" + i, values));
+    }
+    Instances data = new Instances("transactions", atts, 600);
+    Random random = new Random(42);
+    for (int n = 0; n < 600; n++) {
+      double[] vals = new double[atts.size()];
+      for (int i = 0; i < vals.length; i++) {
+        vals[i] = random.nextDouble() < 0.6 / (1 + 0.1 * i) ? 1 : 0;
+      }
+      data.add(new DenseInstance(1.0, vals));
+    }
+    return data;
+  }
+
+  /**
+   * Returns the attribute indices of the given items, as a key for the item
+   * set they form.
+   *
+   * @param items the items
+   * @return the key
+   */
+  protected static Set<Integer> key(Collection<? extends Item> items) {
+    Set<Integer> indices = new TreeSet<Integer>();
+    for (Item item : items) {
+      indices.add(item.getAttribute().index());
+    }
+    return indices;
+  }
+
+  /**
+   * Counts the supports of all frequent item sets that extend the given one
+   * with items from the given index on, by intersecting the transactions
+   * that cover the items.
+   *
+   * @param covers the transactions containing each item
+   * @param minSupport the minimum support
+   * @param first the first item that may be added
+   * @param items the item set to extend
+   * @param cover the transactions containing the item set
+   * @param supports the map to add the frequent item sets to
+   */
+  protected static void count(BitSet[] covers, int minSupport, int first,
+    Set<Integer> items, BitSet cover, Map<Set<Integer>, Integer> supports) {
+    for (int i = first; i < covers.length; i++) {
+      BitSet extended = (BitSet) cover.clone();
+      extended.and(covers[i]);
+      if (extended.cardinality() >= minSupport) {
+        Set<Integer> set = new TreeSet<Integer>(items);
+        set.add(i);
+        supports.put(set, extended.cardinality());
+        count(covers, minSupport, i + 1, set, extended, supports);
+      }
+    }
+  }
+
+  /**
+   * Tests that the FP-tree yields exactly the frequent item sets and rules
+   * that counting the transactions directly does.
+   */
+  public void testSameAsCounting() throws Exception {
+    Instances data = getTransactions();
+    int minSupport = 12;
+    double minConfidence = 0.5;
+
+    BitSet[] covers = new BitSet[data.numAttributes()];
+    for (int i = 0; i < covers.length; i++) {
+      covers[i] = new BitSet();
+      for (int n = 0; n < data.numInstances(); n++) {
+        if (data.instance(n).value(i) == 1) {
+          covers[i].set(n);
+        }
+      }
+    }
+    BitSet all = new BitSet();
+    all.set(0, data.numInstances());
+    Map<Set<Integer>, Integer> expected = new HashMap<Set<Integer>, Integer>();
+    count(covers, minSupport, 0, new TreeSet<Integer>(), all, expected);
+
+    FPGrowth fp = new FPGrowth();
+    fp.setFindAllRulesForSupportLevel(true);
+    fp.setLowerBoundMinSupport(minSupport);
+    fp.setMinMetric(minConfidence);
+    fp.buildAssociations(data);
+
+    Map<Set<Integer>, Integer> found = new HashMap<Set<Integer>, Integer>();
+    Iterator<FPGrowth.FrequentBinaryItemSet> sets = fp.m_largeItemSets
+      .iterator();
+    while (sets.hasNext()) {
+      FPGrowth.FrequentBinaryItemSet set = sets.next();
+      found.put(key(set.getItems()), set.getSupport());
+    }
+    assertTrue("Too few item sets: " + expected.size(), expected.size() > 1000);
+    assertEquals(expected, found);
+
+    int numRules = 0;
+    for (Set<Integer> set : expected.keySet()) {
+      Integer[] items = set.toArray(new Integer[set.size()]);
+      for (int mask = 1; mask < (1 << items.length) - 1; mask++) {
+        Set<Integer> premise = new TreeSet<Integer>();
+        for (int j = 0; j < items.length; j++) {
+          if ((mask & (1 << j)) != 0) {
+            premise.add(items[j]);
+          }
+        }
+        if ((double) expected.get(set) / expected.get(premise)
+          >= minConfidence) {
+          numRules++;
+        }
+      }
+    }
+
+    List<AssociationRule> rules = fp.getAssociationRules().getRules();
+    Set<String> distinct = new HashSet<String>();
+    for (AssociationRule rule : rules) {
+      ArrayList<Item> union = new ArrayList<Item>(rule.getPremise());
+      union.addAll(rule.getConsequence());
+      Set<Integer> premise = key(rule.getPremise());
+      Set<Integer> set = key(union);
+      assertEquals("Premise support of " + rule, expected.get(premise)
+        .intValue(), rule.getPremiseSupport());
+      assertEquals("Total support of " + rule, expected.get(set).intValue(),
+        rule.getTotalSupport());
+      assertTrue("Confidence of " + rule,
+        rule.getPrimaryMetricValue() >= minConfidence);
+      distinct.add(premise + " => " + key(rule.getConsequence()));
+    }
+    assertEquals(numRules, distinct.size());
+    assertEquals(numRules, rules.size());
+  }
+
+  /**
+   * Tests that mining the conditional trees concurrently finds the same item
+   * sets and rules as mining them sequentially.
+   */
+  public void testNumExecutionSlots() throws Exception {
+    Instances data = getTransactions();
+    // mine conditional trees of any size concurrently as well as only the
+    // larger ones, so that nested tasks get forked with this small data
+    int[] minParallelNodes = { 1, 1, 50 };
+    String[] sets = new String[minParallelNodes.length];
+    String[] rules = new String[minParallelNodes.length];
+    int numSets = 0;
+    for (int n = 0; n < minParallelNodes.length; n++) {
+      FPGrowth fp = new FPGrowth();
+      fp.setFindAllRulesForSupportLevel(true);
+      fp.setLowerBoundMinSupport(0.02);
+      fp.setMinMetric(0.5);
+      fp.setNumExecutionSlots(n == 0 ? 1 : 3);
+      fp.m_minParallelNodes = minParallelNodes[n];
+      fp.buildAssociations(data);
+      numSets = fp.m_largeItemSets.size();
+      sets[n] = fp.m_largeItemSets.toString(0);
+      rules[n] = fp.getAssociationRules().getRules().toString();
+    }
+
+    assertTrue("Too few item sets: " + numSets, numSets > 1000);
+    for (int n = 1; n < minParallelNodes.length; n++) {
+      assertEquals("item sets differ for minimum of " + minParallelNodes[n]
+        + " nodes", sets[0], sets[n]);
+      assertEquals("rules differ for minimum of " + minParallelNodes[n]
+        + " nodes", rules[0], rules[n]);
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(FPGrowthTest.class);
   }
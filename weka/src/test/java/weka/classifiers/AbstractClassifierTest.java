@@ -30,6 +30,7 @@ import weka.core.CheckOptionHandler;
 import weka.core.CheckScheme.PostProcessor;
 import weka.core.Instances;
 import weka.core.OptionHandler;
+import weka.core.ThreadSafe;
 import weka.test.Regression;
 
 /**
@@ -991,6 +992,73 @@ public abstract class AbstractClassifierTest extends TestCase {
     }
   }
 
+  /**
+   * Checks that batch predictions written into a given array match the
+   * predictions for single instances, also when thread safe classifiers are
+   * used from several threads at once.
+   */
+  public void testBatchPredictions() throws Exception {
+    if (!(m_Classifier instanceof AbstractClassifier)
+      || !(m_Classifier instanceof ThreadSafe)) {
+      return;
+    }
+
+    for (int i = FIRST_CLASSTYPE; i <= LAST_CLASSTYPE; i++) {
+      if (!canPredict(i)) {
+        continue;
+      }
+
+      Instances data = m_Tester.makeTestDataset(42, m_Tester.getNumInstances(),
+        m_NominalPredictors[i] ? m_Tester.getNumNominal() : 0,
+        m_NumericPredictors[i] ? m_Tester.getNumNumeric() : 0,
+        m_StringPredictors[i] ? m_Tester.getNumString() : 0,
+        m_DatePredictors[i] ? m_Tester.getNumDate() : 0,
+        m_RelationalPredictors[i] ? m_Tester.getNumRelational() : 0, 2, i,
+        m_multiInstanceHandler);
+      final AbstractClassifier classifier =
+        (AbstractClassifier) AbstractClassifier.makeCopy(m_Classifier);
+      classifier.buildClassifier(data);
+
+      final Instances batch = data;
+      double[][] expected = new double[batch.numInstances()][];
+      for (int j = 0; j < batch.numInstances(); j++) {
+        expected[j] = classifier.distributionForInstance(batch.instance(j));
+      }
+
+      final double[][][] dists = new double[4][batch.numInstances()][batch
+        .numClasses()];
+      final Exception[] errors = new Exception[dists.length];
+      Thread[] threads = new Thread[dists.length];
+      for (int t = 0; t < threads.length; t++) {
+        final int index = t;
+        threads[t] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              classifier.distributionsForInstances(batch, dists[index]);
+            } catch (Exception e) {
+              errors[index] = e;
+            }
+          }
+        };
+        threads[t].start();
+      }
+      for (int t = 0; t < threads.length; t++) {
+        threads[t].join();
+        if (errors[t] != null) {
+          throw errors[t];
+        }
+        for (int j = 0; j < batch.numInstances(); j++) {
+          for (int k = 0; k < expected[j].length; k++) {
+            assertEquals("Batch prediction differs (" + getClassTypeString(i)
+              + " class, instance " + j + ")", expected[j][k], dists[t][j][k],
+              1e-10);
+          }
+        }
+      }
+    }
+  }
+
   /**
    * tests the listing of the options
    */
@@ -21,11 +21,22 @@ package weka.classifiers.evaluation;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+import weka.classifiers.Classifier;
+import weka.classifiers.evaluation.output.prediction.AbstractOutput;
+import weka.classifiers.evaluation.output.prediction.PlainText;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.REPTree;
+import weka.core.Attribute;
+import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.TestInstances;
 
 /**
  * Tests Evaluation. So far just does a simple regression test for
@@ -80,6 +91,173 @@ public class EvaluationTest extends TestCase {
     }
   }
 
+  /**
+   * Runs a cross-validation with the given number of execution slots.
+   *
+   * @param cls the classifier to cross-validate
+   * @param data the data to use
+   * @param numSlots the number of execution slots
+   * @param forPrinting the buffer for the models or the output for the
+   *          predictions
+   * @return the evaluation
+   * @throws Exception if the cross-validation fails
+   */
+  protected Evaluation crossValidate(Classifier cls, Instances data,
+    int numSlots, Object forPrinting) throws Exception {
+    Evaluation eval = new Evaluation(data);
+    eval.setNumExecutionSlots(numSlots);
+    eval.crossValidateModel(cls, data, 10, new Random(42), forPrinting);
+    return eval;
+  }
+
+  /**
+   * Returns an output that prints the predictions into a buffer.
+   *
+   * @param data the data the predictions are made for
+   * @return the output
+   */
+  protected AbstractOutput predictionOutput(Instances data) {
+    AbstractOutput output = new PlainText();
+    output.setHeader(data);
+    output.setBuffer(new StringBuffer());
+    return output;
+  }
+
+  /**
+   * Checks that the results of a cross-validation are identical for any
+   * number of execution slots.
+   *
+   * @param cls the classifier to cross-validate
+   * @param classType the type of the class attribute
+   * @throws Exception if the test fails
+   */
+  protected void checkParallelCrossValidation(Classifier cls, int classType)
+    throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(200);
+    test.setClassType(classType);
+    Instances data = test.generate();
+
+    StringBuffer models = new StringBuffer();
+    Evaluation sequential = crossValidate(cls, data, 1, models);
+    AbstractOutput output = predictionOutput(data);
+    crossValidate(cls, data, 1, output);
+
+    for (int numSlots : new int[] { 2, 3, 4, 0 }) {
+      StringBuffer parallelModels = new StringBuffer();
+      Evaluation parallel = crossValidate(cls, data, numSlots, parallelModels);
+      assertEquals("summary differs for " + numSlots + " slots",
+        sequential.toSummaryString(), parallel.toSummaryString());
+      assertEquals("error differs for " + numSlots + " slots",
+        sequential.rootMeanSquaredError(), parallel.rootMeanSquaredError());
+      assertEquals("correct differs for " + numSlots + " slots",
+        sequential.correct(), parallel.correct());
+      assertEquals("models differ for " + numSlots + " slots",
+        models.toString(), parallelModels.toString());
+      assertEquals("number of predictions differs for " + numSlots + " slots",
+        sequential.predictions().size(), parallel.predictions().size());
+      for (int i = 0; i < sequential.predictions().size(); i++) {
+        assertEquals("prediction differs for " + numSlots + " slots",
+          sequential.predictions().get(i).predicted(),
+          parallel.predictions().get(i).predicted());
+      }
+
+      AbstractOutput parallelOutput = predictionOutput(data);
+      crossValidate(cls, data, numSlots, parallelOutput);
+      assertEquals("output differs for " + numSlots + " slots",
+        output.getBuffer().toString(),
+        parallelOutput.getBuffer().toString());
+    }
+  }
+
+  /**
+   * Tests cross-validation in parallel with a nominal class.
+   */
+  public void testParallelCrossValidationNominal() throws Exception {
+    checkParallelCrossValidation(new J48(), Attribute.NOMINAL);
+  }
+
+  /**
+   * Tests cross-validation in parallel with a numeric class.
+   */
+  public void testParallelCrossValidationNumeric() throws Exception {
+    checkParallelCrossValidation(new REPTree(), Attribute.NUMERIC);
+  }
+
+  /**
+   * A plugin metric that sums the weights of the predictions it sees.
+   */
+  protected static class CountingMetric extends AbstractEvaluationMetric
+    implements StandardEvaluationMetric {
+
+    private static final long serialVersionUID = -3522296546185765380L;
+
+    protected double m_Count;
+
+    public boolean appliesToNominalClass() {
+      return true;
+    }
+
+    public boolean appliesToNumericClass() {
+      return true;
+    }
+
+    public String getMetricName() {
+      return "Count";
+    }
+
+    public String getMetricDescription() {
+      return "The sum of the weights of the predictions.";
+    }
+
+    public List<String> getStatisticNames() {
+      List<String> names = new ArrayList<String>();
+      names.add("count");
+      return names;
+    }
+
+    public double getStatistic(String name) {
+      return m_Count;
+    }
+
+    public boolean statisticIsMaximisable(String statName) {
+      return false;
+    }
+
+    public String toSummaryString() {
+      return "Count " + m_Count + "\n";
+    }
+
+    public void updateStatsForClassifier(double[] predictedDistribution,
+      Instance instance) {
+      m_Count += instance.weight();
+    }
+
+    public void updateStatsForPredictor(double predictedValue,
+      Instance instance) {
+      m_Count += instance.weight();
+    }
+  }
+
+  /**
+   * Tests that plugin metrics are updated for every prediction when the
+   * number of execution slots is not 1.
+   */
+  public void testParallelCrossValidationPluginMetrics() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(200);
+    Instances data = test.generate();
+
+    Evaluation eval = new Evaluation(data);
+    CountingMetric metric = new CountingMetric();
+    metric.setBaseEvaluation(eval);
+    eval.m_pluginMetrics = new ArrayList<AbstractEvaluationMetric>();
+    eval.m_pluginMetrics.add(metric);
+    eval.setNumExecutionSlots(3);
+    eval.crossValidateModel(new J48(), data, 10, new Random(42));
+    assertEquals(data.sumOfWeights(), metric.getStatistic("count"), 1e-10);
+  }
+
   public static Test suite() {
     return new TestSuite(weka.classifiers.evaluation.EvaluationTest.class);
   }
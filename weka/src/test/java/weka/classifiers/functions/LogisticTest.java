@@ -21,6 +21,8 @@ package weka.classifiers.functions;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +43,116 @@ public class LogisticTest extends AbstractClassifierTest {
     return new Logistic();
   }
 
+  /**
+   * Tests that the model does not depend on the number of threads used to
+   * evaluate the log-likelihood, using enough instances for several data
+   * partitions.
+   */
+  public void testNumThreads() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(5000);
+    test.setNumNominal(2);
+    test.setNumNumeric(4);
+    test.setNumClasses(3);
+    test.setSeed(42);
+    Instances data = test.generate();
+
+    String[] models = new String[2];
+    double[][] dists = new double[2][];
+    for (int n = 0; n < 2; n++) {
+      Logistic logistic = new Logistic();
+      logistic.setNumThreads(n == 0 ? 1 : 3);
+      logistic.buildClassifier(data);
+      models[n] = logistic.toString();
+      dists[n] = logistic.distributionForInstance(data.instance(0));
+    }
+
+    assertEquals(models[0], models[1]);
+    for (int i = 0; i < dists[0].length; i++) {
+      assertEquals(dists[0][i], dists[1][i], 0.0);
+    }
+  }
+
+  /**
+   * Tests that limited-memory BFGS updates find the same model as BFGS
+   * updates.
+   */
+  public void testLBFGS() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(500);
+    test.setNumNominal(3);
+    test.setNumNumeric(10);
+    test.setNumClasses(3);
+    test.setSeed(1);
+    Instances data = test.generate();
+
+    Logistic bfgs = new Logistic();
+    bfgs.setRidge(1);
+    bfgs.buildClassifier(data);
+    Logistic lbfgs = new Logistic();
+    lbfgs.setRidge(1);
+    lbfgs.setUseLBFGS(true);
+    lbfgs.buildClassifier(data);
+
+    assertEquals(bfgs.m_LL, lbfgs.m_LL, 1e-4);
+    for (int i = 0; i < data.numInstances(); i++) {
+      double[] expected = bfgs.distributionForInstance(data.instance(i));
+      double[] actual = lbfgs.distributionForInstance(data.instance(i));
+      for (int j = 0; j < expected.length; j++) {
+        assertEquals(expected[j], actual[j], 1e-4);
+      }
+    }
+  }
+
+  /**
+   * Tests that storing the data matrix in many small blocks, as done when it
+   * holds more values than fit into one array, results in the same model as
+   * storing it in one block.
+   */
+  public void testDataBlocks() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(2000);
+    test.setNumNominal(2);
+    test.setNumNumeric(4);
+    test.setNumClasses(3);
+    test.setSeed(7);
+    Instances data = test.generate();
+
+    Logistic single = new Logistic();
+    single.buildClassifier(data);
+    for (final int blockSize : new int[] { 50, 1000 }) {
+      Logistic blocks = new Logistic() {
+        @Override
+        protected int maxBlockSize() {
+          return blockSize;
+        }
+      };
+      blocks.setNumThreads(3);
+      blocks.buildClassifier(data);
+      assertEquals(single.toString(), blocks.toString());
+      for (int i = 0; i < data.numInstances(); i++) {
+        double[] expected = single.distributionForInstance(data.instance(i));
+        double[] actual = blocks.distributionForInstance(data.instance(i));
+        for (int j = 0; j < expected.length; j++) {
+          assertEquals(expected[j], actual[j], 0.0);
+        }
+      }
+    }
+
+    Logistic tooSmall = new Logistic() {
+      @Override
+      protected int maxBlockSize() {
+        return 2;
+      }
+    };
+    try {
+      tooSmall.buildClassifier(data);
+      fail("Building with blocks smaller than a row should fail");
+    } catch (Exception e) {
+      // expected
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(LogisticTest.class);
   }
@@ -21,6 +21,9 @@ package weka.classifiers.functions;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -46,6 +49,53 @@ public class SGDTest extends AbstractClassifierTest {
     return p;
   }
 
+  /**
+   * Tests that training with several threads gives a reproducible model with
+   * mini-batch averaging, and that both parallel modes mostly agree with the
+   * sequential model.
+   */
+  public void testNumThreads() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(3000);
+    test.setNumNominal(2);
+    test.setNumNumeric(8);
+    test.setNumClasses(2);
+    test.setSeed(7);
+    Instances data = test.generate();
+
+    SGD[] models = new SGD[4];
+    for (int n = 0; n < models.length; n++) {
+      models[n] = new SGD();
+      models[n].setEpochs(10);
+      models[n].setLossFunction(new SelectedTag(SGD.LOGLOSS,
+        SGD.TAGS_SELECTION));
+      models[n].setNumThreads(n == 0 ? 1 : 3);
+      models[n].setMiniBatchSize(100);
+      models[n].setParallelMode(new SelectedTag(n == 3
+        ? SGD.PARALLEL_ASYNCHRONOUS : SGD.PARALLEL_MINI_BATCH,
+        SGD.TAGS_PARALLEL_MODE));
+      models[n].buildClassifier(data);
+    }
+
+    double[] w1 = models[1].getWeights();
+    double[] w2 = models[2].getWeights();
+    for (int j = 0; j < w1.length; j++) {
+      assertEquals(w1[j], w2[j], 0);
+    }
+
+    for (int n = 1; n < models.length; n += 2) {
+      int agree = 0;
+      for (int i = 0; i < data.numInstances(); i++) {
+        if (models[0].classifyInstance(data.instance(i))
+          == models[n].classifyInstance(data.instance(i))) {
+          agree++;
+        }
+      }
+      assertTrue("model " + n + " agrees on " + agree + " instances",
+        agree >= 0.9 * data.numInstances());
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(SGDTest.class);
   }
@@ -21,6 +21,9 @@ package weka.classifiers.functions;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -44,6 +47,38 @@ public class SGDTextTest extends AbstractClassifierTest {
     return p;
   }
 
+  /**
+   * Tests that training with several threads and mini-batch averaging gives a
+   * reproducible model, and that asynchronous training builds a model.
+   */
+  public void testNumThreads() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(2000);
+    test.setNumNominal(0);
+    test.setNumNumeric(0);
+    test.setNumString(1);
+    test.setNumClasses(2);
+    test.setSeed(5);
+    Instances data = test.generate();
+
+    String[] models = new String[3];
+    for (int n = 0; n < models.length; n++) {
+      SGDText sgd = new SGDText();
+      sgd.setEpochs(5);
+      sgd.setNumThreads(3);
+      sgd.setMiniBatchSize(100);
+      sgd.setNormalizeDocLength(true);
+      sgd.setParallelMode(new SelectedTag(n == 2
+        ? SGD.PARALLEL_ASYNCHRONOUS : SGD.PARALLEL_MINI_BATCH,
+        SGD.TAGS_PARALLEL_MODE));
+      sgd.buildClassifier(data);
+      models[n] = sgd.toString();
+      sgd.distributionForInstance(data.instance(0));
+    }
+
+    assertEquals(models[0], models[1]);
+  }
+
   public static Test suite() {
     return new TestSuite(SGDTextTest.class);
   }
@@ -21,6 +21,9 @@ package weka.classifiers.functions;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.classifiers.functions.supportVector.RBFKernel;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +44,75 @@ public class SMOTest extends AbstractClassifierTest {
     return new SMO();
   }
 
+  /**
+   * Tests that building the pairwise models concurrently, with their cache
+   * sizes divided among them, gives the same predictions.
+   */
+  public void testNumExecutionSlots() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(300);
+    test.setNumNominal(0);
+    test.setNumNumeric(5);
+    test.setNumClasses(6);
+    test.setSeed(3);
+    Instances data = test.generate();
+
+    double[][][] dists = new double[2][data.numInstances()][];
+    for (int n = 0; n < 2; n++) {
+      SMO smo = new SMO();
+      RBFKernel kernel = new RBFKernel();
+      kernel.setCacheSize(1009);
+      smo.setKernel(kernel);
+      smo.setBuildCalibrationModels(true);
+      smo.setNumFolds(3);
+      smo.setNumExecutionSlots(n == 0 ? 1 : 4);
+      smo.buildClassifier(data);
+      for (int i = 0; i < data.numInstances(); i++) {
+        dists[n][i] = smo.distributionForInstance(data.instance(i));
+      }
+    }
+
+    for (int i = 0; i < data.numInstances(); i++) {
+      for (int j = 0; j < dists[0][i].length; j++) {
+        assertEquals(dists[0][i][j], dists[1][i][j], 1e-6);
+      }
+    }
+  }
+
+  public void testSecondOrderSolver() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(400);
+    test.setNumNominal(0);
+    test.setNumNumeric(5);
+    test.setNumClasses(3);
+    test.setSeed(5);
+    Instances data = test.generate();
+
+    // both solvers stop within the same tolerance of the optimum
+    for (int k = 0; k < 2; k++) {
+      SMO[] smos = new SMO[2];
+      for (int n = 0; n < 2; n++) {
+        smos[n] = new SMO();
+        if (k == 1) {
+          smos[n].setKernel(new RBFKernel());
+        }
+        smos[n].setC(10);
+        smos[n].setUseSecondOrderSolver(n == 1);
+        smos[n].buildClassifier(data);
+      }
+      for (int i = 0; i < data.numClasses(); i++) {
+        for (int j = i + 1; j < data.numClasses(); j++) {
+          for (int m = 0; m < data.numInstances(); m++) {
+            assertEquals(
+              smos[0].m_classifiers[i][j].SVMOutput(-1, data.instance(m)),
+              smos[1].m_classifiers[i][j].SVMOutput(-1, data.instance(m)),
+              1e-2);
+          }
+        }
+      }
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(SMOTest.class);
   }
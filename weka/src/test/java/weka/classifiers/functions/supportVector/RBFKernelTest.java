@@ -19,8 +19,12 @@
 
 package weka.classifiers.functions.supportVector;
 
+import java.util.Random;
+
 import weka.classifiers.functions.supportVector.AbstractKernelTest;
 import weka.classifiers.functions.supportVector.Kernel;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -44,6 +48,40 @@ public class RBFKernelTest
     return new RBFKernel();
   }
 
+  /**
+   * Tests that a row cache holding only a few rows returns the same values
+   * as the uncached kernel, and that its counters add up.
+   */
+  public void testRowCache() throws Exception {
+    TestInstances gen = new TestInstances();
+    gen.setNumInstances(200);
+    gen.setNumNumeric(5);
+    gen.setNumNominal(0);
+    Instances data = gen.generate();
+
+    // room for 4 rows of 200 values
+    RBFKernel cached = new RBFKernel(data, 100, 0.1);
+    RBFKernel uncached = new RBFKernel(data, -1, 0.1);
+    Random random = new Random(1);
+    int numLookups = 0;
+    for (int n = 0; n < 2000; n++) {
+      int id1 = random.nextInt(10);
+      int id2 = random.nextInt(data.numInstances());
+      for (int i = 0; i < 3; i++) {
+        assertEquals(uncached.eval(id1, id2, data.instance(id1)),
+          cached.eval(id1, id2, data.instance(id1)), 1e-12);
+        assertEquals(uncached.eval(id2, id1, data.instance(id2)),
+          cached.eval(id2, id1, data.instance(id2)), 1e-12);
+        numLookups += 2;
+      }
+    }
+
+    assertTrue("No cache hits", cached.numCacheHits() > 0);
+    assertTrue("No evictions", cached.numCacheEvictions() > 0);
+    assertEquals(cached.numEvals(), cached.numCacheMisses());
+    assertEquals(numLookups, cached.numCacheHits() + cached.numCacheMisses());
+  }
+
   public static Test suite() {
     return new TestSuite(RBFKernelTest.class);
   }
@@ -19,8 +19,15 @@
 
 package weka.classifiers.lazy;
 
+import java.util.ArrayList;
+import java.util.Random;
+
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.SelectedTag;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +48,122 @@ public class IBkTest extends AbstractClassifierTest {
     return new IBk();
   }
 
+  /**
+   * Generates data with two numeric attributes and a nominal class.
+   *
+   * @param numInstances the number of instances to generate
+   * @param offset the value added to the numeric attributes
+   * @param step the value the numeric attributes grow by per instance
+   * @param seed the seed for the random values
+   * @return the generated data
+   */
+  protected Instances getData(int numInstances, double offset, double step,
+    long seed) {
+    ArrayList<String> labels = new ArrayList<String>();
+    labels.add("a");
+    labels.add("b");
+    ArrayList<Attribute> atts = new ArrayList<Attribute>();
+    atts.add(new Attribute("x"));
+    atts.add(new Attribute("y"));
+    atts.add(new Attribute("class", labels));
+    Instances data = new Instances("ranges", atts, numInstances);
+    data.setClassIndex(data.numAttributes() - 1);
+    Random random = new Random(seed);
+    for (int i = 0; i < numInstances; i++) {
+      double x = offset + i * step + random.nextDouble();
+      double y = offset + i * step + random.nextDouble();
+      double label = (x + y * random.nextDouble() > offset + i * step) ? 0 : 1;
+      data.add(new DenseInstance(1.0, new double[] { x, y, label }));
+    }
+
+    return data;
+  }
+
+  /**
+   * Tests that classifying a batch gives the same distributions as
+   * classifying its instances one at a time, also when the instances lie
+   * outside the ranges of the training data and each one widens them.
+   */
+  public void testBatchPrediction() throws Exception {
+    Instances train = getData(200, 0, 0, 1);
+    Instances[] tests = new Instances[] { new Instances(train, 0, 50),
+      getData(50, 2, 0.5, 3) };
+
+    for (Instances test : tests) {
+      IBk batch = new IBk(5);
+      batch.setDistanceWeighting(new SelectedTag(IBk.WEIGHT_INVERSE,
+        IBk.TAGS_WEIGHTING));
+      batch.buildClassifier(train);
+      IBk single = new IBk(5);
+      single.setDistanceWeighting(new SelectedTag(IBk.WEIGHT_INVERSE,
+        IBk.TAGS_WEIGHTING));
+      single.buildClassifier(train);
+
+      double[][] dists = new double[test.numInstances()][test.numClasses()];
+      batch.distributionsForInstances(test, dists);
+      for (int i = 0; i < test.numInstances(); i++) {
+        double[] expected = single.distributionForInstance(test.instance(i));
+        for (int j = 0; j < expected.length; j++) {
+          assertEquals("Distribution of instance " + i + " differs",
+            expected[j], dists[i][j], 0.0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that one model scoring batches from several threads at once gives
+   * the same distributions as scoring the batches one after another.
+   */
+  public void testConcurrentBatchPrediction() throws Exception {
+    Instances train = getData(500, 0, 0, 1);
+    final IBk classifier = new IBk(5);
+    classifier.setDistanceWeighting(new SelectedTag(IBk.WEIGHT_INVERSE,
+      IBk.TAGS_WEIGHTING));
+    classifier.buildClassifier(train);
+
+    final Instances[] tests = new Instances[4];
+    double[][][] expected = new double[tests.length][][];
+    for (int t = 0; t < tests.length; t++) {
+      tests[t] = new Instances(train, t * 100, 100);
+      expected[t] = new double[tests[t].numInstances()][tests[t].numClasses()];
+      classifier.distributionsForInstances(tests[t], expected[t]);
+    }
+
+    final double[][][] dists = new double[tests.length][][];
+    final Exception[] errors = new Exception[tests.length];
+    Thread[] threads = new Thread[tests.length];
+    for (int t = 0; t < threads.length; t++) {
+      final int index = t;
+      dists[t] = new double[tests[t].numInstances()][tests[t].numClasses()];
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int n = 0; n < 10; n++) {
+              classifier.distributionsForInstances(tests[index], dists[index]);
+            }
+          } catch (Exception e) {
+            errors[index] = e;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (int t = 0; t < threads.length; t++) {
+      threads[t].join();
+      if (errors[t] != null) {
+        throw errors[t];
+      }
+      for (int i = 0; i < expected[t].length; i++) {
+        for (int j = 0; j < expected[t][i].length; j++) {
+          assertEquals("Distribution of instance " + i + " in batch " + t
+            + " differs", expected[t][i][j], dists[t][i][j], 0.0);
+        }
+      }
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(IBkTest.class);
   }
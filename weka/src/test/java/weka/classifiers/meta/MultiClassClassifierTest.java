@@ -21,6 +21,12 @@ package weka.classifiers.meta;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.classifiers.functions.SMO;
+import weka.classifiers.functions.supportVector.CachedKernel;
+import weka.classifiers.functions.supportVector.RBFKernel;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +47,64 @@ public class MultiClassClassifierTest extends AbstractClassifierTest {
     return new MultiClassClassifier();
   }
 
+  /**
+   * Checks that building the base classifiers concurrently gives the same
+   * predictions as building them one after the other, and that the kernel
+   * caches of the base classifiers are divided among the concurrent builds.
+   *
+   * @param method the method for turning the problem into binary ones
+   * @throws Exception if the test fails
+   */
+  protected void checkNumExecutionSlots(int method) throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(300);
+    test.setNumNominal(0);
+    test.setNumNumeric(5);
+    test.setNumClasses(5);
+    test.setSeed(7);
+    Instances data = test.generate();
+
+    double[][][] dists = new double[2][data.numInstances()][];
+    for (int n = 0; n < 2; n++) {
+      SMO smo = new SMO();
+      RBFKernel kernel = new RBFKernel();
+      kernel.setCacheSize(1009);
+      smo.setKernel(kernel);
+      MultiClassClassifier mcc = new MultiClassClassifier();
+      mcc.setClassifier(smo);
+      mcc.setMethod(new SelectedTag(method, MultiClassClassifier.TAGS_METHOD));
+      mcc.setNumExecutionSlots(n == 0 ? 1 : 4);
+      mcc.buildClassifier(data);
+      for (Classifier base : mcc.m_Classifiers) {
+        assertEquals("cache size", (n == 0) ? 1009 : 1009 / 4,
+          ((CachedKernel) ((SMO) base).getKernel()).getCacheSize());
+      }
+      for (int i = 0; i < data.numInstances(); i++) {
+        dists[n][i] = mcc.distributionForInstance(data.instance(i));
+      }
+    }
+
+    for (int i = 0; i < data.numInstances(); i++) {
+      for (int j = 0; j < dists[0][i].length; j++) {
+        assertEquals(dists[0][i][j], dists[1][i][j], 1e-6);
+      }
+    }
+  }
+
+  /**
+   * Tests building the pairwise classifiers of 1-against-1 concurrently.
+   */
+  public void testNumExecutionSlotsOneAgainstOne() throws Exception {
+    checkNumExecutionSlots(MultiClassClassifier.METHOD_1_AGAINST_1);
+  }
+
+  /**
+   * Tests building the classifiers of an error correcting code concurrently.
+   */
+  public void testNumExecutionSlotsErrorCorrectingCode() throws Exception {
+    checkNumExecutionSlots(MultiClassClassifier.METHOD_ERROR_EXHAUSTIVE);
+  }
+
   public static Test suite() {
     return new TestSuite(MultiClassClassifierTest.class);
   }
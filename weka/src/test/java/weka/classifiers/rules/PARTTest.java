@@ -19,8 +19,14 @@
 
 package weka.classifiers.rules;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +47,73 @@ public class PARTTest extends AbstractClassifierTest {
     return new PART();
   }
 
+  /**
+   * Builds PART on the data with one and with several threads and checks
+   * that the rules and the predictions are the same.
+   *
+   * @param data the data to build PART on
+   * @throws Exception if the test fails
+   */
+  protected void checkParallelBuild(Instances data) throws Exception {
+    PART sequential = new PART();
+    sequential.buildClassifier(new Instances(data));
+    PART parallel = new PART();
+    parallel.setNumThreads(4);
+    parallel.buildClassifier(new Instances(data));
+    assertEquals(sequential.toString(), parallel.toString());
+    for (Instance inst : data) {
+      assertTrue(Arrays.equals(sequential.distributionForInstance(inst),
+        parallel.distributionForInstance(inst)));
+    }
+  }
+
+  /**
+   * Tests that building the rules with several threads results in the same
+   * model as building them with one. All weights are integral and no values
+   * are missing, so the split models are built concurrently.
+   *
+   * @throws Exception if the test fails
+   */
+  public void testParallelBuild() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(8000);
+    test.setNumNominal(2);
+    test.setNumNumeric(6);
+    test.setSeed(5);
+    Instances data = test.generate();
+    Random random = new Random(1);
+    for (Instance inst : data) {
+      inst.setWeight(1 + random.nextInt(3));
+    }
+
+    checkParallelBuild(data);
+  }
+
+  /**
+   * Tests that building the rules with several threads results in the same
+   * model as building them with one also with fractional weights and missing
+   * values, where the order in which weights are summed matters.
+   *
+   * @throws Exception if the test fails
+   */
+  public void testParallelBuildFractional() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(8000);
+    test.setNumNominal(2);
+    test.setNumNumeric(6);
+    test.setSeed(5);
+    Instances data = test.generate();
+    Random random = new Random(1);
+    for (Instance inst : data) {
+      inst.setWeight(0.1 + 3 * random.nextDouble());
+      if (random.nextDouble() < 0.05) {
+        inst.setMissing(random.nextInt(data.numAttributes() - 1));
+      }
+    }
+
+    checkParallelBuild(data);
+  }
+
   public static Test suite() {
     return new TestSuite(PARTTest.class);
   }
@@ -21,6 +21,8 @@ package weka.classifiers.trees;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +43,30 @@ public class J48Test extends AbstractClassifierTest {
     return new J48();
   }
 
+  /**
+   * Tests that building the tree with several threads results in the same
+   * tree as building it with one.
+   *
+   * @throws Exception if the test fails
+   */
+  public void testParallelBuild() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(5000);
+    test.setNumNominal(2);
+    test.setNumNumeric(6);
+    Instances data = test.generate();
+    for (boolean binarySplits : new boolean[] { false, true }) {
+      J48 sequential = new J48();
+      sequential.setBinarySplits(binarySplits);
+      sequential.buildClassifier(new Instances(data));
+      J48 parallel = new J48();
+      parallel.setBinarySplits(binarySplits);
+      parallel.setNumThreads(4);
+      parallel.buildClassifier(new Instances(data));
+      assertEquals(sequential.toString(), parallel.toString());
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(J48Test.class);
   }
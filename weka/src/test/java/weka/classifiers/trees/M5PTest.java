@@ -21,6 +21,9 @@ package weka.classifiers.trees;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +44,27 @@ public class M5PTest extends AbstractClassifierTest {
     return new M5P();
   }
 
+  /**
+   * Tests that building the tree with several threads results in the same
+   * tree as building it with one.
+   *
+   * @throws Exception if the test fails
+   */
+  public void testParallelBuild() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(5000);
+    test.setNumNominal(2);
+    test.setNumNumeric(6);
+    test.setClassType(Attribute.NUMERIC);
+    Instances data = test.generate();
+    M5P sequential = new M5P();
+    sequential.buildClassifier(new Instances(data));
+    M5P parallel = new M5P();
+    parallel.setNumThreads(4);
+    parallel.buildClassifier(new Instances(data));
+    assertEquals(sequential.toString(), parallel.toString());
+  }
+
   public static Test suite() {
     return new TestSuite(M5PTest.class);
   }
@@ -21,6 +21,9 @@ package weka.classifiers.trees;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +44,85 @@ public class REPTreeTest extends AbstractClassifierTest {
     return new REPTree();
   }
 
+  /**
+   * Generates data whose numeric attributes have few distinct values and
+   * some missing values.
+   *
+   * @param classType the type of the class
+   * @return the data
+   * @throws Exception if generation fails
+   */
+  protected Instances getBinnableData(int classType) throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(500);
+    test.setNumNominal(1);
+    test.setNumNumeric(4);
+    test.setClassType(classType);
+    test.setClassIndex(TestInstances.CLASS_IS_LAST);
+    Instances data = test.generate();
+    for (int i = 0; i < data.numInstances(); i++) {
+      for (int j = 0; j < data.numAttributes(); j++) {
+        if ((j != data.classIndex()) && data.attribute(j).isNumeric()) {
+          if ((i + j) % 23 == 0) {
+            data.instance(i).setMissing(j);
+          } else {
+            data.instance(i).setValue(j,
+              Math.round(data.instance(i).value(j) * 10) % 40);
+          }
+        }
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Tests that binning numeric attributes with no more distinct values than
+   * bins results in the same tree as the exact search.
+   *
+   * @throws Exception if the test fails
+   */
+  public void testBinnedSplitPoints() throws Exception {
+    for (int classType : new int[] { Attribute.NOMINAL, Attribute.NUMERIC }) {
+      Instances data = getBinnableData(classType);
+      REPTree exact = new REPTree();
+      exact.buildClassifier(data);
+      REPTree binned = new REPTree();
+      binned.setNumBins(255);
+      binned.buildClassifier(data);
+      assertEquals(exact.toString(), binned.toString());
+
+      // Fewer bins than values still result in a usable tree
+      binned.setNumBins(4);
+      binned.buildClassifier(data);
+      for (int i = 0; i < data.numInstances(); i++) {
+        binned.distributionForInstance(data.instance(i));
+      }
+    }
+  }
+
+  /**
+   * Tests that building the tree with several threads results in the same
+   * tree as building it with one.
+   *
+   * @throws Exception if the test fails
+   */
+  public void testParallelBuild() throws Exception {
+    for (int classType : new int[] { Attribute.NOMINAL, Attribute.NUMERIC }) {
+      TestInstances test = new TestInstances();
+      test.setNumInstances(5000);
+      test.setNumNominal(2);
+      test.setNumNumeric(6);
+      test.setClassType(classType);
+      Instances data = test.generate();
+      REPTree sequential = new REPTree();
+      sequential.buildClassifier(data);
+      REPTree parallel = new REPTree();
+      parallel.setNumThreads(4);
+      parallel.buildClassifier(data);
+      assertEquals(sequential.toString(), parallel.toString());
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(REPTreeTest.class);
   }
@@ -21,6 +21,9 @@ package weka.classifiers.trees;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -44,6 +47,30 @@ public class RandomTreeTest
     return new RandomTree();
   }
 
+  /**
+   * Tests that the tree built with several threads does not depend on the
+   * number of threads.
+   *
+   * @throws Exception if the test fails
+   */
+  public void testParallelBuild() throws Exception {
+    for (int classType : new int[] { Attribute.NOMINAL, Attribute.NUMERIC }) {
+      TestInstances test = new TestInstances();
+      test.setNumInstances(5000);
+      test.setNumNominal(2);
+      test.setNumNumeric(6);
+      test.setClassType(classType);
+      Instances data = test.generate();
+      RandomTree two = new RandomTree();
+      two.setNumThreads(2);
+      two.buildClassifier(data);
+      RandomTree four = new RandomTree();
+      four.setNumThreads(4);
+      four.buildClassifier(data);
+      assertEquals(two.toString(), four.toString());
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(RandomTreeTest.class);
   }
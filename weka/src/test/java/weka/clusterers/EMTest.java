@@ -21,6 +21,8 @@ package weka.clusterers;
 
 import weka.clusterers.AbstractClustererTest;
 import weka.clusterers.Clusterer;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -44,6 +46,31 @@ public class EMTest
     return new EM();
   }
 
+  /**
+   * Tests that the clusters do not depend on the number of execution slots,
+   * using enough instances for several partitions in the E and M steps.
+   */
+  public void testNumExecutionSlots() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumInstances(3000);
+    test.setNumNominal(2);
+    test.setNumNumeric(4);
+    test.setClassIndex(TestInstances.NO_CLASS);
+    test.setSeed(11);
+    Instances data = test.generate();
+
+    String[] models = new String[2];
+    for (int n = 0; n < 2; n++) {
+      EM em = new EM();
+      em.setNumClusters(3);
+      em.setNumExecutionSlots(n == 0 ? 1 : 3);
+      em.buildClusterer(data);
+      models[n] = em.toString();
+    }
+
+    assertEquals(models[0], models[1]);
+  }
+
   public static Test suite() {
     return new TestSuite(EMTest.class);
   }
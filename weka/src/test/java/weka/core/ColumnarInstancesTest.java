@@ -0,0 +1,277 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.DecisionStump;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Tests ColumnarInstances. Run from the command line with:<p/>
+ * java weka.core.ColumnarInstancesTest
+ *
+ * @version $Revision$
+ */
+public class ColumnarInstancesTest
+  extends TestCase {
+
+  /** the row-based test instances. */
+  protected Instances m_Instances;
+
+  /** the same instances, stored column-wise. */
+  protected ColumnarInstances m_Columnar;
+
+  /**
+   * Constructs the <code>ColumnarInstancesTest</code>.
+   *
+   * @param name 	the name of the test
+   */
+  public ColumnarInstancesTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception 	if an error occurs
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_Instances = DataSource.read(ClassLoader.getSystemResourceAsStream("weka/core/data/InstancesTest.arff"));
+    // the columnar data is always dense
+    for (int i = 0; i < m_Instances.numInstances(); i++)
+      m_Instances.set(i, new DenseInstance(m_Instances.instance(i)));
+    m_Instances.instance(3).setWeight(2.5);
+    m_Columnar  = new ColumnarInstances(m_Instances);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception 	if an error occurs
+   */
+  protected void tearDown() throws Exception {
+    m_Instances = null;
+    m_Columnar  = null;
+
+    super.tearDown();
+  }
+
+  /**
+   * Returns the test suite.
+   *
+   * @return		the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(ColumnarInstancesTest.class);
+  }
+
+  /**
+   * Generates a dataset with missing values and weights for the classifier
+   * tests.
+   *
+   * @param classType	the type of the class attribute
+   * @return		the generated data
+   * @throws Exception	if generation fails
+   */
+  protected Instances generate(int classType) throws Exception {
+    TestInstances	test;
+    Instances		result;
+
+    test = new TestInstances();
+    test.setNumInstances(200);
+    test.setNumNominal(3);
+    test.setNumNumeric(3);
+    test.setClassType(classType);
+    test.setClassIndex(TestInstances.CLASS_IS_LAST);
+    result = test.generate();
+    // some missing values and weights
+    Random rand = new Random(1);
+    for (int i = 0; i < result.numInstances(); i++) {
+      if (rand.nextInt(10) == 0)
+	result.instance(i).setMissing(rand.nextInt(result.numAttributes()));
+      result.instance(i).setWeight(1 + rand.nextInt(3));
+    }
+
+    return result;
+  }
+
+  /**
+   * Tests whether the copy holds the same values and weights.
+   */
+  public void testCopy() {
+    assertEquals("# of instances differ", m_Instances.numInstances(), m_Columnar.numInstances());
+    assertEquals("# of attributes differ", m_Instances.numAttributes(), m_Columnar.numAttributes());
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      assertEquals("weight differs", m_Instances.instance(i).weight(), m_Columnar.weights()[i]);
+      for (int n = 0; n < m_Instances.numAttributes(); n++) {
+	double expected = m_Instances.instance(i).value(n);
+	double actual   = m_Columnar.column(n)[i];
+	assertTrue("value differs at " + i + "/" + n,
+	    (Utils.isMissingValue(expected) && Utils.isMissingValue(actual)) || (expected == actual));
+      }
+    }
+    assertEquals("string representation differs", m_Instances.toString(), m_Columnar.toString());
+    assertEquals("row-based copy differs", m_Instances.toString(), new Instances(m_Columnar).toString());
+  }
+
+  /**
+   * Tests whether changes through a view end up in the columns.
+   */
+  public void testViewsWriteThrough() {
+    Instance	inst;
+
+    inst = m_Columnar.instance(2);
+    inst.setValue(2, 42.0);
+    inst.setWeight(3.0);
+    inst.setValue(1, "g");
+    assertEquals("value not written", 42.0, m_Columnar.column(2)[2]);
+    assertEquals("weight not written", 3.0, m_Columnar.weights()[2]);
+    assertEquals("nominal value not written", "g", m_Columnar.instance(2).stringValue(1));
+
+    inst = (Instance) m_Columnar.instance(2).copy();
+    assertTrue("copy is not detached", inst instanceof DenseInstance);
+    inst.setValue(2, 1.0);
+    assertEquals("copy is not detached", 42.0, m_Columnar.column(2)[2]);
+  }
+
+  /**
+   * Tests the attribute statistics, which are computed from the columns.
+   */
+  public void testAttributeStats() {
+    for (int i = 0; i < m_Instances.numAttributes(); i++) {
+      assertEquals("stats differ for attribute " + i,
+	  m_Instances.attributeStats(i).toString(), m_Columnar.attributeStats(i).toString());
+      if (m_Instances.attribute(i).isNumeric()) {
+	assertEquals("mean differs", m_Instances.meanOrMode(i), m_Columnar.meanOrMode(i));
+	assertEquals("variance differs", m_Instances.variance(i), m_Columnar.variance(i));
+      }
+    }
+  }
+
+  /**
+   * Tests sorting and stratification, which have to result in the same order
+   * as for row-based data.
+   */
+  public void testReordering() {
+    for (int i = 0; i < m_Instances.numAttributes(); i++) {
+      if (m_Instances.attribute(i).isString())
+	continue;
+      m_Instances.sort(i);
+      m_Columnar.sort(i);
+      assertEquals("sort differs for attribute " + i, m_Instances.toString(), m_Columnar.toString());
+      m_Instances.stableSort(i);
+      m_Columnar.stableSort(i);
+      assertEquals("stable sort differs for attribute " + i, m_Instances.toString(), m_Columnar.toString());
+    }
+
+    m_Instances.setClassIndex(1);
+    m_Columnar.setClassIndex(1);
+    m_Instances.randomize(new Random(42));
+    m_Columnar.randomize(new Random(42));
+    m_Instances.stratify(3);
+    m_Columnar.stratify(3);
+    assertEquals("stratification differs", m_Instances.toString(), m_Columnar.toString());
+    assertEquals("fold differs", m_Instances.testCV(3, 1).toString(), m_Columnar.testCV(3, 1).toString());
+  }
+
+  /**
+   * Tests adding, removing and changing attributes and instances.
+   */
+  public void testModification() {
+    m_Instances.delete(4);
+    m_Columnar.delete(4);
+    m_Instances.add(2, m_Instances.instance(7));
+    m_Columnar.add(2, m_Columnar.instance(7));
+    m_Instances.deleteWithMissing(4);
+    m_Columnar.deleteWithMissing(4);
+    assertEquals("instances differ", m_Instances.toString(), m_Columnar.toString());
+
+    m_Instances.deleteAttributeAt(3);
+    m_Columnar.deleteAttributeAt(3);
+    m_Instances.insertAttributeAt(new Attribute("new"), 1);
+    m_Columnar.insertAttributeAt(new Attribute("new"), 1);
+    assertEquals("attributes differ", m_Instances.toString(), m_Columnar.toString());
+
+    m_Columnar.instance(0).setValue(1, 1.5);
+    m_Columnar.add(m_Columnar.instance(0));
+    assertEquals("value not added", 1.5, m_Columnar.lastInstance().value(1));
+
+    m_Columnar.compactify();
+    assertEquals("wrong capacity", m_Columnar.numInstances(), m_Columnar.weights().length);
+    m_Columnar.delete();
+    assertEquals("not empty", 0, m_Columnar.numInstances());
+  }
+
+  /**
+   * Tests whether a classifier builds the same model from row-based and from
+   * columnar data.
+   *
+   * @param cls		the classifier to test
+   * @param classType	the type of class attribute
+   * @throws Exception	if the test fails
+   */
+  protected void checkClassifier(Classifier cls, int classType) throws Exception {
+    Instances	data;
+    String	expected;
+
+    data = generate(classType);
+    cls.buildClassifier(data);
+    expected = cls.toString();
+    cls.buildClassifier(new ColumnarInstances(data));
+    assertEquals("models differ", expected, cls.toString());
+  }
+
+  /**
+   * Tests NaiveBayes on columnar data.
+   *
+   * @throws Exception	if the test fails
+   */
+  public void testNaiveBayes() throws Exception {
+    checkClassifier(new NaiveBayes(), Attribute.NOMINAL);
+  }
+
+  /**
+   * Tests DecisionStump on columnar data.
+   *
+   * @throws Exception	if the test fails
+   */
+  public void testDecisionStump() throws Exception {
+    checkClassifier(new DecisionStump(), Attribute.NOMINAL);
+    checkClassifier(new DecisionStump(), Attribute.NUMERIC);
+  }
+
+  /**
+   * Runs the test from the command line.
+   *
+   * @param args	ignored
+   */
+  public static void main(String[] args) {
+    TestRunner.run(suite());
+  }
+}
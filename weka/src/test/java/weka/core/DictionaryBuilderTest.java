@@ -23,7 +23,10 @@ package weka.core;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -411,6 +414,67 @@ public class DictionaryBuilderTest extends TestCase {
     assertEquals(2, consolidated.size());
   }
 
+  public void testSortDictionary() throws Exception {
+    Instances data2 = getData2();
+    Instances structure = new Instances(data2, 0);
+
+    DictionaryBuilder builder = new DictionaryBuilder();
+    builder.setMinTermFreq(1);
+    builder.setSortDictionary(true);
+    builder.setup(structure);
+
+    for (int i = 0; i < data2.numInstances(); i++) {
+      builder.processInstance(data2.instance(i));
+    }
+
+    // sorted per class: the words of the first class come first, in
+    // alphabetical order, followed by the remaining words of the second class
+    List<String> expected = new ArrayList<String>();
+    for (Map<String, int[]> dict : builder.getDictionaries(false)) {
+      for (String word : new TreeSet<String>(dict.keySet())) {
+        if (!expected.contains(word)) {
+          expected.add(word);
+        }
+      }
+    }
+
+    Map<String, int[]> consolidated = builder.finalizeDictionary();
+    assertEquals(15, consolidated.size());
+    assertEquals(expected, new ArrayList<String>(consolidated.keySet()));
+    int index = 0;
+    for (int[] value : consolidated.values()) {
+      assertEquals(index++, value[0]);
+    }
+    assertEquals(2, consolidated.get("the")[1]);
+  }
+
+  public void testHashingNoClass() throws Exception {
+    Instances data1 = getData1();
+    Instances structure = new Instances(data1, 0);
+
+    DictionaryBuilder builder = new DictionaryBuilder();
+    builder.setHashDimensions(32);
+    builder.setOutputWordCounts(true);
+    builder.setup(structure);
+
+    for (int i = 0; i < data1.numInstances(); i++) {
+      builder.processInstance(data1.instance(i));
+    }
+
+    assertNull(builder.finalizeDictionary());
+    assertTrue(builder.readyToVectorize());
+    assertEquals(32, builder.getVectorizedFormat().numAttributes());
+
+    // the nine words of the first document end up in the buckets
+    Instance vectorized = builder.vectorizeInstance(data1.instance(0));
+    double sum = 0;
+    for (int i = 0; i < vectorized.numValues(); i++) {
+      sum += vectorized.valueSparse(i);
+    }
+    assertEquals(9, sum, 0);
+    assertTrue(vectorized.value(builder.termIndex("the")) >= 2);
+  }
+
   public void testListOptions() {
     CheckOptionHandler optionHandler = new CheckOptionHandler();
     DictionaryBuilder builder = new DictionaryBuilder();
@@ -0,0 +1,244 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LBFGSOptimizationTest.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core;
+
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests LBFGSOptimization. Run from the command line with:
+ * <p/>
+ * java weka.core.LBFGSOptimizationTest
+ *
+ * @version $Revision$
+ */
+public class LBFGSOptimizationTest extends TestCase {
+
+  /**
+   * Minimizes the extended Rosenbrock function.
+   */
+  protected static class Rosenbrock extends LBFGSOptimization {
+
+    @Override
+    protected double objectiveFunction(double[] x) {
+      double f = 0;
+      for (int i = 0; i < x.length; i += 2) {
+        double a = 1 - x[i];
+        double b = x[i + 1] - x[i] * x[i];
+        f += a * a + 100 * b * b;
+      }
+      return f;
+    }
+
+    @Override
+    protected double[] evaluateGradient(double[] x) {
+      double[] grad = new double[x.length];
+      for (int i = 0; i < x.length; i += 2) {
+        double b = x[i + 1] - x[i] * x[i];
+        grad[i] = -2 * (1 - x[i]) - 400 * x[i] * b;
+        grad[i + 1] = 200 * b;
+      }
+      return grad;
+    }
+  }
+
+  /**
+   * Minimizes sum_i (i + 1) * (x_i - c_i)^2 + (x_i - x_{i+1})^2.
+   */
+  protected static class Quadratic extends LBFGSOptimization {
+
+    /** The centres */
+    protected double[] m_C;
+
+    /**
+     * Creates the function.
+     *
+     * @param c the centres
+     */
+    public Quadratic(double[] c) {
+      m_C = c;
+    }
+
+    @Override
+    protected double objectiveFunction(double[] x) {
+      double f = 0;
+      for (int i = 0; i < x.length; i++) {
+        double d = x[i] - m_C[i];
+        f += (i + 1) * d * d;
+        if (i + 1 < x.length) {
+          double e = x[i] - x[i + 1];
+          f += e * e;
+        }
+      }
+      return f;
+    }
+
+    @Override
+    protected double[] evaluateGradient(double[] x) {
+      double[] grad = new double[x.length];
+      for (int i = 0; i < x.length; i++) {
+        grad[i] += 2 * (i + 1) * (x[i] - m_C[i]);
+        if (i + 1 < x.length) {
+          double e = x[i] - x[i + 1];
+          grad[i] += 2 * e;
+          grad[i + 1] -= 2 * e;
+        }
+      }
+      return grad;
+    }
+  }
+
+  public LBFGSOptimizationTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns constraints without any bounds.
+   *
+   * @param n the number of variables
+   * @return the constraints
+   */
+  protected static double[][] noBounds(int n) {
+    double[][] b = new double[2][n];
+    Arrays.fill(b[0], Double.NaN);
+    Arrays.fill(b[1], Double.NaN);
+    return b;
+  }
+
+  /**
+   * Runs an optimization until convergence.
+   *
+   * @param opt the optimization
+   * @param x the initial values
+   * @param b the constraints
+   * @return the solution
+   * @throws Exception if the optimization fails
+   */
+  protected static double[] findArgmin(Optimization opt, double[] x,
+    double[][] b) throws Exception {
+    double[] result = opt.findArgmin(x, b);
+    while (result == null) {
+      result = opt.findArgmin(opt.getVarbValues(), b);
+    }
+    return result;
+  }
+
+  public void testRosenbrock() throws Exception {
+    double[] x = new double[20];
+    for (int i = 0; i < x.length; i += 2) {
+      x[i] = -1.2;
+      x[i + 1] = 1;
+    }
+    double[] result = findArgmin(new Rosenbrock(), x, noBounds(x.length));
+    for (double element : result) {
+      assertEquals(1.0, element, 1e-4);
+    }
+  }
+
+  public void testBounds() throws Exception {
+    int n = 30;
+    double[] c = new double[n];
+    double[][] b = noBounds(n);
+    for (int i = 0; i < n; i++) {
+      c[i] = (i % 3 == 0) ? -5 : 5;
+      if (i % 2 == 0) {
+        b[0][i] = -1;
+        b[1][i] = 1;
+      }
+    }
+
+    // The dense BFGS updates serve as the reference
+    double[] expected = findArgminDense(new Quadratic(c), new double[n], b);
+    double[] result = findArgmin(new Quadratic(c), new double[n], b);
+
+    int numOnBound = 0;
+    for (int i = 0; i < n; i++) {
+      assertEquals("x[" + i + "]", expected[i], result[i], 1e-4);
+      if (i % 2 == 0) {
+        assertTrue(result[i] >= -1 && result[i] <= 1);
+        if (Math.abs(result[i]) == 1) {
+          numOnBound++;
+        }
+      }
+    }
+    assertTrue("No variable on its bound", numOnBound > 0);
+  }
+
+  /**
+   * Runs the dense BFGS updates of Optimization on the function of an
+   * LBFGSOptimization.
+   *
+   * @param function the function to minimize
+   * @param initX the initial values
+   * @param constraints the constraints
+   * @return the solution
+   * @throws Exception if the optimization fails
+   */
+  protected static double[] findArgminDense(final LBFGSOptimization function,
+    double[] initX, double[][] constraints) throws Exception {
+    Optimization opt = new Optimization() {
+      @Override
+      protected double objectiveFunction(double[] x) throws Exception {
+        return function.objectiveFunction(x);
+      }
+
+      @Override
+      protected double[] evaluateGradient(double[] x) throws Exception {
+        return function.evaluateGradient(x);
+      }
+
+      @Override
+      public String getRevision() {
+        return RevisionUtils.extract("$Revision$");
+      }
+    };
+    return findArgmin(opt, initX, constraints);
+  }
+
+  public void testManyVariables() throws Exception {
+    int n = 20000;
+    double[] c = new double[n];
+    for (int i = 0; i < n; i++) {
+      c[i] = Math.sin(i);
+    }
+    Quadratic opt = new Quadratic(c);
+    opt.setMaxIteration(2000);
+    double[] result = findArgmin(opt, new double[n], noBounds(n));
+
+    // The gradient is zero relative to the function value at the minimum
+    double f = opt.objectiveFunction(result);
+    double[] grad = opt.evaluateGradient(result);
+    for (int i = 0; i < n; i++) {
+      assertEquals("gradient[" + i + "]", 0.0, grad[i] / f, 1e-6);
+    }
+  }
+
+  public static Test suite() {
+    return new TestSuite(LBFGSOptimizationTest.class);
+  }
+
+  public static void main(String[] args) {
+    junit.textui.TestRunner.run(suite());
+  }
+}
@@ -19,8 +19,15 @@
 
 package weka.core.converters;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.TestInstances;
 
 /**
  * Tests ArffLoader/ArffSaver. Run from the command line with:<p/>
@@ -59,6 +66,124 @@ public class ArffTest
     return new ArffSaver();
   }
 
+  /**
+   * generates data with string, date and sparse instances, in ARFF format.
+   * 
+   * @param eol the line separator to use
+   * @return the data
+   * @throws Exception if generation fails
+   */
+  protected String getParallelTestData(String eol) throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumNominal(2);
+    test.setNumNumeric(2);
+    test.setNumString(1);
+    test.setNumDate(1);
+    test.setNumInstances(400);
+    test.setClassIndex(TestInstances.CLASS_IS_LAST);
+    Instances data = test.generate();
+    for (int i = 0; i < data.numInstances(); i += 7) {
+      data.set(i, new SparseInstance(data.instance(i)));
+    }
+    return data.toString().replace("\n", eol);
+  }
+
+  /**
+   * reads the data with the given number of threads.
+   * 
+   * @param arff the data
+   * @param numSlots the number of threads
+   * @return the data
+   * @throws IOException if reading fails
+   */
+  protected Instances readInParallel(String arff, int numSlots)
+    throws IOException {
+    ArffLoader.ArffReader reader =
+      new ArffLoader.ArffReader(new StringReader(arff), 1, true);
+    reader.setReadAhead(true);
+    reader.setChunkSize(100);
+    Instances structure = reader.getStructure();
+    return reader.readInstances(structure, numSlots);
+  }
+
+  /**
+   * tests whether reading in parallel yields the same data as reading
+   * sequentially.
+   */
+  public void testParallelLoading() throws Exception {
+    for (String eol : new String[] { "\n", "\r\n", "\r" }) {
+      String arff = getParallelTestData(eol);
+      Instances expected = new Instances(new StringReader(arff));
+
+      for (int numSlots : new int[] { 1, 2, 4 }) {
+        Instances actual = readInParallel(arff, numSlots);
+        assertEquals("data differs for " + numSlots + " slots",
+          expected.toString(), actual.toString());
+        assertEquals("string values differ for " + numSlots + " slots",
+          expected.attribute(4).numValues(), actual.attribute(4).numValues());
+      }
+    }
+
+    String arff = getParallelTestData("\n");
+    Instances expected = new Instances(new StringReader(arff));
+    m_Loader = getLoader();
+    ((ArffLoader) m_Loader).setNumExecutionSlots(3);
+    m_Loader.setSource(new ByteArrayInputStream(arff.getBytes()));
+    assertEquals("data differs for loader", expected.toString(), m_Loader
+      .getDataSet().toString());
+  }
+
+  /**
+   * tests whether date values are parsed correctly when many chunks are read
+   * at the same time.
+   */
+  public void testParallelLoadingDates() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNumNominal(1);
+    test.setNumNumeric(0);
+    test.setNumDate(3);
+    test.setNumInstances(10000);
+    test.setClassIndex(TestInstances.CLASS_IS_LAST);
+    String arff = test.generate().toString();
+    Instances expected = new Instances(new StringReader(arff));
+
+    for (int i = 0; i < 3; i++) {
+      ArffLoader.ArffReader reader =
+        new ArffLoader.ArffReader(new StringReader(arff), 1, true);
+      reader.setReadAhead(true);
+      reader.setChunkSize(1000);
+      Instances structure = reader.getStructure();
+      assertEquals("data differs", expected.toString(),
+        reader.readInstances(structure, 8).toString());
+    }
+  }
+
+  /**
+   * tests whether reading in parallel reports the same error as reading
+   * sequentially.
+   */
+  public void testParallelLoadingError() throws Exception {
+    String arff = getParallelTestData("\r\n");
+    int pos = arff.indexOf('\n', arff.length() / 2) + 1;
+    arff = arff.substring(0, pos) + "'quoted, \\\nvalue',x\n"
+      + arff.substring(pos);
+
+    String expected = null;
+    try {
+      new Instances(new StringReader(arff));
+    } catch (IOException e) {
+      expected = e.getMessage();
+    }
+    assertNotNull("error not detected", expected);
+
+    try {
+      readInParallel(arff, 4);
+      fail("error not detected in parallel");
+    } catch (IOException e) {
+      assertEquals("error differs", expected, e.getMessage());
+    }
+  }
+
   /**
    * returns a test suite
    * 
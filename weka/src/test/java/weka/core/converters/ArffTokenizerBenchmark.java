@@ -0,0 +1,199 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core.converters;
+
+import java.io.IOException;
+import java.io.StreamTokenizer;
+import java.io.StringReader;
+import java.util.Random;
+
+import weka.core.Instances;
+
+/**
+ * Compares the throughput of the ArffReader with a reader built on
+ * java.io.StreamTokenizer, as used before the ArffTokenizer was introduced.
+ * Both parse the same generated data with numeric and nominal attributes,
+ * dense and sparse. Run from the command line with:<p/>
+ * java weka.core.converters.ArffTokenizerBenchmark [rows] [attributes] [runs]
+ *
+ * @version $Revision$
+ */
+public class ArffTokenizerBenchmark {
+
+  /**
+   * Generates ARFF data. Every other attribute is nominal, every tenth row is
+   * sparse.
+   *
+   * @param rows the number of rows
+   * @param atts the number of attributes
+   * @return the data
+   */
+  public static String generate(int rows, int atts) {
+    StringBuilder result = new StringBuilder("@relation bench\n");
+    for (int i = 0; i < atts; i++) {
+      if (i % 2 == 0) {
+        result.append("@attribute a" + i + " numeric\n");
+      } else {
+        result.append("@attribute a" + i + " {red,green,blue,'dark grey'}\n");
+      }
+    }
+    result.append("@data\n");
+
+    String[] labels = { "red", "green", "blue", "'dark grey'" };
+    Random rand = new Random(1);
+    for (int n = 0; n < rows; n++) {
+      boolean sparse = (n % 10 == 0);
+      if (sparse) {
+        result.append('{');
+      }
+      for (int i = 0; i < atts; i++) {
+        if (sparse && (rand.nextInt(4) != 0)) {
+          continue;
+        }
+        if (sparse) {
+          result.append(i).append(' ');
+        }
+        if (rand.nextInt(50) == 0) {
+          result.append('?');
+        } else if (i % 2 == 0) {
+          result.append(Math.round(rand.nextGaussian() * 1e5) / 1e3);
+        } else {
+          result.append(labels[rand.nextInt(labels.length)]);
+        }
+        result.append(sparse ? ',' : (i < atts - 1) ? ',' : '\n');
+      }
+      if (sparse) {
+        result.append("}\n");
+      }
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * Parses the values of the data like the ArffReader did with a
+   * StreamTokenizer, but without creating instances.
+   *
+   * @param arff the data
+   * @param header the header of the data
+   * @return the sum of the values, to keep the work from being optimized away
+   * @throws IOException if parsing fails
+   */
+  public static double parseWithStreamTokenizer(String arff, Instances header)
+    throws IOException {
+    StreamTokenizer st = new StreamTokenizer(new StringReader(arff));
+    st.resetSyntax();
+    st.whitespaceChars(0, ' ');
+    st.wordChars(' ' + 1, '\u00FF');
+    st.whitespaceChars(',', ',');
+    st.commentChar('%');
+    st.quoteChar('"');
+    st.quoteChar('\'');
+    st.ordinaryChar('{');
+    st.ordinaryChar('}');
+    st.eolIsSignificant(true);
+
+    // skip the header
+    while ((st.nextToken() != StreamTokenizer.TT_EOF)
+      && !"@data".equals(st.sval)) {
+    }
+
+    double sum = 0;
+    int att = 0;
+    boolean sparse = false;
+    boolean index = true;
+    while (st.nextToken() != StreamTokenizer.TT_EOF) {
+      if (st.ttype == StreamTokenizer.TT_EOL) {
+        att = 0;
+        continue;
+      }
+      if (st.ttype == '{' || st.ttype == '}') {
+        sparse = (st.ttype == '{');
+        index = true;
+        continue;
+      }
+      if (sparse) {
+        if (index) {
+          att = Integer.valueOf(st.sval).intValue();
+        } else {
+          sum += parseValue(header, att, st.sval);
+        }
+        index = !index;
+      } else {
+        sum += parseValue(header, att++, st.sval);
+      }
+    }
+
+    return sum;
+  }
+
+  /**
+   * Converts a single value the way the ArffReader did.
+   *
+   * @param header the header
+   * @param att the attribute index
+   * @param sval the text of the value
+   * @return the value
+   */
+  protected static double parseValue(Instances header, int att, String sval) {
+    if (sval.equals("?")) {
+      return 0;
+    }
+    if (header.attribute(att).isNominal()) {
+      return header.attribute(att).indexOfValue(sval);
+    }
+    return Double.valueOf(sval).doubleValue();
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the number of rows, attributes and runs (optional)
+   * @throws Exception if parsing fails
+   */
+  public static void main(String[] args) throws Exception {
+    int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+    int atts = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+    int runs = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+    String arff = generate(rows, atts);
+    Instances header =
+      new ArffLoader.ArffReader(new StringReader(arff), 0, true)
+        .getStructure();
+    double mb = arff.length() / (1024.0 * 1024.0);
+    System.out.println("Data: " + rows + " rows, " + atts + " attributes, "
+      + Math.round(mb) + " MB of characters");
+
+    for (int run = 0; run < runs; run++) {
+      long start = System.nanoTime();
+      parseWithStreamTokenizer(arff, header);
+      double old = (System.nanoTime() - start) / 1e9;
+
+      start = System.nanoTime();
+      Instances data =
+        new ArffLoader.ArffReader(new StringReader(arff)).getData();
+      double current = (System.nanoTime() - start) / 1e9;
+
+      System.out.printf("run %d: StreamTokenizer %.1f MB/s, "
+        + "ArffReader %.1f MB/s (%d instances)%n", run + 1, mb / old, mb
+        / current, data.numInstances());
+    }
+  }
+}
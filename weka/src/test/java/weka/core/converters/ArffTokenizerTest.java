@@ -0,0 +1,328 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core.converters;
+
+import java.io.IOException;
+import java.io.StreamTokenizer;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * Tests ArffTokenizer against java.io.StreamTokenizer. Run from the command
+ * line with:<p/>
+ * java weka.core.converters.ArffTokenizerTest
+ *
+ * @version $Revision$
+ */
+public class ArffTokenizerTest
+  extends TestCase {
+
+  /** input exercising the corner cases of the tokenizer. */
+  protected static final String INPUT = "@relation 'test rel'\r\n"
+    + "% a comment, with 'quotes'\n"
+    + "@attribute a {x,'y z',\"w\"}\r"
+    + "@attribute b date 'yyyy-MM-dd HH:mm'\n\n"
+    + "@data\n"
+    + "x,1.5,'a\\tb\\'c\\101\\7z\\477',?,'?' % trailing\r\n"
+    + "{1 -2e-3,3 \"unterminated\n"
+    + "\u00e4\u20ac\u00ff, ,,\t\"\\\n"
+    + "'\\";
+
+  /**
+   * Constructs the <code>ArffTokenizerTest</code>.
+   *
+   * @param name the name of the test
+   */
+  public ArffTokenizerTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Sets up both tokenizers with the syntax used by the ArffReader.
+   *
+   * @param st the stream tokenizer
+   * @param at the ARFF tokenizer
+   * @param separator the field separator
+   */
+  protected void initTokenizers(StreamTokenizer st, ArffTokenizer at,
+    char separator) {
+    st.resetSyntax();
+    at.resetSyntax();
+    st.whitespaceChars(0, ' ');
+    at.whitespaceChars(0, ' ');
+    st.wordChars(' ' + 1, '\u00FF');
+    at.wordChars(' ' + 1, '\u00FF');
+    st.whitespaceChars(separator, separator);
+    at.whitespaceChars(separator, separator);
+    st.commentChar('%');
+    at.commentChar('%');
+    st.quoteChar('"');
+    at.quoteChar('"');
+    st.quoteChar('\'');
+    at.quoteChar('\'');
+    st.ordinaryChar('{');
+    at.ordinaryChar('{');
+    st.ordinaryChar('}');
+    at.ordinaryChar('}');
+    st.eolIsSignificant(true);
+    at.eolIsSignificant(true);
+  }
+
+  /**
+   * Compares the tokens of both tokenizers, pushing back every third token.
+   *
+   * @param input the input to tokenize
+   * @param separator the field separator
+   * @param readAhead whether the ARFF tokenizer reads ahead
+   * @throws IOException if tokenizing fails
+   */
+  protected void checkTokens(String input, char separator, boolean readAhead)
+    throws IOException {
+    StreamTokenizer st = new StreamTokenizer(new StringReader(input));
+    ArffTokenizer at = new ArffTokenizer(new StringReader(input));
+    initTokenizers(st, at, separator);
+    at.setReadAhead(readAhead);
+
+    int count = 0;
+    do {
+      st.nextToken();
+      at.nextToken();
+      if (count++ % 3 == 0) {
+        st.pushBack();
+        at.pushBack();
+        st.nextToken();
+        at.nextToken();
+      }
+      assertEquals("type differs at " + st, st.ttype, at.ttype);
+      assertEquals("text differs at " + st, st.sval, at.sval());
+      assertEquals("line differs at " + st, st.lineno(), at.lineno());
+      assertEquals("string differs", st.toString(), at.toString());
+    } while (st.ttype != StreamTokenizer.TT_EOF);
+  }
+
+  /**
+   * Tests whether the tokens are the same as the ones of StreamTokenizer.
+   */
+  public void testTokens() throws Exception {
+    checkTokens(INPUT, ',', false);
+    checkTokens(INPUT, ',', true);
+    checkTokens(INPUT, ';', true);
+    checkTokens("", ',', true);
+    checkTokens("\r", ',', true);
+    checkTokens("%", ',', true);
+  }
+
+  /**
+   * Tests whether tokens spanning the buffer boundary are read correctly.
+   */
+  public void testLongInput() throws Exception {
+    StringBuilder input = new StringBuilder();
+    Random rand = new Random(42);
+    String chars = "ab1.,' \"{}%?\r\n\t\\\u00e4";
+    while (input.length() < 3 * ArffTokenizer.BUFFER_SIZE) {
+      input.append(chars.charAt(rand.nextInt(chars.length())));
+    }
+    checkTokens(input.toString(), ',', true);
+  }
+
+  /**
+   * Checks whether parsing the token as double yields the same as
+   * Double.parseDouble.
+   *
+   * @param text the text to parse
+   * @throws IOException if tokenizing fails
+   */
+  protected void checkDouble(String text) throws IOException {
+    ArffTokenizer at = new ArffTokenizer(new StringReader(text));
+    at.wordChars(0, 255);
+    at.nextToken();
+
+    Double expected;
+    try {
+      expected = Double.parseDouble(text);
+    } catch (NumberFormatException e) {
+      expected = null;
+    }
+    Double actual;
+    try {
+      actual = at.parseDouble();
+    } catch (NumberFormatException e) {
+      actual = null;
+    }
+    assertEquals("double differs for " + text, expected, actual);
+  }
+
+  /**
+   * Tests whether numbers are parsed like Double.parseDouble does.
+   */
+  public void testParseDouble() throws Exception {
+    String[] texts = { "0", "-0", "+1", "1.", ".5", "-.5", ".", "-", "1e5",
+      "1E-5", "1e", "1e+", "2.5e22", "2.5e23", "1e-22", "1e-400", "1e400",
+      "9007199254740993", "123456789012345678901234567890", "0.1", "0.3",
+      "1.7976931348623157E308", "4.9E-324", "NaN", "-Infinity", "0x1p3",
+      "1d", "1f", "1.2.3", "1e5e5", "00000000000000000000001.5", "abc" };
+    for (String text : texts) {
+      checkDouble(text);
+    }
+
+    Random rand = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      double d;
+      switch (i % 3) {
+      case 0:
+        d = rand.nextDouble();
+        break;
+      case 1:
+        d = rand.nextInt(1000000) / 1000.0;
+        break;
+      default:
+        d = rand.nextGaussian() * Math.pow(10, rand.nextInt(40) - 20);
+      }
+      checkDouble(Double.toString(d));
+      checkDouble(String.format("%.6f", d));
+    }
+  }
+
+  /**
+   * Tests whether integers are parsed like Integer.parseInt does.
+   */
+  public void testParseInt() throws Exception {
+    String[] texts = { "0", "-1", "+7", "123456789", "2147483647",
+      "2147483648", "-2147483648", "1.0", "", "a1" };
+    for (String text : texts) {
+      ArffTokenizer at = new ArffTokenizer(new StringReader(text + " "));
+      at.wordChars('!', 255);
+      at.nextToken();
+
+      Integer expected;
+      try {
+        expected = Integer.parseInt(text);
+      } catch (NumberFormatException e) {
+        expected = null;
+      }
+      Integer actual;
+      try {
+        actual = at.parseInt();
+      } catch (NumberFormatException e) {
+        actual = null;
+      }
+      assertEquals("int differs for " + text, expected, actual);
+    }
+  }
+
+  /**
+   * Tests whether the labels of nominal attributes are found.
+   */
+  public void testNominalLookup() throws Exception {
+    ArrayList<String> labels = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      labels.add("v" + i);
+    }
+    // same hash code
+    labels.add("Aa");
+    labels.add("BB");
+    Attribute att = new Attribute("att", labels);
+    ArffTokenizer.NominalLookup lookup = new ArffTokenizer.NominalLookup(att);
+
+    StringBuilder input = new StringBuilder();
+    for (String label : labels) {
+      input.append(label).append(' ');
+    }
+    input.append("v100 v");
+    ArffTokenizer at = new ArffTokenizer(new StringReader(input.toString()));
+    at.whitespaceChars(0, ' ');
+    at.wordChars(' ' + 1, 255);
+    for (int i = 0; i < labels.size(); i++) {
+      at.nextToken();
+      assertEquals("index differs", i, lookup.indexOf(at));
+    }
+    at.nextToken();
+    assertEquals("undeclared label found", -1, lookup.indexOf(at));
+    at.nextToken();
+    assertEquals("undeclared label found", -1, lookup.indexOf(at));
+    at.nextToken();
+    assertEquals("EOF found", -1, lookup.indexOf(at));
+    assertTrue("lookup invalid", lookup.isValidFor(att));
+    assertFalse("lookup valid", lookup.isValidFor(att.copy("other")));
+  }
+
+  /**
+   * Tests whether data with quotes, missing values, dates, sparse rows and
+   * weights is read the same with and without reading ahead.
+   */
+  public void testReadAhead() throws Exception {
+    String arff = "@relation test\n"
+      + "@attribute a {x,'y z','?'}\n"
+      + "@attribute b numeric\n"
+      + "@attribute c date 'yyyy-MM-dd'\n"
+      + "@attribute d string\n"
+      + "@data\n"
+      + "x,1.5,2018-01-02,'a,b'\n"
+      + "'y z',-1e3,?,\"c\\nd\",{2.5}\n"
+      + "'?',?,2018-12-31,?\n"
+      + "{0 'y z',1 0.25,3 e}\n"
+      + "{1 3} ,{0.5}\n"
+      + "% done\n";
+
+    Instances data = new Instances(new StringReader(arff));
+    Instances ahead =
+      new ArffLoader.ArffReader(new StringReader(arff)).getData();
+    assertEquals("data differs", data.toString(), ahead.toString());
+    assertEquals("number of instances differs", 5, data.numInstances());
+    assertEquals("weight differs", 2.5, data.instance(1).weight(), 0);
+    assertEquals("weight differs", 0.5, data.instance(4).weight(), 0);
+    assertEquals("quoted '?' not a label", 2, (int) data.instance(2).value(0));
+    assertTrue("? not missing", data.instance(2).isMissing(1));
+
+    // the line number must still be reported correctly
+    try {
+      new ArffLoader.ArffReader(new StringReader(arff + "w,1,?,?\n"));
+      fail("undeclared label accepted");
+    } catch (IOException e) {
+      assertEquals("nominal value not declared in header, read Token[w], line 13",
+        e.getMessage());
+    }
+  }
+
+  /**
+   * returns a test suite
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(ArffTokenizerTest.class);
+  }
+
+  /**
+   * for running the test from commandline
+   *
+   * @param args the commandline arguments - ignored
+   */
+  public static void main(String[] args){
+    junit.textui.TestRunner.run(suite());
+  }
+}
@@ -19,8 +19,12 @@
 
 package weka.core.converters;
 
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import weka.core.Instances;
 
 /**
  * Tests CSVLoader/CSVSaver. Run from the command line with:<p/>
@@ -72,6 +76,42 @@ public class CSVTest
     m_CompareValuesAsString = true;
   }
 
+  /**
+   * loads the data with the given number of threads.
+   *
+   * @param csv the data
+   * @param numSlots the number of threads
+   * @return the data
+   * @throws Exception if loading fails
+   */
+  protected Instances load(String csv, int numSlots) throws Exception {
+    CSVLoader loader = new CSVLoader();
+    loader.setStringAttributes("last");
+    loader.setNumExecutionSlots(numSlots);
+    loader.setSource(new ByteArrayInputStream(csv.getBytes()));
+    return loader.getDataSet();
+  }
+
+  /**
+   * tests whether parsing in parallel yields the same data as parsing
+   * sequentially. The data is large enough to be split into several chunks.
+   */
+  public void testParallelLoading() throws Exception {
+    StringBuilder csv = new StringBuilder("num,nom,str\n");
+    Random rand = new Random(1);
+    for (int i = 0; i < 40000; i++) {
+      csv.append(rand.nextGaussian()).append(',');
+      csv.append(rand.nextInt(10) == 0 ? "?" : "val" + rand.nextInt(5));
+      csv.append(",'text ").append(rand.nextInt(20000)).append(", quoted'\n");
+    }
+
+    Instances expected = load(csv.toString(), 1);
+    Instances actual = load(csv.toString(), 4);
+    assertEquals("data differs", expected.toString(), actual.toString());
+    assertEquals("string values differ", expected.attribute(2).numValues(),
+      actual.attribute(2).numValues());
+  }
+
   /**
    * returns a test suite.
    * 
@@ -0,0 +1,167 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core.converters;
+
+import java.io.File;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.classifiers.evaluation.Evaluation;
+import weka.classifiers.meta.LogitBoost;
+import weka.core.Instances;
+import weka.core.MappedInstances;
+import weka.core.SerializedObject;
+import weka.core.TestInstances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Tests MappedInstancesLoader/MappedInstancesSaver. Run from the command line with:<p/>
+ * java weka.core.converters.MappedInstancesTest
+ *
+ * @version $Revision$
+ */
+public class MappedInstancesTest
+  extends AbstractFileConverterTest {
+
+  /**
+   * Constructs the <code>MappedInstancesTest</code>.
+   *
+   * @param name the name of the test class
+   */
+  public MappedInstancesTest(String name) {
+    super(name);
+  }
+
+  /**
+   * returns the loader used in the tests
+   *
+   * @return the configured loader
+   */
+  public AbstractLoader getLoader() {
+    return new MappedInstancesLoader();
+  }
+
+  /**
+   * returns the saver used in the tests
+   *
+   * @return the configured saver
+   */
+  public AbstractSaver getSaver() {
+    return new MappedInstancesSaver();
+  }
+
+  /**
+   * returns the test data generator, with string attributes and missing
+   * values
+   *
+   * @return the configured test data generator
+   */
+  protected TestInstances getTestInstances() {
+    TestInstances result = super.getTestInstances();
+    result.setNumString(1);
+    result.setNumNumeric(2);
+    result.setNumInstances(50);
+    result.setClassIndex(TestInstances.CLASS_IS_LAST);
+    return result;
+  }
+
+  /**
+   * saves the data and maps it again.
+   *
+   * @param data the data to save
+   * @return the mapped data
+   * @throws Exception if saving or loading fails
+   */
+  protected Instances saveAndMap(Instances data) throws Exception {
+    m_Saver.setInstances(data);
+    m_Saver.setFile(new File(m_ExportFilename));
+    m_Saver.writeBatch();
+
+    return DataSource.read(m_ExportFilename);
+  }
+
+  /**
+   * tests whether the data is mapped rather than copied, and whether the
+   * string values survive.
+   */
+  public void testMapped() throws Exception {
+    Instances data = saveAndMap(m_Instances);
+
+    assertTrue("data not mapped", data instanceof MappedInstances);
+    assertEquals("class index differs", m_Instances.classIndex(), data.classIndex());
+    assertEquals("data differs", m_Instances.toString(), data.toString());
+    assertEquals("copy differs", m_Instances.toString(), new Instances(data).toString());
+
+    try {
+      data.delete(0);
+      fail("mapped data should be read-only");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  /**
+   * tests whether the mapped data can be serialized and deserialized.
+   */
+  public void testSerialization() throws Exception {
+    Instances data = saveAndMap(m_Instances);
+    Instances copy = (Instances) new SerializedObject(data).getObject();
+
+    assertTrue("copy not mapped", copy instanceof MappedInstances);
+    assertEquals("copy differs", data.toString(), copy.toString());
+  }
+
+  /**
+   * tests whether evaluating on mapped data, which is predicted in chunks of
+   * the batch size, yields the same result as on the original data.
+   */
+  public void testEvaluation() throws Exception {
+    Instances plain = new Instances(m_Instances);
+    plain.deleteStringAttributes();
+    Instances data = saveAndMap(plain);
+    LogitBoost cls = new LogitBoost();
+    cls.setBatchSize("7");
+    cls.buildClassifier(plain);
+
+    Evaluation expected = new Evaluation(plain);
+    expected.evaluateModel(cls, plain);
+    Evaluation actual = new Evaluation(data);
+    actual.evaluateModel(cls, data);
+    assertEquals("evaluation differs", expected.toSummaryString(), actual.toSummaryString());
+  }
+
+  /**
+   * returns a test suite
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(MappedInstancesTest.class);
+  }
+
+  /**
+   * for running the test from commandline
+   *
+   * @param args the commandline arguments - ignored
+   */
+  public static void main(String[] args){
+    junit.textui.TestRunner.run(suite());
+  }
+}
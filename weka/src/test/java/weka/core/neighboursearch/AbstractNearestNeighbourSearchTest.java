@@ -22,6 +22,7 @@ package weka.core.neighboursearch;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.Random;
 
 import junit.framework.TestCase;
@@ -273,6 +274,105 @@ public abstract class AbstractNearestNeighbourSearchTest extends TestCase {
     }
   }
 
+  /**
+   * Returns the NearestNeighbourSearch to search batches of instances with.
+   * Subclasses can override it to search with several threads.
+   * 
+   * @return the search
+   */
+  protected NearestNeighbourSearch getBatchSearch() {
+    return getNearestNeighbourSearch();
+  }
+
+  /**
+   * Returns the search used to test building with several threads, or null
+   * if the search does not build concurrently.
+   * 
+   * @return the search, or null
+   */
+  protected NearestNeighbourSearch getConcurrentBuildSearch() {
+    return null;
+  }
+
+  /**
+   * Checks that two searches return the same neighbours and distances.
+   * 
+   * @param expected the neighbours of the reference search
+   * @param expectedDist the distances of the reference search
+   * @param actual the neighbours of the tested search
+   * @param actualDist the distances of the tested search
+   */
+  protected void assertSameNeighbours(Instances expected,
+    double[] expectedDist, Instances actual, double[] actualDist) {
+
+    assertEquals("Number of neighbours differs", expected.numInstances(),
+      actual.numInstances());
+    for (int i = 0; i < expected.numInstances(); i++) {
+      assertEquals("Neighbour " + i + " differs", expected.instance(i)
+        .toString(), actual.instance(i).toString());
+      assertEquals("Distance " + i + " differs", expectedDist[i],
+        actualDist[i], 0.0);
+    }
+  }
+
+  /**
+   * Tests that searching a batch of instances finds the same neighbours as
+   * searching them one by one, with the performance being measured (which
+   * makes the searches use their original code paths).
+   */
+  public void testBatchSearch() throws Exception {
+    NearestNeighbourSearch reference = getNearestNeighbourSearch();
+    reference.setMeasurePerformance(true);
+    reference.setInstances(m_Instances);
+    NearestNeighbourSearch search = getBatchSearch();
+    search.setInstances(m_Instances);
+
+    double[][] distances = new double[m_Instances.numInstances()][];
+    Instances[] neighbours = search.kNearestNeighbours(m_Instances,
+      m_NumNeighbors, distances);
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      Instances expected = reference.kNearestNeighbours(
+        m_Instances.instance(i), m_NumNeighbors);
+      assertSameNeighbours(expected, reference.getDistances(), neighbours[i],
+        distances[i]);
+    }
+  }
+
+  /**
+   * Tests that building with several threads results in the same structure,
+   * as far as the additional measures tell, and the same neighbours as
+   * building with one.
+   */
+  public void testConcurrentBuild() throws Exception {
+    NearestNeighbourSearch concurrent = getConcurrentBuildSearch();
+    if (concurrent == null) {
+      return;
+    }
+
+    Instances data = new Instances(m_Instances);
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      data.add(m_Instances.instance(i));
+    }
+    NearestNeighbourSearch sequential = getNearestNeighbourSearch();
+    sequential.setInstances(data);
+    concurrent.setInstances(data);
+
+    Enumeration<String> measures = sequential.enumerateMeasures();
+    while (measures.hasMoreElements()) {
+      String measure = measures.nextElement();
+      assertEquals(measure + " differs", sequential.getMeasure(measure),
+        concurrent.getMeasure(measure), 0.0);
+    }
+    for (int i = 0; i < data.numInstances(); i += 11) {
+      Instances expected = sequential.kNearestNeighbours(data.instance(i),
+        m_NumNeighbors);
+      Instances actual = concurrent.kNearestNeighbours(data.instance(i),
+        m_NumNeighbors);
+      assertSameNeighbours(expected, sequential.getDistances(), actual,
+        concurrent.getDistances());
+    }
+  }
+
   /**
    * tests whether the tokenizer correctly initializes in the buildTokenizer
    * method
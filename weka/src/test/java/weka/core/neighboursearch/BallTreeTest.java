@@ -40,7 +40,23 @@ public class BallTreeTest
   public NearestNeighbourSearch getNearestNeighbourSearch() {
     return new BallTree();
   }
-  
+
+  /** Creates a BallTree that searches batches with several threads */
+  @Override
+  protected NearestNeighbourSearch getBatchSearch() {
+    BallTree search = new BallTree();
+    search.setNumThreads(3);
+    return search;
+  }
+
+  /** Creates a BallTree that builds the tree with several threads */
+  @Override
+  protected NearestNeighbourSearch getConcurrentBuildSearch() {
+    BallTree search = new BallTree();
+    search.setNumThreads(3);
+    return search;
+  }
+
   public static Test suite() {
     return new TestSuite(BallTreeTest.class);
   }
@@ -0,0 +1,105 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright (C) 2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core.neighboursearch;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Instances;
+
+/**
+ * Tests HNSW. Run from the command line with: <p/>
+ * java weka.core.neighboursearch.HNSWTest
+ *
+ * @version $Revision$
+ */
+public class HNSWTest
+  extends AbstractNearestNeighbourSearchTest {
+
+  public HNSWTest(String name) {
+    super(name);
+  }
+
+  /** Creates a default HNSW */
+  public NearestNeighbourSearch getNearestNeighbourSearch() {
+    return new HNSW();
+  }
+
+  /**
+   * Tests that the measured recall agrees with an exact search and that the
+   * default settings find nearly all the nearest neighbours.
+   */
+  public void testRecall() throws Exception {
+    HNSW search = new HNSW();
+    search.setMeasurePerformance(true);
+    search.setInstances(m_Instances);
+    LinearNNSearch exact = new LinearNNSearch(m_Instances);
+
+    int hits = 0;
+    int total = 0;
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      search.kNearestNeighbours(m_Instances.instance(i), m_NumNeighbors);
+      double[] found = search.getDistances();
+      exact.kNearestNeighbours(m_Instances.instance(i), m_NumNeighbors);
+      double kth = exact.getDistances()[m_NumNeighbors - 1];
+      for (int n = 0; n < m_NumNeighbors; n++) {
+        if (found[n] <= kth) {
+          hits++;
+        }
+      }
+      total += m_NumNeighbors;
+    }
+
+    double recall = search.getMeasure("measureMean_recall");
+    assertEquals("Measured recall differs", (double) hits / total, recall,
+      1e-10);
+    assertTrue("Recall too low: " + recall, recall > 0.95);
+  }
+
+  /**
+   * Tests that a graph built incrementally with update() finds nearly all the
+   * nearest neighbours.
+   */
+  public void testUpdate() throws Exception {
+    Instances data = new Instances(m_Instances, 0);
+    HNSW search = new HNSW();
+    search.setMeasurePerformance(true);
+    search.setInstances(data);
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      data.add(m_Instances.instance(i));
+      search.update(data.lastInstance());
+    }
+
+    for (int i = 0; i < data.numInstances(); i++) {
+      assertTrue("Too few neighbours for instance " + (i + 1),
+        search.kNearestNeighbours(data.instance(i), m_NumNeighbors)
+          .numInstances() >= m_NumNeighbors);
+    }
+    double recall = search.getMeasure("measureMean_recall");
+    assertTrue("Recall too low: " + recall, recall > 0.95);
+  }
+
+  public static Test suite() {
+    return new TestSuite(HNSWTest.class);
+  }
+
+  public static void main(String[] args){
+    junit.textui.TestRunner.run(suite());
+  }
+}
@@ -40,7 +40,23 @@ public class KDTreeTest
   public NearestNeighbourSearch getNearestNeighbourSearch() {
     return new KDTree();
   }
-  
+
+  /** Creates a KDTree that searches batches with several threads */
+  @Override
+  protected NearestNeighbourSearch getBatchSearch() {
+    KDTree search = new KDTree();
+    search.setNumThreads(3);
+    return search;
+  }
+
+  /** Creates a KDTree that builds the tree with several threads */
+  @Override
+  protected NearestNeighbourSearch getConcurrentBuildSearch() {
+    KDTree search = new KDTree();
+    search.setNumThreads(3);
+    return search;
+  }
+
   public static Test suite() {
     return new TestSuite(KDTreeTest.class);
   }
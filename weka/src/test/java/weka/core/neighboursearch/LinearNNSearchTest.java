@@ -19,8 +19,15 @@
 
 package weka.core.neighboursearch;
 
+import java.util.ArrayList;
+import java.util.Random;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
 
 /**
  * Tests LinearNNSearch. Run from the command line with: <p/>
@@ -40,6 +47,63 @@ public class LinearNNSearchTest
   public NearestNeighbourSearch getNearestNeighbourSearch() {
     return new LinearNNSearch();
   }
+
+  /**
+   * Generates numeric data with some missing values that is large enough
+   * for the scan to be split over several threads.
+   *
+   * @return the generated data
+   */
+  protected Instances getScanData() {
+    ArrayList<Attribute> atts = new ArrayList<Attribute>();
+    for (int j = 0; j < 5; j++) {
+      atts.add(new Attribute("att" + j));
+    }
+    int numInstances = LinearNNSearch.MIN_PARALLEL_INSTANCES + 2000;
+    Instances data = new Instances("scan", atts, numInstances);
+    Random random = new Random(1);
+    for (int i = 0; i < numInstances; i++) {
+      double[] values = new double[atts.size()];
+      for (int j = 0; j < values.length; j++) {
+        values[j] = (random.nextInt(100) == 0) ? Utils.missingValue()
+          : random.nextGaussian() * (j + 1);
+      }
+      data.add(new DenseInstance(1.0, values));
+    }
+
+    return data;
+  }
+
+  /**
+   * Tests that the scan over the packed data, single- and multi-threaded,
+   * finds the same neighbours as the distance function (which is used when
+   * the performance is measured).
+   */
+  public void testScan() throws Exception {
+    Instances data = getScanData();
+    LinearNNSearch reference = new LinearNNSearch(data);
+    reference.setMeasurePerformance(true);
+    for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+      LinearNNSearch search = new LinearNNSearch(data);
+      search.setNumThreads(numThreads);
+      for (int i = 0; i < data.numInstances(); i += 97) {
+        Instances expected = reference.kNearestNeighbours(data.instance(i),
+          m_NumNeighbors);
+        Instances actual = search.kNearestNeighbours(data.instance(i),
+          m_NumNeighbors);
+        assertSameNeighbours(expected, reference.getDistances(), actual,
+          search.getDistances());
+      }
+    }
+  }
+
+  /** Creates a LinearNNSearch that searches batches with several threads */
+  @Override
+  protected NearestNeighbourSearch getBatchSearch() {
+    LinearNNSearch search = new LinearNNSearch();
+    search.setNumThreads(3);
+    return search;
+  }
   
   public static Test suite() {
     return new TestSuite(LinearNNSearchTest.class);
@@ -20,6 +20,7 @@
 package weka.filters.unsupervised.attribute;
 
 import weka.core.Instances;
+import weka.core.SelectedTag;
 import weka.filters.AbstractFilterTest;
 import weka.filters.Filter;
 
@@ -60,6 +61,49 @@ public class StringToWordVectorTest extends AbstractFilterTest {
     assertEquals(m_Instances.numAttributes() - 2 + 3, result.numAttributes());
   }
 
+  /**
+   * Tests that building the dictionary and converting the data with several
+   * threads gives the same output as with a single thread, including a string
+   * attribute that is passed through.
+   */
+  public void testNumThreads() throws Exception {
+    Instances data = new Instances(m_Instances, 0);
+    while (data.numInstances() < 1600) {
+      for (int i = 0; i < m_Instances.numInstances(); i++) {
+        data.add(m_Instances.instance(i));
+      }
+    }
+    int stringIndex = -1;
+    for (int i = 0; i < data.numAttributes() && stringIndex < 0; i++) {
+      if (data.attribute(i).isString()) {
+        stringIndex = i;
+      }
+    }
+
+    Instances[] results = new Instances[2];
+    for (int n = 0; n < 2; n++) {
+      StringToWordVector filter = new StringToWordVector();
+      filter.setAttributeIndices("" + (stringIndex + 1));
+      filter.setOutputWordCounts(true);
+      filter.setIDFTransform(true);
+      filter.setNormalizeDocLength(new SelectedTag(
+        StringToWordVector.FILTER_NORMALIZE_ALL, StringToWordVector.TAGS_FILTER));
+      filter.setNumThreads(n == 0 ? 1 : 3);
+      filter.setInputFormat(data);
+      results[n] = Filter.useFilter(data, filter);
+    }
+
+    assertEquals(results[0].numAttributes(), results[1].numAttributes());
+    for (int i = 0; i < results[0].numAttributes(); i++) {
+      assertEquals(results[0].attribute(i).name(), results[1].attribute(i)
+        .name());
+    }
+    assertEquals(results[0].numInstances(), results[1].numInstances());
+    for (int i = 0; i < results[0].numInstances(); i++) {
+      assertEquals(results[0].instance(i).toString(), results[1].instance(i)
+        .toString());
+    }
+  }
 
   public static Test suite() {
     return new TestSuite(StringToWordVectorTest.class);